@@ -13,6 +13,7 @@ import org.sagebionetworks.repo.model.message.ChangeMessages;
 import org.sagebionetworks.repo.model.message.FireMessagesResult;
 import org.sagebionetworks.repo.model.message.PublishResults;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
@@ -142,6 +143,14 @@ public interface SynapseAdminClient extends SynapseClient {
 	 */
 	public MigrationRangeChecksum getChecksumForIdRange(MigrationType type, String salt, Long minId, Long maxId) throws SynapseException, JSONObjectAdapterException;
 	
+	/**
+	 * Get the checksums of each bucket of bucketSize ids of a migration type and range of ids.
+	 * Empty buckets are not included.
+	 * @throws SynapseException 
+	 * @throws JSONObjectAdapterException 
+	 */
+	public MigrationRangeChecksumList getBucketChecksumsForIdRange(MigrationType type, String salt, Long minId, Long maxId, Long bucketSize) throws SynapseException, JSONObjectAdapterException;
+	
 
 	/**
 	 * Get checksum for migration type and range of ids
@@ -20,6 +20,7 @@ import org.sagebionetworks.repo.model.message.ChangeMessages;
 import org.sagebionetworks.repo.model.message.FireMessagesResult;
 import org.sagebionetworks.repo.model.message.PublishResults;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
@@ -61,6 +62,7 @@ public class SynapseAdminClientImpl extends SynapseClientImpl implements Synapse
 	private static final String MIGRATION_PRIMARY = MIGRATION + "/primarytypes";
 	private static final String MIGRATION_TYPES = MIGRATION + "/types";
 	private static final String MIGRATION_RANGE_CHECKSUM = MIGRATION + "/rangechecksum";
+	private static final String MIGRATION_RANGE_BUCKET_CHECKSUMS = MIGRATION + "/rangebucketchecksums";
 	private static final String MIGRATION_TYPE_CHECKSUM = MIGRATION + "/typechecksum";
 
 	private static final String ADMIN_DYNAMO_CLEAR = ADMIN + "/dynamo/clear";
@@ -251,6 +253,19 @@ public class SynapseAdminClientImpl extends SynapseClientImpl implements Synapse
 		return mrc;
 	}
 	
+	@Override
+	public MigrationRangeChecksumList getBucketChecksumsForIdRange(MigrationType migrationType, String salt, Long minId, Long maxId, Long bucketSize) throws SynapseException, JSONObjectAdapterException {
+		if (migrationType == null || minId == null || maxId == null || bucketSize == null) {
+			throw new IllegalArgumentException("Arguments type, minId, maxId and bucketSize cannot be null");
+		}
+		String uri = MIGRATION_RANGE_BUCKET_CHECKSUMS + "?migrationType=" + migrationType.name() + "&salt=" + salt + "&minId=" + minId + "&maxId=" + maxId + "&bucketSize=" + bucketSize;
+		JSONObject jsonObj = getSharedClientConnection().getJson(repoEndpoint, uri, getUserAgent());
+		JSONObjectAdapter adapter = new JSONObjectAdapterImpl(jsonObj);
+		MigrationRangeChecksumList mrcl = new MigrationRangeChecksumList();
+		mrcl.initializeFromJSONObject(adapter);
+		return mrcl;
+	}
+	
 	@Override
 	public MigrationTypeChecksum getChecksumForType(MigrationType migrationType) throws SynapseException, JSONObjectAdapterException {
 		if (migrationType == null) {
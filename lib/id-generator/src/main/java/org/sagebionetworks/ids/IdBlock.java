@@ -0,0 +1,61 @@
+package org.sagebionetworks.ids;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A contiguous range of IDs that has been reserved in the ID database for the
+ * exclusive use of this node. IDs are handed out from the range with a single
+ * atomic increment so no lock is needed until the block is exhausted.
+ * 
+ */
+class IdBlock {
+
+	/**
+	 * A block with no IDs, used before the first block is reserved.
+	 */
+	static final IdBlock EMPTY = new IdBlock(1L, 0L);
+
+	private final AtomicLong next;
+	private final long last;
+
+	/**
+	 * 
+	 * @param first The first ID in the block (inclusive).
+	 * @param last The last ID in the block (inclusive).
+	 */
+	IdBlock(long first, long last) {
+		this.next = new AtomicLong(first);
+		this.last = last;
+	}
+
+	/**
+	 * Claim up to count IDs from this block.
+	 * 
+	 * @param count
+	 * @return The first claimed ID. The caller owns all IDs from the returned
+	 *         value up to the smaller of (first + count - 1) and
+	 *         {@link #getLast()}. If the returned value is greater than
+	 *         {@link #getLast()} then the block is exhausted and nothing was
+	 *         claimed.
+	 */
+	long claim(int count) {
+		return next.getAndAdd(count);
+	}
+
+	/**
+	 * The last ID in this block (inclusive).
+	 * 
+	 * @return
+	 */
+	long getLast() {
+		return last;
+	}
+
+	/**
+	 * Stop handing out IDs from this block. Any claim that starts after this
+	 * call finds the block exhausted.
+	 */
+	void close() {
+		next.set(last + 1);
+	}
+}
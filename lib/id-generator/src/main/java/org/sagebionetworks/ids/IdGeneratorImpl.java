@@ -2,9 +2,15 @@ package org.sagebionetworks.ids;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.sql.DataSource;
 
@@ -12,14 +18,23 @@ import org.sagebionetworks.StackConfiguration;
 import org.sagebionetworks.repo.transactions.NewWriteTransaction;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
-import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import org.sagebionetworks.repo.transactions.WriteTransaction;
 
 /**
  * This class creates domain unique ids using a MySql sequence via AUTO_INCREMENT of a primary key.
  * For a full explanation of how this works @See http://dev.mysql.com/doc/refman/5.1/en/information-functions.html#function_last-insert-id.
+ * <p>
+ * Types with a block size greater than one are served from a range of IDs that is
+ * reserved with a single statement and then handed out from memory. Block sizes
+ * default to one, which issues one reservation per ID. IDs from a block are unique
+ * but are not globally ordered across nodes, so only types that do not depend on
+ * creation order should be given a larger block.
+ * 
  * @author jmhill
  *
  */
@@ -35,6 +50,8 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 	
 	// This version sets the value to insert.  This is used to reserve the ID and all values less than the ID.
 	public static final String INSERT_SQL_INCREMENT = "INSERT INTO %1$S (ID, CREATED_ON) VALUES (?, ?)";
+	// Reserve a block of IDs above the current max. LAST_INSERT_ID(expr) makes the last ID of the block available to GET_ID_SQL.
+	public static final String INSERT_SQL_BLOCK = "INSERT INTO %1$S (ID, CREATED_ON) SELECT LAST_INSERT_ID(COALESCE(MAX(ID), 0) + ?), ? FROM %1$S";
 	// Get the current max.
 	public static final String MAX_ID = "SELECT MAX(ID) FROM %1$S";
 
@@ -43,43 +60,200 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 	// Determine if the table exists
 	public static final String TABLE_EXISTS_SQL_PERFIX = "SELECT TABLE_NAME FROM Information_schema.tables WHERE table_name = '%1$S' AND table_schema = '%2$s'";
 	
+	public static final int DEFAULT_BLOCK_SIZE = 1;
+	// The number of times a block reservation is attempted before giving up.
+	public static final int MAX_RESERVE_ATTEMPTS = 3;
+	
 	@Autowired
 	JdbcTemplate idGeneratorJdbcTemplate;
 	@Autowired
 	StackConfiguration stackConfiguration;
-
+	
+	private Map<TYPE, Integer> blockSizes = new EnumMap<TYPE, Integer>(TYPE.class);
+	// These maps are fully populated at construction and never modified.
+	private final Map<TYPE, AtomicReference<IdBlock>> blocks = new EnumMap<TYPE, AtomicReference<IdBlock>>(TYPE.class);
+	private final Map<TYPE, AtomicLong> refillCounts = new EnumMap<TYPE, AtomicLong>(TYPE.class);
+	private final Map<TYPE, AtomicLong> exhaustedCounts = new EnumMap<TYPE, AtomicLong>(TYPE.class);
+	
+	public IdGeneratorImpl(){
+		for(TYPE type: TYPE.values()){
+			blocks.put(type, new AtomicReference<IdBlock>(IdBlock.EMPTY));
+			refillCounts.put(type, new AtomicLong(0));
+			exhaustedCounts.put(type, new AtomicLong(0));
+		}
+	}
+	
 	/**
-	 * This call occurs in its own transaction.
+	 * Injected. The number of IDs to reserve at a time for each type. Types
+	 * that are not included use {@link #DEFAULT_BLOCK_SIZE}.
+	 * 
+	 * @param blockSizes
 	 */
-	@NewWriteTransaction
+	public void setBlockSizes(Map<TYPE, Integer> blockSizes) {
+		for(Integer size: blockSizes.values()){
+			if(size == null || size < 1) throw new IllegalArgumentException("Block size must be at least one");
+		}
+		this.blockSizes = new EnumMap<TYPE, Integer>(blockSizes);
+	}
+
 	@Override
 	public Long generateNewId() {
 		// Use the default domain
 		return generateNewId(TYPE.DOMAIN_IDS);
 	}
 
-	/**
-	 * This call occurs in its own transaction.
-	 */
-	@NewWriteTransaction
 	@Override
 	public Long generateNewId(TYPE type) {
-		// Create a new time
-		final long now = System.currentTimeMillis();
-		idGeneratorJdbcTemplate.update(String.format(INSERT_SQL, type.name()), new PreparedStatementSetter(){
-			@Override
-			public void setValues(PreparedStatement ps) throws SQLException {
-				ps.setLong(1, now);
-				
-			}});
-		// Get the ID we just created.
-		return idGeneratorJdbcTemplate.queryForLong(String.format(GET_ID_SQL, type.name()));
+		return generateNewIds(type, 1).get(0);
+	}
+	
+	@Override
+	public List<Long> generateNewIds(TYPE type, int count) {
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		if(count < 1) throw new IllegalArgumentException("Count must be at least one");
+		List<Long> ids = new ArrayList<Long>(count);
+		if(getBlockSize(type) == 1){
+			// Nothing is cached for this type so reserve exactly what was requested.
+			long last = reserveBlock(type, count);
+			addRange(ids, last-count+1, last);
+			return ids;
+		}
+		AtomicReference<IdBlock> current = blocks.get(type);
+		while(ids.size() < count){
+			IdBlock block = current.get();
+			int needed = count - ids.size();
+			long first = block.claim(needed);
+			long last = Math.min(block.getLast(), first+needed-1);
+			addRange(ids, first, last);
+			if(ids.size() < count){
+				// This block is used up.
+				exhaustedCounts.get(type).incrementAndGet();
+				refill(type, block, count - ids.size());
+			}
+		}
+		return ids;
+	}
+	
+	/**
+	 * Replace the exhausted block of the given type with a newly reserved block.
+	 * If another thread has already replaced the block this is a no-op.
+	 * 
+	 * @param type
+	 * @param exhausted
+	 * @param minimumSize The new block will contain at least this many IDs.
+	 */
+	private void refill(TYPE type, IdBlock exhausted, int minimumSize){
+		AtomicReference<IdBlock> current = blocks.get(type);
+		synchronized (current) {
+			if(current.get() != exhausted){
+				// Another thread already refilled this type.
+				return;
+			}
+			int size = Math.max(getBlockSize(type), minimumSize);
+			long last = reserveBlock(type, size);
+			current.set(new IdBlock(last-size+1, last));
+			refillCounts.get(type).incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Reserve a contiguous block of IDs in the database.
+	 * 
+	 * @param type
+	 * @param size
+	 * @return The last ID of the reserved block.
+	 */
+	private long reserveBlock(final TYPE type, final int size){
+		for(int attempt=1; ; attempt++){
+			try{
+				// Both statements must run on the same connection for LAST_INSERT_ID() to be valid.
+				return idGeneratorJdbcTemplate.execute(new ConnectionCallback<Long>(){
+					@Override
+					public Long doInConnection(Connection con) throws SQLException, DataAccessException {
+						final long now = System.currentTimeMillis();
+						PreparedStatement insert;
+						if(size == 1){
+							insert = con.prepareStatement(String.format(INSERT_SQL, type.name()));
+							insert.setLong(1, now);
+						}else{
+							insert = con.prepareStatement(String.format(INSERT_SQL_BLOCK, type.name()));
+							insert.setLong(1, size);
+							insert.setLong(2, now);
+						}
+						try{
+							insert.executeUpdate();
+						}finally{
+							insert.close();
+						}
+						Statement select = con.createStatement();
+						try{
+							ResultSet rs = select.executeQuery(GET_ID_SQL);
+							if(!rs.next()) throw new IllegalStateException("Failed to get the last inserted ID for: "+type.name());
+							return rs.getLong(1);
+						}finally{
+							select.close();
+						}
+					}});
+			}catch(DuplicateKeyException e){
+				// Another node reserved the same block.
+				if(attempt >= MAX_RESERVE_ATTEMPTS) throw e;
+			}catch(ConcurrencyFailureException e){
+				if(attempt >= MAX_RESERVE_ATTEMPTS) throw e;
+			}
+		}
+	}
+	
+	private static void addRange(List<Long> ids, long first, long last){
+		for(long id=first; id<=last; id++){
+			ids.add(id);
+		}
+	}
+	
+	/**
+	 * The number of IDs reserved at a time for the given type.
+	 * 
+	 * @param type
+	 * @return
+	 */
+	public int getBlockSize(TYPE type){
+		Integer size = blockSizes.get(type);
+		if(size == null){
+			return DEFAULT_BLOCK_SIZE;
+		}
+		return size;
+	}
+	
+	/**
+	 * The number of times a new block was reserved for the given type.
+	 * 
+	 * @param type
+	 * @return
+	 */
+	public long getRefillCount(TYPE type){
+		return refillCounts.get(type).get();
+	}
+	
+	/**
+	 * The number of times a caller found the block of the given type exhausted.
+	 * 
+	 * @param type
+	 * @return
+	 */
+	public long getExhaustedCount(TYPE type){
+		return exhaustedCounts.get(type).get();
 	}
 	
 	@NewWriteTransaction
 	@Override
 	public void reserveId(final Long idToLock, TYPE type) {
 		if(idToLock == null) throw new IllegalArgumentException("ID to reserve cannot be null");
+		// The cached block could contain the reserved ID, so no more IDs may be claimed from it.
+		AtomicReference<IdBlock> current = blocks.get(type);
+		synchronized (current) {
+			// Closing the block stops claims by threads that already read it.
+			current.get().close();
+			current.set(IdBlock.EMPTY);
+		}
 		// First check if this value is greater than the last value
 		Long max = idGeneratorJdbcTemplate.queryForLong(String.format(MAX_ID, type.name()));
 		if(idToLock > max){
@@ -0,0 +1,27 @@
+package org.sagebionetworks.ids;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IdBlockTest {
+
+	@Test
+	public void testClaim(){
+		IdBlock block = new IdBlock(10L, 12L);
+		assertEquals(10L, block.claim(2));
+		assertEquals(12L, block.claim(2));
+		// exhausted
+		assertTrue(block.claim(1) > block.getLast());
+	}
+
+	@Test
+	public void testClose(){
+		IdBlock block = new IdBlock(10L, 20L);
+		assertEquals(10L, block.claim(1));
+		// call under test
+		block.close();
+		assertTrue(block.claim(1) > block.getLast());
+	}
+}
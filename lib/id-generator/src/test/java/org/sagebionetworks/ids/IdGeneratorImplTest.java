@@ -5,6 +5,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Test;
@@ -69,4 +70,53 @@ public class IdGeneratorImplTest {
 		assertEquals(next.longValue(), id.longValue()+1);
 	}
 
+	
+	@Test
+	public void testGenerateNewIdsNoBlock(){
+		List<Long> ids = idGenerator.generateNewIds(TYPE.DOMAIN_IDS, 5);
+		assertEquals(5, ids.size());
+		// a batch is contiguous
+		for(int i=1; i<ids.size(); i++){
+			assertEquals(ids.get(i-1)+1, ids.get(i).longValue());
+		}
+		Long next = idGenerator.generateNewId();
+		assertEquals(ids.get(4)+1, next.longValue());
+	}
+	
+	@Test
+	public void testGenerateNewIdsBlock(){
+		IdGeneratorImpl impl = (IdGeneratorImpl) idGenerator;
+		int blockSize = impl.getBlockSize(TYPE.ACL_RES_ACC_ID);
+		assertTrue(blockSize > 1);
+		long startRefill = impl.getRefillCount(TYPE.ACL_RES_ACC_ID);
+		// Use more than two blocks of IDs.
+		Set<Long> unique = new HashSet<Long>();
+		for(int i=0; i<blockSize*2+1; i++){
+			assertTrue(unique.add(idGenerator.generateNewId(TYPE.ACL_RES_ACC_ID)));
+		}
+		// A batch larger than a block
+		List<Long> batch = idGenerator.generateNewIds(TYPE.ACL_RES_ACC_ID, blockSize*3);
+		assertEquals(blockSize*3, batch.size());
+		for(Long id: batch){
+			assertTrue(unique.add(id));
+		}
+		assertTrue(impl.getRefillCount(TYPE.ACL_RES_ACC_ID) - startRefill >= 3);
+		assertTrue(impl.getExhaustedCount(TYPE.ACL_RES_ACC_ID) > 0);
+	}
+	
+	@Test
+	public void testReserveIdBlock(){
+		Long id = idGenerator.generateNewId(TYPE.ACL_RES_ACC_ID);
+		Long reserved = id+5;
+		idGenerator.reserveId(reserved, TYPE.ACL_RES_ACC_ID);
+		// Cached IDs at or below the reserved ID must not be used.
+		Long next = idGenerator.generateNewId(TYPE.ACL_RES_ACC_ID);
+		assertTrue(next > reserved);
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testGenerateNewIdsCountZero(){
+		idGenerator.generateNewIds(TYPE.DOMAIN_IDS, 0);
+	}
+
 }
@@ -77,6 +77,48 @@ public class DMLUtils {
 		return builder.toString();
 	}
 	
+	/**
+	 * A batch insert or update SQL with a positional bind variable for each
+	 * column in the order of the mapping's field columns. Updated columns take
+	 * the inserted values so each column is only bound once.
+	 * @param mapping
+	 * @return
+	 */
+	public static String getBatchInsertOrUpdatePositional(TableMapping mapping){
+		if(mapping == null) throw new IllegalArgumentException("Mapping cannot be null");
+		if(mapping.getFieldColumns() == null) throw new IllegalArgumentException("DBOMapping.getFieldColumns() cannot be null");
+		StringBuilder builder = new StringBuilder();
+		builder.append("INSERT ");
+		if (!hasNonPrimaryKeyColumns(mapping)) {
+			builder.append("IGNORE ");
+		}
+		builder.append("INTO ");
+		builder.append(mapping.getTableName());
+		StringBuilder columns = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		StringBuilder update = new StringBuilder();
+		for(int i=0; i<mapping.getFieldColumns().length; i++){
+			FieldColumn fc = mapping.getFieldColumns()[i];
+			if(i != 0){
+				columns.append(", ");
+				values.append(", ");
+			}
+			columns.append("`").append(fc.getColumnName()).append("`");
+			values.append("?");
+			if(!fc.isPrimaryKey()){
+				if(update.length() > 0){
+					update.append(", ");
+				}
+				update.append("`").append(fc.getColumnName()).append("` = VALUES(`").append(fc.getColumnName()).append("`)");
+			}
+		}
+		builder.append("(").append(columns).append(") VALUES (").append(values).append(")");
+		if(update.length() > 0){
+			builder.append(" ON DUPLICATE KEY UPDATE ").append(update);
+		}
+		return builder.toString();
+	}
+	
 	/**
 	 * Does this table have any columns that are not part of the primary key
 	 * @param mapping
@@ -287,6 +329,31 @@ public class DMLUtils {
 		return builder.toString();
 	}
 	
+	/**
+	 * Build a statement that computes the checksum of each bucket of a range of backup ids
+	 * in a single scan. Each row is the bucket number and a checksum in the same form as
+	 * {@link #createSelectChecksumStatement(TableMapping)} for the ids of that bucket.
+	 * Bind variables: minId, bucketSize, salt, salt, minId, maxId
+	 */
+	public static String createSelectBucketChecksumStatement(TableMapping mapping) {
+
+		validateMigratableTableMapping(mapping);
+
+		String idColName = getBackupIdColumnName(mapping).getColumnName();
+		StringBuilder builder = new StringBuilder();
+		builder.append("SELECT (`");
+		builder.append(idColName);
+		builder.append("` - ?) DIV ? AS BUCKET, CONCAT(");
+		builder.append(buildAggregateCrc32Call(mapping, "SUM"));
+		builder.append(", '%', ");
+		builder.append(buildAggregateCrc32Call(mapping, "BIT_XOR"));
+		builder.append(") AS CHECKSUM FROM ");
+		builder.append(mapping.getTableName());
+		buildWhereBackupIdInRange(mapping, builder);
+		builder.append(" GROUP BY BUCKET ORDER BY BUCKET");
+		return builder.toString();
+	}
+	
 	/**
 	 * Builds the <aggregate>(crc32()) call
 	 * @param mapping
@@ -2,13 +2,16 @@ package org.sagebionetworks.repo.model.dbo.dao;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sagebionetworks.repo.model.ACCESS_TYPE;
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.ResourceAccess;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOAccessControlList;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOResourceAccessType;
 import org.sagebionetworks.repo.model.jdo.KeyFactory;
@@ -57,6 +60,22 @@ public class AccessControlListUtils {
 		return acl;
 	}
 	
+	/**
+	 * Create the resource access of an ACL.
+	 * @param principalToAccessType Map of principal ids to the access types granted to that principal.
+	 * @return A new set of ResourceAccess, each with its own copy of the access types.
+	 */
+	public static Set<ResourceAccess> createResourceAccess(Map<Long, Set<ACCESS_TYPE>> principalToAccessType) {
+		Set<ResourceAccess> raSet = new HashSet<ResourceAccess>(principalToAccessType.size());
+		for(Map.Entry<Long, Set<ACCESS_TYPE>> entry: principalToAccessType.entrySet()){
+			ResourceAccess ra = new ResourceAccess();
+			ra.setPrincipalId(entry.getKey());
+			ra.setAccessType(new HashSet<ACCESS_TYPE>(entry.getValue()));
+			raSet.add(ra);
+		}
+		return raSet;
+	}
+	
 	/**
 	 * Create a batch of resource access.
 	 * @param id
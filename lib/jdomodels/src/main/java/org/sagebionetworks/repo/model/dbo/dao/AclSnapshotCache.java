@@ -0,0 +1,223 @@
+package org.sagebionetworks.repo.model.dbo.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sagebionetworks.repo.model.ACCESS_TYPE;
+import org.sagebionetworks.repo.model.ResourceAccess;
+import org.sagebionetworks.util.Clock;
+import org.sagebionetworks.util.ValidateArgument;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A bounded, least-recently-used cache of the resource access of ACLs keyed by
+ * ACL id.
+ * <p>
+ * Each entry is an immutable snapshot that is only valid for the etag it was
+ * read with, so a caller must always present the current etag of the ACL row.
+ * Any update to an ACL issues a new etag, so a stale snapshot can never be
+ * returned for an ACL updated through the DAO, even on another machine.
+ * Snapshots also expire after a maximum age since resource access rows can be
+ * removed without changing the etag (for example when a principal is deleted
+ * and its rows are removed by cascade).
+ * <p>
+ * ACL ids are mapped onto a fixed number of lock stripes, each an independent
+ * least-recently-used map holding an equal share of the maximum size, so
+ * lookups of different ACLs rarely wait on each other. Eviction is therefore
+ * least-recently-used within a stripe rather than across the whole cache.
+ * <p>
+ * This class is thread-safe.
+ *
+ */
+public class AclSnapshotCache {
+
+	public static final int DEFAULT_NUMBER_OF_STRIPES = 16;
+
+	private final int maxSize;
+	private final long maxAgeMS;
+	private final Clock clock;
+	private final List<Map<Long, AclSnapshot>> stripes;
+
+	/**
+	 *
+	 * @param maxSize
+	 *            The maximum number of ACLs to keep in the cache.
+	 * @param maxAgeMS
+	 *            The maximum age of a snapshot in milliseconds.
+	 * @param clock
+	 */
+	public AclSnapshotCache(int maxSize, long maxAgeMS, Clock clock) {
+		this(maxSize, maxAgeMS, clock, Math.max(1, Math.min(DEFAULT_NUMBER_OF_STRIPES, maxSize)));
+	}
+
+	/**
+	 *
+	 * @param maxSize
+	 *            The maximum number of ACLs to keep in the cache.
+	 * @param maxAgeMS
+	 *            The maximum age of a snapshot in milliseconds.
+	 * @param clock
+	 * @param numberOfStripes
+	 *            Each stripe holds at most maxSize/numberOfStripes ACLs.
+	 */
+	public AclSnapshotCache(int maxSize, long maxAgeMS, Clock clock, int numberOfStripes) {
+		ValidateArgument.requirement(maxSize > 0, "maxSize must be greater than zero");
+		ValidateArgument.requirement(maxAgeMS > 0, "maxAgeMS must be greater than zero");
+		ValidateArgument.required(clock, "clock");
+		ValidateArgument.requirement(numberOfStripes > 0, "numberOfStripes must be greater than zero");
+		ValidateArgument.requirement(numberOfStripes <= maxSize, "numberOfStripes cannot be greater than maxSize");
+		this.maxSize = maxSize;
+		this.maxAgeMS = maxAgeMS;
+		this.clock = clock;
+		final int stripeSize = maxSize / numberOfStripes;
+		this.stripes = new ArrayList<Map<Long, AclSnapshot>>(numberOfStripes);
+		for (int i = 0; i < numberOfStripes; i++) {
+			this.stripes.add(new LinkedHashMap<Long, AclSnapshot>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, AclSnapshot> eldest) {
+					return size() > stripeSize;
+				}
+			});
+		}
+	}
+
+	/**
+	 * The stripe that holds the given ACL. Each stripe is its own lock.
+	 *
+	 * @param aclId
+	 * @return
+	 */
+	private Map<Long, AclSnapshot> stripe(Long aclId) {
+		return stripes.get((aclId.hashCode() & 0x7fffffff) % stripes.size());
+	}
+
+	/**
+	 * Get the resource access of an ACL.
+	 *
+	 * @param aclId
+	 * @param etag
+	 *            The current etag of the ACL.
+	 * @return A new set of ResourceAccess that the caller is free to modify, or
+	 *         null if there is no valid snapshot for the given etag.
+	 */
+	public Set<ResourceAccess> get(Long aclId, String etag) {
+		ValidateArgument.required(aclId, "aclId");
+		Map<Long, AclSnapshot> cache = stripe(aclId);
+		AclSnapshot snapshot;
+		synchronized (cache) {
+			snapshot = cache.get(aclId);
+			if (snapshot == null) {
+				return null;
+			}
+			if (!snapshot.etag.equals(etag) || clock.currentTimeMillis() - snapshot.cachedOn > maxAgeMS) {
+				cache.remove(aclId);
+				return null;
+			}
+		}
+		return snapshot.toResourceAccess();
+	}
+
+	/**
+	 * Add a snapshot of the resource access of an ACL.
+	 *
+	 * @param aclId
+	 * @param etag
+	 *            The etag read in the same statement as the resource access.
+	 * @param resourceAccess
+	 *            Map of principal ids to the access types granted to that
+	 *            principal. A copy is cached.
+	 */
+	public void put(Long aclId, String etag, Map<Long, Set<ACCESS_TYPE>> resourceAccess) {
+		ValidateArgument.required(aclId, "aclId");
+		ValidateArgument.required(etag, "etag");
+		ValidateArgument.required(resourceAccess, "resourceAccess");
+		AclSnapshot snapshot = new AclSnapshot(etag, clock.currentTimeMillis(), resourceAccess);
+		Map<Long, AclSnapshot> cache = stripe(aclId);
+		synchronized (cache) {
+			cache.put(aclId, snapshot);
+		}
+	}
+
+	/**
+	 * Remove the snapshot of an ACL.
+	 *
+	 * @param aclId
+	 */
+	public void invalidate(Long aclId) {
+		ValidateArgument.required(aclId, "aclId");
+		Map<Long, AclSnapshot> cache = stripe(aclId);
+		synchronized (cache) {
+			cache.remove(aclId);
+		}
+	}
+
+	/**
+	 * Remove all snapshots.
+	 */
+	public void clear() {
+		for (Map<Long, AclSnapshot> cache : stripes) {
+			synchronized (cache) {
+				cache.clear();
+			}
+		}
+	}
+
+	/**
+	 * The number of snapshots currently held.
+	 *
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for (Map<Long, AclSnapshot> cache : stripes) {
+			synchronized (cache) {
+				size += cache.size();
+			}
+		}
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getMaxAgeMS() {
+		return maxAgeMS;
+	}
+
+	public int getNumberOfStripes() {
+		return stripes.size();
+	}
+
+	/**
+	 * An immutable copy of the resource access of one ACL.
+	 */
+	private static class AclSnapshot {
+		private final String etag;
+		private final long cachedOn;
+		private final Map<Long, Set<ACCESS_TYPE>> resourceAccess;
+
+		AclSnapshot(String etag, long cachedOn, Map<Long, Set<ACCESS_TYPE>> resourceAccess) {
+			this.etag = etag;
+			this.cachedOn = cachedOn;
+			ImmutableMap.Builder<Long, Set<ACCESS_TYPE>> builder = ImmutableMap.builder();
+			for (Map.Entry<Long, Set<ACCESS_TYPE>> entry : resourceAccess.entrySet()) {
+				Set<ACCESS_TYPE> types = entry.getValue();
+				builder.put(entry.getKey(), types == null ? Collections.<ACCESS_TYPE> emptySet() : ImmutableSet.copyOf(types));
+			}
+			this.resourceAccess = builder.build();
+		}
+
+		Set<ResourceAccess> toResourceAccess() {
+			return AccessControlListUtils.createResourceAccess(resourceAccess);
+		}
+	}
+}
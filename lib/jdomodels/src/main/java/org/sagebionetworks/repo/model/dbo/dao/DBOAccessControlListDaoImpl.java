@@ -3,6 +3,8 @@ package org.sagebionetworks.repo.model.dbo.dao;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_ACL_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_ACL_OWNER_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_ACL_OWNER_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_RESOURCE_ACCESS_GROUP_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_RESOURCE_ACCESS_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_RESOURCE_ACCESS_OWNER;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_RESOURCE_ACCESS_TYPE_ELEMENT;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_RESOURCE_ACCESS_TYPE_ID;
@@ -14,8 +16,12 @@ import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_RESOUR
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -50,6 +56,7 @@ import org.sagebionetworks.util.ValidateArgument;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -62,17 +69,27 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 	static private Log log = LogFactory.getLog(DBOAccessControlListDaoImpl.class);	
 	private static final String IDS_PARAM_NAME = "ids_param";
 
-	private static final String SELECT_ACCESS_TYPES_FOR_RESOURCE = "SELECT "+COL_RESOURCE_ACCESS_TYPE_ELEMENT+" FROM "+TABLE_RESOURCE_ACCESS_TYPE+" WHERE "+COL_RESOURCE_ACCESS_TYPE_ID+" = ?";
-
 	private static final String DELETE_RESOURCE_ACCESS_SQL = "DELETE FROM "+TABLE_RESOURCE_ACCESS+" WHERE "+COL_RESOURCE_ACCESS_OWNER+" = ?";
 
-	private static final String SELECT_ALL_RESOURCE_ACCESS = "SELECT * FROM "+TABLE_RESOURCE_ACCESS+" WHERE "+COL_RESOURCE_ACCESS_OWNER+" = ?";
+	/**
+	 * Reads the ACL rows with all of their resource access in a single
+	 * statement. There is one row per access type, a row with a null type for a
+	 * principal without any access types and a row with a null principal for
+	 * an ACL without any resource access.
+	 */
+	private static final String SQL_SELECT_ACLS_WITH_RESOURCE_ACCESS = "SELECT A.*, RA."+COL_RESOURCE_ACCESS_GROUP_ID+", RAT."+COL_RESOURCE_ACCESS_TYPE_ELEMENT+
+			" FROM "+TABLE_ACCESS_CONTROL_LIST+" A"+
+			" LEFT JOIN "+TABLE_RESOURCE_ACCESS+" RA ON (RA."+COL_RESOURCE_ACCESS_OWNER+" = A."+COL_ACL_ID+")"+
+			" LEFT JOIN "+TABLE_RESOURCE_ACCESS_TYPE+" RAT ON (RAT."+COL_RESOURCE_ACCESS_TYPE_ID+" = RA."+COL_RESOURCE_ACCESS_ID+")"+
+			" WHERE A."+COL_ACL_ID+" IN (:"+IDS_PARAM_NAME+")";
 
 	private static final String SELECT_FOR_UPDATE = "SELECT * FROM "+TABLE_ACCESS_CONTROL_LIST+
 			" WHERE "+COL_ACL_OWNER_ID+" = :" + COL_ACL_OWNER_ID+" AND "+COL_ACL_OWNER_TYPE+" = :" + COL_ACL_OWNER_TYPE+" FOR UPDATE";
 
 	private static final String SQL_SELECT_ALL_ACL_WITH_ACL_ID = "SELECT * FROM "+TABLE_ACCESS_CONTROL_LIST+" WHERE "+COL_ACL_ID+" = ?";
 
+	private static final String SQL_SELECT_ALL_ACL_WITH_ACL_IDS = "SELECT * FROM "+TABLE_ACCESS_CONTROL_LIST+" WHERE "+COL_ACL_ID+" IN (:"+IDS_PARAM_NAME+")";
+
 	private static final String SQL_SELECT_OWNER_TYPE_FOR_RESOURCE = "SELECT "+COL_ACL_OWNER_TYPE+" FROM "+TABLE_ACCESS_CONTROL_LIST+" WHERE "+COL_ACL_ID+" = ?";
 
 	private static final String SQL_SELECT_ACL_ID_FOR_RESOURCE = "SELECT "+COL_ACL_ID+" FROM "+TABLE_ACCESS_CONTROL_LIST+
@@ -89,8 +106,6 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 	 * Keep a copy of the row mapper.
 	 */
 	private static RowMapper<DBOAccessControlList> aclRowMapper = (new DBOAccessControlList()).getTableMapping();
-
-	private static final RowMapper<DBOResourceAccess> accessMapper = new DBOResourceAccess().getTableMapping();
 	
 	private static final RowMapper<Long> rowMapperACLId= new RowMapper<Long>(){
 		@Override
@@ -117,6 +132,8 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 	@Autowired
 	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private AclSnapshotCache aclSnapshotCache;
 
 	@WriteTransaction
 	@Override
@@ -147,11 +164,16 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 	 */
 	private void populateResourceAccess(long dboId, Set<ResourceAccess> resourceAccess)
 			throws DatastoreException, NotFoundException {
+		if(resourceAccess.isEmpty()){
+			return;
+		}
+		// Reserve all of the IDs at once.
+		Iterator<Long> ids = idGenerator.generateNewIds(TYPE.ACL_RES_ACC_ID, resourceAccess.size()).iterator();
 		// Now create each Resource Access
 		for(ResourceAccess ra: resourceAccess) {
 			DBOResourceAccess dboRa = new DBOResourceAccess();
 			// assign an id
-			dboRa.setId(idGenerator.generateNewId(TYPE.ACL_RES_ACC_ID));
+			dboRa.setId(ids.next());
 			dboRa.setOwner(dboId);
 			if (ra.getPrincipalId()==null) {
 				throw new IllegalArgumentException("ResourceAccess cannot have null principalID");
@@ -185,6 +207,41 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 		return acl;
 	}
 
+	@Override
+	public List<AccessControlList> get(List<Long> aclIds) throws DatastoreException {
+		ValidateArgument.required(aclIds, "aclIds");
+		if(aclIds.isEmpty()){
+			return new ArrayList<AccessControlList>(0);
+		}
+		Set<Long> uniqueIds = new LinkedHashSet<Long>(aclIds);
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(IDS_PARAM_NAME, uniqueIds);
+		List<DBOAccessControlList> dboList = namedParameterJdbcTemplate.query(SQL_SELECT_ALL_ACL_WITH_ACL_IDS, params, aclRowMapper);
+		// Use the cache for any ACL that has not changed.
+		Map<Long, AccessControlList> found = new HashMap<Long, AccessControlList>(dboList.size());
+		List<Long> misses = new ArrayList<Long>();
+		for(DBOAccessControlList dboAcl: dboList){
+			AccessControlList acl = getFromCache(dboAcl);
+			if(acl != null){
+				found.put(dboAcl.getId(), acl);
+			}else{
+				misses.add(dboAcl.getId());
+			}
+		}
+		// Load everything else with a single query.
+		if(!misses.isEmpty()){
+			found.putAll(loadAcls(misses));
+		}
+		List<AccessControlList> results = new ArrayList<AccessControlList>(aclIds.size());
+		for(Long aclId: aclIds){
+			AccessControlList acl = found.get(aclId);
+			if(acl != null){
+				results.add(acl);
+			}
+		}
+		return results;
+	}
+
 	@Override
 	public Long getAclId(String id, ObjectType objectType)
 			throws DatastoreException, NotFoundException {
@@ -235,28 +292,84 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 	 * allows us to get the ACL with different parameters
 	 */
 	private AccessControlList doGet(DBOAccessControlList dboAcl) throws NotFoundException {
-		ObjectType ownerType = ObjectType.valueOf(dboAcl.getOwnerType());
-		AccessControlList acl = AccessControlListUtils.createAcl(dboAcl, ownerType);
-		// Now fetch the rest of the data for this ACL
-		List<DBOResourceAccess> raList = jdbcTemplate.query(SELECT_ALL_RESOURCE_ACCESS, accessMapper, dboAcl.getId());
-		Set<ResourceAccess> raSet = new HashSet<ResourceAccess>();
+		AccessControlList acl = getFromCache(dboAcl);
+		if(acl != null){
+			return acl;
+		}
+		acl = loadAcls(Collections.singletonList(dboAcl.getId())).get(dboAcl.getId());
+		if(acl == null){
+			// deleted since the ACL row was read.
+			throw new NotFoundException("Acl " + dboAcl.getId() + " not found");
+		}
+		return acl;
+	}
+
+	/**
+	 * Build an ACL from the cached snapshot of its resource access.
+	 * 
+	 * @param dboAcl
+	 * @return null if there is no snapshot for the current etag of the ACL.
+	 */
+	private AccessControlList getFromCache(DBOAccessControlList dboAcl) {
+		Set<ResourceAccess> raSet = aclSnapshotCache.get(dboAcl.getId(), dboAcl.getEtag());
+		if(raSet == null){
+			return null;
+		}
+		AccessControlList acl = AccessControlListUtils.createAcl(dboAcl, ObjectType.valueOf(dboAcl.getOwnerType()));
 		acl.setResourceAccess(raSet);
-		for(DBOResourceAccess raDbo: raList){
-			List<String> typeList = jdbcTemplate.query(SELECT_ACCESS_TYPES_FOR_RESOURCE, new RowMapper<String>(){
-				@Override
-				public String mapRow(ResultSet rs, int rowNum)throws SQLException {
-					return rs.getString(COL_RESOURCE_ACCESS_TYPE_ELEMENT);
-				}}, raDbo.getId());
-			// build up this type
-			ResourceAccess ra = new ResourceAccess();
-			ra.setPrincipalId(raDbo.getUserGroupId());
-			ra.setAccessType(new HashSet<ACCESS_TYPE>());
-			for(String typeString: typeList){
-				ra.getAccessType().add(ACCESS_TYPE.valueOf(typeString));
+		return acl;
+	}
+
+	/**
+	 * Load the given ACLs with all of their resource access using a single
+	 * query, and cache a snapshot of each.
+	 * 
+	 * @param aclIds
+	 * @return Map of ACL ids to ACLs. ACLs that do not exist are missing from
+	 *         the map.
+	 */
+	private Map<Long, AccessControlList> loadAcls(Collection<Long> aclIds) {
+		final Map<Long, DBOAccessControlList> dbos = new HashMap<Long, DBOAccessControlList>(aclIds.size());
+		final Map<Long, Map<Long, Set<ACCESS_TYPE>>> access = new HashMap<Long, Map<Long, Set<ACCESS_TYPE>>>(aclIds.size());
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(IDS_PARAM_NAME, aclIds);
+		namedParameterJdbcTemplate.query(SQL_SELECT_ACLS_WITH_RESOURCE_ACCESS, params, new RowCallbackHandler() {
+
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				long aclId = rs.getLong(COL_ACL_ID);
+				Map<Long, Set<ACCESS_TYPE>> principals = access.get(aclId);
+				if(principals == null){
+					dbos.put(aclId, aclRowMapper.mapRow(rs, rs.getRow()));
+					principals = new HashMap<Long, Set<ACCESS_TYPE>>();
+					access.put(aclId, principals);
+				}
+				long principalId = rs.getLong(COL_RESOURCE_ACCESS_GROUP_ID);
+				if(rs.wasNull()){
+					// this ACL has no resource access.
+					return;
+				}
+				Set<ACCESS_TYPE> types = principals.get(principalId);
+				if(types == null){
+					types = new HashSet<ACCESS_TYPE>();
+					principals.put(principalId, types);
+				}
+				String typeString = rs.getString(COL_RESOURCE_ACCESS_TYPE_ELEMENT);
+				if(typeString != null){
+					types.add(ACCESS_TYPE.valueOf(typeString));
+				}
 			}
-			raSet.add(ra);
+		});
+		Map<Long, AccessControlList> results = new HashMap<Long, AccessControlList>(dbos.size());
+		for(DBOAccessControlList dboAcl: dbos.values()){
+			Map<Long, Set<ACCESS_TYPE>> principals = access.get(dboAcl.getId());
+			// The etag was read by the same statement as the resource access.
+			aclSnapshotCache.put(dboAcl.getId(), dboAcl.getEtag(), principals);
+			AccessControlList acl = AccessControlListUtils.createAcl(dboAcl, ObjectType.valueOf(dboAcl.getOwnerType()));
+			acl.setResourceAccess(AccessControlListUtils.createResourceAccess(principals));
+			results.put(dboAcl.getId(), acl);
 		}
-		return acl;
+		return results;
 	}
 
 	@WriteTransaction
@@ -285,6 +398,7 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 		jdbcTemplate.update(DELETE_RESOURCE_ACCESS_SQL, dbo.getId());
 		// Now recreate it from the passed data.
 		populateResourceAccess(dbo.getId(), acl.getResourceAccess());
+		aclSnapshotCache.invalidate(dbo.getId());
 
 		transactionalMessenger.sendMessageAfterCommit(dbo.getId().toString(), ObjectType.ACCESS_CONTROL_LIST, 
 				acl.getEtag(), ChangeType.UPDATE);
@@ -329,6 +443,7 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 		try {
 			Long dboId = getAclId(ownerId, ownerType);
 			dboBasicDao.deleteObjectByPrimaryKey(DBOAccessControlList.class, params);
+			aclSnapshotCache.invalidate(dboId);
 			transactionalMessenger.sendMessageAfterCommit(dboId.toString(), ObjectType.ACCESS_CONTROL_LIST, 
 					UUID.randomUUID().toString(), ChangeType.DELETE);
 		} catch (NotFoundException e) {
@@ -351,6 +466,7 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 		List<Long> aclIds = getAclIds(ownerIds, ownerType);
 		for(Long aclId : aclIds){
 			transactionalMessenger.sendMessageAfterCommit(aclId.toString(), ObjectType.ACCESS_CONTROL_LIST, UUID.randomUUID().toString(), ChangeType.DELETE);
+			aclSnapshotCache.invalidate(aclId);
 		}
 		
 		MapSqlParameterSource params = new MapSqlParameterSource();
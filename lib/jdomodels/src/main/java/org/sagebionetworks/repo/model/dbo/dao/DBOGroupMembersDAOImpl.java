@@ -121,7 +121,8 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 		}
 		
 		// Use the affected UserGroup row as a lock 
-		userGroupDAO.getEtagForUpdate(groupId);
+		String etag = userGroupDAO.getEtagForUpdate(groupId);
+		transactionalMessenger.sendMessageAfterCommit(groupId, ObjectType.PRINCIPAL, etag, ChangeType.UPDATE);
 
 		// Delete some members
 		List<Long> sortedMemberIds = sortIds(memberIds);
@@ -152,6 +152,10 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 	private static final String GET_NODE_CREATED_BY_SQL = "SELECT "+COL_NODE_CREATED_BY+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" = ?";
 	private static final String UPDATE_ETAG_SQL = "UPDATE "+TABLE_NODE+" SET "+COL_NODE_ETAG+" = ? WHERE "+COL_NODE_ID+" = ?";
 	private static final String SQL_SELECT_PARENT_TYPE_NAME = "SELECT "+COL_NODE_ID+", "+COL_NODE_PARENT_ID+", "+COL_NODE_TYPE+", "+COL_NODE_NAME+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" = ?";
+	private static final String SQL_SELECT_PARENT_TYPE_NAME_IN = "SELECT "+COL_NODE_ID+", "+COL_NODE_PARENT_ID+", "+COL_NODE_TYPE+", "+COL_NODE_NAME+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" IN (:"+IDS_PARAM_NAME+")";
+	private static final String SQL_SELECT_NODES_IN = "SELECT * FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" IN (:"+IDS_PARAM_NAME+")";
+	private static final String SQL_SELECT_CURRENT_REVISIONS_IN = "SELECT R.* FROM "+TABLE_NODE+" N, "+TABLE_REVISION+" R WHERE N."+COL_NODE_ID+" IN (:"+IDS_PARAM_NAME+") AND R."+COL_REVISION_OWNER_NODE+" = N."+COL_NODE_ID+" AND R."+COL_REVISION_NUMBER+" = N."+COL_CURRENT_REV;
+	private static final String SQL_SELECT_CURRENT_ANNOTATIONS_IN = "SELECT N."+COL_NODE_ID+", N."+COL_NODE_ETAG+", N."+COL_NODE_CREATED_ON+", N."+COL_NODE_CREATED_BY+", R."+COL_REVISION_ANNOS_BLOB+" FROM  "+TABLE_NODE+" N, "+TABLE_REVISION+" R WHERE N."+COL_NODE_ID+" IN (:"+IDS_PARAM_NAME+") AND R."+COL_REVISION_OWNER_NODE+" = N."+COL_NODE_ID+" AND R."+COL_REVISION_NUMBER+" = N."+COL_CURRENT_REV;
 	private static final String SQL_GET_ALL_CHILDREN_IDS = "SELECT "+COL_NODE_ID+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_PARENT_ID+" = ? ORDER BY "+COL_NODE_ID;
 	private static final String NODE_IDS_LIST_PARAM_NAME = "NODE_IDS";
 	private static final String SQL_SELECT_ENTITY_DTO = "SELECT N."
@@ -435,6 +439,29 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 		return NodeUtils.copyFromJDO(jdo, rev);
 	}
 	
+	@Override
+	public List<Node> getNodes(List<Long> ids) {
+		ValidateArgument.required(ids, "ids");
+		if(ids.isEmpty()){
+			return new LinkedList<Node>();
+		}
+		MapSqlParameterSource params = new MapSqlParameterSource(IDS_PARAM_NAME, ids);
+		List<DBONode> jdos = namedParameterJdbcTemplate.query(SQL_SELECT_NODES_IN, params, new DBONode().getTableMapping());
+		List<DBORevision> revs = namedParameterJdbcTemplate.query(SQL_SELECT_CURRENT_REVISIONS_IN, params, new DBORevision().getTableMapping());
+		Map<Long, DBORevision> revMap = new HashMap<Long, DBORevision>(revs.size());
+		for(DBORevision rev: revs){
+			revMap.put(rev.getOwner(), rev);
+		}
+		List<Node> results = new LinkedList<Node>();
+		for(DBONode jdo: jdos){
+			DBORevision rev = revMap.get(jdo.getId());
+			if(rev != null){
+				results.add(NodeUtils.copyFromJDO(jdo, rev));
+			}
+		}
+		return results;
+	}
+	
 	@Override
 	public Node getNodeForVersion(String id, Long versionNumber) throws NotFoundException, DatastoreException {
 		if(id == null) throw new IllegalArgumentException("Id cannot be null");
@@ -597,6 +624,16 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 		}
 	}
 	
+	@Override
+	public List<NamedAnnotations> getAnnotations(List<Long> ids) {
+		ValidateArgument.required(ids, "ids");
+		if(ids.isEmpty()){
+			return new LinkedList<NamedAnnotations>();
+		}
+		MapSqlParameterSource params = new MapSqlParameterSource(IDS_PARAM_NAME, ids);
+		return namedParameterJdbcTemplate.query(SQL_SELECT_CURRENT_ANNOTATIONS_IN, params, new AnnotationRowMapper());
+	}
+	
 	/**
 	 * A RowMapper that extracts NamedAnnotations from a result set.
 	 * The result set must COL_REVISION_ANNOS_BLOB, COL_NODE_ETAG, COL_NODE_CREATED_ON, COL_NODE_ID, COL_NODE_CREATED_BY
@@ -1091,23 +1128,22 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 	}
 	
 	/**
-	 * returns up to n ancestors of nodeId, ordered from leaf to root and including the given node Id
+	 * returns up to {@link #BATCH_PATH_DEPTH} ancestors of nodeId, ordered from leaf to root and including the given node Id
 	 * 
 	 * @param nodeId
-	 * @param n
 	 * @return
 	 * @throws NotFoundException
 	 */
-	private List<ParentTypeName> getAncestorsPTN(Long nodeId, int depth) throws NotFoundException {
+	private List<ParentTypeName> getAncestorsPTN(Long nodeId) throws NotFoundException {
 		if(nodeId == null) throw new IllegalArgumentException("NodeId cannot be null");
 		Map<String, Object> row = null;
 		try {
-			row = jdbcTemplate.queryForMap(nodeAncestorSQL(depth), nodeId);
+			row = jdbcTemplate.queryForMap(SQL_SELECT_ANCESTORS_BATCH, nodeId);
 		} catch (EmptyResultDataAccessException e) {
 			throw new NotFoundException("Entity " + nodeId + " is not found.");
 		}
 		List<ParentTypeName> result = new ArrayList<ParentTypeName>();
-		for (int i=0; i<depth; i++) {
+		for (int i=0; i<BATCH_PATH_DEPTH; i++) {
 			Long id = (Long)row.get(COL_NODE_ID+"_"+i);
 			if (id==null) break;
 			ParentTypeName ptn = new ParentTypeName();
@@ -1142,37 +1178,95 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 		return "("+outerJoinElement(i-1)+") \nLEFT OUTER JOIN JDONODE n"+(i)+" ON n"+(i-1)+".parent_id=n"+(i)+".id";
 	}
 	
+	/**
+	 * The number of ancestors fetched by a single query. MySQL 5.x has no
+	 * recursive queries, so each level is a LEFT OUTER JOIN on the primary key.
+	 * Paths up to this depth are read with a single query; deeper paths need one
+	 * query per batch. Must stay well below MySQL's limit of 61 tables per join.
+	 */
+	public static final int BATCH_PATH_DEPTH = 20;
+	
+	private static final String SQL_SELECT_ANCESTORS_BATCH = nodeAncestorSQL(BATCH_PATH_DEPTH);
+	
+	/**
+	 * Build up the full path of an entity in batches of {@link #BATCH_PATH_DEPTH}
+	 * ancestors rather than one node at a time.
+	 * The first EntityHeader in the results will be the Root Node, and the last EntityHeader will be the requested Node.
+	 */
 	@Override
 	public List<EntityHeader> getEntityPath(String nodeId) throws DatastoreException, NotFoundException {
-		// Call the recursive method
-		LinkedList<EntityHeader> results = new LinkedList<EntityHeader>();
-		appendPathBatch(results, KeyFactory.stringToKey(nodeId));
+		// gathered from leaf to root.
+		List<EntityHeader> results = new ArrayList<EntityHeader>(BATCH_PATH_DEPTH);
+		Long nextId = KeyFactory.stringToKey(nodeId);
+		while(nextId != null){
+			List<ParentTypeName> ptns = getAncestorsPTN(nextId); // ordered from leaf to root, length always >=1
+			for (ParentTypeName ptn : ptns) {
+				results.add(createHeaderFromParentTypeName(ptn, null, null));
+			}
+			nextId = ptns.get(ptns.size()-1).getParentId();
+		}
+		Collections.reverse(results);
+		return results;
+	}
+	
+	@Override
+	public Map<Long, List<EntityHeader>> getEntityPaths(List<Long> nodeIds) {
+		ValidateArgument.required(nodeIds, "nodeIds");
+		// Read the ancestors of every node one level at a time.
+		Map<Long, ParentTypeName> ptnMap = new HashMap<Long, ParentTypeName>();
+		Set<Long> toLoad = new HashSet<Long>(nodeIds);
+		while(!toLoad.isEmpty()){
+			List<ParentTypeName> level = getParentTypeNames(toLoad);
+			for(ParentTypeName ptn: level){
+				ptnMap.put(ptn.getId(), ptn);
+			}
+			toLoad = new HashSet<Long>();
+			for(ParentTypeName ptn: level){
+				if(ptn.getParentId() != null && !ptnMap.containsKey(ptn.getParentId())){
+					toLoad.add(ptn.getParentId());
+				}
+			}
+		}
+		Map<Long, List<EntityHeader>> results = new HashMap<Long, List<EntityHeader>>(nodeIds.size());
+		for(Long nodeId: nodeIds){
+			ParentTypeName ptn = ptnMap.get(nodeId);
+			if(ptn == null){
+				continue;
+			}
+			// gathered from leaf to root.
+			List<EntityHeader> path = new ArrayList<EntityHeader>();
+			while(ptn != null){
+				path.add(createHeaderFromParentTypeName(ptn, null, null));
+				ptn = ptn.getParentId() == null ? null : ptnMap.get(ptn.getParentId());
+			}
+			Collections.reverse(path);
+			results.put(nodeId, path);
+		}
 		return results;
 	}
 	
-	public static final int BATCH_PATH_DEPTH = 5;
-
 	/**
-	 * A recursive method to build up the full path of of an entity, recursing in batch rather than one 
-	 * node at a time.
-	 * The first EntityHeader in the results will be the Root Node, and the last EntityHeader will be the requested Node.
-	 * @param results
-	 * @param nodeId
-	 * @throws NotFoundException 
-	 * @throws DatastoreException 
+	 * Fetch the Parent, Type, Name for a set of nodes.
+	 * @param nodeIds
+	 * @return
 	 */
-	private void appendPathBatch(LinkedList<EntityHeader> results, Long nodeId) throws NotFoundException, DatastoreException{
-		List<ParentTypeName> ptns = getAncestorsPTN(nodeId, BATCH_PATH_DEPTH); // ordered from leaf to root, length always >=1
-		for (ParentTypeName ptn : ptns) {
-			EntityHeader header = createHeaderFromParentTypeName(ptn, null, null);
-			// Add at the front
-			results.add(0, header);
-		}
-		Long lastParentId = ptns.get(ptns.size()-1).getParentId();
-		if(lastParentId!= null){
-			// Recurse
-			appendPathBatch(results, lastParentId);
-		}
+	private List<ParentTypeName> getParentTypeNames(Set<Long> nodeIds){
+		MapSqlParameterSource params = new MapSqlParameterSource(IDS_PARAM_NAME, nodeIds);
+		return namedParameterJdbcTemplate.query(SQL_SELECT_PARENT_TYPE_NAME_IN, params, new RowMapper<ParentTypeName>() {
+
+			@Override
+			public ParentTypeName mapRow(ResultSet rs, int rowNum) throws SQLException {
+				ParentTypeName ptn = new ParentTypeName();
+				ptn.setId(rs.getLong(COL_NODE_ID));
+				ptn.setName(rs.getString(COL_NODE_NAME));
+				ptn.setParentId(rs.getLong(COL_NODE_PARENT_ID));
+				if(rs.wasNull()){
+					ptn.setParentId(null);
+				}
+				ptn.setType(EntityType.valueOf(rs.getString(COL_NODE_TYPE)));
+				return ptn;
+			}
+		});
 	}
 	
 	@Override
@@ -7,7 +7,12 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.sagebionetworks.reflection.model.PaginatedResults;
@@ -25,7 +30,10 @@ import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.util.ValidateArgument;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 public class DBODiscussionReplyDAOImpl implements DiscussionReplyDAO{
 
@@ -34,6 +42,8 @@ public class DBODiscussionReplyDAOImpl implements DiscussionReplyDAO{
 	@Autowired
 	private DBOBasicDao basicDao;
 
+	public static final int MAX_ACTIVE_AUTHORS = 5;
+
 	private RowMapper<DiscussionReplyBundle> DISCUSSION_REPLY_BUNDLE_ROW_MAPPER = new RowMapper<DiscussionReplyBundle>(){
 
 		@Override
@@ -99,7 +109,28 @@ public class DBODiscussionReplyDAOImpl implements DiscussionReplyDAO{
 			+" AND "+COL_DISCUSSION_REPLY_IS_DELETED+" = FALSE "
 			+" GROUP BY "+COL_DISCUSSION_REPLY_CREATED_BY
 			+" ORDER BY COUNT(*) DESC"
-			+" LIMIT 5";
+			+" LIMIT "+MAX_ACTIVE_AUTHORS;
+
+	private static final String THREAD_IDS = "threadIds";
+
+	// Used by the stats worker for a batch of threads, ordered by threadId to prevent deadlock.
+	private static final String SQL_SELECT_THREAD_REPLY_STATS = "SELECT "
+			+COL_DISCUSSION_REPLY_THREAD_ID+", "
+			+"COUNT(*) AS "+COL_DISCUSSION_THREAD_STATS_NUMBER_OF_REPLIES+", "
+			+"MAX("+COL_DISCUSSION_REPLY_MODIFIED_ON+") AS "+COL_DISCUSSION_THREAD_STATS_LAST_ACTIVITY+" "
+			+"FROM "+TABLE_DISCUSSION_REPLY+" "
+			+"WHERE "+COL_DISCUSSION_REPLY_IS_DELETED+" = FALSE "
+			+"AND "+COL_DISCUSSION_REPLY_THREAD_ID+" IN (:"+THREAD_IDS+") "
+			+"GROUP BY "+COL_DISCUSSION_REPLY_THREAD_ID+" "
+			+"ORDER BY "+COL_DISCUSSION_REPLY_THREAD_ID;
+
+	private static final String SQL_SELECT_THREAD_AUTHOR_STATS = "SELECT "
+			+COL_DISCUSSION_REPLY_THREAD_ID+", "+COL_DISCUSSION_REPLY_CREATED_BY
+			+" FROM "+TABLE_DISCUSSION_REPLY
+			+" WHERE "+COL_DISCUSSION_REPLY_THREAD_ID+" IN (:"+THREAD_IDS+")"
+			+" AND "+COL_DISCUSSION_REPLY_IS_DELETED+" = FALSE "
+			+" GROUP BY "+COL_DISCUSSION_REPLY_THREAD_ID+", "+COL_DISCUSSION_REPLY_CREATED_BY
+			+" ORDER BY "+COL_DISCUSSION_REPLY_THREAD_ID+", COUNT(*) DESC";
 
 	private static final String SQL_SELECT_REPLY_COUNT = "SELECT COUNT(*)"
 			+" FROM "+TABLE_DISCUSSION_REPLY
@@ -290,6 +321,49 @@ public class DBODiscussionReplyDAOImpl implements DiscussionReplyDAO{
 		return jdbcTemplate.queryForObject(SQL_SELECT_THREAD_REPLY_STAT, DISCUSSION_THREAD_REPLY_STAT_ROW_MAPPER, threadId);
 	}
 
+	@Override
+	public Map<Long, DiscussionThreadReplyStat> getThreadReplyStats(Set<Long> threadIds) {
+		ValidateArgument.required(threadIds, "threadIds");
+		final Map<Long, DiscussionThreadReplyStat> results = new LinkedHashMap<Long, DiscussionThreadReplyStat>();
+		if (threadIds.isEmpty()) {
+			return results;
+		}
+		NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+		MapSqlParameterSource parameters = new MapSqlParameterSource(THREAD_IDS, threadIds);
+		for (DiscussionThreadReplyStat stat : namedTemplate.query(SQL_SELECT_THREAD_REPLY_STATS, parameters, DISCUSSION_THREAD_REPLY_STAT_ROW_MAPPER)) {
+			results.put(stat.getThreadId(), stat);
+		}
+		return results;
+	}
+
+	@Override
+	public Map<Long, List<String>> getActiveAuthors(Set<Long> threadIds) {
+		ValidateArgument.required(threadIds, "threadIds");
+		final Map<Long, List<String>> results = new HashMap<Long, List<String>>();
+		if (threadIds.isEmpty()) {
+			return results;
+		}
+		NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+		MapSqlParameterSource parameters = new MapSqlParameterSource(THREAD_IDS, threadIds);
+		namedTemplate.query(SQL_SELECT_THREAD_AUTHOR_STATS, parameters, new RowCallbackHandler(){
+
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				long threadId = rs.getLong(COL_DISCUSSION_REPLY_THREAD_ID);
+				List<String> authors = results.get(threadId);
+				if (authors == null) {
+					authors = new LinkedList<String>();
+					results.put(threadId, authors);
+				}
+				// the authors of each thread are ordered by their number of replies.
+				if (authors.size() < MAX_ACTIVE_AUTHORS) {
+					authors.add(rs.getString(COL_DISCUSSION_REPLY_CREATED_BY));
+				}
+			}
+		});
+		return results;
+	}
+
 	@Override
 	public List<String> getActiveAuthors(long threadId) {
 		return jdbcTemplate.query(SQL_SELECT_THREAD_AUTHOR_STAT, new RowMapper<String>(){
@@ -11,9 +11,12 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import org.sagebionetworks.repo.model.dao.discussion.DiscussionThreadDAO;
@@ -35,6 +38,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -257,6 +261,27 @@ public class DBODiscussionThreadDAOImpl implements DiscussionThreadDAO {
 	private static final String SQL_SELECT_THREAD_VIEW_COUNT = "SELECT COUNT(*)"
 			+" FROM "+TABLE_DISCUSSION_THREAD_VIEW
 			+" WHERE "+COL_DISCUSSION_THREAD_VIEW_THREAD_ID+" = ?";
+	private static final String THREAD_IDS = "threadIds";
+	private static final String VIEW_COUNT = "VIEW_COUNT";
+	private static final String SQL_SELECT_THREAD_VIEW_COUNTS = "SELECT "
+			+COL_DISCUSSION_THREAD_VIEW_THREAD_ID+", COUNT(*) AS "+VIEW_COUNT
+			+" FROM "+TABLE_DISCUSSION_THREAD_VIEW
+			+" WHERE "+COL_DISCUSSION_THREAD_VIEW_THREAD_ID+" IN (:"+THREAD_IDS+")"
+			+" GROUP BY "+COL_DISCUSSION_THREAD_VIEW_THREAD_ID;
+	private static final String SQL_UPDATE_THREAD_VIEW_STATS = "INSERT INTO "
+			+TABLE_DISCUSSION_THREAD_STATS+" ("
+			+COL_DISCUSSION_THREAD_STATS_THREAD_ID+", "
+			+COL_DISCUSSION_THREAD_STATS_NUMBER_OF_VIEWS+" ) VALUES (?, ?) ON DUPLICATE KEY UPDATE "
+			+COL_DISCUSSION_THREAD_STATS_NUMBER_OF_VIEWS+" = ?";
+	private static final String SQL_UPDATE_THREAD_REPLY_STATS = "INSERT INTO "
+			+TABLE_DISCUSSION_THREAD_STATS+" ("
+			+COL_DISCUSSION_THREAD_STATS_THREAD_ID+", "
+			+COL_DISCUSSION_THREAD_STATS_ACTIVE_AUTHORS+", "
+			+COL_DISCUSSION_THREAD_STATS_NUMBER_OF_REPLIES+", "
+			+COL_DISCUSSION_THREAD_STATS_LAST_ACTIVITY+" ) VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE "
+			+COL_DISCUSSION_THREAD_STATS_ACTIVE_AUTHORS+" = ?, "
+			+COL_DISCUSSION_THREAD_STATS_NUMBER_OF_REPLIES+" = ?, "
+			+COL_DISCUSSION_THREAD_STATS_LAST_ACTIVITY+" = ? ";
 
 	private static final String SQL_UPDATE_THREAD_STATS = "INSERT INTO "
 			+TABLE_DISCUSSION_THREAD_STATS+" ("
@@ -419,6 +444,83 @@ public class DBODiscussionThreadDAOImpl implements DiscussionThreadDAO {
 		return jdbcTemplate.queryForLong(SQL_SELECT_THREAD_VIEW_COUNT, threadId);
 	}
 
+	@WriteTransactionReadCommitted
+	@Override
+	public void updateThreadViews(Map<Long, Set<Long>> userIdsByThreadId) {
+		ValidateArgument.required(userIdsByThreadId, "userIdsByThreadId");
+		if (userIdsByThreadId.isEmpty()) {
+			return;
+		}
+		// Threads are always written in order of their IDs to prevent deadlock.
+		final List<Long> threadIds = new ArrayList<Long>(new TreeSet<Long>(userIdsByThreadId.keySet()));
+		final List<Long> viewThreadIds = new ArrayList<Long>();
+		final List<Long> viewUserIds = new ArrayList<Long>();
+		for (Long threadId : threadIds) {
+			for (Long userId : new TreeSet<Long>(userIdsByThreadId.get(threadId))) {
+				viewThreadIds.add(threadId);
+				viewUserIds.add(userId);
+			}
+		}
+		jdbcTemplate.batchUpdate(SQL_UPDATE_THREAD_VIEW_TABLE, new BatchPreparedStatementSetter(){
+
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				ps.setLong(1, viewThreadIds.get(i));
+				ps.setLong(2, viewUserIds.get(i));
+			}
+
+			@Override
+			public int getBatchSize() {
+				return viewThreadIds.size();
+			}
+		});
+		// Count the viewers of all threads with one query.
+		final Map<Long, Long> viewCounts = new HashMap<Long, Long>();
+		NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+		namedTemplate.query(SQL_SELECT_THREAD_VIEW_COUNTS, new MapSqlParameterSource(THREAD_IDS, threadIds), new RowCallbackHandler(){
+
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				viewCounts.put(rs.getLong(COL_DISCUSSION_THREAD_VIEW_THREAD_ID), rs.getLong(VIEW_COUNT));
+			}
+		});
+		// A thread without views no longer exists.
+		final List<Long> existingThreadIds = new ArrayList<Long>();
+		for (Long threadId : threadIds) {
+			if (viewCounts.containsKey(threadId)) {
+				existingThreadIds.add(threadId);
+			}
+		}
+		jdbcTemplate.batchUpdate(SQL_UPDATE_THREAD_VIEW_STATS, new BatchPreparedStatementSetter(){
+
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				Long threadId = existingThreadIds.get(i);
+				ps.setLong(1, threadId);
+				ps.setLong(2, viewCounts.get(threadId));
+				ps.setLong(3, viewCounts.get(threadId));
+			}
+
+			@Override
+			public int getBatchSize() {
+				return existingThreadIds.size();
+			}
+		});
+		jdbcTemplate.batchUpdate(SQL_UPDATE_THREAD_ETAG, new BatchPreparedStatementSetter(){
+
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				ps.setString(1, UUID.randomUUID().toString());
+				ps.setLong(2, existingThreadIds.get(i));
+			}
+
+			@Override
+			public int getBatchSize() {
+				return existingThreadIds.size();
+			}
+		});
+	}
+
 	@WriteTransactionReadCommitted
 	@Override
 	public String getEtagForUpdate(long threadId) {
@@ -630,6 +732,47 @@ public class DBODiscussionThreadDAOImpl implements DiscussionThreadDAO {
 		});
 	}
 
+	@WriteTransactionReadCommitted
+	@Override
+	public void updateThreadReplyStats(final List<DiscussionThreadStat> stats) {
+		ValidateArgument.required(stats, "stats");
+		jdbcTemplate.batchUpdate(SQL_UPDATE_THREAD_REPLY_STATS, new BatchPreparedStatementSetter(){
+
+			@Override
+			public void setValues(PreparedStatement ps, int i)
+					throws SQLException {
+				DiscussionThreadStat stat = stats.get(i);
+				ps.setLong(1, stat.getThreadId());
+				if (stat.getActiveAuthors() == null) {
+					ps.setNull(2, Types.VARCHAR);
+					ps.setNull(5, Types.VARCHAR);
+				} else {
+					ps.setString(2, DiscussionThreadUtils.toCsvString(stat.getActiveAuthors()));
+					ps.setString(5, DiscussionThreadUtils.toCsvString(stat.getActiveAuthors()));
+				}
+				if (stat.getNumberOfReplies() == null) {
+					ps.setNull(3, Types.BIGINT);
+					ps.setNull(6, Types.BIGINT);
+				} else {
+					ps.setLong(3, stat.getNumberOfReplies());
+					ps.setLong(6, stat.getNumberOfReplies());
+				}
+				if (stat.getLastActivity() == null) {
+					ps.setNull(4, Types.TIMESTAMP);
+					ps.setNull(7, Types.TIMESTAMP);
+				} else {
+					ps.setTimestamp(4, new Timestamp(stat.getLastActivity()));
+					ps.setTimestamp(7, new Timestamp(stat.getLastActivity()));
+				}
+			}
+
+			@Override
+			public int getBatchSize() {
+				return stats.size();
+			}
+		});
+	}
+
 	@Override
 	public void markThreadAsNotDeleted(long threadId) {
 		String etag = UUID.randomUUID().toString();
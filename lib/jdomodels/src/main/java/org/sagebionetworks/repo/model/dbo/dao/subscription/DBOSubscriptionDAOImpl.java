@@ -82,6 +82,25 @@ public class DBOSubscriptionDAOImpl implements SubscriptionDAO{
 			+ COL_PRINCIPAL_ALIAS_TYPE + " = '" + AliasType.USER_NAME.name()
 			+ "'";
 
+	private static final String SQL_GET_EMAIL_SUBSCRIBERS_PAGE = SQL_GET_EMAIL_SUBSCRIBERS
+			+ " AND S." + COL_SUBSCRIPTION_ID + " > ?"
+			+ " ORDER BY S." + COL_SUBSCRIPTION_ID + " LIMIT ?";
+
+	private static final RowMapper<Subscriber> SUBSCRIBER_ROW_MAPPER = new RowMapper<Subscriber>(){
+
+		@Override
+		public Subscriber mapRow(ResultSet rs, int rowNum)
+				throws SQLException {
+			Subscriber sub = new Subscriber();
+			sub.setFirstName(rs.getString(COL_USER_PROFILE_FIRST_NAME));
+			sub.setLastName(rs.getString(COL_USER_PROFILE_LAST_NAME));
+			sub.setSubscriberId(rs.getString(COL_SUBSCRIPTION_SUBSCRIBER_ID));
+			sub.setSubscriptionId(rs.getString(COL_SUBSCRIPTION_ID));
+			sub.setNotificationEmail(rs.getString("EMAIL"));
+			sub.setUsername(rs.getString("USERNAME"));
+			return sub;
+		}};
+
 	private static final String SQL_INSERT_IGNORE = "INSERT IGNORE INTO "
 			+ TABLE_SUBSCRIPTION + " ( "
 			+ COL_SUBSCRIPTION_ID + ", "
@@ -324,20 +343,16 @@ public class DBOSubscriptionDAOImpl implements SubscriptionDAO{
 			SubscriptionObjectType objectType) {
 		ValidateArgument.required(objectId, "objectId");
 		ValidateArgument.required(objectType, "objectType");
-		return jdbcTemplate.query(SQL_GET_EMAIL_SUBSCRIBERS, new RowMapper<Subscriber>(){
+		return jdbcTemplate.query(SQL_GET_EMAIL_SUBSCRIBERS, SUBSCRIBER_ROW_MAPPER, objectId, objectType.name());
+	}
 
-			@Override
-			public Subscriber mapRow(ResultSet rs, int rowNum)
-					throws SQLException {
-				Subscriber sub = new Subscriber();
-				sub.setFirstName(rs.getString(COL_USER_PROFILE_FIRST_NAME));
-				sub.setLastName(rs.getString(COL_USER_PROFILE_LAST_NAME));
-				sub.setSubscriberId(rs.getString(COL_SUBSCRIPTION_SUBSCRIBER_ID));
-				sub.setSubscriptionId(rs.getString(COL_SUBSCRIPTION_ID));
-				sub.setNotificationEmail(rs.getString("EMAIL"));
-				sub.setUsername(rs.getString("USERNAME"));
-				return sub;
-			}},objectId, objectType.name());
+	@Override
+	public List<Subscriber> getEmailSubscribers(String objectId,
+			SubscriptionObjectType objectType, long afterSubscriptionId, long limit) {
+		ValidateArgument.required(objectId, "objectId");
+		ValidateArgument.required(objectType, "objectType");
+		ValidateArgument.requirement(limit > 0, "limit must be greater than zero.");
+		return jdbcTemplate.query(SQL_GET_EMAIL_SUBSCRIBERS_PAGE, SUBSCRIBER_ROW_MAPPER, objectId, objectType.name(), afterSubscriptionId, limit);
 	}
 
 	@Override
@@ -0,0 +1,227 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.repo.model.dao.table.ChangeSetReader;
+import org.sagebionetworks.repo.model.dao.table.RowHandler;
+import org.sagebionetworks.repo.model.dao.table.TableRowTruthDAO;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.Row;
+import org.sagebionetworks.repo.model.table.RowSet;
+import org.sagebionetworks.repo.model.table.TableChangeType;
+import org.sagebionetworks.repo.model.table.TableRowChange;
+import org.sagebionetworks.table.cluster.utils.TableModelUtils;
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * A ChangeSetReader that fetches and decodes change sets on a thread pool
+ * ahead of the caller.
+ * <p>
+ * At most windowSize change sets are fetched or held at a time, including the
+ * one the caller is waiting for. A new fetch is only started while the
+ * estimated size of the decoded change sets waiting to be read is below
+ * maxBufferedBytes, so the ceiling can be exceeded by at most the change sets
+ * that were already being fetched. The next change set is always fetched so
+ * the caller can make progress.
+ * <p>
+ * This class is not thread-safe and must only be used by the thread that
+ * opened it.
+ */
+public class PrefetchingChangeSetReader implements ChangeSetReader {
+
+	/**
+	 * The decoded rows of a change set.
+	 */
+	private static class Fetched {
+		final List<Row> rows;
+		final long weight;
+
+		Fetched(List<Row> rows, long weight) {
+			this.rows = rows;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * A change set that is being fetched or is waiting to be read.
+	 */
+	private static class Pending {
+		final TableRowChange change;
+		final Future<Fetched> future;
+
+		Pending(TableRowChange change, Future<Fetched> future) {
+			this.change = change;
+			this.future = future;
+		}
+	}
+
+	private final TableRowTruthDAO truthDao;
+	private final ExecutorService executor;
+	private final int windowSize;
+	private final long maxBufferedBytes;
+	private final Iterator<TableRowChange> toFetch;
+	private final LinkedList<Pending> pending = new LinkedList<Pending>();
+	// Estimated size of the fetched change sets that have not been read.
+	private final AtomicLong bufferedBytes = new AtomicLong(0);
+	private boolean closed = false;
+
+	/**
+	 *
+	 * @param truthDao
+	 *            Used to read each change set.
+	 * @param executor
+	 *            The change sets are fetched on this executor.
+	 * @param changes
+	 *            Row change sets in the order they will be read.
+	 * @param windowSize
+	 *            The maximum number of change sets fetched or held at a time.
+	 * @param maxBufferedBytes
+	 *            The approximate maximum size of the change sets held in
+	 *            memory.
+	 */
+	public PrefetchingChangeSetReader(TableRowTruthDAO truthDao, ExecutorService executor,
+			List<TableRowChange> changes, int windowSize, long maxBufferedBytes) {
+		ValidateArgument.required(truthDao, "truthDao");
+		ValidateArgument.required(executor, "executor");
+		ValidateArgument.required(changes, "changes");
+		ValidateArgument.requirement(windowSize > 0, "windowSize must be greater than zero");
+		ValidateArgument.requirement(maxBufferedBytes > 0, "maxBufferedBytes must be greater than zero");
+		for (TableRowChange change : changes) {
+			ValidateArgument.requirement(TableChangeType.ROW.equals(change.getChangeType()),
+					TableRowTruthDAOImpl.SCAN_ROWS_TYPE_ERROR);
+		}
+		this.truthDao = truthDao;
+		this.executor = executor;
+		this.windowSize = windowSize;
+		this.maxBufferedBytes = maxBufferedBytes;
+		this.toFetch = new ArrayList<TableRowChange>(changes).iterator();
+		fillWindow();
+	}
+
+	@Override
+	public RowSet getRowSet(TableRowChange change, List<ColumnModel> columns) throws IOException {
+		ValidateArgument.required(change, "change");
+		ValidateArgument.required(columns, "columns");
+		if (closed) {
+			throw new IllegalStateException("The reader is closed");
+		}
+		Pending next = pending.peek();
+		if (next == null) {
+			throw new IllegalArgumentException("No change sets remain to be read");
+		}
+		if (!next.change.getRowVersion().equals(change.getRowVersion())) {
+			throw new IllegalArgumentException("Change sets must be read in order. Expected version: "
+					+ next.change.getRowVersion() + " but was: " + change.getRowVersion());
+		}
+		pending.poll();
+		Fetched fetched = waitFor(next.future);
+		bufferedBytes.addAndGet(-fetched.weight);
+		// start the next fetch before the caller applies this change set.
+		fillWindow();
+
+		RowSet set = new RowSet();
+		set.setTableId(next.change.getTableId());
+		set.setHeaders(TableModelUtils.getSelectColumnsFromColumnIds(next.change.getIds(), columns));
+		set.setRows(fetched.rows);
+		set.setEtag(next.change.getEtag());
+		return set;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (Pending toCancel : pending) {
+			toCancel.future.cancel(true);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * The number of change sets that are being fetched or waiting to be read.
+	 *
+	 * @return
+	 */
+	int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Start fetching change sets until the window is full or the ceiling is
+	 * reached.
+	 */
+	private void fillWindow() {
+		while (toFetch.hasNext() && pending.size() < windowSize
+				&& (pending.isEmpty() || bufferedBytes.get() < maxBufferedBytes)) {
+			final TableRowChange change = toFetch.next();
+			Future<Fetched> future = executor.submit(new Callable<Fetched>() {
+				@Override
+				public Fetched call() throws Exception {
+					return fetch(change);
+				}
+			});
+			pending.add(new Pending(change, future));
+		}
+	}
+
+	/**
+	 * Read and decode a single change set. The change sets are read once in
+	 * order, so they are not added to the change set cache.
+	 *
+	 * @param change
+	 * @return
+	 * @throws IOException
+	 */
+	private Fetched fetch(TableRowChange change) throws IOException {
+		final List<Row> rows = new ArrayList<Row>();
+		final long[] weight = new long[1];
+		truthDao.scanChangeWithoutCaching(new RowHandler() {
+			@Override
+			public void nextRow(Row row) {
+				rows.add(row);
+				weight[0] += TableChangeSetCache.estimateWeight(row);
+			}
+		}, change);
+		bufferedBytes.addAndGet(weight[0]);
+		return new Fetched(rows, weight[0]);
+	}
+
+	/**
+	 * Wait for a fetch to finish, passing on its failure.
+	 *
+	 * @param future
+	 * @return
+	 * @throws IOException
+	 */
+	private Fetched waitFor(Future<Fetched> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new InterruptedIOException("Interrupted while waiting for a change set");
+		} catch (ExecutionException e) {
+			close();
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
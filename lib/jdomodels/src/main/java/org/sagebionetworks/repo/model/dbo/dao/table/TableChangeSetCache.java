@@ -0,0 +1,343 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.repo.model.table.Row;
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * A bounded, in-memory LRU cache of decoded row change sets keyed by table ID
+ * and row version.
+ * <p>
+ * Each change set is stored in a compact column-oriented form (arrays of row
+ * IDs, versions and values) rather than as Row objects, and new Row objects
+ * are created for each read so callers can never modify the cached data. The
+ * cache is bounded by the estimated size of the cached data in bytes rather
+ * than by the number of change sets. A change set that is larger than the
+ * entire cache is never cached.
+ * <p>
+ * The S3 key of each change set is cached with the data, so an entry is only
+ * used if it was read from the same object.
+ */
+public class TableChangeSetCache {
+
+	/*
+	 * Estimated fixed overhead of each row and each value, used to weigh
+	 * entries.
+	 */
+	static final long ROW_OVERHEAD_BYTES = 48;
+	static final long VALUE_OVERHEAD_BYTES = 40;
+
+	/**
+	 * Cache key of a single change set.
+	 */
+	private static class Key {
+		final long tableId;
+		final long rowVersion;
+
+		Key(long tableId, long rowVersion) {
+			this.tableId = tableId;
+			this.rowVersion = rowVersion;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (tableId ^ (tableId >>> 32)) * 31 + (int) (rowVersion ^ (rowVersion >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return tableId == other.tableId && rowVersion == other.rowVersion;
+		}
+	}
+
+	/**
+	 * The decoded rows of a single change set.
+	 */
+	static class ChangeSet {
+		final String s3Key;
+		final long[] rowIds;
+		final long[] versionNumbers;
+		// null for rows without values.
+		final String[][] values;
+		final long weight;
+
+		ChangeSet(String s3Key, long[] rowIds, long[] versionNumbers, String[][] values, long weight) {
+			this.s3Key = s3Key;
+			this.rowIds = rowIds;
+			this.versionNumbers = versionNumbers;
+			this.values = values;
+			this.weight = weight;
+		}
+
+		/**
+		 * Create new Row objects for each cached row.
+		 *
+		 * @return
+		 */
+		List<Row> toRows() {
+			List<Row> rows = new ArrayList<Row>(rowIds.length);
+			for (int i = 0; i < rowIds.length; i++) {
+				Row row = new Row();
+				row.setRowId(rowIds[i]);
+				row.setVersionNumber(versionNumbers[i]);
+				if (values[i] != null) {
+					row.setValues(new ArrayList<String>(Arrays.asList(values[i])));
+				}
+				rows.add(row);
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Collects the rows of a change set as they are read. Collection stops
+	 * once the change set is too large for the cache or has a row without an
+	 * ID or version.
+	 */
+	static class Builder {
+		private final String s3Key;
+		private final long maxWeight;
+		private long[] rowIds = new long[16];
+		private long[] versionNumbers = new long[16];
+		private List<String[]> values = new ArrayList<String[]>();
+		private int count = 0;
+		private long weight = 0;
+		private boolean uncacheable = false;
+
+		Builder(String s3Key, long maxWeight) {
+			this.s3Key = s3Key;
+			this.maxWeight = maxWeight;
+		}
+
+		/**
+		 * Copy the given row. Must be called before the row is passed to any
+		 * other handler.
+		 *
+		 * @param row
+		 */
+		void add(Row row) {
+			if (uncacheable) {
+				return;
+			}
+			weight += estimateWeight(row);
+			if (weight > maxWeight || row.getRowId() == null || row.getVersionNumber() == null) {
+				// Release what was collected so far.
+				uncacheable = true;
+				rowIds = null;
+				versionNumbers = null;
+				values = null;
+				return;
+			}
+			if (count == rowIds.length) {
+				rowIds = Arrays.copyOf(rowIds, count * 2);
+				versionNumbers = Arrays.copyOf(versionNumbers, count * 2);
+			}
+			rowIds[count] = row.getRowId();
+			versionNumbers[count] = row.getVersionNumber();
+			count++;
+			String[] rowValues = null;
+			if (row.getValues() != null) {
+				rowValues = row.getValues().toArray(new String[row.getValues().size()]);
+			}
+			values.add(rowValues);
+		}
+
+		/**
+		 *
+		 * @return The collected change set or null if it cannot be cached.
+		 */
+		ChangeSet build() {
+			if (uncacheable) {
+				return null;
+			}
+			return new ChangeSet(s3Key, Arrays.copyOf(rowIds, count), Arrays.copyOf(versionNumbers, count),
+					values.toArray(new String[values.size()][]), weight);
+		}
+	}
+
+	private final long maxWeight;
+	// Guarded by this.
+	private final LinkedHashMap<Key, ChangeSet> map;
+	private long currentWeight = 0;
+
+	private final AtomicLong hitCount = new AtomicLong(0);
+	private final AtomicLong missCount = new AtomicLong(0);
+	private final AtomicLong evictionCount = new AtomicLong(0);
+
+	/**
+	 *
+	 * @param maxWeight
+	 *            The maximum estimated size of all cached change sets in
+	 *            bytes. Zero disables the cache.
+	 */
+	public TableChangeSetCache(long maxWeight) {
+		ValidateArgument.requirement(maxWeight >= 0, "maxWeight cannot be negative");
+		this.maxWeight = maxWeight;
+		// access order for LRU eviction.
+		this.map = new LinkedHashMap<Key, ChangeSet>(16, 0.75f, true);
+	}
+
+	/**
+	 * Estimate the number of bytes used to hold the given row in memory.
+	 *
+	 * @param row
+	 * @return
+	 */
+	static long estimateWeight(Row row) {
+		long weight = ROW_OVERHEAD_BYTES;
+		if (row.getValues() != null) {
+			for (String value : row.getValues()) {
+				weight += VALUE_OVERHEAD_BYTES;
+				if (value != null) {
+					weight += 2L * value.length();
+				}
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * Start collecting the rows of a change set that was not in the cache.
+	 *
+	 * @param s3Key
+	 * @return
+	 */
+	Builder newBuilder(String s3Key) {
+		return new Builder(s3Key, maxWeight);
+	}
+
+	/**
+	 * Get the rows of a change set.
+	 *
+	 * @param tableId
+	 * @param rowVersion
+	 * @param s3Key
+	 *            The S3 key of the change set.
+	 * @return New Row objects for each row of the change set or null if the
+	 *         change set is not in the cache.
+	 */
+	public List<Row> get(long tableId, long rowVersion, String s3Key) {
+		ChangeSet changeSet;
+		synchronized (this) {
+			changeSet = map.get(new Key(tableId, rowVersion));
+		}
+		if (changeSet == null || !changeSet.s3Key.equals(s3Key)) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return changeSet.toRows();
+	}
+
+	/**
+	 * Add a change set to the cache, evicting the least recently used change
+	 * sets as needed.
+	 *
+	 * @param tableId
+	 * @param rowVersion
+	 * @param changeSet
+	 *            Ignored if null.
+	 */
+	void put(long tableId, long rowVersion, ChangeSet changeSet) {
+		if (changeSet == null || changeSet.weight > maxWeight) {
+			return;
+		}
+		synchronized (this) {
+			ChangeSet old = map.put(new Key(tableId, rowVersion), changeSet);
+			if (old != null) {
+				currentWeight -= old.weight;
+			}
+			currentWeight += changeSet.weight;
+			Iterator<ChangeSet> it = map.values().iterator();
+			while (currentWeight > maxWeight && it.hasNext()) {
+				ChangeSet eldest = it.next();
+				it.remove();
+				currentWeight -= eldest.weight;
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Remove all change sets of the given table.
+	 *
+	 * @param tableId
+	 */
+	public synchronized void invalidateTable(long tableId) {
+		Iterator<Map.Entry<Key, ChangeSet>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, ChangeSet> entry = it.next();
+			if (entry.getKey().tableId == tableId) {
+				it.remove();
+				currentWeight -= entry.getValue().weight;
+			}
+		}
+	}
+
+	/**
+	 * Remove all change sets.
+	 */
+	public synchronized void invalidateAll() {
+		map.clear();
+		currentWeight = 0;
+	}
+
+	/**
+	 * The number of reads that were served from the cache.
+	 *
+	 * @return
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * The number of reads that were not served from the cache.
+	 *
+	 * @return
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * The number of change sets removed to make room for others.
+	 *
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * The number of cached change sets.
+	 *
+	 * @return
+	 */
+	public synchronized int getSize() {
+		return map.size();
+	}
+
+	/**
+	 * The estimated size of all cached change sets in bytes.
+	 *
+	 * @return
+	 */
+	public synchronized long getWeight() {
+		return currentWeight;
+	}
+}
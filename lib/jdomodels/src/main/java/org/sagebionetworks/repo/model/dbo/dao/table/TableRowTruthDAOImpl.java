@@ -8,16 +8,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.sagebionetworks.repo.model.ConflictingUpdateException;
+import org.sagebionetworks.repo.model.dao.table.ChangeSetReader;
 import org.sagebionetworks.repo.model.dao.table.RowAccessor;
 import org.sagebionetworks.repo.model.dao.table.RowHandler;
 import org.sagebionetworks.repo.model.dao.table.RowSetAccessor;
@@ -124,8 +127,13 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 	private JdbcTemplate jdbcTemplate;
 	@Autowired
 	private AmazonS3Client s3Client;
+	@Autowired
+	private TableChangeSetCache changeSetCache;
 
 	private String s3Bucket;
+	private ExecutorService prefetchExecutor;
+	private int prefetchWindowSize;
+	private long prefetchMaxBytes;
 
 	RowMapper<DBOTableIdSequence> sequenceRowMapper = new DBOTableIdSequence()
 			.getTableMapping();
@@ -451,20 +459,19 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 	public RowSet getRowSet(String tableId, long rowVersion, List<ColumnModel> columns)
 			throws IOException, NotFoundException {
 		TableRowChange dto = getTableRowChange(tableId, rowVersion);
-		// Download the file from S3
-		S3Object object = s3Client.getObject(dto.getBucket(), dto.getKey());
-		try {
-			RowSet set = new RowSet();
-			List<Row> rows = TableModelUtils.readFromCSVgzStream(object.getObjectContent());
-			set.setTableId(tableId);
-			set.setHeaders(TableModelUtils.getSelectColumnsFromColumnIds(dto.getIds(), columns));
-			set.setRows(rows);
-			set.setEtag(dto.getEtag());
-			return set;
-		} finally {
-			// Need to close the stream unconditionally.
-			object.getObjectContent().close();
-		}
+		final List<Row> rows = new ArrayList<Row>();
+		scanChangeSet(dto, new RowHandler() {
+			@Override
+			public void nextRow(Row row) {
+				rows.add(row);
+			}
+		});
+		RowSet set = new RowSet();
+		set.setTableId(tableId);
+		set.setHeaders(TableModelUtils.getSelectColumnsFromColumnIds(dto.getIds(), columns));
+		set.setRows(rows);
+		set.setEtag(dto.getEtag());
+		return set;
 	}
 
 	@Override
@@ -487,14 +494,66 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 			throws IOException {
 		ValidateArgument.required(dto, "TableRowChange");
 		ValidateArgument.requirement(TableChangeType.ROW.equals(dto.getChangeType()), SCAN_ROWS_TYPE_ERROR);
+		scanChangeSet(dto, handler, true);
+	}
+
+	@Override
+	public void scanChangeWithoutCaching(RowHandler handler, TableRowChange dto) throws IOException {
+		ValidateArgument.required(dto, "TableRowChange");
+		ValidateArgument.requirement(TableChangeType.ROW.equals(dto.getChangeType()), SCAN_ROWS_TYPE_ERROR);
+		scanChangeSet(dto, handler, false);
+	}
+
+	/**
+	 * Pass each row of the given change set to the handler. The rows are read
+	 * from the cache when possible. Otherwise the change set is streamed from
+	 * S3 and, if requested, added to the cache if it is small enough.
+	 * 
+	 * @param dto
+	 * @param handler
+	 * @param addToCache
+	 * @throws IOException
+	 */
+	private void scanChangeSet(TableRowChange dto, final RowHandler handler, boolean addToCache) throws IOException {
+		long tableId = KeyFactory.stringToKey(dto.getTableId());
+		List<Row> cached = changeSetCache.get(tableId, dto.getRowVersion(), dto.getKey());
+		if (cached != null) {
+			for (Row row : cached) {
+				handler.nextRow(row);
+			}
+			return;
+		}
 		S3Object object = s3Client.getObject(dto.getBucket(), dto.getKey());
+		if (!addToCache) {
+			try {
+				TableModelUtils.scanFromCSVgzStream(object.getObjectContent(), handler);
+			} finally {
+				// Need to close the stream unconditionally.
+				object.getObjectContent().close();
+			}
+			return;
+		}
+		final TableChangeSetCache.Builder builder = changeSetCache.newBuilder(dto.getKey());
 		try {
-			TableModelUtils.scanFromCSVgzStream(object.getObjectContent(),
-					handler);
+			TableModelUtils.scanFromCSVgzStream(object.getObjectContent(), new RowHandler() {
+				@Override
+				public void nextRow(Row row) {
+					// copy the row before the handler can change it.
+					builder.add(row);
+					handler.nextRow(row);
+				}
+			});
 		} finally {
 			// Need to close the stream unconditionally.
 			object.getObjectContent().close();
 		}
+		// Only complete change sets are cached.
+		changeSetCache.put(tableId, dto.getRowVersion(), builder.build());
+	}
+
+	@Override
+	public ChangeSetReader openChangeSetReader(List<TableRowChange> changes) {
+		return new PrefetchingChangeSetReader(this, prefetchExecutor, changes, prefetchWindowSize, prefetchMaxBytes);
 	}
 
 	@Override
@@ -507,6 +566,7 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		}
 		// let cascade delete take care of deleting the row changes
 		jdbcTemplate.update(SQL_DELETE_ROW_DATA_FOR_TABLE, KeyFactory.stringToKey(tableId));
+		changeSetCache.invalidateTable(KeyFactory.stringToKey(tableId));
 	}
 
 	@Override
@@ -518,6 +578,7 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 			s3Client.deleteObject(s3Bucket, key);
 		}
 		jdbcTemplate.update(SQL_TRUNCATE_SEQUENCE_TABLE);
+		changeSetCache.invalidateAll();
 	}
 
 	/**
@@ -717,6 +778,33 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		this.s3Bucket = s3Bucket;
 	}
 
+	/**
+	 * IoC
+	 * 
+	 * @param prefetchExecutor
+	 */
+	public void setPrefetchExecutor(ExecutorService prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	/**
+	 * IoC
+	 * 
+	 * @param prefetchWindowSize
+	 */
+	public void setPrefetchWindowSize(int prefetchWindowSize) {
+		this.prefetchWindowSize = prefetchWindowSize;
+	}
+
+	/**
+	 * IoC
+	 * 
+	 * @param prefetchMaxBytes
+	 */
+	public void setPrefetchMaxBytes(long prefetchMaxBytes) {
+		this.prefetchMaxBytes = prefetchMaxBytes;
+	}
+
 	protected void throwUpdateConflict(Long rowId) {
 		throw new ConflictingUpdateException("Row id: " + rowId
 				+ " has been changed since last read.  Please get the latest value for this row and then attempt to update it again.");
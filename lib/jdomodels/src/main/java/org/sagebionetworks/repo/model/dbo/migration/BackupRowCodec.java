@@ -0,0 +1,396 @@
+package org.sagebionetworks.repo.model.dbo.migration;
+
+import java.beans.PropertyDescriptor;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sagebionetworks.repo.model.dbo.AutoTableMapping;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+import org.springframework.beans.BeanUtils;
+
+/**
+ * Reads and writes the rows of a single table in a compact binary backup
+ * format, and provides the values of a row as positional JDBC bindings.
+ * <p>
+ * The codec is generated once from the {@link FieldColumn}s of a
+ * {@link TableMapping}, so the property accessors of each column are only
+ * looked up once rather than for each row.
+ * <p>
+ * The format is a header followed by one record per row:
+ *
+ * <pre>
+ * header: int magic, int version, UTF table name, int column count, UTF column name...
+ * row:    byte ROW, then one tagged value per header column
+ * end:    byte END
+ * </pre>
+ *
+ * Each value is a single type tag followed by the value. Strings and byte
+ * arrays are length-prefixed. Columns are matched by name when reading so a
+ * stream written with a column that no longer exists can still be read, and
+ * columns missing from the stream are left unset.
+ * <p>
+ * Instances are immutable and thread-safe.
+ *
+ * @param <D>
+ */
+public class BackupRowCodec<D> {
+
+	public static final int MAGIC = 0x53424B50;
+	public static final int VERSION = 1;
+
+	static final byte END = 0;
+	static final byte ROW = 1;
+
+	static final byte TAG_NULL = 0;
+	static final byte TAG_LONG = 1;
+	static final byte TAG_INTEGER = 2;
+	static final byte TAG_SHORT = 3;
+	static final byte TAG_BOOLEAN = 4;
+	static final byte TAG_DOUBLE = 5;
+	static final byte TAG_FLOAT = 6;
+	static final byte TAG_STRING = 7;
+	static final byte TAG_BYTES = 8;
+	static final byte TAG_DATE = 9;
+	static final byte TAG_TIMESTAMP = 10;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Map<Class<?>, Class<?>> SUPPORTED_TYPES = new HashMap<Class<?>, Class<?>>();
+	static {
+		SUPPORTED_TYPES.put(Long.class, Long.class);
+		SUPPORTED_TYPES.put(long.class, Long.class);
+		SUPPORTED_TYPES.put(Integer.class, Integer.class);
+		SUPPORTED_TYPES.put(int.class, Integer.class);
+		SUPPORTED_TYPES.put(Short.class, Short.class);
+		SUPPORTED_TYPES.put(short.class, Short.class);
+		SUPPORTED_TYPES.put(Boolean.class, Boolean.class);
+		SUPPORTED_TYPES.put(boolean.class, Boolean.class);
+		SUPPORTED_TYPES.put(Double.class, Double.class);
+		SUPPORTED_TYPES.put(double.class, Double.class);
+		SUPPORTED_TYPES.put(Float.class, Float.class);
+		SUPPORTED_TYPES.put(float.class, Float.class);
+		SUPPORTED_TYPES.put(String.class, String.class);
+		SUPPORTED_TYPES.put(byte[].class, byte[].class);
+		SUPPORTED_TYPES.put(Date.class, Date.class);
+		SUPPORTED_TYPES.put(Timestamp.class, Timestamp.class);
+	}
+
+	private final TableMapping<D> mapping;
+	private final FieldColumn[] columns;
+	private final Method[] getters;
+	private final Method[] setters;
+	private final Class<?>[] types;
+	private final int backupIdIndex;
+
+	private BackupRowCodec(TableMapping<D> mapping, Method[] getters, Method[] setters, Class<?>[] types) {
+		this.mapping = mapping;
+		this.columns = mapping.getFieldColumns();
+		this.getters = getters;
+		this.setters = setters;
+		this.types = types;
+		int backupIdIndex = -1;
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].isBackupId()) {
+				backupIdIndex = i;
+			}
+		}
+		this.backupIdIndex = backupIdIndex;
+	}
+
+	/**
+	 * Generate a codec for the given mapping.
+	 *
+	 * @param mapping
+	 * @return null if the mapping cannot be encoded directly, either because
+	 *         it is an {@link AutoTableMapping} that converts its values or
+	 *         because a column has no bean property of a supported type.
+	 */
+	public static <D> BackupRowCodec<D> create(TableMapping<D> mapping) {
+		if (mapping == null) throw new IllegalArgumentException("Mapping cannot be null");
+		if (mapping instanceof AutoTableMapping || mapping.getDBOClass() == null) {
+			return null;
+		}
+		FieldColumn[] columns = mapping.getFieldColumns();
+		Method[] getters = new Method[columns.length];
+		Method[] setters = new Method[columns.length];
+		Class<?>[] types = new Class<?>[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(mapping.getDBOClass(), columns[i].getFieldName());
+			if (pd == null || pd.getReadMethod() == null || pd.getWriteMethod() == null
+					|| !SUPPORTED_TYPES.containsKey(pd.getPropertyType())) {
+				return null;
+			}
+			getters[i] = pd.getReadMethod();
+			setters[i] = pd.getWriteMethod();
+			types[i] = pd.getPropertyType();
+		}
+		return new BackupRowCodec<D>(mapping, getters, setters, types);
+	}
+
+	/**
+	 * The values of a row in the order of the mapping's field columns.
+	 *
+	 * @param row
+	 * @return
+	 */
+	public Object[] getBindings(D row) {
+		Object[] values = new Object[getters.length];
+		for (int i = 0; i < getters.length; i++) {
+			values[i] = invoke(getters[i], row);
+		}
+		return values;
+	}
+
+	/**
+	 * The value of the backup ID column of a row.
+	 *
+	 * @param row
+	 * @return
+	 */
+	public Long getBackupId(D row) {
+		if (backupIdIndex < 0) throw new IllegalArgumentException("Cannot get backup ID for table: " + mapping.getTableName());
+		Object value = invoke(getters[backupIdIndex], row);
+		if (!(value instanceof Long)) throw new IllegalArgumentException("Cannot get backup ID for table: " + mapping.getTableName());
+		return (Long) value;
+	}
+
+	/**
+	 * Write the header that must precede all rows.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(mapping.getTableName());
+		out.writeInt(columns.length);
+		for (FieldColumn column : columns) {
+			out.writeUTF(column.getColumnName());
+		}
+	}
+
+	/**
+	 * Write a single row.
+	 *
+	 * @param out
+	 * @param row
+	 * @throws IOException
+	 */
+	public void writeRow(DataOutputStream out, D row) throws IOException {
+		out.writeByte(ROW);
+		for (int i = 0; i < getters.length; i++) {
+			writeValue(out, invoke(getters[i], row));
+		}
+	}
+
+	/**
+	 * Mark the end of the rows.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeEnd(DataOutputStream out) throws IOException {
+		out.writeByte(END);
+	}
+
+	/**
+	 * Read the header from the given stream and start reading rows.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public Reader openReader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) throw new IllegalArgumentException("Not a binary backup stream for table: " + mapping.getTableName());
+		int version = in.readInt();
+		if (version != VERSION) throw new IllegalArgumentException("Unsupported binary backup version: " + version);
+		String tableName = in.readUTF();
+		if (!mapping.getTableName().equals(tableName)) {
+			throw new IllegalArgumentException("Expected a backup of table: " + mapping.getTableName() + " but found: " + tableName);
+		}
+		int count = in.readInt();
+		int[] localIndex = new int[count];
+		for (int i = 0; i < count; i++) {
+			localIndex[i] = indexOfColumn(in.readUTF());
+		}
+		return new Reader(in, localIndex);
+	}
+
+	private int indexOfColumn(String columnName) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].getColumnName().equals(columnName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads rows one at a time.
+	 */
+	public class Reader {
+
+		private final DataInputStream in;
+		private final int[] localIndex;
+
+		private Reader(DataInputStream in, int[] localIndex) {
+			this.in = in;
+			this.localIndex = localIndex;
+		}
+
+		/**
+		 * Read the next row.
+		 *
+		 * @return null when there are no more rows.
+		 * @throws IOException
+		 */
+		public D next() throws IOException {
+			byte marker = in.readByte();
+			if (marker == END) {
+				return null;
+			}
+			if (marker != ROW) throw new IllegalArgumentException("Corrupt binary backup for table: " + mapping.getTableName());
+			D row = BeanUtils.instantiate(mapping.getDBOClass());
+			for (int i = 0; i < localIndex.length; i++) {
+				Object value = readValue(in);
+				int index = localIndex[i];
+				if (index < 0 || value == null) {
+					// unknown column or nothing to set.
+					continue;
+				}
+				invoke(setters[index], row, convert(value, types[index]));
+			}
+			return row;
+		}
+	}
+
+	static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+		} else if (value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(TAG_INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Short) {
+			out.writeByte(TAG_SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(TAG_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Double) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(TAG_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof String) {
+			out.writeByte(TAG_STRING);
+			writeBytes(out, ((String) value).getBytes(UTF8));
+		} else if (value instanceof byte[]) {
+			out.writeByte(TAG_BYTES);
+			writeBytes(out, (byte[]) value);
+		} else if (value instanceof Timestamp) {
+			out.writeByte(TAG_TIMESTAMP);
+			out.writeLong(((Timestamp) value).getTime());
+			out.writeInt(((Timestamp) value).getNanos());
+		} else if (value instanceof Date) {
+			out.writeByte(TAG_DATE);
+			out.writeLong(((Date) value).getTime());
+		} else {
+			throw new IllegalArgumentException("Unsupported backup value type: " + value.getClass().getName());
+		}
+	}
+
+	static Object readValue(DataInputStream in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_LONG:
+			return in.readLong();
+		case TAG_INTEGER:
+			return in.readInt();
+		case TAG_SHORT:
+			return in.readShort();
+		case TAG_BOOLEAN:
+			return in.readBoolean();
+		case TAG_DOUBLE:
+			return in.readDouble();
+		case TAG_FLOAT:
+			return in.readFloat();
+		case TAG_STRING:
+			return new String(readBytes(in), UTF8);
+		case TAG_BYTES:
+			return readBytes(in);
+		case TAG_DATE:
+			return new Date(in.readLong());
+		case TAG_TIMESTAMP:
+			Timestamp timestamp = new Timestamp(in.readLong());
+			timestamp.setNanos(in.readInt());
+			return timestamp;
+		default:
+			throw new IllegalArgumentException("Unknown backup value tag: " + tag);
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Convert a value read from a stream to the type of the local property.
+	 * Numbers and dates are widened or narrowed so a column whose type
+	 * changed between stacks can still be read.
+	 *
+	 * @param value
+	 * @param type
+	 * @return
+	 */
+	static Object convert(Object value, Class<?> type) {
+		Class<?> target = SUPPORTED_TYPES.get(type);
+		if (target.isInstance(value)) {
+			return value;
+		}
+		if (value instanceof Number) {
+			Number number = (Number) value;
+			if (target == Long.class) return number.longValue();
+			if (target == Integer.class) return number.intValue();
+			if (target == Short.class) return number.shortValue();
+			if (target == Double.class) return number.doubleValue();
+			if (target == Float.class) return number.floatValue();
+		}
+		if (value instanceof Date && target == Timestamp.class) {
+			return new Timestamp(((Date) value).getTime());
+		}
+		throw new IllegalArgumentException("Cannot convert " + value.getClass().getName() + " to " + type.getName());
+	}
+
+	private static Object invoke(Method method, Object target, Object... args) {
+		try {
+			return method.invoke(target, args);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
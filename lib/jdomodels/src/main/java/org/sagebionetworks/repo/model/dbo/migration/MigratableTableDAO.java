@@ -6,6 +6,7 @@ import java.util.concurrent.Callable;
 
 import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.MigratableDatabaseObject;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.RowMetadata;
@@ -47,6 +48,21 @@ public interface MigratableTableDAO {
 	 */
 	public String getChecksumForIdRange(MigrationType type, String salt, long minId, long maxId);
 	
+	/**
+	 * Checksums of consecutive buckets of a range of backup ids, computed in a single scan of
+	 * the range. Bucket i covers the ids from minId + i*bucketSize to minId + (i+1)*bucketSize - 1
+	 * and its checksum matches {@link #getChecksumForIdRange(MigrationType, String, long, long)}
+	 * for that range. Buckets without any rows are not returned.
+	 * 
+	 * @param type
+	 * @param salt
+	 * @param minId
+	 * @param maxId
+	 * @param bucketSize
+	 * @return The non-empty buckets ordered by minId.
+	 */
+	public List<MigrationRangeChecksum> getBucketChecksumsForIdRange(MigrationType type, String salt, long minId, long maxId, long bucketSize);
+	
 	/**
 	 * A table checksum (CHECKSUM TABLE statement)
 	 */
@@ -101,6 +117,13 @@ public interface MigratableTableDAO {
 	 */
 	public <D extends DatabaseObject<D>> List<Long> createOrUpdateBatch(List<D> batch);
 	
+	/**
+	 * Get the codec used to write and read the given type in the binary backup format.
+	 * @param type
+	 * @return null if the type cannot be written in the binary format.
+	 */
+	public <D extends DatabaseObject<D>> BackupRowCodec<D> getBackupRowCodec(MigrationType type);
+	
 	/**
 	 * Delete objects by their IDs
 	 * @param type
@@ -3,6 +3,7 @@ package org.sagebionetworks.repo.model.dbo.migration;
 import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -21,6 +22,7 @@ import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.FieldColumn;
 import org.sagebionetworks.repo.model.dbo.MigratableDatabaseObject;
 import org.sagebionetworks.repo.model.dbo.TableMapping;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.RowMetadata;
@@ -48,6 +50,11 @@ import org.sagebionetworks.repo.transactions.WriteTransaction;
 public class MigratableTableDAOImpl implements MigratableTableDAO {
 	
 	private static final String SET_FOREIGN_KEY_CHECKS = "SET FOREIGN_KEY_CHECKS = ?";
+	
+	/**
+	 * The maximum number of buckets that can be requested for a single range.
+	 */
+	public static final long MAX_BUCKETS_PER_RANGE = 10000;
 
 	Logger log = LogManager.getLogger(MigratableTableDAOImpl.class);
 
@@ -103,7 +110,10 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 	private Map<MigrationType, String> deltaListSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> backupSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> insertOrUpdateSqlMap = new HashMap<MigrationType, String>();
+	private Map<MigrationType, String> insertOrUpdatePositionalSqlMap = new HashMap<MigrationType, String>();
+	private Map<MigrationType, BackupRowCodec> backupRowCodecs = new HashMap<MigrationType, BackupRowCodec>();
 	private Map<MigrationType, String> checksumRangeSqlMap = new HashMap<MigrationType, String>();
+	private Map<MigrationType, String> checksumBucketSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> checksumTableSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> migrationTypeCountSqlMap = new HashMap<MigrationType, String>();
 	
@@ -186,6 +196,8 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 		migrationTypeCountSqlMap.put(type, mtc);
 		String sumCrc = DMLUtils.createSelectChecksumStatement(mapping);
 		checksumRangeSqlMap.put(type, sumCrc);
+		String bucketCrc = DMLUtils.createSelectBucketChecksumStatement(mapping);
+		checksumBucketSqlMap.put(type, bucketCrc);
 		String checksumTable = DMLUtils.createChecksumTableStatement(mapping);
 		checksumTableSqlMap.put(type, checksumTable);
 		String listRowMetadataSQL = DMLUtils.listRowMetadata(mapping);
@@ -213,6 +225,12 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 		// The batch insert or update sql
 		String sql = DMLUtils.getBatchInsertOrUdpate(mapping);
 		this.insertOrUpdateSqlMap.put(type, sql);
+		// Tables that can be bound directly skip the bean property reflection.
+		BackupRowCodec codec = BackupRowCodec.create(mapping);
+		if(codec != null){
+			this.backupRowCodecs.put(type, codec);
+			this.insertOrUpdatePositionalSqlMap.put(type, DMLUtils.getBatchInsertOrUpdatePositional(mapping));
+		}
 		// If this object has a sub table then register the sub table as well
 		if(dbo.getSecondaryTypes() != null){
 			Iterator<MigratableDatabaseObject> it = dbo.getSecondaryTypes().iterator();
@@ -400,6 +418,17 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 		if(batch.size() < 1) return createOrUpdateIds;
 
 		MigrationType type = getTypeForClass(batch.get(0).getClass());
+		BackupRowCodec<D> codec = this.backupRowCodecs.get(type);
+		if(codec != null){
+			// bind each column directly.
+			List<Object[]> bindings = new ArrayList<Object[]>(batch.size());
+			for(D row: batch){
+				bindings.add(codec.getBindings(row));
+				createOrUpdateIds.add(codec.getBackupId(row));
+			}
+			jdbcTemplate.batchUpdate(this.insertOrUpdatePositionalSqlMap.get(type), bindings);
+			return createOrUpdateIds;
+		}
 		FieldColumn backukpIdColumn = this.backupIdColumns.get(type);
 		String sql = getInsertOrUpdateSql(type);
 		SqlParameterSource[] namedParameters = new BeanPropertySqlParameterSource[batch.size()];
@@ -492,6 +521,12 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 		return ob;
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public <D extends DatabaseObject<D>> BackupRowCodec<D> getBackupRowCodec(MigrationType type) {
+		return this.backupRowCodecs.get(type);
+	}
+
 	@Override
 	public MigratableDatabaseObject getObjectForType(MigrationType type) {
 		return getMigratableObject(type);
@@ -557,6 +592,36 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 		}
 	}
 	
+	@Override
+	public List<MigrationRangeChecksum> getBucketChecksumsForIdRange(final MigrationType type, String salt, final long minId, final long maxId, final long bucketSize) {
+		String sql = this.checksumBucketSqlMap.get(type);
+		if (sql == null) {
+			throw new IllegalArgumentException("Cannot find the bucket checksum SQL for type" + type);
+		}
+		if (minId > maxId) {
+			throw new IllegalArgumentException("MaxId must be greater than minId");
+		}
+		if (bucketSize < 1) {
+			throw new IllegalArgumentException("BucketSize must be greater than zero");
+		}
+		if ((maxId - minId) / bucketSize >= MAX_BUCKETS_PER_RANGE) {
+			throw new IllegalArgumentException("A range can have at most " + MAX_BUCKETS_PER_RANGE + " buckets");
+		}
+		return jdbcTemplate.query(sql, new RowMapper<MigrationRangeChecksum>() {
+
+			@Override
+			public MigrationRangeChecksum mapRow(ResultSet rs, int rowNum) throws SQLException {
+				long bucketMinId = minId + rs.getLong("BUCKET") * bucketSize;
+				MigrationRangeChecksum checksum = new MigrationRangeChecksum();
+				checksum.setType(type);
+				checksum.setMinid(bucketMinId);
+				checksum.setMaxid(Math.min(maxId, bucketMinId + bucketSize - 1));
+				checksum.setChecksum(rs.getString("CHECKSUM"));
+				return checksum;
+			}
+		}, minId, bucketSize, salt, salt, minId, maxId);
+	}
+	
 	@Override
 	public String getChecksumForType(MigrationType type) {
 		String sql = this.checksumTableSqlMap.get(type);
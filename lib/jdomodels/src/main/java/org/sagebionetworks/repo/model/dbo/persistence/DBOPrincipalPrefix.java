@@ -2,10 +2,13 @@ package org.sagebionetworks.repo.model.dbo.persistence;
 
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PRINCIPAL_PREFIX_PRINCIPAL_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PRINCIPAL_PREFIX_TOKEN;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PRINCIPAL_PREFIX_UPDATED_ON;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_USER_GROUP_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_PRINCIPAL_PREFIX;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_USER_GROUP;
 
+import java.sql.Timestamp;
+
 import org.sagebionetworks.repo.model.dbo.AutoTableMapping;
 import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.Field;
@@ -15,12 +18,14 @@ import org.sagebionetworks.repo.model.dbo.TableMapping;
 
 /**
  * This table is populated by a worker and queried by the services to lookup principals using a prefix.
- * This table is not migrated.
+ * This table is not migrated. The update time of each token lets the
+ * in-memory index of each machine read only the changes since its last update.
  * 
  * @author John
  *
  */
-@Table(name = TABLE_PRINCIPAL_PREFIX, constraints = { "INDEX PREFIX_TOKEN_INDEX (" + COL_PRINCIPAL_PREFIX_TOKEN +")"})
+@Table(name = TABLE_PRINCIPAL_PREFIX, constraints = { "INDEX PREFIX_TOKEN_INDEX (" + COL_PRINCIPAL_PREFIX_TOKEN +")",
+		"INDEX PREFIX_UPDATED_ON_INDEX (" + COL_PRINCIPAL_PREFIX_UPDATED_ON + ")"})
 public class DBOPrincipalPrefix implements DatabaseObject<DBOPrincipalPrefix>{
 	
 	private static TableMapping<DBOPrincipalPrefix> mapping = AutoTableMapping.create(DBOPrincipalPrefix.class);
@@ -32,6 +37,9 @@ public class DBOPrincipalPrefix implements DatabaseObject<DBOPrincipalPrefix>{
 	@ForeignKey(name = "PREFIX_USR_ID_FK", table = TABLE_USER_GROUP, field = COL_USER_GROUP_ID, cascadeDelete = true)
 	private Long principalId;
 	
+	@Field(name = COL_PRINCIPAL_PREFIX_UPDATED_ON, sql="DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP")
+	private Timestamp updatedOn;
+	
 	@Override
 	public TableMapping<DBOPrincipalPrefix> getTableMapping() {
 		return mapping;
@@ -53,6 +61,14 @@ public class DBOPrincipalPrefix implements DatabaseObject<DBOPrincipalPrefix>{
 		this.principalId = principalId;
 	}
 
+	public Timestamp getUpdatedOn() {
+		return updatedOn;
+	}
+
+	public void setUpdatedOn(Timestamp updatedOn) {
+		this.updatedOn = updatedOn;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -60,6 +76,8 @@ public class DBOPrincipalPrefix implements DatabaseObject<DBOPrincipalPrefix>{
 		result = prime * result
 				+ ((principalId == null) ? 0 : principalId.hashCode());
 		result = prime * result + ((token == null) ? 0 : token.hashCode());
+		result = prime * result
+				+ ((updatedOn == null) ? 0 : updatedOn.hashCode());
 		return result;
 	}
 
@@ -82,13 +100,18 @@ public class DBOPrincipalPrefix implements DatabaseObject<DBOPrincipalPrefix>{
 				return false;
 		} else if (!token.equals(other.token))
 			return false;
+		if (updatedOn == null) {
+			if (other.updatedOn != null)
+				return false;
+		} else if (!updatedOn.equals(other.updatedOn))
+			return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
 		return "DBOPrincipalPrefix [token=" + token + ", principalId="
-				+ principalId + "]";
+				+ principalId + ", updatedOn=" + updatedOn + "]";
 	}
 
 }
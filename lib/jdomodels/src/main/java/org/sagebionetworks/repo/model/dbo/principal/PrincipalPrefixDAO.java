@@ -99,4 +99,26 @@ public interface PrincipalPrefixDAO {
 	 */
 	public void truncateTable();
 
+	/**
+	 * Load all of the tokens into an in-memory index on this machine. Once
+	 * the index is loaded, the user and team prefix queries are answered from
+	 * the index. Changes to the table, including those made on this machine,
+	 * are not seen by the queries until the next call to {@link #updateIndex()}.
+	 */
+	public void rebuildIndex();
+
+	/**
+	 * Apply the changes made to the table since the last update to the
+	 * in-memory index of this machine. The whole table is loaded on the first
+	 * call, and again about once an hour. This is called on a timer.
+	 */
+	public void updateIndex();
+
+	/**
+	 * Drop the in-memory index of this machine, so the prefix queries are
+	 * answered by the database until the index is loaded again. The table is
+	 * not changed. For tests only.
+	 */
+	public void dropIndex();
+
 }
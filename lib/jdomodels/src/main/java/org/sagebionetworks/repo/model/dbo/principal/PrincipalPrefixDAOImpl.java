@@ -4,22 +4,42 @@ import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.*;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_GROUP_MEMBERS_MEMBER_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PRINCIPAL_PREFIX_PRINCIPAL_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PRINCIPAL_PREFIX_TOKEN;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PRINCIPAL_PREFIX_UPDATED_ON;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_USER_GROUP_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_USER_GROUP_IS_INDIVIDUAL;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_GROUP_MEMBERS;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_PRINCIPAL_PREFIX;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_USER_GROUP;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import org.sagebionetworks.repo.transactions.WriteTransaction;
 
+/**
+ * Prefix queries for users and teams are answered by the database until the
+ * first call to {@link #updateIndex()}, after which they are answered by an
+ * in-memory {@link PrincipalPrefixIndex} of the table. Writes only go to the
+ * database. Each update of the index reads only the tokens of the principals
+ * changed since the last update, using the update time of each token, so a
+ * change is seen by the queries of a machine at its next update.
+ * <p>
+ * Team member queries are always answered by the database, since a change to
+ * the members of a team must be seen at once.
+ */
 public class PrincipalPrefixDAOImpl implements PrincipalPrefixDAO {
 
+	static private Log log = LogFactory.getLog(PrincipalPrefixDAOImpl.class);
+
 	private static final String SQL_LIST_TEAM_MEMBERS_FOR_PREFIX = "SELECT DISTINCT P."
 			+ COL_PRINCIPAL_PREFIX_PRINCIPAL_ID
 			+ " FROM "
@@ -101,6 +121,47 @@ public class PrincipalPrefixDAOImpl implements PrincipalPrefixDAO {
 	private static final String SQL_TRUNCATE_TABLE = "TRUNCATE TABLE "
 			+ TABLE_PRINCIPAL_PREFIX;
 
+	private static final String SQL_SELECT_ALL_TOKENS = "SELECT "
+			+ COL_PRINCIPAL_PREFIX_TOKEN + ", "
+			+ COL_PRINCIPAL_PREFIX_PRINCIPAL_ID
+			+ " FROM " + TABLE_PRINCIPAL_PREFIX
+			+ " ORDER BY " + COL_PRINCIPAL_PREFIX_TOKEN + ", "
+			+ COL_PRINCIPAL_PREFIX_PRINCIPAL_ID;
+
+	private static final String SQL_SELECT_ALL_TEAM_IDS = "SELECT "
+			+ COL_TEAM_ID + " FROM " + TABLE_TEAM;
+
+	private static final String SQL_SELECT_CURRENT_TIME = "SELECT CURRENT_TIMESTAMP";
+
+	private static final String CHANGED_TEAM_ID = "CHANGED_TEAM_ID";
+
+	// All of the tokens of each principal with a token updated since the given time.
+	private static final String SQL_SELECT_CHANGED_TOKENS = "SELECT P."
+			+ COL_PRINCIPAL_PREFIX_TOKEN + ", P."
+			+ COL_PRINCIPAL_PREFIX_PRINCIPAL_ID + ", T."
+			+ COL_TEAM_ID + " AS " + CHANGED_TEAM_ID
+			+ " FROM " + TABLE_PRINCIPAL_PREFIX + " P JOIN (SELECT DISTINCT "
+			+ COL_PRINCIPAL_PREFIX_PRINCIPAL_ID + " FROM "
+			+ TABLE_PRINCIPAL_PREFIX + " WHERE "
+			+ COL_PRINCIPAL_PREFIX_UPDATED_ON + " >= ?) C ON P."
+			+ COL_PRINCIPAL_PREFIX_PRINCIPAL_ID + " = C."
+			+ COL_PRINCIPAL_PREFIX_PRINCIPAL_ID + " LEFT JOIN " + TABLE_TEAM
+			+ " T ON P." + COL_PRINCIPAL_PREFIX_PRINCIPAL_ID + " = T."
+			+ COL_TEAM_ID;
+
+	/**
+	 * Each update reads the changes since this long before the previous
+	 * update, so a token committed late with an earlier update time is not
+	 * missed.
+	 */
+	public static final long INDEX_UPDATE_OVERLAP_MS = 60 * 1000;
+
+	/**
+	 * The tokens of a deleted principal are removed by a cascade that leaves
+	 * no update time, so the whole index is reloaded this often.
+	 */
+	public static final long INDEX_RELOAD_INTERVAL_MS = 60 * 60 * 1000;
+
 	private static final String SQL_INSERT_WITH_DUPLICATE_IGNORE = "INSERT IGNORE INTO "
 			+ TABLE_PRINCIPAL_PREFIX
 			+ " ("
@@ -118,6 +179,16 @@ public class PrincipalPrefixDAOImpl implements PrincipalPrefixDAO {
 	@Autowired
 	private DBOBasicDao basicDAO;
 
+	// Streams the full table when the index is rebuilt.
+	@Autowired
+	private JdbcTemplate streamingJdbcTemplate;
+
+	// Null until the index is first built.
+	private volatile PrincipalPrefixIndex index;
+	// The database time of the last update of the index.
+	private Timestamp indexUpdatedOn;
+	private long indexLoadedOnMs;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -206,6 +277,10 @@ public class PrincipalPrefixDAOImpl implements PrincipalPrefixDAO {
 	public List<Long> listPrincipalsForPrefix(String prefix, Long limit,
 			Long offset) {
 		String processed = preProcessToken(prefix);
+		PrincipalPrefixIndex current = index;
+		if (current != null) {
+			return current.listPrincipals(processed, false, limit, offset);
+		}
 		return jdbcTemplate.queryForList(SQL_LIST_PRINCIPALS_FOR_PREFIX,
 				Long.class, processed + WILDCARD, limit, offset);
 	}
@@ -219,6 +294,10 @@ public class PrincipalPrefixDAOImpl implements PrincipalPrefixDAO {
 	@Override
 	public Long countPrincipalsForPrefix(String prefix) {
 		String processed = preProcessToken(prefix);
+		PrincipalPrefixIndex current = index;
+		if (current != null) {
+			return current.countPrincipals(processed, false);
+		}
 		return jdbcTemplate.queryForObject(SQL_COUNT_DISTINCT_PREFIX,
 				Long.class, processed + WILDCARD);
 	}
@@ -258,13 +337,98 @@ public class PrincipalPrefixDAOImpl implements PrincipalPrefixDAO {
 	 * ()
 	 */
 	@Override
-	public void truncateTable() {
+	public synchronized void truncateTable() {
 		jdbcTemplate.update(SQL_TRUNCATE_TABLE);
+		dropIndex();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.sagebionetworks.repo.model.dbo.principal.PrincipalPrefixDAO#dropIndex
+	 * ()
+	 */
+	@Override
+	public synchronized void dropIndex() {
+		// Queries go to the database until the index is built again.
+		index = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.sagebionetworks.repo.model.dbo.principal.PrincipalPrefixDAO#rebuildIndex
+	 * ()
+	 */
+	@Override
+	public synchronized void rebuildIndex() {
+		long start = System.currentTimeMillis();
+		// Changes made while the table is read are read again by the next update.
+		Timestamp now = jdbcTemplate.queryForObject(SQL_SELECT_CURRENT_TIME, Timestamp.class);
+		final PrincipalPrefixIndex.Builder builder = new PrincipalPrefixIndex.Builder();
+		streamingJdbcTemplate.query(SQL_SELECT_ALL_TEAM_IDS, new RowCallbackHandler() {
+
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				builder.addTeam(rs.getLong(COL_TEAM_ID));
+			}
+		});
+		streamingJdbcTemplate.query(SQL_SELECT_ALL_TOKENS, new RowCallbackHandler() {
+
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				builder.addToken(rs.getString(COL_PRINCIPAL_PREFIX_TOKEN), rs.getLong(COL_PRINCIPAL_PREFIX_PRINCIPAL_ID));
+			}
+		});
+		PrincipalPrefixIndex rebuilt = builder.build();
+		index = rebuilt;
+		indexUpdatedOn = now;
+		indexLoadedOnMs = start;
+		log.info("Rebuilt the principal prefix index with " + rebuilt.getSnapshotSize() + " tokens in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.sagebionetworks.repo.model.dbo.principal.PrincipalPrefixDAO#updateIndex
+	 * ()
+	 */
+	@Override
+	public synchronized void updateIndex() {
+		PrincipalPrefixIndex current = index;
+		if (current == null || System.currentTimeMillis() - indexLoadedOnMs > INDEX_RELOAD_INTERVAL_MS) {
+			rebuildIndex();
+			return;
+		}
+		Timestamp now = jdbcTemplate.queryForObject(SQL_SELECT_CURRENT_TIME, Timestamp.class);
+		final PrincipalPrefixIndex.Builder builder = new PrincipalPrefixIndex.Builder();
+		jdbcTemplate.query(SQL_SELECT_CHANGED_TOKENS, new RowCallbackHandler() {
+
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				long principalId = rs.getLong(COL_PRINCIPAL_PREFIX_PRINCIPAL_ID);
+				builder.addToken(rs.getString(COL_PRINCIPAL_PREFIX_TOKEN), principalId);
+				rs.getLong(CHANGED_TEAM_ID);
+				if (!rs.wasNull()) {
+					builder.addTeam(principalId);
+				}
+			}
+		}, new Timestamp(indexUpdatedOn.getTime() - INDEX_UPDATE_OVERLAP_MS));
+		index = current.withChanges(builder.build());
+		indexUpdatedOn = now;
 	}
 
 	@Override
 	public List<Long> listTeamsForPrefix(String prefix, Long limit, Long offset) {
 		String processed = preProcessToken(prefix);
+		PrincipalPrefixIndex current = index;
+		if (current != null) {
+			return current.listPrincipals(processed, true, limit, offset);
+		}
 		return jdbcTemplate.queryForList(SQL_LIST_TEAMS_FOR_PREFIX,
 				Long.class, processed + WILDCARD, limit, offset);
 	}
@@ -272,6 +436,10 @@ public class PrincipalPrefixDAOImpl implements PrincipalPrefixDAO {
 	@Override
 	public Long countTeamsForPrefix(String prefix) {
 		String processed = preProcessToken(prefix);
+		PrincipalPrefixIndex current = index;
+		if (current != null) {
+			return current.countPrincipals(processed, true);
+		}
 		return jdbcTemplate.queryForObject(SQL_COUNT_TEAMS_FOR_PREFIX, Long.class, processed + WILDCARD);
 	}
 
@@ -0,0 +1,457 @@
+package org.sagebionetworks.repo.model.dbo.principal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * An in-memory index of the tokens of the PRINCIPAL_PREFIX table that answers
+ * the same prefix queries as {@link PrincipalPrefixDAOImpl} without going to
+ * the database.
+ * <p>
+ * The index is a snapshot of the table held as a sorted token
+ * array: the tokens are concatenated into a single byte array (tokens only
+ * contain [a-z0-9]) with an array of offsets and a parallel array of
+ * principal IDs. A prefix is located with two binary searches, after which
+ * the matching entries are contiguous. A million principals with three
+ * tokens each use less than 100 MB.
+ * <p>
+ * Changes to the table are applied with {@link #withChanges(PrincipalPrefixIndex)}
+ * without copying the snapshot: the new tokens of the changed principals are
+ * held in a small overlay, and the snapshot's tokens of those principals are
+ * hidden. Queries merge the snapshot and the overlay in token order. Once the
+ * overlay grows past {@link #MAX_OVERLAY_SIZE} tokens it is merged into a new
+ * snapshot.
+ * <p>
+ * Results match the database at the time the tokens were read: distinct
+ * principal IDs in the order of their first matching token.
+ * <p>
+ * This class is immutable and therefore thread-safe.
+ */
+public class PrincipalPrefixIndex {
+
+	/**
+	 * The overlay is merged into the snapshot once it holds more tokens than
+	 * this.
+	 */
+	public static final int MAX_OVERLAY_SIZE = 10000;
+
+	/**
+	 * Builds the snapshot of an index. Tokens are expected in order of
+	 * token then principal ID, as read from the table's primary key, but are
+	 * sorted if they are not. Duplicate tokens of a principal are ignored.
+	 */
+	public static class Builder {
+		private byte[] tokens = new byte[1024];
+		private int[] offsets = new int[257];
+		private long[] principalIds = new long[256];
+		private int size = 0;
+		private boolean sorted = true;
+		private String lastToken = null;
+		private long lastPrincipalId;
+		private List<Long> teamIds = new ArrayList<Long>();
+
+		/**
+		 * Add a single token of a principal.
+		 *
+		 * @param token
+		 *            A token processed by
+		 *            {@link PrincipalPrefixDAOImpl#preProcessToken(String)}.
+		 * @param principalId
+		 * @return
+		 */
+		public Builder addToken(String token, long principalId) {
+			ValidateArgument.required(token, "token");
+			if (lastToken != null) {
+				int compare = lastToken.compareTo(token);
+				if (compare == 0 && lastPrincipalId == principalId) {
+					return this;
+				}
+				if (compare > 0 || (compare == 0 && lastPrincipalId > principalId)) {
+					sorted = false;
+				}
+			}
+			lastToken = token;
+			lastPrincipalId = principalId;
+			int start = offsets[size];
+			if (start + token.length() > tokens.length) {
+				tokens = Arrays.copyOf(tokens, Math.max(tokens.length * 2, start + token.length()));
+			}
+			for (int i = 0; i < token.length(); i++) {
+				tokens[start + i] = (byte) token.charAt(i);
+			}
+			if (size == principalIds.length) {
+				principalIds = Arrays.copyOf(principalIds, principalIds.length * 2);
+				offsets = Arrays.copyOf(offsets, principalIds.length + 1);
+			}
+			principalIds[size] = principalId;
+			size++;
+			offsets[size] = start + token.length();
+			return this;
+		}
+
+		/**
+		 * Mark a principal as a team.
+		 *
+		 * @param teamId
+		 * @return
+		 */
+		public Builder addTeam(long teamId) {
+			teamIds.add(teamId);
+			return this;
+		}
+
+		public PrincipalPrefixIndex build() {
+			long[] teams = new long[teamIds.size()];
+			for (int i = 0; i < teams.length; i++) {
+				teams[i] = teamIds.get(i);
+			}
+			Arrays.sort(teams);
+			if (sorted) {
+				return new PrincipalPrefixIndex(Arrays.copyOf(tokens, offsets[size]), Arrays.copyOf(offsets, size + 1),
+						Arrays.copyOf(principalIds, size), teams, null, null);
+			}
+			// Sort the entries then copy them in order.
+			final PrincipalPrefixIndex unsorted = new PrincipalPrefixIndex(tokens, offsets, principalIds, teams, null, null);
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer one, Integer two) {
+					return compareEntries(unsorted, one, unsorted, two);
+				}
+			});
+			Builder sortedBuilder = new Builder();
+			for (Integer index : order) {
+				sortedBuilder.addToken(unsorted.getToken(index), unsorted.principalIds[index]);
+			}
+			sortedBuilder.teamIds = teamIds;
+			return sortedBuilder.build();
+		}
+	}
+
+	private final byte[] tokens;
+	private final int[] offsets;
+	private final long[] principalIds;
+	private final long[] teamIds;
+	// Null when there are no changes since the snapshot was built.
+	private final PrincipalPrefixIndex overlay;
+	// The principals whose snapshot tokens are replaced by the overlay.
+	private final Set<Long> replaced;
+
+	private PrincipalPrefixIndex(byte[] tokens, int[] offsets, long[] principalIds, long[] teamIds,
+			PrincipalPrefixIndex overlay, Set<Long> replaced) {
+		this.tokens = tokens;
+		this.offsets = offsets;
+		this.principalIds = principalIds;
+		this.teamIds = teamIds;
+		this.overlay = overlay;
+		this.replaced = replaced;
+	}
+
+	/**
+	 * The number of tokens in the snapshot.
+	 *
+	 * @return
+	 */
+	public int getSnapshotSize() {
+		return principalIds.length;
+	}
+
+	/**
+	 * The number of tokens of the principals changed since the snapshot was
+	 * built.
+	 *
+	 * @return
+	 */
+	public int getOverlaySize() {
+		return overlay == null ? 0 : overlay.getSnapshotSize();
+	}
+
+	/**
+	 * Is the given principal a team?
+	 *
+	 * @param principalId
+	 * @return
+	 */
+	public boolean isTeam(long principalId) {
+		return Arrays.binarySearch(teamIds, principalId) >= 0 || (overlay != null && overlay.isTeam(principalId));
+	}
+
+	/**
+	 * Apply changes to this index. Each principal of the changes replaces all
+	 * of its tokens with the tokens of the changes. Principals that are not in
+	 * the changes are unchanged.
+	 *
+	 * @param changes
+	 *            All of the current tokens of each changed principal, and the
+	 *            changed principals that are teams.
+	 * @return A new index with the changes. This index is not modified.
+	 */
+	public PrincipalPrefixIndex withChanges(PrincipalPrefixIndex changes) {
+		ValidateArgument.required(changes, "changes");
+		ValidateArgument.requirement(changes.overlay == null, "changes cannot have changes");
+		Set<Long> changed = new HashSet<Long>();
+		for (long principalId : changes.principalIds) {
+			changed.add(principalId);
+		}
+		if (changed.isEmpty()) {
+			return this;
+		}
+		// The overlay keeps the tokens of earlier changes to other principals.
+		Builder builder = new Builder();
+		if (overlay != null) {
+			for (int i = 0; i < overlay.principalIds.length; i++) {
+				if (!changed.contains(overlay.principalIds[i])) {
+					builder.addToken(overlay.getToken(i), overlay.principalIds[i]);
+				}
+			}
+			addTeams(builder, overlay.teamIds);
+		}
+		for (int i = 0; i < changes.principalIds.length; i++) {
+			builder.addToken(changes.getToken(i), changes.principalIds[i]);
+		}
+		addTeams(builder, changes.teamIds);
+		Set<Long> replacedWithChanges = new HashSet<Long>(changed);
+		if (replaced != null) {
+			replacedWithChanges.addAll(replaced);
+		}
+		PrincipalPrefixIndex result = new PrincipalPrefixIndex(tokens, offsets, principalIds, teamIds, builder.build(),
+				replacedWithChanges);
+		if (result.getOverlaySize() > MAX_OVERLAY_SIZE) {
+			return result.compact();
+		}
+		return result;
+	}
+
+	private static void addTeams(Builder builder, long[] teams) {
+		for (long teamId : teams) {
+			builder.addTeam(teamId);
+		}
+	}
+
+	/**
+	 * Merge the overlay into a new snapshot.
+	 *
+	 * @return
+	 */
+	PrincipalPrefixIndex compact() {
+		if (overlay == null) {
+			return this;
+		}
+		Builder builder = new Builder();
+		Cursor cursor = new Cursor(0, principalIds.length, 0, overlay.principalIds.length);
+		while (cursor.next()) {
+			builder.addToken(cursor.getToken(), cursor.getPrincipalId());
+		}
+		addTeams(builder, teamIds);
+		addTeams(builder, overlay.teamIds);
+		return builder.build();
+	}
+
+	/**
+	 * List a single page of the distinct principals with a token that starts
+	 * with the given prefix.
+	 *
+	 * @param prefix
+	 *            A prefix processed by
+	 *            {@link PrincipalPrefixDAOImpl#preProcessToken(String)}.
+	 * @param teamsOnly
+	 *            When true only teams are included.
+	 * @param limit
+	 * @param offset
+	 * @return
+	 */
+	public List<Long> listPrincipals(String prefix, boolean teamsOnly, long limit, long offset) {
+		ValidateArgument.required(prefix, "prefix");
+		ValidateArgument.requirement(limit >= 0, "limit cannot be negative");
+		ValidateArgument.requirement(offset >= 0, "offset cannot be negative");
+		List<Long> results = new LinkedList<Long>();
+		scan(prefix, teamsOnly, limit, offset, results);
+		return results;
+	}
+
+	/**
+	 * Count the distinct principals with a token that starts with the given
+	 * prefix.
+	 *
+	 * @param prefix
+	 *            A prefix processed by
+	 *            {@link PrincipalPrefixDAOImpl#preProcessToken(String)}.
+	 * @param teamsOnly
+	 *            When true only teams are counted.
+	 * @return
+	 */
+	public long countPrincipals(String prefix, boolean teamsOnly) {
+		ValidateArgument.required(prefix, "prefix");
+		return scan(prefix, teamsOnly, Long.MAX_VALUE, 0, null);
+	}
+
+	/**
+	 * Walk the tokens that start with the prefix in order.
+	 *
+	 * @param results
+	 *            Optional. Receives the principals of the page.
+	 * @return The number of distinct principals visited, up to offset plus
+	 *         limit.
+	 */
+	private long scan(String prefix, boolean teamsOnly, long limit, long offset, List<Long> results) {
+		long end = limit > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + limit;
+		Cursor cursor = new Cursor(lowerBound(prefix, false), lowerBound(prefix, true),
+				overlay == null ? 0 : overlay.lowerBound(prefix, false),
+				overlay == null ? 0 : overlay.lowerBound(prefix, true));
+		Set<Long> seen = new HashSet<Long>();
+		while (seen.size() < end && cursor.next()) {
+			long principalId = cursor.getPrincipalId();
+			if (seen.contains(principalId)) {
+				continue;
+			}
+			if (teamsOnly && !isTeam(principalId)) {
+				continue;
+			}
+			seen.add(principalId);
+			if (results != null && seen.size() > offset) {
+				results.add(principalId);
+			}
+		}
+		return seen.size();
+	}
+
+	/**
+	 * Walks a range of the snapshot and a range of the overlay together in
+	 * token order, skipping the snapshot tokens of replaced principals.
+	 */
+	private class Cursor {
+		private int snapshotIndex;
+		private final int snapshotEnd;
+		private int overlayIndex;
+		private final int overlayEnd;
+		private PrincipalPrefixIndex current;
+		private int currentIndex;
+
+		Cursor(int snapshotStart, int snapshotEnd, int overlayStart, int overlayEnd) {
+			this.snapshotIndex = snapshotStart;
+			this.snapshotEnd = snapshotEnd;
+			this.overlayIndex = overlayStart;
+			this.overlayEnd = overlayEnd;
+		}
+
+		/**
+		 * Move to the next token.
+		 *
+		 * @return False when there are no more tokens.
+		 */
+		boolean next() {
+			while (snapshotIndex < snapshotEnd && replaced != null && replaced.contains(principalIds[snapshotIndex])) {
+				snapshotIndex++;
+			}
+			boolean hasSnapshot = snapshotIndex < snapshotEnd;
+			boolean hasOverlay = overlayIndex < overlayEnd;
+			if (hasSnapshot && (!hasOverlay || compareEntries(PrincipalPrefixIndex.this, snapshotIndex, overlay, overlayIndex) <= 0)) {
+				current = PrincipalPrefixIndex.this;
+				currentIndex = snapshotIndex++;
+				return true;
+			}
+			if (hasOverlay) {
+				current = overlay;
+				currentIndex = overlayIndex++;
+				return true;
+			}
+			return false;
+		}
+
+		long getPrincipalId() {
+			return current.principalIds[currentIndex];
+		}
+
+		String getToken() {
+			return current.getToken(currentIndex);
+		}
+	}
+
+	/**
+	 * Compare two entries, by token then principal ID, of the same or of
+	 * different indices.
+	 */
+	private static int compareEntries(PrincipalPrefixIndex one, int oneIndex, PrincipalPrefixIndex two, int twoIndex) {
+		int startOne = one.offsets[oneIndex];
+		int lengthOne = one.offsets[oneIndex + 1] - startOne;
+		int startTwo = two.offsets[twoIndex];
+		int lengthTwo = two.offsets[twoIndex + 1] - startTwo;
+		int common = Math.min(lengthOne, lengthTwo);
+		for (int k = 0; k < common; k++) {
+			int difference = one.tokens[startOne + k] - two.tokens[startTwo + k];
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		if (lengthOne != lengthTwo) {
+			return lengthOne - lengthTwo;
+		}
+		return Long.compare(one.principalIds[oneIndex], two.principalIds[twoIndex]);
+	}
+
+	/**
+	 * Binary search of the snapshot for a prefix.
+	 *
+	 * @param prefix
+	 * @param after
+	 *            When false, find the first token that starts with the prefix
+	 *            or sorts after it. When true, find the first token that sorts
+	 *            after all tokens that start with the prefix.
+	 * @return
+	 */
+	private int lowerBound(String prefix, boolean after) {
+		int low = 0;
+		int high = principalIds.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int compare = comparePrefix(middle, prefix);
+			if (compare < 0 || (after && compare == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compare the start of a token of the snapshot with a prefix.
+	 *
+	 * @return zero if the token starts with the prefix.
+	 */
+	private int comparePrefix(int index, String prefix) {
+		int start = offsets[index];
+		int length = offsets[index + 1] - start;
+		int common = Math.min(length, prefix.length());
+		for (int k = 0; k < common; k++) {
+			int difference = tokens[start + k] - prefix.charAt(k);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length < prefix.length() ? -1 : 0;
+	}
+
+	/**
+	 * A token of the snapshot.
+	 */
+	private String getToken(int index) {
+		int start = offsets[index];
+		char[] chars = new char[offsets[index + 1] - start];
+		for (int k = 0; k < chars.length; k++) {
+			chars[k] = (char) tokens[start + k];
+		}
+		return new String(chars);
+	}
+}
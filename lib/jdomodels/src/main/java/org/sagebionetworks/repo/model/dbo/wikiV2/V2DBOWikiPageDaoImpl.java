@@ -26,16 +26,24 @@ import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.V2_TABLE_WIK
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.charset.Charset;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.sagebionetworks.downloadtools.FileUtils;
 import org.sagebionetworks.ids.IdGenerator;
@@ -100,6 +108,21 @@ public class V2DBOWikiPageDaoImpl implements V2WikiPageDao {
 	@Autowired
 	private FileHandleDao fileMetadataDao;	
 
+	@Autowired
+	private WikiMarkdownCache markdownCache;
+
+	private ExecutorService markdownExecutor;
+
+	/**
+	 * Injected. The threads used to download markdown that is not in the
+	 * cache. When null, markdown is downloaded by the calling thread.
+	 * 
+	 * @param markdownExecutor
+	 */
+	public void setMarkdownExecutor(ExecutorService markdownExecutor) {
+		this.markdownExecutor = markdownExecutor;
+	}
+
 	/**
 	 * Used to detect if a wiki object already exists.
 	 */
@@ -484,15 +507,108 @@ public class V2DBOWikiPageDaoImpl implements V2WikiPageDao {
 	@Override
 	public String getMarkdown(WikiPageKey key, Long version) throws IOException, NotFoundException {
 		V2WikiPage wiki = get(key, version);
+		String markdown = markdownCache.get(Long.parseLong(wiki.getMarkdownFileHandleId()));
+		if (markdown != null) {
+			return markdown;
+		}
 		S3FileHandle markdownHandle = (S3FileHandle) fileMetadataDao.get(wiki.getMarkdownFileHandleId());
+		return downloadMarkdown(markdownHandle);
+	}
+
+	@Override
+	public Map<String, String> getMarkdownForFileHandles(List<String> markdownFileHandleIds) throws IOException, NotFoundException {
+		ValidateArgument.required(markdownFileHandleIds, "markdownFileHandleIds");
+		Map<String, String> results = new HashMap<String, String>(markdownFileHandleIds.size());
+		Set<String> misses = new LinkedHashSet<String>();
+		for (String id : markdownFileHandleIds) {
+			if (results.containsKey(id) || misses.contains(id)) {
+				continue;
+			}
+			String markdown = markdownCache.get(Long.parseLong(id));
+			if (markdown != null) {
+				results.put(id, markdown);
+			} else {
+				misses.add(id);
+			}
+		}
+		if (misses.isEmpty()) {
+			return results;
+		}
+		// Look up all of the missing handles at once then download them in parallel.
+		Map<String, FileHandle> handles = fileMetadataDao.getAllFileHandlesBatch(misses);
+		Map<String, Future<String>> downloads = new LinkedHashMap<String, Future<String>>(misses.size());
+		for (String id : misses) {
+			FileHandle handle = handles.get(id);
+			if (handle == null) {
+				throw new NotFoundException("Markdown file handle does not exist: " + id);
+			}
+			final S3FileHandle markdownHandle = (S3FileHandle) handle;
+			if (markdownExecutor == null || misses.size() == 1) {
+				results.put(id, downloadMarkdown(markdownHandle));
+				continue;
+			}
+			downloads.put(id, markdownExecutor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return downloadMarkdown(markdownHandle);
+				}
+			}));
+		}
+		for (Map.Entry<String, Future<String>> download : downloads.entrySet()) {
+			results.put(download.getKey(), waitFor(download.getValue()));
+		}
+		return results;
+	}
+
+	/**
+	 * Download and decompress the markdown of the given file handle, adding it
+	 * to the cache.
+	 * 
+	 * @param markdownHandle
+	 * @return
+	 * @throws IOException
+	 */
+	private String downloadMarkdown(S3FileHandle markdownHandle) throws IOException {
 		S3Object s3Object = s3Client.getObject(markdownHandle.getBucketName(), markdownHandle.getKey());
 		InputStream in = s3Object.getObjectContent();
 		Charset charset = ContentTypeUtil.getCharsetFromS3Object(s3Object);
+		String markdown;
 		try{
-			return FileUtils.readStreamAsString(in, charset, /*gunzip*/true);
+			markdown = FileUtils.readStreamAsString(in, charset, /*gunzip*/true);
 		}finally{
 			in.close();
 		}
+		long compressedBytes = markdownHandle.getContentSize() == null ? 0L : markdownHandle.getContentSize();
+		markdownCache.put(Long.parseLong(markdownHandle.getId()), markdown, compressedBytes);
+		return markdown;
+	}
+
+	/**
+	 * Wait for a download to finish, passing on its failure.
+	 * 
+	 * @param future
+	 * @return
+	 * @throws IOException
+	 */
+	private static String waitFor(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for markdown");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,209 @@
+package org.sagebionetworks.repo.model.dbo.wikiV2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * A bounded, in-memory LRU cache of wiki markdown keyed by the ID of the
+ * markdown file handle.
+ * <p>
+ * Each version of a wiki page has its own markdown file handle and a file
+ * handle's content never changes, so entries never need to be invalidated.
+ * The cache is bounded by the estimated size of the cached markdown in bytes
+ * rather than by the number of entries. Markdown that is larger than the
+ * entire cache is never cached.
+ * <p>
+ * Each hit is an S3 GET that was avoided. The number of hits and the
+ * compressed bytes that were not downloaded are counted until they are read
+ * with {@link #getAndResetStatistics()}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class WikiMarkdownCache {
+
+	/*
+	 * Estimated fixed overhead of each entry, used to weigh entries.
+	 */
+	static final long ENTRY_OVERHEAD_BYTES = 96;
+
+	/**
+	 * The markdown of a single file handle.
+	 */
+	private static class Entry {
+		final String markdown;
+		final long compressedBytes;
+		final long weight;
+
+		Entry(String markdown, long compressedBytes) {
+			this.markdown = markdown;
+			this.compressedBytes = compressedBytes;
+			this.weight = estimateWeight(markdown);
+		}
+	}
+
+	/**
+	 * The usage of the cache since the statistics were last read.
+	 */
+	public static class Statistics {
+		private final long hitCount;
+		private final long missCount;
+		private final long bytesSaved;
+
+		Statistics(long hitCount, long missCount, long bytesSaved) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.bytesSaved = bytesSaved;
+		}
+
+		/**
+		 * The number of reads served from the cache, which is the number of
+		 * S3 GETs avoided.
+		 *
+		 * @return
+		 */
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		/**
+		 * The number of reads that were not in the cache.
+		 *
+		 * @return
+		 */
+		public long getMissCount() {
+			return missCount;
+		}
+
+		/**
+		 * The number of compressed bytes that were not downloaded from S3.
+		 *
+		 * @return
+		 */
+		public long getBytesSaved() {
+			return bytesSaved;
+		}
+	}
+
+	private final long maxWeight;
+	// Guarded by this.
+	private final LinkedHashMap<Long, Entry> map;
+	private long currentWeight = 0;
+
+	private final AtomicLong hitCount = new AtomicLong(0);
+	private final AtomicLong missCount = new AtomicLong(0);
+	private final AtomicLong bytesSaved = new AtomicLong(0);
+
+	/**
+	 *
+	 * @param maxWeight
+	 *            The maximum estimated size of all cached markdown in bytes.
+	 *            Zero disables the cache.
+	 */
+	public WikiMarkdownCache(long maxWeight) {
+		ValidateArgument.requirement(maxWeight >= 0, "maxWeight cannot be negative");
+		this.maxWeight = maxWeight;
+		// access order for LRU eviction.
+		this.map = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Estimate the number of bytes used to hold the given markdown in memory.
+	 *
+	 * @param markdown
+	 * @return
+	 */
+	static long estimateWeight(String markdown) {
+		return ENTRY_OVERHEAD_BYTES + 2L * markdown.length();
+	}
+
+	/**
+	 * Get the markdown of a file handle.
+	 *
+	 * @param markdownFileHandleId
+	 * @return null if the markdown is not in the cache.
+	 */
+	public String get(Long markdownFileHandleId) {
+		ValidateArgument.required(markdownFileHandleId, "markdownFileHandleId");
+		Entry entry;
+		synchronized (this) {
+			entry = map.get(markdownFileHandleId);
+		}
+		if (entry == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		bytesSaved.addAndGet(entry.compressedBytes);
+		return entry.markdown;
+	}
+
+	/**
+	 * Add the markdown of a file handle, evicting the least recently used
+	 * markdown as needed.
+	 *
+	 * @param markdownFileHandleId
+	 * @param markdown
+	 * @param compressedBytes
+	 *            The size of the markdown file in S3.
+	 */
+	public void put(Long markdownFileHandleId, String markdown, long compressedBytes) {
+		ValidateArgument.required(markdownFileHandleId, "markdownFileHandleId");
+		ValidateArgument.required(markdown, "markdown");
+		Entry entry = new Entry(markdown, compressedBytes);
+		if (entry.weight > maxWeight) {
+			return;
+		}
+		synchronized (this) {
+			Entry old = map.put(markdownFileHandleId, entry);
+			if (old != null) {
+				currentWeight -= old.weight;
+			}
+			currentWeight += entry.weight;
+			Iterator<Entry> it = map.values().iterator();
+			while (currentWeight > maxWeight && it.hasNext()) {
+				Entry eldest = it.next();
+				it.remove();
+				currentWeight -= eldest.weight;
+			}
+		}
+	}
+
+	/**
+	 * Remove all markdown.
+	 */
+	public synchronized void invalidateAll() {
+		map.clear();
+		currentWeight = 0;
+	}
+
+	/**
+	 * Read the usage of the cache since the last call and start counting
+	 * again.
+	 *
+	 * @return
+	 */
+	public Statistics getAndResetStatistics() {
+		return new Statistics(hitCount.getAndSet(0), missCount.getAndSet(0), bytesSaved.getAndSet(0));
+	}
+
+	/**
+	 * The number of cached markdown files.
+	 *
+	 * @return
+	 */
+	public synchronized int getSize() {
+		return map.size();
+	}
+
+	/**
+	 * The estimated size of all cached markdown in bytes.
+	 *
+	 * @return
+	 */
+	public synchronized long getWeight() {
+		return currentWeight;
+	}
+}
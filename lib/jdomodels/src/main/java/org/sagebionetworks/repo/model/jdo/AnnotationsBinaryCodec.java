@@ -0,0 +1,399 @@
+package org.sagebionetworks.repo.model.jdo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.sagebionetworks.repo.model.Annotations;
+import org.sagebionetworks.repo.model.NamedAnnotations;
+
+/**
+ * A compact, versioned binary encoding of NamedAnnotations.
+ * <p>
+ * Each encoded blob starts with a two byte magic number followed by a format
+ * version byte. The rest of the blob is the deflated (raw, no zip header)
+ * content. The magic number cannot be the start of a gzip stream, so
+ * {@link #isBinary(byte[])} can tell these blobs apart from the legacy gzipped
+ * XStream XML blobs.
+ * <p>
+ * All methods are thread-safe. Each thread reuses its own Deflater and
+ * Inflater rather than allocating new native zip buffers for each call.
+ *
+ */
+public class AnnotationsBinaryCodec {
+
+	/**
+	 * The first two bytes of every binary blob. Gzip streams start with 0x1f8b.
+	 */
+	static final byte MAGIC_ONE = (byte) 0xA5;
+	static final byte MAGIC_TWO = (byte) 0x4E;
+	/**
+	 * The current version of the format.
+	 */
+	static final byte VERSION_ONE = 1;
+	static final int HEADER_SIZE = 3;
+
+	private static final String UTF8 = "UTF-8";
+
+	private static final ThreadLocal<Deflater> DEFLATER_POOL = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> INFLATER_POOL = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	/**
+	 * Is the passed blob in the binary format?
+	 *
+	 * @param blob
+	 * @return False for null blobs and legacy XML blobs.
+	 */
+	public static boolean isBinary(byte[] blob) {
+		return blob != null && blob.length >= HEADER_SIZE && blob[0] == MAGIC_ONE && blob[1] == MAGIC_TWO;
+	}
+
+	/**
+	 * Encode the passed annotations using the current version of the format.
+	 *
+	 * @param named
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] encode(NamedAnnotations named) throws IOException {
+		if (named == null) throw new IllegalArgumentException("NamedAnnotations cannot be null");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(MAGIC_ONE);
+		out.write(MAGIC_TWO);
+		out.write(VERSION_ONE);
+		Deflater deflater = DEFLATER_POOL.get();
+		deflater.reset();
+		try {
+			DeflaterOutputStream zipper = new DeflaterOutputStream(out, deflater);
+			DataOutputStream data = new DataOutputStream(zipper);
+			writeNamedAnnotations(data, named);
+			data.flush();
+			zipper.finish();
+		} finally {
+			deflater.reset();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode a blob created with {@link #encode(NamedAnnotations)}.
+	 *
+	 * @param blob
+	 * @return
+	 * @throws IOException
+	 *             If the blob is not in the binary format or was created with
+	 *             an unknown version.
+	 */
+	public static NamedAnnotations decode(byte[] blob) throws IOException {
+		if (!isBinary(blob)) {
+			throw new IOException("Not a binary annotations blob");
+		}
+		byte version = blob[2];
+		if (version != VERSION_ONE) {
+			throw new IOException("Unknown binary annotations version: " + version);
+		}
+		Inflater inflater = INFLATER_POOL.get();
+		inflater.reset();
+		try {
+			ByteArrayInputStream in = new ByteArrayInputStream(blob, HEADER_SIZE, blob.length - HEADER_SIZE);
+			DataInputStream data = new DataInputStream(new InflaterInputStream(in, inflater));
+			return readNamedAnnotations(data);
+		} finally {
+			inflater.reset();
+		}
+	}
+
+	private static void writeNamedAnnotations(DataOutputStream out, NamedAnnotations named) throws IOException {
+		writeString(out, named.getId());
+		writeString(out, named.getEtag());
+		writeDate(out, named.getCreationDate());
+		writeLong(out, named.getCreatedBy());
+		Map<String, Annotations> map = named.getMap();
+		out.writeInt(map.size());
+		for (Map.Entry<String, Annotations> entry : map.entrySet()) {
+			writeString(out, entry.getKey());
+			writeAnnotations(out, entry.getValue());
+		}
+	}
+
+	private static NamedAnnotations readNamedAnnotations(DataInputStream in) throws IOException {
+		NamedAnnotations named = new NamedAnnotations();
+		named.setId(readString(in));
+		named.setEtag(readString(in));
+		named.setCreationDate(readDate(in));
+		named.setCreatedBy(readLong(in));
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			String name = readString(in);
+			named.put(name, readAnnotations(in));
+		}
+		return named;
+	}
+
+	private static void writeAnnotations(DataOutputStream out, Annotations annos) throws IOException {
+		writeString(out, annos.getId());
+		writeString(out, annos.getUri());
+		writeString(out, annos.getEtag());
+		writeDate(out, annos.getCreationDate());
+		// strings
+		Map<String, List<String>> strings = annos.getStringAnnotations();
+		out.writeInt(strings == null ? 0 : strings.size());
+		if (strings != null) {
+			for (Map.Entry<String, List<String>> entry : strings.entrySet()) {
+				writeString(out, entry.getKey());
+				List<String> values = entry.getValue();
+				if (writeListSize(out, values)) {
+					for (String value : values) {
+						writeString(out, value);
+					}
+				}
+			}
+		}
+		// doubles
+		Map<String, List<Double>> doubles = annos.getDoubleAnnotations();
+		out.writeInt(doubles == null ? 0 : doubles.size());
+		if (doubles != null) {
+			for (Map.Entry<String, List<Double>> entry : doubles.entrySet()) {
+				writeString(out, entry.getKey());
+				List<Double> values = entry.getValue();
+				if (writeListSize(out, values)) {
+					for (Double value : values) {
+						out.writeBoolean(value != null);
+						if (value != null) {
+							out.writeDouble(value);
+						}
+					}
+				}
+			}
+		}
+		// longs
+		Map<String, List<Long>> longs = annos.getLongAnnotations();
+		out.writeInt(longs == null ? 0 : longs.size());
+		if (longs != null) {
+			for (Map.Entry<String, List<Long>> entry : longs.entrySet()) {
+				writeString(out, entry.getKey());
+				List<Long> values = entry.getValue();
+				if (writeListSize(out, values)) {
+					for (Long value : values) {
+						writeLong(out, value);
+					}
+				}
+			}
+		}
+		// dates
+		Map<String, List<Date>> dates = annos.getDateAnnotations();
+		out.writeInt(dates == null ? 0 : dates.size());
+		if (dates != null) {
+			for (Map.Entry<String, List<Date>> entry : dates.entrySet()) {
+				writeString(out, entry.getKey());
+				List<Date> values = entry.getValue();
+				if (writeListSize(out, values)) {
+					for (Date value : values) {
+						writeDate(out, value);
+					}
+				}
+			}
+		}
+		// blobs
+		Map<String, List<byte[]>> blobs = annos.getBlobAnnotations();
+		out.writeInt(blobs == null ? 0 : blobs.size());
+		if (blobs != null) {
+			for (Map.Entry<String, List<byte[]>> entry : blobs.entrySet()) {
+				writeString(out, entry.getKey());
+				List<byte[]> values = entry.getValue();
+				if (writeListSize(out, values)) {
+					for (byte[] value : values) {
+						writeBytes(out, value);
+					}
+				}
+			}
+		}
+	}
+
+	private static Annotations readAnnotations(DataInputStream in) throws IOException {
+		Annotations annos = new Annotations();
+		annos.setId(readString(in));
+		annos.setUri(readString(in));
+		annos.setEtag(readString(in));
+		annos.setCreationDate(readDate(in));
+		// strings
+		int mapSize = in.readInt();
+		Map<String, List<String>> strings = new HashMap<String, List<String>>(capacity(mapSize));
+		for (int i = 0; i < mapSize; i++) {
+			String key = readString(in);
+			int size = in.readInt();
+			List<String> values = null;
+			if (size >= 0) {
+				values = new ArrayList<String>(size);
+				for (int j = 0; j < size; j++) {
+					values.add(readString(in));
+				}
+			}
+			strings.put(key, values);
+		}
+		annos.setStringAnnotations(strings);
+		// doubles
+		mapSize = in.readInt();
+		Map<String, List<Double>> doubles = new HashMap<String, List<Double>>(capacity(mapSize));
+		for (int i = 0; i < mapSize; i++) {
+			String key = readString(in);
+			int size = in.readInt();
+			List<Double> values = null;
+			if (size >= 0) {
+				values = new ArrayList<Double>(size);
+				for (int j = 0; j < size; j++) {
+					values.add(in.readBoolean() ? in.readDouble() : null);
+				}
+			}
+			doubles.put(key, values);
+		}
+		annos.setDoubleAnnotations(doubles);
+		// longs
+		mapSize = in.readInt();
+		Map<String, List<Long>> longs = new HashMap<String, List<Long>>(capacity(mapSize));
+		for (int i = 0; i < mapSize; i++) {
+			String key = readString(in);
+			int size = in.readInt();
+			List<Long> values = null;
+			if (size >= 0) {
+				values = new ArrayList<Long>(size);
+				for (int j = 0; j < size; j++) {
+					values.add(readLong(in));
+				}
+			}
+			longs.put(key, values);
+		}
+		annos.setLongAnnotations(longs);
+		// dates
+		mapSize = in.readInt();
+		Map<String, List<Date>> dates = new HashMap<String, List<Date>>(capacity(mapSize));
+		for (int i = 0; i < mapSize; i++) {
+			String key = readString(in);
+			int size = in.readInt();
+			List<Date> values = null;
+			if (size >= 0) {
+				values = new ArrayList<Date>(size);
+				for (int j = 0; j < size; j++) {
+					values.add(readDate(in));
+				}
+			}
+			dates.put(key, values);
+		}
+		annos.setDateAnnotations(dates);
+		// blobs
+		mapSize = in.readInt();
+		Map<String, List<byte[]>> blobs = new HashMap<String, List<byte[]>>(capacity(mapSize));
+		for (int i = 0; i < mapSize; i++) {
+			String key = readString(in);
+			int size = in.readInt();
+			List<byte[]> values = null;
+			if (size >= 0) {
+				values = new ArrayList<byte[]>(size);
+				for (int j = 0; j < size; j++) {
+					values.add(readBytes(in));
+				}
+			}
+			blobs.put(key, values);
+		}
+		annos.setBlobAnnotations(blobs);
+		return annos;
+	}
+
+	/**
+	 * HashMap capacity that will hold the given number of entries without
+	 * resizing.
+	 */
+	private static int capacity(int size) {
+		return Math.max(16, (int) (size / 0.75f) + 1);
+	}
+
+	/**
+	 * Write the size of a list. A null list is written as -1.
+	 *
+	 * @return True if the list has values to write.
+	 */
+	private static boolean writeListSize(DataOutputStream out, List<?> values) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return false;
+		}
+		out.writeInt(values.size());
+		return true;
+	}
+
+	/**
+	 * Strings are written as UTF-8 with an int length so there is no limit on
+	 * their size. A null string has a length of -1.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value == null ? null : value.getBytes(UTF8));
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, UTF8);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static void writeLong(DataOutputStream out, Long value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeLong(value);
+		}
+	}
+
+	private static Long readLong(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readLong() : null;
+	}
+
+	private static void writeDate(DataOutputStream out, Date value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeLong(value.getTime());
+		}
+	}
+
+	private static Date readDate(DataInputStream in) throws IOException {
+		return in.readBoolean() ? new Date(in.readLong()) : null;
+	}
+}
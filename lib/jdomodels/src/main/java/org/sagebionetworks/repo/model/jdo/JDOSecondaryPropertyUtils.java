@@ -9,6 +9,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -18,6 +19,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -43,6 +46,14 @@ import com.thoughtworks.xstream.XStream;
 public class JDOSecondaryPropertyUtils {
 	
 	public static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/*
+	 * XStream is thread-safe once it is configured and expensive to create, so
+	 * a single instance is shared for each set of aliases. Instances must never
+	 * be modified after they are added.
+	 */
+	private static final List<Pair<String,Class>> NO_ALIASES = Collections.emptyList();
+	private static final ConcurrentMap<List<Pair<String,Class>>, XStream> XSTREAM_POOL = new ConcurrentHashMap<List<Pair<String,Class>>, XStream>();
 
 	/**
 	 * Merge all of the annotations in the map into a single set.
@@ -174,13 +185,17 @@ public class JDOSecondaryPropertyUtils {
 	}
 	
 	/**
-	 * Convert the passed annotations to a compressed (zip) byte array
+	 * Convert the passed annotations to a compressed byte array using the
+	 * binary format of {@link AnnotationsBinaryCodec}. Blobs written in the
+	 * legacy XML format can still be read and are upgraded the next time they
+	 * are written.
 	 * @param dto
 	 * @return compressed annotations
 	 * @throws IOException 
 	 */
 	public static byte[] compressAnnotations(NamedAnnotations dto) throws IOException{
-		return compressObject(dto);
+		if(dto == null) return null;
+		return AnnotationsBinaryCodec.encode(dto);
 	}
 	
 	public static byte[] compressObject(Object dto) throws IOException{
@@ -190,7 +205,7 @@ public class JDOSecondaryPropertyUtils {
 		GZIPOutputStream zipper = new GZIPOutputStream(buff);
 		Writer zipWriter = new OutputStreamWriter(zipper, UTF8);
 		try{
-			XStream xstream = createXStream();
+			XStream xstream = getXStream(NO_ALIASES);
 			xstream.toXML(dto, zipWriter);
 		}finally{
 			IOUtils.closeQuietly(zipWriter);
@@ -205,8 +220,8 @@ public class JDOSecondaryPropertyUtils {
 		GZIPOutputStream zipper = new GZIPOutputStream(buff);
 		Writer zipWriter = new OutputStreamWriter(zipper, UTF8);
 		try{
-			XStream xstream = createXStream();
-			xstream.alias(classAlias, dto.getClass());
+			Pair<String,Class> pair = new Pair<String,Class>(classAlias, dto.getClass());
+			XStream xstream = getXStream(Collections.singletonList(pair));
 			xstream.toXML(dto, zipWriter);
 		}finally{
 			IOUtils.closeQuietly(zipWriter);
@@ -227,7 +242,7 @@ public class JDOSecondaryPropertyUtils {
 		GZIPOutputStream zipper = new GZIPOutputStream(buff);
 		Writer zipWriter = new OutputStreamWriter(zipper, UTF8);
 		try{
-			XStream xstream = createXStream();
+			XStream xstream = getXStream(NO_ALIASES);
 			xstream.toXML(dto, zipWriter);
 		}finally{
 			IOUtils.closeQuietly(zipWriter);
@@ -249,7 +264,7 @@ public class JDOSecondaryPropertyUtils {
 		GZIPOutputStream zipper = new GZIPOutputStream(buff);
 		Writer zipWriter = new OutputStreamWriter(zipper, UTF8);
 		try{
-			XStream xstream = createXStream();
+			XStream xstream = getXStream(NO_ALIASES);
 			xstream.toXML(dto, zipWriter);
 		}finally{
 			IOUtils.closeQuietly(zipWriter);
@@ -260,7 +275,7 @@ public class JDOSecondaryPropertyUtils {
 	public static String toXml(NamedAnnotations dto) throws IOException{
 		StringWriter writer = new StringWriter();
 		try{
-			XStream xstream = createXStream();
+			XStream xstream = getXStream(NO_ALIASES);
 			xstream.toXML(dto, writer);
 			return writer.toString();
 		}finally{
@@ -271,7 +286,7 @@ public class JDOSecondaryPropertyUtils {
 	public static String toXml(Map<String, Set<Reference>> references) throws IOException{
 		StringWriter writer = new StringWriter();
 		try{
-			XStream xstream = createXStream();
+			XStream xstream = getXStream(NO_ALIASES);
 			xstream.toXML(references, writer);
 			return writer.toString();
 		}finally{
@@ -282,7 +297,7 @@ public class JDOSecondaryPropertyUtils {
 	public static NamedAnnotations fromXml(String xml) throws IOException{
 		StringReader reader = new StringReader(xml);
 		try{
-			XStream xstream = createXStream();
+			XStream xstream = getXStream(NO_ALIASES);
 			return (NamedAnnotations) xstream.fromXML(reader);
 		}finally{
 			
@@ -297,12 +312,37 @@ public class JDOSecondaryPropertyUtils {
 	}
 	
 	/**
-	 * Read the compressed (zip) byte array into the Annotations.
+	 * Get the shared XStream configured with the given aliases, creating it on
+	 * first use.
+	 * @param aliases
+	 * @return
+	 */
+	private static XStream getXStream(List<Pair<String,Class>> aliases) {
+		XStream xstream = XSTREAM_POOL.get(aliases);
+		if(xstream == null){
+			xstream = createXStream();
+			for (Pair<String,Class> pair : aliases) {
+				xstream.alias(pair.getFirst(), pair.getSecond());
+			}
+			XStream existing = XSTREAM_POOL.putIfAbsent(new ArrayList<Pair<String,Class>>(aliases), xstream);
+			if(existing != null){
+				xstream = existing;
+			}
+		}
+		return xstream;
+	}
+	
+	/**
+	 * Read the compressed byte array into the Annotations. Both the binary
+	 * format and the legacy (zip) XML format are supported.
 	 * @param zippedByes
 	 * @return the resurrected Annotations
 	 * @throws IOException 
 	 */
 	public static NamedAnnotations decompressedAnnotations(byte[] zippedByes) throws IOException{
+		if(AnnotationsBinaryCodec.isBinary(zippedByes)){
+			return AnnotationsBinaryCodec.decode(zippedByes);
+		}
 		Object o = decompressedObject(zippedByes);
 		if (o==null) return new NamedAnnotations();
 		return (NamedAnnotations)o;
@@ -313,7 +353,7 @@ public class JDOSecondaryPropertyUtils {
 			ByteArrayInputStream in = new ByteArrayInputStream(zippedByes);
 			GZIPInputStream unZipper = new GZIPInputStream(in);
 			try{
-				XStream xstream = createXStream();
+				XStream xstream = getXStream(NO_ALIASES);
 				if(zippedByes != null){
 					return xstream.fromXML(unZipper);
 				}
@@ -329,10 +369,7 @@ public class JDOSecondaryPropertyUtils {
 			ByteArrayInputStream in = new ByteArrayInputStream(zippedByes);
 			GZIPInputStream unZipper = new GZIPInputStream(in);
 			try{
-				XStream xstream = createXStream();
-				for (Pair<String,Class> pair : aliases) {
-					xstream.alias(pair.getFirst(), pair.getSecond());
-				}
+				XStream xstream = getXStream(aliases);
 				if(zippedByes != null){
 					return xstream.fromXML(unZipper);
 				}
@@ -359,7 +396,7 @@ public class JDOSecondaryPropertyUtils {
 			ByteArrayInputStream in = new ByteArrayInputStream(zippedByes);
 			GZIPInputStream unZipper = new GZIPInputStream(in);
 			try{
-				XStream xstream = createXStream();
+				XStream xstream = getXStream(NO_ALIASES);
 				if(zippedByes != null){
 					return (Reference) xstream.fromXML(unZipper);
 				}
@@ -383,7 +420,7 @@ public class JDOSecondaryPropertyUtils {
 			ByteArrayInputStream in = new ByteArrayInputStream(zippedByes);
 			GZIPInputStream unZipper = new GZIPInputStream(in);
 			try{
-				XStream xstream = createXStream();
+				XStream xstream = getXStream(NO_ALIASES);
 				if(zippedByes != null){
 					return (Map<String, Set<Reference>>) xstream.fromXML(unZipper);
 				}
@@ -1,5 +1,7 @@
 package org.sagebionetworks.repo.model.message;
 
+import java.util.Set;
+
 public interface BroadcastMessageDao {
 	
 	/**
@@ -17,5 +19,56 @@ public interface BroadcastMessageDao {
 	 * @param messageId
 	 */
 	public void setBroadcast(Long changeNumber);
+	
+	/**
+	 * Record that the given users are about to be sent the email of the given
+	 * change number. The change number is set as broadcast in the same
+	 * transaction. Users that were already recorded by an earlier attempt
+	 * are ignored.
+	 * 
+	 * @param changeNumber
+	 * @param recipientIds
+	 * @return The users that were not already recorded, who should be sent
+	 *         the email.
+	 */
+	public Set<Long> addRecipients(Long changeNumber, Set<Long> recipientIds);
+	
+	/**
+	 * Forget users that could not be sent the email of the given change
+	 * number, so another attempt will send it to them. When no recipients
+	 * remain the change number is no longer set as broadcast.
+	 * 
+	 * @param changeNumber
+	 * @param recipientIds
+	 */
+	public void removeRecipients(Long changeNumber, Set<Long> recipientIds);
+	
+	/**
+	 * Have any users been recorded as recipients of the given change number?
+	 * 
+	 * @param changeNumber
+	 * @return
+	 */
+	public boolean hasRecipients(Long changeNumber);
+	
+	/**
+	 * Set that the broadcast of the given change number finished. The change
+	 * number is set as broadcast, even when nobody was sent the email, and
+	 * its recipients are deleted.
+	 * 
+	 * @param changeNumber
+	 */
+	public void setBroadcastComplete(Long changeNumber);
+	
+	/**
+	 * Did the broadcast of the given change number finish? A change number
+	 * that is set as broadcast without any recipients was broadcast
+	 * completely. Recipients are not migrated, so this is also true for a
+	 * broadcast that finished on another stack.
+	 * 
+	 * @param changeNumber
+	 * @return
+	 */
+	public boolean isBroadcastComplete(Long changeNumber);
 
 }
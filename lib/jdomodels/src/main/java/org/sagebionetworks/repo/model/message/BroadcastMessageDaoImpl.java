@@ -1,7 +1,17 @@
 package org.sagebionetworks.repo.model.message;
 
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_BROADCAST_MESSAGE_CHANGE_NUMBER;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_BROADCAST_MESSAGE_RECIPIENT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_BROADCAST_MESSAGE_SENT_ON;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_BROADCAST_MESSAGE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_BROADCAST_MESSAGE_RECIPIENT;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
 import org.sagebionetworks.repo.transactions.WriteTransactionReadCommitted;
@@ -9,6 +19,8 @@ import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.util.ValidateArgument;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 public class BroadcastMessageDaoImpl implements BroadcastMessageDao {
 	
@@ -16,6 +28,14 @@ public class BroadcastMessageDaoImpl implements BroadcastMessageDao {
 	public static final String BROAD_MESSAGE_ID_FK = "BROAD_MESSAGE_ID_FK";
 	
 	private static final String SQL_COUNT_CHANGE_NUMBER = "SELECT COUNT("+COL_BROADCAST_MESSAGE_CHANGE_NUMBER+") FROM "+TABLE_BROADCAST_MESSAGE+" WHERE "+COL_BROADCAST_MESSAGE_CHANGE_NUMBER+" = ?";
+	private static final String SQL_INSERT_IGNORE_BROADCAST = "INSERT IGNORE INTO "+TABLE_BROADCAST_MESSAGE+" ("+COL_BROADCAST_MESSAGE_CHANGE_NUMBER+", "+COL_BROADCAST_MESSAGE_SENT_ON+") VALUES (?, ?)";
+	private static final String SQL_DELETE_BROADCAST = "DELETE FROM "+TABLE_BROADCAST_MESSAGE+" WHERE "+COL_BROADCAST_MESSAGE_CHANGE_NUMBER+" = ?";
+	private static final String SQL_SELECT_RECIPIENTS = "SELECT "+COL_BROADCAST_MESSAGE_RECIPIENT_ID+" FROM "+TABLE_BROADCAST_MESSAGE_RECIPIENT+" WHERE "+COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER+" = :changeNumber AND "+COL_BROADCAST_MESSAGE_RECIPIENT_ID+" IN (:recipientIds)";
+	private static final String SQL_DELETE_RECIPIENTS = "DELETE FROM "+TABLE_BROADCAST_MESSAGE_RECIPIENT+" WHERE "+COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER+" = :changeNumber AND "+COL_BROADCAST_MESSAGE_RECIPIENT_ID+" IN (:recipientIds)";
+	private static final String SQL_COUNT_RECIPIENTS = "SELECT COUNT(*) FROM "+TABLE_BROADCAST_MESSAGE_RECIPIENT+" WHERE "+COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER+" = ?";
+	private static final String SQL_DELETE_ALL_RECIPIENTS = "DELETE FROM "+TABLE_BROADCAST_MESSAGE_RECIPIENT+" WHERE "+COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER+" = ?";
+	private static final String SQL_COUNT_COMPLETE = "SELECT COUNT(*) FROM "+TABLE_BROADCAST_MESSAGE+" B WHERE B."+COL_BROADCAST_MESSAGE_CHANGE_NUMBER+" = ?"
+			+ " AND NOT EXISTS (SELECT 1 FROM "+TABLE_BROADCAST_MESSAGE_RECIPIENT+" R WHERE R."+COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER+" = B."+COL_BROADCAST_MESSAGE_CHANGE_NUMBER+")";
 	@Autowired
 	private DBOBasicDao basicDao;
 	@Autowired
@@ -45,5 +65,74 @@ public class BroadcastMessageDaoImpl implements BroadcastMessageDao {
 		}
 	}
 
+	@WriteTransactionReadCommitted
+	@Override
+	public Set<Long> addRecipients(Long changeNumber, Set<Long> recipientIds) {
+		ValidateArgument.required(changeNumber, "changeNumber");
+		ValidateArgument.required(recipientIds, "recipientIds");
+		if (recipientIds.isEmpty()) {
+			return Collections.emptySet();
+		}
+		jdbcTemplate.update(SQL_INSERT_IGNORE_BROADCAST, changeNumber, System.currentTimeMillis());
+		NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue("changeNumber", changeNumber);
+		params.addValue("recipientIds", recipientIds);
+		Set<Long> added = new LinkedHashSet<Long>(recipientIds);
+		added.removeAll(namedTemplate.queryForList(SQL_SELECT_RECIPIENTS, params, Long.class));
+		if (added.isEmpty()) {
+			return added;
+		}
+		List<DBOBroadcastMessageRecipient> batch = new ArrayList<DBOBroadcastMessageRecipient>(added.size());
+		for (Long recipientId : added) {
+			DBOBroadcastMessageRecipient dbo = new DBOBroadcastMessageRecipient();
+			dbo.setChangeNumber(changeNumber);
+			dbo.setRecipientId(recipientId);
+			batch.add(dbo);
+		}
+		basicDao.createBatch(batch);
+		return added;
+	}
+
+	@WriteTransactionReadCommitted
+	@Override
+	public void removeRecipients(Long changeNumber, Set<Long> recipientIds) {
+		ValidateArgument.required(changeNumber, "changeNumber");
+		ValidateArgument.required(recipientIds, "recipientIds");
+		if (!recipientIds.isEmpty()) {
+			NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+			MapSqlParameterSource params = new MapSqlParameterSource();
+			params.addValue("changeNumber", changeNumber);
+			params.addValue("recipientIds", recipientIds);
+			namedTemplate.update(SQL_DELETE_RECIPIENTS, params);
+		}
+		if (!hasRecipients(changeNumber)) {
+			// start over on the next attempt.
+			jdbcTemplate.update(SQL_DELETE_BROADCAST, changeNumber);
+		}
+	}
+
+	@Override
+	public boolean hasRecipients(Long changeNumber) {
+		ValidateArgument.required(changeNumber, "changeNumber");
+		long count = jdbcTemplate.queryForObject(SQL_COUNT_RECIPIENTS, Long.class, changeNumber);
+		return count > 0;
+	}
+
+	@WriteTransactionReadCommitted
+	@Override
+	public void setBroadcastComplete(Long changeNumber) {
+		ValidateArgument.required(changeNumber, "changeNumber");
+		jdbcTemplate.update(SQL_INSERT_IGNORE_BROADCAST, changeNumber, System.currentTimeMillis());
+		jdbcTemplate.update(SQL_DELETE_ALL_RECIPIENTS, changeNumber);
+	}
+
+	@Override
+	public boolean isBroadcastComplete(Long changeNumber) {
+		ValidateArgument.required(changeNumber, "changeNumber");
+		long count = jdbcTemplate.queryForObject(SQL_COUNT_COMPLETE, Long.class, changeNumber);
+		return count == 1;
+	}
+
 
 }
@@ -0,0 +1,119 @@
+package org.sagebionetworks.repo.model.message;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_BROADCAST_MESSAGE_RECIPIENT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.DDL_BROADCAST_MESSAGE_RECIPIENT;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_BROADCAST_MESSAGE_RECIPIENT;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.sagebionetworks.repo.model.dbo.DatabaseObject;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+
+/**
+ * This table tracks the users that were sent the email of a broadcast, so a
+ * broadcast that fails part way can be resumed without sending the same email
+ * twice. It is not migrated.
+ *
+ */
+public class DBOBroadcastMessageRecipient implements DatabaseObject<DBOBroadcastMessageRecipient> {
+
+	private static final FieldColumn[] FIELDS = new FieldColumn[] {
+		new FieldColumn("changeNumber", COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER, true),
+		new FieldColumn("recipientId", COL_BROADCAST_MESSAGE_RECIPIENT_ID, true),
+	};
+
+	private Long changeNumber;
+	private Long recipientId;
+
+	public Long getChangeNumber() {
+		return changeNumber;
+	}
+
+	public void setChangeNumber(Long changeNumber) {
+		this.changeNumber = changeNumber;
+	}
+
+	public Long getRecipientId() {
+		return recipientId;
+	}
+
+	public void setRecipientId(Long recipientId) {
+		this.recipientId = recipientId;
+	}
+
+	@Override
+	public TableMapping<DBOBroadcastMessageRecipient> getTableMapping() {
+
+		return new TableMapping<DBOBroadcastMessageRecipient>() {
+
+			@Override
+			public DBOBroadcastMessageRecipient mapRow(ResultSet rs, int rowNum)
+					throws SQLException {
+				DBOBroadcastMessageRecipient dbo = new DBOBroadcastMessageRecipient();
+				dbo.setChangeNumber(rs.getLong(COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER));
+				dbo.setRecipientId(rs.getLong(COL_BROADCAST_MESSAGE_RECIPIENT_ID));
+				return dbo;
+			}
+
+			@Override
+			public String getTableName() {
+				return TABLE_BROADCAST_MESSAGE_RECIPIENT;
+			}
+
+			@Override
+			public String getDDLFileName() {
+				return DDL_BROADCAST_MESSAGE_RECIPIENT;
+			}
+
+			@Override
+			public FieldColumn[] getFieldColumns() {
+				return FIELDS;
+			}
+
+			@Override
+			public Class<? extends DBOBroadcastMessageRecipient> getDBOClass() {
+				return DBOBroadcastMessageRecipient.class;
+			}
+		};
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((changeNumber == null) ? 0 : changeNumber.hashCode());
+		result = prime * result + ((recipientId == null) ? 0 : recipientId.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DBOBroadcastMessageRecipient other = (DBOBroadcastMessageRecipient) obj;
+		if (changeNumber == null) {
+			if (other.changeNumber != null)
+				return false;
+		} else if (!changeNumber.equals(other.changeNumber))
+			return false;
+		if (recipientId == null) {
+			if (other.recipientId != null)
+				return false;
+		} else if (!recipientId.equals(other.recipientId))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DBOBroadcastMessageRecipient [changeNumber=" + changeNumber + ", recipientId=" + recipientId + "]";
+	}
+
+}
@@ -108,6 +108,7 @@ public class SqlConstants {
 	public static final String TABLE_PRINCIPAL_PREFIX 				= "PRINCIPAL_PREFIX";
 	public static final String COL_PRINCIPAL_PREFIX_TOKEN			= "TOKEN";
 	public static final String COL_PRINCIPAL_PREFIX_PRINCIPAL_ID 	= "PRINCIPAL_ID";
+	public static final String COL_PRINCIPAL_PREFIX_UPDATED_ON		= "UPDATED_ON";
 
 	// The ACCESS_REQUIREMENT table
 	public static final String TABLE_ACCESS_REQUIREMENT				= "ACCESS_REQUIREMENT";
@@ -423,6 +424,12 @@ public class SqlConstants {
 	public static final String COL_BROADCAST_MESSAGE_SENT_ON		= "SENT_ON";
 	public static final String DDL_BROADCAST_MESSAGE = "schema/BroadcastMessage-ddl.sql";
 	
+	// Tracks the recipients of a broadcast that is in progress.
+	public static final String TABLE_BROADCAST_MESSAGE_RECIPIENT				= "MESSAGE_BROADCAST_RECIPIENT";
+	public static final String COL_BROADCAST_MESSAGE_RECIPIENT_CHANGE_NUMBER	= "CHANGE_NUMBER";
+	public static final String COL_BROADCAST_MESSAGE_RECIPIENT_ID				= "RECIPIENT_ID";
+	public static final String DDL_BROADCAST_MESSAGE_RECIPIENT = "schema/BroadcastMessageRecipient-ddl.sql";
+	
 	// The column model table
 	public static final String TABLE_COLUMN_MODEL			= "COLUMN_MODEL";
 	public static final String COL_CM_ID					= "ID";
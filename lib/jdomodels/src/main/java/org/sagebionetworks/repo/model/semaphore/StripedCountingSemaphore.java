@@ -0,0 +1,195 @@
+package org.sagebionetworks.repo.model.semaphore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.util.Clock;
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * A counting semaphore decorator that serializes calls per key rather than per
+ * machine. Calls for the same key are still serialized (see PLFM-4027) but a
+ * slow call for one key no longer blocks calls for other keys.
+ * <p>
+ * Keys are mapped onto a fixed number of lock stripes so memory does not grow
+ * with the number of keys. Refresh calls for a token that was refreshed
+ * recently are coalesced and do not reach the database.
+ *
+ */
+public class StripedCountingSemaphore implements CountingSemaphore {
+
+	public static final int DEFAULT_NUMBER_OF_STRIPES = 64;
+	/*
+	 * A refresh is skipped if the token was refreshed within this fraction of
+	 * the requested timeout.
+	 */
+	public static final double REFRESH_COALESCE_FRACTION = 0.1;
+	/*
+	 * Tokens of locks that expire without a release are never removed, so the
+	 * refresh times are dropped when this many tokens are tracked.
+	 */
+	public static final int MAX_TRACKED_TOKENS = 10000;
+
+	private final CountingSemaphore wrapped;
+	private final Clock clock;
+	private final ReentrantLock[] stripes;
+	// token to the time of the last refresh sent to the wrapped semaphore.
+	private final ConcurrentMap<String, Long> lastRefreshMs = new ConcurrentHashMap<String, Long>();
+
+	private final AtomicLong callCount = new AtomicLong(0);
+	private final AtomicLong totalQueueTimeMs = new AtomicLong(0);
+	private final AtomicLong maxQueueTimeMs = new AtomicLong(0);
+	private final AtomicLong coalescedRefreshCount = new AtomicLong(0);
+
+	public StripedCountingSemaphore(CountingSemaphore wrapped, Clock clock) {
+		this(wrapped, clock, DEFAULT_NUMBER_OF_STRIPES);
+	}
+
+	public StripedCountingSemaphore(CountingSemaphore wrapped, Clock clock, int numberOfStripes) {
+		ValidateArgument.required(wrapped, "wrapped");
+		ValidateArgument.required(clock, "clock");
+		ValidateArgument.requirement(numberOfStripes > 0, "numberOfStripes must be greater than zero");
+		this.wrapped = wrapped;
+		this.clock = clock;
+		this.stripes = new ReentrantLock[numberOfStripes];
+		for (int i = 0; i < numberOfStripes; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+
+	@Override
+	public String attemptToAcquireLock(String key, long timeoutSec, int maxLockCount) {
+		ReentrantLock stripe = lockStripe(key);
+		try {
+			String token = wrapped.attemptToAcquireLock(key, timeoutSec, maxLockCount);
+			if (token != null) {
+				trackRefresh(token);
+			}
+			return token;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public void refreshLockTimeout(String key, String token, long timeoutSec) {
+		ValidateArgument.required(token, "token");
+		long now = clock.currentTimeMillis();
+		Long lastRefresh = lastRefreshMs.get(token);
+		if (lastRefresh != null && now - lastRefresh < (long) (timeoutSec * 1000 * REFRESH_COALESCE_FRACTION)) {
+			// The lock was refreshed recently so it cannot be close to expiring.
+			coalescedRefreshCount.incrementAndGet();
+			return;
+		}
+		ReentrantLock stripe = lockStripe(key);
+		try {
+			wrapped.refreshLockTimeout(key, token, timeoutSec);
+			trackRefresh(token);
+		} catch (RuntimeException e) {
+			lastRefreshMs.remove(token);
+			throw e;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public void releaseLock(String key, String token) {
+		ValidateArgument.required(token, "token");
+		lastRefreshMs.remove(token);
+		ReentrantLock stripe = lockStripe(key);
+		try {
+			wrapped.releaseLock(key, token);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public void releaseAllLocks() {
+		// Block all stripes so no other call is in flight.
+		for (ReentrantLock stripe : stripes) {
+			stripe.lock();
+		}
+		try {
+			lastRefreshMs.clear();
+			wrapped.releaseAllLocks();
+		} finally {
+			for (ReentrantLock stripe : stripes) {
+				stripe.unlock();
+			}
+		}
+	}
+
+	private void trackRefresh(String token) {
+		if (lastRefreshMs.size() >= MAX_TRACKED_TOKENS) {
+			// Only coalescing is lost.
+			lastRefreshMs.clear();
+		}
+		lastRefreshMs.put(token, clock.currentTimeMillis());
+	}
+
+	/**
+	 * Lock the stripe for the given key and record how long the caller waited
+	 * for it.
+	 *
+	 * @param key
+	 * @return The locked stripe. The caller must unlock it.
+	 */
+	private ReentrantLock lockStripe(String key) {
+		ValidateArgument.required(key, "key");
+		ReentrantLock stripe = stripes[(key.hashCode() & 0x7fffffff) % stripes.length];
+		long start = clock.currentTimeMillis();
+		stripe.lock();
+		long queueTime = clock.currentTimeMillis() - start;
+		callCount.incrementAndGet();
+		totalQueueTimeMs.addAndGet(queueTime);
+		long currentMax = maxQueueTimeMs.get();
+		while (queueTime > currentMax && !maxQueueTimeMs.compareAndSet(currentMax, queueTime)) {
+			currentMax = maxQueueTimeMs.get();
+		}
+		return stripe;
+	}
+
+	/**
+	 * The number of calls that were passed to the wrapped semaphore.
+	 *
+	 * @return
+	 */
+	public long getCallCount() {
+		return callCount.get();
+	}
+
+	/**
+	 * The total time in MS that callers waited for another call on the same
+	 * stripe to finish.
+	 *
+	 * @return
+	 */
+	public long getTotalQueueTimeMs() {
+		return totalQueueTimeMs.get();
+	}
+
+	/**
+	 * The longest time in MS that a caller waited for another call on the
+	 * same stripe to finish.
+	 *
+	 * @return
+	 */
+	public long getMaxQueueTimeMs() {
+		return maxQueueTimeMs.get();
+	}
+
+	/**
+	 * The number of refresh calls that were not passed to the wrapped
+	 * semaphore.
+	 *
+	 * @return
+	 */
+	public long getCoalescedRefreshCount() {
+		return coalescedRefreshCount.get();
+	}
+}
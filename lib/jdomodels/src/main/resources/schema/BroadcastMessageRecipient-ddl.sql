@@ -0,0 +1,7 @@
+CREATE TABLE IF NOT EXISTS `MESSAGE_BROADCAST_RECIPIENT` (
+  `CHANGE_NUMBER` bigint(20) NOT NULL,
+  `RECIPIENT_ID` bigint(20) NOT NULL,
+  PRIMARY KEY (`CHANGE_NUMBER`, `RECIPIENT_ID`),
+  CONSTRAINT `BROAD_RECIPIENT_CHANGE_NUM_FK` FOREIGN KEY (`CHANGE_NUMBER`) REFERENCES `MESSAGE_BROADCAST` (`CHANGE_NUMBER`) ON DELETE CASCADE,
+  CONSTRAINT `BROAD_RECIPIENT_ID_FK` FOREIGN KEY (`RECIPIENT_ID`) REFERENCES `JDOUSERGROUP` (`ID`) ON DELETE CASCADE
+)
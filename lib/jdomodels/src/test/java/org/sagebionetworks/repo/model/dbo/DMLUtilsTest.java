@@ -280,6 +280,18 @@ public class DMLUtilsTest {
 		assertEquals("INSERT INTO SOME_TABLE(`ID`, `ETAG`, `PARENT_ID`) VALUES (:id, :etag, :parentId) ON DUPLICATE KEY UPDATE `ETAG` = :etag, `PARENT_ID` = :parentId", sql);
 	}
 	
+	@Test
+	public void testGetBatchInsertOrUpdatePositional(){
+		String sql = DMLUtils.getBatchInsertOrUpdatePositional(migrateableMappingSelfForeignKey);
+		assertEquals("INSERT INTO SOME_TABLE(`ID`, `ETAG`, `PARENT_ID`) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE `ETAG` = VALUES(`ETAG`), `PARENT_ID` = VALUES(`PARENT_ID`)", sql);
+	}
+	
+	@Test
+	public void testGetBatchInsertOrUpdatePositionalPrimaryKeyOnly(){
+		String sql = DMLUtils.getBatchInsertOrUpdatePositional(migrateableMappingNoEtagNotSelfForeignKey);
+		assertEquals("INSERT IGNORE INTO SOME_TABLE(`ID`) VALUES (?)", sql);
+	}
+	
 	@Test
 	public void testGetBatchInsertOrUdpatePrimaryKeyOnly(){
 		String sql = DMLUtils.getBatchInsertOrUdpate(migrateableMappingNoEtagNotSelfForeignKey);
@@ -288,6 +300,13 @@ public class DMLUtilsTest {
 		assertEquals("INSERT IGNORE INTO SOME_TABLE(`ID`) VALUES (:id)", sql);
 	}
 	
+	@Test
+	public void testCreateSelectBucketChecksumStatement() {
+		final String expectedSql = "SELECT (`ID` - ?) DIV ? AS BUCKET, CONCAT(SUM(CRC32(CONCAT(`ID`, '@', IFNULL(`ETAG`, 'NULL'), '@@', ?))), '%', BIT_XOR(CRC32(CONCAT(`ID`, '@', IFNULL(`ETAG`, 'NULL'), '@@', ?)))) AS CHECKSUM FROM SOME_TABLE WHERE `ID` >= ? AND `ID` <= ? GROUP BY BUCKET ORDER BY BUCKET";
+		String sql = DMLUtils.createSelectBucketChecksumStatement(migrateableMappingEtagAndId);
+		assertEquals(expectedSql, sql);
+	}
+	
 	@Test
 	public void testCreateSelectChecksumStatementWithEtagColumn() {
 		final String expectedSql = "SELECT CONCAT(SUM(CRC32(CONCAT(`ID`, '@', IFNULL(`ETAG`, 'NULL'), '@@', ?))), '%', BIT_XOR(CRC32(CONCAT(`ID`, '@', IFNULL(`ETAG`, 'NULL'), '@@', ?)))) FROM SOME_TABLE WHERE `ID` >= ? AND `ID` <= ?";
@@ -0,0 +1,157 @@
+package org.sagebionetworks.repo.model.dbo.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.repo.model.ACCESS_TYPE;
+import org.sagebionetworks.repo.model.ResourceAccess;
+import org.sagebionetworks.util.Clock;
+
+import com.google.common.collect.Sets;
+
+public class AclSnapshotCacheTest {
+
+	@Mock
+	Clock mockClock;
+
+	AclSnapshotCache cache;
+	Map<Long, Set<ACCESS_TYPE>> access;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		when(mockClock.currentTimeMillis()).thenReturn(1000L);
+		// a single stripe so eviction is least-recently-used across the cache.
+		cache = new AclSnapshotCache(2, 100L, mockClock, 1);
+		access = new HashMap<Long, Set<ACCESS_TYPE>>();
+		access.put(123L, Sets.newHashSet(ACCESS_TYPE.READ, ACCESS_TYPE.UPDATE));
+		access.put(456L, new HashSet<ACCESS_TYPE>());
+	}
+
+	@Test
+	public void testPutGet() {
+		cache.put(1L, "etag", access);
+		Set<ResourceAccess> raSet = cache.get(1L, "etag");
+		assertEquals(2, raSet.size());
+		for (ResourceAccess ra : raSet) {
+			assertEquals(access.get(ra.getPrincipalId()), ra.getAccessType());
+		}
+	}
+
+	@Test
+	public void testGetReturnsCopies() {
+		cache.put(1L, "etag", access);
+		// changes to the input must not change the snapshot.
+		access.get(123L).add(ACCESS_TYPE.DELETE);
+		Set<ResourceAccess> first = cache.get(1L, "etag");
+		for (ResourceAccess ra : first) {
+			ra.getAccessType().add(ACCESS_TYPE.CHANGE_PERMISSIONS);
+		}
+		Set<ResourceAccess> second = cache.get(1L, "etag");
+		assertNotSame(first, second);
+		for (ResourceAccess ra : second) {
+			if (ra.getPrincipalId().equals(123L)) {
+				assertEquals(Sets.newHashSet(ACCESS_TYPE.READ, ACCESS_TYPE.UPDATE), ra.getAccessType());
+			} else {
+				assertEquals(new HashSet<ACCESS_TYPE>(), ra.getAccessType());
+			}
+		}
+	}
+
+	@Test
+	public void testGetMiss() {
+		assertNull(cache.get(1L, "etag"));
+	}
+
+	@Test
+	public void testEtagChanged() {
+		cache.put(1L, "etag", access);
+		assertNull(cache.get(1L, "newEtag"));
+		// the stale snapshot is removed.
+		assertEquals(0, cache.size());
+		assertNull(cache.get(1L, "etag"));
+	}
+
+	@Test
+	public void testExpired() {
+		cache.put(1L, "etag", access);
+		when(mockClock.currentTimeMillis()).thenReturn(1100L);
+		assertEquals(2, cache.get(1L, "etag").size());
+		when(mockClock.currentTimeMillis()).thenReturn(1101L);
+		assertNull(cache.get(1L, "etag"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		cache.put(1L, "one", access);
+		cache.put(2L, "two", access);
+		// touch the first so the second is the eldest.
+		cache.get(1L, "one");
+		cache.put(3L, "three", access);
+		assertEquals(2, cache.size());
+		assertEquals(2, cache.get(1L, "one").size());
+		assertNull(cache.get(2L, "two"));
+		assertEquals(2, cache.get(3L, "three").size());
+	}
+
+	@Test
+	public void testInvalidate() {
+		cache.put(1L, "etag", access);
+		cache.put(2L, "etag", access);
+		cache.invalidate(1L);
+		assertNull(cache.get(1L, "etag"));
+		assertEquals(1, cache.size());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutNullEtag() {
+		cache.put(1L, null, access);
+	}
+
+	@Test
+	public void testStripes() {
+		cache = new AclSnapshotCache(4, 100L, mockClock, 2);
+		for (long aclId = 0; aclId < 10; aclId++) {
+			cache.put(aclId, "etag", access);
+		}
+		assertEquals(4, cache.size());
+		// each stripe keeps its two most recent ACLs.
+		for (long aclId = 0; aclId < 6; aclId++) {
+			assertNull(cache.get(aclId, "etag"));
+		}
+		for (long aclId = 6; aclId < 10; aclId++) {
+			assertEquals(2, cache.get(aclId, "etag").size());
+		}
+	}
+
+	@Test
+	public void testDefaultStripes() {
+		assertEquals(AclSnapshotCache.DEFAULT_NUMBER_OF_STRIPES, new AclSnapshotCache(10000, 100L, mockClock).getNumberOfStripes());
+		// never more stripes than ACLs.
+		assertEquals(2, new AclSnapshotCache(2, 100L, mockClock).getNumberOfStripes());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMoreStripesThanMaxSize() {
+		new AclSnapshotCache(2, 100L, mockClock, 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxSizeZero() {
+		new AclSnapshotCache(0, 100L, mockClock);
+	}
+}
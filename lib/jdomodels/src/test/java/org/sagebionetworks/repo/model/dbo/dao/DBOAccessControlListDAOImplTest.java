@@ -323,6 +323,96 @@ public class DBOAccessControlListDAOImplTest {
 		aclDAO.get(aclId);
 	}
 	
+	@Test
+	public void testGetBatch() throws Exception {
+		AccessControlList acl = aclList.iterator().next();
+		Long aclId = aclDAO.getAclId(acl.getId(), ObjectType.ENTITY);
+		AccessControlList empty = createAclForNewNode(new HashSet<ResourceAccess>());
+		Long emptyId = aclDAO.getAclId(empty.getId(), ObjectType.ENTITY);
+		// call under test
+		List<AccessControlList> results = aclDAO.get(Arrays.asList(emptyId, -598787L, aclId, emptyId));
+		// the missing ACL is skipped and duplicates are kept in order.
+		assertEquals(Arrays.asList(empty, acl, empty), results);
+		// Each ACL is a new object.
+		assertFalse(results.get(0) == results.get(2));
+		assertFalse(results.get(0).getResourceAccess() == results.get(2).getResourceAccess());
+		// a second call is served from the same data.
+		assertEquals(results, aclDAO.get(Arrays.asList(emptyId, -598787L, aclId, emptyId)));
+	}
+	
+	@Test
+	public void testGetBatchEmpty() throws Exception {
+		List<AccessControlList> results = aclDAO.get(new ArrayList<Long>());
+		assertNotNull(results);
+		assertTrue(results.isEmpty());
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testGetBatchNull() throws Exception {
+		aclDAO.get((List<Long>)null);
+	}
+	
+	@Test
+	public void testGetPrincipalWithoutAccessTypes() throws Exception {
+		Set<ResourceAccess> ras = new HashSet<ResourceAccess>();
+		ResourceAccess ra = new ResourceAccess();
+		ra.setPrincipalId(Long.parseLong(group2.getId()));
+		ra.setAccessType(new HashSet<ACCESS_TYPE>());
+		ras.add(ra);
+		AccessControlList acl = createAclForNewNode(ras);
+		assertEquals(ras, acl.getResourceAccess());
+		Long aclId = aclDAO.getAclId(acl.getId(), ObjectType.ENTITY);
+		assertEquals(acl, aclDAO.get(aclId));
+	}
+	
+	@Test
+	public void testGetAfterUpdate() throws Exception {
+		String rid = nodeList.iterator().next().getId();
+		AccessControlList acl = aclDAO.get(rid, ObjectType.ENTITY);
+		// changes to a returned ACL must not change the next read.
+		acl.getResourceAccess().iterator().next().getAccessType().add(ACCESS_TYPE.DELETE);
+		AccessControlList original = aclDAO.get(rid, ObjectType.ENTITY);
+		assertEquals(aclList.iterator().next(), original);
+		// A read after an update must never return the old resource access.
+		ResourceAccess ra2 = new ResourceAccess();
+		ra2.setPrincipalId(Long.parseLong(group2.getId()));
+		ra2.setAccessType(Sets.newHashSet(ACCESS_TYPE.UPDATE));
+		original.getResourceAccess().add(ra2);
+		aclDAO.update(original, ObjectType.ENTITY);
+		AccessControlList updated = aclDAO.get(rid, ObjectType.ENTITY);
+		assertEquals(original.getEtag(), updated.getEtag());
+		assertEquals(original.getResourceAccess(), updated.getResourceAccess());
+		Long aclId = aclDAO.getAclId(rid, ObjectType.ENTITY);
+		assertEquals(updated, aclDAO.get(aclId));
+		assertEquals(Arrays.asList(updated), aclDAO.get(Arrays.asList(aclId)));
+	}
+	
+	/**
+	 * Create a new node with an ACL.
+	 * @param ras
+	 * @return The ACL as read back from the database.
+	 * @throws Exception
+	 */
+	private AccessControlList createAclForNewNode(Set<ResourceAccess> ras) throws Exception {
+		Node newNode = new Node();
+		newNode.setName("bar");
+		newNode.setCreatedOn(new Date());
+		newNode.setCreatedByPrincipalId(createdById);
+		newNode.setModifiedOn(new Date());
+		newNode.setModifiedByPrincipalId(modifiedById);
+		newNode.setNodeType(EntityType.project);
+		String nodeId = nodeDAO.createNew(newNode);
+		nodeList.add(nodeDAO.getNode(nodeId));
+		AccessControlList acl = new AccessControlList();
+		acl.setId(nodeId);
+		acl.setCreationDate(new Date(System.currentTimeMillis()));
+		acl.setResourceAccess(ras);
+		aclDAO.create(acl, ObjectType.ENTITY);
+		acl = aclDAO.get(nodeId, ObjectType.ENTITY);
+		aclList.add(acl);
+		return acl;
+	}
+	
 	////////////////////
 	//getAclIds() tests
 	////////////////////
@@ -0,0 +1,78 @@
+package org.sagebionetworks.repo.model.dbo.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sagebionetworks.repo.model.AuthorizationConstants.BOOTSTRAP_PRINCIPAL;
+import org.sagebionetworks.repo.model.EntityType;
+import org.sagebionetworks.repo.model.Node;
+import org.sagebionetworks.repo.model.NodeDAO;
+import org.sagebionetworks.repo.model.jdo.NodeTestUtils;
+import org.sagebionetworks.repo.web.NotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Times path lookups for the leaf of synthetic hierarchies 5 to 50 levels deep.
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:jdomodels-test-context.xml" })
+public class NodeDAOImplScaleTest {
+
+	@Autowired
+	NodeDAO nodeDao;
+
+	int maxDepth;
+	int iterations;
+	String[] ids;
+
+	@Before
+	public void before(){
+		maxDepth = 50;
+		iterations = 20;
+		ids = new String[maxDepth];
+	}
+
+	@After
+	public void after(){
+		// delete from the leaf up.
+		for(int i=ids.length-1; i>=0; i--){
+			if(ids[i] != null){
+				try {
+					nodeDao.delete(ids[i]);
+				} catch (NotFoundException e) {
+				}
+			}
+		}
+	}
+
+	@Ignore
+	@Test
+	public void testGetEntityPathDepth() throws NotFoundException {
+		Long creatorUserGroupId = BOOTSTRAP_PRINCIPAL.THE_ADMIN_USER.getPrincipalId();
+		for (int i=0; i<maxDepth; i++) {
+			Node node = NodeTestUtils.createNew("node_"+i, creatorUserGroupId);
+			node.setNodeType(EntityType.project);
+			if (i>0) node.setParentId(ids[i-1]);
+			ids[i] = nodeDao.createNew(node);
+			assertNotNull(ids[i]);
+		}
+		for (int depth=5; depth<=maxDepth; depth+=5) {
+			// warm up
+			assertEquals(depth, nodeDao.getEntityPath(ids[depth-1]).size());
+			long start = System.nanoTime();
+			for (int i=0; i<iterations; i++) {
+				nodeDao.getEntityPath(ids[depth-1]);
+			}
+			long averageMicros = (System.nanoTime()-start)/iterations/1000;
+			System.out.println("getEntityPath() depth: "+depth+" average: "+averageMicros+" us");
+		}
+	}
+}
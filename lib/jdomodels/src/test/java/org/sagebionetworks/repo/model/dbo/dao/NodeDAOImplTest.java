@@ -1543,6 +1543,68 @@ public class NodeDAOImplTest {
 		nodeDao.getEntityPath("syn9999999");
 	}
 	
+	@Test
+	public void testGetEntityPaths() throws Exception {
+		Node node = privateCreateNew("parent");
+		node.setNodeType(EntityType.project);
+		String parentId = nodeDao.createNew(node);
+		toDelete.add(parentId);
+		node = privateCreateNew("child");
+		node.setNodeType(EntityType.folder);
+		node.setParentId(parentId);
+		String childId = nodeDao.createNew(node);
+		toDelete.add(childId);
+		node = privateCreateNew("grandChild");
+		node.setNodeType(EntityType.folder);
+		node.setParentId(childId);
+		String grandId = nodeDao.createNew(node);
+		toDelete.add(grandId);
+		Long doesNotExist = 9999999L;
+		List<Long> ids = Lists.newArrayList(KeyFactory.stringToKey(grandId), KeyFactory.stringToKey(childId), doesNotExist);
+		// call under test
+		Map<Long, List<EntityHeader>> paths = nodeDao.getEntityPaths(ids);
+		assertEquals(2, paths.size());
+		assertFalse(paths.containsKey(doesNotExist));
+		// each path must match the single entity version.
+		assertEquals(nodeDao.getEntityPath(grandId), paths.get(KeyFactory.stringToKey(grandId)));
+		assertEquals(nodeDao.getEntityPath(childId), paths.get(KeyFactory.stringToKey(childId)));
+	}
+	
+	@Test
+	public void testGetNodesAndAnnotations() throws Exception {
+		Node node = privateCreateNew("parent");
+		node.setNodeType(EntityType.project);
+		String parentId = nodeDao.createNew(node);
+		toDelete.add(parentId);
+		node = privateCreateNew("child");
+		node.setNodeType(EntityType.folder);
+		node.setParentId(parentId);
+		String childId = nodeDao.createNew(node);
+		toDelete.add(childId);
+		NamedAnnotations named = nodeDao.getAnnotations(childId);
+		named.getAdditionalAnnotations().addAnnotation("aString", "someString");
+		nodeDao.updateAnnotations(childId, named);
+		List<Long> ids = Lists.newArrayList(KeyFactory.stringToKey(parentId), KeyFactory.stringToKey(childId), 9999999L);
+		// call under test
+		List<Node> nodes = nodeDao.getNodes(ids);
+		assertEquals(2, nodes.size());
+		Map<String, Node> nodeMap = new HashMap<String, Node>();
+		for(Node n: nodes){
+			nodeMap.put(n.getId(), n);
+		}
+		assertEquals(nodeDao.getNode(parentId), nodeMap.get(parentId));
+		assertEquals(nodeDao.getNode(childId), nodeMap.get(childId));
+		// call under test
+		List<NamedAnnotations> annos = nodeDao.getAnnotations(ids);
+		assertEquals(2, annos.size());
+		Map<String, NamedAnnotations> annoMap = new HashMap<String, NamedAnnotations>();
+		for(NamedAnnotations a: annos){
+			annoMap.put(a.getId(), a);
+		}
+		assertEquals(nodeDao.getAnnotations(childId), annoMap.get(childId));
+		assertEquals("someString", annoMap.get(childId).getAdditionalAnnotations().getSingleValue("aString"));
+	}
+	
 	// we introduced batch entity path search so we test the case that 
 	// the path is bigger than one batch
 	@Test
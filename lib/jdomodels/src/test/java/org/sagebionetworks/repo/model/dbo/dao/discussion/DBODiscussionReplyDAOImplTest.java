@@ -9,7 +9,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 
 import org.junit.After;
@@ -376,6 +378,54 @@ public class DBODiscussionReplyDAOImplTest {
 		assertEquals(stat.getNumberOfReplies(), (Long) 1L);
 	}
 
+	@Test
+	public void testGetThreadReplyStatsForMultipleThreads() throws InterruptedException {
+		// create another thread with deleted replies and a thread without replies
+		Long threadIdLong2 = idGenerator.generateNewId(TYPE.DISCUSSION_THREAD_ID);
+		threadDao.createThread(forumId, threadIdLong2.toString(), "title", "messageKey2", userId);
+		Long threadIdLong3 = idGenerator.generateNewId(TYPE.DISCUSSION_THREAD_ID);
+		threadDao.createThread(forumId, threadIdLong3.toString(), "title", "messageKey3", userId);
+		createReplies(2, threadId);
+		List<DiscussionReplyBundle> replies = createReplies(3, threadIdLong2.toString());
+		replyDao.markReplyAsDeleted(Long.parseLong(replies.get(0).getId()));
+
+		Set<Long> threadIds = new HashSet<Long>(Arrays.asList(threadIdLong, threadIdLong2, threadIdLong3));
+		Map<Long, DiscussionThreadReplyStat> stats = replyDao.getThreadReplyStats(threadIds);
+		assertEquals(2, stats.size());
+		assertEquals(replyDao.getThreadReplyStat(threadIdLong), stats.get(threadIdLong));
+		assertEquals(replyDao.getThreadReplyStat(threadIdLong2), stats.get(threadIdLong2));
+		assertEquals((Long) 2L, stats.get(threadIdLong2).getNumberOfReplies());
+		assertNull(stats.get(threadIdLong3));
+
+		assertTrue(replyDao.getThreadReplyStats(new HashSet<Long>()).isEmpty());
+	}
+
+	@Test
+	public void testGetActiveAuthorsForMultipleThreads() {
+		Long threadIdLong2 = idGenerator.generateNewId(TYPE.DISCUSSION_THREAD_ID);
+		String threadId2 = threadIdLong2.toString();
+		threadDao.createThread(forumId, threadId2, "title", "messageKey2", userId);
+		List<Long> users = createUsers(MAX_ACTIVE_AUTHORS + 1);
+		usersToDelete.addAll(users);
+		// the first user has the most replies in the first thread.
+		for (int i = 0; i < users.size(); i++) {
+			replyDao.createReply(threadId, idGenerator.generateNewId(TYPE.DISCUSSION_REPLY_ID).toString(),
+					UUID.randomUUID().toString(), users.get(i));
+		}
+		replyDao.createReply(threadId, idGenerator.generateNewId(TYPE.DISCUSSION_REPLY_ID).toString(),
+				UUID.randomUUID().toString(), users.get(0));
+		replyDao.createReply(threadId2, idGenerator.generateNewId(TYPE.DISCUSSION_REPLY_ID).toString(),
+				UUID.randomUUID().toString(), users.get(1));
+
+		Map<Long, List<String>> authors = replyDao.getActiveAuthors(new HashSet<Long>(Arrays.asList(threadIdLong, threadIdLong2)));
+		assertEquals(2, authors.size());
+		assertEquals(MAX_ACTIVE_AUTHORS, authors.get(threadIdLong).size());
+		assertEquals(users.get(0).toString(), authors.get(threadIdLong).get(0));
+		assertEquals(Arrays.asList(users.get(1).toString()), authors.get(threadIdLong2));
+
+		assertTrue(replyDao.getActiveAuthors(new HashSet<Long>()).isEmpty());
+	}
+
 	@Test
 	public void testGetThreadAuthorStats() throws InterruptedException {
 		List<String> activeAuthors = replyDao.getActiveAuthors(threadIdLong);
@@ -6,8 +6,10 @@ import static org.junit.Assert.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
@@ -507,6 +509,70 @@ public class DBODiscussionThreadDAOImplTest {
 		assertEquals(0L, threadDao.countThreadView(threadId));
 	}
 
+	@Test
+	public void testUpdateThreadViews() {
+		String etag = threadDao.createThread(forumId, threadId.toString(), "title", "messageKey", userId).getEtag();
+		Long threadId2 = idGenerator.generateNewId(TYPE.DISCUSSION_THREAD_ID);
+		threadDao.createThread(forumId, threadId2 .toString(), "title", "messageKey2", userId);
+
+		UserGroup user = new UserGroup();
+		user.setIsIndividual(true);
+		userId2 = userGroupDAO.create(user);
+
+		Map<Long, Set<Long>> views = new HashMap<Long, Set<Long>>();
+		views.put(threadId, new HashSet<Long>(Arrays.asList(userId)));
+		views.put(threadId2, new HashSet<Long>(Arrays.asList(userId, userId2)));
+		threadDao.updateThreadViews(views);
+		assertEquals((Long) 1L, threadDao.getThread(threadId, DEFAULT_FILTER).getNumberOfViews());
+		assertEquals((Long) 2L, threadDao.getThread(threadId2, DEFAULT_FILTER).getNumberOfViews());
+		assertFalse(etag.equals(threadDao.getEtagForUpdate(threadId)));
+
+		// views that were already recorded, such as by another node, are not counted again.
+		views = new HashMap<Long, Set<Long>>();
+		views.put(threadId, new HashSet<Long>(Arrays.asList(userId, userId2)));
+		views.put(threadId2, new HashSet<Long>(Arrays.asList(userId2)));
+		threadDao.updateThreadViews(views);
+		assertEquals((Long) 2L, threadDao.getThread(threadId, DEFAULT_FILTER).getNumberOfViews());
+		assertEquals((Long) 2L, threadDao.getThread(threadId2, DEFAULT_FILTER).getNumberOfViews());
+		assertEquals(2L, threadDao.countThreadView(threadId));
+	}
+
+	@Test
+	public void testUpdateThreadViewsForNonExistingThread() {
+		threadDao.createThread(forumId, threadId.toString(), "title", "messageKey", userId);
+		Long deletedThreadId = idGenerator.generateNewId(TYPE.DISCUSSION_THREAD_ID);
+		Map<Long, Set<Long>> views = new HashMap<Long, Set<Long>>();
+		views.put(threadId, new HashSet<Long>(Arrays.asList(userId)));
+		views.put(deletedThreadId, new HashSet<Long>(Arrays.asList(userId)));
+		threadDao.updateThreadViews(views);
+		assertEquals((Long) 1L, threadDao.getThread(threadId, DEFAULT_FILTER).getNumberOfViews());
+		assertEquals(0L, threadDao.countThreadView(deletedThreadId));
+	}
+
+	@Test
+	public void testUpdateThreadViewsEmpty() {
+		threadDao.updateThreadViews(new HashMap<Long, Set<Long>>());
+	}
+
+	@Test
+	public void testUpdateThreadReplyStatsKeepsViews() {
+		threadDao.createThread(forumId, threadId.toString(), "title", "messageKey", userId);
+		Map<Long, Set<Long>> views = new HashMap<Long, Set<Long>>();
+		views.put(threadId, new HashSet<Long>(Arrays.asList(userId)));
+		threadDao.updateThreadViews(views);
+
+		DiscussionThreadStat stat = new DiscussionThreadStat();
+		stat.setThreadId(threadId);
+		stat.setNumberOfReplies(2L);
+		stat.setLastActivity(new Date().getTime());
+		stat.setActiveAuthors(Arrays.asList("123456"));
+		threadDao.updateThreadReplyStats(Arrays.asList(stat));
+		DiscussionThreadBundle bundle = threadDao.getThread(threadId, DEFAULT_FILTER);
+		assertEquals((Long) 2L, bundle.getNumberOfReplies());
+		assertEquals(Arrays.asList("123456"), bundle.getActiveAuthors());
+		assertEquals((Long) 1L, bundle.getNumberOfViews());
+	}
+
 	@Test
 	public void testGetAllThreadId() {
 		assertTrue(threadDao.getAllThreadId(10L, 0L).isEmpty());
@@ -0,0 +1,234 @@
+package org.sagebionetworks.repo.model.dbo.dao.migration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+import org.sagebionetworks.repo.model.dbo.migration.BackupRowCodec;
+import org.sagebionetworks.repo.model.dbo.persistence.DBORevision;
+
+public class BackupRowCodecTest {
+
+	DBORevision revision;
+
+	@Before
+	public void before(){
+		revision = new DBORevision();
+		revision.setOwner(123L);
+		revision.setRevisionNumber(2L);
+		revision.setLabel("label \u00e9");
+		revision.setComment(null);
+		revision.setModifiedBy(456L);
+		revision.setModifiedOn(789L);
+		revision.setAnnotations(new byte[]{1, 2, 3});
+		revision.setReference(new byte[0]);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException{
+		BackupRowCodec<DBORevision> codec = BackupRowCodec.create(revision.getTableMapping());
+		assertNotNull(codec);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.writeHeader(out);
+		codec.writeRow(out, revision);
+		codec.writeRow(out, revision);
+		codec.writeEnd(out);
+		out.flush();
+		// read it back
+		BackupRowCodec<DBORevision>.Reader reader = codec.openReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(revision, reader.next());
+		assertEquals(revision, reader.next());
+		assertNull(reader.next());
+	}
+
+	@Test
+	public void testGetBindings(){
+		BackupRowCodec<DBORevision> codec = BackupRowCodec.create(revision.getTableMapping());
+		Object[] bindings = codec.getBindings(revision);
+		assertEquals(revision.getTableMapping().getFieldColumns().length, bindings.length);
+		assertEquals(123L, bindings[0]);
+		assertEquals(2L, bindings[1]);
+		assertEquals(new Long(123L), codec.getBackupId(revision));
+	}
+
+	@Test
+	public void testReadWithChangedColumns() throws IOException{
+		// write with the old columns
+		BackupRowCodec<Stub> oldCodec = BackupRowCodec.create(new StubMapping(new FieldColumn[]{
+				new FieldColumn("id", "ID", true).withIsBackupId(true),
+				new FieldColumn("name", "NAME"),
+				new FieldColumn("count", "REMOVED_COLUMN"),
+		}));
+		Stub stub = new Stub();
+		stub.setId(1L);
+		stub.setName("name");
+		stub.setCount(5);
+		stub.setCreatedOn(new Timestamp(1000L));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		oldCodec.writeHeader(out);
+		oldCodec.writeRow(out, stub);
+		oldCodec.writeEnd(out);
+		out.flush();
+		// read with the new columns
+		BackupRowCodec<Stub> newCodec = BackupRowCodec.create(new StubMapping(new FieldColumn[]{
+				new FieldColumn("id", "ID", true).withIsBackupId(true),
+				new FieldColumn("name", "NAME"),
+				new FieldColumn("createdOn", "CREATED_ON"),
+		}));
+		Stub result = newCodec.openReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))).next();
+		assertEquals(new Long(1L), result.getId());
+		assertEquals("name", result.getName());
+		// removed column is ignored and added column is unset.
+		assertEquals(0, result.getCount());
+		assertNull(result.getCreatedOn());
+	}
+
+	@Test
+	public void testTimestampRoundTrip() throws IOException{
+		BackupRowCodec<Stub> codec = BackupRowCodec.create(new StubMapping(new FieldColumn[]{
+				new FieldColumn("id", "ID", true).withIsBackupId(true),
+				new FieldColumn("createdOn", "CREATED_ON"),
+				new FieldColumn("data", "DATA"),
+		}));
+		Stub stub = new Stub();
+		stub.setId(1L);
+		Timestamp timestamp = new Timestamp(1000L);
+		timestamp.setNanos(123456789);
+		stub.setCreatedOn(timestamp);
+		stub.setData(new byte[]{9, 8});
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.writeHeader(out);
+		codec.writeRow(out, stub);
+		codec.writeEnd(out);
+		out.flush();
+		Stub result = codec.openReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))).next();
+		assertEquals(timestamp, result.getCreatedOn());
+		assertArrayEquals(new byte[]{9, 8}, result.getData());
+	}
+
+	@Test
+	public void testUnsupportedPropertyType(){
+		assertNull(BackupRowCodec.create(new StubMapping(new FieldColumn[]{
+				new FieldColumn("id", "ID", true).withIsBackupId(true),
+				new FieldColumn("type", "TYPE"),
+		})));
+	}
+
+	@Test
+	public void testMissingProperty(){
+		assertNull(BackupRowCodec.create(new StubMapping(new FieldColumn[]{
+				new FieldColumn("doesNotExist", "ID", true).withIsBackupId(true),
+		})));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWrongTable() throws IOException{
+		BackupRowCodec<DBORevision> codec = BackupRowCodec.create(revision.getTableMapping());
+		BackupRowCodec<Stub> other = BackupRowCodec.create(new StubMapping(new FieldColumn[]{
+				new FieldColumn("id", "ID", true).withIsBackupId(true),
+		}));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		other.writeHeader(out);
+		other.writeEnd(out);
+		out.flush();
+		codec.openReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	public static class Stub {
+		private Long id;
+		private String name;
+		private int count;
+		private Timestamp createdOn;
+		private byte[] data;
+		private Thread.State type;
+
+		public Long getId() {
+			return id;
+		}
+		public void setId(Long id) {
+			this.id = id;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public int getCount() {
+			return count;
+		}
+		public void setCount(int count) {
+			this.count = count;
+		}
+		public Timestamp getCreatedOn() {
+			return createdOn;
+		}
+		public void setCreatedOn(Timestamp createdOn) {
+			this.createdOn = createdOn;
+		}
+		public byte[] getData() {
+			return data;
+		}
+		public void setData(byte[] data) {
+			this.data = data;
+		}
+		public Thread.State getType() {
+			return type;
+		}
+		public void setType(Thread.State type) {
+			this.type = type;
+		}
+	}
+
+	private static class StubMapping implements TableMapping<Stub> {
+
+		private final FieldColumn[] columns;
+
+		StubMapping(FieldColumn[] columns) {
+			this.columns = columns;
+		}
+
+		@Override
+		public Stub mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return null;
+		}
+
+		@Override
+		public String getTableName() {
+			return "STUB";
+		}
+
+		@Override
+		public String getDDLFileName() {
+			return null;
+		}
+
+		@Override
+		public FieldColumn[] getFieldColumns() {
+			return columns;
+		}
+
+		@Override
+		public Class<? extends Stub> getDBOClass() {
+			return Stub.class;
+		}
+	}
+}
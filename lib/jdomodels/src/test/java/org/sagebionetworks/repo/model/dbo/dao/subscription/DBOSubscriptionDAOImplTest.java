@@ -350,6 +350,29 @@ public class DBOSubscriptionDAOImplTest {
 		assertEquals(subscriber.getUsername(), sub.getUsername());
 	}
 
+	@Test
+	public void testGetEmailSubscribers(){
+		List<Subscriber> page = subscriptionDao.getEmailSubscribers(threadId, SubscriptionObjectType.THREAD, 0L, 10L);
+		assertTrue(page.isEmpty());
+
+		Subscription subscription = subscriptionDao.create(userId, threadId, SubscriptionObjectType.THREAD);
+		page = subscriptionDao.getEmailSubscribers(threadId, SubscriptionObjectType.THREAD, 0L, 10L);
+		assertEquals(1L, page.size());
+		Subscriber sub = page.get(0);
+		assertEquals(subscription.getSubscriptionId(), sub.getSubscriptionId());
+		assertEquals(userId, sub.getSubscriberId());
+		assertEquals(subscriber.getNotificationEmail(), sub.getNotificationEmail());
+		// the next page starts after the last subscription.
+		page = subscriptionDao.getEmailSubscribers(threadId, SubscriptionObjectType.THREAD,
+				Long.parseLong(sub.getSubscriptionId()), 10L);
+		assertTrue(page.isEmpty());
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testGetEmailSubscribersWithZeroLimit(){
+		subscriptionDao.getEmailSubscribers(threadId, SubscriptionObjectType.THREAD, 0L, 0L);
+	}
+
 	@Test (expected=IllegalArgumentException.class)
 	public void testGetAllProjectsWithNullUserId() {
 		subscriptionDao.getAllProjects(null, SubscriptionObjectType.THREAD);
@@ -0,0 +1,220 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.repo.model.dao.table.RowHandler;
+import org.sagebionetworks.repo.model.dao.table.TableRowTruthDAO;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.RowSet;
+import org.sagebionetworks.repo.model.table.TableChangeType;
+import org.sagebionetworks.repo.model.table.TableRowChange;
+
+public class PrefetchingChangeSetReaderTest {
+
+	@Mock
+	TableRowTruthDAO mockTruthDao;
+
+	ExecutorService executor;
+	List<ColumnModel> columns;
+	List<TableRowChange> changes;
+
+	@Before
+	public void before() throws IOException {
+		MockitoAnnotations.initMocks(this);
+		executor = Executors.newFixedThreadPool(4);
+		columns = Collections.singletonList(TableModelTestUtils.createColumn(1L));
+		changes = new ArrayList<TableRowChange>();
+		for (long version = 0; version < 5; version++) {
+			TableRowChange change = new TableRowChange();
+			change.setTableId("syn123");
+			change.setRowVersion(version);
+			change.setEtag("etag" + version);
+			change.setIds(Arrays.asList("1"));
+			change.setChangeType(TableChangeType.ROW);
+			changes.add(change);
+		}
+		// Each change set has a single row with the change version as its value.
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				RowHandler handler = (RowHandler) invocation.getArguments()[0];
+				TableRowChange change = (TableRowChange) invocation.getArguments()[1];
+				handler.nextRow(TableModelTestUtils.createRow(0L, change.getRowVersion(), "v" + change.getRowVersion()));
+				return null;
+			}
+		}).when(mockTruthDao).scanChangeWithoutCaching(any(RowHandler.class), any(TableRowChange.class));
+	}
+
+	@After
+	public void after() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testReadInOrder() throws IOException {
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor, changes, 2, 1000000L);
+		try {
+			for (TableRowChange change : changes) {
+				RowSet set = reader.getRowSet(change, columns);
+				assertEquals("syn123", set.getTableId());
+				assertEquals(change.getEtag(), set.getEtag());
+				assertEquals(1, set.getHeaders().size());
+				assertEquals(1, set.getRows().size());
+				assertEquals("v" + change.getRowVersion(), set.getRows().get(0).getValues().get(0));
+			}
+			assertEquals(0, reader.getPendingCount());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testOutOfOrder() throws IOException {
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor, changes, 2, 1000000L);
+		try {
+			reader.getRowSet(changes.get(1), columns);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("Expected version: 0"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testReadPastEnd() throws IOException {
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor,
+				changes.subList(0, 1), 2, 1000000L);
+		try {
+			reader.getRowSet(changes.get(0), columns);
+			reader.getRowSet(changes.get(1), columns);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testWindowSize() throws IOException {
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor, changes, 3, 1000000L);
+		try {
+			assertEquals(3, reader.getPendingCount());
+			reader.getRowSet(changes.get(0), columns);
+			assertEquals(3, reader.getPendingCount());
+			reader.getRowSet(changes.get(1), columns);
+			reader.getRowSet(changes.get(2), columns);
+			assertEquals(2, reader.getPendingCount());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testMaxBufferedBytes() throws Exception {
+		// one byte means only the change set being read can be held.
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor, changes, 3, 1L);
+		try {
+			// nothing is buffered yet so all three can start.
+			assertEquals(3, reader.getPendingCount());
+			// wait for all three to be fetched.
+			verify(mockTruthDao, timeout(10000).times(3)).scanChangeWithoutCaching(any(RowHandler.class), any(TableRowChange.class));
+			Thread.sleep(100);
+			reader.getRowSet(changes.get(0), columns);
+			// the two fetched change sets are over the ceiling so no new fetch is started.
+			assertEquals(2, reader.getPendingCount());
+			reader.getRowSet(changes.get(1), columns);
+			reader.getRowSet(changes.get(2), columns);
+			// nothing is buffered so fetching starts again.
+			assertTrue(reader.getPendingCount() > 0);
+			reader.getRowSet(changes.get(3), columns);
+			reader.getRowSet(changes.get(4), columns);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testFetchFailure() throws IOException {
+		IOException error = new IOException("S3 failure");
+		doThrow(error).when(mockTruthDao).scanChangeWithoutCaching(any(RowHandler.class), any(TableRowChange.class));
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor, changes, 2, 1000000L);
+		try {
+			reader.getRowSet(changes.get(0), columns);
+			fail();
+		} catch (IOException e) {
+			assertEquals(error, e);
+		}
+		// a failure closes the reader.
+		try {
+			reader.getRowSet(changes.get(1), columns);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCloseCancelsFetches() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				started.countDown();
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return null;
+			}
+		}).when(mockTruthDao).scanChangeWithoutCaching(any(RowHandler.class), any(TableRowChange.class));
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor, changes, 1, 1000000L);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		// call under test
+		reader.close();
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+		assertEquals(0, reader.getPendingCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotRowChange() {
+		changes.get(2).setChangeType(TableChangeType.COLUMN);
+		new PrefetchingChangeSetReader(mockTruthDao, executor, changes, 2, 1000000L);
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		PrefetchingChangeSetReader reader = new PrefetchingChangeSetReader(mockTruthDao, executor,
+				new ArrayList<TableRowChange>(), 2, 1000000L);
+		reader.close();
+		verify(mockTruthDao, never()).scanChangeWithoutCaching(any(RowHandler.class), any(TableRowChange.class));
+	}
+}
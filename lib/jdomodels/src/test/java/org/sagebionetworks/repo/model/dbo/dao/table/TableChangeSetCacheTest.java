@@ -0,0 +1,186 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.table.Row;
+
+public class TableChangeSetCacheTest {
+
+	TableChangeSetCache cache;
+	List<Row> rows;
+	String s3Key;
+
+	@Before
+	public void before() {
+		cache = new TableChangeSetCache(10000);
+		s3Key = "someKey.csv.gz";
+		rows = new ArrayList<Row>();
+		for (long i = 0; i < 3; i++) {
+			Row row = new Row();
+			row.setRowId(i);
+			row.setVersionNumber(2L);
+			row.setValues(new ArrayList<String>(Arrays.asList("a" + i, null, "c")));
+			rows.add(row);
+		}
+		// a deleted row has no values.
+		Row deleted = new Row();
+		deleted.setRowId(3L);
+		deleted.setVersionNumber(2L);
+		rows.add(deleted);
+	}
+
+	/**
+	 * Build a cached change set from the test rows.
+	 */
+	private TableChangeSetCache.ChangeSet buildChangeSet(TableChangeSetCache target, String key) {
+		TableChangeSetCache.Builder builder = target.newBuilder(key);
+		for (Row row : rows) {
+			builder.add(row);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void testPutGet() {
+		cache.put(123L, 2L, buildChangeSet(cache, s3Key));
+		List<Row> result = cache.get(123L, 2L, s3Key);
+		assertEquals(rows, result);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void testGetReturnsCopies() {
+		cache.put(123L, 2L, buildChangeSet(cache, s3Key));
+		List<Row> first = cache.get(123L, 2L, s3Key);
+		first.get(0).getValues().set(0, "changed");
+		List<Row> second = cache.get(123L, 2L, s3Key);
+		assertNotSame(first.get(0), second.get(0));
+		assertEquals("a0", second.get(0).getValues().get(0));
+	}
+
+	@Test
+	public void testBuilderCopiesRows() {
+		TableChangeSetCache.ChangeSet changeSet = buildChangeSet(cache, s3Key);
+		// changes made after the row was added must not be cached.
+		rows.get(0).getValues().set(0, "changed");
+		cache.put(123L, 2L, changeSet);
+		assertEquals("a0", cache.get(123L, 2L, s3Key).get(0).getValues().get(0));
+	}
+
+	@Test
+	public void testMiss() {
+		assertNull(cache.get(123L, 2L, s3Key));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testDifferentS3Key() {
+		cache.put(123L, 2L, buildChangeSet(cache, s3Key));
+		assertNull(cache.get(123L, 2L, "otherKey.csv.gz"));
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testTooLarge() {
+		cache = new TableChangeSetCache(100);
+		assertNull(buildChangeSet(cache, s3Key));
+		cache.put(123L, 2L, null);
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testRowWithoutId() {
+		rows.get(1).setRowId(null);
+		assertNull(buildChangeSet(cache, s3Key));
+	}
+
+	@Test
+	public void testManyRows() {
+		TableChangeSetCache.Builder builder = cache.newBuilder(s3Key);
+		for (long i = 0; i < 100; i++) {
+			Row row = new Row();
+			row.setRowId(i);
+			row.setVersionNumber(3L);
+			builder.add(row);
+		}
+		cache.put(123L, 3L, builder.build());
+		List<Row> result = cache.get(123L, 3L, s3Key);
+		assertEquals(100, result.size());
+		assertEquals(new Long(99), result.get(99).getRowId());
+		assertEquals(new Long(3), result.get(99).getVersionNumber());
+	}
+
+	@Test
+	public void testDisabled() {
+		cache = new TableChangeSetCache(0);
+		cache.put(123L, 2L, buildChangeSet(cache, s3Key));
+		assertNull(cache.get(123L, 2L, s3Key));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeMaxWeight() {
+		new TableChangeSetCache(-1);
+	}
+
+	@Test
+	public void testLRUEviction() {
+		long weight = buildChangeSet(cache, s3Key).weight;
+		// room for two change sets.
+		cache = new TableChangeSetCache(weight * 2);
+		cache.put(1L, 1L, buildChangeSet(cache, s3Key));
+		cache.put(1L, 2L, buildChangeSet(cache, s3Key));
+		// touch the first so the second is the least recently used.
+		assertNotNull(cache.get(1L, 1L, s3Key));
+		cache.put(1L, 3L, buildChangeSet(cache, s3Key));
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(weight * 2, cache.getWeight());
+		assertNotNull(cache.get(1L, 1L, s3Key));
+		assertNull(cache.get(1L, 2L, s3Key));
+		assertNotNull(cache.get(1L, 3L, s3Key));
+	}
+
+	@Test
+	public void testReplace() {
+		long weight = buildChangeSet(cache, s3Key).weight;
+		cache.put(1L, 1L, buildChangeSet(cache, s3Key));
+		cache.put(1L, 1L, buildChangeSet(cache, s3Key));
+		assertEquals(1, cache.getSize());
+		assertEquals(weight, cache.getWeight());
+	}
+
+	@Test
+	public void testInvalidateTable() {
+		cache.put(1L, 1L, buildChangeSet(cache, s3Key));
+		cache.put(1L, 2L, buildChangeSet(cache, s3Key));
+		cache.put(2L, 1L, buildChangeSet(cache, s3Key));
+		long weight = cache.getWeight();
+		// call under test
+		cache.invalidateTable(1L);
+		assertEquals(1, cache.getSize());
+		assertEquals(weight / 3, cache.getWeight());
+		assertNull(cache.get(1L, 1L, s3Key));
+		assertNotNull(cache.get(2L, 1L, s3Key));
+	}
+
+	@Test
+	public void testInvalidateAll() {
+		cache.put(1L, 1L, buildChangeSet(cache, s3Key));
+		cache.put(2L, 1L, buildChangeSet(cache, s3Key));
+		cache.invalidateAll();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getWeight());
+	}
+}
@@ -24,6 +24,7 @@ import org.sagebionetworks.StackConfiguration;
 import org.sagebionetworks.repo.model.AuthorizationConstants.BOOTSTRAP_PRINCIPAL;
 import org.sagebionetworks.repo.model.ConflictingUpdateException;
 import org.sagebionetworks.repo.model.dao.FileHandleDao;
+import org.sagebionetworks.repo.model.dao.table.ChangeSetReader;
 import org.sagebionetworks.repo.model.dao.table.RowAccessor;
 import org.sagebionetworks.repo.model.dao.table.RowSetAccessor;
 import org.sagebionetworks.repo.model.dao.table.TableRowTruthDAO;
@@ -60,6 +61,9 @@ public class TableRowTruthDAOImplTest {
 	
 	@Autowired
 	FileHandleDao fileHandleDao;
+	
+	@Autowired
+	TableChangeSetCache changeSetCache;
 
 	protected String creatorUserGroupId;
 
@@ -390,6 +394,71 @@ public class TableRowTruthDAOImplTest {
 		}
 	}
 	
+	@Test
+	public void testGetRowSetCached() throws IOException, NotFoundException{
+		List<ColumnModel> columns = TableModelTestUtils.createOneOfEachType();
+		List<Row> rows = TableModelTestUtils.createRows(columns, 5, false);
+		String tableId = "syn123";
+		RawRowSet set = new RawRowSet(TableModelUtils.getIds(columns), null, tableId, rows);
+		tableRowTruthDao.appendRowSetToTable(creatorUserGroupId, tableId, columns, set);
+		RowSet first = tableRowTruthDao.getRowSet(tableId, 0l, columns);
+		long hits = changeSetCache.getHitCount();
+		// the second read should come from the cache.
+		RowSet second = tableRowTruthDao.getRowSet(tableId, 0l, columns);
+		assertEquals(hits + 1, changeSetCache.getHitCount());
+		assertEquals(first, second);
+		// Changes to the returned rows must not change the cache.
+		second.getRows().get(0).getValues().set(0, "changed");
+		assertEquals(first, tableRowTruthDao.getRowSet(tableId, 0l, columns));
+		// delete the table
+		tableRowTruthDao.deleteAllRowDataForTable(tableId);
+		long misses = changeSetCache.getMissCount();
+		tableRowTruthDao.appendRowSetToTable(creatorUserGroupId, tableId, columns, set);
+		tableRowTruthDao.getRowSet(tableId, 0l, columns);
+		assertEquals(misses + 1, changeSetCache.getMissCount());
+	}
+	
+	@Test
+	public void testScanChangeWithoutCaching() throws IOException, NotFoundException{
+		List<ColumnModel> columns = TableModelTestUtils.createOneOfEachType();
+		List<Row> rows = TableModelTestUtils.createRows(columns, 5, false);
+		String tableId = "syn123";
+		RawRowSet set = new RawRowSet(TableModelUtils.getIds(columns), null, tableId, rows);
+		tableRowTruthDao.appendRowSetToTable(creatorUserGroupId, tableId, columns, set);
+		TableRowChange change = tableRowTruthDao.listRowSetsKeysForTable(tableId).get(0);
+		CaptureRowHandler rowHandler = new CaptureRowHandler();
+		// call under test
+		tableRowTruthDao.scanChangeWithoutCaching(rowHandler, change);
+		assertEquals(5, rowHandler.getCapturedRows().size());
+		// the scan must not add the change set to the cache.
+		long misses = changeSetCache.getMissCount();
+		tableRowTruthDao.getRowSet(tableId, change.getRowVersion(), columns);
+		assertEquals(misses + 1, changeSetCache.getMissCount());
+	}
+	
+	@Test
+	public void testOpenChangeSetReader() throws IOException, NotFoundException{
+		List<ColumnModel> columns = TableModelTestUtils.createOneOfEachType();
+		String tableId = "syn123";
+		for(int i=0; i<3; i++){
+			List<Row> rows = TableModelTestUtils.createRows(columns, 2, false);
+			RawRowSet set = new RawRowSet(TableModelUtils.getIds(columns), null, tableId, rows);
+			tableRowTruthDao.appendRowSetToTable(creatorUserGroupId, tableId, columns, set);
+		}
+		List<TableRowChange> changes = tableRowTruthDao.listRowSetsKeysForTable(tableId);
+		assertEquals(3, changes.size());
+		ChangeSetReader reader = tableRowTruthDao.openChangeSetReader(changes);
+		try{
+			for(TableRowChange change: changes){
+				// each change set should match the direct read.
+				RowSet expected = tableRowTruthDao.getRowSet(tableId, change.getRowVersion(), columns);
+				assertEquals(expected, reader.getRowSet(change, columns));
+			}
+		}finally{
+			reader.close();
+		}
+	}
+	
 	/**
 	 * Test for getting a RowSet with a schema that does not match the current schema.
 	 * 
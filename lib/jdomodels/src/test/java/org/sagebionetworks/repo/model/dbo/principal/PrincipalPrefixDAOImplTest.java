@@ -122,6 +122,8 @@ public class PrincipalPrefixDAOImplTest {
 
 	@After
 	public void after() {
+		// drop the index so other tests query the database.
+		principalPrefixDao.dropIndex();
 		if (toDelete != null) {
 			for (Long id : toDelete) {
 				try {
@@ -462,6 +464,97 @@ public class PrincipalPrefixDAOImplTest {
 		assertEquals(new Long(3), principalPrefixDao.countTeamsForPrefix(prefixWithNoAlphaNumerics));
 	}
 	
+	@Test
+	public void testListPrincipalsForPrefixWithIndex() {
+		addDefaultAlias();
+		principalPrefixDao.addPrincipalName("James", "Bond", romaneId);
+		List<Long> fromDatabase = principalPrefixDao.listPrincipalsForPrefix("r", 1000L, 0L);
+		principalPrefixDao.rebuildIndex();
+		assertEquals(fromDatabase, principalPrefixDao.listPrincipalsForPrefix("r", 1000L, 0L));
+		assertEquals(new Long(10), principalPrefixDao.countPrincipalsForPrefix("r"));
+		assertEquals(Arrays.asList(teamEvenId, teamOddId), principalPrefixDao.listPrincipalsForPrefix("r", 2L, 4L));
+		assertEquals(Arrays.asList(romaneId), principalPrefixDao.listPrincipalsForPrefix("James B", 1000L, 0L));
+		assertEquals(new Long(10), principalPrefixDao.countPrincipalsForPrefix("#$%"));
+	}
+
+	@Test
+	public void testIndexChanges() {
+		addDefaultAlias();
+		principalPrefixDao.rebuildIndex();
+		principalPrefixDao.addPrincipalAlias("batman", principalOne);
+		principalPrefixDao.clearPrincipal(romaneId);
+		// changes are not visible until the index is rebuilt.
+		assertEquals(new Long(0), principalPrefixDao.countPrincipalsForPrefix("bat"));
+		assertEquals(new Long(3), principalPrefixDao.countPrincipalsForPrefix("rom"));
+		principalPrefixDao.rebuildIndex();
+		assertEquals(Arrays.asList(principalOne), principalPrefixDao.listPrincipalsForPrefix("bat", 1000L, 0L));
+		assertEquals(Arrays.asList(romanusId, romulusId), principalPrefixDao.listPrincipalsForPrefix("rom", 1000L, 0L));
+	}
+
+	@Test
+	public void testUpdateIndex() throws Exception {
+		addDefaultAlias();
+		// the first update loads the whole table.
+		principalPrefixDao.updateIndex();
+		assertEquals(new Long(3), principalPrefixDao.countPrincipalsForPrefix("rom"));
+		// romane is renamed
+		principalPrefixDao.clearPrincipal(romaneId);
+		principalPrefixDao.addPrincipalAlias("batman", romaneId);
+		principalPrefixDao.addPrincipalAlias("batwoman", principalOne);
+		// a new team
+		UserGroup ug = new UserGroup();
+		ug.setIsIndividual(false);
+		Long newTeamId = Long.parseLong(userGroupDAO.create(ug).toString());
+		toDelete.add(newTeamId);
+		Team team = new Team();
+		team.setId("" + newTeamId);
+		teamDAO.create(team);
+		principalPrefixDao.addPrincipalAlias("rTeamNew", newTeamId);
+		// changes are not visible until the index is updated.
+		assertEquals(new Long(0), principalPrefixDao.countPrincipalsForPrefix("bat"));
+		principalPrefixDao.updateIndex();
+		assertEquals(Arrays.asList(romaneId, principalOne), principalPrefixDao.listPrincipalsForPrefix("bat", 1000L, 0L));
+		assertEquals(Arrays.asList(romanusId, romulusId), principalPrefixDao.listPrincipalsForPrefix("rom", 1000L, 0L));
+		assertEquals(Arrays.asList(teamAllId, teamEvenId, newTeamId, teamOddId), principalPrefixDao.listTeamsForPrefix("r", 1000L, 0L));
+		// updating again without changes does not change the results.
+		principalPrefixDao.updateIndex();
+		assertEquals(Arrays.asList(romaneId, principalOne), principalPrefixDao.listPrincipalsForPrefix("bat", 1000L, 0L));
+		assertEquals(new Long(12), principalPrefixDao.countPrincipalsForPrefix("#$%"));
+	}
+
+	@Test
+	public void testListTeamMembersForPrefixWithIndex() {
+		addDefaultAlias();
+		principalPrefixDao.rebuildIndex();
+		List<Long> results = principalPrefixDao.listTeamMembersForPrefix("r", teamOddId, 1000L, 0L);
+		assertEquals(Arrays.asList(romaneId, romulusId, ruberId, rubicundusId), results);
+		assertEquals(new Long(4), principalPrefixDao.countTeamMembersForPrefix("r", teamOddId));
+		assertEquals(Arrays.asList(rubensId, rubiconId), principalPrefixDao.listTeamMembersForPrefix("r", teamEvenId, 3L, 1L));
+		// team members are always read from the database.
+		groupMembersDAO.removeMembers(teamOddId.toString(), Arrays.asList(romaneId.toString()));
+		assertEquals(new Long(3), principalPrefixDao.countTeamMembersForPrefix("r", teamOddId));
+	}
+
+	@Test
+	public void testListTeamsForPrefixWithIndex() throws Exception {
+		addDefaultAlias();
+		principalPrefixDao.rebuildIndex();
+		assertEquals(Arrays.asList(teamAllId, teamEvenId, teamOddId), principalPrefixDao.listTeamsForPrefix("r", 1000L, 0L));
+		assertEquals(new Long(3), principalPrefixDao.countTeamsForPrefix("rteam"));
+		assertEquals(Arrays.asList(teamEvenId, teamOddId), principalPrefixDao.listTeamsForPrefix("rteam", 2L, 1L));
+		// a team created after the index was built.
+		UserGroup ug = new UserGroup();
+		ug.setIsIndividual(false);
+		Long newTeamId = Long.parseLong(userGroupDAO.create(ug).toString());
+		toDelete.add(newTeamId);
+		Team team = new Team();
+		team.setId("" + newTeamId);
+		teamDAO.create(team);
+		principalPrefixDao.addPrincipalAlias("rTeamNew", newTeamId);
+		principalPrefixDao.rebuildIndex();
+		assertEquals(Arrays.asList(teamAllId, teamEvenId, newTeamId, teamOddId), principalPrefixDao.listTeamsForPrefix("r", 1000L, 0L));
+	}
+
 	/**
 	 * Add default alias to all named principals.
 	 */
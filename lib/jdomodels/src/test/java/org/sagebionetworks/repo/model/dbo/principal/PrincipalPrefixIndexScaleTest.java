@@ -0,0 +1,146 @@
+package org.sagebionetworks.repo.model.dbo.principal;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Measures the build time, memory and query latency of a
+ * {@link PrincipalPrefixIndex} holding a million principals. Run with a heap
+ * of at least 1 GB. Each principal gets the three tokens created by the prefix
+ * worker for a user: first-last, last-first and a user name, built from random
+ * syllables.
+ *
+ */
+public class PrincipalPrefixIndexScaleTest {
+
+	private static final String[] SYLLABLES = { "an", "be", "ca", "do", "el", "fi", "go", "ha", "is", "jo", "ka",
+			"li", "ma", "ne", "or", "pa", "qu", "ri", "so", "ta", "ul", "vi", "wa", "xe", "yo", "zu" };
+
+	int principals;
+	int queries;
+	int teamSize;
+	long pageSize;
+	Random random;
+	List<String> tokens;
+	List<Long> ids;
+
+	@Before
+	public void before() {
+		principals = 1000000;
+		queries = 1000;
+		teamSize = 1000;
+		pageSize = 10;
+		random = new Random(42);
+		tokens = new ArrayList<String>(principals * 3);
+		ids = new ArrayList<Long>(principals * 3);
+		for (long id = 0; id < principals; id++) {
+			String first = randomName(random);
+			String last = randomName(random);
+			tokens.add(first + last);
+			ids.add(id);
+			tokens.add(last + first);
+			ids.add(id);
+			tokens.add(first + id);
+			ids.add(id);
+		}
+	}
+
+	@Ignore
+	@Test
+	public void testMillionPrincipals() {
+		System.gc();
+		long memoryBefore = usedMemory();
+		long start = System.nanoTime();
+		PrincipalPrefixIndex.Builder builder = new PrincipalPrefixIndex.Builder();
+		for (int i = 0; i < tokens.size(); i++) {
+			builder.addToken(tokens.get(i), ids.get(i));
+		}
+		for (int i = 0; i < teamSize; i++) {
+			builder.addTeam(random.nextInt(principals));
+		}
+		PrincipalPrefixIndex index = builder.build();
+		long buildNanos = System.nanoTime() - start;
+		builder = null;
+		System.gc();
+		long memoryAfter = usedMemory();
+		// first-last and last-first are the same token when both names match.
+		assertTrue(index.getSnapshotSize() > tokens.size() * 99L / 100);
+		assertTrue(index.getSnapshotSize() <= tokens.size());
+		System.out.println(String.format("principals %d, tokens %d, unsorted build %.0f ms, about %d MB", principals,
+				index.getSnapshotSize(), buildNanos / 1e6, (memoryAfter - memoryBefore) / (1024 * 1024)));
+
+		// rename as many users as the overlay can hold before it is compacted.
+		PrincipalPrefixIndex.Builder changes = new PrincipalPrefixIndex.Builder();
+		int changedPrincipals = PrincipalPrefixIndex.MAX_OVERLAY_SIZE / 3;
+		for (int i = 0; i < changedPrincipals; i++) {
+			long id = random.nextInt(principals);
+			String first = randomName(random);
+			String last = randomName(random);
+			changes.addToken(first + last, id);
+			changes.addToken(last + first, id);
+			changes.addToken(first + id, id);
+		}
+		start = System.nanoTime();
+		PrincipalPrefixIndex changed = index.withChanges(changes.build());
+		long changeNanos = System.nanoTime() - start;
+		assertTrue(changed.getOverlaySize() > 0);
+		System.out.println(String.format("overlay tokens %d, apply changes %.0f ms", changed.getOverlaySize(),
+				changeNanos / 1e6));
+
+		System.out.println(String.format("%-8s %14s %14s %14s %14s", "prefix", "page us", "count us", "team page us",
+				"overlay page us"));
+		for (int length = 1; length <= 5; length++) {
+			String[] prefixes = new String[queries];
+			for (int i = 0; i < queries; i++) {
+				String token = tokens.get(random.nextInt(tokens.size()));
+				prefixes[i] = token.substring(0, Math.min(length, token.length()));
+			}
+			// warm up
+			run(index, prefixes, false, false);
+			double page = run(index, prefixes, false, false);
+			double count = run(index, prefixes, false, true);
+			double teamPage = run(index, prefixes, true, false);
+			double overlayPage = run(changed, prefixes, false, false);
+			System.out.println(String.format("%-8d %14.1f %14.1f %14.1f %14.1f", length, page, count, teamPage,
+					overlayPage));
+		}
+	}
+
+	/**
+	 * Run each query.
+	 *
+	 * @return the average micro seconds per query.
+	 */
+	private double run(PrincipalPrefixIndex index, String[] prefixes, boolean teamsOnly, boolean count) {
+		long start = System.nanoTime();
+		for (String prefix : prefixes) {
+			if (count) {
+				assertTrue(index.countPrincipals(prefix, teamsOnly) >= 0);
+			} else {
+				assertTrue(index.listPrincipals(prefix, teamsOnly, pageSize, 0L).size() <= pageSize);
+			}
+		}
+		return (System.nanoTime() - start) / 1e3 / prefixes.length;
+	}
+
+	private static String randomName(Random random) {
+		StringBuilder builder = new StringBuilder();
+		int syllables = 2 + random.nextInt(3);
+		for (int i = 0; i < syllables; i++) {
+			builder.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return builder.toString();
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,163 @@
+package org.sagebionetworks.repo.model.dbo.principal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrincipalPrefixIndexTest {
+
+	PrincipalPrefixIndex index;
+
+	@Before
+	public void before() {
+		index = new PrincipalPrefixIndex.Builder()
+				.addToken("bondjames", 1L)
+				.addToken("foobar", 1L)
+				.addToken("foobarbar", 2L)
+				.addToken("jamesbond", 1L)
+				.addToken("jamessmith", 2L)
+				.addToken("rteamall", 10L)
+				.addToken("smithjames", 2L)
+				.addTeam(10L)
+				.build();
+	}
+
+	@Test
+	public void testListPrincipals() {
+		assertEquals(Arrays.asList(1L, 2L), index.listPrincipals("foo", false, 1000L, 0L));
+		assertEquals(Arrays.asList(2L), index.listPrincipals("foobarb", false, 1000L, 0L));
+		assertEquals(Arrays.asList(1L, 2L), index.listPrincipals("james", false, 1000L, 0L));
+		assertEquals(Arrays.asList(2L), index.listPrincipals("jamess", false, 1000L, 0L));
+		assertEquals(Collections.EMPTY_LIST, index.listPrincipals("zzz", false, 1000L, 0L));
+		assertEquals(Collections.EMPTY_LIST, index.listPrincipals("foobarbarbar", false, 1000L, 0L));
+		assertEquals(7, index.getSnapshotSize());
+	}
+
+	@Test
+	public void testListPrincipalsDistinctInTokenOrder() {
+		// bondjames, foobar and jamesbond all belong to 1.
+		assertEquals(Arrays.asList(1L, 2L, 10L), index.listPrincipals("", false, 1000L, 0L));
+		assertEquals(3L, index.countPrincipals("", false));
+		assertEquals(2L, index.countPrincipals("j", false));
+	}
+
+	@Test
+	public void testPaging() {
+		assertEquals(Arrays.asList(2L), index.listPrincipals("", false, 1L, 1L));
+		assertEquals(Arrays.asList(2L, 10L), index.listPrincipals("", false, 5L, 1L));
+		assertEquals(Collections.EMPTY_LIST, index.listPrincipals("", false, 5L, 3L));
+		assertEquals(Collections.EMPTY_LIST, index.listPrincipals("", false, 0L, 0L));
+	}
+
+	@Test
+	public void testTeamsOnly() {
+		assertEquals(Arrays.asList(10L), index.listPrincipals("", true, 1000L, 0L));
+		assertEquals(1L, index.countPrincipals("r", true));
+		assertEquals(0L, index.countPrincipals("james", true));
+		assertTrue(index.isTeam(10L));
+		assertFalse(index.isTeam(1L));
+	}
+
+	@Test
+	public void testUnsortedBuilder() {
+		index = new PrincipalPrefixIndex.Builder()
+				.addToken("ccc", 3L)
+				.addToken("aaa", 2L)
+				.addToken("bbb", 1L)
+				.addToken("aaa", 1L)
+				.addToken("bbb", 1L)
+				.addToken("aaa", 2L)
+				.build();
+		assertEquals(4, index.getSnapshotSize());
+		assertEquals(Arrays.asList(1L, 2L, 3L), index.listPrincipals("", false, 1000L, 0L));
+		assertEquals(Arrays.asList(1L, 2L), index.listPrincipals("a", false, 1000L, 0L));
+	}
+
+	@Test
+	public void testLargeBuilder() {
+		PrincipalPrefixIndex.Builder builder = new PrincipalPrefixIndex.Builder();
+		for (long i = 0; i < 10000; i++) {
+			builder.addToken(String.format("user%05d", i), i);
+		}
+		index = builder.build();
+		assertEquals(10000, index.getSnapshotSize());
+		assertEquals(10L, index.countPrincipals("user0001", false));
+		assertEquals(Arrays.asList(1230L, 1231L), index.listPrincipals("user0123", false, 2L, 0L));
+	}
+
+	@Test
+	public void testWithChanges() {
+		// 2 is renamed and 3 is a new team.
+		PrincipalPrefixIndex changes = new PrincipalPrefixIndex.Builder()
+				.addToken("batman", 2L)
+				.addToken("jamesbat", 2L)
+				.addToken("rteamnew", 3L)
+				.addTeam(3L)
+				.build();
+		PrincipalPrefixIndex changed = index.withChanges(changes);
+		assertEquals(Arrays.asList(1L), changed.listPrincipals("foo", false, 1000L, 0L));
+		assertEquals(Arrays.asList(2L), changed.listPrincipals("bat", false, 1000L, 0L));
+		assertEquals(Arrays.asList(2L, 1L), changed.listPrincipals("james", false, 1000L, 0L));
+		assertEquals(Arrays.asList(2L, 1L, 10L, 3L), changed.listPrincipals("", false, 1000L, 0L));
+		assertEquals(Arrays.asList(1L, 10L), changed.listPrincipals("", false, 2L, 1L));
+		assertEquals(4L, changed.countPrincipals("", false));
+		assertEquals(Arrays.asList(10L, 3L), changed.listPrincipals("r", true, 1000L, 0L));
+		assertTrue(changed.isTeam(3L));
+		assertEquals(7, changed.getSnapshotSize());
+		assertEquals(3, changed.getOverlaySize());
+		// the original is not changed.
+		assertEquals(Arrays.asList(1L, 2L), index.listPrincipals("foo", false, 1000L, 0L));
+		assertEquals(0, index.getOverlaySize());
+	}
+
+	@Test
+	public void testWithChangesOfChanges() {
+		PrincipalPrefixIndex changed = index.withChanges(new PrincipalPrefixIndex.Builder()
+				.addToken("batman", 2L)
+				.addToken("robin", 3L)
+				.build());
+		// 2 is renamed again, which replaces its earlier change.
+		changed = changed.withChanges(new PrincipalPrefixIndex.Builder()
+				.addToken("catwoman", 2L)
+				.build());
+		assertEquals(Collections.EMPTY_LIST, changed.listPrincipals("bat", false, 1000L, 0L));
+		assertEquals(Arrays.asList(2L), changed.listPrincipals("cat", false, 1000L, 0L));
+		assertEquals(Arrays.asList(3L), changed.listPrincipals("rob", false, 1000L, 0L));
+		assertEquals(2, changed.getOverlaySize());
+		// no changes
+		assertTrue(changed == changed.withChanges(new PrincipalPrefixIndex.Builder().build()));
+	}
+
+	@Test
+	public void testCompact() {
+		PrincipalPrefixIndex changed = index.withChanges(new PrincipalPrefixIndex.Builder()
+				.addToken("batman", 2L)
+				.addToken("rteamnew", 3L)
+				.addTeam(3L)
+				.build());
+		PrincipalPrefixIndex compacted = changed.compact();
+		assertEquals(0, compacted.getOverlaySize());
+		assertEquals(6, compacted.getSnapshotSize());
+		assertEquals(changed.listPrincipals("", false, 1000L, 0L), compacted.listPrincipals("", false, 1000L, 0L));
+		assertEquals(Arrays.asList(10L, 3L), compacted.listPrincipals("", true, 1000L, 0L));
+	}
+
+	@Test
+	public void testWithChangesOverMaxOverlaySize() {
+		PrincipalPrefixIndex.Builder builder = new PrincipalPrefixIndex.Builder();
+		for (long i = 0; i <= PrincipalPrefixIndex.MAX_OVERLAY_SIZE; i++) {
+			builder.addToken(String.format("user%05d", i), 100L + i);
+		}
+		PrincipalPrefixIndex changed = index.withChanges(builder.build());
+		// the overlay is merged into the snapshot.
+		assertEquals(0, changed.getOverlaySize());
+		assertEquals(7 + PrincipalPrefixIndex.MAX_OVERLAY_SIZE + 1, changed.getSnapshotSize());
+		assertEquals(Arrays.asList(1L, 2L), changed.listPrincipals("foo", false, 1000L, 0L));
+	}
+}
@@ -55,6 +55,9 @@ public class V2DBOWikiPageDaoImplAutowiredTest {
 	@Autowired
 	private JdbcTemplate jdbcTemplate;
 
+	@Autowired
+	private WikiMarkdownCache markdownCache;
+
 	private List<WikiPageKey> toDelete;
 	private String creatorUserGroupId;
 	
@@ -847,4 +850,31 @@ public class V2DBOWikiPageDaoImplAutowiredTest {
 		assertTrue(fileHandleIds.contains(attachOne.getId()));
 	}
 
+	@Test
+	public void testGetMarkdownForFileHandlesCached() throws Exception {
+		// markdown in the cache is not downloaded.
+		markdownCache.put(Long.parseLong(markdownOne.getId()), "markdown one", 10L);
+		markdownCache.put(Long.parseLong(markdownTwo.getId()), "markdown two", 10L);
+		markdownCache.getAndResetStatistics();
+		Map<String, String> results = wikiPageDao.getMarkdownForFileHandles(Arrays.asList(markdownOne.getId(), markdownTwo.getId(), markdownOne.getId()));
+		assertEquals(2, results.size());
+		assertEquals("markdown one", results.get(markdownOne.getId()));
+		assertEquals("markdown two", results.get(markdownTwo.getId()));
+		WikiMarkdownCache.Statistics stats = markdownCache.getAndResetStatistics();
+		assertEquals(2, stats.getHitCount());
+		assertEquals(0, stats.getMissCount());
+		assertEquals(20L, stats.getBytesSaved());
+	}
+
+	@Test
+	public void testGetMarkdownForFileHandlesEmpty() throws Exception {
+		Map<String, String> results = wikiPageDao.getMarkdownForFileHandles(new LinkedList<String>());
+		assertTrue(results.isEmpty());
+	}
+
+	@Test (expected=NotFoundException.class)
+	public void testGetMarkdownForFileHandlesDoesNotExist() throws Exception {
+		wikiPageDao.getMarkdownForFileHandles(Arrays.asList("-1"));
+	}
+
 }
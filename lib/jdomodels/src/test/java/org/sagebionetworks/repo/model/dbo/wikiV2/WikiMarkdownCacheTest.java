@@ -0,0 +1,92 @@
+package org.sagebionetworks.repo.model.dbo.wikiV2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WikiMarkdownCacheTest {
+
+	WikiMarkdownCache cache;
+	String markdown;
+	long weight;
+
+	@Before
+	public void before() {
+		markdown = "# Title\nSome markdown";
+		weight = WikiMarkdownCache.estimateWeight(markdown);
+		// room for two entries.
+		cache = new WikiMarkdownCache(weight * 2);
+	}
+
+	@Test
+	public void testPutGet() {
+		assertNull(cache.get(1L));
+		cache.put(1L, markdown, 25L);
+		assertEquals(markdown, cache.get(1L));
+		assertEquals(markdown, cache.get(1L));
+		assertEquals(1, cache.getSize());
+		assertEquals(weight, cache.getWeight());
+		WikiMarkdownCache.Statistics stats = cache.getAndResetStatistics();
+		assertEquals(2, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(50L, stats.getBytesSaved());
+		// counts start again.
+		stats = cache.getAndResetStatistics();
+		assertEquals(0, stats.getHitCount());
+		assertEquals(0, stats.getMissCount());
+		assertEquals(0L, stats.getBytesSaved());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		cache.put(1L, markdown, 25L);
+		cache.put(2L, markdown, 25L);
+		// touch the first so the second is the eldest.
+		cache.get(1L);
+		cache.put(3L, markdown, 25L);
+		assertEquals(2, cache.getSize());
+		assertEquals(weight * 2, cache.getWeight());
+		assertEquals(markdown, cache.get(1L));
+		assertNull(cache.get(2L));
+		assertEquals(markdown, cache.get(3L));
+	}
+
+	@Test
+	public void testPutReplace() {
+		cache.put(1L, markdown, 25L);
+		cache.put(1L, markdown, 25L);
+		assertEquals(1, cache.getSize());
+		assertEquals(weight, cache.getWeight());
+	}
+
+	@Test
+	public void testTooLarge() {
+		cache = new WikiMarkdownCache(weight - 1);
+		cache.put(1L, markdown, 25L);
+		assertEquals(0, cache.getSize());
+		assertNull(cache.get(1L));
+	}
+
+	@Test
+	public void testDisabled() {
+		cache = new WikiMarkdownCache(0);
+		cache.put(1L, markdown, 25L);
+		assertNull(cache.get(1L));
+	}
+
+	@Test
+	public void testInvalidateAll() {
+		cache.put(1L, markdown, 25L);
+		cache.invalidateAll();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getWeight());
+		assertNull(cache.get(1L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeMaxWeight() {
+		new WikiMarkdownCache(-1);
+	}
+}
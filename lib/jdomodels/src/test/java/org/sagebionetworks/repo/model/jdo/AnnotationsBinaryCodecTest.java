@@ -0,0 +1,178 @@
+package org.sagebionetworks.repo.model.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.Annotations;
+import org.sagebionetworks.repo.model.NamedAnnotations;
+
+public class AnnotationsBinaryCodecTest {
+
+	NamedAnnotations named;
+
+	@Before
+	public void before() {
+		named = new NamedAnnotations();
+		named.setId("syn123");
+		named.setEtag("etag");
+		named.setCreationDate(new Date(1000L));
+		named.setCreatedBy(456L);
+		Annotations primary = named.getPrimaryAnnotations();
+		primary.setUri("/entity/syn123/annotations");
+		primary.addAnnotation("string", "one");
+		primary.addAnnotation("string", "\u00e9t\u00e9 \u4e2d\u6587");
+		primary.addAnnotation("long", 123L);
+		primary.addAnnotation("double", 1.5);
+		primary.addAnnotation("date", new Date(999L));
+		primary.addAnnotation("blob", new byte[] { 1, 2, 3 });
+		named.put("newType", RandomAnnotationsUtil.generateRandom(123L, 10));
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] blob = AnnotationsBinaryCodec.encode(named);
+		assertTrue(AnnotationsBinaryCodec.isBinary(blob));
+		assertEquals(AnnotationsBinaryCodec.VERSION_ONE, blob[2]);
+		NamedAnnotations clone = AnnotationsBinaryCodec.decode(blob);
+		assertEquals(named, clone);
+		assertEquals(new Long(456), clone.getCreatedBy());
+		assertEquals("/entity/syn123/annotations", clone.getPrimaryAnnotations().getUri());
+	}
+
+	@Test
+	public void testRoundTripEmpty() throws IOException {
+		NamedAnnotations empty = new NamedAnnotations();
+		assertEquals(empty, AnnotationsBinaryCodec.decode(AnnotationsBinaryCodec.encode(empty)));
+	}
+
+	@Test
+	public void testRoundTripNulls() throws IOException {
+		Annotations additional = named.getAdditionalAnnotations();
+		additional.getStringAnnotations().put("nullList", null);
+		additional.getLongAnnotations().put("emptyList", new LinkedList<Long>());
+		List<Double> withNull = new ArrayList<Double>();
+		withNull.add(null);
+		withNull.add(2.0);
+		additional.getDoubleAnnotations().put("nullValue", withNull);
+		additional.getStringAnnotations().put("nullString", Arrays.asList((String) null));
+		NamedAnnotations clone = AnnotationsBinaryCodec.decode(AnnotationsBinaryCodec.encode(named));
+		assertEquals(named, clone);
+		Annotations cloneAdditional = clone.getAdditionalAnnotations();
+		assertTrue(cloneAdditional.getStringAnnotations().containsKey("nullList"));
+		assertNull(cloneAdditional.getStringAnnotations().get("nullList"));
+		assertEquals(0, cloneAdditional.getLongAnnotations().get("emptyList").size());
+	}
+
+	@Test
+	public void testNullDateAndBlob() throws IOException {
+		Annotations additional = named.getAdditionalAnnotations();
+		additional.getDateAnnotations().put("nullDate", Arrays.asList((Date) null));
+		additional.getBlobAnnotations().put("nullBlob", Arrays.asList((byte[]) null));
+		Annotations clone = AnnotationsBinaryCodec.decode(AnnotationsBinaryCodec.encode(named)).getAdditionalAnnotations();
+		assertEquals(Arrays.asList((Date) null), clone.getDateAnnotations().get("nullDate"));
+		assertEquals(1, clone.getBlobAnnotations().get("nullBlob").size());
+		assertNull(clone.getBlobAnnotations().get("nullBlob").get(0));
+	}
+
+	@Test
+	public void testNullMaps() throws IOException {
+		named.getAdditionalAnnotations().setDoubleAnnotations(null);
+		NamedAnnotations clone = AnnotationsBinaryCodec.decode(AnnotationsBinaryCodec.encode(named));
+		// Null maps are read as empty maps, the same as the legacy format.
+		assertTrue(clone.getAdditionalAnnotations().getDoubleAnnotations().isEmpty());
+	}
+
+	@Test
+	public void testLargeString() throws IOException {
+		// larger than the limit of DataOutput.writeUTF()
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'a');
+		named.getAdditionalAnnotations().addAnnotation("large", new String(chars));
+		assertEquals(named, AnnotationsBinaryCodec.decode(AnnotationsBinaryCodec.encode(named)));
+	}
+
+	@Test
+	public void testIsBinary() throws IOException {
+		assertFalse(AnnotationsBinaryCodec.isBinary(null));
+		assertFalse(AnnotationsBinaryCodec.isBinary(new byte[0]));
+		assertFalse(AnnotationsBinaryCodec.isBinary(JDOSecondaryPropertyUtils.compressObject(named)));
+		assertTrue(AnnotationsBinaryCodec.isBinary(AnnotationsBinaryCodec.encode(named)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeNull() throws IOException {
+		AnnotationsBinaryCodec.encode(null);
+	}
+
+	@Test(expected = IOException.class)
+	public void testDecodeLegacy() throws IOException {
+		AnnotationsBinaryCodec.decode(JDOSecondaryPropertyUtils.compressObject(named));
+	}
+
+	@Test
+	public void testDecodeUnknownVersion() throws IOException {
+		byte[] blob = AnnotationsBinaryCodec.encode(named);
+		blob[2] = 99;
+		try {
+			AnnotationsBinaryCodec.decode(blob);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("99"));
+		}
+	}
+
+	@Test
+	public void testDecodeTruncated() throws IOException {
+		byte[] blob = AnnotationsBinaryCodec.encode(named);
+		try {
+			AnnotationsBinaryCodec.decode(Arrays.copyOf(blob, blob.length / 2));
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		// A failure must not break the next call on this thread.
+		assertEquals(named, AnnotationsBinaryCodec.decode(blob));
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 20; i++) {
+				final NamedAnnotations toEncode = new NamedAnnotations();
+				toEncode.put("random", RandomAnnotationsUtil.generateRandom(i, 5));
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < 10; j++) {
+							assertEquals(toEncode, AnnotationsBinaryCodec.decode(AnnotationsBinaryCodec.encode(toEncode)));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.sagebionetworks.repo.model.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.NamedAnnotations;
+
+/**
+ * Compares the size, encode time and decode time of the legacy XML annotation
+ * blobs with the binary blobs of {@link AnnotationsBinaryCodec}. The
+ * annotation sets include real blobs from production
+ * (src/test/resources/annotations_blob_*) and random sets of increasing size.
+ *
+ */
+public class AnnotationsCodecScaleTest {
+
+	int warmUpIterations;
+	int iterations;
+	Map<String, NamedAnnotations> sets;
+
+	@Before
+	public void before() throws IOException {
+		warmUpIterations = 2000;
+		iterations = 10000;
+		sets = new LinkedHashMap<String, NamedAnnotations>();
+		sets.put("syn313805", loadLegacy("annotations_blob_syn313805"));
+		sets.put("syn464184", loadLegacy("annotations_blob_syn464184"));
+		for (int count : new int[] { 1, 10, 100 }) {
+			NamedAnnotations named = new NamedAnnotations();
+			named.setId("syn123");
+			named.setEtag("etag");
+			named.getPrimaryAnnotations().addAnnotation("name", "some name");
+			named.put(NamedAnnotations.NAME_SPACE_ADDITIONAL, RandomAnnotationsUtil.generateRandom(count, count));
+			sets.put("random-" + count, named);
+		}
+	}
+
+	@Ignore
+	@Test
+	public void testBinaryVersusXml() throws IOException {
+		for (Map.Entry<String, NamedAnnotations> entry : sets.entrySet()) {
+			String set = entry.getKey();
+			NamedAnnotations named = entry.getValue();
+			byte[] xml = JDOSecondaryPropertyUtils.compressObject(named);
+			byte[] binary = AnnotationsBinaryCodec.encode(named);
+			assertTrue(set, binary.length < xml.length);
+			assertEquals(set, named, JDOSecondaryPropertyUtils.decompressedAnnotations(xml));
+			assertEquals(set, named, JDOSecondaryPropertyUtils.decompressedAnnotations(binary));
+			// warm up
+			run(named, xml, binary, warmUpIterations);
+			long[] times = run(named, xml, binary, iterations);
+			assertTrue(set, times[1] < times[0]);
+			assertTrue(set, times[3] < times[2]);
+		}
+	}
+
+	/**
+	 * Time each operation.
+	 *
+	 * @return nanoseconds for: xml encode, binary encode, xml decode, binary
+	 *         decode.
+	 */
+	private static long[] run(NamedAnnotations named, byte[] xml, byte[] binary, int iterations) throws IOException {
+		long[] times = new long[4];
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			JDOSecondaryPropertyUtils.compressObject(named);
+		}
+		times[0] = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			AnnotationsBinaryCodec.encode(named);
+		}
+		times[1] = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			JDOSecondaryPropertyUtils.decompressedAnnotations(xml);
+		}
+		times[2] = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			JDOSecondaryPropertyUtils.decompressedAnnotations(binary);
+		}
+		times[3] = System.nanoTime() - start;
+		return times;
+	}
+
+	private static NamedAnnotations loadLegacy(String name) throws IOException {
+		InputStream in = AnnotationsCodecScaleTest.class.getClassLoader().getResourceAsStream(name);
+		assertNotNull("Cannot find: " + name, in);
+		try {
+			return JDOSecondaryPropertyUtils.decompressedAnnotations(IOUtils.toByteArray(in));
+		} finally {
+			in.close();
+		}
+	}
+}
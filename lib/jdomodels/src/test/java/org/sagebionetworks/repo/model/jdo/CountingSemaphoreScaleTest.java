@@ -11,7 +11,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.sagebionetworks.database.semaphore.CountingSemaphore;
-import org.sagebionetworks.repo.model.semaphore.SynchronizedCountingSemaphore;
+import org.sagebionetworks.repo.model.semaphore.StripedCountingSemaphore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -44,7 +44,7 @@ public class CountingSemaphoreScaleTest {
 	
 	@Test
 	public void testSemaphoreType(){
-		assertTrue(countingSemaphore instanceof SynchronizedCountingSemaphore);
+		assertTrue(countingSemaphore instanceof StripedCountingSemaphore);
 	}
 	
 	@Ignore
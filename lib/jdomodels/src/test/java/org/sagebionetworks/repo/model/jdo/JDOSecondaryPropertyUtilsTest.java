@@ -6,6 +6,7 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -17,6 +18,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.sagebionetworks.repo.model.Annotations;
@@ -74,6 +76,67 @@ public class JDOSecondaryPropertyUtilsTest {
 	}
 	
 
+	@Test
+	public void testCompressAnnotationsBinary() throws IOException{
+		NamedAnnotations named = new NamedAnnotations();
+		named.getAdditionalAnnotations().addAnnotation("stringOne", "one");
+		byte[] compressed = JDOSecondaryPropertyUtils.compressAnnotations(named);
+		// new blobs are always written in the binary format.
+		assertTrue(AnnotationsBinaryCodec.isBinary(compressed));
+		assertEquals(named, JDOSecondaryPropertyUtils.decompressedAnnotations(compressed));
+	}
+	
+	@Test
+	public void testCompressAnnotationsNull() throws IOException{
+		assertNull(JDOSecondaryPropertyUtils.compressAnnotations(null));
+	}
+	
+	@Test
+	public void testDecompressLegacyXmlAnnotations() throws IOException{
+		NamedAnnotations named = new NamedAnnotations();
+		named.setId("syn123");
+		named.setEtag("etag");
+		named.getPrimaryAnnotations().addAnnotation("longOne", new Long(324));
+		named.getAdditionalAnnotations().addAnnotation("dateOne", new Date(123L));
+		// This is how annotations were written before the binary format.
+		byte[] legacy = JDOSecondaryPropertyUtils.compressObject(named);
+		assertFalse(AnnotationsBinaryCodec.isBinary(legacy));
+		assertEquals(named, JDOSecondaryPropertyUtils.decompressedAnnotations(legacy));
+	}
+	
+	@Test
+	public void testUpgradeLegacyBlobs() throws IOException{
+		for(String name: new String[]{"annotations_blob_syn313805", "annotations_blob_syn464184"}){
+			InputStream in = JDOSecondaryPropertyUtilsTest.class.getClassLoader().getResourceAsStream(name);
+			assertNotNull(in);
+			byte[] legacy;
+			try{
+				legacy = IOUtils.toByteArray(in);
+			}finally{
+				in.close();
+			}
+			NamedAnnotations fromLegacy = JDOSecondaryPropertyUtils.decompressedAnnotations(legacy);
+			assertNotNull(fromLegacy.getId());
+			// Writing the annotations again upgrades the blob.
+			byte[] upgraded = JDOSecondaryPropertyUtils.compressAnnotations(fromLegacy);
+			assertTrue(AnnotationsBinaryCodec.isBinary(upgraded));
+			assertTrue(upgraded.length < legacy.length);
+			assertEquals(fromLegacy, JDOSecondaryPropertyUtils.decompressedAnnotations(upgraded));
+		}
+	}
+	
+	@Test
+	public void testCompressObjectWithAlias() throws IOException{
+		Reference ref = new Reference();
+		ref.setTargetId("123");
+		ref.setTargetVersionNumber(1L);
+		// the shared XStream of each alias is reused.
+		for(int i=0; i<2; i++){
+			byte[] compressed = JDOSecondaryPropertyUtils.compressObject(ref, "ref");
+			assertEquals(ref, JDOSecondaryPropertyUtils.decompressedObject(compressed, "ref", Reference.class));
+		}
+	}
+
 	@Test
 	public void testNullBlob() throws Exception{
 		// Create a revision with a null byte array
@@ -1,8 +1,12 @@
 package org.sagebionetworks.repo.model.message;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
+import java.util.Set;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,6 +20,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import com.google.common.collect.Sets;
+
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(locations = { "classpath:jdomodels-test-context.xml" })
 public class BroadcastMessageDaoImplTest {
@@ -72,5 +78,68 @@ public class BroadcastMessageDaoImplTest {
 		// should be broadcast
 		assertTrue(broadcastMessageDao.wasBroadcast(changeMessage.getChangeNumber()));
 	}
+	
+	@Test
+	public void testAddRecipients(){
+		Long changeNumber = changeMessage.getChangeNumber();
+		Long userId = Long.parseLong(user.getId());
+		assertFalse(broadcastMessageDao.hasRecipients(changeNumber));
+		// call under test
+		Set<Long> added = broadcastMessageDao.addRecipients(changeNumber, Sets.newHashSet(userId));
+		assertEquals(Sets.newHashSet(userId), added);
+		assertTrue(broadcastMessageDao.wasBroadcast(changeNumber));
+		assertTrue(broadcastMessageDao.hasRecipients(changeNumber));
+		// a recipient is only added once.
+		added = broadcastMessageDao.addRecipients(changeNumber, Sets.newHashSet(userId));
+		assertTrue(added.isEmpty());
+	}
+	
+	@Test
+	public void testAddRecipientsEmpty(){
+		Long changeNumber = changeMessage.getChangeNumber();
+		// call under test
+		Set<Long> added = broadcastMessageDao.addRecipients(changeNumber, Collections.<Long>emptySet());
+		assertTrue(added.isEmpty());
+		assertFalse(broadcastMessageDao.wasBroadcast(changeNumber));
+	}
+	
+	@Test
+	public void testRemoveRecipients(){
+		Long changeNumber = changeMessage.getChangeNumber();
+		Long userId = Long.parseLong(user.getId());
+		broadcastMessageDao.addRecipients(changeNumber, Sets.newHashSet(userId));
+		// call under test
+		broadcastMessageDao.removeRecipients(changeNumber, Sets.newHashSet(userId));
+		assertFalse(broadcastMessageDao.hasRecipients(changeNumber));
+		// without any recipients the broadcast starts over.
+		assertFalse(broadcastMessageDao.wasBroadcast(changeNumber));
+		assertEquals(Sets.newHashSet(userId), broadcastMessageDao.addRecipients(changeNumber, Sets.newHashSet(userId)));
+	}
+	
+	@Test
+	public void testSetBroadcastComplete(){
+		Long changeNumber = changeMessage.getChangeNumber();
+		Long userId = Long.parseLong(user.getId());
+		assertFalse(broadcastMessageDao.isBroadcastComplete(changeNumber));
+		broadcastMessageDao.addRecipients(changeNumber, Sets.newHashSet(userId));
+		// in progress
+		assertFalse(broadcastMessageDao.isBroadcastComplete(changeNumber));
+		// call under test
+		broadcastMessageDao.setBroadcastComplete(changeNumber);
+		assertTrue(broadcastMessageDao.isBroadcastComplete(changeNumber));
+		assertFalse(broadcastMessageDao.hasRecipients(changeNumber));
+	}
+	
+	@Test
+	public void testSetBroadcastCompleteNoRecipients(){
+		Long changeNumber = changeMessage.getChangeNumber();
+		// call under test
+		broadcastMessageDao.setBroadcastComplete(changeNumber);
+		assertTrue(broadcastMessageDao.wasBroadcast(changeNumber));
+		assertTrue(broadcastMessageDao.isBroadcastComplete(changeNumber));
+		// a second call does nothing.
+		broadcastMessageDao.setBroadcastComplete(changeNumber);
+		assertTrue(broadcastMessageDao.isBroadcastComplete(changeNumber));
+	}
 
 }
@@ -0,0 +1,161 @@
+package org.sagebionetworks.repo.model.semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.database.semaphore.CountingSemaphore;
+import org.sagebionetworks.util.Clock;
+
+public class StripedCountingSemaphoreTest {
+
+	@Mock
+	CountingSemaphore mockWrapped;
+	@Mock
+	Clock mockClock;
+
+	StripedCountingSemaphore semaphore;
+	String key;
+	String token;
+	long timeoutSec;
+	int maxLockCount;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		semaphore = new StripedCountingSemaphore(mockWrapped, mockClock);
+		key = "someKey";
+		token = "someToken";
+		timeoutSec = 100;
+		maxLockCount = 2;
+		when(mockClock.currentTimeMillis()).thenReturn(1000L);
+		when(mockWrapped.attemptToAcquireLock(key, timeoutSec, maxLockCount)).thenReturn(token);
+	}
+
+	@Test
+	public void testAcquireAndRelease() {
+		assertEquals(token, semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount));
+		semaphore.releaseLock(key, token);
+		verify(mockWrapped).releaseLock(key, token);
+		assertEquals(2, semaphore.getCallCount());
+	}
+
+	@Test
+	public void testAcquireNoLock() {
+		when(mockWrapped.attemptToAcquireLock(key, timeoutSec, maxLockCount)).thenReturn(null);
+		assertNull(semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount));
+	}
+
+	@Test
+	public void testRefreshCoalesced() {
+		semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount);
+		// less than 10% of the timeout since the lock was issued.
+		when(mockClock.currentTimeMillis()).thenReturn(1000L + 9999L);
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+		verify(mockWrapped, never()).refreshLockTimeout(key, token, timeoutSec);
+		assertEquals(1, semaphore.getCoalescedRefreshCount());
+	}
+
+	@Test
+	public void testRefreshNotCoalesced() {
+		semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount);
+		when(mockClock.currentTimeMillis()).thenReturn(1000L + 10000L);
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+		verify(mockWrapped).refreshLockTimeout(key, token, timeoutSec);
+		assertEquals(0, semaphore.getCoalescedRefreshCount());
+	}
+
+	@Test
+	public void testRefreshUnknownToken() {
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+		verify(mockWrapped).refreshLockTimeout(key, token, timeoutSec);
+	}
+
+	@Test
+	public void testRefreshFailure() {
+		semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount);
+		when(mockClock.currentTimeMillis()).thenReturn(1000L + 10000L);
+		doThrow(new IllegalStateException("expired")).when(mockWrapped).refreshLockTimeout(key, token, timeoutSec);
+		try {
+			semaphore.refreshLockTimeout(key, token, timeoutSec);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		// a failed refresh must not be coalesced.
+		try {
+			semaphore.refreshLockTimeout(key, token, timeoutSec);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		verify(mockWrapped, times(2)).refreshLockTimeout(key, token, timeoutSec);
+	}
+
+	@Test
+	public void testReleaseClearsRefresh() {
+		semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount);
+		semaphore.releaseLock(key, token);
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+		verify(mockWrapped).refreshLockTimeout(key, token, timeoutSec);
+	}
+
+	@Test
+	public void testReleaseAllLocks() {
+		semaphore.attemptToAcquireLock(key, timeoutSec, maxLockCount);
+		semaphore.releaseAllLocks();
+		verify(mockWrapped).releaseAllLocks();
+		semaphore.refreshLockTimeout(key, token, timeoutSec);
+		verify(mockWrapped).refreshLockTimeout(key, token, timeoutSec);
+	}
+
+	/**
+	 * A call that is blocked for one key must not block a call for another
+	 * key.
+	 */
+	@Test
+	public void testKeysDoNotBlockEachOther() throws InterruptedException {
+		semaphore = new StripedCountingSemaphore(mockWrapped, mockClock, 2);
+		// these keys map to different stripes.
+		final String slowKey = "a";
+		String fastKey = "b";
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		final CountDownLatch releaseSlow = new CountDownLatch(1);
+		when(mockWrapped.attemptToAcquireLock(slowKey, timeoutSec, maxLockCount)).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				slowStarted.countDown();
+				releaseSlow.await();
+				return "slow";
+			}
+		});
+		when(mockWrapped.attemptToAcquireLock(fastKey, timeoutSec, maxLockCount)).thenReturn("fast");
+		Thread slow = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				semaphore.attemptToAcquireLock(slowKey, timeoutSec, maxLockCount);
+			}
+		});
+		slow.start();
+		assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+		// call under test
+		assertEquals("fast", semaphore.attemptToAcquireLock(fastKey, timeoutSec, maxLockCount));
+		releaseSlow.countDown();
+		slow.join(10000);
+	}
+}
@@ -4,8 +4,8 @@ import static org.sagebionetworks.search.SearchConstants.FIELD_ETAG;
 import static org.sagebionetworks.search.SearchConstants.FIELD_ID;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -47,6 +47,15 @@ public class SearchDaoImpl implements SearchDao {
 
 	static private Logger log = LogManager.getLogger(SearchDaoImpl.class);
 	
+	/**
+	 * CloudSearch accepts document batches of up to 5 MB.
+	 */
+	public static final int MAX_BATCH_BYTES = 5 * 1000 * 1000;
+	
+	private static final byte[] ARRAY_START = new byte[] { '[' };
+	private static final byte[] SEPARATOR = new byte[] { ',', ' ' };
+	private static final byte[] ARRAY_END = new byte[] { ']' };
+	
 	private static final AwesomeSearchFactory searchResultsFactory = new AwesomeSearchFactory(new AdapterFactoryImpl());
 	
 	@Autowired
@@ -130,53 +139,76 @@ public class SearchDaoImpl implements SearchDao {
 	public void createOrUpdateSearchDocument(List<Document> batch) throws ClientProtocolException, IOException, HttpClientHelperException,
 			ServiceUnavailableException {
 		CloudSearchClient searchClient = validateSearchAvailable();
-		// Cleanup they data
-		byte[] bytes = cleanSearchDocuments(batch);
-		ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-		// Pass along to the client
-		searchClient.sendDocuments(in, bytes.length);
+		// Cleanup the data and split it into batches that CloudSearch will accept.
+		for(byte[] bytes: cleanSearchDocuments(batch, MAX_BATCH_BYTES)){
+			ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+			// Pass along to the client
+			searchClient.sendDocuments(in, bytes.length);
+		}
 	}
 	
 	/**
-	 * Remove any character that is not compatible with cloud search.
-	 * @param document
+	 * Remove any character that is not compatible with cloud search and split
+	 * the documents into JSON arrays of at most maxBytes each. A single document
+	 * larger than maxBytes is sent in its own batch.
+	 * @param documents
+	 * @param maxBytes
 	 * @return
-	 * @throws UnsupportedEncodingException
-	 * @throws JSONObjectAdapterException
 	 */
-	static byte[] cleanSearchDocuments(List<Document> documents) {
-		String serializedDocument;
+	static List<byte[]> cleanSearchDocuments(List<Document> documents, int maxBytes) {
 		try {
-			StringBuilder builder = new StringBuilder();
-			builder.append("[");
+			List<byte[]> batches = new LinkedList<byte[]>();
+			ByteArrayOutputStream current = new ByteArrayOutputStream();
+			current.write(ARRAY_START);
 			int count = 0;
 			for(Document document: documents){
-				prepareDocument(document);
-				serializedDocument = EntityFactory.createJSONStringForEntity(document);
-				// AwesomeSearch pukes on control characters. Some descriptions have
-				// control characters in them for some reason, in any case, just get rid
-				// of all control characters in the search document
-				String cleanedDocument = serializedDocument.replaceAll("\\p{Cc}", "");
-
-				// Get rid of escaped control characters too
-				cleanedDocument = cleanedDocument.replaceAll("\\\\u00[0,1][0-9,a-f]","");
+				// AwesomeSearch expects UTF-8
+				byte[] cleaned = cleanSearchDocument(document).getBytes("UTF-8");
+				if(count > 0 && current.size() + SEPARATOR.length + cleaned.length + ARRAY_END.length > maxBytes){
+					current.write(ARRAY_END);
+					batches.add(current.toByteArray());
+					current = new ByteArrayOutputStream();
+					current.write(ARRAY_START);
+					count = 0;
+				}
 				if(count > 0){
-					builder.append(", ");
+					current.write(SEPARATOR);
 				}
-				builder.append(cleanedDocument);
+				current.write(cleaned);
 				count++;
 			}
-			builder.append("]");
-//			log.warn(builder.toString());
-			// AwesomeSearch expects UTF-8
-			return builder.toString().getBytes("UTF-8");
-		} catch (JSONObjectAdapterException e) {
+			if(count > 0){
+				current.write(ARRAY_END);
+				batches.add(current.toByteArray());
+			}
+			return batches;
+		} catch (IOException e) {
 			// Convert to runtime
 			throw new RuntimeException(e);
-		} catch (UnsupportedEncodingException e) {
+		}
+	}
+	
+	/**
+	 * Remove any character that is not compatible with cloud search.
+	 * @param document
+	 * @return
+	 */
+	static String cleanSearchDocument(Document document) {
+		prepareDocument(document);
+		String serializedDocument;
+		try {
+			serializedDocument = EntityFactory.createJSONStringForEntity(document);
+		} catch (JSONObjectAdapterException e) {
 			// Convert to runtime
 			throw new RuntimeException(e);
 		}
+		// AwesomeSearch pukes on control characters. Some descriptions have
+		// control characters in them for some reason, in any case, just get rid
+		// of all control characters in the search document
+		String cleanedDocument = serializedDocument.replaceAll("\\p{Cc}", "");
+
+		// Get rid of escaped control characters too
+		return cleanedDocument.replaceAll("\\\\u00[0,1][0-9,a-f]","");
 	}
 
 	/**
@@ -2,6 +2,11 @@ package org.sagebionetworks.search;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.json.JSONArray;
 import org.junit.Test;
 
 import static org.mockito.Mockito.when;
@@ -43,6 +48,41 @@ public class SearchDaoImplTest {
 		assertNotNull("A version was not set.",doc.getVersion());
 	}
 	
+	@Test
+	public void testCleanSearchDocumentsBatchBySize() throws Exception {
+		List<Document> docs = new LinkedList<Document>();
+		for(int i=0; i<5; i++){
+			Document doc = new Document();
+			doc.setId("id"+i);
+			docs.add(doc);
+		}
+		int docSize = SearchDaoImpl.cleanSearchDocument(docs.get(0)).getBytes("UTF-8").length;
+		// Room for two documents per batch.
+		int maxBytes = 2*docSize + 4;
+		List<byte[]> batches = SearchDaoImpl.cleanSearchDocuments(docs, maxBytes);
+		assertEquals(3, batches.size());
+		int count = 0;
+		for(byte[] batch: batches){
+			assertTrue(batch.length <= maxBytes);
+			JSONArray array = new JSONArray(new String(batch, "UTF-8"));
+			for(int i=0; i<array.length(); i++){
+				assertEquals("id"+count, array.getJSONObject(i).getString("id"));
+				count++;
+			}
+		}
+		assertEquals(5, count);
+	}
+	
+	@Test
+	public void testCleanSearchDocumentsOverMax() throws Exception {
+		Document doc = new Document();
+		doc.setId("123");
+		// A document larger than the max is sent on its own.
+		List<byte[]> batches = SearchDaoImpl.cleanSearchDocuments(Arrays.asList(doc, doc), 1);
+		assertEquals(2, batches.size());
+		assertTrue(SearchDaoImpl.cleanSearchDocuments(new LinkedList<Document>(), 1).isEmpty());
+	}
+	
 	@Test(expected=ServiceUnavailableException.class)
 	public void testInitializePostInitFalse() throws Exception {
 		mockCloudSearchClient = mock(AmazonCloudSearchClient.class);
@@ -8,6 +8,12 @@ import java.util.List;
  *
  */
 public interface ConnectionFactory {
+	
+	/**
+	 * How long a table that was not yet moved to its joining database is
+	 * routed to its previous database before this is checked again.
+	 */
+	public static final long UNMOVED_TABLE_EXPIRATION_MS = 10*1000;
 
 	/**
 	 * Get a connection used for interacting with a given table.
@@ -17,6 +23,21 @@ public interface ConnectionFactory {
 	 */
 	TableIndexDAO getConnection(String tableId);
 	
+	/**
+	 * Get a connection used for querying a given table. This is a connection
+	 * to the read replica of the table's database when one exists and it has
+	 * caught up with the table's index, otherwise it is the same as
+	 * {@link #getConnection(String)}. Consistent queries must use
+	 * {@link #getConnection(String)}.
+	 * 
+	 * @param tableId
+	 * @param primaryVersion
+	 *            The state of the index on the primary, which the replica must
+	 *            match. It is only read if the database has a replica.
+	 * @return
+	 */
+	TableIndexDAO getReadConnection(String tableId, TableIndexVersion primaryVersion);
+	
 	/**
 	 * Drop all tables in every database connections..
 	 * 
@@ -28,4 +49,29 @@ public interface ConnectionFactory {
 	 * @return
 	 */
 	List<TableIndexDAO> getAllConnections();
+	
+	/**
+	 * Find all table indexes that are not stored in the database where they
+	 * belong, for example after a database joined the cluster.
+	 * 
+	 * @return
+	 */
+	List<TableIndexMove> getTableIndexMoves();
+	
+	/**
+	 * Called when the index of a table was copied to the database where it
+	 * belongs, so the table is routed there by this machine. Other machines
+	 * route the table there within {@link #UNMOVED_TABLE_EXPIRATION_MS}.
+	 * 
+	 * @param tableId
+	 */
+	void tableIndexMoved(String tableId);
+	
+	/**
+	 * Get the load of each connection pool. The request counts are reset by
+	 * this call.
+	 * 
+	 * @return
+	 */
+	List<ConnectionPoolStatistics> getConnectionPoolStatistics();
 }
@@ -1,21 +1,38 @@
 package org.sagebionetworks.table.cluster;
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.sagebionetworks.StackConfiguration;
+import org.sagebionetworks.repo.model.jdo.KeyFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import com.amazonaws.services.rds.AmazonRDSClient;
 
 /**
- * Note: For the first pass at this feature we are only using one database.
- * This will be extended in the future.
+ * Table indexes are spread over all of the databases of the cluster using
+ * consistent hashing of the table ID, so adding a database only moves about
+ * 1/n of the indexes.
+ * <p>
+ * The last 'joining' databases (see
+ * {@link StackConfiguration#getTablesDatabaseJoiningCount()}) were added to
+ * the cluster recently. An index that belongs to a joining database is served
+ * by the database that owned it before the join until the index has been moved
+ * (see {@link #getTableIndexMoves()}). Once all indexes have been moved the
+ * joining count is set back to zero.
+ * <p>
+ * Each database can have a read replica that is used for queries.
  * 
  * @author jmhill
  *
@@ -32,20 +49,106 @@ public class ConnectionFactoryImpl implements ConnectionFactory {
 	AmazonRDSClient awsRDSClient;
 	@Autowired
 	InstanceDiscovery instanceDiscovery;
-	/**
-	 * Note: This field will be remove when we actually have more than one connection.
-	 * It is a simple way to get the functionality up and running without adding full
-	 * support for a load balancing.
-	 */
-	private BasicDataSource singleConnectionPool;
 
 	@Autowired
 	private StackConfiguration stackConfig;
 	
+	/**
+	 * All databases in the order of the configuration.
+	 */
+	private List<Shard> shards;
+	/**
+	 * Places each table on any of the databases.
+	 */
+	private ConsistentHashRing<Shard> ring;
+	/**
+	 * Places each table on the databases that are not joining. This is the
+	 * ring before the joining databases were added.
+	 */
+	private ConsistentHashRing<Shard> settledRing;
+	/**
+	 * Tables that are known to have been moved to a joining database.
+	 */
+	private Set<String> movedTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * Tables that were not yet moved to their joining database, mapped to the
+	 * time in MS when this must be checked again.
+	 */
+	private Map<String, Long> unmovedTables = new ConcurrentHashMap<String, Long>();
+	
 	@Override
 	public TableIndexDAO getConnection(String tableId) {
 		// Create a new DAO for this call.
-		return new TableIndexDAOImpl(singleConnectionPool);	
+		return getShard(tableId).getPrimaryConnection();
+	}
+	
+	@Override
+	public TableIndexDAO getReadConnection(String tableId, TableIndexVersion primaryVersion) {
+		Shard shard = getShard(tableId);
+		if(shard.replicaPool == null || shard.joining){
+			return shard.getPrimaryConnection();
+		}
+		TableIndexDAO replica = shard.getReplicaConnection();
+		if(isReplicaCurrent(tableId, primaryVersion, replica)){
+			return replica;
+		}
+		return shard.getPrimaryConnection();
+	}
+	
+	/**
+	 * Has the replica caught up with the primary for the given table? The
+	 * results of a replica that is behind could be cached under the current
+	 * version of the index.
+	 *
+	 * @param tableId
+	 * @param primaryVersion
+	 * @param replica
+	 * @return
+	 */
+	static boolean isReplicaCurrent(String tableId, TableIndexVersion primaryVersion, TableIndexDAO replica){
+		Long version = primaryVersion.getVersion();
+		if(version == null || !version.equals(replica.getMaxCurrentCompleteVersionForTable(tableId))){
+			return false;
+		}
+		String schemaMD5Hex = primaryVersion.getSchemaMD5Hex();
+		return schemaMD5Hex != null && schemaMD5Hex.equals(replica.getCurrentSchemaMD5Hex(tableId));
+	}
+	
+	/**
+	 * Get the database that currently serves the given table.
+	 *
+	 * @param tableId
+	 * @return
+	 */
+	Shard getShard(String tableId){
+		validateEnable();
+		String key = KeyFactory.stringToKey(tableId).toString();
+		Shard owner = ring.getNode(key);
+		if(!owner.joining){
+			return owner;
+		}
+		// The owner joined recently so the index might still be on the previous owner.
+		if(movedTables.contains(key)){
+			return owner;
+		}
+		Long expiresOn = unmovedTables.get(key);
+		if(expiresOn != null && expiresOn > System.currentTimeMillis()){
+			return settledRing.getNode(key);
+		}
+		if(owner.getPrimaryConnection().doesIndexStatusExist(tableId)){
+			movedTables.add(key);
+			unmovedTables.remove(key);
+			return owner;
+		}
+		unmovedTables.put(key, System.currentTimeMillis() + UNMOVED_TABLE_EXPIRATION_MS);
+		return settledRing.getNode(key);
+	}
+	
+	@Override
+	public void tableIndexMoved(String tableId) {
+		String key = KeyFactory.stringToKey(tableId).toString();
+		movedTables.add(key);
+		unmovedTables.remove(key);
 	}
 	
 	/**
@@ -57,11 +160,42 @@ public class ConnectionFactoryImpl implements ConnectionFactory {
 			// The features is enabled so we must find all database instances that we can use
 			List<InstanceInfo> instances = instanceDiscovery.discoverAllInstances();
 			if(instances == null || instances.isEmpty()) throw new IllegalArgumentException("Did not find at least one database instances.");
-			
-			// This will be improved in the future.  For now we just use the first database we find
-			InstanceInfo instance = instances.get(0);
-			// Use the one instance to create a single connection pool
-			singleConnectionPool = InstanceUtils.createNewDatabaseConnectionPool(stackConfig, instance);
+			Integer joiningCount = stackConfig.getTablesDatabaseJoiningCount();
+			if(joiningCount == null){
+				if(instances.size() > 1){
+					// Treating new databases as settled would route their tables to empty indexes.
+					throw new IllegalArgumentException("The number of joining databases (org.sagebionetworks.table.cluster.database.joining.count) must be set when there is more than one database.");
+				}
+				joiningCount = 0;
+			}
+			if(joiningCount < 0 || joiningCount >= instances.size()){
+				throw new IllegalArgumentException("The number of joining databases must be less than the number of databases: "+joiningCount);
+			}
+			shards = new LinkedList<Shard>();
+			Map<String, Shard> allNodes = new LinkedHashMap<String, Shard>();
+			Map<String, Shard> settledNodes = new LinkedHashMap<String, Shard>();
+			for(int i=0; i<instances.size(); i++){
+				InstanceInfo instance = instances.get(i);
+				boolean joining = i >= instances.size() - joiningCount;
+				Shard shard = new Shard(i, instance, joining);
+				int minConnections = stackConfig.getTablesDatabasePoolMinNumberConnectionsForIndex(i);
+				int maxConnections = stackConfig.getTablesDatabasePoolMaxNumberConnectionsForIndex(i);
+				shard.primaryPool = InstanceUtils.createNewDatabaseConnectionPool(stackConfig, instance, minConnections, maxConnections);
+				String replicaEndpoint = stackConfig.getTablesDatabaseReplicaEndpointForIndex(i);
+				if(replicaEndpoint != null){
+					InstanceInfo replica = new InstanceInfo(replicaEndpoint, instance.getSchema());
+					shard.replicaPool = InstanceUtils.createNewDatabaseConnectionPool(stackConfig, replica, minConnections, maxConnections);
+				}
+				shards.add(shard);
+				// Databases are placed on the ring by URL so the placement does not depend on the order of the configuration.
+				allNodes.put(instance.getUrl(), shard);
+				if(!joining){
+					settledNodes.put(instance.getUrl(), shard);
+				}
+				log.info("Table database "+i+": "+instance.getEndpoint()+(joining ? " (joining)" : "")+(replicaEndpoint != null ? " replica: "+replicaEndpoint : ""));
+			}
+			ring = new ConsistentHashRing<Shard>(allNodes);
+			settledRing = new ConsistentHashRing<Shard>(settledNodes);
 		}else{
 			log.debug("The table feature is disabled and cannot be used");
 		}
@@ -82,30 +216,113 @@ public class ConnectionFactoryImpl implements ConnectionFactory {
 	 * @throws SQLException 
 	 */
 	public void close() throws SQLException{
-		if(singleConnectionPool != null){
-			log.debug("Closing connection pool to: "+singleConnectionPool.getUrl());
-			singleConnectionPool.close();
+		if(shards != null){
+			for(Shard shard: shards){
+				log.debug("Closing connection pool to: "+shard.primaryPool.getUrl());
+				shard.primaryPool.close();
+				if(shard.replicaPool != null){
+					shard.replicaPool.close();
+				}
+			}
 		}
 	}
 
 	@Override
 	public void dropAllTablesForAllConnections() {
-		// For now we only have one database
-		List<InstanceInfo> instances = instanceDiscovery.discoverAllInstances();
-		if(this.singleConnectionPool != null && instances != null && !instances.isEmpty()){
-			String schema = instances.get(0).getSchema();
-			JdbcTemplate template = new JdbcTemplate(this.singleConnectionPool);
-			template.update(DROP_DATABASE+schema);
-			template.update(CREATE_DATABASE+schema);
-			template.update(USE_DATABASE+schema);
+		if(shards != null){
+			for(Shard shard: shards){
+				String schema = shard.instance.getSchema();
+				JdbcTemplate template = new JdbcTemplate(shard.primaryPool);
+				template.update(DROP_DATABASE+schema);
+				template.update(CREATE_DATABASE+schema);
+				template.update(USE_DATABASE+schema);
+			}
+			movedTables.clear();
+			unmovedTables.clear();
 		}
 	}
 
 	@Override
 	public List<TableIndexDAO> getAllConnections() {
 		List<TableIndexDAO> results = new LinkedList<>();
-		results.add(new TableIndexDAOImpl(singleConnectionPool));
+		if(shards != null){
+			for(Shard shard: shards){
+				results.add(new TableIndexDAOImpl(shard.primaryPool));
+			}
+		}
+		return results;
+	}
+	
+	@Override
+	public List<TableIndexMove> getTableIndexMoves() {
+		validateEnable();
+		List<TableIndexMove> results = new LinkedList<TableIndexMove>();
+		for(Shard shard: shards){
+			if(shard.joining){
+				// Joining databases only receive indexes.
+				continue;
+			}
+			TableIndexDAO source = new TableIndexDAOImpl(shard.primaryPool);
+			for(String tableId: source.getAllTableIds()){
+				Shard owner = ring.getNode(KeyFactory.stringToKey(tableId).toString());
+				if(owner != shard){
+					results.add(new TableIndexMove(tableId, source, new TableIndexDAOImpl(owner.primaryPool)));
+				}
+			}
+		}
+		return results;
+	}
+	
+	@Override
+	public List<ConnectionPoolStatistics> getConnectionPoolStatistics() {
+		List<ConnectionPoolStatistics> results = new LinkedList<ConnectionPoolStatistics>();
+		if(shards != null){
+			for(Shard shard: shards){
+				results.add(createStatistics(shard.index, false, shard.primaryPool, shard.primaryRequests));
+				if(shard.replicaPool != null){
+					results.add(createStatistics(shard.index, true, shard.replicaPool, shard.replicaRequests));
+				}
+			}
+		}
 		return results;
 	}
+	
+	/**
+	 * Gather the statistics of a single pool and reset its request count.
+	 */
+	private static ConnectionPoolStatistics createStatistics(int index, boolean replica, BasicDataSource pool, AtomicLong requests){
+		return new ConnectionPoolStatistics(index, replica, pool.getNumActive(), pool.getNumIdle(), pool.getMaxActive(), requests.getAndSet(0L));
+	}
+	
+	/**
+	 * A single database of the cluster with its optional read replica.
+	 *
+	 */
+	static class Shard {
+	
+		final int index;
+		final InstanceInfo instance;
+		final boolean joining;
+		BasicDataSource primaryPool;
+		BasicDataSource replicaPool;
+		final AtomicLong primaryRequests = new AtomicLong(0L);
+		final AtomicLong replicaRequests = new AtomicLong(0L);
+	
+		Shard(int index, InstanceInfo instance, boolean joining) {
+			this.index = index;
+			this.instance = instance;
+			this.joining = joining;
+		}
+	
+		TableIndexDAO getPrimaryConnection(){
+			primaryRequests.incrementAndGet();
+			return new TableIndexDAOImpl(primaryPool);
+		}
+	
+		TableIndexDAO getReplicaConnection(){
+			replicaRequests.incrementAndGet();
+			return new TableIndexDAOImpl(replicaPool);
+		}
+	}
 
 }
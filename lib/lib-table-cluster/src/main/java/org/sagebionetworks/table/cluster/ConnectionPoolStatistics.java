@@ -0,0 +1,86 @@
+package org.sagebionetworks.table.cluster;
+
+/**
+ * The load of a single connection pool of the table's cluster.
+ *
+ */
+public class ConnectionPoolStatistics {
+
+	private final int instanceIndex;
+	private final boolean replica;
+	private final int activeConnections;
+	private final int idleConnections;
+	private final int maxConnections;
+	private final long connectionRequests;
+
+	/**
+	 *
+	 * @param instanceIndex
+	 *            The index of the database in the cluster.
+	 * @param replica
+	 *            Is this the pool of the read replica of the database?
+	 * @param activeConnections
+	 * @param idleConnections
+	 * @param maxConnections
+	 * @param connectionRequests
+	 *            The number of connections requested since the last
+	 *            statistics were gathered.
+	 */
+	public ConnectionPoolStatistics(int instanceIndex, boolean replica, int activeConnections, int idleConnections,
+			int maxConnections, long connectionRequests) {
+		this.instanceIndex = instanceIndex;
+		this.replica = replica;
+		this.activeConnections = activeConnections;
+		this.idleConnections = idleConnections;
+		this.maxConnections = maxConnections;
+		this.connectionRequests = connectionRequests;
+	}
+
+	/**
+	 * The index of the database in the cluster.
+	 *
+	 * @return
+	 */
+	public int getInstanceIndex() {
+		return instanceIndex;
+	}
+
+	/**
+	 * Is this the pool of the read replica of the database?
+	 *
+	 * @return
+	 */
+	public boolean isReplica() {
+		return replica;
+	}
+
+	public int getActiveConnections() {
+		return activeConnections;
+	}
+
+	public int getIdleConnections() {
+		return idleConnections;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * The number of connections requested since the last statistics were
+	 * gathered.
+	 *
+	 * @return
+	 */
+	public long getConnectionRequests() {
+		return connectionRequests;
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionPoolStatistics [instanceIndex=" + instanceIndex + ", replica=" + replica
+				+ ", activeConnections=" + activeConnections + ", idleConnections=" + idleConnections
+				+ ", maxConnections=" + maxConnections + ", connectionRequests=" + connectionRequests + "]";
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.sagebionetworks.table.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * Places keys on a set of nodes using consistent hashing. Each node is hashed
+ * to many points on a ring and a key belongs to the first node point at or
+ * after the hash of the key. Adding a node only moves the keys that land on
+ * the points of the new node, about 1/n of all keys.
+ * <p>
+ * Nodes are placed by name, so the same names always produce the same ring
+ * regardless of the order they are added. This class is immutable.
+ *
+ * @param <T>
+ *            The type of the nodes.
+ */
+public class ConsistentHashRing<T> {
+
+	/**
+	 * The number of points of each node on the ring. More points give a more
+	 * even spread of keys.
+	 */
+	public static final int DEFAULT_POINTS_PER_NODE = 160;
+
+	private final TreeMap<Long, T> ring;
+
+	/**
+	 *
+	 * @param nodes
+	 *            The nodes keyed by their names. The name of a node must not
+	 *            change when other nodes are added or removed.
+	 * @param pointsPerNode
+	 *            The number of points of each node on the ring.
+	 */
+	public ConsistentHashRing(Map<String, T> nodes, int pointsPerNode) {
+		ValidateArgument.required(nodes, "nodes");
+		ValidateArgument.requirement(!nodes.isEmpty(), "At least one node is required.");
+		ValidateArgument.requirement(pointsPerNode > 0, "pointsPerNode must be greater than zero.");
+		this.ring = new TreeMap<Long, T>();
+		// Sort the names so a collision between two points is resolved the same way on every machine.
+		for (Map.Entry<String, T> node : new TreeMap<String, T>(nodes).entrySet()) {
+			for (int point = 0; point < pointsPerNode; point++) {
+				Long hash = hash(node.getKey() + "#" + point);
+				if (!ring.containsKey(hash)) {
+					ring.put(hash, node.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * A ring with the default number of points per node.
+	 *
+	 * @param nodes
+	 */
+	public ConsistentHashRing(Map<String, T> nodes) {
+		this(nodes, DEFAULT_POINTS_PER_NODE);
+	}
+
+	/**
+	 * Get the node that owns the given key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public T getNode(String key) {
+		ValidateArgument.required(key, "key");
+		SortedMap<Long, T> tail = ring.tailMap(hash(key));
+		if (tail.isEmpty()) {
+			// wrap around to the start of the ring.
+			return ring.firstEntry().getValue();
+		}
+		return tail.get(tail.firstKey());
+	}
+
+	/**
+	 * The first eight bytes of the MD5 of the value. MD5 spreads similar
+	 * values, such as sequential table IDs, evenly around the ring.
+	 *
+	 * @param value
+	 * @return
+	 */
+	static long hash(String value) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] md5 = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+			return ByteBuffer.wrap(md5).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
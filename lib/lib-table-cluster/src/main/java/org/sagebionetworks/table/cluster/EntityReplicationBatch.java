@@ -0,0 +1,144 @@
+package org.sagebionetworks.table.cluster;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.sagebionetworks.repo.model.table.AnnotationDTO;
+import org.sagebionetworks.repo.model.table.EntityDTO;
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * An immutable batch of entity replication changes with all of the prepared
+ * statement bindings encoded up front.
+ *
+ * The same batch can be written to any number of index databases, including
+ * concurrently, without encoding the entities again for each database.
+ *
+ */
+public class EntityReplicationBatch {
+
+	/**
+	 * SQL types of each binding of {@link TableConstants#ENTITY_REPLICATION_INSERT}.
+	 */
+	static final int[] ENTITY_TYPES = new int[] { Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT,
+			Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT,
+			Types.BIGINT, Types.BIGINT };
+
+	/**
+	 * SQL types of each binding of {@link TableConstants#ANNOTATION_REPLICATION_INSERT}.
+	 */
+	static final int[] ANNOTATION_TYPES = new int[] { Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR };
+
+	private final List<Long> deleteIds;
+	private final List<Object[]> entityBindings;
+	private final List<Object[]> annotationBindings;
+
+	private EntityReplicationBatch(List<Long> deleteIds, List<Object[]> entityBindings,
+			List<Object[]> annotationBindings) {
+		this.deleteIds = Collections.unmodifiableList(deleteIds);
+		this.entityBindings = Collections.unmodifiableList(entityBindings);
+		this.annotationBindings = Collections.unmodifiableList(annotationBindings);
+	}
+
+	/**
+	 * Encode a batch of replication changes.
+	 *
+	 * @param deleteIds
+	 *            The ids of all entities to delete from the replication tables.
+	 *            This should include the id of each entity that is added.
+	 * @param entities
+	 *            The entities to add to the replication tables.
+	 * @return
+	 */
+	public static EntityReplicationBatch create(List<Long> deleteIds, List<EntityDTO> entities) {
+		ValidateArgument.required(deleteIds, "deleteIds");
+		ValidateArgument.required(entities, "entities");
+		// sort to prevent deadlock.
+		List<Long> sortedIds = new ArrayList<Long>(deleteIds);
+		Collections.sort(sortedIds);
+		List<EntityDTO> sorted = new ArrayList<EntityDTO>(entities);
+		Collections.sort(sorted);
+		List<Object[]> entityBindings = new ArrayList<Object[]>(sorted.size());
+		List<Object[]> annotationBindings = new ArrayList<Object[]>();
+		for (EntityDTO dto : sorted) {
+			entityBindings.add(createEntityBindings(dto));
+			if (dto.getAnnotations() != null) {
+				for (AnnotationDTO annotation : dto.getAnnotations()) {
+					annotationBindings.add(createAnnotationBindings(annotation));
+				}
+			}
+		}
+		return new EntityReplicationBatch(sortedIds, entityBindings, annotationBindings);
+	}
+
+	/**
+	 * The bindings of a single entity row in the order of
+	 * {@link #ENTITY_TYPES}.
+	 *
+	 * @param dto
+	 * @return
+	 */
+	static Object[] createEntityBindings(EntityDTO dto) {
+		return new Object[] {
+				dto.getId(),
+				dto.getCurrentVersion(),
+				dto.getCreatedBy(),
+				dto.getCreatedOn().getTime(),
+				dto.getEtag(),
+				dto.getName(),
+				dto.getType().name(),
+				dto.getParentId(),
+				dto.getBenefactorId(),
+				dto.getProjectId(),
+				dto.getModifiedBy(),
+				dto.getModifiedOn().getTime(),
+				dto.getFileHandleId() };
+	}
+
+	/**
+	 * The bindings of a single annotation row in the order of
+	 * {@link #ANNOTATION_TYPES}.
+	 *
+	 * @param dto
+	 * @return
+	 */
+	static Object[] createAnnotationBindings(AnnotationDTO dto) {
+		return new Object[] {
+				dto.getEntityId(),
+				dto.getKey(),
+				dto.getType().name(),
+				dto.getValue() };
+	}
+
+	/**
+	 * Sorted ids of the entities to delete.
+	 *
+	 * @return
+	 */
+	public List<Long> getDeleteIds() {
+		return deleteIds;
+	}
+
+	/**
+	 * Bindings for each entity row, sorted by entity id. The arrays must not
+	 * be modified.
+	 *
+	 * @return
+	 */
+	public List<Object[]> getEntityBindings() {
+		return entityBindings;
+	}
+
+	/**
+	 * Bindings for each annotation row, sorted by entity id. The arrays must
+	 * not be modified.
+	 *
+	 * @return
+	 */
+	public List<Object[]> getAnnotationBindings() {
+		return annotationBindings;
+	}
+
+}
@@ -12,6 +12,20 @@ public class InstanceUtils {
 	 * @return
 	 */
 	public static BasicDataSource createNewDatabaseConnectionPool(StackConfiguration config, InstanceInfo info){
+		int minConnections = Integer.parseInt(config.getDatabaseConnectionPoolMinNumberConnections());
+		int maxConnections = Integer.parseInt(config.getDatabaseConnectionPoolMaxNumberConnections());
+		return createNewDatabaseConnectionPool(config, info, minConnections, maxConnections);
+	}
+	
+	/**
+	 * Create a new database connection pool of the given size to a given DBInstance.
+	 * @param config
+	 * @param info
+	 * @param minConnections
+	 * @param maxConnections
+	 * @return
+	 */
+	public static BasicDataSource createNewDatabaseConnectionPool(StackConfiguration config, InstanceInfo info, int minConnections, int maxConnections){
 		// Create a database connection pool.
 		BasicDataSource connectionPool = new BasicDataSource();
 		connectionPool.setDriverClassName(config.getTableDatabaseDriver());
@@ -20,8 +34,8 @@ public class InstanceUtils {
 		// For now we use the same username and password as repo.
 		connectionPool.setUsername(config.getRepositoryDatabaseUsername());
 		connectionPool.setPassword(config.getRepositoryDatabasePassword());
-		connectionPool.setMinIdle(Integer.parseInt(config.getDatabaseConnectionPoolMinNumberConnections()));
-		connectionPool.setMaxActive(Integer.parseInt(config.getDatabaseConnectionPoolMaxNumberConnections()));
+		connectionPool.setMinIdle(minConnections);
+		connectionPool.setMaxActive(maxConnections);
 		connectionPool.setTestOnBorrow(Boolean.parseBoolean(config.getDatabaseConnectionPoolShouldValidate()));
 		connectionPool.setValidationQuery(config.getDatabaseConnectionPoolValidateSql());
 		return connectionPool;
@@ -6,6 +6,7 @@ import static org.sagebionetworks.repo.model.table.TableConstants.ROW_VERSION;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -21,7 +22,10 @@ import org.sagebionetworks.table.query.ParseException;
 import org.sagebionetworks.table.query.TableQueryParser;
 import org.sagebionetworks.table.query.model.ActualIdentifier;
 import org.sagebionetworks.table.query.model.BooleanFunctionPredicate;
+import org.sagebionetworks.table.query.model.BooleanFactor;
 import org.sagebionetworks.table.query.model.BooleanPrimary;
+import org.sagebionetworks.table.query.model.BooleanTerm;
+import org.sagebionetworks.table.query.model.BooleanTest;
 import org.sagebionetworks.table.query.model.CharacterFactor;
 import org.sagebionetworks.table.query.model.CharacterPrimary;
 import org.sagebionetworks.table.query.model.CharacterValueExpression;
@@ -42,7 +46,9 @@ import org.sagebionetworks.table.query.model.NumericValueExpression;
 import org.sagebionetworks.table.query.model.NumericValueFunction;
 import org.sagebionetworks.table.query.model.OrderByClause;
 import org.sagebionetworks.table.query.model.Pagination;
+import org.sagebionetworks.table.query.model.Predicate;
 import org.sagebionetworks.table.query.model.QuerySpecification;
+import org.sagebionetworks.table.query.model.SearchCondition;
 import org.sagebionetworks.table.query.model.SelectList;
 import org.sagebionetworks.table.query.model.SetQuantifier;
 import org.sagebionetworks.table.query.model.StringValueExpression;
@@ -586,4 +592,61 @@ public class SQLTranslatorUtils {
 		tableReference.replaceTableName(SQLUtils.TABLE_PREFIX + tableId);
 	}
 	
+	/**
+	 * Add a filter to the where clause of a translated model that limits the
+	 * rows to those where the given column has one of the given values. For
+	 * example: 'WHERE _C1_ > :b0' becomes 'WHERE ( _C1_ > :b0 ) AND _C99_ IN ( :b1 )'.
+	 * 
+	 * The values are bound as a single collection parameter, so the size of the
+	 * model and SQL does not grow with the number of values. Any existing search
+	 * condition is wrapped in parentheses so an 'OR' in the existing condition
+	 * cannot negate the filter (PLFM-4036).
+	 * 
+	 * @param transformedModel
+	 * @param columnId
+	 * @param values
+	 * @param parameters
+	 */
+	public static void appendInFilter(QuerySpecification transformedModel, String columnId,
+			Collection<Long> values, Map<String, Object> parameters) {
+		ValidateArgument.required(transformedModel, "transformedModel");
+		ValidateArgument.required(transformedModel.getTableExpression(), "transformedModel.tableExpression");
+		ValidateArgument.required(columnId, "columnId");
+		ValidateArgument.required(values, "values");
+		ValidateArgument.required(parameters, "parameters");
+		ValidateArgument.requirement(!values.isEmpty(), "values cannot be empty");
+		// The filter is parsed with a single place holder value.
+		Predicate filter;
+		try {
+			filter = new TableQueryParser(SQLUtils.getColumnNameForId(columnId)+" IN ( 0 )").predicate();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+		String key = BIND_PREFIX+parameters.size();
+		parameters.put(key, values);
+		for(HasQuoteValue value: filter.getInPredicate().getRightHandSideValues()){
+			value.replaceUnquoted(COLON+key);
+		}
+		List<BooleanFactor> factors = new LinkedList<BooleanFactor>();
+		TableExpression tableExpression = transformedModel.getTableExpression();
+		WhereClause where = tableExpression.getWhereClause();
+		if(where != null){
+			factors.add(createBooleanFactor(new BooleanPrimary(where.getSearchCondition())));
+		}
+		factors.add(createBooleanFactor(new BooleanPrimary(filter)));
+		List<BooleanTerm> terms = new LinkedList<BooleanTerm>();
+		terms.add(new BooleanTerm(factors));
+		tableExpression.replaceWhere(new WhereClause(new SearchCondition(terms)));
+	}
+	
+	/**
+	 * Create a BooleanFactor for the given BooleanPrimary.
+	 * 
+	 * @param booleanPrimary
+	 * @return
+	 */
+	static BooleanFactor createBooleanFactor(BooleanPrimary booleanPrimary){
+		return new BooleanFactor(null, new BooleanTest(booleanPrimary, null, null, null));
+	}
+	
 }
@@ -47,6 +47,9 @@ public class SQLUtils {
 	private static final String SELECT_COUNT_FROM_TEMP = "SELECT COUNT(*) FROM ";
 	private static final String SQL_COPY_TABLE_TO_TEMP = "INSERT INTO %1$S SELECT * FROM %2$S ORDER BY "+ROW_ID;
 	private static final String CREATE_TABLE_LIKE = "CREATE TABLE %1$S LIKE %2$S";
+	private static final String SHOW_CREATE_TABLE = "SHOW CREATE TABLE %1$S";
+	private static final String CREATE_TABLE_NAMED = "CREATE TABLE `%1$S`";
+	private static final String RENAME_TABLE = "RENAME TABLE %1$S TO %2$S";
 	private static final String TEMP = "TEMP";
 	private static final String IDX = "idx_";
 	public static final String CHARACTER_SET_UTF8_COLLATE_UTF8_GENERAL_CI = "CHARACTER SET utf8 COLLATE utf8_general_ci";
@@ -360,15 +363,99 @@ public class SQLUtils {
 			builder.append(", :");
 			builder.append(columnName);
 		}
-		builder.append(") ON DUPLICATE KEY UPDATE " + ROW_VERSION + " = VALUES(" + ROW_VERSION + ")");
+		builder.append(")");
+		appendOnDuplicateKeyUpdate(builder, columnNames);
+		return builder.toString();
+	}
+	
+	/**
+	 * Build a single create or update statement for inserting many rows into
+	 * a table. Each row is bound with positional parameters in the order:
+	 * row ID, row version, then {@link #getColumnNames(List)}.
+	 * 
+	 * @param schema
+	 * @param tableId
+	 * @param numberOfRows
+	 * @return
+	 */
+	public static String buildBulkCreateOrUpdateRowSQL(List<ColumnModel> schema, String tableId, int numberOfRows){
+		if(schema == null) throw new IllegalArgumentException("Schema cannot be null");
+		if(schema.size() < 1) throw new IllegalArgumentException("Schema must include at least on column");
+		if(tableId == null) throw new IllegalArgumentException("TableID cannot be null");
+		if(numberOfRows < 1) throw new IllegalArgumentException("Number of rows must be at least one");
+		List<String> columnNames = getColumnNames(schema);
+		// The placeholders for a single row.
+		StringBuilder rowValues = new StringBuilder("(?, ?");
+		for (int i = 0; i < columnNames.size(); i++) {
+			rowValues.append(", ?");
+		}
+		rowValues.append(")");
+		StringBuilder builder = new StringBuilder();
+		builder.append("INSERT INTO ");
+		builder.append(getTableNameForId(tableId, TableType.INDEX));
+		builder.append(" (");
+		builder.append(ROW_ID);
+		builder.append(", ").append(ROW_VERSION);
 		for (String columnName : columnNames) {
 			builder.append(", ");
 			builder.append(columnName);
-			builder.append(" = VALUES(").append(columnName).append(")");
 		}
+		builder.append(") VALUES ");
+		for (int i = 0; i < numberOfRows; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(rowValues);
+		}
+		appendOnDuplicateKeyUpdate(builder, columnNames);
 		return builder.toString();
 	}
 	
+	/**
+	 * Append the clause that updates all columns of an existing row.
+	 * 
+	 * @param builder
+	 * @param columnNames
+	 */
+	private static void appendOnDuplicateKeyUpdate(StringBuilder builder, List<String> columnNames){
+		builder.append(" ON DUPLICATE KEY UPDATE " + ROW_VERSION + " = VALUES(" + ROW_VERSION + ")");
+		for (String columnName : columnNames) {
+			builder.append(", ");
+			builder.append(columnName);
+			builder.append(" = VALUES(").append(columnName).append(")");
+		}
+	}
+	
+	/**
+	 * Flatten the bindings of a range of rows into the positional parameters
+	 * of {@link #buildBulkCreateOrUpdateRowSQL(List, String, int)}.
+	 * 
+	 * @param rows
+	 *            Bindings from {@link #bindParametersForCreateOrUpdate(RowSet, List)}
+	 * @param schema
+	 * @param fromIndex
+	 *            Index of the first row, inclusive.
+	 * @param toIndex
+	 *            Index of the last row, exclusive.
+	 * @return
+	 */
+	public static Object[] bindParametersForBulkCreateOrUpdate(SqlParameterSource[] rows, List<ColumnModel> schema,
+			int fromIndex, int toIndex) {
+		List<String> columnNames = getColumnNames(schema);
+		int valuesPerRow = columnNames.size() + 2;
+		Object[] results = new Object[(toIndex - fromIndex) * valuesPerRow];
+		int index = 0;
+		for (int i = fromIndex; i < toIndex; i++) {
+			SqlParameterSource row = rows[i];
+			results[index++] = row.getValue(ROW_ID_BIND);
+			results[index++] = row.getValue(ROW_VERSION_BIND);
+			for (String columnName : columnNames) {
+				results[index++] = row.getValue(columnName);
+			}
+		}
+		return results;
+	}
+	
 	/**
 	 * Get all of the column names for the given schema.
 	 * @param schema
@@ -1132,6 +1219,117 @@ public class SQLUtils {
 		String tempName = getTemporaryTableName(tableId);
 		return String.format(DROP_TABLE_IF_EXISTS, tempName);
 	}
+	
+	/**
+	 * SQL to read the definition of a table's index.
+	 * @param tableId
+	 * @return
+	 */
+	public static String showCreateTableSql(String tableId){
+		String tableName = getTableNameForId(tableId, TableType.INDEX);
+		return String.format(SHOW_CREATE_TABLE, tableName);
+	}
+	
+	/**
+	 * Create the SQL used to create a temporary table from the definition of
+	 * the table's index, which may have been read from another database.
+	 * 
+	 * @param tableId
+	 * @param tableDefinition
+	 *            The CREATE TABLE statement of the table's index.
+	 * @return
+	 */
+	public static String createTempTableFromDefinitionSql(String tableId, String tableDefinition){
+		ValidateArgument.required(tableDefinition, "tableDefinition");
+		String tableName = getTableNameForId(tableId, TableType.INDEX);
+		String tempName = getTemporaryTableName(tableId);
+		String createTable = String.format(CREATE_TABLE_NAMED, tableName);
+		if(!tableDefinition.startsWith(createTable)){
+			throw new IllegalArgumentException("Not the definition of "+tableName+": "+tableDefinition);
+		}
+		return String.format(CREATE_TABLE_NAMED, tempName)+tableDefinition.substring(createTable.length());
+	}
+	
+	/**
+	 * SQL to select a page of the rows of a table's index ordered by row ID.
+	 * The parameters are the row ID to start after and the limit.
+	 * @param tableId
+	 * @return
+	 */
+	public static String selectRowsAfterSql(String tableId){
+		String tableName = getTableNameForId(tableId, TableType.INDEX);
+		return "SELECT * FROM "+tableName+" WHERE "+ROW_ID+" > ? ORDER BY "+ROW_ID+" LIMIT ?";
+	}
+	
+	/**
+	 * SQL to insert rows into the temp table of a table.
+	 * @param tableId
+	 * @param columnNames
+	 * @return
+	 */
+	public static String insertIntoTempTableSql(String tableId, List<String> columnNames){
+		ValidateArgument.required(columnNames, "columnNames");
+		ValidateArgument.requirement(!columnNames.isEmpty(), "At least one column is required.");
+		StringBuilder builder = new StringBuilder("INSERT INTO ");
+		builder.append(getTemporaryTableName(tableId));
+		builder.append(" (");
+		StringBuilder values = new StringBuilder();
+		for(int i=0; i<columnNames.size(); i++){
+			if(i > 0){
+				builder.append(", ");
+				values.append(", ");
+			}
+			builder.append("`").append(columnNames.get(i)).append("`");
+			values.append("?");
+		}
+		builder.append(") VALUES (").append(values).append(")");
+		return builder.toString();
+	}
+	
+	/**
+	 * SQL to select a page of the file handle IDs of a table ordered by ID.
+	 * The parameters are the ID to start after and the limit.
+	 * @param tableId
+	 * @return
+	 */
+	public static String selectFileIdsAfterSql(String tableId){
+		String tableName = getTableNameForId(tableId, TableType.FILE_IDS);
+		return "SELECT "+FILE_ID+" FROM "+tableName+" WHERE "+FILE_ID+" > ? ORDER BY "+FILE_ID+" LIMIT ?";
+	}
+	
+	/**
+	 * SQL to rename the temp table of a table to the table's index.
+	 * @param tableId
+	 * @return
+	 */
+	public static String renameTempTableSql(String tableId){
+		String tableName = getTableNameForId(tableId, TableType.INDEX);
+		String tempName = getTemporaryTableName(tableId);
+		return String.format(RENAME_TABLE, tempName, tableName);
+	}
+	
+	/**
+	 * SQL to count the rows in the status table of a table.
+	 * @param tableId
+	 * @return
+	 */
+	public static String countStatusRowsSql(String tableId){
+		return "SELECT COUNT(*) FROM "+getTableNameForId(tableId, TableType.STATUS);
+	}
+	
+	/**
+	 * Get the table ID from the name of a table's status table.
+	 * 
+	 * @param tableName
+	 * @return null if the name is not the name of a status table.
+	 */
+	public static String getTableIdForStatusTableName(String tableName){
+		if(tableName == null || !TableType.STATUS.getTableNamePattern().matcher(tableName).matches()){
+			return null;
+		}
+		String id = tableName.substring(TABLE_PREFIX.length(), tableName.length()-TableType.STATUS.getTablePostFix().length());
+		return KeyFactory.keyToString(Long.parseLong(id));
+	}
 
 	/**
 	 * Translate a list of ColumnModels to a list of ColumnMetadata.
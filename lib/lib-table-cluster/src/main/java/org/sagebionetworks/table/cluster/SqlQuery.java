@@ -1,5 +1,8 @@
 package org.sagebionetworks.table.cluster;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -91,6 +94,13 @@ public class SqlQuery {
 	Long overrideLimit;
 	Long maxBytesPerPage;
 	
+	/**
+	 * Optional row level filter applied to the transformed model. Rows are
+	 * limited to those where this column has one of the filter values.
+	 */
+	String filterColumnId;
+	List<Long> filterValues;
+	
 	
 	/**
 	 * Create a new SQLQuery from an input SQL string and mapping of the column names to column IDs.
@@ -151,6 +161,30 @@ public class SqlQuery {
 		ValidateArgument.required(toCopy, "toCopy");
 		init(model, toCopy.getTableSchema(), toCopy.overrideOffset, toCopy.overrideLimit, toCopy.maxBytesPerPage);
 	}
+	
+	/**
+	 * Create a new query as a copy of the passed query with a row level filter
+	 * that limits the rows to those where the given column has one of the
+	 * given values. The filter is only added to the transformed model, with
+	 * the values bound as a single parameter, so the input model is not
+	 * changed and the SQL does not grow with the number of values.
+	 * 
+	 * @param toCopy
+	 * @param filterColumnId
+	 * @param filterValues
+	 */
+	public SqlQuery(SqlQuery toCopy, String filterColumnId, Collection<Long> filterValues) {
+		ValidateArgument.required(toCopy, "toCopy");
+		ValidateArgument.required(filterColumnId, "filterColumnId");
+		ValidateArgument.required(filterValues, "filterValues");
+		ValidateArgument.requirement(!filterValues.isEmpty(), "filterValues cannot be empty");
+		this.filterColumnId = filterColumnId;
+		// sorted so the same values always produce the same parameters.
+		List<Long> sorted = new ArrayList<Long>(filterValues);
+		Collections.sort(sorted);
+		this.filterValues = Collections.unmodifiableList(sorted);
+		init(toCopy.getModel(), toCopy.getTableSchema(), toCopy.overrideOffset, toCopy.overrideLimit, toCopy.maxBytesPerPage);
+	}
 
 	/**
 	 * @param tableId
@@ -208,6 +242,9 @@ public class SqlQuery {
 			this.includesRowIdAndVersion = false;
 		}
 		SQLTranslatorUtils.translateModel(transformedModel, parameters, columnNameToModelMap);
+		if(filterColumnId != null){
+			SQLTranslatorUtils.appendInFilter(transformedModel, filterColumnId, filterValues, parameters);
+		}
 		this.outputSQL = transformedModel.toSql();
 	}
 	
@@ -314,6 +351,24 @@ public class SqlQuery {
 		return maxRowsPerPage;
 	}
 	
+	/**
+	 * The ID of the column of the row level filter.
+	 * 
+	 * @return null if this query does not have a row level filter.
+	 */
+	public String getFilterColumnId() {
+		return filterColumnId;
+	}
+	
+	/**
+	 * The sorted values of the row level filter.
+	 * 
+	 * @return null if this query does not have a row level filter.
+	 */
+	public List<Long> getFilterValues() {
+		return filterValues;
+	}
+	
 	
 	
 }
@@ -270,6 +270,80 @@ public interface TableIndexDAO {
 	 */
 	public long getTempTableCount(String tableId);
 	
+	/**
+	 * Get the definition (CREATE TABLE statement) of the given table's index.
+	 * Used to create a temporary copy of the table in another database.
+	 * 
+	 * @param tableId
+	 * @return
+	 */
+	public String getTableDefinition(String tableId);
+	
+	/**
+	 * Create the temporary table of the given table from a definition read
+	 * from another database.
+	 * 
+	 * @param tableId
+	 * @param tableDefinition
+	 *            The result of {@link #getTableDefinition(String)}.
+	 */
+	public void createTemporaryTable(String tableId, String tableDefinition);
+	
+	/**
+	 * Get a page of the rows of the given table's index, ordered by row ID.
+	 * 
+	 * @param tableId
+	 * @param afterRowId
+	 *            Only rows with a larger row ID are included.
+	 * @param limit
+	 * @return Each row maps its column names to its values, in column order.
+	 */
+	public List<Map<String, Object>> getRowsAfter(String tableId, long afterRowId, long limit);
+	
+	/**
+	 * Add rows read with {@link #getRowsAfter(String, long, long)} to the
+	 * temporary table of the given table.
+	 * 
+	 * @param tableId
+	 * @param rows
+	 */
+	public void addRowsToTemporaryTable(String tableId, List<Map<String, Object>> rows);
+	
+	/**
+	 * Get a page of the file handle IDs associated with the given table,
+	 * ordered by ID.
+	 * 
+	 * @param tableId
+	 * @param afterFileHandleId
+	 *            Only larger IDs are included.
+	 * @param limit
+	 * @return
+	 */
+	public List<Long> getFileHandleIdsAfter(String tableId, long afterFileHandleId, long limit);
+	
+	/**
+	 * Replace the given table with its temporary table.
+	 * 
+	 * @param tableId
+	 */
+	public void replaceTableWithTemporaryTable(String tableId);
+	
+	/**
+	 * Does the status of the given table's index exist in this database? When
+	 * an index is copied to another database its status is written last.
+	 * 
+	 * @param tableId
+	 * @return
+	 */
+	public boolean doesIndexStatusExist(String tableId);
+	
+	/**
+	 * Get the IDs of all tables that have an index in this database.
+	 * 
+	 * @return
+	 */
+	public List<String> getAllTableIds();
+	
 	/**
 	 * Create the entity replication tables if they do not exist.
 	 * 
@@ -291,6 +365,17 @@ public interface TableIndexDAO {
 	 */
 	public void addEntityData(ProgressCallback<Void> progressCallback, List<EntityDTO> entityDTOs);
 	
+	/**
+	 * Delete the entities of the given batch and then add the entities of the
+	 * batch. The caller should run this in a write transaction.
+	 * 
+	 * @param progressCallback
+	 * @param batch
+	 *            A batch that was encoded once and can be written to any
+	 *            number of index databases.
+	 */
+	public void writeEntityReplicationBatch(ProgressCallback<Void> progressCallback, EntityReplicationBatch batch);
+	
 	/**
 	 * Get the entity DTO for a given entity ID.
 	 * @param entityId
@@ -67,11 +67,25 @@ public class TableIndexDAOImpl implements TableIndexDAO {
 	private static final String FIELD = "Field";
 	private static final String TYPE = "Type";
 	private static final Pattern VARCHAR = Pattern.compile("varchar\\((\\d+)\\)");
+	/*
+	 * Row sets with at least this many rows to create or update are written
+	 * with multi-row INSERT statements instead of a JDBC batch.
+	 */
+	public static final int DEFAULT_BULK_WRITE_ROW_THRESHOLD = 100;
+	// The maximum number of rows in a single multi-row INSERT.
+	public static final int MAX_ROWS_PER_BULK_INSERT = 500;
+	// MySQL allows at most this many placeholders in a prepared statement.
+	public static final int MAX_BIND_VARIABLES_PER_STATEMENT = 65535;
+	// Keeps each multi-row INSERT well below the server's max_allowed_packet.
+	public static final long MAX_BYTES_PER_BULK_INSERT = 1024 * 1024;
+	// Estimated size of a bound value that is not a string.
+	private static final int NON_STRING_VALUE_BYTES = 16;
 
 	private final DataSourceTransactionManager transactionManager;
 	private final TransactionTemplate writeTransactionTemplate;
 	private final TransactionTemplate readTransactionTemplate;
 	private final JdbcTemplate template;
+	private int bulkWriteRowThreshold = DEFAULT_BULK_WRITE_ROW_THRESHOLD;
 
 	/**
 	 * The IoC constructor.
@@ -156,7 +170,9 @@ public class TableIndexDAOImpl implements TableIndexDAO {
 						.bindParameterForDelete(rowset, schema);
 				// We need a named template for this case.
 				NamedParameterJdbcTemplate namedTemplate = new NamedParameterJdbcTemplate(template);
-				if (batchUpdateOrCreateBinding.length > 0) {
+				if (batchUpdateOrCreateBinding.length >= bulkWriteRowThreshold) {
+					bulkCreateOrUpdateRows(schema, rowset.getTableId(), batchUpdateOrCreateBinding);
+				} else if (batchUpdateOrCreateBinding.length > 0) {
 					namedTemplate.batchUpdate(createOrUpdateSql,
 							batchUpdateOrCreateBinding);
 				}
@@ -168,6 +184,73 @@ public class TableIndexDAOImpl implements TableIndexDAO {
 		});
 	}
 	
+	/**
+	 * Create or update the given rows with multi-row INSERT statements. Each
+	 * statement writes many rows in a single round trip to the database.
+	 * 
+	 * @param schema
+	 * @param tableId
+	 * @param rows
+	 */
+	void bulkCreateOrUpdateRows(List<ColumnModel> schema, String tableId, SqlParameterSource[] rows) {
+		List<String> columnNames = SQLUtils.getColumnNames(schema);
+		int valuesPerRow = columnNames.size() + 2;
+		int maxRowsPerStatement = Math.max(1,
+				Math.min(MAX_ROWS_PER_BULK_INSERT, MAX_BIND_VARIABLES_PER_STATEMENT / valuesPerRow));
+		// Most statements have the same number of rows so the SQL is reused.
+		Map<Integer, String> sqlForRowCount = new HashMap<Integer, String>();
+		int from = 0;
+		while (from < rows.length) {
+			// Add rows until the statement is full.
+			int to = from;
+			long bytes = 0;
+			while (to < rows.length && to - from < maxRowsPerStatement
+					&& (to == from || bytes < MAX_BYTES_PER_BULK_INSERT)) {
+				bytes += estimateBytes(rows[to], columnNames);
+				to++;
+			}
+			int rowCount = to - from;
+			String sql = sqlForRowCount.get(rowCount);
+			if (sql == null) {
+				sql = SQLUtils.buildBulkCreateOrUpdateRowSQL(schema, tableId, rowCount);
+				sqlForRowCount.put(rowCount, sql);
+			}
+			template.update(sql, SQLUtils.bindParametersForBulkCreateOrUpdate(rows, schema, from, to));
+			from = to;
+		}
+	}
+
+	/**
+	 * Estimate the number of bytes needed to send a row to the database.
+	 * 
+	 * @param row
+	 * @param columnNames
+	 * @return
+	 */
+	private static long estimateBytes(SqlParameterSource row, List<String> columnNames) {
+		long bytes = 2 * NON_STRING_VALUE_BYTES;
+		for (String columnName : columnNames) {
+			Object value = row.getValue(columnName);
+			if (value instanceof String) {
+				bytes += ((String) value).length();
+			} else {
+				bytes += NON_STRING_VALUE_BYTES;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Row sets with at least this many rows to create or update are written
+	 * with multi-row INSERT statements.
+	 * 
+	 * @param bulkWriteRowThreshold
+	 */
+	public void setBulkWriteRowThreshold(int bulkWriteRowThreshold) {
+		ValidateArgument.requirement(bulkWriteRowThreshold > 0, "bulkWriteRowThreshold must be greater than zero");
+		this.bulkWriteRowThreshold = bulkWriteRowThreshold;
+	}
+
 	@Override
 	public Long getRowCountForTable(String tableId) {
 		String sql = SQLUtils.getCountSQL(tableId);
@@ -525,6 +608,90 @@ public class TableIndexDAOImpl implements TableIndexDAO {
 		}
 	}
 	
+	@Override
+	public String getTableDefinition(String tableId) {
+		String sql = SQLUtils.showCreateTableSql(tableId);
+		return template.queryForObject(sql, new RowMapper<String>() {
+
+			@Override
+			public String mapRow(ResultSet rs, int rowNum) throws SQLException {
+				// The first column is the table name.
+				return rs.getString(2);
+			}
+		});
+	}
+	
+	@Override
+	public void createTemporaryTable(String tableId, String tableDefinition) {
+		String sql = SQLUtils.createTempTableFromDefinitionSql(tableId, tableDefinition);
+		template.update(sql);
+	}
+	
+	@Override
+	public List<Map<String, Object>> getRowsAfter(String tableId, long afterRowId, long limit) {
+		String sql = SQLUtils.selectRowsAfterSql(tableId);
+		return template.queryForList(sql, afterRowId, limit);
+	}
+	
+	@Override
+	public void addRowsToTemporaryTable(String tableId, List<Map<String, Object>> rows) {
+		ValidateArgument.required(rows, "rows");
+		if(rows.isEmpty()){
+			return;
+		}
+		List<String> columnNames = new ArrayList<String>(rows.get(0).keySet());
+		String sql = SQLUtils.insertIntoTempTableSql(tableId, columnNames);
+		List<Object[]> batch = new ArrayList<Object[]>(rows.size());
+		for(Map<String, Object> row: rows){
+			Object[] values = new Object[columnNames.size()];
+			for(int i=0; i<columnNames.size(); i++){
+				values[i] = row.get(columnNames.get(i));
+			}
+			batch.add(values);
+		}
+		template.batchUpdate(sql, batch);
+	}
+	
+	@Override
+	public List<Long> getFileHandleIdsAfter(String tableId, long afterFileHandleId, long limit) {
+		String sql = SQLUtils.selectFileIdsAfterSql(tableId);
+		try {
+			return template.queryForList(sql, Long.class, afterFileHandleId, limit);
+		} catch (BadSqlGrammarException e) {
+			// thrown when the table does not exist.
+			return new LinkedList<Long>();
+		}
+	}
+	
+	@Override
+	public void replaceTableWithTemporaryTable(String tableId) {
+		deleteTable(tableId);
+		template.update(SQLUtils.renameTempTableSql(tableId));
+	}
+	
+	@Override
+	public boolean doesIndexStatusExist(String tableId) {
+		String sql = SQLUtils.countStatusRowsSql(tableId);
+		try {
+			return template.queryForObject(sql, Long.class) > 0;
+		} catch (BadSqlGrammarException e) {
+			// thrown when the table does not exist.
+			return false;
+		}
+	}
+	
+	@Override
+	public List<String> getAllTableIds() {
+		List<String> tableIds = new LinkedList<String>();
+		for(String tableName: template.queryForList("SHOW TABLES", String.class)){
+			String tableId = SQLUtils.getTableIdForStatusTableName(tableName);
+			if(tableId != null){
+				tableIds.add(tableId);
+			}
+		}
+		return tableIds;
+	}
+	
 	@Override
 	public void createEntityReplicationTablesIfDoesNotExist(){
 		template.update(TableConstants.ENTITY_REPLICATION_TABLE_CREATE);
@@ -533,105 +700,74 @@ public class TableIndexDAOImpl implements TableIndexDAO {
 
 	@Override
 	public void deleteEntityData(final ProgressCallback<Void> progressCallback, List<Long> entityIds) {
-		final List<Long> sorted = new ArrayList<Long>(entityIds);
-		// sort to prevent deadlock.
-		Collections.sort(sorted);
-		// Batch delete.
-		template.batchUpdate(TableConstants.ENTITY_REPLICATION_DELETE_ALL, new BatchPreparedStatementSetter(){
-
-			@Override
-			public void setValues(PreparedStatement ps, int i)
-					throws SQLException {
-				progressCallback.progressMade(null);
-				ps.setLong(1, sorted.get(i));
-			}
-
-			@Override
-			public int getBatchSize() {
-				return sorted.size();
-			}});
-		
+		writeEntityReplicationBatch(progressCallback, EntityReplicationBatch.create(entityIds, new LinkedList<EntityDTO>()));
 	}
 
 	@Override
 	public void addEntityData(final ProgressCallback<Void> progressCallback, List<EntityDTO> entityDTOs) {
-		final List<EntityDTO> sorted = new ArrayList<EntityDTO>(entityDTOs);
-		Collections.sort(sorted);
-		// batch update the entity table
-		template.batchUpdate(TableConstants.ENTITY_REPLICATION_INSERT, new BatchPreparedStatementSetter(){
+		writeEntityReplicationBatch(progressCallback, EntityReplicationBatch.create(new LinkedList<Long>(), entityDTOs));
+	}
 
-			@Override
-			public void setValues(PreparedStatement ps, int i)
-					throws SQLException {
-				// progress for each row.
-				progressCallback.progressMade(null);
-				EntityDTO dto = sorted.get(i);
-				int parameterIndex = 1;
-				ps.setLong(parameterIndex++, dto.getId());
-				ps.setLong(parameterIndex++, dto.getCurrentVersion());
-				ps.setLong(parameterIndex++, dto.getCreatedBy());
-				ps.setLong(parameterIndex++, dto.getCreatedOn().getTime());
-				ps.setString(parameterIndex++, dto.getEtag());
-				ps.setString(parameterIndex++, dto.getName());
-				ps.setString(parameterIndex++, dto.getType().name());
-				if(dto.getParentId() != null){
-					ps.setLong(parameterIndex++, dto.getParentId());
-				}else{
-					ps.setNull(parameterIndex++, java.sql.Types.BIGINT);
-				}
-				if(dto.getBenefactorId() != null){
-					ps.setLong(parameterIndex++, dto.getBenefactorId());
-				}else{
-					ps.setNull(parameterIndex++, java.sql.Types.BIGINT);
-				}
-				if(dto.getProjectId() != null){
-					ps.setLong(parameterIndex++, dto.getProjectId());
-				}else{
-					ps.setNull(parameterIndex++, java.sql.Types.BIGINT);
-				}
-				ps.setLong(parameterIndex++, dto.getModifiedBy());
-				ps.setLong(parameterIndex++, dto.getModifiedOn().getTime());
-				if(dto.getFileHandleId() != null){
-					ps.setLong(parameterIndex++, dto.getFileHandleId());
-				}else{
-					ps.setNull(parameterIndex++, java.sql.Types.BIGINT);
+	@Override
+	public void writeEntityReplicationBatch(final ProgressCallback<Void> progressCallback, EntityReplicationBatch batch) {
+		ValidateArgument.required(progressCallback, "progressCallback");
+		ValidateArgument.required(batch, "batch");
+		final List<Long> deleteIds = batch.getDeleteIds();
+		if(!deleteIds.isEmpty()){
+			// Batch delete.
+			template.batchUpdate(TableConstants.ENTITY_REPLICATION_DELETE_ALL, new BatchPreparedStatementSetter(){
+
+				@Override
+				public void setValues(PreparedStatement ps, int i)
+						throws SQLException {
+					progressCallback.progressMade(null);
+					ps.setLong(1, deleteIds.get(i));
 				}
-			}
 
-			@Override
-			public int getBatchSize() {
-				return sorted.size();
-			}});
-		// map the entities with annotations
-		final List<AnnotationDTO> annotations = new ArrayList<AnnotationDTO>();
-		for(int i=0; i<sorted.size(); i++){
-			EntityDTO dto = sorted.get(i);
-			if(dto.getAnnotations() != null && !dto.getAnnotations().isEmpty()){
-				// this index has annotations.
-				annotations.addAll(dto.getAnnotations());
-			}
+				@Override
+				public int getBatchSize() {
+					return deleteIds.size();
+				}});
 		}
+		// batch update the entity table
+		batchUpdateBindings(progressCallback, TableConstants.ENTITY_REPLICATION_INSERT, batch.getEntityBindings(), EntityReplicationBatch.ENTITY_TYPES);
 		// update the annotations
-		template.batchUpdate(TableConstants.ANNOTATION_REPLICATION_INSERT, new BatchPreparedStatementSetter(){
+		batchUpdateBindings(progressCallback, TableConstants.ANNOTATION_REPLICATION_INSERT, batch.getAnnotationBindings(), EntityReplicationBatch.ANNOTATION_TYPES);
+	}
+	
+	/**
+	 * Run a batch update using bindings that were encoded ahead of time.
+	 * 
+	 * @param progressCallback
+	 * @param sql
+	 * @param bindings
+	 * @param types SQL type of each binding, used for null values.
+	 */
+	private void batchUpdateBindings(final ProgressCallback<Void> progressCallback, String sql, final List<Object[]> bindings, final int[] types){
+		if(bindings.isEmpty()){
+			return;
+		}
+		template.batchUpdate(sql, new BatchPreparedStatementSetter(){
 
 			@Override
 			public void setValues(PreparedStatement ps, int i)
 					throws SQLException {
 				// progress for each row.
 				progressCallback.progressMade(null);
-				AnnotationDTO dto = annotations.get(i);
-				int parameterIndex = 1;
-				ps.setLong(parameterIndex++, dto.getEntityId());
-				ps.setString(parameterIndex++, dto.getKey());
-				ps.setString(parameterIndex++, dto.getType().name());
-				ps.setString(parameterIndex++, dto.getValue());
+				Object[] row = bindings.get(i);
+				for(int index=0; index<row.length; index++){
+					if(row[index] == null){
+						ps.setNull(index+1, types[index]);
+					}else{
+						ps.setObject(index+1, row[index], types[index]);
+					}
+				}
 			}
 
 			@Override
 			public int getBatchSize() {
-				return annotations.size();
+				return bindings.size();
 			}});
-		
 	}
 
 	@Override
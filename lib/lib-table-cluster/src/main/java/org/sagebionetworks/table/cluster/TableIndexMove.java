@@ -0,0 +1,55 @@
+package org.sagebionetworks.table.cluster;
+
+/**
+ * A table index that is stored in one database but belongs in another, for
+ * example after a database joined the cluster.
+ *
+ */
+public class TableIndexMove {
+
+	private final String tableId;
+	private final TableIndexDAO source;
+	private final TableIndexDAO destination;
+
+	/**
+	 *
+	 * @param tableId
+	 * @param source
+	 *            The database that currently stores the index.
+	 * @param destination
+	 *            The database where the index belongs.
+	 */
+	public TableIndexMove(String tableId, TableIndexDAO source, TableIndexDAO destination) {
+		this.tableId = tableId;
+		this.source = source;
+		this.destination = destination;
+	}
+
+	public String getTableId() {
+		return tableId;
+	}
+
+	/**
+	 * The database that currently stores the index.
+	 *
+	 * @return
+	 */
+	public TableIndexDAO getSource() {
+		return source;
+	}
+
+	/**
+	 * The database where the index belongs.
+	 *
+	 * @return
+	 */
+	public TableIndexDAO getDestination() {
+		return destination;
+	}
+
+	@Override
+	public String toString() {
+		return "TableIndexMove [tableId=" + tableId + "]";
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.sagebionetworks.table.cluster;
+
+/**
+ * The current version and schema of a table's index, as read from the table's
+ * primary database. Each value is read at most once, when it is first needed,
+ * so a single query does not read them from the primary more than once.
+ * <p>
+ * Instances are not thread-safe and are meant for a single request.
+ *
+ */
+public class TableIndexVersion {
+
+	private final String tableId;
+	private final TableIndexDAO primary;
+	private boolean versionRead = false;
+	private Long version;
+	private boolean schemaMD5HexRead = false;
+	private String schemaMD5Hex;
+
+	/**
+	 *
+	 * @param tableId
+	 * @param primary
+	 *            A connection to the table's primary database.
+	 */
+	public TableIndexVersion(String tableId, TableIndexDAO primary) {
+		this.tableId = tableId;
+		this.primary = primary;
+	}
+
+	/**
+	 * The version of the last change set applied to the index.
+	 *
+	 * @return
+	 */
+	public Long getVersion() {
+		if(!versionRead){
+			version = primary.getMaxCurrentCompleteVersionForTable(tableId);
+			versionRead = true;
+		}
+		return version;
+	}
+
+	/**
+	 * The MD5 of the schema of the index.
+	 *
+	 * @return
+	 */
+	public String getSchemaMD5Hex() {
+		if(!schemaMD5HexRead){
+			schemaMD5Hex = primary.getCurrentSchemaMD5Hex(tableId);
+			schemaMD5HexRead = true;
+		}
+		return schemaMD5Hex;
+	}
+}
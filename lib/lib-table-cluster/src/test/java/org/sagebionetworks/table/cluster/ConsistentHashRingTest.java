@@ -0,0 +1,116 @@
+package org.sagebionetworks.table.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+	private static final int KEY_COUNT = 10000;
+
+	Map<String, Integer> nodes;
+
+	@Before
+	public void before() {
+		nodes = new LinkedHashMap<String, Integer>();
+		nodes.put("endpoint0", 0);
+		nodes.put("endpoint1", 1);
+		nodes.put("endpoint2", 2);
+		nodes.put("endpoint3", 3);
+	}
+
+	@Test
+	public void testGetNodeIsStable() {
+		ConsistentHashRing<Integer> ring = new ConsistentHashRing<Integer>(nodes);
+		ConsistentHashRing<Integer> other = new ConsistentHashRing<Integer>(nodes);
+		for (int i = 0; i < 100; i++) {
+			String key = "" + i;
+			assertEquals(ring.getNode(key), ring.getNode(key));
+			assertEquals(ring.getNode(key), other.getNode(key));
+		}
+	}
+
+	@Test
+	public void testGetNodeOrderIndependent() {
+		Map<String, Integer> reversed = new LinkedHashMap<String, Integer>();
+		reversed.put("endpoint3", 3);
+		reversed.put("endpoint2", 2);
+		reversed.put("endpoint1", 1);
+		reversed.put("endpoint0", 0);
+		ConsistentHashRing<Integer> ring = new ConsistentHashRing<Integer>(nodes);
+		ConsistentHashRing<Integer> other = new ConsistentHashRing<Integer>(reversed);
+		for (int i = 0; i < KEY_COUNT; i++) {
+			assertEquals(ring.getNode("" + i), other.getNode("" + i));
+		}
+	}
+
+	@Test
+	public void testGetNodeBalanced() {
+		ConsistentHashRing<Integer> ring = new ConsistentHashRing<Integer>(nodes);
+		int[] counts = new int[nodes.size()];
+		for (int i = 0; i < KEY_COUNT; i++) {
+			counts[ring.getNode("" + i)]++;
+		}
+		for (int count : counts) {
+			// each node should have about a quarter of the keys.
+			assertTrue("count: " + count, count > KEY_COUNT * 0.18);
+			assertTrue("count: " + count, count < KEY_COUNT * 0.32);
+		}
+	}
+
+	@Test
+	public void testAddNodeOnlyMovesKeysToNewNode() {
+		ConsistentHashRing<Integer> before = new ConsistentHashRing<Integer>(nodes);
+		nodes.put("endpoint4", 4);
+		ConsistentHashRing<Integer> after = new ConsistentHashRing<Integer>(nodes);
+		int moved = 0;
+		for (int i = 0; i < KEY_COUNT; i++) {
+			Integer oldNode = before.getNode("" + i);
+			Integer newNode = after.getNode("" + i);
+			if (!oldNode.equals(newNode)) {
+				assertEquals(new Integer(4), newNode);
+				moved++;
+			}
+		}
+		// about a fifth of the keys move to the new node.
+		assertTrue("moved: " + moved, moved > KEY_COUNT * 0.12);
+		assertTrue("moved: " + moved, moved < KEY_COUNT * 0.28);
+	}
+
+	@Test
+	public void testSingleNode() {
+		Map<String, Integer> single = new HashMap<String, Integer>();
+		single.put("endpoint0", 0);
+		ConsistentHashRing<Integer> ring = new ConsistentHashRing<Integer>(single, 1);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(new Integer(0), ring.getNode("" + i));
+		}
+	}
+
+	@Test
+	public void testHash() {
+		assertEquals(ConsistentHashRing.hash("syn123"), ConsistentHashRing.hash("syn123"));
+		assertTrue(ConsistentHashRing.hash("syn123") != ConsistentHashRing.hash("syn124"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyNodes() {
+		new ConsistentHashRing<Integer>(new HashMap<String, Integer>());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroPoints() {
+		new ConsistentHashRing<Integer>(nodes, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullKey() {
+		new ConsistentHashRing<Integer>(nodes).getNode(null);
+	}
+}
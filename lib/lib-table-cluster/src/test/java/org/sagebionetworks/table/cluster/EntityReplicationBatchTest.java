@@ -0,0 +1,80 @@
+package org.sagebionetworks.table.cluster;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.EntityType;
+import org.sagebionetworks.repo.model.table.AnnotationDTO;
+import org.sagebionetworks.repo.model.table.AnnotationType;
+import org.sagebionetworks.repo.model.table.EntityDTO;
+
+import com.google.common.collect.Lists;
+
+public class EntityReplicationBatchTest {
+
+	EntityDTO one;
+	EntityDTO two;
+
+	@Before
+	public void before(){
+		one = createEntityDTO(1L);
+		two = createEntityDTO(2L);
+		AnnotationDTO anno = new AnnotationDTO();
+		anno.setEntityId(2L);
+		anno.setKey("key");
+		anno.setType(AnnotationType.STRING);
+		anno.setValue("value");
+		two.setAnnotations(Lists.newArrayList(anno));
+	}
+
+	@Test
+	public void testCreate(){
+		// call under test
+		EntityReplicationBatch batch = EntityReplicationBatch.create(Lists.newArrayList(3L, 2L, 1L), Lists.newArrayList(two, one));
+		// inputs are sorted
+		assertEquals(Lists.newArrayList(1L, 2L, 3L), batch.getDeleteIds());
+		List<Object[]> entities = batch.getEntityBindings();
+		assertEquals(2, entities.size());
+		assertEquals(1L, entities.get(0)[0]);
+		assertEquals(2L, entities.get(1)[0]);
+		assertEquals(EntityReplicationBatch.ENTITY_TYPES.length, entities.get(0).length);
+		// file handle is null for a folder.
+		assertEquals(null, entities.get(0)[12]);
+		List<Object[]> annotations = batch.getAnnotationBindings();
+		assertEquals(1, annotations.size());
+		assertArrayEquals(new Object[]{2L, "key", "STRING", "value"}, annotations.get(0));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testImmutable(){
+		EntityReplicationBatch batch = EntityReplicationBatch.create(Lists.newArrayList(1L), Lists.newArrayList(one));
+		batch.getDeleteIds().add(4L);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCreateNullEntities(){
+		EntityReplicationBatch.create(Lists.newArrayList(1L), null);
+	}
+
+	private EntityDTO createEntityDTO(long id){
+		EntityDTO entityDto = new EntityDTO();
+		entityDto.setId(id);
+		entityDto.setCurrentVersion(2L);
+		entityDto.setCreatedBy(222L);
+		entityDto.setCreatedOn(new Date());
+		entityDto.setEtag("etag"+id);
+		entityDto.setName("name"+id);
+		entityDto.setType(EntityType.folder);
+		entityDto.setParentId(1L);
+		entityDto.setBenefactorId(2L);
+		entityDto.setProjectId(3L);
+		entityDto.setModifiedBy(333L);
+		entityDto.setModifiedOn(new Date());
+		return entityDto;
+	}
+}
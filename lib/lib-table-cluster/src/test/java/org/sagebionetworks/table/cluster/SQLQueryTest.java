@@ -3,11 +3,13 @@ package org.sagebionetworks.table.cluster;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +31,7 @@ import org.sagebionetworks.table.query.util.SqlElementUntils;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 public class SQLQueryTest {
 	
@@ -822,4 +825,26 @@ public class SQLQueryTest {
 		assertEquals(overideOffset, copy.overrideOffset);
 		assertEquals(overideLimit, copy.overrideLimit);
 	}
+	
+	@Test
+	public void testCopyWithFilter() throws ParseException{
+		SqlQuery original = new SqlQuery("select foo from syn123 where foo = 'a'", tableSchema);
+		// call under test
+		SqlQuery copy = new SqlQuery(original, "99", Sets.newHashSet(3L, 1L));
+		assertEquals("SELECT _C111_, ROW_ID, ROW_VERSION FROM T123 WHERE ( _C111_ = :b0 ) AND _C99_ IN ( :b1 )", copy.getOutputSQL());
+		assertEquals("a", copy.getParameters().get("b0"));
+		assertEquals(Lists.newArrayList(1L, 3L), copy.getParameters().get("b1"));
+		assertEquals("99", copy.getFilterColumnId());
+		assertEquals(Lists.newArrayList(1L, 3L), copy.getFilterValues());
+		// the input model and original query are not changed.
+		assertEquals("SELECT foo FROM syn123 WHERE foo = 'a'", copy.getModel().toSql());
+		assertEquals("SELECT _C111_, ROW_ID, ROW_VERSION FROM T123 WHERE _C111_ = :b0", original.getOutputSQL());
+		assertNull(original.getFilterColumnId());
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testCopyWithFilterEmpty() throws ParseException{
+		SqlQuery original = new SqlQuery("select foo from syn123", tableSchema);
+		new SqlQuery(original, "99", new HashSet<Long>());
+	}
 }
@@ -11,6 +11,7 @@ import static org.sagebionetworks.repo.model.table.TableConstants.ROW_VERSION;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -1153,5 +1154,37 @@ public class SQLTranslatorUtilsTest {
 		assertEquals("SELECT FOUND_ROWS()",element.toSql());
 	}
 	
+	@Test
+	public void testAppendInFilter() throws ParseException{
+		QuerySpecification element = new TableQueryParser("select foo from syn123 where id > 2 or id is null").querySpecification();
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		SQLTranslatorUtils.translateModel(element, parameters, columnMap);
+		List<Long> values = Lists.newArrayList(1L, 2L, 3L);
+		// call under test
+		SQLTranslatorUtils.appendInFilter(element, "99", values, parameters);
+		assertEquals("SELECT _C111_ FROM T123 WHERE ( _C444_ > :b0 OR _C444_ IS NULL ) AND _C99_ IN ( :b1 )",element.toSql());
+		assertEquals(new Long(2), parameters.get("b0"));
+		assertEquals(values, parameters.get("b1"));
+	}
+	
+	@Test
+	public void testAppendInFilterNoWhere() throws ParseException{
+		QuerySpecification element = new TableQueryParser("select foo from syn123 order by foo limit 10").querySpecification();
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		SQLTranslatorUtils.translateModel(element, parameters, columnMap);
+		List<Long> values = Lists.newArrayList(1L);
+		// call under test
+		SQLTranslatorUtils.appendInFilter(element, "99", values, parameters);
+		assertEquals("SELECT _C111_ FROM T123 WHERE _C99_ IN ( :b1 ) ORDER BY _C111_ LIMIT :b0",element.toSql());
+		assertEquals(values, parameters.get("b1"));
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testAppendInFilterEmpty() throws ParseException{
+		QuerySpecification element = new TableQueryParser("select foo from syn123").querySpecification();
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		SQLTranslatorUtils.appendInFilter(element, "99", new LinkedList<Long>(), parameters);
+	}
+	
 
 }
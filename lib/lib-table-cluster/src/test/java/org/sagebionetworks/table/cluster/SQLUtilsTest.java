@@ -1,5 +1,6 @@
 package org.sagebionetworks.table.cluster;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -177,6 +178,47 @@ public class SQLUtilsTest {
 		assertEquals(expected, result);
 	}
 	
+	@Test
+	public void testBuildBulkCreateOrUpdateRowSQL(){
+		List<ColumnModel> newSchema = helperCreateColumnsWithIds("0","2");
+		String result = SQLUtils.buildBulkCreateOrUpdateRowSQL(newSchema, "syn123", 3);
+		String expected = "INSERT INTO T123 (ROW_ID, ROW_VERSION, _C0_, _C2_) VALUES (?, ?, ?, ?), (?, ?, ?, ?), (?, ?, ?, ?) ON DUPLICATE KEY UPDATE ROW_VERSION = VALUES(ROW_VERSION), _C0_ = VALUES(_C0_), _C2_ = VALUES(_C2_)";
+		assertEquals(expected, result);
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testBuildBulkCreateOrUpdateRowSQLNoRows(){
+		List<ColumnModel> newSchema = helperCreateColumnsWithIds("0","2");
+		SQLUtils.buildBulkCreateOrUpdateRowSQL(newSchema, "syn123", 0);
+	}
+	
+	@Test
+	public void testBindParametersForBulkCreateOrUpdate(){
+		List<ColumnModel> newSchema = Lists.newArrayList(
+				TableModelTestUtils.createColumn(0L, "aString", ColumnType.STRING),
+				TableModelTestUtils.createColumn(1L, "aDouble", ColumnType.DOUBLE));
+		RowSet set = new RowSet();
+		List<Row> rows = new LinkedList<Row>();
+		for(int i=0; i<3; i++){
+			Row row = new Row();
+			row.setRowId(new Long(i));
+			row.setVersionNumber(3L);
+			row.setValues(Arrays.asList("a"+i, ""+i+".5"));
+			rows.add(row);
+		}
+		set.setRows(rows);
+		set.setHeaders(TableModelUtils.getSelectColumns(newSchema));
+		set.setTableId("syn123");
+		SqlParameterSource[] bindings = SQLUtils.bindParametersForCreateOrUpdate(set, newSchema);
+		// bind the last two rows
+		Object[] results = SQLUtils.bindParametersForBulkCreateOrUpdate(bindings, newSchema, 1, 3);
+		// row ID, version, the string and both columns of the double.
+		Object[] expected = new Object[]{
+				1L, 3L, "a1", 1.5, null,
+				2L, 3L, "a2", 2.5, null};
+		assertArrayEquals(expected, results);
+	}
+	
 	@Test
 	public void testBindParametersForCreateOrUpdate(){
 		List<ColumnModel> newSchema = helperCreateColumnsWithIds("1","2","3");
@@ -1101,6 +1143,69 @@ public class SQLUtilsTest {
 		String sql = SQLUtils.deleteTempTableSql(tableId);
 		assertEquals("DROP TABLE IF EXISTS TEMP123", sql);
 	}
+	
+	@Test 
+	public void testShowCreateTableSql(){
+		String sql = SQLUtils.showCreateTableSql("syn123");
+		assertEquals("SHOW CREATE TABLE T123", sql);
+	}
+	
+	@Test 
+	public void testCreateTempTableFromDefinitionSql(){
+		String definition = "CREATE TABLE `T123` (`ROW_ID` bigint(20) NOT NULL, PRIMARY KEY (`ROW_ID`))";
+		String sql = SQLUtils.createTempTableFromDefinitionSql("syn123", definition);
+		assertEquals("CREATE TABLE `TEMP123` (`ROW_ID` bigint(20) NOT NULL, PRIMARY KEY (`ROW_ID`))", sql);
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testCreateTempTableFromDefinitionSqlWrongTable(){
+		String definition = "CREATE TABLE `T456` (`ROW_ID` bigint(20) NOT NULL)";
+		SQLUtils.createTempTableFromDefinitionSql("syn123", definition);
+	}
+	
+	@Test 
+	public void testSelectRowsAfterSql(){
+		String sql = SQLUtils.selectRowsAfterSql("syn123");
+		assertEquals("SELECT * FROM T123 WHERE ROW_ID > ? ORDER BY ROW_ID LIMIT ?", sql);
+	}
+	
+	@Test 
+	public void testInsertIntoTempTableSql(){
+		String sql = SQLUtils.insertIntoTempTableSql("syn123", Lists.newArrayList("ROW_ID", "ROW_VERSION", "_C1_"));
+		assertEquals("INSERT INTO TEMP123 (`ROW_ID`, `ROW_VERSION`, `_C1_`) VALUES (?, ?, ?)", sql);
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testInsertIntoTempTableSqlNoColumns(){
+		SQLUtils.insertIntoTempTableSql("syn123", new LinkedList<String>());
+	}
+	
+	@Test 
+	public void testSelectFileIdsAfterSql(){
+		String sql = SQLUtils.selectFileIdsAfterSql("syn123");
+		assertEquals("SELECT FILE_ID FROM T123F WHERE FILE_ID > ? ORDER BY FILE_ID LIMIT ?", sql);
+	}
+	
+	@Test 
+	public void testRenameTempTableSql(){
+		String sql = SQLUtils.renameTempTableSql("syn123");
+		assertEquals("RENAME TABLE TEMP123 TO T123", sql);
+	}
+	
+	@Test 
+	public void testCountStatusRowsSql(){
+		String sql = SQLUtils.countStatusRowsSql("syn123");
+		assertEquals("SELECT COUNT(*) FROM T123S", sql);
+	}
+	
+	@Test 
+	public void testGetTableIdForStatusTableName(){
+		assertEquals("syn123", SQLUtils.getTableIdForStatusTableName("T123S"));
+		assertEquals(null, SQLUtils.getTableIdForStatusTableName("T123"));
+		assertEquals(null, SQLUtils.getTableIdForStatusTableName("T123F"));
+		assertEquals(null, SQLUtils.getTableIdForStatusTableName("TEMP123"));
+		assertEquals(null, SQLUtils.getTableIdForStatusTableName(null));
+	}
 
 	
 	@Test
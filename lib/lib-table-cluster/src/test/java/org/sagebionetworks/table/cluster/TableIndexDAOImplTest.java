@@ -227,6 +227,92 @@ public class TableIndexDAOImplTest {
 		assertEquals("largeText", row.get("_C8_"));
 	}
 
+	/**
+	 * Write the same rows with the JDBC batch and the multi-row INSERT paths.
+	 * Both must produce the same index. More than one statement is needed for
+	 * the multi-row INSERT.
+	 */
+	@Test
+	public void testCreateOrUpdateRowsBulkMatchesBatch() {
+		int rowCount = 1200;
+		List<ColumnModel> allTypes = TableModelTestUtils.createOneOfEachType();
+		List<Row> rows = TableModelTestUtils.createRows(allTypes, rowCount);
+		RowSet set = new RowSet();
+		set.setRows(rows);
+		set.setHeaders(TableModelUtils.getSelectColumns(allTypes));
+		set.setTableId(tableId);
+		IdRange range = new IdRange();
+		range.setMinimumId(100L);
+		range.setMaximumId(100L + rowCount);
+		range.setVersionNumber(3L);
+		TableModelTestUtils.assignRowIdsAndVersionNumbers(set, range);
+		String selectAll = "SELECT * FROM " + SQLUtils.getTableNameForId(tableId, TableType.INDEX) + " ORDER BY " + ROW_ID;
+		TableIndexDAOImpl daoImpl = (TableIndexDAOImpl) tableIndexDAO;
+		try {
+			// JDBC batch
+			daoImpl.setBulkWriteRowThreshold(Integer.MAX_VALUE);
+			createOrUpdateTable(allTypes, tableId);
+			tableIndexDAO.createOrUpdateOrDeleteRows(set, allTypes);
+			// write the same rows again as updates.
+			tableIndexDAO.createOrUpdateOrDeleteRows(set, allTypes);
+			List<Map<String, Object>> batchResult = tableIndexDAO.getConnection().queryForList(selectAll);
+			tableIndexDAO.deleteTable(tableId);
+
+			// multi-row INSERT
+			daoImpl.setBulkWriteRowThreshold(TableIndexDAOImpl.DEFAULT_BULK_WRITE_ROW_THRESHOLD);
+			createOrUpdateTable(allTypes, tableId);
+			tableIndexDAO.createOrUpdateOrDeleteRows(set, allTypes);
+			tableIndexDAO.createOrUpdateOrDeleteRows(set, allTypes);
+			List<Map<String, Object>> bulkResult = tableIndexDAO.getConnection().queryForList(selectAll);
+
+			assertEquals(rowCount, bulkResult.size());
+			assertEquals(batchResult, bulkResult);
+		} finally {
+			daoImpl.setBulkWriteRowThreshold(TableIndexDAOImpl.DEFAULT_BULK_WRITE_ROW_THRESHOLD);
+		}
+	}
+
+	@Test
+	public void testCreateOrUpdateRowsBulkUpdateAndDelete() {
+		List<ColumnModel> allTypes = TableModelTestUtils.createOneOfEachType();
+		List<Row> rows = TableModelTestUtils.createRows(allTypes, 5);
+		RowSet set = new RowSet();
+		set.setRows(rows);
+		set.setHeaders(TableModelUtils.getSelectColumns(allTypes));
+		set.setTableId(tableId);
+		IdRange range = new IdRange();
+		range.setMinimumId(100L);
+		range.setMaximumId(200L);
+		range.setVersionNumber(3L);
+		TableModelTestUtils.assignRowIdsAndVersionNumbers(set, range);
+		TableIndexDAOImpl daoImpl = (TableIndexDAOImpl) tableIndexDAO;
+		try {
+			// every write uses the bulk path.
+			daoImpl.setBulkWriteRowThreshold(1);
+			createOrUpdateTable(allTypes, tableId);
+			tableIndexDAO.createOrUpdateOrDeleteRows(set, allTypes);
+			// update one row and delete another.
+			rows.get(4).setValues(Arrays.asList("update", "99.99", "3", "false", "123", "123",
+					"syn123.3", "link2", "largeText"));
+			rows.get(4).setVersionNumber(5L);
+			rows.get(0).setValues(null);
+			rows.get(0).setVersionNumber(5L);
+			tableIndexDAO.createOrUpdateOrDeleteRows(set, allTypes);
+			List<Map<String, Object>> result = tableIndexDAO.getConnection().queryForList(
+					"SELECT * FROM " + SQLUtils.getTableNameForId(tableId, TableType.INDEX) + " ORDER BY " + ROW_ID);
+			assertEquals(4, result.size());
+			assertEquals(101L, result.get(0).get(ROW_ID));
+			Map<String, Object> row = result.get(3);
+			assertEquals(104L, row.get(ROW_ID));
+			assertEquals(5L, row.get(ROW_VERSION));
+			assertEquals("update", row.get("_C0_"));
+			assertEquals(99.99, row.get("_C1_"));
+			assertEquals("largeText", row.get("_C8_"));
+		} finally {
+			daoImpl.setBulkWriteRowThreshold(TableIndexDAOImpl.DEFAULT_BULK_WRITE_ROW_THRESHOLD);
+		}
+	}
+
 	@Test
 	public void testGetRowCountForTable() {
 		// Before the table exists the max version should be null
@@ -1338,6 +1424,80 @@ public class TableIndexDAOImplTest {
 		assertEquals(0L, count);
 	}
 	
+	@Test
+	public void testCopyTableThroughTempTableByRows(){
+		ColumnModel intColumn = new ColumnModel();
+		intColumn.setId("12");
+		intColumn.setName("foo");
+		intColumn.setColumnType(ColumnType.INTEGER);
+		
+		List<ColumnModel> schema = Lists.newArrayList(intColumn);
+		
+		createOrUpdateTable(schema, tableId);
+		List<Row> rows = TableModelTestUtils.createRows(schema, 5);
+		RowSet set = new RowSet();
+		set.setRows(rows);
+		set.setHeaders(TableModelUtils.getSelectColumns(schema));
+		set.setTableId(tableId);
+		
+		IdRange range = new IdRange();
+		range.setMinimumId(100L);
+		range.setMaximumId(200L);
+		range.setVersionNumber(3L);
+		TableModelTestUtils.assignRowIdsAndVersionNumbers(set, range);
+		
+		tableIndexDAO.createOrUpdateOrDeleteRows(set, schema);
+		
+		tableIndexDAO.deleteTemporaryTable(tableId);
+		// Create the temp table from the definition as if it was read from another database.
+		String definition = tableIndexDAO.getTableDefinition(tableId);
+		tableIndexDAO.createTemporaryTable(tableId, definition);
+		// copy the rows two at a time.
+		long lastRowId = -1L;
+		List<Map<String, Object>> page = tableIndexDAO.getRowsAfter(tableId, lastRowId, 2L);
+		while(!page.isEmpty()){
+			tableIndexDAO.addRowsToTemporaryTable(tableId, page);
+			lastRowId = ((Number) page.get(page.size()-1).get(ROW_ID)).longValue();
+			page = tableIndexDAO.getRowsAfter(tableId, lastRowId, 2L);
+		}
+		assertEquals(5L, tableIndexDAO.getTempTableCount(tableId));
+		
+		// call under test
+		tableIndexDAO.replaceTableWithTemporaryTable(tableId);
+		assertEquals(new Long(5L), tableIndexDAO.getRowCountForTable(tableId));
+		assertEquals(0L, tableIndexDAO.getTempTableCount(tableId));
+	}
+	
+	@Test
+	public void testGetFileHandleIdsAfter(){
+		this.tableIndexDAO.createSecondaryTables(tableId);
+		this.tableIndexDAO.applyFileHandleIdsToTable(tableId, Sets.newHashSet(1L, 2L, 5L));
+		// call under test
+		assertEquals(Lists.newArrayList(1L, 2L), tableIndexDAO.getFileHandleIdsAfter(tableId, -1L, 2L));
+		assertEquals(Lists.newArrayList(5L), tableIndexDAO.getFileHandleIdsAfter(tableId, 2L, 2L));
+		assertTrue(tableIndexDAO.getFileHandleIdsAfter(tableId, 5L, 2L).isEmpty());
+	}
+	
+	@Test
+	public void testGetFileHandleIdsAfterNoTable(){
+		this.tableIndexDAO.deleteSecondayTables(tableId);
+		// call under test
+		assertTrue(tableIndexDAO.getFileHandleIdsAfter(tableId, -1L, 2L).isEmpty());
+	}
+	
+	@Test
+	public void testDoesIndexStatusExist(){
+		this.tableIndexDAO.deleteSecondayTables(tableId);
+		assertFalse(tableIndexDAO.doesIndexStatusExist(tableId));
+		this.tableIndexDAO.createSecondaryTables(tableId);
+		// the status table is empty.
+		assertFalse(tableIndexDAO.doesIndexStatusExist(tableId));
+		tableIndexDAO.setMaxCurrentCompleteVersionForTable(tableId, 2L);
+		// call under test
+		assertTrue(tableIndexDAO.doesIndexStatusExist(tableId));
+		assertTrue(tableIndexDAO.getAllTableIds().contains(tableId));
+	}
+	
 	@Test
 	public void testEntityReplication(){
 		tableIndexDAO.createEntityReplicationTablesIfDoesNotExist();
@@ -1,11 +1,17 @@
 package org.sagebionetworks.cloudwatch;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,9 +35,19 @@ public class Consumer {
 	static private Logger log = LogManager.getLogger(Consumer.class);
 	
 	public static final int MAX_BATCH_SIZE = 20;
+	
+	// The percentiles sent for aggregated metrics of opted-in namespaces and the suffix added to the metric name.
+	public static final double[] AGGREGATE_PERCENTILES = new double[]{0.5, 0.9, 0.99};
+	public static final String[] AGGREGATE_PERCENTILE_SUFFIXES = new String[]{"-p50", "-p90", "-p99"};
 
 	// We us an atomic reference to the list instead of using synchronization.
 	private ConcurrentLinkedQueue<ProfileData> listProfileData = new ConcurrentLinkedQueue<ProfileData>();
+	
+	// Values aggregated within the current publish interval: namespace -> metric name -> accumulator.
+	private ConcurrentMap<String, ConcurrentMap<String, MetricAccumulator>> aggregates = new ConcurrentHashMap<String, ConcurrentMap<String, MetricAccumulator>>();
+	
+	// Each percentile is a separate CloudWatch metric, so they are only sent for these namespaces.
+	private Set<String> percentileNamespaces = new HashSet<String>();
 
 	// need a cloudWatch client
 	@Autowired
@@ -63,6 +79,41 @@ public class Consumer {
 	public void addProfileData(ProfileData addToList) {
 		listProfileData.add(addToList);
 	}
+	
+	/**
+	 * Add a value to the aggregate of the given metric. Unlike
+	 * {@link #addProfileData(ProfileData)} the values are not sent
+	 * individually. Each publish sends the count, sum, minimum and maximum of
+	 * all values added since the last publish as a StatisticSet, so the cost
+	 * does not depend on how many values are added. Percentiles are also sent
+	 * for the namespaces set with {@link #setPercentileNamespaces(Set)}.
+	 * 
+	 * @param namespace
+	 * @param name
+	 * @param unit The CloudWatch StandardUnit name.
+	 * @param value Must not be negative.
+	 */
+	public void addAggregatedValue(String namespace, String name, String unit, long value) {
+		if (namespace == null) throw new IllegalArgumentException("Namespace cannot be null");
+		if (name == null) throw new IllegalArgumentException("Name cannot be null");
+		ConcurrentMap<String, MetricAccumulator> metrics = aggregates.get(namespace);
+		if (metrics == null) {
+			ConcurrentMap<String, MetricAccumulator> newMetrics = new ConcurrentHashMap<String, MetricAccumulator>();
+			metrics = aggregates.putIfAbsent(namespace, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		MetricAccumulator accumulator = metrics.get(name);
+		if (accumulator == null) {
+			MetricAccumulator newAccumulator = new MetricAccumulator(unit);
+			accumulator = metrics.putIfAbsent(name, newAccumulator);
+			if (accumulator == null) {
+				accumulator = newAccumulator;
+			}
+		}
+		accumulator.add(value);
+	}
 
 	/**
 	 * removes ProfileData from synchronized list and sends to CloudWatch.
@@ -73,6 +124,7 @@ public class Consumer {
 		try {
 			// collect the ProfileData from synchronized list
 			List<ProfileData> nextBunch = pollListFromQueue();
+			nextBunch.addAll(drainAggregates());
 
 			//here I have a list of potentially different namespaces
 			//convert to a map (key is namespace, value is list of metricDatums)
@@ -123,9 +175,51 @@ public class Consumer {
 		return list;
 	}
 	
+	/**
+	 * Remove all aggregated values and convert them to ProfileData. Each
+	 * metric results in one ProfileData with the MetricStats, plus one for
+	 * each percentile if its namespace opted in.
+	 * 
+	 * @return
+	 */
+	List<ProfileData> drainAggregates() {
+		List<ProfileData> list = new LinkedList<ProfileData>();
+		Date now = new Date();
+		for (Map.Entry<String, ConcurrentMap<String, MetricAccumulator>> namespace : aggregates.entrySet()) {
+			for (Map.Entry<String, MetricAccumulator> metric : namespace.getValue().entrySet()) {
+				MetricAccumulator accumulator = metric.getValue();
+				// Values added by a thread that still holds the removed accumulator are lost.
+				if (!namespace.getValue().remove(metric.getKey(), accumulator) || accumulator.getCount() < 1) {
+					continue;
+				}
+				ProfileData stats = new ProfileData();
+				stats.setNamespace(namespace.getKey());
+				stats.setName(metric.getKey());
+				stats.setUnit(accumulator.getUnit());
+				stats.setTimestamp(now);
+				stats.setMetricStats(accumulator.getMetricStats());
+				list.add(stats);
+				if (!percentileNamespaces.contains(namespace.getKey())) {
+					continue;
+				}
+				for (int i = 0; i < AGGREGATE_PERCENTILES.length; i++) {
+					ProfileData percentile = new ProfileData();
+					percentile.setNamespace(namespace.getKey());
+					percentile.setName(metric.getKey() + AGGREGATE_PERCENTILE_SUFFIXES[i]);
+					percentile.setUnit(accumulator.getUnit());
+					percentile.setTimestamp(now);
+					percentile.setValue((double) accumulator.getPercentile(AGGREGATE_PERCENTILES[i]));
+					list.add(percentile);
+				}
+			}
+		}
+		return list;
+	}
+	
 	// for testing only
 	public void clearProfileData() {
 		this.listProfileData.clear();
+		this.aggregates.clear();
 	}
 
 	/**
@@ -247,4 +341,23 @@ public class Consumer {
 	protected void setCloudWatch(AmazonCloudWatchClient cloudWatchClient) {
 		this.cloudWatchClient = cloudWatchClient;
 	}
+
+	/**
+	 * Injected. The namespaces of aggregated metrics that also send
+	 * percentiles. Each percentile is a separate CloudWatch metric.
+	 * 
+	 * @param percentileNamespaces
+	 */
+	public void setPercentileNamespaces(Set<String> percentileNamespaces) {
+		this.percentileNamespaces = new HashSet<String>(percentileNamespaces);
+	}
+
+	/**
+	 * The namespaces of aggregated metrics that also send percentiles.
+	 * 
+	 * @return
+	 */
+	public Set<String> getPercentileNamespaces() {
+		return Collections.unmodifiableSet(percentileNamespaces);
+	}
 }
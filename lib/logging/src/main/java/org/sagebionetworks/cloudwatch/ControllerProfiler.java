@@ -1,7 +1,5 @@
 package org.sagebionetworks.cloudwatch;
 
-import java.util.Date;
-
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
@@ -17,6 +15,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class ControllerProfiler {
 	//constant for nanosecond conversion to milliseconds
 	private static final long NANOSECOND_PER_MILLISECOND = 1000000L;
+	
+	private static final String LATENCY_UNIT = "Milliseconds";
 
 	//a singleton consumer from the Spring settings file 
 	@Autowired
@@ -73,43 +73,14 @@ public class ControllerProfiler {
 		long timeMS = (end - start) /NANOSECOND_PER_MILLISECOND;
 
 		final String metricName = signature.getName() + "-" + StackConfiguration.getStackInstance();
-		//use our latency time to make a MetricDatum, and
-		//add to synchronized list
-		ProfileData profileData = makeProfileDataDTO(declaring.getName(), metricName, timeMS);
-		consumer.addProfileData(profileData);
-		
-		//in configuration file log is set to ERROR to turn off and
-		//DEBUG to turn on
-//		log.debug("let's see our profileData " + profileData.toString());
+		//aggregate the latency with all other calls to the same method
+		//within the current publish interval.
+		consumer.addAggregatedValue(declaring.getName(), metricName, LATENCY_UNIT, timeMS);
 		
 		//must return whatever method returned
 		return results;
 	}
 	
-	/**
-	 * Makes transfer object and returns it.
-	 * @param String representing namespace/package name
-	 * @param String representing method name
-	 * @param long representing latency
-	 * @return ProfileData Data Transfer Object
-	 * @throws IllegalArgumentException
-	 */
-	public ProfileData makeProfileDataDTO(String namespace, String name, long latency){
-		//can't make a ProfileData object if any of the parameters are null
-		if (namespace == null || name == null){
-			throw (new IllegalArgumentException());
-		}
-		ProfileData nextPD = new ProfileData();
-		nextPD.setNamespace(namespace);
-		nextPD.setName(name);
-		if (latency<0L) throw new IllegalArgumentException("latency cannot be negative");
-		nextPD.setValue(new Double(latency));
-		nextPD.setUnit("Milliseconds");
-		nextPD.setTimestamp(new Date());
-		
-		return nextPD;
-	}
-	
 	/**
 	 * Setter for consumer.  
 	 * @param consumer
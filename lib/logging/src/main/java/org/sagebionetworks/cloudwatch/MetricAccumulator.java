@@ -0,0 +1,203 @@
+package org.sagebionetworks.cloudwatch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free accumulator of the values of a single metric within one publish
+ * interval. Tracks the count, sum, minimum and maximum, plus a log-linear
+ * histogram used to estimate percentiles. Each histogram bucket covers at most
+ * 1/8th of its lower bound, so percentile estimates are within 12.5%.
+ * <p>
+ * Values are spread over a few stripes, selected by thread, to reduce CAS
+ * contention when many request threads report the same metric.
+ *
+ */
+public class MetricAccumulator {
+
+	/*
+	 * Values below this are counted exactly. Above it, each power of two is
+	 * split into SUB_BUCKETS buckets.
+	 */
+	private static final int LINEAR_LIMIT = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Larger values are counted in the last bucket.
+	public static final long MAX_TRACKED_VALUE = Integer.MAX_VALUE;
+	private static final int FIRST_EXPONENT = 4;
+	private static final int MAX_EXPONENT = 30;
+	static final int NUMBER_OF_BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+	public static final int NUMBER_OF_STRIPES = 4;
+
+	private static class Stripe {
+		final AtomicLong count = new AtomicLong(0);
+		final AtomicLong sum = new AtomicLong(0);
+		final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+		final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+		final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+	}
+
+	private final String unit;
+	private final Stripe[] stripes;
+
+	/**
+	 *
+	 * @param unit
+	 *            The CloudWatch StandardUnit name of the values.
+	 */
+	public MetricAccumulator(String unit) {
+		if (unit == null) {
+			throw new IllegalArgumentException("Unit cannot be null");
+		}
+		this.unit = unit;
+		this.stripes = new Stripe[NUMBER_OF_STRIPES];
+		for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Record a single value.
+	 *
+	 * @param value
+	 *            Must not be negative.
+	 */
+	public void add(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Value cannot be negative");
+		}
+		Stripe stripe = stripes[(int) (Thread.currentThread().getId() % NUMBER_OF_STRIPES)];
+		stripe.count.incrementAndGet();
+		stripe.sum.addAndGet(value);
+		long current = stripe.min.get();
+		while (value < current && !stripe.min.compareAndSet(current, value)) {
+			current = stripe.min.get();
+		}
+		current = stripe.max.get();
+		while (value > current && !stripe.max.compareAndSet(current, value)) {
+			current = stripe.max.get();
+		}
+		stripe.buckets.incrementAndGet(bucketIndex(value));
+	}
+
+	/**
+	 * The unit of the values.
+	 *
+	 * @return
+	 */
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * The number of values recorded.
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		long count = 0;
+		for (Stripe stripe : stripes) {
+			count += stripe.count.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the statistics of all values recorded.
+	 *
+	 * @return
+	 */
+	public MetricStats getMetricStats() {
+		long count = 0;
+		long sum = 0;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (Stripe stripe : stripes) {
+			count += stripe.count.get();
+			sum += stripe.sum.get();
+			min = Math.min(min, stripe.min.get());
+			max = Math.max(max, stripe.max.get());
+		}
+		MetricStats stats = new MetricStats();
+		stats.setCount((double) count);
+		stats.setSum((double) sum);
+		if (count > 0) {
+			stats.setMinimum((double) min);
+			stats.setMaximum((double) max);
+		} else {
+			stats.setMinimum(0D);
+			stats.setMaximum(0D);
+		}
+		return stats;
+	}
+
+	/**
+	 * Estimate the value at the given percentile.
+	 *
+	 * @param percentile
+	 *            Between 0.0 and 1.0.
+	 * @return The lower bound of the bucket that contains the percentile, or
+	 *         zero if no values were recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0.0 || percentile > 1.0) {
+			throw new IllegalArgumentException("Percentile must be between 0.0 and 1.0");
+		}
+		long[] merged = new long[NUMBER_OF_BUCKETS];
+		long total = 0;
+		for (Stripe stripe : stripes) {
+			for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+				long bucketCount = stripe.buckets.get(i);
+				merged[i] += bucketCount;
+				total += bucketCount;
+			}
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			seen += merged[i];
+			if (seen >= rank) {
+				return bucketLowerBound(i);
+			}
+		}
+		return bucketLowerBound(NUMBER_OF_BUCKETS - 1);
+	}
+
+	/**
+	 * The histogram bucket for the given value.
+	 *
+	 * @param value
+	 * @return
+	 */
+	static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		if (value > MAX_TRACKED_VALUE) {
+			return NUMBER_OF_BUCKETS - 1;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) ((value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * The smallest value that falls into the given bucket.
+	 *
+	 * @param index
+	 * @return
+	 */
+	static long bucketLowerBound(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int offset = index - LINEAR_LIMIT;
+		int exponent = FIRST_EXPONENT + offset / SUB_BUCKETS;
+		int subBucket = offset % SUB_BUCKETS;
+		return (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+	}
+}
@@ -1,14 +1,21 @@
 package org.sagebionetworks.cloudwatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -138,6 +145,61 @@ public class ConsumerTest {
 		verify(mockClient, times(1)).putMetricData(batch1);
 	}
 	
+	@Test
+	public void testExecuteCloudWatchPutAggregated(){
+		// Many values for one metric should result in a single stats datum plus one per percentile.
+		for(int i=1; i<=1000; i++){
+			consumer.addAggregatedValue("namespace0", "name0", "Milliseconds", i);
+		}
+		List<ProfileData> drained = consumer.drainAggregates();
+		// percentiles are opt-in.
+		assertEquals(1, drained.size());
+		ProfileData stats = drained.get(0);
+		assertEquals("name0", stats.getName());
+		assertEquals(new Double(1000), stats.getMetricStats().getCount());
+		assertEquals(new Double(1), stats.getMetricStats().getMinimum());
+		assertEquals(new Double(1000), stats.getMetricStats().getMaximum());
+		assertEquals(new Double(500500), stats.getMetricStats().getSum());
+		// a second drain is empty
+		assertEquals(0, consumer.drainAggregates().size());
+		
+		consumer.addAggregatedValue("namespace0", "name0", "Milliseconds", 1);
+		consumer.executeCloudWatchPut();
+		verify(mockClient, times(1)).putMetricData(any(PutMetricDataRequest.class));
+	}
+	
+	@Test
+	public void testDrainAggregatesPercentiles(){
+		consumer.setPercentileNamespaces(Collections.singleton("namespace0"));
+		for(int i=1; i<=1000; i++){
+			consumer.addAggregatedValue("namespace0", "name0", "Milliseconds", i);
+			consumer.addAggregatedValue("namespace1", "name1", "Milliseconds", i);
+		}
+		List<ProfileData> drained = consumer.drainAggregates();
+		// stats for both metrics plus the percentiles of the opted-in namespace.
+		assertEquals(2+Consumer.AGGREGATE_PERCENTILES.length, drained.size());
+		Set<String> names = new HashSet<String>();
+		for(ProfileData data: drained){
+			names.add(data.getName());
+		}
+		assertTrue(names.contains("name0-p50"));
+		assertTrue(names.contains("name0-p99"));
+		assertFalse(names.contains("name1-p50"));
+	}
+	
+	@Test
+	public void testGetPercentileNamespaces(){
+		assertTrue(consumer.getPercentileNamespaces().isEmpty());
+		consumer.setPercentileNamespaces(Collections.singleton("namespace0"));
+		assertEquals(Collections.singleton("namespace0"), consumer.getPercentileNamespaces());
+	}
+	
+	@Test
+	public void testExecuteCloudWatchPutNothing(){
+		consumer.executeCloudWatchPut();
+		verify(mockClient, never()).putMetricData(any(PutMetricDataRequest.class));
+	}
+	
 	/**
 	 * Helper used to build up expected PutMetricDataRequest
 	 * @param list
@@ -3,15 +3,21 @@ package org.sagebionetworks.cloudwatch;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
-
-import java.util.Date;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.sagebionetworks.StackConfiguration;
 
 import com.amazonaws.services.cloudwatch.model.MetricDatum;
 
@@ -54,61 +60,6 @@ public class ControllerProfilerTest {
 		assertNotNull(controllerProfiler.getConsumer());
 	}
 	
-	/**
-	 * Tests that makeProfileDataDTO returns the correct object.
-	 */
-	@Test
-	public void makeProfileDataDTO() throws Exception {
-		//need the parameters
-		String testNamespace = "test namespace";
-		String tempMetricName = "testMetric";
-		long testLatency = (long) 30.0;
-		
-		ProfileData results = controllerProfiler.makeProfileDataDTO(testNamespace, tempMetricName, testLatency);
-		
-		assertNotNull(results);
-		assertEquals(testNamespace, results.getNamespace());
-		assertEquals(tempMetricName, results.getName());
-		assertEquals(testLatency, results.getValue().longValue());
-		assertEquals("Milliseconds", results.getUnit());
-		Date testjdkDate = results.getTimestamp();
-		assertNotNull(testjdkDate);
-	}
-	
-	@Test(expected=IllegalArgumentException.class)
-	public void testBadLatency() throws Exception {
-		String testNamespace = "test namespace";
-		String testName = "testName";
-		long badLatency = (long) -10;
-		controllerProfiler.makeProfileDataDTO(testNamespace, testName, badLatency);
-	}
-	
-	/**
-	 * Tests that makeProfileDataDTO throws IllegalArgumentException when
-	 * it does not receive valid String parameters
-	 */
-	@Test (expected = IllegalArgumentException.class)
-	public void testMakeProfileDataDTOWithInvalidParameters() throws Exception {
-		//need good and bad parameters
-		String testNamespace = "test namespace";
-		String testName = "testName";
-		long testLatency = (long) 3.3;
-		String nullNamespace = null;
-		String nullName = null;
-		
-		//try call for bad namespace but good everything else
-		ProfileData results = controllerProfiler.makeProfileDataDTO(nullNamespace, testName, testLatency);
-		assertEquals(null, results);
-		
-		//try call for good namespace and bad name
-		results = controllerProfiler.makeProfileDataDTO(testNamespace, nullName, testLatency);
-		assertEquals(null, results);
-		
-		//try call for bad namespace and bad name
-		results = controllerProfiler.makeProfileDataDTO(nullNamespace, nullName, testLatency);
-		assertEquals(null, results);		
-	}
-	
 	/**
 	 * Test that setter for consumer works correctly.
 	 */
@@ -136,4 +87,36 @@ public class ControllerProfilerTest {
 		
 		//verify(mockConsumer, atLeastOnce()).addMetric((MetricDatum)anyObject());
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * The latency of each call is aggregated by the consumer.
+	 */
+	@Test
+	public void testDoBasicProfilingAggregated() throws Throwable {
+		ProceedingJoinPoint mockPJP = mock(ProceedingJoinPoint.class);
+		Signature mockSignature = mock(Signature.class);
+		when(mockPJP.getSignature()).thenReturn(mockSignature);
+		when(mockSignature.getName()).thenReturn("method");
+		when(mockSignature.getDeclaringType()).thenReturn(ControllerProfilerTest.class);
+		when(mockPJP.proceed()).thenReturn("result");
+		controllerProfiler.setShouldProfile(true);
+		// call under test
+		Object result = controllerProfiler.doBasicProfiling(mockPJP);
+		assertEquals("result", result);
+		verify(mockConsumer).addAggregatedValue(eq(ControllerProfilerTest.class.getName()),
+				eq("method-" + StackConfiguration.getStackInstance()), eq("Milliseconds"), anyLong());
+	}
+	
+	/**
+	 * Nothing is aggregated when profiling is off.
+	 */
+	@Test
+	public void testDoBasicProfilingOff() throws Throwable {
+		ProceedingJoinPoint mockPJP = mock(ProceedingJoinPoint.class);
+		controllerProfiler.setShouldProfile(false);
+		// call under test
+		controllerProfiler.doBasicProfiling(mockPJP);
+		verify(mockPJP).proceed();
+		verify(mockConsumer, never()).addAggregatedValue(anyString(), anyString(), anyString(), anyLong());
+	}
+}
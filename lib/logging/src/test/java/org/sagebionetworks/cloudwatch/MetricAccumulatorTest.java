@@ -0,0 +1,80 @@
+package org.sagebionetworks.cloudwatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricAccumulatorTest {
+	
+	MetricAccumulator accumulator;
+	
+	@Before
+	public void before(){
+		accumulator = new MetricAccumulator("Milliseconds");
+	}
+	
+	@Test
+	public void testMetricStats(){
+		accumulator.add(5);
+		accumulator.add(1);
+		accumulator.add(100);
+		MetricStats stats = accumulator.getMetricStats();
+		assertEquals(new Double(3), stats.getCount());
+		assertEquals(new Double(106), stats.getSum());
+		assertEquals(new Double(1), stats.getMinimum());
+		assertEquals(new Double(100), stats.getMaximum());
+		assertEquals(3L, accumulator.getCount());
+	}
+	
+	@Test
+	public void testMetricStatsEmpty(){
+		MetricStats stats = accumulator.getMetricStats();
+		assertEquals(new Double(0), stats.getCount());
+		assertEquals(new Double(0), stats.getMinimum());
+		assertEquals(new Double(0), stats.getMaximum());
+		assertEquals(0L, accumulator.getPercentile(0.5));
+	}
+	
+	@Test
+	public void testPercentileExact(){
+		// values below 16 are tracked exactly.
+		for(int i=1; i<=10; i++){
+			accumulator.add(i);
+		}
+		assertEquals(5L, accumulator.getPercentile(0.5));
+		assertEquals(9L, accumulator.getPercentile(0.9));
+		assertEquals(10L, accumulator.getPercentile(1.0));
+		assertEquals(1L, accumulator.getPercentile(0.0));
+	}
+	
+	@Test
+	public void testPercentileError(){
+		for(int i=1; i<=100000; i++){
+			accumulator.add(i);
+		}
+		long p99 = accumulator.getPercentile(0.99);
+		// within 12.5% below the true value.
+		assertTrue(p99 <= 99000L);
+		assertTrue(p99 >= 99000L*7/8);
+	}
+	
+	@Test
+	public void testBucketBounds(){
+		for(long value: new long[]{0, 15, 16, 17, 18, 1000, 123456, MetricAccumulator.MAX_TRACKED_VALUE}){
+			int index = MetricAccumulator.bucketIndex(value);
+			assertTrue(MetricAccumulator.bucketLowerBound(index) <= value);
+			if(index+1 < MetricAccumulator.NUMBER_OF_BUCKETS){
+				assertTrue(MetricAccumulator.bucketLowerBound(index+1) > value);
+			}
+		}
+		assertEquals(MetricAccumulator.NUMBER_OF_BUCKETS-1, MetricAccumulator.bucketIndex(Long.MAX_VALUE));
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testNegative(){
+		accumulator.add(-1);
+	}
+
+}
@@ -61,6 +61,14 @@ public interface AccessControlListDAO  {
 	 */
 	public AccessControlList get(Long id) throws DatastoreException, NotFoundException;
 	
+	/**
+	 * Get a batch of ACLs using the ACL IDs.
+	 * @param aclIds - the ids of the acls (not the ownerIds)
+	 * @return The ACLs that exist, in the order of the given IDs. IDs that do not exist are skipped.
+	 * @throws DatastoreException
+	 */
+	public List<AccessControlList> get(List<Long> aclIds) throws DatastoreException;
+	
 	/**
 	 * Get the OwnerType using the ACL's ID
 	 * @param id - the id of the acl (not the ownerId)
@@ -2,6 +2,7 @@ package org.sagebionetworks.repo.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sagebionetworks.reflection.model.PaginatedResults;
@@ -269,6 +270,35 @@ public interface NodeDAO {
 	 * @throws NotFoundException
 	 */
 	public List<EntityHeader> getEntityPath(String nodeId) throws DatastoreException, NotFoundException;
+	
+	/**
+	 * Get the full path of each entity in a batch. The ancestors of all of the
+	 * entities are read one level at a time, so the number of queries depends
+	 * on the depth of the deepest entity rather than the number of entities.
+	 * 
+	 * @param nodeIds
+	 * @return Map of each entity id to its path, ordered as
+	 *         {@link #getEntityPath(String)}. Entities that do not exist are
+	 *         not included.
+	 */
+	public Map<Long, List<EntityHeader>> getEntityPaths(List<Long> nodeIds);
+	
+	/**
+	 * Get the current version of each node in a batch.
+	 * 
+	 * @param ids
+	 * @return The nodes that exist. Ids that do not exist are skipped.
+	 */
+	public List<Node> getNodes(List<Long> ids);
+	
+	/**
+	 * Get the annotations of the current version of each node in a batch.
+	 * 
+	 * @param ids
+	 * @return The annotations of the nodes that exist. Ids that do not exist
+	 *         are skipped.
+	 */
+	public List<NamedAnnotations> getAnnotations(List<Long> ids);
 
 	/**
 	 * Get the child node of a node by name
@@ -1,6 +1,8 @@
 package org.sagebionetworks.repo.model.dao.discussion;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.sagebionetworks.reflection.model.PaginatedResults;
 import org.sagebionetworks.repo.model.discussion.DiscussionFilter;
@@ -90,6 +92,15 @@ public interface DiscussionReplyDAO {
 	 */
 	public DiscussionThreadReplyStat getThreadReplyStat(long threadId);
 
+	/**
+	 * Get the statistic about the replies of many threads with one query.
+	 * 
+	 * @param threadIds
+	 * @return The statistic of each thread that has at least one reply that
+	 *         is not deleted.
+	 */
+	public Map<Long, DiscussionThreadReplyStat> getThreadReplyStats(Set<Long> threadIds);
+
 	/**
 	 * Get the projectID which this reply belongs to
 	 * 
@@ -105,4 +116,13 @@ public interface DiscussionReplyDAO {
 	 * @return
 	 */
 	public List<String> getActiveAuthors(long threadId);
+
+	/**
+	 * Get the top 5 contributors of many threads with one query.
+	 * 
+	 * @param threadIds
+	 * @return The contributors of each thread that has at least one reply
+	 *         that is not deleted.
+	 */
+	public Map<Long, List<String>> getActiveAuthors(Set<Long> threadIds);
 }
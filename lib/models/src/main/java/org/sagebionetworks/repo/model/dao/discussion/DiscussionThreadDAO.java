@@ -1,6 +1,7 @@
 package org.sagebionetworks.repo.model.dao.discussion;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sagebionetworks.repo.model.discussion.DiscussionFilter;
@@ -97,6 +98,18 @@ public interface DiscussionThreadDAO {
 	 */
 	public long countThreadView(long threadId);
 
+	/**
+	 * Record the views of many threads at once. Views of a thread by a user
+	 * that are already recorded are ignored. The number of views in the
+	 * statistic of each thread is set to its number of distinct viewers, and
+	 * the etag of each thread is changed. Threads that no longer exist are
+	 * ignored.
+	 * 
+	 * @param userIdsByThreadId
+	 *            The IDs of the users that viewed each thread.
+	 */
+	public void updateThreadViews(Map<Long, Set<Long>> userIdsByThreadId);
+
 	/**
 	 * Get the etag before attempt to update
 	 * 
@@ -206,6 +219,14 @@ public interface DiscussionThreadDAO {
 	 */
 	public void updateThreadStats(List<DiscussionThreadStat> stats);
 
+	/**
+	 * Update the active authors, number of replies and last activity of
+	 * threads. The number of views of each thread is not changed.
+	 * 
+	 * @param stats
+	 */
+	public void updateThreadReplyStats(List<DiscussionThreadStat> stats);
+
 	/**
 	 * Mark a discussion thread as not deleted
 	 * 
@@ -85,6 +85,22 @@ public interface SubscriptionDAO {
 	public List<Subscriber> getAllEmailSubscribers(String objectId,
 			SubscriptionObjectType objectType);
 
+	/**
+	 * Get a single page of the email subscribers that want to receive email
+	 * notifications, in order of subscription ID. Each page starts after the
+	 * last subscription of the previous page, so subscriptions added or
+	 * removed between pages do not shift the pages.
+	 * 
+	 * @param objectId
+	 * @param objectType
+	 * @param afterSubscriptionId
+	 *            Zero for the first page.
+	 * @param limit
+	 * @return
+	 */
+	public List<Subscriber> getEmailSubscribers(String objectId,
+			SubscriptionObjectType objectType, long afterSubscriptionId, long limit);
+
 	/**
 	 * Retrieve all projects that a user has subscriptions to
 	 * 
@@ -0,0 +1,39 @@
+package org.sagebionetworks.repo.model.dao.table;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.RowSet;
+import org.sagebionetworks.repo.model.table.TableRowChange;
+
+/**
+ * Reads the rows of a fixed sequence of row change sets, one at a time and in
+ * order. Implementations may fetch later change sets while the caller is
+ * working on the current one.
+ * 
+ */
+public interface ChangeSetReader extends Closeable {
+
+	/**
+	 * Get the rows of the next change set.
+	 * 
+	 * @param change
+	 *            Must be the next change set of the sequence this reader was
+	 *            opened with.
+	 * @param columns
+	 *            The schema used for the headers of the result.
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If the change is not the next change set of the sequence.
+	 */
+	public RowSet getRowSet(TableRowChange change, List<ColumnModel> columns) throws IOException;
+
+	/**
+	 * Stop reading. Any change sets that have not been read are discarded.
+	 */
+	@Override
+	public void close();
+}
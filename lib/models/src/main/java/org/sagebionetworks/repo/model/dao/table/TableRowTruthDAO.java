@@ -230,6 +230,29 @@ public interface TableRowTruthDAO {
 	 * @throws IOException
 	 */
 	public void scanChange(RowHandler handler, TableRowChange dto) throws IOException;
+
+	/**
+	 * Scan over a given changeset without adding it to the change set cache.
+	 * Used by sequential scans, such as an index rebuild, that read each
+	 * change set once and would otherwise evict the change sets of other
+	 * tables.
+	 * 
+	 * @param handler
+	 * @param dto
+	 * @throws IOException
+	 */
+	public void scanChangeWithoutCaching(RowHandler handler, TableRowChange dto) throws IOException;
+
+	/**
+	 * Open a reader over the rows of the given row change sets. The rows of
+	 * the next few change sets are fetched concurrently while the caller works
+	 * on the current one. The caller must close the reader.
+	 * 
+	 * @param changes
+	 *            Row change sets in the order they will be read.
+	 * @return
+	 */
+	public ChangeSetReader openChangeSetReader(List<TableRowChange> changes);
 	
 	
 }
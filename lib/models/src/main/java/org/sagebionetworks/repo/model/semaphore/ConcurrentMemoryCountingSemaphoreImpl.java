@@ -0,0 +1,220 @@
+package org.sagebionetworks.repo.model.semaphore;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.common.util.Clock;
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * A lock-free, in-memory implementation of a counting semaphore. This class is
+ * designed to be a thread-safe singleton and is a drop-in replacement for
+ * {@link MemoryCountingSemaphoreImpl}.
+ * <p>
+ * Each key has its own slot counter and token map so threads working with
+ * different keys never contend. Expired locks are only removed during an
+ * acquire when the key has no free slots. All other expired locks and unused
+ * keys are removed by {@link #timerFired()}, which should be called
+ * periodically.
+ *
+ */
+public class ConcurrentMemoryCountingSemaphoreImpl implements MemoryCountingSemaphore {
+
+	/**
+	 * The locks issued for a single key.
+	 */
+	private static class KeyLocks {
+		/*
+		 * The number of issued locks. A value of -1 means this object was
+		 * retired by the sweeper and must no longer be used.
+		 */
+		final AtomicInteger count = new AtomicInteger(0);
+		// token to expiration time in MS.
+		final ConcurrentMap<String, Long> tokenExpires = new ConcurrentHashMap<String, Long>();
+
+		/**
+		 * Attempt to reserve a slot.
+		 *
+		 * @param maxLockCount
+		 * @return 1 if a slot was reserved, 0 if all slots are taken, -1 if
+		 *         this object has been retired.
+		 */
+		int tryReserve(int maxLockCount) {
+			while (true) {
+				int current = count.get();
+				if (current < 0) {
+					return -1;
+				}
+				if (current >= maxLockCount) {
+					return 0;
+				}
+				if (count.compareAndSet(current, current + 1)) {
+					return 1;
+				}
+			}
+		}
+
+		/**
+		 * Remove the given token if it is still mapped to the given expiration.
+		 *
+		 * @return True if the token was removed.
+		 */
+		boolean remove(String token, Long expires) {
+			if (tokenExpires.remove(token, expires)) {
+				count.decrementAndGet();
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Remove the given token.
+		 *
+		 * @return True if the token was removed.
+		 */
+		boolean remove(String token) {
+			if (tokenExpires.remove(token) != null) {
+				count.decrementAndGet();
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Remove all locks that expired before the given time.
+		 *
+		 * @param now
+		 */
+		void removeExpired(long now) {
+			Iterator<Map.Entry<String, Long>> it = tokenExpires.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Long> entry = it.next();
+				if (now > entry.getValue()) {
+					// only removed if it was not refreshed in the meantime.
+					remove(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+
+	private final ConcurrentMap<String, KeyLocks> keyLocksMap = new ConcurrentHashMap<String, KeyLocks>();
+	// Tokens only need to be unique within this instance.
+	private final AtomicLong tokenSequence = new AtomicLong(0);
+	// abstraction from the system clock.
+	private Clock clock;
+
+	/**
+	 * Create a new semaphore given a clock.
+	 *
+	 * @param clock
+	 */
+	public ConcurrentMemoryCountingSemaphoreImpl(Clock clock) {
+		super();
+		this.clock = clock;
+	}
+
+	@Override
+	public String attemptToAcquireLock(String key, long timeoutSec, int maxLockCount) {
+		ValidateArgument.required(key, "key");
+		boolean expiredRemoved = false;
+		while (true) {
+			KeyLocks locks = getOrCreateKeyLocks(key);
+			int reserved = locks.tryReserve(maxLockCount);
+			if (reserved < 0) {
+				// retired by the sweeper so start over with a new entry.
+				keyLocksMap.remove(key, locks);
+				continue;
+			}
+			long now = clock.currentTimeMillis();
+			if (reserved > 0) {
+				// a new lock can be issued
+				String token = Long.toString(tokenSequence.incrementAndGet());
+				locks.tokenExpires.put(token, now + (timeoutSec * 1000));
+				return token;
+			}
+			if (expiredRemoved) {
+				// a new token could not be issued.
+				return null;
+			}
+			// remove expired locks for this key only and try once more.
+			locks.removeExpired(now);
+			expiredRemoved = true;
+		}
+	}
+
+	@Override
+	public void refreshLockTimeout(String key, String token, long timeoutSec) {
+		ValidateArgument.required(key, "key");
+		ValidateArgument.required(token, "token");
+		KeyLocks locks = keyLocksMap.get(key);
+		boolean refreshed = false;
+		if (locks != null) {
+			long now = clock.currentTimeMillis();
+			refreshed = locks.tokenExpires.replace(token, now + (timeoutSec * 1000)) != null;
+		}
+		if (!refreshed) {
+			throw new LockReleaseFailedException("Key: " + key + " token: " + token + " has expired.");
+		}
+	}
+
+	@Override
+	public void releaseLock(String key, String token) {
+		ValidateArgument.required(key, "key");
+		ValidateArgument.required(token, "token");
+		KeyLocks locks = keyLocksMap.get(key);
+		boolean released = false;
+		if (locks != null) {
+			released = locks.remove(token);
+		}
+		if (!released) {
+			throw new LockReleaseFailedException("Key: " + key + " token: " + token + " has expired.");
+		}
+	}
+
+	@Override
+	public void releaseAllLocks() {
+		keyLocksMap.clear();
+	}
+
+	/**
+	 * Called from a timer to remove all expired locks and any keys that no
+	 * longer have locks.
+	 */
+	public void timerFired() {
+		long now = clock.currentTimeMillis();
+		for (Map.Entry<String, KeyLocks> entry : keyLocksMap.entrySet()) {
+			KeyLocks locks = entry.getValue();
+			locks.removeExpired(now);
+			// Retire the key only if no locks are held.
+			if (locks.count.compareAndSet(0, -1)) {
+				keyLocksMap.remove(entry.getKey(), locks);
+			}
+		}
+	}
+
+	/**
+	 * The number of keys currently tracked.
+	 *
+	 * @return
+	 */
+	public int getKeyCount() {
+		return keyLocksMap.size();
+	}
+
+	private KeyLocks getOrCreateKeyLocks(String key) {
+		KeyLocks locks = keyLocksMap.get(key);
+		if (locks == null) {
+			KeyLocks newLocks = new KeyLocks();
+			locks = keyLocksMap.putIfAbsent(key, newLocks);
+			if (locks == null) {
+				locks = newLocks;
+			}
+		}
+		return locks;
+	}
+
+}
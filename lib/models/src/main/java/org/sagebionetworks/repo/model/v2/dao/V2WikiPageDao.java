@@ -84,6 +84,16 @@ public interface V2WikiPageDao {
 	 * @throws NotFoundException
 	 */
 	public String getMarkdown(WikiPageKey key, Long version) throws IOException, NotFoundException;
+
+	/**
+	 * Get the markdown of many wiki pages using the IDs of their markdown file
+	 * handles. Markdown that is not cached is downloaded in parallel.
+	 * @param markdownFileHandleIds
+	 * @return Map from markdown file handle ID to the markdown.
+	 * @throws IOException
+	 * @throws NotFoundException If any of the file handles does not exist.
+	 */
+	public Map<String, String> getMarkdownForFileHandles(List<String> markdownFileHandleIds) throws IOException, NotFoundException;
 	
 	/**
 	 * Get ALL the file handle ids used (in the past/currently) for a wiki page.
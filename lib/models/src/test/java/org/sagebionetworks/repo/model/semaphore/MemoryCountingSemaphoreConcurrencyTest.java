@@ -0,0 +1,85 @@
+package org.sagebionetworks.repo.model.semaphore;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.sagebionetworks.common.util.ClockImpl;
+
+/**
+ * Runs the same acquire/release workload against both in-memory semaphores
+ * with many threads. Validates that the lock count per key is never exceeded.
+ *
+ */
+public class MemoryCountingSemaphoreConcurrencyTest {
+
+	private static final int NUMBER_OF_THREADS = 64;
+	private static final int ITERATIONS_PER_THREAD = 500;
+	private static final int NUMBER_OF_KEYS = 16;
+	private static final int MAX_LOCK_COUNT = 3;
+	private static final long TIMEOUT_SEC = 60;
+
+	@Test
+	public void testSynchronizedImpl() throws InterruptedException {
+		runWorkload(new MemoryCountingSemaphoreImpl(new ClockImpl()));
+	}
+
+	@Test
+	public void testConcurrentImpl() throws InterruptedException {
+		runWorkload(new ConcurrentMemoryCountingSemaphoreImpl(new ClockImpl()));
+	}
+
+	/**
+	 * Each thread repeatedly acquires and releases a lock on one of a few keys.
+	 *
+	 * @param semaphore
+	 * @throws InterruptedException
+	 */
+	private void runWorkload(final MemoryCountingSemaphore semaphore) throws InterruptedException {
+		final AtomicInteger[] heldCounts = new AtomicInteger[NUMBER_OF_KEYS];
+		for (int i = 0; i < NUMBER_OF_KEYS; i++) {
+			heldCounts[i] = new AtomicInteger(0);
+		}
+		final AtomicInteger maxHeld = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(NUMBER_OF_THREADS);
+		for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+			final int keyIndex = t % NUMBER_OF_KEYS;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						String key = "user" + keyIndex;
+						for (int i = 0; i < ITERATIONS_PER_THREAD; i++) {
+							String token = semaphore.attemptToAcquireLock(key, TIMEOUT_SEC, MAX_LOCK_COUNT);
+							if (token != null) {
+								int held = heldCounts[keyIndex].incrementAndGet();
+								int currentMax = maxHeld.get();
+								while (held > currentMax && !maxHeld.compareAndSet(currentMax, held)) {
+									currentMax = maxHeld.get();
+								}
+								heldCounts[keyIndex].decrementAndGet();
+								semaphore.releaseLock(key, token);
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+			thread.start();
+		}
+		start.countDown();
+		done.await();
+		assertNull("A thread failed: " + failure.get(), failure.get());
+		assertTrue("More locks were issued than allowed: " + maxHeld.get(), maxHeld.get() <= MAX_LOCK_COUNT);
+	}
+}
@@ -1203,6 +1203,17 @@ public class StackConfiguration {
 						.getProperty("org.sagebionetworks.repo.manager.file.multipart.upload.daemon.copy.part.max.threads"));
 	}
 
+	/**
+	 * The number of threads used to download the files of each bulk download
+	 * zip.
+	 * 
+	 * @return
+	 */
+	public int getFileBulkDownloadThreads() {
+		return Integer.parseInt(configuration
+				.getProperty("org.sagebionetworks.file.bulk.download.threads"));
+	}
+
 	/**
 	 * Get credentials for the Jira service account used to create Jira issues
 	 * 
@@ -1346,6 +1357,39 @@ public class StackConfiguration {
 		return Integer.parseInt(configuration
 				.getProperty("org.sagebionetworks.table.max.bytes.per.change.set"));
 	}
+
+	/**
+	 * The number of threads used to fetch table change sets ahead of the
+	 * table worker.
+	 * 
+	 * @return
+	 */
+	public int getTableChangeSetPrefetchThreads() {
+		return Integer.parseInt(configuration
+				.getProperty("org.sagebionetworks.table.change.set.prefetch.threads"));
+	}
+
+	/**
+	 * The maximum number of change sets fetched ahead while a table index is
+	 * built.
+	 * 
+	 * @return
+	 */
+	public int getTableChangeSetPrefetchWindowSize() {
+		return Integer.parseInt(configuration
+				.getProperty("org.sagebionetworks.table.change.set.prefetch.window.size"));
+	}
+
+	/**
+	 * The approximate maximum number of bytes of decoded change sets held in
+	 * memory by a single change set reader.
+	 * 
+	 * @return
+	 */
+	public long getTableChangeSetPrefetchMaxBytes() {
+		return Long.parseLong(configuration
+				.getProperty("org.sagebionetworks.table.change.set.prefetch.max.bytes"));
+	}
 	
 	/**
 	 * Get the max bytes per HTTP request for a table.
@@ -1470,6 +1514,66 @@ public class StackConfiguration {
 	public String getTablesDatabaseSchemaForIndex(int index){
 		return configuration.getProperty("org.sagebionetworks.table.cluster.schema."+index);
 	}
+	
+	/**
+	 * Get the number of databases at the end of the table's cluster that are
+	 * joining the cluster. Tables that belong on a joining database are served
+	 * by their previous database until they are moved.
+	 * 
+	 * @return null if the count is not set.
+	 */
+	public Integer getTablesDatabaseJoiningCount(){
+		String value = getOptionalProperty("org.sagebionetworks.table.cluster.database.joining.count");
+		return value != null ? Integer.parseInt(value) : null;
+	}
+	
+	/**
+	 * Get the endpoint of the optional read replica of a table's database.
+	 * 
+	 * @param index Each database in the cluster has an index: 0 - n-1.
+	 * @return null if the database does not have a read replica.
+	 */
+	public String getTablesDatabaseReplicaEndpointForIndex(int index){
+		return getOptionalProperty("org.sagebionetworks.table.cluster.replica.endpoint."+index);
+	}
+	
+	/**
+	 * Get the minimum number of connections in the pool of a table's database.
+	 * Defaults to the size of the repository pool.
+	 * 
+	 * @param index Each database in the cluster has an index: 0 - n-1.
+	 * @return
+	 */
+	public int getTablesDatabasePoolMinNumberConnectionsForIndex(int index){
+		String value = getOptionalProperty("org.sagebionetworks.table.cluster.pool.min.number.connections."+index);
+		return Integer.parseInt(value != null ? value : getDatabaseConnectionPoolMinNumberConnections());
+	}
+	
+	/**
+	 * Get the maximum number of connections in the pool of a table's database.
+	 * Defaults to the size of the repository pool.
+	 * 
+	 * @param index Each database in the cluster has an index: 0 - n-1.
+	 * @return
+	 */
+	public int getTablesDatabasePoolMaxNumberConnectionsForIndex(int index){
+		String value = getOptionalProperty("org.sagebionetworks.table.cluster.pool.max.number.connections."+index);
+		return Integer.parseInt(value != null ? value : getDatabaseConnectionPoolMaxNumberConnections());
+	}
+	
+	/**
+	 * Get a property that does not need to be set.
+	 * 
+	 * @param propertyName
+	 * @return null if the property is not set.
+	 */
+	private static String getOptionalProperty(String propertyName){
+		try {
+			return configuration.getProperty(propertyName);
+		} catch (NullPointerException e) {
+			return null;
+		}
+	}
 
 	/**
 	 * @return for dev stacks, this controls whether emails are delivered or sent to a file (the default)
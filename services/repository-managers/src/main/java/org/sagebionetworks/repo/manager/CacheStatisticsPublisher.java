@@ -0,0 +1,100 @@
+package org.sagebionetworks.repo.manager;
+
+import java.util.Date;
+
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.repo.model.dbo.dao.table.TableChangeSetCache;
+import org.sagebionetworks.repo.model.dbo.wikiV2.WikiMarkdownCache;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * Sends the usage of the in-memory caches of this JVM to CloudWatch. The
+ * caches are shared by every thread of the JVM, so the usage is sent by a
+ * timer on each repository and worker machine rather than by a single worker.
+ *
+ */
+public class CacheStatisticsPublisher {
+
+	public static final String METRIC_NAMESPACE = CacheStatisticsPublisher.class.getName();
+	public static final String CHANGE_SET_HITS = "Change set hits";
+	public static final String CHANGE_SET_MISSES = "Change set misses";
+	public static final String CHANGE_SET_EVICTIONS = "Change set evictions";
+	public static final String CHANGE_SET_CACHE_BYTES = "Change set cache bytes";
+	public static final String MARKDOWN_S3_GETS_AVOIDED = "Markdown S3 GETs avoided";
+	public static final String MARKDOWN_S3_GETS = "Markdown S3 GETs";
+	public static final String MARKDOWN_BYTES_SAVED = "Markdown bytes saved";
+	public static final String MARKDOWN_CACHE_BYTES = "Markdown cache bytes";
+
+	@Autowired
+	TableChangeSetCache tableChangeSetCache;
+	@Autowired
+	WikiMarkdownCache wikiMarkdownCache;
+	@Autowired
+	Consumer consumer;
+
+	/*
+	 * The change set cache counts are totals since startup, so the totals of
+	 * the last send are kept to send the change.
+	 */
+	private long lastChangeSetHits = 0;
+	private long lastChangeSetMisses = 0;
+	private long lastChangeSetEvictions = 0;
+
+	/**
+	 * Called by the timer.
+	 */
+	public synchronized void timerFired() {
+		publishChangeSetCache();
+		publishMarkdownCache();
+	}
+
+	private void publishChangeSetCache() {
+		long hits = tableChangeSetCache.getHitCount();
+		long misses = tableChangeSetCache.getMissCount();
+		long evictions = tableChangeSetCache.getEvictionCount();
+		if (hits + misses == lastChangeSetHits + lastChangeSetMisses) {
+			// the cache was not used.
+			return;
+		}
+		consumer.addProfileData(createMetric(CHANGE_SET_HITS, hits - lastChangeSetHits, StandardUnit.Count));
+		consumer.addProfileData(createMetric(CHANGE_SET_MISSES, misses - lastChangeSetMisses, StandardUnit.Count));
+		consumer.addProfileData(createMetric(CHANGE_SET_EVICTIONS, evictions - lastChangeSetEvictions, StandardUnit.Count));
+		consumer.addProfileData(createMetric(CHANGE_SET_CACHE_BYTES, tableChangeSetCache.getWeight(), StandardUnit.Bytes));
+		lastChangeSetHits = hits;
+		lastChangeSetMisses = misses;
+		lastChangeSetEvictions = evictions;
+	}
+
+	private void publishMarkdownCache() {
+		WikiMarkdownCache.Statistics stats = wikiMarkdownCache.getAndResetStatistics();
+		if (stats.getHitCount() + stats.getMissCount() == 0) {
+			// the cache was not used.
+			return;
+		}
+		consumer.addProfileData(createMetric(MARKDOWN_S3_GETS_AVOIDED, stats.getHitCount(), StandardUnit.Count));
+		consumer.addProfileData(createMetric(MARKDOWN_S3_GETS, stats.getMissCount(), StandardUnit.Count));
+		consumer.addProfileData(createMetric(MARKDOWN_BYTES_SAVED, stats.getBytesSaved(), StandardUnit.Bytes));
+		consumer.addProfileData(createMetric(MARKDOWN_CACHE_BYTES, wikiMarkdownCache.getWeight(), StandardUnit.Bytes));
+	}
+
+	/**
+	 * Create a cache metric.
+	 *
+	 * @param name
+	 * @param value
+	 * @param unit
+	 * @return
+	 */
+	static ProfileData createMetric(String name, double value, StandardUnit unit) {
+		ProfileData data = new ProfileData();
+		data.setNamespace(METRIC_NAMESPACE);
+		data.setName(name);
+		data.setValue(value);
+		data.setUnit(unit.name());
+		data.setTimestamp(new Date());
+		return data;
+	}
+}
@@ -0,0 +1,332 @@
+package org.sagebionetworks.repo.manager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.ModificationMessage;
+import org.sagebionetworks.repo.model.message.TransactionalMessenger;
+import org.sagebionetworks.repo.model.message.TransactionalMessengerObserver;
+import org.sagebionetworks.util.Clock;
+import org.sagebionetworks.util.ValidateArgument;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * A bounded, least-recently-used cache of the groups each user belongs to.
+ * <p>
+ * Building a UserInfo needs the principal and all of its groups, which is
+ * needed for every authenticated request while membership rarely changes.
+ * Each entry holds the groups as a sorted long[] and expires after a short
+ * time to live.
+ * <p>
+ * This cache observes the TransactionalMessenger and drops all entries when a
+ * change message for any principal is committed on this machine. Membership
+ * changes are sent as principal change messages for the group, and the group
+ * does not tell us which users are affected, so everything is dropped. Changes
+ * made on other machines are only seen once entries expire.
+ * <p>
+ * Hit and miss counts are sent to CloudWatch at most once per metric interval.
+ * <p>
+ * This class is thread-safe.
+ *
+ */
+public class PrincipalGroupsCache implements TransactionalMessengerObserver {
+
+	public static final String METRIC_NAMESPACE = PrincipalGroupsCache.class.getName();
+	public static final String METRIC_HITS = "Hits";
+	public static final String METRIC_MISSES = "Misses";
+	public static final String METRIC_HIT_RATE = "Hit rate";
+
+	public static final long DEFAULT_METRIC_INTERVAL_MS = 60 * 1000;
+
+	@Autowired
+	TransactionalMessenger transactionalMessenger;
+	@Autowired
+	Consumer consumer;
+
+	private final long timeToLiveMS;
+	private final Clock clock;
+	private final Map<Long, PrincipalGroups> cache;
+	/**
+	 * Incremented each time all entries are dropped, and guarded by the cache
+	 * lock. Used to reject entries that were loaded before the drop.
+	 */
+	private long generation = 0;
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong lastMetricTime;
+	private long metricIntervalMS = DEFAULT_METRIC_INTERVAL_MS;
+
+	/**
+	 *
+	 * @param maxSize
+	 *            The maximum number of users to keep in the cache.
+	 * @param timeToLiveMS
+	 *            How long an entry is used before the groups are read again.
+	 * @param clock
+	 */
+	public PrincipalGroupsCache(final int maxSize, long timeToLiveMS, Clock clock) {
+		ValidateArgument.requirement(maxSize > 0, "maxSize must be greater than zero");
+		ValidateArgument.requirement(timeToLiveMS > 0, "timeToLiveMS must be greater than zero");
+		ValidateArgument.required(clock, "clock");
+		this.timeToLiveMS = timeToLiveMS;
+		this.clock = clock;
+		this.lastMetricTime = new AtomicLong(clock.currentTimeMillis());
+		this.cache = new LinkedHashMap<Long, PrincipalGroups>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, PrincipalGroups> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * This is called by Spring when this bean is created. This is where we
+	 * register this class as an observer of the TransactionalMessenger
+	 */
+	public void initialize() {
+		// We only want to be in the list once
+		transactionalMessenger.removeObserver(this);
+		transactionalMessenger.registerObserver(this);
+	}
+
+	/**
+	 * Used by tests to inject a mock consumer.
+	 *
+	 * @param consumer
+	 */
+	public void setConsumer(Consumer consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * How often hit and miss counts are sent.
+	 *
+	 * @param metricIntervalMS
+	 */
+	public void setMetricIntervalMS(long metricIntervalMS) {
+		this.metricIntervalMS = metricIntervalMS;
+	}
+
+	/**
+	 * Get the cached groups of a user.
+	 *
+	 * @param principalId
+	 * @return null if the user is not in the cache or the entry has expired.
+	 */
+	public PrincipalGroups get(Long principalId) {
+		PrincipalGroups groups;
+		long now = clock.currentTimeMillis();
+		synchronized (cache) {
+			groups = cache.get(principalId);
+			if (groups != null && now - groups.cachedOn > timeToLiveMS) {
+				cache.remove(principalId);
+				groups = null;
+			}
+		}
+		if (groups != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		sendMetricsIfDue(now);
+		return groups;
+	}
+
+	/**
+	 * The current generation must be read before loading the groups of a user
+	 * and passed to {@link #put(Long, PrincipalGroups, long)}.
+	 *
+	 * @return
+	 */
+	public long getGeneration() {
+		synchronized (cache) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Add the groups of a user. The groups are ignored if the cache was
+	 * cleared since the given generation was read, as they might have been
+	 * read before the change that cleared the cache.
+	 *
+	 * @param principalId
+	 * @param creationDate
+	 *            The creation date of the user.
+	 * @param groupIds
+	 * @param generation
+	 *            The value of {@link #getGeneration()} read before loading the
+	 *            groups.
+	 * @return The new cache entry.
+	 */
+	public PrincipalGroups put(Long principalId, Date creationDate, Collection<Long> groupIds, long generation) {
+		ValidateArgument.required(principalId, "principalId");
+		ValidateArgument.required(groupIds, "groupIds");
+		PrincipalGroups groups = new PrincipalGroups(creationDate, groupIds, clock.currentTimeMillis());
+		synchronized (cache) {
+			if (this.generation == generation) {
+				cache.put(principalId, groups);
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * Remove a single user.
+	 *
+	 * @param principalId
+	 */
+	public void invalidate(Long principalId) {
+		synchronized (cache) {
+			cache.remove(principalId);
+		}
+	}
+
+	/**
+	 * Remove all users.
+	 */
+	public void invalidateAll() {
+		synchronized (cache) {
+			generation++;
+			cache.clear();
+		}
+	}
+
+	/**
+	 * The number of users currently held.
+	 *
+	 * @return
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public void fireChangeMessage(ChangeMessage message) {
+		if (ObjectType.PRINCIPAL.equals(message.getObjectType())) {
+			invalidateAll();
+		}
+	}
+
+	@Override
+	public void fireModificationMessage(ModificationMessage message) {
+		// not used by this cache.
+	}
+
+	/**
+	 * Send the hit and miss counts since the last send if the metric interval
+	 * has passed. Only one caller will send for each interval.
+	 *
+	 * @param now
+	 */
+	private void sendMetricsIfDue(long now) {
+		long last = lastMetricTime.get();
+		if (now - last < metricIntervalMS || consumer == null) {
+			return;
+		}
+		if (!lastMetricTime.compareAndSet(last, now)) {
+			// another thread is sending.
+			return;
+		}
+		long hitCount = hits.getAndSet(0);
+		long missCount = misses.getAndSet(0);
+		long total = hitCount + missCount;
+		consumer.addProfileData(createMetric(METRIC_HITS, hitCount, StandardUnit.Count));
+		consumer.addProfileData(createMetric(METRIC_MISSES, missCount, StandardUnit.Count));
+		if (total > 0) {
+			consumer.addProfileData(createMetric(METRIC_HIT_RATE, hitCount * 100.0 / total, StandardUnit.Percent));
+		}
+	}
+
+	/**
+	 * Create a metric for this cache.
+	 *
+	 * @param name
+	 * @param value
+	 * @param unit
+	 * @return
+	 */
+	private static ProfileData createMetric(String name, double value, StandardUnit unit) {
+		ProfileData data = new ProfileData();
+		data.setNamespace(METRIC_NAMESPACE);
+		data.setName(name);
+		data.setValue(value);
+		data.setUnit(unit.name());
+		data.setTimestamp(new Date());
+		return data;
+	}
+
+	/**
+	 * The immutable creation date and groups of a single user.
+	 */
+	public static class PrincipalGroups {
+
+		private final Long creationDate;
+		private final long[] groupIds;
+		private final long cachedOn;
+
+		PrincipalGroups(Date creationDate, Collection<Long> groupIds, long cachedOn) {
+			this.creationDate = creationDate == null ? null : creationDate.getTime();
+			this.groupIds = new long[groupIds.size()];
+			int index = 0;
+			for (Long id : groupIds) {
+				this.groupIds[index++] = id;
+			}
+			Arrays.sort(this.groupIds);
+			this.cachedOn = cachedOn;
+		}
+
+		/**
+		 *
+		 * @return A new Date each call.
+		 */
+		public Date getCreationDate() {
+			return creationDate == null ? null : new Date(creationDate);
+		}
+
+		/**
+		 * Is the user a member of the given group?
+		 *
+		 * @param groupId
+		 * @return
+		 */
+		public boolean contains(long groupId) {
+			return Arrays.binarySearch(groupIds, groupId) >= 0;
+		}
+
+		/**
+		 *
+		 * @return A new, modifiable set of the group ids.
+		 */
+		public Set<Long> toGroupSet() {
+			Set<Long> set = new HashSet<Long>(groupIds.length * 2);
+			for (long id : groupIds) {
+				set.add(id);
+			}
+			return set;
+		}
+	}
+}
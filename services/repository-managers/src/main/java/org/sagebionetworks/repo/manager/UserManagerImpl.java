@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.sagebionetworks.repo.manager.PrincipalGroupsCache.PrincipalGroups;
 import org.sagebionetworks.repo.manager.principal.NewUserUtils;
 import org.sagebionetworks.repo.manager.team.TeamConstants;
 import org.sagebionetworks.repo.model.AuthenticationDAO;
@@ -53,6 +54,9 @@ public class UserManagerImpl implements UserManager {
 	@Autowired
 	private NotificationEmailDAO notificationEmailDao;
 	
+	@Autowired
+	private PrincipalGroupsCache principalGroupsCache;
+	
 	/**
 	 * Testing purposes only
 	 * Do NOT use in non-test code
@@ -83,6 +87,10 @@ public class UserManagerImpl implements UserManager {
 		this.userGroupDAO = userGroupDAO;
 	}
 	
+	public void setPrincipalGroupsCache(PrincipalGroupsCache principalGroupsCache) {
+		this.principalGroupsCache = principalGroupsCache;
+	}
+	
 	@Override
 	@WriteTransaction
 	public long createUser(NewUser user) {
@@ -198,7 +206,32 @@ public class UserManagerImpl implements UserManager {
 
 	@Override
 	public UserInfo getUserInfo(Long principalId) throws NotFoundException {
-		UserGroup principal = userGroupDAO.get(principalId);
+		PrincipalGroups principalGroups = principalGroupsCache.get(principalId);
+		if(principalGroups == null){
+			// Must be read before the groups are loaded.
+			long generation = principalGroupsCache.getGeneration();
+			UserGroup principal = userGroupDAO.get(principalId);
+			Set<Long> groups = loadGroups(principal, principalId);
+			principalGroups = principalGroupsCache.put(principalId, principal.getCreationDate(), groups, generation);
+		}
+		// Check to see if the user is an Admin
+		// If the user belongs to the admin group they are an admin
+		boolean isAdmin = principalGroups.contains(TeamConstants.ADMINISTRATORS_TEAM_ID);
+		UserInfo ui = new UserInfo(isAdmin);
+		ui.setId(principalId);
+		ui.setCreationDate(principalGroups.getCreationDate());
+		// Put all the pieces together
+		ui.setGroups(principalGroups.toGroupSet());
+		return ui;
+	}
+	
+	/**
+	 * Load all of the groups a user belongs to.
+	 * @param principal
+	 * @param principalId
+	 * @return
+	 */
+	private Set<Long> loadGroups(UserGroup principal, Long principalId) {
 		if(!principal.getIsIndividual()) throw new IllegalArgumentException("Principal: "+principalId+" is not a User");
 		// Lookup the user's name
 		// Check which group(s) of Anonymous, Public, or Authenticated the user belongs to  
@@ -219,19 +252,7 @@ public class UserManagerImpl implements UserManager {
 		for(UserGroup ug: groupFromDAO){
 			groups.add(Long.parseLong(ug.getId()));
 		}
-
-		// Check to see if the user is an Admin
-		boolean isAdmin = false;
-		// If the user belongs to the admin group they are an admin
-		if(groups.contains(TeamConstants.ADMINISTRATORS_TEAM_ID)){
-			isAdmin = true;
-		}
-		UserInfo ui = new UserInfo(isAdmin);
-		ui.setId(principalId);
-		ui.setCreationDate(principal.getCreationDate());
-		// Put all the pieces together
-		ui.setGroups(groups);
-		return ui;
+		return groups;
 	}
 
 	@WriteTransaction
@@ -242,6 +263,7 @@ public class UserManagerImpl implements UserManager {
 		}
 		
 		userGroupDAO.delete(principalId.toString());
+		principalGroupsCache.invalidate(principalId);
 	}
 
 	@Override
@@ -16,6 +16,7 @@ import java.util.zip.ZipOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sagebionetworks.repo.manager.backup.Progress;
+import org.sagebionetworks.repo.manager.migration.BackupFormat;
 import org.sagebionetworks.repo.manager.migration.MigrationManager;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.migration.MigrationType;
@@ -33,8 +34,6 @@ public class BackupDriverImpl implements BackupDriver {
 
 	static private Log log = LogFactory.getLog(BackupDriverImpl.class);
 
-	private static final String ZIP_ENTRY_SUFFIX = ".xml";
-
 	@Autowired
 	private MigrationManager migrationManager;
 
@@ -70,11 +69,7 @@ public class BackupDriverImpl implements BackupDriver {
 		try {
 //			progress.appendLog(idsToBackup.toString());
 			progress.setMessage("Backup id count: "+idsToBackup.size());
-			ZipEntry entry = new ZipEntry(type.name() + ZIP_ENTRY_SUFFIX);
-			zos.putNextEntry(entry);
-			Writer zipWriter = new OutputStreamWriter(zos, "UTF-8");
-			migrationManager.writeBackupBatch(user, type, idsToBackup, zipWriter);
-			zipWriter.flush();
+			writeEntry(user, zos, type, idsToBackup);
 			progress.incrementProgress();
 			// If this type has secondary types then add them to the zip as well.
 			List<MigrationType> secondaryTypes = migrationManager.getSecondaryTypes(type);
@@ -82,15 +77,10 @@ public class BackupDriverImpl implements BackupDriver {
 				for(MigrationType secondary: secondaryTypes){
 					checkForTermination(progress);
 					Thread.yield();
-					entry = new ZipEntry(secondary.name() + ZIP_ENTRY_SUFFIX);
-					zos.putNextEntry(entry);
-					zipWriter = new OutputStreamWriter(zos, "UTF-8");
-					migrationManager.writeBackupBatch(user, secondary, idsToBackup, zipWriter);
-					zipWriter.flush();
+					writeEntry(user, zos, secondary, idsToBackup);
 					progress.incrementProgress();
 				}
 			}
-			zipWriter.close();
 			zos.close();
 			progress.appendLog("Finished processing");
 		} finally {
@@ -102,6 +92,26 @@ public class BackupDriverImpl implements BackupDriver {
 		return true;
 	}
 
+	/**
+	 * Write a single type to its own zip entry in the format chosen for the type.
+	 * @param user
+	 * @param zos
+	 * @param type
+	 * @param idsToBackup
+	 * @throws IOException
+	 */
+	private void writeEntry(UserInfo user, ZipOutputStream zos, MigrationType type, List<Long> idsToBackup) throws IOException {
+		BackupFormat format = migrationManager.getBackupFormat(type);
+		zos.putNextEntry(new ZipEntry(getFileNameForType(type, format)));
+		if(BackupFormat.BINARY.equals(format)){
+			migrationManager.writeBackupBatch(user, type, idsToBackup, zos);
+		}else{
+			Writer zipWriter = new OutputStreamWriter(zos, "UTF-8");
+			migrationManager.writeBackupBatch(user, type, idsToBackup, zipWriter);
+			zipWriter.flush();
+		}
+	}
+
 	@WriteTransaction
 	@Override
 	public boolean restoreFromBackup(UserInfo user, File source, Progress progress) throws Exception {
@@ -136,7 +146,8 @@ public class BackupDriverImpl implements BackupDriver {
 					progress.appendLog("Skipping entry " + entry.getName() + ", unused migration type.");
 				} else {
 					// This is a backup file.
-					List<Long> primaryIds = migrationManager.createOrUpdateBatch(user, type, zin);
+					BackupFormat format = BackupFormat.fromFileName(entry.getName());
+					List<Long> primaryIds = migrationManager.createOrUpdateBatch(user, type, zin, format);
 					// If this is a primary type then we must clear all data for secondary types
 					// that have these backup ids.
 					List<MigrationType> secondaryTypes = migrationManager.getSecondaryTypes(type);
@@ -170,17 +181,19 @@ public class BackupDriverImpl implements BackupDriver {
 	 * @return
 	 */
 	public static MigrationType getTypeFromFileName(String name){
-		MigrationType t = MigrationType.valueOf(name.substring(0, name.length()-ZIP_ENTRY_SUFFIX.length()));
+		BackupFormat format = BackupFormat.fromFileName(name);
+		MigrationType t = MigrationType.valueOf(name.substring(0, name.length()-format.getSuffix().length()));
 		return t;
 	}
 	
 	/**
 	 * Create a file name for a type.
 	 * @param type
+	 * @param format
 	 * @return
 	 */
-	public static String getFileNameForType(MigrationType type){
-		return type.name() + ZIP_ENTRY_SUFFIX;
+	public static String getFileNameForType(MigrationType type, BackupFormat format){
+		return type.name() + format.getSuffix();
 	}
 
 	private void checkForTermination(Progress progress)
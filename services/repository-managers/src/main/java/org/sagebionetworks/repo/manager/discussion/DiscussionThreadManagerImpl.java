@@ -65,6 +65,8 @@ public class DiscussionThreadManagerImpl implements DiscussionThreadManager {
 	private TransactionalMessenger transactionalMessenger;
 	@Autowired
 	private AccessControlListDAO aclDao;
+	@Autowired
+	private DiscussionThreadViewRecorder threadViewRecorder;
 
 	@WriteTransactionReadCommitted
 	@Override
@@ -92,7 +94,6 @@ public class DiscussionThreadManagerImpl implements DiscussionThreadManager {
 		return thread;
 	}
 
-	@WriteTransactionReadCommitted
 	@Override
 	public DiscussionThreadBundle getThread(UserInfo userInfo, String threadId) {
 		ValidateArgument.required(threadId, "threadId");
@@ -110,8 +111,7 @@ public class DiscussionThreadManagerImpl implements DiscussionThreadManager {
 			AuthorizationManagerUtil.checkAuthorizationAndThrowException(
 					authorizationManager.canAccess(userInfo, thread.getProjectId(), ObjectType.ENTITY, ACCESS_TYPE.READ));
 		}
-		threadDao.updateThreadView(threadIdLong, userInfo.getId());
-		transactionalMessenger.sendMessageAfterCommit(threadId, ObjectType.THREAD, thread.getEtag(),  ChangeType.UPDATE, userInfo.getId());
+		threadViewRecorder.recordView(threadIdLong, userInfo.getId());
 		return thread;
 	}
 
@@ -232,7 +232,7 @@ public class DiscussionThreadManagerImpl implements DiscussionThreadManager {
 		ValidateArgument.required(messageKey, "messageKey");
 		String threadId = MessageKeyUtils.getThreadId(messageKey);
 		checkPermission(userInfo, threadId, ACCESS_TYPE.READ);
-		threadDao.updateThreadView(Long.parseLong(threadId), userInfo.getId());
+		threadViewRecorder.recordView(Long.parseLong(threadId), userInfo.getId());
 		return uploadDao.getThreadUrl(messageKey);
 	}
 
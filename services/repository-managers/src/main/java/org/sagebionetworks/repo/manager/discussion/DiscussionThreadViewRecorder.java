@@ -0,0 +1,24 @@
+package org.sagebionetworks.repo.manager.discussion;
+
+/**
+ * Records the views of discussion threads in memory so that reading a thread
+ * does not write to the database. The recorded views are written in batches
+ * each time the timer fires.
+ */
+public interface DiscussionThreadViewRecorder {
+
+	/**
+	 * Record that a user viewed a thread. Views of the same thread by the
+	 * same user are only written once.
+	 * 
+	 * @param threadId
+	 * @param userId
+	 */
+	public void recordView(long threadId, long userId);
+
+	/**
+	 * Called when the timer fires. Writes all of the views recorded since the
+	 * last time the timer fired.
+	 */
+	public void timerFired();
+}
@@ -0,0 +1,139 @@
+package org.sagebionetworks.repo.manager.discussion;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.repo.model.dao.discussion.DiscussionThreadDAO;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Collects the views of each thread on this node, de-duplicated by user, and
+ * writes them with one batch per group of threads each time the timer fires.
+ * A view is visible in the thread's statistics after the next flush rather
+ * than immediately.
+ * <p>
+ * Recording a view only takes the shared side of a read/write lock, so views
+ * can be recorded concurrently. The flush takes the exclusive side just long
+ * enough to swap in an empty map. Views that cannot be written are added back
+ * and retried on the next flush. The views still pending when the context
+ * shuts down are written by {@link #close()}.
+ */
+public class DiscussionThreadViewRecorderImpl implements DiscussionThreadViewRecorder {
+
+	static private Log log = LogFactory.getLog(DiscussionThreadViewRecorderImpl.class);
+
+	/**
+	 * The maximum number of threads written with each call to the DAO.
+	 */
+	public static final int MAX_THREADS_PER_BATCH = 1000;
+
+	@Autowired
+	private DiscussionThreadDAO threadDao;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// The users that viewed each thread since the last flush, guarded by lock.
+	private ConcurrentMap<Long, Set<Long>> pendingViews = new ConcurrentHashMap<Long, Set<Long>>();
+
+	@Override
+	public void recordView(long threadId, long userId) {
+		lock.readLock().lock();
+		try {
+			addView(pendingViews, threadId, userId);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static void addView(ConcurrentMap<Long, Set<Long>> views, Long threadId, Long userId) {
+		Set<Long> userIds = views.get(threadId);
+		if (userIds == null) {
+			Set<Long> newUserIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+			userIds = views.putIfAbsent(threadId, newUserIds);
+			if (userIds == null) {
+				userIds = newUserIds;
+			}
+		}
+		userIds.add(userId);
+	}
+
+	@Override
+	public void timerFired() {
+		Map<Long, Set<Long>> views;
+		lock.writeLock().lock();
+		try {
+			views = pendingViews;
+			pendingViews = new ConcurrentHashMap<Long, Set<Long>>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		Map<Long, Set<Long>> batch = new HashMap<Long, Set<Long>>();
+		for (Map.Entry<Long, Set<Long>> entry : views.entrySet()) {
+			batch.put(entry.getKey(), entry.getValue());
+			if (batch.size() >= MAX_THREADS_PER_BATCH) {
+				writeBatch(batch);
+				batch = new HashMap<Long, Set<Long>>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			writeBatch(batch);
+		}
+	}
+
+	/**
+	 * Called by Spring when the context shuts down, so the views recorded
+	 * since the last flush are not lost.
+	 */
+	public void close() {
+		timerFired();
+		int pending = getPendingThreadCount();
+		if (pending > 0) {
+			log.error("The views of " + pending + " threads were not written before shutdown.");
+		}
+	}
+
+	/**
+	 * Write a batch of views, adding them back to be retried if they cannot
+	 * be written.
+	 * 
+	 * @param batch
+	 */
+	private void writeBatch(Map<Long, Set<Long>> batch) {
+		try {
+			threadDao.updateThreadViews(batch);
+		} catch (Exception e) {
+			log.error("Failed to write the views of " + batch.size() + " threads. They will be retried.", e);
+			lock.readLock().lock();
+			try {
+				for (Map.Entry<Long, Set<Long>> entry : batch.entrySet()) {
+					for (Long userId : entry.getValue()) {
+						addView(pendingViews, entry.getKey(), userId);
+					}
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * The number of threads with views waiting to be written.
+	 * 
+	 * @return
+	 */
+	public int getPendingThreadCount() {
+		lock.readLock().lock();
+		try {
+			return pendingViews.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
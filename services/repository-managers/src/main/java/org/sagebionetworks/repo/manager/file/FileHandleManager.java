@@ -14,6 +14,7 @@ import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.http.entity.ContentType;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserInfo;
@@ -241,6 +242,27 @@ public interface FileHandleManager {
 	 */
 	S3FileHandle multipartUploadLocalFile(UserInfo userInfo, File fileToUpload,	String contentType, ProgressListener listener);
 
+	/**
+	 * Start a multi-part upload of content that is generated as it is
+	 * uploaded. This is used by workers.
+	 * 
+	 * @param userInfo
+	 * @param fileName
+	 * @param contentType
+	 * @return
+	 */
+	MultipartUploadOutputStream openMultipartUploadStream(UserInfo userInfo, String fileName, String contentType);
+
+	/**
+	 * Complete an upload started with
+	 * {@link #openMultipartUploadStream(UserInfo, String, String)} and create a
+	 * FileHandle for the result.
+	 * 
+	 * @param out
+	 * @return
+	 */
+	S3FileHandle completeMultipartUploadStream(MultipartUploadOutputStream out);
+
 	/**
 	 * Only the creator of a FileHandle can call this method.
 	 * 
@@ -41,6 +41,7 @@ import org.sagebionetworks.repo.manager.AuthorizationStatus;
 import org.sagebionetworks.repo.manager.NodeManager;
 import org.sagebionetworks.repo.manager.ProjectSettingsManager;
 import org.sagebionetworks.repo.manager.file.transfer.FileTransferStrategy;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.manager.file.transfer.TransferRequest;
 import org.sagebionetworks.repo.manager.file.transfer.TransferUtils;
 import org.sagebionetworks.repo.model.ACCESS_TYPE;
@@ -752,6 +753,20 @@ public class FileHandleManagerImpl implements FileHandleManager {
 				fileToUpload, contentType, listener);
 	}
 
+	@Override
+	public MultipartUploadOutputStream openMultipartUploadStream(
+			UserInfo userInfo, String fileName, String contentType) {
+		String userId = getUserId(userInfo);
+		return multipartManager.openMultipartUploadStream(null, userId,
+				fileName, contentType);
+	}
+
+	@Override
+	public S3FileHandle completeMultipartUploadStream(
+			MultipartUploadOutputStream out) {
+		return multipartManager.completeMultipartUploadStream(out);
+	}
+
 	@Override
 	public UploadDaemonStatus getUploadDaemonStatus(UserInfo userInfo,
 			String daemonId) throws DatastoreException, NotFoundException {
@@ -3,6 +3,7 @@ package org.sagebionetworks.repo.manager.file;
 import java.io.File;
 import java.net.URL;
 
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.file.ChunkRequest;
 import org.sagebionetworks.repo.model.file.ChunkResult;
@@ -99,4 +100,30 @@ public interface MultipartManager {
 	 */
 	S3FileHandle multipartUploadLocalFile(Long storageLocationId, String userId, File fileToUpload, String contentType,
 			ProgressListener listener);
+
+	/**
+	 * Start a multi-part upload of content that is generated as it is
+	 * uploaded. Everything written to the returned stream is sent to S3 part
+	 * by part. The upload must either be finished with
+	 * {@link #completeMultipartUploadStream(MultipartUploadOutputStream)} or
+	 * discarded with {@link MultipartUploadOutputStream#abort()}.
+	 * 
+	 * @param storageLocationId
+	 * @param userId
+	 * @param fileName
+	 * @param contentType
+	 * @return
+	 */
+	MultipartUploadOutputStream openMultipartUploadStream(Long storageLocationId, String userId, String fileName,
+			String contentType);
+
+	/**
+	 * Complete an upload started with
+	 * {@link #openMultipartUploadStream(Long, String, String, String)} and
+	 * create a FileHandle for the result.
+	 * 
+	 * @param out
+	 * @return
+	 */
+	S3FileHandle completeMultipartUploadStream(MultipartUploadOutputStream out);
 }
@@ -1,6 +1,7 @@
 package org.sagebionetworks.repo.manager.file;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.Date;
 import java.util.LinkedList;
@@ -8,6 +9,8 @@ import java.util.List;
 import java.util.UUID;
 
 import org.sagebionetworks.repo.manager.ProjectSettingsManager;
+import org.sagebionetworks.repo.manager.file.transfer.MemoryTransferStrategy;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.manager.file.transfer.TransferUtils;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.dao.FileHandleDao;
@@ -255,4 +258,33 @@ public class MultipartManagerImpl implements MultipartManager {
 		} 
 	}
 
+	@Override
+	public MultipartUploadOutputStream openMultipartUploadStream(Long storageLocationId, String userId,
+			String fileName, String contentType) {
+		StorageLocationSetting storageLocationSetting = getStorageLocationSetting(storageLocationId);
+		String key = MultipartUtils.createNewKey(userId, fileName, storageLocationSetting);
+		// The MD5 and size are set by the stream once the upload is complete.
+		S3FileHandle handle = new S3FileHandle();
+		handle.setBucketName(MultipartUtils.getBucket(storageLocationSetting));
+		handle.setKey(key);
+		handle.setContentType(contentType);
+		handle.setCreatedBy(userId);
+		handle.setCreatedOn(new Date(System.currentTimeMillis()));
+		handle.setEtag(UUID.randomUUID().toString());
+		handle.setFileName(fileName);
+		return new MultipartUploadOutputStream(s3Client, handle, MemoryTransferStrategy.MINIMUM_BLOCK_SIZE_BYTES);
+	}
+
+	@Override
+	public S3FileHandle completeMultipartUploadStream(MultipartUploadOutputStream out) {
+		if(out == null) throw new IllegalArgumentException("MultipartUploadOutputStream cannot be null");
+		try {
+			// This will throw an exception if the upload fails for any reason.
+			out.close();
+		} catch (IOException e) {
+			throw new DatastoreException(e);
+		}
+		return fileHandleDao.createFile(out.getFileHandle());
+	}
+
 }
@@ -0,0 +1,212 @@
+package org.sagebionetworks.repo.manager.file.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * <p>
+ * An OutputStream that writes directly to a new S3 object using a multi-part
+ * upload. This allows content of unknown size, such as a generated zip, to be
+ * sent to S3 as it is produced without first writing it to a local file.
+ * </p>
+ * <p>
+ * A single buffer of partSize bytes is held in memory. Each time the buffer is
+ * full it is sent to S3 as one part, so the memory used does not depend on the
+ * size of the file. {@link #close()} sends the last part and completes the
+ * upload, after which the MD5 and size of the content are set on the file
+ * handle. If the content is not wanted, {@link #abort()} must be called
+ * instead so S3 can discard the parts.
+ * </p>
+ * This class is not thread-safe.
+ */
+public class MultipartUploadOutputStream extends OutputStream {
+
+	static private Log log = LogFactory.getLog(MultipartUploadOutputStream.class);
+
+	private final AmazonS3Client s3Client;
+	private final S3FileHandle fileHandle;
+	private final String uploadId;
+	private final byte[] buffer;
+	private int bufferCount = 0;
+	private final MessageDigest fullDigest;
+	private final MessageDigest partDigest;
+	private final List<PartETag> partETags = new ArrayList<PartETag>();
+	private long contentSize = 0;
+	private boolean closed = false;
+	private boolean completed = false;
+	private boolean aborted = false;
+
+	/**
+	 * Start a new multi-part upload.
+	 *
+	 * @param s3Client
+	 * @param fileHandle
+	 *            The bucket, key, content type and file name of the new
+	 *            object.
+	 * @param partSize
+	 *            The size of each part in bytes. Must be at least
+	 *            {@link MemoryTransferStrategy#MINIMUM_BLOCK_SIZE_BYTES}.
+	 */
+	public MultipartUploadOutputStream(AmazonS3Client s3Client, S3FileHandle fileHandle, int partSize) {
+		if(s3Client == null) throw new IllegalArgumentException("S3Client cannot be null");
+		if(fileHandle == null) throw new IllegalArgumentException("FileHandle cannot be null");
+		if(fileHandle.getBucketName() == null) throw new IllegalArgumentException("FileHandle.bucketName cannot be null");
+		if(fileHandle.getKey() == null) throw new IllegalArgumentException("FileHandle.key cannot be null");
+		if(partSize < MemoryTransferStrategy.MINIMUM_BLOCK_SIZE_BYTES) throw new IllegalArgumentException("The part size cannot be less than 5 MB as that is the minimum size of a single part in a S3 multi-part upload.");
+		this.s3Client = s3Client;
+		this.fileHandle = fileHandle;
+		this.buffer = new byte[partSize];
+		this.fullDigest = TransferUtils.createMD5Digest();
+		this.partDigest = TransferUtils.createMD5Digest();
+		ObjectMetadata objMeta = TransferUtils.prepareObjectMetadata(fileHandle);
+		InitiateMultipartUploadResult initiate = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(
+				fileHandle.getBucketName(), fileHandle.getKey(), objMeta));
+		this.uploadId = initiate.getUploadId();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkOpen();
+		buffer[bufferCount++] = (byte) b;
+		if (bufferCount == buffer.length) {
+			uploadPart();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		while (len > 0) {
+			int toCopy = Math.min(len, buffer.length - bufferCount);
+			System.arraycopy(b, off, buffer, bufferCount, toCopy);
+			bufferCount += toCopy;
+			off += toCopy;
+			len -= toCopy;
+			if (bufferCount == buffer.length) {
+				uploadPart();
+			}
+		}
+	}
+
+	/**
+	 * Send the last part and complete the upload. Does nothing if the stream
+	 * is already closed or aborted.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		// S3 requires at least one part even if the content is empty.
+		if (bufferCount > 0 || partETags.isEmpty()) {
+			uploadPart();
+		}
+		closed = true;
+		try {
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(fileHandle.getBucketName(),
+					fileHandle.getKey(), uploadId, partETags));
+		} catch (AmazonClientException e) {
+			abort();
+			throw new IOException(e);
+		}
+		completed = true;
+		fileHandle.setContentMd5(BinaryUtils.toHex(fullDigest.digest()));
+		fileHandle.setContentSize(contentSize);
+		if(log.isDebugEnabled()){
+			log.debug("Completed multi-part upload of "+contentSize+" bytes in "+partETags.size()+" parts to: "+fileHandle.getKey());
+		}
+	}
+
+	/**
+	 * Discard everything written so far. Does nothing if the upload was
+	 * already completed or aborted.
+	 */
+	public void abort() {
+		if (completed || aborted) {
+			return;
+		}
+		closed = true;
+		aborted = true;
+		try {
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(fileHandle.getBucketName(),
+					fileHandle.getKey(), uploadId));
+		} catch (AmazonClientException e) {
+			log.warn("Failed to abort multi-part upload: " + uploadId, e);
+		}
+	}
+
+	/**
+	 * The number of bytes written to this stream so far, including bytes that
+	 * have not been sent yet.
+	 *
+	 * @return
+	 */
+	public long getContentSize() {
+		return contentSize + bufferCount;
+	}
+
+	/**
+	 * The file handle describing the new object. The MD5 and size are only set
+	 * once the stream is closed.
+	 *
+	 * @return
+	 */
+	public S3FileHandle getFileHandle() {
+		return fileHandle;
+	}
+
+	/**
+	 * Send the contents of the buffer as the next part.
+	 *
+	 * @throws IOException
+	 */
+	private void uploadPart() throws IOException {
+		fullDigest.update(buffer, 0, bufferCount);
+		partDigest.reset();
+		partDigest.update(buffer, 0, bufferCount);
+		String partMD5 = BinaryUtils.toBase64(partDigest.digest());
+		int partNumber = partETags.size() + 1;
+		try {
+			UploadPartResult partResult = s3Client.uploadPart(new UploadPartRequest()
+					.withUploadId(uploadId)
+					.withBucketName(fileHandle.getBucketName())
+					.withKey(fileHandle.getKey())
+					.withPartSize(bufferCount)
+					.withMD5Digest(partMD5)
+					.withInputStream(new ByteArrayInputStream(buffer, 0, bufferCount))
+					.withPartNumber(partNumber));
+			partETags.add(partResult.getPartETag());
+		} catch (AmazonClientException e) {
+			abort();
+			throw new IOException(e);
+		}
+		contentSize += bufferCount;
+		bufferCount = 0;
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("The stream is closed");
+		}
+	}
+}
@@ -8,6 +8,7 @@ import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.utils.HttpClientHelperException;
+import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 
 /**
  * The Broadcast manager is responsible for sending an email to users subscribed to certain events.
@@ -26,9 +27,13 @@ public interface BroadcastMessageManager {
 	 * @throws IOException 
 	 * @throws JSONException 
 	 * @throws ClientProtocolException 
+	 * @throws RecoverableMessageException
+	 *             If some of the emails could not be sent and should be
+	 *             retried later. Users that were sent the email will not be
+	 *             sent it again.
 	 */
 	public void broadcastMessage(UserInfo user,
 			ProgressCallback<Void> progressCallback,
-			ChangeMessage changeMessage) throws ClientProtocolException, JSONException, IOException, HttpClientHelperException;
+			ChangeMessage changeMessage) throws ClientProtocolException, JSONException, IOException, HttpClientHelperException, RecoverableMessageException;
 
 }
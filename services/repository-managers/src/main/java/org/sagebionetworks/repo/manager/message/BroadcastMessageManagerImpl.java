@@ -2,6 +2,8 @@ package org.sagebionetworks.repo.manager.message;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -13,7 +15,7 @@ import org.json.JSONException;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.repo.manager.AuthorizationManager;
 import org.sagebionetworks.repo.manager.UserManager;
-import org.sagebionetworks.repo.manager.principal.SynapseEmailService;
+import org.sagebionetworks.repo.manager.principal.BulkEmailSender;
 import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserInfo;
@@ -29,10 +31,18 @@ import org.sagebionetworks.repo.model.subscription.Topic;
 import org.sagebionetworks.util.TimeoutUtils;
 import org.sagebionetworks.util.ValidateArgument;
 import org.sagebionetworks.utils.HttpClientHelperException;
+import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 
+/**
+ * Subscribers are read and sent to one page at a time. Before the emails of a
+ * page are sent their recipients are recorded, so a broadcast that fails part
+ * way is resumed by the next attempt without sending anyone the same email
+ * twice. Once every email was sent the broadcast is set as complete and its
+ * recipients are deleted.
+ */
 public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 	
 	static private Logger log = LogManager.getLogger(BroadcastMessageManagerImpl.class);
@@ -42,6 +52,11 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 	 */
 	public static final long MESSAGE_EXPIRATION_MS = 1000*60*60*24; // 24 hours
 	
+	/**
+	 * The number of subscribers read and sent to at a time.
+	 */
+	public static final long SUBSCRIBER_PAGE_SIZE = 100;
+	
 	/*
 	 *  For each ChangeMessage that is processed by this manager, we map the
 	 *  message's ObjectType to a MessageBuilderFactory. A MessageBuilderFactory
@@ -59,7 +74,7 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 	@Autowired
 	BroadcastMessageDao broadcastMessageDao;
 	@Autowired
-	SynapseEmailService sesClient;
+	BulkEmailSender emailSender;
 	@Autowired
 	DBOChangeDAO changeDao;
 	@Autowired
@@ -74,7 +89,7 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 	AuthorizationManager authManager;
 
 	@Override
-	public void broadcastMessage(UserInfo user,	ProgressCallback<Void> progressCallback, ChangeMessage changeMessage) throws ClientProtocolException, JSONException, IOException, HttpClientHelperException {
+	public void broadcastMessage(UserInfo user,	ProgressCallback<Void> progressCallback, ChangeMessage changeMessage) throws ClientProtocolException, JSONException, IOException, HttpClientHelperException, RecoverableMessageException {
 		ValidateArgument.required(user, "user");
 		ValidateArgument.required(changeMessage, "changeMessage");
 		ValidateArgument.required(changeMessage.getUserId(), "ChangeMessage.userId");
@@ -95,15 +110,13 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 			}
 			return;
 		}
-		// Ignore messages that have already been sent
-		if(broadcastMessageDao.wasBroadcast(changeMessage.getChangeNumber())){
+		// Ignore messages that have already been sent. A broadcast that did not finish is resumed.
+		if(broadcastMessageDao.isBroadcastComplete(changeMessage.getChangeNumber())){
 			if(log.isDebugEnabled()){
 				log.debug("Ignoring "+changeMessage.getChangeNumber()+" since it was already broadcast.");
 			}
 			return;
 		}
-		// Record this message as sent to prevent the messages from being sent again.
-		broadcastMessageDao.setBroadcast(changeMessage.getChangeNumber());
 		// Lookup the factory for this type.
 		MessageBuilderFactory factory = messageBuilderFactoryMap.get(changeMessage.getObjectType());
 		if(factory == null){
@@ -113,24 +126,29 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 		BroadcastMessageBuilder builder = factory.createMessageBuilder(changeMessage.getObjectId(), changeMessage.getChangeType(), changeMessage.getUserId());
 		Topic topic = builder.getBroadcastTopic();
 		valdiateTopic(topic);
-		// Get all of the email subscribers for this topic.
-		List<Subscriber> subscribers = subscriptionDAO.getAllEmailSubscribers(topic.getObjectId(), topic.getObjectType());
+		// Send to the email subscribers of this topic a page at a time.
 		List<String> subscriberIds = new ArrayList<String>();
-		// The builder will prepare an email for each subscriber
-		for(Subscriber subscriber: subscribers){
-			subscriberIds.add(subscriber.getSubscriberId());
-			// do not send an email to the user who created this change
-			if (subscriber.getSubscriberId().equals(changeMessage.getUserId().toString())) {
-				continue;
+		long lastSubscriptionId = 0;
+		List<Subscriber> subscribers;
+		do {
+			subscribers = subscriptionDAO.getEmailSubscribers(topic.getObjectId(), topic.getObjectType(), lastSubscriptionId, SUBSCRIBER_PAGE_SIZE);
+			// The builder will prepare an email for each subscriber
+			Map<Long, SendRawEmailRequest> emails = new LinkedHashMap<Long, SendRawEmailRequest>();
+			for(Subscriber subscriber: subscribers){
+				subscriberIds.add(subscriber.getSubscriberId());
+				lastSubscriptionId = Long.parseLong(subscriber.getSubscriptionId());
+				// do not send an email to the user who created this change
+				if (subscriber.getSubscriberId().equals(changeMessage.getUserId().toString())) {
+					continue;
+				}
+				emails.put(Long.parseLong(subscriber.getSubscriberId()), builder.buildEmailForSubscriber(subscriber));
 			}
-			// progress between each message
-			progressCallback.progressMade(null);
-			SendRawEmailRequest emailRequest = builder.buildEmailForSubscriber(subscriber);
-			log.debug("sending email to "+subscriber.getNotificationEmail());
-			sesClient.sendRawEmail(emailRequest);
-		}
+			sendEmails(progressCallback, changeMessage.getChangeNumber(), emails);
+		} while (subscribers.size() == SUBSCRIBER_PAGE_SIZE);
 
 		sendMessageToNonSubscribers(progressCallback, changeMessage, builder, subscriberIds, topic);
+		// Every email was sent so the recipients are no longer needed.
+		broadcastMessageDao.setBroadcastComplete(changeMessage.getChangeNumber());
 	}
 
 	/*
@@ -142,7 +160,7 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 	public void sendMessageToNonSubscribers(ProgressCallback<Void> progressCallback,
 			ChangeMessage changeMessage, BroadcastMessageBuilder builder, List<String> subscriberIds,
 			Topic topic)
-			throws ClientProtocolException, JSONException, IOException, HttpClientHelperException {
+			throws ClientProtocolException, JSONException, IOException, HttpClientHelperException, RecoverableMessageException {
 		Set<String> mentionedUserIds = builder.getRelatedUsers();
 		if (mentionedUserIds.isEmpty()) {
 			return;
@@ -151,7 +169,8 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 		mentionedUserIds.removeAll(subscriberIds);
 		// create list of MentionedUser from their ids
 		List<UserNotificationInfo> mentionedUsers = userProfileDao.getUserNotificationInfo(mentionedUserIds);
-		// build and send email to each mentioned user
+		// build an email for each mentioned user
+		Map<Long, SendRawEmailRequest> emails = new LinkedHashMap<Long, SendRawEmailRequest>();
 		for(UserNotificationInfo userNotificationInfo: mentionedUsers){
 			// do not send an email to the user who created this change
 			if (userNotificationInfo.getUserId().equals(changeMessage.getUserId().toString())) {
@@ -159,13 +178,38 @@ public class BroadcastMessageManagerImpl implements BroadcastMessageManager {
 			}
 			UserInfo userInfo = userManager.getUserInfo(Long.parseLong(userNotificationInfo.getUserId()));
 			if (authManager.canSubscribe(userInfo, topic.getObjectId(), topic.getObjectType()).getAuthorized()) {
-				// progress between each message
-				progressCallback.progressMade(null);
-				SendRawEmailRequest emailRequest = builder.buildEmailForNonSubscriber(userNotificationInfo);
-				log.debug("sending email to "+userNotificationInfo.getNotificationEmail());
-				sesClient.sendRawEmail(emailRequest);
+				emails.put(userInfo.getId(), builder.buildEmailForNonSubscriber(userNotificationInfo));
 			}
 		}
+		sendEmails(progressCallback, changeMessage.getChangeNumber(), emails);
+	}
+
+	/**
+	 * Send the given emails of a change, skipping the recipients that were
+	 * sent the change by an earlier attempt. Recipients are recorded before
+	 * their emails are sent.
+	 * 
+	 * @param progressCallback
+	 * @param changeNumber
+	 * @param emails
+	 *            keyed by the ID of the recipient.
+	 * @throws RecoverableMessageException
+	 *             If some of the emails could not be sent. Their recipients
+	 *             are forgotten so the next attempt will send to them.
+	 */
+	void sendEmails(ProgressCallback<Void> progressCallback, Long changeNumber, Map<Long, SendRawEmailRequest> emails) throws RecoverableMessageException {
+		if (emails.isEmpty()) {
+			return;
+		}
+		progressCallback.progressMade(null);
+		Set<Long> newRecipients = broadcastMessageDao.addRecipients(changeNumber, new HashSet<Long>(emails.keySet()));
+		emails.keySet().retainAll(newRecipients);
+		Set<Long> failed = emailSender.sendEmails(progressCallback, emails);
+		if (!failed.isEmpty()) {
+			broadcastMessageDao.removeRecipients(changeNumber, failed);
+			log.warn("Failed to send "+failed.size()+" of "+emails.size()+" emails of change "+changeNumber+", it will be retried.");
+			throw new RecoverableMessageException();
+		}
 	}
 	
 	/**
@@ -2,7 +2,9 @@ package org.sagebionetworks.repo.manager.message;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.UUID;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.http.client.ClientProtocolException;
 import org.json.JSONException;
 import org.sagebionetworks.markdown.MarkdownDao;
@@ -20,6 +22,11 @@ import org.sagebionetworks.utils.HttpClientHelperException;
 
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 
+/**
+ * The markdown of each email is the same for all recipients apart from their
+ * name and subscription, so it is converted to HTML once with placeholders
+ * for those values, which are then filled in for each recipient.
+ */
 public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilder {
 	public static final String GREETING = "Hello %1$s,\n\n";
 	public static final String SUBSCRIBE_THREAD = "[Subscribe to the thread](https://www.synapse.org/#!Subscription:objectID=%1$s&objectType=THREAD)\n";
@@ -36,6 +43,12 @@ public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilde
 	String unsubscribe;
 	Topic broadcastTopic;
 	PrincipalAliasDAO principalAliasDao;
+	// Alphanumeric so the markdown conversion leaves them alone.
+	String recipientNamePlaceholder;
+	String subscriptionIdPlaceholder;
+	// Rendered on first use.
+	String subscriberHtml;
+	String nonSubscriberHtml;
 
 	public DiscussionBroadcastMessageBuilder(String actorUsername, String actorUserId,
 			String threadTitle, String threadId, String projectId, String projectName,
@@ -67,6 +80,9 @@ public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilde
 		this.unsubscribe = unsubscribe;
 		this.broadcastTopic = broadcastTopic;
 		this.principalAliasDao = principalAliasDao;
+		String suffix = UUID.randomUUID().toString().replace("-", "");
+		this.recipientNamePlaceholder = "recipientname" + suffix;
+		this.subscriptionIdPlaceholder = "subscriptionid" + suffix;
 	}
 
 	@Override
@@ -76,11 +92,17 @@ public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilde
 
 	@Override
 	public SendRawEmailRequest buildEmailForSubscriber(Subscriber subscriber) throws ClientProtocolException, JSONException, IOException, HttpClientHelperException {
-		// build the email body
-		String body = buildRawBodyForSubscriber(subscriber);
+		if (subscriberHtml == null) {
+			subscriberHtml = markdownDao.convertMarkdown(buildRawBodyForSubscriber(recipientNamePlaceholder, subscriptionIdPlaceholder), null);
+		}
+		// fill in the recipient
+		String recipientName = EmailUtils.getDisplayNameWithUsername(subscriber.getFirstName(), subscriber.getLastName(), subscriber.getUsername());
+		String body = subscriberHtml
+				.replace(recipientNamePlaceholder, StringEscapeUtils.escapeHtml(recipientName))
+				.replace(subscriptionIdPlaceholder, subscriber.getSubscriptionId());
 		return new SendRawEmailRequestBuilder()
 		.withSubject(subject)
-		.withBody(markdownDao.convertMarkdown(body, null), BodyType.HTML)
+		.withBody(body, BodyType.HTML)
 		.withSenderDisplayName("noreply")
 		.withRecipientEmail(subscriber.getNotificationEmail())
 		.build();
@@ -88,11 +110,15 @@ public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilde
 
 	@Override
 	public SendRawEmailRequest buildEmailForNonSubscriber(UserNotificationInfo user) throws ClientProtocolException, JSONException, IOException, HttpClientHelperException {
-		// build the email body
-		String body = buildRawBodyForNonSubscriber(user);
+		if (nonSubscriberHtml == null) {
+			nonSubscriberHtml = markdownDao.convertMarkdown(buildRawBodyForNonSubscriber(recipientNamePlaceholder), null);
+		}
+		// fill in the recipient
+		String recipientName = EmailUtils.getDisplayNameWithUsername(user.getFirstName(), user.getLastName(), user.getUsername());
+		String body = nonSubscriberHtml.replace(recipientNamePlaceholder, StringEscapeUtils.escapeHtml(recipientName));
 		return new SendRawEmailRequestBuilder()
 		.withSubject(subject)
-		.withBody(markdownDao.convertMarkdown(body, null), BodyType.HTML)
+		.withBody(body, BodyType.HTML)
 		.withSenderDisplayName("noreply")
 		.withRecipientEmail(user.getNotificationEmail())
 		.build();
@@ -104,8 +130,12 @@ public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilde
 	 * @return
 	 */
 	public String buildRawBodyForSubscriber(Subscriber subscriber){
-		StringBuilder sb = new StringBuilder();
 		String recipientName = EmailUtils.getDisplayNameWithUsername(subscriber.getFirstName(), subscriber.getLastName(), subscriber.getUsername());
+		return buildRawBodyForSubscriber(recipientName, subscriber.getSubscriptionId());
+	}
+
+	private String buildRawBodyForSubscriber(String recipientName, String subscriptionId){
+		StringBuilder sb = new StringBuilder();
 		sb.append(String.format(GREETING, recipientName));
 		sb.append(String.format(emailTemplate, actorUsername, actorUserId, threadTitleTruncated, projectId, threadId, projectName));
 		sb.append(markdown+"\n\n");
@@ -113,7 +143,7 @@ public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilde
 		if (broadcastTopic.getObjectType() != SubscriptionObjectType.THREAD) {
 			sb.append(String.format(SUBSCRIBE_THREAD, threadId));
 		}
-		sb.append(String.format(unsubscribe, subscriber.getSubscriptionId()));
+		sb.append(String.format(unsubscribe, subscriptionId));
 		return sb.toString();
 	}
 
@@ -123,8 +153,12 @@ public class DiscussionBroadcastMessageBuilder implements BroadcastMessageBuilde
 	 * @return
 	 */
 	public String buildRawBodyForNonSubscriber(UserNotificationInfo user){
-		StringBuilder sb = new StringBuilder();
 		String recipientName = EmailUtils.getDisplayNameWithUsername(user.getFirstName(), user.getLastName(), user.getUsername());
+		return buildRawBodyForNonSubscriber(recipientName);
+	}
+
+	private String buildRawBodyForNonSubscriber(String recipientName){
+		StringBuilder sb = new StringBuilder();
 		sb.append(String.format(GREETING, recipientName));
 		sb.append(String.format(emailTemplate, actorUsername, actorUserId, threadTitleTruncated, projectId, threadId, projectName));
 		sb.append(markdown+"\n\n");
@@ -1,14 +1,23 @@
 package org.sagebionetworks.repo.manager.message;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
 import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeMessages;
@@ -22,15 +31,21 @@ import org.sagebionetworks.schema.adapter.org.json.EntityFactory;
 import org.sagebionetworks.util.ValidateArgument;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
 import com.amazonaws.services.sns.AmazonSNSClient;
 import com.amazonaws.services.sns.model.CreateTopicRequest;
 import com.amazonaws.services.sns.model.CreateTopicResult;
 import com.amazonaws.services.sns.model.PublishRequest;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * The basic implementation of the RepositoryMessagePublisher.  This implementation will publish all messages to an AWS topic
  * where external subscribers can receive notification of changes to the repository.
+ * <p>
+ * Each time the timer fires, the queued change messages are grouped by object type and packed into batches.
+ * The batches of each type are published in order by a single task, while the tasks of different types run
+ * concurrently on the publish executor.
  * 
  * @author John
  *
@@ -40,13 +55,40 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 	public static final String SEMAPHORE_KEY = "UNSENT_MESSAGE_WORKER";
 	static private Log log = LogFactory.getLog(RepositoryMessagePublisherImpl.class);
 
+	public static final String METRIC_NAMESPACE = RepositoryMessagePublisherImpl.class.getName();
+	public static final String METRIC_QUEUE_DEPTH = "Queue depth";
+	public static final String METRIC_PUBLISH_LATENCY = "Publish latency";
+	public static final String METRIC_DROPPED_MESSAGES = "Dropped messages";
+	public static final String METRIC_FAILED_MESSAGES = "Failed messages";
+
+	/**
+	 * The default maximum number of messages waiting to be published.
+	 */
+	public static final int DEFAULT_MAX_QUEUE_SIZE = 100000;
+
 	@Autowired
 	TransactionalMessenger transactionalMessanger;
 
 	@Autowired
 	AmazonSNSClient awsSNSClient;
 	
+	@Autowired
+	Consumer consumer;
+	
 	private boolean shouldMessagesBePublishedToTopic;
+	
+	// Batches are published on this executor. Defaults to the calling thread.
+	private ExecutorService publishExecutor = MoreExecutors.sameThreadExecutor();
+	
+	private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+	
+	// The number of messages on the queue. ConcurrentLinkedQueue.size() is not constant time.
+	private final AtomicInteger queueDepth = new AtomicInteger(0);
+	
+	// Change messages not queued because the queue was full, since the last time metrics were sent.
+	private final AtomicLong droppedCount = new AtomicLong(0);
+	// Queued messages that failed to publish, since the last time metrics were sent.
+	private final AtomicLong failedCount = new AtomicLong(0);
 
 	// The prefix applied to each topic.
 	private final String topicPrefix;
@@ -55,9 +97,9 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 	private final String modificationTopicName;
 	
 	// Maps each object type to its topic
-	Map<ObjectType, TopicInfo> typeToTopicMap = new HashMap<ObjectType, TopicInfo>();;
+	Map<ObjectType, TopicInfo> typeToTopicMap = new ConcurrentHashMap<ObjectType, TopicInfo>();
 
-	private TopicInfo modificationTopic;
+	private volatile TopicInfo modificationTopic;
 
 	/**
 	 * This is injected from spring.
@@ -93,6 +135,34 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 		this.awsSNSClient = awsSNSClient;
 	}
 
+	/**
+	 * Used by tests to inject a mock consumer.
+	 * @param consumer
+	 */
+	public void setConsumer(Consumer consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Injected. The batches of each object type are published on this executor.
+	 * 
+	 * @param publishExecutor
+	 */
+	public void setPublishExecutor(ExecutorService publishExecutor) {
+		this.publishExecutor = publishExecutor;
+	}
+
+	/**
+	 * Injected. When this many messages are waiting to be published, new change messages are dropped.
+	 * Dropped change messages are never registered as sent, so they will be sent by the
+	 * ChangeSentMessageSynchWorker.
+	 * 
+	 * @param maxQueueSize
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
 
 	private ConcurrentLinkedQueue<Message> messageQueue = new ConcurrentLinkedQueue<Message>();
 
@@ -125,7 +195,13 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 		if(message.getObjectId()  == null) throw new IllegalArgumentException("ChangeMessage.getObjectId() cannot be null");
 		if(message.getObjectType()  == null) throw new IllegalArgumentException("ChangeMessage.getObjectType() cannot be null");
 		if(message.getTimestamp()  == null) throw new IllegalArgumentException("ChangeMessage.getTimestamp() cannot be null");
+		if(queueDepth.get() >= maxQueueSize){
+			// The synch worker will send this message.
+			droppedCount.incrementAndGet();
+			return;
+		}
 		// Add the message to a queue
+		queueDepth.incrementAndGet();
 		messageQueue.add(message);
 	}
 
@@ -138,6 +214,7 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 		ValidateArgument.required(message, "ModificationMessage");
 		ValidateArgument.required(message.getUserId(), "ModificationMessage.modificationInfo.userId");
 		// Add the message to a queue
+		queueDepth.incrementAndGet();
 		messageQueue.add(message);
 	}
 
@@ -165,23 +242,121 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 			}
 			return;
 		}
-		// Publish each message to the topic
+		long start = System.currentTimeMillis();
+		List<ChangeMessage> changes = new LinkedList<ChangeMessage>();
+		List<ModificationMessage> modifications = new LinkedList<ModificationMessage>();
 		for (Message queueItem : currentQueue) {
-			try {
-				if (queueItem instanceof ChangeMessage) {
-					ChangeMessage message = (ChangeMessage) queueItem;
-					publishToTopic(message);
-				} else if (queueItem instanceof ModificationMessage){
-					ModificationMessage message = (ModificationMessage) queueItem;
-					publishToModificationTopic(message);
-				} else {
-					throw new IllegalArgumentException("Unknown message type " + queueItem.getClass().getName());
+			if (queueItem instanceof ChangeMessage) {
+				changes.add((ChangeMessage) queueItem);
+			} else if (queueItem instanceof ModificationMessage){
+				modifications.add((ModificationMessage) queueItem);
+			} else {
+				log.error("Failed to publish message.", new IllegalArgumentException("Unknown message type " + queueItem.getClass().getName()));
+				failedCount.incrementAndGet();
+			}
+		}
+		List<Future<Integer>> futures = new LinkedList<Future<Integer>>();
+		// Each task publishes all of the batches of one type in order.
+		Map<ObjectType, List<List<ChangeMessage>>> groups = ChangeMessageUtils.groupByObjectTypeAndPartitionEachGroup(changes,
+				ChangeMessageUtils.MAX_NUMBER_OF_CHANGE_MESSAGES_PER_SQS_MESSAGE);
+		for (final Map.Entry<ObjectType, List<List<ChangeMessage>>> group : groups.entrySet()) {
+			futures.add(publishExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return publishBatches(group.getKey(), group.getValue());
+				}
+			}));
+		}
+		if (!modifications.isEmpty()) {
+			final List<ModificationMessage> toPublish = modifications;
+			futures.add(publishExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return publishModifications(toPublish);
 				}
+			}));
+		}
+		// Wait for all of the tasks to finish.
+		try {
+			for (Future<Integer> future : futures) {
+				try {
+					failedCount.addAndGet(future.get());
+				} catch (ExecutionException e) {
+					log.error("Failed to publish message.", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (Future<Integer> future : futures) {
+				future.cancel(true);
+			}
+		}
+		long elapse = System.currentTimeMillis() - start;
+		if (!currentQueue.isEmpty() || droppedCount.get() > 0) {
+			consumer.addProfileData(createMetric(METRIC_QUEUE_DEPTH, currentQueue.size(), StandardUnit.Count));
+			consumer.addProfileData(createMetric(METRIC_PUBLISH_LATENCY, elapse, StandardUnit.Milliseconds));
+			consumer.addProfileData(createMetric(METRIC_DROPPED_MESSAGES, droppedCount.getAndSet(0), StandardUnit.Count));
+			consumer.addProfileData(createMetric(METRIC_FAILED_MESSAGES, failedCount.getAndSet(0), StandardUnit.Count));
+		}
+	}
+
+	/**
+	 * Publish each batch of change messages of a single type in order.
+	 * 
+	 * @param type
+	 * @param batches
+	 * @return The number of messages that failed to publish.
+	 */
+	private int publishBatches(ObjectType type, List<List<ChangeMessage>> batches) {
+		int failed = 0;
+		for (List<ChangeMessage> batch : batches) {
+			try {
+				publishBatchToTopic(type, batch);
+			} catch (Throwable e) {
+				// If one batch fails, we must send the rest.
+				log.error("Failed to publish message.", e);
+				failed += batch.size();
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Publish each modification message.
+	 * 
+	 * @param modifications
+	 * @return The number of messages that failed to publish.
+	 */
+	private int publishModifications(List<ModificationMessage> modifications) {
+		int failed = 0;
+		for (ModificationMessage message : modifications) {
+			try {
+				publishToModificationTopic(message);
 			} catch (Throwable e) {
 				// If one messages fails, we must send the rest.
 				log.error("Failed to publish message.", e);
+				failed++;
 			}
 		}
+		return failed;
+	}
+
+	/**
+	 * Create a metric for this publisher.
+	 * 
+	 * @param name
+	 * @param value
+	 * @param unit
+	 * @return
+	 */
+	private static ProfileData createMetric(String name, long value, StandardUnit unit) {
+		ProfileData data = new ProfileData();
+		data.setNamespace(METRIC_NAMESPACE);
+		data.setName(name);
+		data.setValue((double) value);
+		data.setUnit(unit.name());
+		data.setTimestamp(new Date());
+		return data;
 	}
 	
 	/**
@@ -191,6 +366,7 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 	private List<Message> pollListFromQueue() {
 		List<Message> list = Lists.newLinkedList();
 		for (Message cm = this.messageQueue.poll(); cm != null; cm = this.messageQueue.poll()) {
+			queueDepth.decrementAndGet();
 			// Add to the list
 			list.add(cm);
 		}
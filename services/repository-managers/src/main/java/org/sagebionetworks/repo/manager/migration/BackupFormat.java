@@ -0,0 +1,49 @@
+package org.sagebionetworks.repo.manager.migration;
+
+/**
+ * The formats a backup batch can be written in. The format of each backup
+ * file is identified by its suffix.
+ *
+ */
+public enum BackupFormat {
+
+	/**
+	 * XStream XML of the backup objects. Used for types that cannot be
+	 * written in the binary format and to read older backups.
+	 */
+	XML(".xml"),
+	/**
+	 * Length-prefixed binary rows generated from the table mapping. See
+	 * BackupRowCodec.
+	 */
+	BINARY(".bin");
+
+	private String suffix;
+
+	BackupFormat(String suffix) {
+		this.suffix = suffix;
+	}
+
+	/**
+	 * The file name suffix of this format.
+	 * @return
+	 */
+	public String getSuffix() {
+		return suffix;
+	}
+
+	/**
+	 * Find the format of a file from its suffix.
+	 * @param fileName
+	 * @return
+	 */
+	public static BackupFormat fromFileName(String fileName) {
+		if (fileName == null) throw new IllegalArgumentException("File name cannot be null");
+		for (BackupFormat format : values()) {
+			if (fileName.endsWith(format.suffix)) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unknown backup file type: " + fileName);
+	}
+}
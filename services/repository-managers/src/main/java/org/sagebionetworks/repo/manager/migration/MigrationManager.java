@@ -1,11 +1,14 @@
 package org.sagebionetworks.repo.manager.migration;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.List;
 
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
@@ -68,6 +71,35 @@ public interface MigrationManager {
 	 */
 	public List<Long> createOrUpdateBatch(UserInfo user, MigrationType type, InputStream in) throws Exception;
 	
+	/**
+	 * The format that backups of the given type are written in.
+	 * @param type
+	 * @return
+	 */
+	public BackupFormat getBackupFormat(MigrationType type);
+	
+	/**
+	 * Write a batch of objects to a stream in the binary backup format. The
+	 * rows are read and written one backup batch at a time.
+	 * @param user
+	 * @param type Must have a BINARY {@link #getBackupFormat(MigrationType)}.
+	 * @param rowIds
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeBackupBatch(UserInfo user, MigrationType type, List<Long> rowIds, OutputStream out) throws IOException;
+	
+	/**
+	 * Create or update a batch read from a stream in the given format.
+	 * @param user
+	 * @param type
+	 * @param in
+	 * @param format
+	 * @return
+	 * @throws Exception
+	 */
+	public List<Long> createOrUpdateBatch(UserInfo user, MigrationType type, InputStream in, BackupFormat format) throws Exception;
+	
 	/**
 	 * Delete objects by their IDs
 	 * @param type
@@ -120,6 +152,20 @@ public interface MigrationManager {
 	public MigrationRangeChecksum getChecksumForIdRange(UserInfo user, MigrationType type,
 			String salt, long minId, long maxId);
 	
+	/**
+	 * The checksums of each non-empty bucket of bucketSize ids in a range of ids.
+	 * 
+	 * @param user
+	 * @param type
+	 * @param salt
+	 * @param minId
+	 * @param maxId
+	 * @param bucketSize
+	 * @return
+	 */
+	public MigrationRangeChecksumList getBucketChecksumsForIdRange(UserInfo user, MigrationType type,
+			String salt, long minId, long maxId, long bucketSize);
+	
 	public MigrationTypeChecksum getChecksumForType(UserInfo user, MigrationType type);
 	
 	public RowMetadataResult getRowMetadataByRangeForType(UserInfo user, MigrationType type, long minId, long maxId, long limit, long offset);
@@ -1,8 +1,14 @@
 package org.sagebionetworks.repo.manager.migration;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -15,10 +21,12 @@ import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.MigratableDatabaseObject;
+import org.sagebionetworks.repo.model.dbo.migration.BackupRowCodec;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableDAO;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableTranslation;
 import org.sagebionetworks.repo.model.migration.ListBucketProvider;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
@@ -54,6 +62,11 @@ public class MigrationManagerImpl implements MigrationManager {
 	 * The maximum size of a backup batch.
 	 */
 	int backupBatchMax = 500;
+	
+	/**
+	 * Should types that support it be written in the binary backup format?
+	 */
+	boolean binaryBackupEnabled = true;
 
 	/**
 	 * Used for unit testing.
@@ -79,6 +92,15 @@ public class MigrationManagerImpl implements MigrationManager {
 	public void setBackupBatchMax(Integer backupBatchMax) {
 		this.backupBatchMax = backupBatchMax;
 	}
+	
+	/**
+	 * Injected via Spring. When false all backups are written as XML.
+	 * Both formats can always be read.
+	 * @param binaryBackupEnabled
+	 */
+	public void setBinaryBackupEnabled(boolean binaryBackupEnabled) {
+		this.binaryBackupEnabled = binaryBackupEnabled;
+	}
 
 	@Override
 	public long getCount(UserInfo user, MigrationType type) {
@@ -153,6 +175,50 @@ public class MigrationManagerImpl implements MigrationManager {
 		});
 	}
 
+	@Override
+	public BackupFormat getBackupFormat(MigrationType type) {
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		if(!binaryBackupEnabled){
+			return BackupFormat.XML;
+		}
+		MigratableDatabaseObject mdo = migratableTableDao.getObjectForType(type);
+		// The binary format holds database objects so the backup object must be the same class.
+		if(migratableTableDao.getBackupRowCodec(type) != null
+				&& mdo.getBackupClass().equals(mdo.getDatabaseObjectClass())){
+			return BackupFormat.BINARY;
+		}
+		return BackupFormat.XML;
+	}
+
+	@WriteTransaction
+	@SuppressWarnings("unchecked")
+	@Override
+	public void writeBackupBatch(UserInfo user, MigrationType type, List<Long> rowIds, OutputStream out) throws IOException {
+		validateUser(user);
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		if(getBackupFormat(type) != BackupFormat.BINARY) throw new IllegalArgumentException("Type cannot be written in the binary format: "+type);
+		MigratableDatabaseObject mdo = migratableTableDao.getObjectForType(type);
+		writeBinaryBackupBatch(mdo, type, rowIds, out);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Long> createOrUpdateBatch(UserInfo user, final MigrationType type, final InputStream in, BackupFormat format) throws Exception {
+		if(format == null) throw new IllegalArgumentException("Format cannot be null");
+		if(BackupFormat.XML.equals(format)){
+			return createOrUpdateBatch(user, type, in);
+		}
+		validateUser(user);
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		return migratableTableDao.runWithForeignKeyIgnored(new Callable<List<Long>>(){
+			@Override
+			public List<Long> call() throws Exception {
+				MigratableDatabaseObject mdo = migratableTableDao.getObjectForType(type);
+				return createOrUpdateBinaryBatch(mdo, type, in);
+			}
+		});
+	}
+
 	@WriteTransaction
 	@Override
 	public int deleteObjectsById(final UserInfo user, final MigrationType type, final List<Long> idList) throws Exception {
@@ -287,6 +353,64 @@ public class MigrationManagerImpl implements MigrationManager {
 
 	}
 
+	/**
+	 * Write the rows in the binary format, reading them from the database one
+	 * backup batch at a time so only a single batch is held in memory.
+	 * @param mdo
+	 * @param type
+	 * @param rowIds
+	 * @param out
+	 * @throws IOException
+	 */
+	protected <D extends DatabaseObject<D>> void writeBinaryBackupBatch(MigratableDatabaseObject<D, D> mdo, MigrationType type,
+			List<Long> rowIds, OutputStream out) throws IOException {
+		BackupRowCodec<D> codec = migratableTableDao.getBackupRowCodec(type);
+		MigratableTableTranslation<D, D> translator = mdo.getTranslator();
+		// The caller owns the stream so it is flushed but not closed.
+		DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+		codec.writeHeader(dataOut);
+		for(int start=0; start<rowIds.size(); start+=backupBatchMax){
+			List<Long> batch = rowIds.subList(start, Math.min(start+backupBatchMax, rowIds.size()));
+			for(D dbo: migratableTableDao.getBackupBatch(mdo.getDatabaseObjectClass(), batch)){
+				codec.writeRow(dataOut, translator.createBackupFromDatabaseObject(dbo));
+			}
+		}
+		codec.writeEnd(dataOut);
+		dataOut.flush();
+	}
+
+	/**
+	 * Read rows in the binary format and create or update them one backup
+	 * batch at a time.
+	 * @param mdo
+	 * @param type
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private <D extends DatabaseObject<D>> List<Long> createOrUpdateBinaryBatch(MigratableDatabaseObject<D, D> mdo, MigrationType type, InputStream in) throws IOException{
+		BackupRowCodec<D> codec = migratableTableDao.getBackupRowCodec(type);
+		if(codec == null) throw new IllegalArgumentException("Type cannot be read in the binary format: "+type);
+		MigratableTableTranslation<D, D> translator = mdo.getTranslator();
+		BackupRowCodec<D>.Reader reader = codec.openReader(new DataInputStream(new BufferedInputStream(in)));
+		List<Long> results = new LinkedList<Long>();
+		List<D> databaseList = new ArrayList<D>(backupBatchMax);
+		D backup;
+		while((backup = reader.next()) != null){
+			databaseList.add(translator.createDatabaseObjectFromBackup(backup));
+			if(databaseList.size() >= backupBatchMax){
+				results.addAll(migratableTableDao.createOrUpdateBatch(databaseList));
+				fireCreateOrUpdateBatchEvent(type, databaseList);
+				databaseList = new ArrayList<D>(backupBatchMax);
+			}
+		}
+		if(!databaseList.isEmpty()){
+			results.addAll(migratableTableDao.createOrUpdateBatch(databaseList));
+			fireCreateOrUpdateBatchEvent(type, databaseList);
+		}
+		return results;
+	}
+
 	/**
 	 * Fire a create or update event for a given migration type.
 	 * @param type
@@ -414,6 +538,20 @@ public class MigrationManagerImpl implements MigrationManager {
 		return mrc;
 	}
 	
+	@Override
+	public MigrationRangeChecksumList getBucketChecksumsForIdRange(UserInfo user, MigrationType type,
+			String salt, long minId, long maxId, long bucketSize) {
+		validateUser(user);
+		List<MigrationRangeChecksum> buckets = migratableTableDao.getBucketChecksumsForIdRange(type, salt, minId, maxId, bucketSize);
+		MigrationRangeChecksumList list = new MigrationRangeChecksumList();
+		list.setType(type);
+		list.setMinid(minId);
+		list.setMaxid(maxId);
+		list.setBucketSize(bucketSize);
+		list.setList(buckets);
+		return list;
+	}
+	
 	@Override
 	public MigrationTypeChecksum getChecksumForType(UserInfo user, MigrationType type) {
 		if (stackStatusDao.getCurrentStatus() == StatusEnum.READ_WRITE) { 
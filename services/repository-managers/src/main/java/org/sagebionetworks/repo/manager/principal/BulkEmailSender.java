@@ -0,0 +1,31 @@
+package org.sagebionetworks.repo.manager.principal;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+
+import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
+
+/**
+ * Sends a batch of emails concurrently, at a rate that stays within the
+ * sending quota of Amazon SES.
+ *
+ */
+public interface BulkEmailSender {
+
+	/**
+	 * Send each of the given emails and wait for all of them to finish.
+	 * Progress is reported while waiting.
+	 *
+	 * @param progressCallback
+	 * @param emails
+	 *            The emails to send keyed by the ID of their recipient.
+	 * @return The IDs of the recipients whose email could not be sent because
+	 *         of a temporary failure, such as exceeding the quota. An email
+	 *         rejected by SES is logged rather than returned since sending it
+	 *         again would not help.
+	 */
+	public Set<Long> sendEmails(ProgressCallback<Void> progressCallback, Map<Long, SendRawEmailRequest> emails);
+
+}
@@ -0,0 +1,215 @@
+package org.sagebionetworks.repo.manager.principal;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.util.Clock;
+import org.sagebionetworks.util.ValidateArgument;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaResult;
+import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
+
+/**
+ * Emails are sent by a shared thread pool. Each send first takes the next
+ * free slot of a schedule spaced by the send rate, which is the configured
+ * maximum or the maximum send rate of the SES account, whichever is lower.
+ * The SES quota is read again every few minutes. A throttled or failed send
+ * is retried a few times with a growing delay.
+ * <p>
+ * The rate is per machine, so the configured maximum should leave room for
+ * the other machines and for the rest of the email sent by Synapse.
+ */
+public class BulkEmailSenderImpl implements BulkEmailSender {
+
+	static private Log log = LogFactory.getLog(BulkEmailSenderImpl.class);
+
+	/**
+	 * The error code of SES when the send rate or daily quota is exceeded.
+	 */
+	public static final String THROTTLING_ERROR_CODE = "Throttling";
+	public static final int MAX_ATTEMPTS = 3;
+	public static final long RETRY_DELAY_MS = 1000;
+	public static final long PROGRESS_FREQUENCY_MS = 2000;
+	public static final long QUOTA_CHECK_FREQUENCY_MS = 1000 * 60 * 10;
+
+	@Autowired
+	private SynapseEmailService sesClient;
+	@Autowired
+	private Clock clock;
+
+	/*
+	 * Injected (IoC).
+	 */
+	private ExecutorService executor;
+	private double maxSendsPerSecond;
+
+	// The schedule of sends, guarded by this.
+	private double sendsPerSecond;
+	private long nextSendTime = 0;
+	private Long quotaCheckedOn = null;
+
+	@Override
+	public Set<Long> sendEmails(ProgressCallback<Void> progressCallback, Map<Long, SendRawEmailRequest> emails) {
+		ValidateArgument.required(progressCallback, "progressCallback");
+		ValidateArgument.required(emails, "emails");
+		Map<Long, Future<Boolean>> results = new LinkedHashMap<Long, Future<Boolean>>(emails.size());
+		for (final Map.Entry<Long, SendRawEmailRequest> email : emails.entrySet()) {
+			results.put(email.getKey(), executor.submit(new Callable<Boolean>() {
+
+				@Override
+				public Boolean call() throws Exception {
+					return send(email.getValue());
+				}
+			}));
+		}
+		Set<Long> failed = new HashSet<Long>();
+		for (Map.Entry<Long, Future<Boolean>> result : results.entrySet()) {
+			if (!waitForResult(progressCallback, result.getValue())) {
+				failed.add(result.getKey());
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Wait for a single send, reporting progress while waiting.
+	 *
+	 * @return True if the email was sent or rejected, false if it should be
+	 *         sent again later.
+	 */
+	private boolean waitForResult(ProgressCallback<Void> progressCallback, Future<Boolean> result) {
+		while (true) {
+			try {
+				return result.get(PROGRESS_FREQUENCY_MS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				progressCallback.progressMade(null);
+			} catch (ExecutionException e) {
+				log.error("Failed to send an email: " + e.getCause().getMessage(), e.getCause());
+				return false;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Send a single email, retrying temporary failures.
+	 *
+	 * @return True if the email was sent or rejected, false if it should be
+	 *         sent again later.
+	 * @throws InterruptedException
+	 */
+	boolean send(SendRawEmailRequest email) throws InterruptedException {
+		for (int attempt = 1;; attempt++) {
+			waitForNextSend();
+			try {
+				sesClient.sendRawEmail(email);
+				return true;
+			} catch (AmazonServiceException e) {
+				if (!isTemporary(e)) {
+					log.error("Email to " + email.getDestinations() + " was rejected: " + e.getMessage());
+					return true;
+				}
+				if (attempt >= MAX_ATTEMPTS) {
+					log.warn("Gave up sending an email after " + attempt + " attempts: " + e.getMessage());
+					return false;
+				}
+			} catch (AmazonClientException e) {
+				if (attempt >= MAX_ATTEMPTS) {
+					log.warn("Gave up sending an email after " + attempt + " attempts: " + e.getMessage());
+					return false;
+				}
+			}
+			clock.sleep(RETRY_DELAY_MS << (attempt - 1));
+		}
+	}
+
+	/**
+	 * Is the given failure temporary, such that the same email might be
+	 * sent later?
+	 *
+	 * @param e
+	 * @return
+	 */
+	public static boolean isTemporary(AmazonServiceException e) {
+		return THROTTLING_ERROR_CODE.equals(e.getErrorCode()) || e.getErrorType() == ErrorType.Service;
+	}
+
+	/**
+	 * Block until the next free slot of the send schedule.
+	 *
+	 * @throws InterruptedException
+	 */
+	private void waitForNextSend() throws InterruptedException {
+		long waitMs;
+		synchronized (this) {
+			long now = clock.currentTimeMillis();
+			if (quotaCheckedOn == null || now - quotaCheckedOn >= QUOTA_CHECK_FREQUENCY_MS) {
+				sendsPerSecond = getSendsPerSecond();
+				quotaCheckedOn = now;
+			}
+			long sendTime = Math.max(now, nextSendTime);
+			nextSendTime = sendTime + (long) Math.ceil(1000 / sendsPerSecond);
+			waitMs = sendTime - now;
+		}
+		if (waitMs > 0) {
+			clock.sleep(waitMs);
+		}
+	}
+
+	/**
+	 * The configured maximum send rate, lowered to the maximum send rate of
+	 * the SES account.
+	 *
+	 * @return
+	 */
+	private double getSendsPerSecond() {
+		double rate = maxSendsPerSecond;
+		try {
+			GetSendQuotaResult quota = sesClient.getSendQuota();
+			if (quota.getMaxSendRate() != null && quota.getMaxSendRate() > 0) {
+				rate = Math.min(rate, quota.getMaxSendRate());
+			}
+		} catch (AmazonClientException e) {
+			log.warn("Could not read the SES send quota, using " + rate + " emails per second: " + e.getMessage());
+		}
+		return rate;
+	}
+
+	/**
+	 * IoC.
+	 *
+	 * @param executor
+	 *            The thread pool that sends the emails.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * IoC.
+	 *
+	 * @param maxSendsPerSecond
+	 */
+	public void setMaxSendsPerSecond(double maxSendsPerSecond) {
+		ValidateArgument.requirement(maxSendsPerSecond > 0, "maxSendsPerSecond must be greater than zero.");
+		this.maxSendsPerSecond = maxSendsPerSecond;
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.sagebionetworks.repo.manager.principal;
 
+import com.amazonaws.services.simpleemail.model.GetSendQuotaResult;
 import com.amazonaws.services.simpleemail.model.SendEmailRequest;
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 
@@ -9,4 +10,11 @@ public interface SynapseEmailService {
 
 	public void sendRawEmail(SendRawEmailRequest sendRawEmailRequest);
 
+	/**
+	 * The sending limits of this account, as reported by Amazon SES.
+	 * 
+	 * @return
+	 */
+	public GetSendQuotaResult getSendQuota();
+
 }
@@ -16,6 +16,7 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
 import com.amazonaws.services.simpleemail.model.Content;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaResult;
 import com.amazonaws.services.simpleemail.model.SendEmailRequest;
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 import com.amazonaws.util.StringInputStream;
@@ -56,6 +57,11 @@ public class SynapseEmailServiceImpl implements SynapseEmailService {
 		}
 	}
 
+	@Override
+	public GetSendQuotaResult getSendQuota() {
+		return amazonSESClient.getSendQuota();
+	}
+
 	public void writeToFile(SendEmailRequest emailRequest) {
 		String to = emailRequest.getDestination().getToAddresses().get(0);
 		String body = null;
@@ -1,6 +1,7 @@
 package org.sagebionetworks.repo.manager.search;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.DatastoreException;
@@ -33,6 +34,18 @@ public interface SearchDocumentDriver {
 	 * @throws IOException TODO
 	 */
 	public Document formulateSearchDocument(String nodeId) throws DatastoreException, NotFoundException, IOException;
+	
+	/**
+	 * Create the search documents for a batch of nodes. The nodes, annotations,
+	 * benefactor ACLs and entity paths are read for the whole batch at once.
+	 * 
+	 * @param nodeIds
+	 * @return The documents of the nodes that exist. Nodes that do not exist
+	 *         are skipped.
+	 * @throws DatastoreException
+	 * @throws IOException
+	 */
+	public List<Document> formulateSearchDocuments(List<String> nodeIds) throws DatastoreException, IOException;
 	/**
 	 * Create a search document and return it.
 	 * 
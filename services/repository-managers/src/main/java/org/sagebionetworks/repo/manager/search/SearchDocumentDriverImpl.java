@@ -7,9 +7,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,6 +32,7 @@ import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.ResourceAccess;
 import org.sagebionetworks.repo.model.dao.WikiPageKey;
 import org.sagebionetworks.repo.model.dao.WikiPageKeyHelper;
+import org.sagebionetworks.repo.model.jdo.KeyFactory;
 import org.sagebionetworks.repo.model.search.Document;
 import org.sagebionetworks.repo.model.search.DocumentFields;
 import org.sagebionetworks.repo.model.search.DocumentTypeNames;
@@ -381,6 +385,55 @@ public class SearchDocumentDriverImpl implements SearchDocumentDriver {
 		return formulateFromBackup(node);
 	}
 
+	@Override
+	public List<Document> formulateSearchDocuments(List<String> nodeIds)
+			throws DatastoreException, IOException {
+		if (nodeIds == null)
+			throw new IllegalArgumentException("NodeIds cannot be null");
+		List<Document> results = new LinkedList<Document>();
+		List<Long> ids = KeyFactory.stringToKey(nodeIds);
+		List<Node> nodes = nodeDao.getNodes(ids);
+		if (nodes.isEmpty()) {
+			return results;
+		}
+		Map<String, NamedAnnotations> annotations = new HashMap<String, NamedAnnotations>();
+		for (NamedAnnotations annos : nodeDao.getAnnotations(ids)) {
+			annotations.put(annos.getId(), annos);
+		}
+		Map<Long, List<EntityHeader>> paths = nodeDao.getEntityPaths(ids);
+		// Each node uses the ACL of its benefactor
+		Map<Long, Long> benefactors = new HashMap<Long, Long>();
+		Set<Long> benefactorIds = new LinkedHashSet<Long>();
+		for (EntityHeader header : nodeDao.getEntityHeader(new HashSet<Long>(ids))) {
+			benefactors.put(KeyFactory.stringToKey(header.getId()), header.getBenefactorId());
+			benefactorIds.add(header.getBenefactorId());
+		}
+		List<Long> aclIds = aclDAO.getAclIds(new LinkedList<Long>(benefactorIds), ObjectType.ENTITY);
+		Map<Long, AccessControlList> acls = new HashMap<Long, AccessControlList>();
+		for (AccessControlList acl : aclDAO.get(aclIds)) {
+			acls.put(KeyFactory.stringToKey(acl.getId()), acl);
+		}
+		for (Node node : nodes) {
+			Long id = KeyFactory.stringToKey(node.getId());
+			NamedAnnotations annos = annotations.get(node.getId());
+			AccessControlList acl = acls.get(benefactors.get(id));
+			if (annos == null || acl == null) {
+				// The node was deleted or moved while the batch was read.
+				log.debug("Skipping search document for node: " + node.getId());
+				continue;
+			}
+			EntityPath entityPath = new EntityPath();
+			entityPath.setPath(paths.get(id));
+			String wikiPagesText = getAllWikiPageText(node.getId());
+			try {
+				results.add(formulateSearchDocument(node, annos, acl, entityPath, wikiPagesText));
+			} catch (NotFoundException e) {
+				log.debug("Skipping search document for node: " + node.getId() + " Message:" + e.getMessage());
+			}
+		}
+		return results;
+	}
+
 	@Override
 	public boolean doesDocumentExist(String nodeId, String etag) {
 		if (nodeId == null)
@@ -413,18 +466,25 @@ public class SearchDocumentDriverImpl implements SearchDocumentDriver {
 			if (wikiHeaders == null)
 				return null;
 			// For each header get the wikipage
-			StringBuilder builder = new StringBuilder();
+			List<V2WikiPage> pages = new ArrayList<V2WikiPage>(wikiHeaders.size());
+			List<String> markdownFileHandleIds = new ArrayList<String>(wikiHeaders.size());
 			for (V2WikiHeader header : wikiHeaders) {
 				WikiPageKey key = WikiPageKeyHelper.createWikiPageKey(nodeId, ObjectType.ENTITY, header.getId());
 				V2WikiPage page = wikiPageDao.get(key, null);
+				pages.add(page);
+				markdownFileHandleIds.add(page.getMarkdownFileHandleId());
+			}
+			// The markdown of all pages is read together.
+			Map<String, String> markdown = wikiPageDao.getMarkdownForFileHandles(markdownFileHandleIds);
+			StringBuilder builder = new StringBuilder();
+			for (V2WikiPage page : pages) {
 				// Append the title and markdown
 				if (page.getTitle() != null) {
 					builder.append("\n");
 					builder.append(page.getTitle());
 				}
-				String markdownString = wikiPageDao.getMarkdown(key, null);
 				builder.append("\n");
-				builder.append(markdownString);
+				builder.append(markdown.get(page.getMarkdownFileHandleId()));
 			}
 			return builder.toString();
 		} catch (NotFoundException e) {
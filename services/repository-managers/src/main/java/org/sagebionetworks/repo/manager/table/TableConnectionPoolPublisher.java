@@ -0,0 +1,72 @@
+package org.sagebionetworks.repo.manager.table;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sagebionetworks.StackConfiguration;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.table.cluster.ConnectionFactory;
+import org.sagebionetworks.table.cluster.ConnectionPoolStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * Sends the load of each connection pool of the table's cluster to
+ * CloudWatch. Each JVM has its own pools, so the load is sent by a timer on
+ * each repository and worker machine. The metrics of a database are summed
+ * over the machines by CloudWatch.
+ *
+ */
+public class TableConnectionPoolPublisher {
+
+	public static final String ACTIVE_CONNECTIONS = "active connections";
+	public static final String IDLE_CONNECTIONS = "idle connections";
+	public static final String MAX_CONNECTIONS = "max connections";
+	public static final String CONNECTION_REQUESTS = "connection requests";
+	public static final String DIMENSION_INSTANCE = "instance";
+	public static final String DIMENSION_REPLICA = "replica";
+
+	static final String METRIC_NAMESPACE = TableConnectionPoolPublisher.class.getName()+" - "+ StackConfiguration.getStackInstance();
+
+	@Autowired
+	ConnectionFactory tableConnectionFactory;
+	@Autowired
+	Consumer consumer;
+
+	/**
+	 * Called by the timer.
+	 */
+	public void timerFired() {
+		for(ConnectionPoolStatistics stats: tableConnectionFactory.getConnectionPoolStatistics()){
+			consumer.addProfileData(createMetric(ACTIVE_CONNECTIONS, stats.getActiveConnections(), stats));
+			consumer.addProfileData(createMetric(IDLE_CONNECTIONS, stats.getIdleConnections(), stats));
+			consumer.addProfileData(createMetric(MAX_CONNECTIONS, stats.getMaxConnections(), stats));
+			consumer.addProfileData(createMetric(CONNECTION_REQUESTS, stats.getConnectionRequests(), stats));
+		}
+	}
+
+	/**
+	 * Create a metric for the given connection pool.
+	 *
+	 * @param name
+	 * @param value
+	 * @param stats
+	 * @return
+	 */
+	static ProfileData createMetric(String name, long value, ConnectionPoolStatistics stats){
+		ProfileData data = new ProfileData();
+		data.setNamespace(METRIC_NAMESPACE);
+		data.setName(name);
+		data.setValue((double)value);
+		data.setUnit(StandardUnit.Count.name());
+		data.setTimestamp(new Date());
+		Map<String, String> dimension = new HashMap<String, String>();
+		dimension.put(DIMENSION_INSTANCE, Integer.toString(stats.getInstanceIndex()));
+		dimension.put(DIMENSION_REPLICA, Boolean.toString(stats.isReplica()));
+		data.setDimension(dimension);
+		return data;
+	}
+}
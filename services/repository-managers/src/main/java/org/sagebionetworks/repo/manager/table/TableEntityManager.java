@@ -7,6 +7,7 @@ import java.util.Set;
 
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.dao.table.ChangeSetReader;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.table.ColumnChange;
 import org.sagebionetworks.repo.model.table.ColumnChangeDetails;
@@ -120,6 +121,16 @@ public interface TableEntityManager {
 	 */
 	public RowSet getRowSet(String tableId, Long rowVersion, List<ColumnModel> columns)
 			throws IOException, NotFoundException;
+
+	/**
+	 * Open a reader that fetches the given row change sets ahead of the
+	 * caller. The caller must close the reader.
+	 * 
+	 * @param changes
+	 *            Row change sets in the order they will be read.
+	 * @return
+	 */
+	public ChangeSetReader openChangeSetReader(List<TableRowChange> changes);
 	
 	/**
 	 * Get the schema change for a given version.
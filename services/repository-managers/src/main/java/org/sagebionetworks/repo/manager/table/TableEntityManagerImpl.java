@@ -22,6 +22,7 @@ import org.sagebionetworks.repo.model.StackStatusDao;
 import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.dao.FileHandleDao;
+import org.sagebionetworks.repo.model.dao.table.ChangeSetReader;
 import org.sagebionetworks.repo.model.dao.table.RowAccessor;
 import org.sagebionetworks.repo.model.dao.table.RowSetAccessor;
 import org.sagebionetworks.repo.model.dao.table.TableRowTruthDAO;
@@ -398,6 +399,11 @@ public class TableEntityManagerImpl implements TableEntityManager {
 		return tableRowTruthDao.getRowSet(tableId, rowVersion, columns);
 	}
 
+	@Override
+	public ChangeSetReader openChangeSetReader(List<TableRowChange> changes) {
+		return tableRowTruthDao.openChangeSetReader(changes);
+	}
+
 	@Override
 	public TableRowChange getLastTableRowChange(String tableId) throws IOException, NotFoundException {
 		return tableRowTruthDao.getLastTableRowChange(tableId);
@@ -0,0 +1,37 @@
+package org.sagebionetworks.repo.manager.table;
+
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.table.cluster.TableIndexMove;
+
+/**
+ * Moves table indexes between the databases of the table's cluster, for
+ * example after a database joined the cluster. A table's index remains
+ * available for queries while it is being moved.
+ *
+ */
+public interface TableIndexMoveManager {
+
+	/**
+	 * Move each table index that is not stored in the database where it
+	 * belongs. Tables that are locked are skipped and will be moved by a later
+	 * call.
+	 *
+	 * @param progressCallback
+	 * @return The number of indexes that were moved, failed and are still
+	 *         pending.
+	 */
+	TableIndexMoveResults moveTableIndexes(ProgressCallback<Void> progressCallback);
+
+	/**
+	 * Move a single table index while holding the table's non-exclusive lock.
+	 * The index status is written to the destination last, so the index is
+	 * served by the source until the copy is complete. The source is then
+	 * deleted while holding the table's exclusive lock.
+	 *
+	 * @param progressCallback
+	 * @param move
+	 * @throws Exception
+	 *             LockUnavilableException if the table is locked.
+	 */
+	void moveTableIndex(ProgressCallback<Void> progressCallback, TableIndexMove move) throws Exception;
+}
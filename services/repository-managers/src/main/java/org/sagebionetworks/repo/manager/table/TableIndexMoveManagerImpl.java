@@ -0,0 +1,141 @@
+package org.sagebionetworks.repo.manager.table;
+
+import static org.sagebionetworks.repo.model.table.TableConstants.ROW_ID;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.common.util.progress.ProgressingCallable;
+import org.sagebionetworks.table.cluster.ConnectionFactory;
+import org.sagebionetworks.table.cluster.TableIndexDAO;
+import org.sagebionetworks.table.cluster.TableIndexMove;
+import org.sagebionetworks.util.Clock;
+import org.sagebionetworks.workers.util.semaphore.LockUnavilableException;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class TableIndexMoveManagerImpl implements TableIndexMoveManager {
+
+	static private Logger log = LogManager.getLogger(TableIndexMoveManagerImpl.class);
+
+	public static final int LOCK_TIMEOUT_SEC = 60;
+	/**
+	 * The number of rows or file handle IDs copied at a time.
+	 */
+	public static final long PAGE_SIZE = 1000L;
+
+	@Autowired
+	ConnectionFactory tableConnectionFactory;
+	@Autowired
+	TableManagerSupport tableManagerSupport;
+	@Autowired
+	Clock clock;
+
+	@Override
+	public TableIndexMoveResults moveTableIndexes(ProgressCallback<Void> progressCallback) {
+		List<TableIndexMove> moves = tableConnectionFactory.getTableIndexMoves();
+		int moved = 0;
+		int failed = 0;
+		for(TableIndexMove move: moves){
+			try {
+				moveTableIndex(progressCallback, move);
+				moved++;
+			} catch (LockUnavilableException e) {
+				// The table is being updated so try again later.
+				log.info("Table is locked, the index will be moved later: "+move.getTableId());
+			} catch (Exception e) {
+				// A failure to move one table must not stop the others.
+				failed++;
+				log.error("Failed to move the index of table: "+move.getTableId(), e);
+			}
+		}
+		// Every move that did not complete is still pending.
+		return new TableIndexMoveResults(moved, failed, moves.size()-moved);
+	}
+
+	@Override
+	public void moveTableIndex(ProgressCallback<Void> progressCallback, final TableIndexMove move) throws Exception {
+		final String tableId = move.getTableId();
+		// Queries can continue while the index is copied but the index cannot be changed.
+		tableManagerSupport.tryRunWithTableNonexclusiveLock(progressCallback, tableId, LOCK_TIMEOUT_SEC, new ProgressingCallable<Void, Void>() {
+
+			@Override
+			public Void call(ProgressCallback<Void> callback) throws Exception {
+				if(!move.getDestination().doesIndexStatusExist(tableId)){
+					copyTableIndex(callback, tableId, move.getSource(), move.getDestination());
+					tableConnectionFactory.tableIndexMoved(tableId);
+					/*
+					 * Other machines can still route the table to the source until their
+					 * check of the destination expires. The index must not be changed until
+					 * then, so the lock is held while waiting.
+					 */
+					callback.progressMade(null);
+					clock.sleep(ConnectionFactory.UNMOVED_TABLE_EXPIRATION_MS);
+				}
+				return null;
+			}
+		});
+		// The destination now serves the index so the source can be deleted.
+		tableManagerSupport.tryRunWithTableExclusiveLock(progressCallback, tableId, LOCK_TIMEOUT_SEC, new ProgressingCallable<Void, Void>() {
+
+			@Override
+			public Void call(ProgressCallback<Void> callback) throws Exception {
+				move.getSource().deleteTable(tableId);
+				move.getSource().deleteSecondayTables(tableId);
+				return null;
+			}
+		});
+		log.info("Moved the index of table: "+tableId);
+	}
+
+	/**
+	 * Copy a table's index from the source to the destination. The rows are
+	 * copied to a temporary table first. The status of the index is written
+	 * last, since the connection factory uses the status to decide that the
+	 * destination serves the index.
+	 *
+	 * @param callback
+	 * @param tableId
+	 * @param source
+	 * @param destination
+	 */
+	void copyTableIndex(ProgressCallback<Void> callback, String tableId, TableIndexDAO source, TableIndexDAO destination) {
+		Long rowCount = source.getRowCountForTable(tableId);
+		if(rowCount != null){
+			// The source has an index table.
+			destination.deleteTemporaryTable(tableId);
+			destination.createTemporaryTable(tableId, source.getTableDefinition(tableId));
+			long lastRowId = -1L;
+			List<Map<String, Object>> rows = source.getRowsAfter(tableId, lastRowId, PAGE_SIZE);
+			while(!rows.isEmpty()){
+				callback.progressMade(null);
+				destination.addRowsToTemporaryTable(tableId, rows);
+				lastRowId = ((Number) rows.get(rows.size()-1).get(ROW_ID)).longValue();
+				rows = source.getRowsAfter(tableId, lastRowId, PAGE_SIZE);
+			}
+			long copied = destination.getTempTableCount(tableId);
+			if(copied != rowCount){
+				destination.deleteTemporaryTable(tableId);
+				throw new IllegalStateException("Copied "+copied+" of "+rowCount+" rows of table: "+tableId);
+			}
+		}
+		destination.createSecondaryTables(tableId);
+		long lastFileHandleId = -1L;
+		List<Long> fileHandleIds = source.getFileHandleIdsAfter(tableId, lastFileHandleId, PAGE_SIZE);
+		while(!fileHandleIds.isEmpty()){
+			callback.progressMade(null);
+			destination.applyFileHandleIdsToTable(tableId, new HashSet<Long>(fileHandleIds));
+			lastFileHandleId = fileHandleIds.get(fileHandleIds.size()-1);
+			fileHandleIds = source.getFileHandleIdsAfter(tableId, lastFileHandleId, PAGE_SIZE);
+		}
+		if(rowCount != null){
+			destination.replaceTableWithTemporaryTable(tableId);
+		}
+		// Last, the destination starts to serve the index.
+		destination.setIndexVersionAndSchemaMD5Hex(tableId, source.getMaxCurrentCompleteVersionForTable(tableId), source.getCurrentSchemaMD5Hex(tableId));
+	}
+
+}
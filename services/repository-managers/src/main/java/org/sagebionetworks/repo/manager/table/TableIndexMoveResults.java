@@ -0,0 +1,58 @@
+package org.sagebionetworks.repo.manager.table;
+
+/**
+ * The outcome of a single pass over the table indexes that must be moved.
+ *
+ */
+public class TableIndexMoveResults {
+
+	private final int moved;
+	private final int failed;
+	private final int pending;
+
+	/**
+	 *
+	 * @param moved
+	 *            The number of indexes that were moved.
+	 * @param failed
+	 *            The number of indexes that could not be moved because of an
+	 *            error.
+	 * @param pending
+	 *            The number of indexes that still must be moved, including
+	 *            the failed and locked indexes.
+	 */
+	public TableIndexMoveResults(int moved, int failed, int pending) {
+		this.moved = moved;
+		this.failed = failed;
+		this.pending = pending;
+	}
+
+	/**
+	 * The number of indexes that were moved.
+	 *
+	 * @return
+	 */
+	public int getMoved() {
+		return moved;
+	}
+
+	/**
+	 * The number of indexes that could not be moved because of an error.
+	 *
+	 * @return
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * The number of indexes that still must be moved, including the failed
+	 * and locked indexes. Once this is zero the joining databases have all of
+	 * their indexes.
+	 *
+	 * @return
+	 */
+	public int getPending() {
+		return pending;
+	}
+}
@@ -32,15 +32,14 @@ import org.sagebionetworks.repo.model.table.TableStatus;
 import org.sagebionetworks.repo.model.table.TableUnavailableException;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.table.cluster.ConnectionFactory;
-import org.sagebionetworks.table.cluster.SQLUtils;
 import org.sagebionetworks.table.cluster.SqlQuery;
 import org.sagebionetworks.table.cluster.TableIndexDAO;
+import org.sagebionetworks.table.cluster.TableIndexVersion;
 import org.sagebionetworks.table.cluster.utils.TableModelUtils;
 import org.sagebionetworks.table.query.ParseException;
 import org.sagebionetworks.table.query.TableQueryParser;
 import org.sagebionetworks.table.query.model.Pagination;
 import org.sagebionetworks.table.query.model.QuerySpecification;
-import org.sagebionetworks.table.query.model.WhereClause;
 import org.sagebionetworks.table.query.util.SimpleAggregateQueryException;
 import org.sagebionetworks.table.query.util.SqlElementUntils;
 import org.sagebionetworks.util.Closer;
@@ -77,6 +76,15 @@ public class TableQueryManagerImpl implements TableQueryManager {
 		this.maxBytesPerRequest = maxBytesPerRequest;
 	}
 
+	/**
+	 * Injected via spring. When null, query results are not cached.
+	 */
+	TableQueryResultCache queryResultCache;
+
+	public void setQueryResultCache(TableQueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -164,7 +172,7 @@ public class TableQueryManagerImpl implements TableQueryManager {
 						// We can only run this query if the table is available.
 						final TableStatus status = validateTableIsAvailable(query.getTableId());
 						// run the query
-						QueryResultBundle bundle = queryAsStreamWithAuthorization(progressCallback, user, query, rowHandler, runCount);
+						QueryResultBundle bundle = queryAsStreamWithAuthorization(progressCallback, user, query, rowHandler, runCount, isConsistent);
 						// add the status to the result
 						if(rowHandler != null){
 							// the etag is only returned for consistent queries.
@@ -174,7 +182,7 @@ public class TableQueryManagerImpl implements TableQueryManager {
 					}});
 		}else{
 			// run without a read lock.
-			return queryAsStreamWithAuthorization(progressCallback, user, query, rowHandler, runCount);
+			return queryAsStreamWithAuthorization(progressCallback, user, query, rowHandler, runCount, isConsistent);
 		}
 	}
 	
@@ -219,6 +227,7 @@ public class TableQueryManagerImpl implements TableQueryManager {
 	 * @param query
 	 * @param rowHandler
 	 * @param runCount
+	 * @param isConsistent
 	 * @return
 	 * @throws NotFoundException
 	 * @throws LockUnavilableException
@@ -227,22 +236,31 @@ public class TableQueryManagerImpl implements TableQueryManager {
 	 * @throws EmptyResultException 
 	 */
 	QueryResultBundle queryAsStreamWithAuthorization(ProgressCallback<Void> progressCallback, UserInfo user, SqlQuery query,
-			RowHandler rowHandler, boolean runCount) throws NotFoundException, LockUnavilableException, TableUnavailableException, TableFailedException, EmptyResultException{
-		// Get a connection to the table.
-		TableIndexDAO indexDao = tableConnectionFactory.getConnection(query.getTableId());
+			RowHandler rowHandler, boolean runCount, boolean isConsistent) throws NotFoundException, LockUnavilableException, TableUnavailableException, TableFailedException, EmptyResultException{
+		// Get a connection to the table. Consistent queries must read the database
+		// where the table's status was checked, others can be served by a read replica.
+		TableIndexDAO primary = tableConnectionFactory.getConnection(query.getTableId());
+		// The version of the index is read from the primary at most once for each query.
+		TableIndexVersion indexVersion = new TableIndexVersion(query.getTableId(), primary);
+		TableIndexDAO indexDao = null;
+		if(isConsistent){
+			indexDao = primary;
+		}else{
+			indexDao = tableConnectionFactory.getReadConnection(query.getTableId(), indexVersion);
+		}
 		
 		// Validate the user has read access on this object
 		EntityType tableType = tableManagerSupport.validateTableReadAccess(user, query.getTableId());
 		SqlQuery filteredQuery = null;
 		if(EntityType.entityview.equals(tableType)){
 			// Table views must have a row level filter applied to the query
-			filteredQuery = addRowLevelFilter(user, query, indexDao);
+			filteredQuery = addRowLevelFilter(user, query, indexDao, indexVersion);
 		}else{
 			// A row level filter is not needed so the original query can be used.
 			filteredQuery = query;
 		}
 		// run the actual query.
-		return queryAsStreamAfterAuthorization(progressCallback, filteredQuery, rowHandler, runCount, indexDao);
+		return queryAsStreamAfterAuthorization(progressCallback, filteredQuery, rowHandler, runCount, indexDao, indexVersion);
 	}
 
 	/**
@@ -256,7 +274,9 @@ public class TableQueryManagerImpl implements TableQueryManager {
 	 * @param limit
 	 * @param runQuery
 	 * @param runCount
-	 * @param isConsistent
+	 * @param indexDao
+	 * @param indexVersion
+	 *            The current version of the index on the primary database.
 	 * @return
 	 * @throws DatastoreException
 	 * @throws NotFoundException
@@ -265,33 +285,78 @@ public class TableQueryManagerImpl implements TableQueryManager {
 	 * @throws TableLockUnavailableException
 	 */
 	QueryResultBundle queryAsStreamAfterAuthorization(ProgressCallback<Void> progressCallback, SqlQuery query,
-			RowHandler rowHandler, boolean runCount, TableIndexDAO indexDao)
+			RowHandler rowHandler, boolean runCount, TableIndexDAO indexDao, TableIndexVersion indexVersion)
 			throws TableUnavailableException, TableFailedException, LockUnavilableException {
 		// build up the response.
 		QueryResultBundle bundle = new QueryResultBundle();
 		bundle.setColumnModels(query.getTableSchema());
 		bundle.setSelectColumns(query.getSelectColumns());
 
+		// Only single pages are cached. Streamed results are always read from the index.
+		TableQueryResultCache.Key cacheKey = null;
+		TableQueryResultCache.Result cached = null;
+		boolean isCacheable = rowHandler == null ? runCount : rowHandler instanceof SinglePageRowHandler;
+		if(queryResultCache != null && isCacheable){
+			cacheKey = createCacheKey(query, indexVersion);
+			cached = queryResultCache.get(cacheKey);
+		}
+
 		// run the actual query if needed.
 		QueryResult queryResult = null;
+		List<Row> rowsToCache = null;
 		if(rowHandler != null){
-			// run the query
-			RowSet rowSet = runQueryAsStream(progressCallback, query, rowHandler, indexDao);
+			RowSet rowSet = null;
+			List<Row> cachedRows = cached == null ? null : cached.getRows();
+			if(cachedRows != null){
+				// pass the cached rows to the handler.
+				for(Row row: cachedRows){
+					rowHandler.nextRow(row);
+				}
+				rowSet = createRowSet(query);
+			}else{
+				// run the query
+				rowSet = runQueryAsStream(progressCallback, query, rowHandler, indexDao);
+				if(cacheKey != null){
+					rowsToCache = ((SinglePageRowHandler)rowHandler).getRows();
+				}
+			}
 			queryResult = new QueryResult();
 			queryResult.setQueryResults(rowSet);
 		}
 		
 		// run the count query if needed.
 		Long count = null;
+		Long countToCache = null;
 		if(runCount){
 			// count requested.
-			count = runCountQuery(query, indexDao);
+			count = cached == null ? null : cached.getCount();
+			if(count == null){
+				count = runCountQuery(query, indexDao);
+				countToCache = count;
+			}
+		}
+		if(cacheKey != null){
+			queryResultCache.put(cacheKey, rowsToCache, countToCache);
 		}
 		bundle.setQueryResult(queryResult);
 		bundle.setQueryCount(count);
 		return bundle;
 	}
 
+	/**
+	 * Create the key used to cache the results of a query. The key includes
+	 * the current version and schema of the table's index so a result is only
+	 * used while the index is unchanged. The version and schema are read from
+	 * the primary database, as a replica can be behind.
+	 * 
+	 * @param query
+	 * @param indexVersion
+	 * @return
+	 */
+	TableQueryResultCache.Key createCacheKey(SqlQuery query, TableIndexVersion indexVersion){
+		return TableQueryResultCache.createKey(query, indexVersion.getVersion(), indexVersion.getSchemaMD5Hex());
+	}
+
 
 	/**
 	 * For the given bundle, is the number of rows equal to the maximum rows per
@@ -533,6 +598,16 @@ public class TableQueryManagerImpl implements TableQueryManager {
 		ValidateArgument.required(query, "query");
 		ValidateArgument.required(rowHandler, "rowHandler");
 		indexDao.queryAsStream(callback, query, rowHandler);
+		return createRowSet(query);
+	}
+
+	/**
+	 * Create the RowSet of a query. The rows are captured by the row handler.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	static RowSet createRowSet(SqlQuery query){
 		RowSet results = new RowSet();
 		results.setHeaders(query.getSelectColumns());
 		results.setTableId(query.getTableId());
@@ -648,13 +723,15 @@ public class TableQueryManagerImpl implements TableQueryManager {
 	 * 
 	 * @param user
 	 * @param query
+	 * @param indexDao
+	 * @param indexVersion
 	 * @return
 	 */
-	SqlQuery addRowLevelFilter(UserInfo user, SqlQuery query, TableIndexDAO indexDao) throws EmptyResultException {
+	SqlQuery addRowLevelFilter(UserInfo user, SqlQuery query, TableIndexDAO indexDao, TableIndexVersion indexVersion) throws EmptyResultException {
 		// First get the distinct benefactors applied to the table
 		ColumnModel benefactorColumn = tableManagerSupport.getColumnModel(EntityField.benefactorId);
 		// lookup the distinct benefactor IDs applied to the table.
-		Set<Long> tableBenefactors = indexDao.getDistinctLongValues(query.getTableId(), benefactorColumn.getId());
+		Set<Long> tableBenefactors = getDistinctBenefactors(query.getTableId(), benefactorColumn.getId(), indexDao, indexVersion);
 		if(tableBenefactors.isEmpty()){
 			throw new EmptyResultException("Table has no benefactors", query.getTableId());
 		}
@@ -664,7 +741,35 @@ public class TableQueryManagerImpl implements TableQueryManager {
 	}
 	
 	/**
-	 * Build a new query with a benefactor filter applied to the SQL from the passed query.
+	 * Get the distinct benefactors of a table. The benefactors of each version
+	 * of the table's index are read from the index once and cached.
+	 * 
+	 * @param tableId
+	 * @param benefactorColumnId
+	 * @param indexDao
+	 * @param indexVersion
+	 * @return
+	 */
+	Set<Long> getDistinctBenefactors(String tableId, String benefactorColumnId, TableIndexDAO indexDao, TableIndexVersion indexVersion){
+		if(queryResultCache == null){
+			return indexDao.getDistinctLongValues(tableId, benefactorColumnId);
+		}
+		// the version is read from the primary database, as a replica can be behind.
+		Long version = indexVersion.getVersion();
+		Set<Long> benefactors = queryResultCache.getDistinctValues(tableId, version, benefactorColumnId);
+		if(benefactors == null){
+			benefactors = indexDao.getDistinctLongValues(tableId, benefactorColumnId);
+			queryResultCache.putDistinctValues(tableId, version, benefactorColumnId, benefactors);
+		}
+		return benefactors;
+	}
+	
+	/**
+	 * Build a new query with a benefactor filter applied to the passed query.
+	 * The filter is added to the translated model of the new query with the
+	 * benefactor IDs bound as a single parameter, so the query is not
+	 * re-parsed and the SQL does not grow with the number of benefactors.
+	 * 
 	 * @param originalQuery
 	 * @param accessibleBenefactors
 	 * @return
@@ -676,35 +781,6 @@ public class TableQueryManagerImpl implements TableQueryManager {
 		if(accessibleBenefactors.isEmpty()){
 			throw new EmptyResultException("User does not have access to any benefactors in the table.", originalQuery.getTableId());
 		}
-		// copy the original model
-		try {
-			QuerySpecification modelCopy = new TableQueryParser(originalQuery.getModel().toSql()).querySpecification();
-			WhereClause where = originalQuery.getModel().getTableExpression().getWhereClause();
-			StringBuilder filterBuilder = new StringBuilder();
-			filterBuilder.append("WHERE ");
-			if(where != null){
-				filterBuilder.append("(");
-				filterBuilder.append(where.getSearchCondition().toSql());
-				filterBuilder.append(") AND ");
-			}
-			filterBuilder.append(SQLUtils.getColumnNameForId(benefactorColumnId));
-			filterBuilder.append(" IN (");
-			boolean isFirst = true;
-			for(Long id: accessibleBenefactors){
-				if(!isFirst){
-					filterBuilder.append(",");
-				}
-				filterBuilder.append(id);
-				isFirst = false;
-			}
-			filterBuilder.append(")");
-			// create the new where
-			where = new TableQueryParser(filterBuilder.toString()).whereClause();
-			modelCopy.getTableExpression().replaceWhere(where);
-			// return a copy
-			return new SqlQuery(modelCopy, originalQuery);
-		} catch (ParseException e) {
-			throw new RuntimeException(e);
-		}
+		return new SqlQuery(originalQuery, benefactorColumnId, accessibleBenefactors);
 	}
 }
@@ -0,0 +1,426 @@
+package org.sagebionetworks.repo.manager.table;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.sagebionetworks.repo.model.table.Row;
+import org.sagebionetworks.table.cluster.SqlQuery;
+import org.sagebionetworks.util.ValidateArgument;
+
+/**
+ * A bounded, in-memory LRU cache of table query results.
+ * <p>
+ * Each result is keyed by the table ID, the version and schema MD5 of the
+ * table's index, and a hash of the final SQL and bind variables sent to the
+ * index. The final SQL includes the sort, offset, limit and the row level
+ * filter of the user's accessible benefactors, so users that can see
+ * different rows never share a result. A result is never stale for its key:
+ * once the index version changes new queries use new keys, and the results
+ * of the previous version are dropped. Entity view versions are CRCs rather
+ * than increasing numbers, so any change of version is treated as newer.
+ * <p>
+ * A result can hold the rows of a page, the count, or both. Rows are copied
+ * in and out so callers can never modify the cached data. The cache is
+ * bounded by the estimated size of the cached rows in bytes rather than by the
+ * number of results.
+ * <p>
+ * The distinct values of a column, such as the benefactors used to filter the
+ * rows of an entity view, are cached with the same keys and life cycle as the
+ * query results of the table's index.
+ * <p>
+ * This class is thread-safe.
+ */
+public class TableQueryResultCache {
+
+	/*
+	 * The maximum number of tables for which the current index version is
+	 * tracked.
+	 */
+	static final int MAX_TRACKED_TABLES = 10000;
+
+	/*
+	 * Estimated fixed overhead of each result, row and value, used to weigh
+	 * entries.
+	 */
+	static final long RESULT_OVERHEAD_BYTES = 256;
+	static final long ROW_OVERHEAD_BYTES = 48;
+	static final long VALUE_OVERHEAD_BYTES = 40;
+	
+	/*
+	 * Prefix of the key of the distinct values of a column.
+	 */
+	static final String DISTINCT_VALUES_PREFIX = "distinct:";
+
+	/**
+	 * Cache key of a single query result.
+	 */
+	public static class Key {
+		final String tableId;
+		final long indexVersion;
+		final String queryHash;
+
+		Key(String tableId, long indexVersion, String queryHash) {
+			this.tableId = tableId;
+			this.indexVersion = indexVersion;
+			this.queryHash = queryHash;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = tableId.hashCode();
+			result = prime * result + (int) (indexVersion ^ (indexVersion >>> 32));
+			result = prime * result + queryHash.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return indexVersion == other.indexVersion && tableId.equals(other.tableId)
+					&& queryHash.equals(other.queryHash);
+		}
+	}
+
+	/**
+	 * The cached parts of a single query result.
+	 */
+	public static class Result {
+		private final List<Row> rows;
+		private final Long count;
+		private final Set<Long> distinctValues;
+		private final long weight;
+
+		Result(List<Row> rows, Long count) {
+			this.rows = rows;
+			this.count = count;
+			this.distinctValues = null;
+			this.weight = estimateWeight(rows);
+		}
+
+		Result(Set<Long> distinctValues) {
+			this.rows = null;
+			this.count = null;
+			this.distinctValues = distinctValues;
+			this.weight = RESULT_OVERHEAD_BYTES + VALUE_OVERHEAD_BYTES * distinctValues.size();
+		}
+
+		/**
+		 *
+		 * @return New Row objects for each cached row or null if the rows
+		 *         are not cached.
+		 */
+		public List<Row> getRows() {
+			return rows == null ? null : copyRows(rows);
+		}
+
+		/**
+		 *
+		 * @return null if the count is not cached.
+		 */
+		public Long getCount() {
+			return count;
+		}
+	}
+
+	private final long maxWeight;
+	// Guarded by this.
+	private final LinkedHashMap<Key, Result> map;
+	// The last index version cached for each table, guarded by this.
+	private final Map<String, Long> tableVersions;
+	private long currentWeight = 0;
+
+	private final AtomicLong hitCount = new AtomicLong(0);
+	private final AtomicLong missCount = new AtomicLong(0);
+
+	/**
+	 *
+	 * @param maxWeight
+	 *            The maximum estimated size of all cached results in bytes.
+	 *            Zero disables the cache.
+	 */
+	public TableQueryResultCache(long maxWeight) {
+		ValidateArgument.requirement(maxWeight >= 0, "maxWeight cannot be negative");
+		this.maxWeight = maxWeight;
+		// access order for LRU eviction.
+		this.map = new LinkedHashMap<Key, Result>(16, 0.75f, true);
+		this.tableVersions = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > MAX_TRACKED_TABLES;
+			}
+		};
+	}
+
+	/**
+	 * Create the key of a query run against the given state of the table's
+	 * index.
+	 *
+	 * @param query
+	 *            The query with any row level filter already applied.
+	 * @param indexVersion
+	 *            The current version of the table's index.
+	 * @param indexSchemaMD5Hex
+	 *            The MD5 of the schema of the table's index.
+	 * @return
+	 */
+	public static Key createKey(SqlQuery query, long indexVersion, String indexSchemaMD5Hex) {
+		ValidateArgument.required(query, "query");
+		StringBuilder builder = new StringBuilder();
+		builder.append(indexSchemaMD5Hex);
+		builder.append("\n");
+		builder.append(query.getOutputSQL());
+		builder.append("\n");
+		// sort the parameters so the same query always has the same key.
+		builder.append(new TreeMap<String, Object>(query.getParameters()));
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			digest.update(builder.toString().getBytes("UTF-8"));
+			return new Key(query.getTableId(), indexVersion, new String(Hex.encodeHex(digest.digest())));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Estimate the number of bytes used to hold the given rows in memory.
+	 *
+	 * @param rows
+	 * @return
+	 */
+	static long estimateWeight(List<Row> rows) {
+		long weight = RESULT_OVERHEAD_BYTES;
+		if (rows != null) {
+			for (Row row : rows) {
+				weight += ROW_OVERHEAD_BYTES;
+				if (row.getValues() != null) {
+					for (String value : row.getValues()) {
+						weight += VALUE_OVERHEAD_BYTES;
+						if (value != null) {
+							weight += 2L * value.length();
+						}
+					}
+				}
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * Create new Row objects for each of the given rows.
+	 *
+	 * @param rows
+	 * @return
+	 */
+	static List<Row> copyRows(List<Row> rows) {
+		List<Row> copy = new ArrayList<Row>(rows.size());
+		for (Row row : rows) {
+			Row rowCopy = new Row();
+			rowCopy.setRowId(row.getRowId());
+			rowCopy.setVersionNumber(row.getVersionNumber());
+			if (row.getValues() != null) {
+				rowCopy.setValues(new ArrayList<String>(row.getValues()));
+			}
+			copy.add(rowCopy);
+		}
+		return copy;
+	}
+
+	/**
+	 * Get the cached result of a query.
+	 *
+	 * @param key
+	 * @return null if nothing is cached for the query.
+	 */
+	public Result get(Key key) {
+		ValidateArgument.required(key, "key");
+		Result result;
+		synchronized (this) {
+			result = map.get(key);
+		}
+		if (result == null) {
+			missCount.incrementAndGet();
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Add the result of a query. Parts that are not provided are kept from
+	 * any result already cached for the query. Adding a result for a
+	 * different version of a table's index drops all results of the previous
+	 * version.
+	 *
+	 * @param key
+	 * @param rows
+	 *            The rows of the page or null if the rows were not read.
+	 * @param count
+	 *            The count or null if the count was not read.
+	 */
+	public void put(Key key, List<Row> rows, Long count) {
+		ValidateArgument.required(key, "key");
+		if (rows == null && count == null) {
+			return;
+		}
+		List<Row> rowsCopy = rows == null ? null : copyRows(rows);
+		synchronized (this) {
+			Result old = map.get(key);
+			if (old != null) {
+				if (rowsCopy == null) {
+					rowsCopy = old.rows;
+				}
+				if (count == null) {
+					count = old.count;
+				}
+			}
+			putResult(key, new Result(rowsCopy, count));
+		}
+	}
+
+	/**
+	 * Get the cached distinct values of a column of a table.
+	 *
+	 * @param tableId
+	 * @param indexVersion
+	 *            The current version of the table's index.
+	 * @param columnId
+	 * @return A copy of the cached values or null if the values are not
+	 *         cached.
+	 */
+	public Set<Long> getDistinctValues(String tableId, long indexVersion, String columnId) {
+		ValidateArgument.required(tableId, "tableId");
+		ValidateArgument.required(columnId, "columnId");
+		Result result = get(new Key(tableId, indexVersion, DISTINCT_VALUES_PREFIX + columnId));
+		return result == null ? null : new HashSet<Long>(result.distinctValues);
+	}
+
+	/**
+	 * Add the distinct values of a column of a table. Adding values for a
+	 * different version of a table's index drops all results of the
+	 * previous version.
+	 *
+	 * @param tableId
+	 * @param indexVersion
+	 *            The current version of the table's index.
+	 * @param columnId
+	 * @param values
+	 */
+	public void putDistinctValues(String tableId, long indexVersion, String columnId, Set<Long> values) {
+		ValidateArgument.required(tableId, "tableId");
+		ValidateArgument.required(columnId, "columnId");
+		ValidateArgument.required(values, "values");
+		Result result = new Result(new HashSet<Long>(values));
+		synchronized (this) {
+			putResult(new Key(tableId, indexVersion, DISTINCT_VALUES_PREFIX + columnId), result);
+		}
+	}
+
+	/**
+	 * Add a result, dropping the results of any previous version of the
+	 * table's index and evicting the least recently used results as
+	 * needed. Must hold the lock.
+	 *
+	 * @param key
+	 * @param result
+	 */
+	private void putResult(Key key, Result result) {
+		Long lastVersion = tableVersions.get(key.tableId);
+		if (lastVersion == null || lastVersion != key.indexVersion) {
+			removeTable(key.tableId);
+			tableVersions.put(key.tableId, key.indexVersion);
+		}
+		if (result.weight > maxWeight) {
+			return;
+		}
+		Result old = map.put(key, result);
+		if (old != null) {
+			currentWeight -= old.weight;
+		}
+		currentWeight += result.weight;
+		Iterator<Result> it = map.values().iterator();
+		while (currentWeight > maxWeight && it.hasNext()) {
+			Result eldest = it.next();
+			it.remove();
+			currentWeight -= eldest.weight;
+		}
+	}
+
+	/**
+	 * Remove all results of the given table. Must hold the lock.
+	 *
+	 * @param tableId
+	 */
+	private void removeTable(String tableId) {
+		Iterator<Map.Entry<Key, Result>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Result> entry = it.next();
+			if (entry.getKey().tableId.equals(tableId)) {
+				it.remove();
+				currentWeight -= entry.getValue().weight;
+			}
+		}
+	}
+
+	/**
+	 * Remove all results.
+	 */
+	public synchronized void invalidateAll() {
+		map.clear();
+		tableVersions.clear();
+		currentWeight = 0;
+	}
+
+	/**
+	 * The number of lookups that found a result.
+	 *
+	 * @return
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * The number of lookups that did not find a result.
+	 *
+	 * @return
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * The number of cached results.
+	 *
+	 * @return
+	 */
+	public synchronized int getSize() {
+		return map.size();
+	}
+
+	/**
+	 * The estimated size of all cached results in bytes.
+	 *
+	 * @return
+	 */
+	public synchronized long getWeight() {
+		return currentWeight;
+	}
+}
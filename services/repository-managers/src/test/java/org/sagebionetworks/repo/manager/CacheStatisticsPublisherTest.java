@@ -0,0 +1,109 @@
+package org.sagebionetworks.repo.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.repo.model.dbo.dao.table.TableChangeSetCache;
+import org.sagebionetworks.repo.model.dbo.wikiV2.WikiMarkdownCache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CacheStatisticsPublisherTest {
+
+	@Mock
+	TableChangeSetCache mockTableChangeSetCache;
+	@Mock
+	Consumer mockConsumer;
+	WikiMarkdownCache wikiMarkdownCache;
+
+	CacheStatisticsPublisher publisher;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		publisher = new CacheStatisticsPublisher();
+		ReflectionTestUtils.setField(publisher, "tableChangeSetCache", mockTableChangeSetCache);
+		ReflectionTestUtils.setField(publisher, "consumer", mockConsumer);
+		wikiMarkdownCache = new WikiMarkdownCache(10000);
+		ReflectionTestUtils.setField(publisher, "wikiMarkdownCache", wikiMarkdownCache);
+		when(mockTableChangeSetCache.getHitCount()).thenReturn(3L);
+		when(mockTableChangeSetCache.getMissCount()).thenReturn(1L);
+		when(mockTableChangeSetCache.getEvictionCount()).thenReturn(0L);
+		when(mockTableChangeSetCache.getWeight()).thenReturn(2048L);
+	}
+
+	@Test
+	public void testTimerFired() {
+		// call under test
+		publisher.timerFired();
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockConsumer, times(4)).addProfileData(captor.capture());
+		List<ProfileData> metrics = captor.getAllValues();
+		assertEquals(CacheStatisticsPublisher.CHANGE_SET_HITS, metrics.get(0).getName());
+		assertEquals(new Double(3), metrics.get(0).getValue());
+		assertEquals(CacheStatisticsPublisher.CHANGE_SET_MISSES, metrics.get(1).getName());
+		assertEquals(new Double(1), metrics.get(1).getValue());
+		assertEquals(CacheStatisticsPublisher.CHANGE_SET_CACHE_BYTES, metrics.get(3).getName());
+		assertEquals(new Double(2048), metrics.get(3).getValue());
+		assertEquals(CacheStatisticsPublisher.METRIC_NAMESPACE, metrics.get(0).getNamespace());
+	}
+
+	@Test
+	public void testTimerFiredSendsChange() {
+		publisher.timerFired();
+		reset(mockConsumer);
+		when(mockTableChangeSetCache.getHitCount()).thenReturn(10L);
+		// call under test
+		publisher.timerFired();
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockConsumer, times(4)).addProfileData(captor.capture());
+		List<ProfileData> metrics = captor.getAllValues();
+		assertEquals(new Double(7), metrics.get(0).getValue());
+		assertEquals(new Double(0), metrics.get(1).getValue());
+	}
+
+	@Test
+	public void testTimerFiredMarkdown() {
+		publisher.timerFired();
+		reset(mockConsumer);
+		wikiMarkdownCache.put(1L, "markdown", 100L);
+		wikiMarkdownCache.get(1L);
+		wikiMarkdownCache.get(1L);
+		wikiMarkdownCache.get(2L);
+		// call under test
+		publisher.timerFired();
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockConsumer, times(4)).addProfileData(captor.capture());
+		List<ProfileData> metrics = captor.getAllValues();
+		assertEquals(CacheStatisticsPublisher.MARKDOWN_S3_GETS_AVOIDED, metrics.get(0).getName());
+		assertEquals(new Double(2), metrics.get(0).getValue());
+		assertEquals(CacheStatisticsPublisher.MARKDOWN_S3_GETS, metrics.get(1).getName());
+		assertEquals(new Double(1), metrics.get(1).getValue());
+		assertEquals(CacheStatisticsPublisher.MARKDOWN_BYTES_SAVED, metrics.get(2).getName());
+		assertEquals(new Double(200), metrics.get(2).getValue());
+		assertEquals(CacheStatisticsPublisher.MARKDOWN_CACHE_BYTES, metrics.get(3).getName());
+		assertEquals(new Double(wikiMarkdownCache.getWeight()), metrics.get(3).getValue());
+	}
+
+	@Test
+	public void testTimerFiredUnused() {
+		publisher.timerFired();
+		reset(mockConsumer);
+		// call under test
+		publisher.timerFired();
+		verify(mockConsumer, never()).addProfileData(any(ProfileData.class));
+	}
+}
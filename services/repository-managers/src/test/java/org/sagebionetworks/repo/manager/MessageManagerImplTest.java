@@ -69,6 +69,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaResult;
 import com.amazonaws.services.simpleemail.model.SendEmailRequest;
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 
@@ -202,6 +203,11 @@ public class MessageManagerImplTest {
 					public void sendRawEmail(
 							SendRawEmailRequest sendRawEmailRequest) {
 						amazonSESClient.sendRawEmail(sendRawEmailRequest);
+					}
+
+					@Override
+					public GetSendQuotaResult getSendQuota() {
+						return amazonSESClient.getSendQuota();
 					}});
 		mockFileHandleManager = mock(FileHandleManager.class);
 		ReflectionTestUtils.setField(messageManager, "fileHandleManager", mockFileHandleManager);
@@ -0,0 +1,191 @@
+package org.sagebionetworks.repo.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.repo.manager.PrincipalGroupsCache.PrincipalGroups;
+import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.ChangeType;
+import org.sagebionetworks.util.Clock;
+
+import com.google.common.collect.Sets;
+
+public class PrincipalGroupsCacheTest {
+
+	@Mock
+	Clock mockClock;
+	@Mock
+	Consumer mockConsumer;
+
+	PrincipalGroupsCache cache;
+	Set<Long> groups;
+	Date creationDate;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		when(mockClock.currentTimeMillis()).thenReturn(1000L);
+		cache = new PrincipalGroupsCache(2, 100L, mockClock);
+		cache.setConsumer(mockConsumer);
+		cache.setMetricIntervalMS(1000L);
+		groups = Sets.newHashSet(789L, 123L, 456L);
+		creationDate = new Date(555L);
+	}
+
+	@Test
+	public void testPutGet() {
+		assertNull(cache.get(1L));
+		cache.put(1L, creationDate, groups, cache.getGeneration());
+		PrincipalGroups result = cache.get(1L);
+		assertNotNull(result);
+		assertEquals(creationDate, result.getCreationDate());
+		assertEquals(groups, result.toGroupSet());
+		assertTrue(result.contains(123L));
+		assertTrue(result.contains(789L));
+		assertFalse(result.contains(124L));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testReturnsCopies() {
+		cache.put(1L, creationDate, groups, cache.getGeneration());
+		// changes to the inputs must not change the entry.
+		groups.add(999L);
+		creationDate.setTime(0L);
+		PrincipalGroups result = cache.get(1L);
+		assertFalse(result.contains(999L));
+		result.toGroupSet().add(999L);
+		result.getCreationDate().setTime(0L);
+		assertFalse(cache.get(1L).toGroupSet().contains(999L));
+		assertEquals(new Date(555L), cache.get(1L).getCreationDate());
+	}
+
+	@Test
+	public void testNullCreationDate() {
+		cache.put(1L, null, groups, cache.getGeneration());
+		assertNull(cache.get(1L).getCreationDate());
+	}
+
+	@Test
+	public void testExpired() {
+		cache.put(1L, creationDate, groups, cache.getGeneration());
+		when(mockClock.currentTimeMillis()).thenReturn(1100L);
+		assertNotNull(cache.get(1L));
+		when(mockClock.currentTimeMillis()).thenReturn(1101L);
+		assertNull(cache.get(1L));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		long generation = cache.getGeneration();
+		cache.put(1L, creationDate, groups, generation);
+		cache.put(2L, creationDate, groups, generation);
+		// touch the first so the second is the eldest.
+		cache.get(1L);
+		cache.put(3L, creationDate, groups, generation);
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(1L));
+		assertNull(cache.get(2L));
+		assertNotNull(cache.get(3L));
+	}
+
+	@Test
+	public void testPutAfterInvalidateAll() {
+		// groups read before a change must not be cached after the change.
+		long generation = cache.getGeneration();
+		cache.invalidateAll();
+		PrincipalGroups result = cache.put(1L, creationDate, groups, generation);
+		// the groups are still returned to the caller
+		assertEquals(groups, result.toGroupSet());
+		assertNull(cache.get(1L));
+		cache.put(1L, creationDate, groups, cache.getGeneration());
+		assertNotNull(cache.get(1L));
+	}
+
+	@Test
+	public void testInvalidate() {
+		long generation = cache.getGeneration();
+		cache.put(1L, creationDate, groups, generation);
+		cache.put(2L, creationDate, groups, generation);
+		cache.invalidate(1L);
+		assertNull(cache.get(1L));
+		assertNotNull(cache.get(2L));
+	}
+
+	@Test
+	public void testFirePrincipalChange() {
+		cache.put(1L, creationDate, groups, cache.getGeneration());
+		ChangeMessage message = new ChangeMessage();
+		message.setObjectId("2");
+		message.setObjectType(ObjectType.PRINCIPAL);
+		message.setChangeType(ChangeType.UPDATE);
+		cache.fireChangeMessage(message);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testFireOtherChange() {
+		cache.put(1L, creationDate, groups, cache.getGeneration());
+		ChangeMessage message = new ChangeMessage();
+		message.setObjectId("2");
+		message.setObjectType(ObjectType.ENTITY);
+		message.setChangeType(ChangeType.UPDATE);
+		cache.fireChangeMessage(message);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testMetrics() {
+		cache.put(1L, creationDate, groups, cache.getGeneration());
+		cache.get(1L);
+		cache.get(1L);
+		cache.get(1L);
+		cache.get(2L);
+		// not due yet
+		verify(mockConsumer, never()).addProfileData(any(ProfileData.class));
+		when(mockClock.currentTimeMillis()).thenReturn(2000L);
+		cache.invalidateAll();
+		// this miss is counted in the first interval.
+		cache.get(1L);
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockConsumer, times(3)).addProfileData(captor.capture());
+		List<ProfileData> metrics = captor.getAllValues();
+		assertEquals(PrincipalGroupsCache.METRIC_HITS, metrics.get(0).getName());
+		assertEquals(new Double(3), metrics.get(0).getValue());
+		assertEquals(PrincipalGroupsCache.METRIC_MISSES, metrics.get(1).getName());
+		assertEquals(new Double(2), metrics.get(1).getValue());
+		assertEquals(PrincipalGroupsCache.METRIC_HIT_RATE, metrics.get(2).getName());
+		assertEquals(new Double(60), metrics.get(2).getValue());
+		assertEquals(PrincipalGroupsCache.METRIC_NAMESPACE, metrics.get(2).getNamespace());
+		// counts start again.
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxSizeZero() {
+		new PrincipalGroupsCache(0, 100L, mockClock);
+	}
+}
@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -17,6 +18,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.sagebionetworks.repo.model.AuthorizationConstants.BOOTSTRAP_PRINCIPAL;
 import org.sagebionetworks.repo.model.AuthorizationUtils;
+import org.sagebionetworks.repo.model.GroupMembersDAO;
+import org.sagebionetworks.repo.model.UserGroup;
 import org.sagebionetworks.repo.model.UserGroupDAO;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.auth.NewUser;
@@ -40,6 +43,9 @@ public class UserManagerImplTest {
 	@Autowired
 	private UserGroupDAO userGroupDAO;
 	
+	@Autowired
+	private GroupMembersDAO groupMembersDAO;
+	
 	private List<String> groupsToDelete;
 	
 	
@@ -103,6 +109,27 @@ public class UserManagerImplTest {
 		assertTrue(ui.getGroups().contains(BOOTSTRAP_PRINCIPAL.AUTHENTICATED_USERS_GROUP.getPrincipalId()));
 	}
 		
+	@Test
+	public void testGroupMembershipChanges() throws Exception {
+		NewUser user = new NewUser();
+		user.setEmail(UUID.randomUUID().toString() + "@test.com");
+		user.setUserName(UUID.randomUUID().toString());
+		Long principalId = userManager.createUser(user);
+		groupsToDelete.add(principalId.toString());
+		UserGroup group = new UserGroup();
+		group.setIsIndividual(false);
+		Long groupId = userGroupDAO.create(group);
+		groupsToDelete.add(groupId.toString());
+		
+		assertFalse(userManager.getUserInfo(principalId).getGroups().contains(groupId));
+		// A new member must see the group right away.
+		groupMembersDAO.addMembers(groupId.toString(), Arrays.asList(principalId.toString()));
+		assertTrue(userManager.getUserInfo(principalId).getGroups().contains(groupId));
+		// and a removed member must lose it right away.
+		groupMembersDAO.removeMembers(groupId.toString(), Arrays.asList(principalId.toString()));
+		assertFalse(userManager.getUserInfo(principalId).getGroups().contains(groupId));
+	}
+	
 	@Test
 	public void testGetAnonymousUserInfo() throws Exception {
 		userManager.getUserInfo(BOOTSTRAP_PRINCIPAL.ANONYMOUS_USER.getPrincipalId());
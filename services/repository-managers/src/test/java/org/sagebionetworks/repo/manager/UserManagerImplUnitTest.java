@@ -1,15 +1,19 @@
 package org.sagebionetworks.repo.manager;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
@@ -17,8 +21,11 @@ import java.util.UUID;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.sagebionetworks.repo.manager.team.TeamConstants;
+import org.sagebionetworks.repo.model.AuthorizationConstants.BOOTSTRAP_PRINCIPAL;
 import org.sagebionetworks.repo.model.AuthenticationDAO;
 import org.sagebionetworks.repo.model.GroupMembersDAO;
+import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserGroup;
 import org.sagebionetworks.repo.model.UserGroupDAO;
@@ -27,9 +34,12 @@ import org.sagebionetworks.repo.model.UserProfile;
 import org.sagebionetworks.repo.model.auth.NewUser;
 import org.sagebionetworks.repo.model.dao.NotificationEmailDAO;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
+import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.principal.AliasType;
 import org.sagebionetworks.repo.model.principal.PrincipalAlias;
 import org.sagebionetworks.repo.model.principal.PrincipalAliasDAO;
+import org.sagebionetworks.util.Clock;
 
 public class UserManagerImplUnitTest {
 	
@@ -42,6 +52,8 @@ public class UserManagerImplUnitTest {
 	private DBOBasicDao basicDAO;
 	private PrincipalAliasDAO mockPrincipalAliasDAO;
 	private NotificationEmailDAO notificationEmailDao;
+	private Clock mockClock;
+	private PrincipalGroupsCache principalGroupsCache;
 	
 	private UserInfo admin;
 	private UserInfo notAdmin;
@@ -70,8 +82,14 @@ public class UserManagerImplUnitTest {
 		
 		notificationEmailDao = Mockito.mock(NotificationEmailDAO.class);
 		
-		userManager = new UserManagerImpl(mockUserGroupDAO, mockUserProfileManger, 
+		mockClock = mock(Clock.class);
+		when(mockClock.currentTimeMillis()).thenReturn(1000L);
+		principalGroupsCache = new PrincipalGroupsCache(100, 1000L, mockClock);
+		
+		UserManagerImpl userManagerImpl = new UserManagerImpl(mockUserGroupDAO, mockUserProfileManger, 
 				mockGroupMembersDAO, mockAuthDAO, basicDAO, mockPrincipalAliasDAO, notificationEmailDao);
+		userManagerImpl.setPrincipalGroupsCache(principalGroupsCache);
+		userManager = userManagerImpl;
 		
 		admin = new UserInfo(true);
 		notAdmin = new UserInfo(false);
@@ -107,6 +125,73 @@ public class UserManagerImplUnitTest {
 		} catch (UnauthorizedException e) { }
 	}
 	
+	@Test
+	public void testGetUserInfoCached() throws Exception {
+		UserGroup team = new UserGroup();
+		team.setId(TeamConstants.ADMINISTRATORS_TEAM_ID.toString());
+		when(mockGroupMembersDAO.getUsersGroups(mockId)).thenReturn(Arrays.asList(team));
+		UserInfo info = userManager.getUserInfo(Long.parseLong(mockId));
+		assertTrue(info.isAdmin());
+		assertEquals(new Long(-1), info.getId());
+		assertTrue(info.getGroups().contains(Long.parseLong(mockId)));
+		assertTrue(info.getGroups().contains(BOOTSTRAP_PRINCIPAL.PUBLIC_GROUP.getPrincipalId()));
+		assertTrue(info.getGroups().contains(BOOTSTRAP_PRINCIPAL.AUTHENTICATED_USERS_GROUP.getPrincipalId()));
+		assertTrue(info.getGroups().contains(TeamConstants.ADMINISTRATORS_TEAM_ID));
+		// changes to the groups of one UserInfo must not change the next.
+		info.getGroups().clear();
+		// call under test
+		UserInfo second = userManager.getUserInfo(Long.parseLong(mockId));
+		assertTrue(second.isAdmin());
+		assertEquals(4, second.getGroups().size());
+		verify(mockUserGroupDAO, times(1)).get(Long.parseLong(mockId));
+		verify(mockGroupMembersDAO, times(1)).getUsersGroups(mockId);
+		// After the time to live the groups are read again.
+		when(mockClock.currentTimeMillis()).thenReturn(2001L);
+		userManager.getUserInfo(Long.parseLong(mockId));
+		verify(mockGroupMembersDAO, times(2)).getUsersGroups(mockId);
+	}
+	
+	@Test
+	public void testGetUserInfoAfterPrincipalChange() throws Exception {
+		UserGroup team = new UserGroup();
+		team.setId("999");
+		when(mockGroupMembersDAO.getUsersGroups(mockId)).thenReturn(Arrays.asList(team));
+		assertTrue(userManager.getUserInfo(Long.parseLong(mockId)).getGroups().contains(999L));
+		// The user is removed from the team.
+		when(mockGroupMembersDAO.getUsersGroups(mockId)).thenReturn(Collections.<UserGroup>emptyList());
+		ChangeMessage message = new ChangeMessage();
+		message.setObjectId("999");
+		message.setObjectType(ObjectType.PRINCIPAL);
+		message.setChangeType(ChangeType.UPDATE);
+		principalGroupsCache.fireChangeMessage(message);
+		// call under test
+		UserInfo info = userManager.getUserInfo(Long.parseLong(mockId));
+		assertFalse(info.getGroups().contains(999L));
+		assertFalse(info.isAdmin());
+	}
+	
+	@Test
+	public void testGetUserInfoNotIndividual() throws Exception {
+		mockUserGroup.setIsIndividual(false);
+		for (int i = 0; i < 2; i++) {
+			try {
+				userManager.getUserInfo(Long.parseLong(mockId));
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		verify(mockUserGroupDAO, times(2)).get(Long.parseLong(mockId));
+	}
+	
+	@Test
+	public void testDeletePrincipalInvalidates() throws Exception {
+		userManager.getUserInfo(Long.parseLong(mockId));
+		userManager.deletePrincipal(admin, Long.parseLong(mockId));
+		userManager.getUserInfo(Long.parseLong(mockId));
+		verify(mockUserGroupDAO, times(2)).get(Long.parseLong(mockId));
+	}
+	
 	@Test
 	public void testBindAlias() throws Exception {
 		String aliasName = "name";
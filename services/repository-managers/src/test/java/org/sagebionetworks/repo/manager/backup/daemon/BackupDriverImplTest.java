@@ -3,15 +3,24 @@ package org.sagebionetworks.repo.manager.backup.daemon;
 import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
+import org.sagebionetworks.repo.manager.migration.BackupFormat;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 
 public class BackupDriverImplTest {
 
 	@Test
 	public void testFileNameRoundTrip(){
-		String name = BackupDriverImpl.getFileNameForType(MigrationType.FILE_HANDLE);
+		String name = BackupDriverImpl.getFileNameForType(MigrationType.FILE_HANDLE, BackupFormat.XML);
 		assertEquals("FILE_HANDLE.xml", name);
 		MigrationType type = BackupDriverImpl.getTypeFromFileName(name);
 		assertEquals(MigrationType.FILE_HANDLE, type);
 	}
+	
+	@Test
+	public void testBinaryFileNameRoundTrip(){
+		String name = BackupDriverImpl.getFileNameForType(MigrationType.FILE_HANDLE, BackupFormat.BINARY);
+		assertEquals("FILE_HANDLE.bin", name);
+		assertEquals(BackupFormat.BINARY, BackupFormat.fromFileName(name));
+		assertEquals(MigrationType.FILE_HANDLE, BackupDriverImpl.getTypeFromFileName(name));
+	}
 }
@@ -75,6 +75,8 @@ public class DiscussionThreadManagerImplTest {
 	private EntityIdList mockEntityIdList;
 	@Mock
 	private List<String> mockList;
+	@Mock
+	private DiscussionThreadViewRecorder mockThreadViewRecorder;
 
 	private DiscussionThreadManager threadManager;
 	private UserInfo userInfo = new UserInfo(false /*not admin*/);
@@ -105,6 +107,7 @@ public class DiscussionThreadManagerImplTest {
 		ReflectionTestUtils.setField(threadManager, "subscriptionDao", mockSubscriptionDao);
 		ReflectionTestUtils.setField(threadManager, "transactionalMessenger", mockTransactionalMessenger);
 		ReflectionTestUtils.setField(threadManager, "aclDao", mockAclDao);
+		ReflectionTestUtils.setField(threadManager, "threadViewRecorder", mockThreadViewRecorder);
 
 		createDto = new CreateDiscussionThread();
 		createDto.setForumId(forumId.toString());
@@ -231,8 +234,9 @@ public class DiscussionThreadManagerImplTest {
 		when(mockAuthorizationManager.canAccess(userInfo, projectId, ObjectType.ENTITY, ACCESS_TYPE.READ))
 				.thenReturn(AuthorizationManagerUtil.AUTHORIZED);
 		assertEquals(dto, threadManager.getThread(userInfo, threadId.toString()));
-		verify(mockThreadDao).updateThreadView(Mockito.anyLong(), Mockito.anyLong());
-		verify(mockTransactionalMessenger).sendMessageAfterCommit(threadId.toString(), ObjectType.THREAD, dto.getEtag(), ChangeType.UPDATE, userInfo.getId());
+		verify(mockThreadViewRecorder).recordView(threadId, userInfo.getId());
+		verify(mockThreadDao, Mockito.never()).updateThreadView(Mockito.anyLong(), Mockito.anyLong());
+		verify(mockTransactionalMessenger, Mockito.never()).sendMessageAfterCommit(threadId.toString(), ObjectType.THREAD, dto.getEtag(), ChangeType.UPDATE, userInfo.getId());
 	}
 
 	@Test
@@ -241,7 +245,7 @@ public class DiscussionThreadManagerImplTest {
 		when(mockAuthorizationManager.canAccess(userInfo, projectId, ObjectType.ENTITY, ACCESS_TYPE.MODERATE))
 				.thenReturn(AuthorizationManagerUtil.AUTHORIZED);
 		assertEquals(dto, threadManager.getThread(userInfo, threadId.toString()));
-		verify(mockThreadDao).updateThreadView(Mockito.anyLong(), Mockito.anyLong());
+		verify(mockThreadViewRecorder).recordView(threadId, userInfo.getId());
 	}
 
 	@Test (expected = NotFoundException.class)
@@ -276,7 +280,7 @@ public class DiscussionThreadManagerImplTest {
 		when(mockAuthorizationManager.canAccess(userInfo, projectId, ObjectType.ENTITY, ACCESS_TYPE.READ))
 				.thenReturn(AuthorizationManagerUtil.AUTHORIZED);
 		threadManager.checkPermission(userInfo, threadId.toString(), ACCESS_TYPE.READ);
-		verify(mockThreadDao, Mockito.never()).updateThreadView(Mockito.anyLong(), Mockito.anyLong());
+		verify(mockThreadViewRecorder, Mockito.never()).recordView(Mockito.anyLong(), Mockito.anyLong());
 	}
 
 	@Test (expected = IllegalArgumentException.class)
@@ -507,7 +511,7 @@ public class DiscussionThreadManagerImplTest {
 		MessageURL url = threadManager.getMessageUrl(userInfo, messageKey);
 		assertNotNull(url);
 		assertNotNull(url.getMessageUrl());
-		verify(mockThreadDao).updateThreadView(threadId, userId);
+		verify(mockThreadViewRecorder).recordView(threadId, userId);
 	}
 
 	@Test (expected = IllegalArgumentException.class)
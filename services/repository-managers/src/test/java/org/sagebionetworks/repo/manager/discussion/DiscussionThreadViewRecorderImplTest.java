@@ -0,0 +1,103 @@
+package org.sagebionetworks.repo.manager.discussion;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.repo.model.dao.discussion.DiscussionThreadDAO;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Sets;
+
+public class DiscussionThreadViewRecorderImplTest {
+
+	@Mock
+	private DiscussionThreadDAO mockThreadDao;
+	private DiscussionThreadViewRecorderImpl recorder;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		recorder = new DiscussionThreadViewRecorderImpl();
+		ReflectionTestUtils.setField(recorder, "threadDao", mockThreadDao);
+	}
+
+	@Test
+	public void testNoViews() {
+		recorder.timerFired();
+		verifyZeroInteractions(mockThreadDao);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRecordViews() {
+		recorder.recordView(1L, 10L);
+		recorder.recordView(1L, 10L);
+		recorder.recordView(1L, 11L);
+		recorder.recordView(2L, 10L);
+		assertEquals(2, recorder.getPendingThreadCount());
+		recorder.timerFired();
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify(mockThreadDao).updateThreadViews(captor.capture());
+		Map<Long, Set<Long>> expected = new HashMap<Long, Set<Long>>();
+		expected.put(1L, Sets.newHashSet(10L, 11L));
+		expected.put(2L, Sets.newHashSet(10L));
+		assertEquals(expected, captor.getValue());
+		assertEquals(0, recorder.getPendingThreadCount());
+		// the views are only written once.
+		recorder.timerFired();
+		verify(mockThreadDao, times(1)).updateThreadViews(Mockito.anyMap());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testBatches() {
+		int threadCount = DiscussionThreadViewRecorderImpl.MAX_THREADS_PER_BATCH + 1;
+		for (long threadId = 0; threadId < threadCount; threadId++) {
+			recorder.recordView(threadId, 10L);
+		}
+		recorder.timerFired();
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify(mockThreadDao, times(2)).updateThreadViews(captor.capture());
+		assertEquals(DiscussionThreadViewRecorderImpl.MAX_THREADS_PER_BATCH, captor.getAllValues().get(0).size());
+		assertEquals(1, captor.getAllValues().get(1).size());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testClose() {
+		recorder.recordView(1L, 10L);
+		recorder.close();
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify(mockThreadDao).updateThreadViews(captor.capture());
+		Map<Long, Set<Long>> expected = new HashMap<Long, Set<Long>>();
+		expected.put(1L, Sets.newHashSet(10L));
+		assertEquals(expected, captor.getValue());
+		assertEquals(0, recorder.getPendingThreadCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testFailureIsRetried() {
+		Mockito.doThrow(new RuntimeException("failed")).doNothing().when(mockThreadDao).updateThreadViews(Mockito.anyMap());
+		recorder.recordView(1L, 10L);
+		recorder.timerFired();
+		assertEquals(1, recorder.getPendingThreadCount());
+		recorder.timerFired();
+		assertEquals(0, recorder.getPendingThreadCount());
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify(mockThreadDao, times(2)).updateThreadViews(captor.capture());
+		Map<Long, Set<Long>> expected = new HashMap<Long, Set<Long>>();
+		expected.put(1L, Sets.newHashSet(10L));
+		assertEquals(expected, captor.getAllValues().get(1));
+	}
+}
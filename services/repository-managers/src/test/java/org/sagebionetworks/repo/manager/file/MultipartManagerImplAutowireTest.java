@@ -12,6 +12,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.StringEntity;
@@ -21,6 +22,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.sagebionetworks.repo.manager.UserManager;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.manager.file.transfer.TransferUtils;
 import org.sagebionetworks.repo.model.AuthorizationConstants.BOOTSTRAP_PRINCIPAL;
 import org.sagebionetworks.repo.model.UserInfo;
@@ -187,4 +189,33 @@ public class MultipartManagerImplAutowireTest {
 			temp.delete();
 		}
 	}
+
+	/**
+	 * Test the upload of content that is written as it is uploaded.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testMultipartUploadStream() throws IOException{
+		String fileBody = "This is the body of the file!!!!!";
+		byte[] fileBodyBytes = fileBody.getBytes("UTF-8");
+		String md5 = TransferUtils.createMD5(fileBodyBytes);
+		String contentType = "text/plain";
+		String fileName = "testMultipartUploadStream.txt";
+		MultipartUploadOutputStream out = multipartManager.openMultipartUploadStream(null, adminUserInfo.getId().toString(), fileName, contentType);
+		try{
+			out.write(fileBodyBytes);
+			S3FileHandle handle = multipartManager.completeMultipartUploadStream(out);
+			assertNotNull(handle);
+			fileHandlesToDelete.add(handle.getId());
+			assertEquals(md5, handle.getContentMd5());
+			assertEquals(fileName, handle.getFileName());
+			assertEquals(contentType, handle.getContentType());
+			assertEquals(new Long(fileBodyBytes.length), handle.getContentSize());
+			assertEquals(adminUserInfo.getId().toString(), handle.getCreatedBy());
+			// The content should be in S3
+			assertEquals(fileBody, IOUtils.toString(s3Client.getObject(handle.getBucketName(), handle.getKey()).getObjectContent(), "UTF-8"));
+		}finally{
+			out.abort();
+		}
+	}
 }
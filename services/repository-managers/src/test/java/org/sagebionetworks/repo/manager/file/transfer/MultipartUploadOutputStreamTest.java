@@ -0,0 +1,147 @@
+package org.sagebionetworks.repo.manager.file.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+public class MultipartUploadOutputStreamTest {
+
+	@Mock
+	AmazonS3Client mockS3Client;
+
+	S3FileHandle fileHandle;
+	int partSize;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		fileHandle = new S3FileHandle();
+		fileHandle.setBucketName("bucket");
+		fileHandle.setKey("key");
+		fileHandle.setContentType("application/zip");
+		fileHandle.setFileName("foo.zip");
+		partSize = MemoryTransferStrategy.MINIMUM_BLOCK_SIZE_BYTES;
+
+		InitiateMultipartUploadResult initiate = new InitiateMultipartUploadResult();
+		initiate.setUploadId("uploadId");
+		when(mockS3Client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiate);
+		UploadPartResult uploadPart = new UploadPartResult();
+		uploadPart.setETag("etag");
+		when(mockS3Client.uploadPart(any(UploadPartRequest.class))).thenReturn(uploadPart);
+	}
+
+	@Test
+	public void testWriteMultipleParts() throws IOException {
+		MultipartUploadOutputStream out = new MultipartUploadOutputStream(mockS3Client, fileHandle, partSize);
+		byte[] content = new byte[partSize * 2 + 10];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		// write a single byte then the rest.
+		out.write(content[0]);
+		out.write(content, 1, content.length - 1);
+		// two full parts should already be sent.
+		verify(mockS3Client, times(2)).uploadPart(any(UploadPartRequest.class));
+		assertEquals(content.length, out.getContentSize());
+		assertNull(fileHandle.getContentMd5());
+		// call under test
+		out.close();
+		ArgumentCaptor<UploadPartRequest> partCapture = ArgumentCaptor.forClass(UploadPartRequest.class);
+		verify(mockS3Client, times(3)).uploadPart(partCapture.capture());
+		List<UploadPartRequest> parts = partCapture.getAllValues();
+		assertEquals(1, parts.get(0).getPartNumber());
+		assertEquals(partSize, parts.get(0).getPartSize());
+		assertEquals(3, parts.get(2).getPartNumber());
+		assertEquals(10, parts.get(2).getPartSize());
+		ArgumentCaptor<CompleteMultipartUploadRequest> completeCapture = ArgumentCaptor
+				.forClass(CompleteMultipartUploadRequest.class);
+		verify(mockS3Client).completeMultipartUpload(completeCapture.capture());
+		assertEquals("uploadId", completeCapture.getValue().getUploadId());
+		assertEquals(3, completeCapture.getValue().getPartETags().size());
+		assertEquals(TransferUtils.createMD5(content), fileHandle.getContentMd5());
+		assertEquals(new Long(content.length), fileHandle.getContentSize());
+		// closing again or aborting does nothing.
+		out.close();
+		out.abort();
+		verify(mockS3Client, times(1)).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+		verify(mockS3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		MultipartUploadOutputStream out = new MultipartUploadOutputStream(mockS3Client, fileHandle, partSize);
+		out.close();
+		// S3 requires at least one part.
+		verify(mockS3Client, times(1)).uploadPart(any(UploadPartRequest.class));
+		assertEquals(new Long(0), fileHandle.getContentSize());
+	}
+
+	@Test
+	public void testAbort() throws IOException {
+		MultipartUploadOutputStream out = new MultipartUploadOutputStream(mockS3Client, fileHandle, partSize);
+		out.write(new byte[] { 1, 2, 3 });
+		// call under test
+		out.abort();
+		verify(mockS3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		// close after abort does not complete the upload.
+		out.close();
+		verify(mockS3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+		try {
+			out.write(1);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPartFailure() throws IOException {
+		when(mockS3Client.uploadPart(any(UploadPartRequest.class))).thenThrow(new AmazonClientException("failed"));
+		MultipartUploadOutputStream out = new MultipartUploadOutputStream(mockS3Client, fileHandle, partSize);
+		try {
+			out.write(new byte[partSize]);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		// a failed part discards the upload.
+		verify(mockS3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		out.abort();
+		verify(mockS3Client, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPartSizeTooSmall() {
+		new MultipartUploadOutputStream(mockS3Client, fileHandle, partSize - 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullKey() {
+		fileHandle.setKey(null);
+		new MultipartUploadOutputStream(mockS3Client, fileHandle, partSize);
+	}
+}
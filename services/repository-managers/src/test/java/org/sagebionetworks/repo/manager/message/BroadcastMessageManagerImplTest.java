@@ -2,6 +2,11 @@ package org.sagebionetworks.repo.manager.message;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -20,11 +25,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.repo.manager.AuthorizationManager;
 import org.sagebionetworks.repo.manager.AuthorizationManagerUtil;
 import org.sagebionetworks.repo.manager.UserManager;
-import org.sagebionetworks.repo.manager.principal.SynapseEmailService;
+import org.sagebionetworks.repo.manager.principal.BulkEmailSender;
 import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserInfo;
@@ -41,10 +48,12 @@ import org.sagebionetworks.repo.model.subscription.SubscriptionObjectType;
 import org.sagebionetworks.repo.model.subscription.Topic;
 import org.sagebionetworks.util.TimeoutUtils;
 import org.sagebionetworks.utils.HttpClientHelperException;
+import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 public class BroadcastMessageManagerImplTest {
 	
@@ -57,7 +66,7 @@ public class BroadcastMessageManagerImplTest {
 	@Mock
 	DBOChangeDAO mockChangeDao;
 	@Mock
-	SynapseEmailService mockSesClient;
+	BulkEmailSender mockEmailSender;
 	@Mock
 	TimeoutUtils mockTimeoutUtils;
 	@Mock
@@ -91,7 +100,7 @@ public class BroadcastMessageManagerImplTest {
 		ReflectionTestUtils.setField(manager, "broadcastMessageDao", mockBroadcastMessageDao);
 		ReflectionTestUtils.setField(manager, "changeDao", mockChangeDao);
 		ReflectionTestUtils.setField(manager, "timeoutUtils", mockTimeoutUtils);
-		ReflectionTestUtils.setField(manager, "sesClient", mockSesClient);
+		ReflectionTestUtils.setField(manager, "emailSender", mockEmailSender);
 		ReflectionTestUtils.setField(manager, "principalAliasDao", mockPrincipalAliasDao);
 		ReflectionTestUtils.setField(manager, "userProfileDao", mockUserProfileDao);
 		ReflectionTestUtils.setField(manager, "userManager", mockUserManager);
@@ -116,7 +125,7 @@ public class BroadcastMessageManagerImplTest {
 		
 		when(mockUser.isAdmin()).thenReturn(true);
 		when(mockTimeoutUtils.hasExpired(anyLong(), anyLong())).thenReturn(false);
-		when(mockBroadcastMessageDao.wasBroadcast(change.getChangeNumber())).thenReturn(false);
+		when(mockBroadcastMessageDao.isBroadcastComplete(change.getChangeNumber())).thenReturn(false);
 		when(mockChangeDao.doesChangeNumberExist(change.getChangeNumber())).thenReturn(true);
 		
 		when(mockFactory.createMessageBuilder(change.getObjectId(), change.getChangeType(), change.getUserId())).thenReturn(mockBroadcastMessageBuilder);
@@ -132,9 +141,20 @@ public class BroadcastMessageManagerImplTest {
 		sub2.setSubscriberId("2");
 		subscribers = Lists.newArrayList(sub1, sub2);
 		
-		when(mockSubscriptionDAO.getAllEmailSubscribers(topic.getObjectId(), topic.getObjectType())).thenReturn(subscribers);
+		when(mockSubscriptionDAO.getEmailSubscribers(topic.getObjectId(), topic.getObjectType(), 0L, BroadcastMessageManagerImpl.SUBSCRIBER_PAGE_SIZE)).thenReturn(subscribers);
 		when(mockBroadcastMessageBuilder.buildEmailForSubscriber(any(Subscriber.class))).thenReturn(new SendRawEmailRequest());
+		when(mockBroadcastMessageBuilder.buildEmailForNonSubscriber(any(UserNotificationInfo.class))).thenReturn(new SendRawEmailRequest());
 		
+		// none of the recipients were sent the message before.
+		when(mockBroadcastMessageDao.addRecipients(eq(change.getChangeNumber()), anySetOf(Long.class))).thenAnswer(new Answer<Set<Long>>() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Set<Long> answer(InvocationOnMock invocation) throws Throwable {
+				return new HashSet<Long>((Set<Long>) invocation.getArguments()[1]);
+			}
+		});
+		when(mockEmailSender.sendEmails(any(ProgressCallback.class), anyMapOf(Long.class, SendRawEmailRequest.class))).thenReturn(new HashSet<Long>());
 	}
 	
 	@Test
@@ -142,12 +162,103 @@ public class BroadcastMessageManagerImplTest {
 		when(mockBroadcastMessageBuilder.getMarkdown()).thenReturn("");
 		// call under test
 		manager.broadcastMessage(mockUser, mockCallback, change);
-		// The message state should be sent.
-		verify(mockBroadcastMessageDao).setBroadcast(change.getChangeNumber());
-		// progress should be made for each subscriber
-		verify(mockCallback, times(2)).progressMade(null);
+		// The recipients should be recorded before sending.
+		verify(mockBroadcastMessageDao).addRecipients(change.getChangeNumber(), Sets.newHashSet(1L, 2L));
+		// progress should be made for the page of subscribers
+		verify(mockCallback, times(1)).progressMade(null);
 		// two messages should be sent
-		verify(mockSesClient, times(2)).sendRawEmail(any(SendRawEmailRequest.class));
+		verify(mockEmailSender).sendEmails(mockCallback, createEmails(1L, 2L));
+		verify(mockBroadcastMessageDao, never()).removeRecipients(anyLong(), anySetOf(Long.class));
+		verify(mockBroadcastMessageDao).setBroadcastComplete(change.getChangeNumber());
+	}
+
+	@Test
+	public void testBroadcastNoRecipients() throws Exception{
+		when(mockBroadcastMessageBuilder.getRelatedUsers()).thenReturn(new HashSet<String>());
+		when(mockSubscriptionDAO.getEmailSubscribers(topic.getObjectId(), topic.getObjectType(), 0L, BroadcastMessageManagerImpl.SUBSCRIBER_PAGE_SIZE)).thenReturn(new ArrayList<Subscriber>());
+		// call under test
+		manager.broadcastMessage(mockUser, mockCallback, change);
+		verify(mockEmailSender, never()).sendEmails(any(ProgressCallback.class), anyMapOf(Long.class, SendRawEmailRequest.class));
+		// the broadcast is recorded even though nobody was sent the email.
+		verify(mockBroadcastMessageDao).setBroadcastComplete(change.getChangeNumber());
+	}
+
+	@Test
+	public void testBroadcastSubscribersPages() throws Exception{
+		when(mockBroadcastMessageBuilder.getRelatedUsers()).thenReturn(new HashSet<String>());
+		List<Subscriber> page = new ArrayList<Subscriber>();
+		for (long i = 1; i <= BroadcastMessageManagerImpl.SUBSCRIBER_PAGE_SIZE; i++) {
+			Subscriber sub = new Subscriber();
+			sub.setSubscriptionId("" + (i + 1000));
+			sub.setSubscriberId("" + i);
+			page.add(sub);
+		}
+		long lastSubscriptionId = BroadcastMessageManagerImpl.SUBSCRIBER_PAGE_SIZE + 1000;
+		when(mockSubscriptionDAO.getEmailSubscribers(topic.getObjectId(), topic.getObjectType(), 0L, BroadcastMessageManagerImpl.SUBSCRIBER_PAGE_SIZE)).thenReturn(page);
+		when(mockSubscriptionDAO.getEmailSubscribers(topic.getObjectId(), topic.getObjectType(), lastSubscriptionId, BroadcastMessageManagerImpl.SUBSCRIBER_PAGE_SIZE)).thenReturn(new ArrayList<Subscriber>());
+		// call under test
+		manager.broadcastMessage(mockUser, mockCallback, change);
+		verify(mockSubscriptionDAO).getEmailSubscribers(topic.getObjectId(), topic.getObjectType(), lastSubscriptionId, BroadcastMessageManagerImpl.SUBSCRIBER_PAGE_SIZE);
+		verify(mockCallback, times(1)).progressMade(null);
+		verify(mockEmailSender, times(1)).sendEmails(any(ProgressCallback.class), anyMapOf(Long.class, SendRawEmailRequest.class));
+	}
+
+	@Test
+	public void testBroadcastResume() throws Exception{
+		when(mockBroadcastMessageBuilder.getRelatedUsers()).thenReturn(new HashSet<String>());
+		// a previous attempt sent the message to the first subscriber.
+		when(mockBroadcastMessageDao.addRecipients(change.getChangeNumber(), Sets.newHashSet(1L, 2L))).thenReturn(Sets.newHashSet(2L));
+		// call under test
+		manager.broadcastMessage(mockUser, mockCallback, change);
+		// only the second subscriber should be sent the message.
+		verify(mockEmailSender).sendEmails(mockCallback, createEmails(2L));
+		verify(mockBroadcastMessageDao).setBroadcastComplete(change.getChangeNumber());
+	}
+
+	@Test
+	public void testBroadcastFailedToSend() throws Exception{
+		when(mockBroadcastMessageBuilder.getRelatedUsers()).thenReturn(new HashSet<String>());
+		when(mockEmailSender.sendEmails(mockCallback, createEmails(1L, 2L))).thenReturn(Sets.newHashSet(2L));
+		try {
+			// call under test
+			manager.broadcastMessage(mockUser, mockCallback, change);
+			fail("Should have failed");
+		} catch (RecoverableMessageException e) {
+			// expected
+		}
+		// the failed recipient should be removed so the retry sends to them.
+		verify(mockBroadcastMessageDao).removeRecipients(change.getChangeNumber(), Sets.newHashSet(2L));
+		verify(mockBroadcastMessageDao, never()).setBroadcastComplete(anyLong());
+	}
+
+	@Test
+	public void testSendEmailsEmpty() throws Exception{
+		// call under test
+		manager.sendEmails(mockCallback, change.getChangeNumber(), new HashMap<Long, SendRawEmailRequest>());
+		verify(mockBroadcastMessageDao, never()).addRecipients(anyLong(), anySetOf(Long.class));
+		verify(mockEmailSender, never()).sendEmails(any(ProgressCallback.class), anyMapOf(Long.class, SendRawEmailRequest.class));
+		verify(mockCallback, never()).progressMade(null);
+	}
+
+	@Test
+	public void testSendEmailsNoneNew() throws Exception{
+		when(mockBroadcastMessageDao.addRecipients(change.getChangeNumber(), Sets.newHashSet(1L, 2L))).thenReturn(new HashSet<Long>());
+		Map<Long, SendRawEmailRequest> emails = createEmails(1L, 2L);
+		// call under test
+		manager.sendEmails(mockCallback, change.getChangeNumber(), emails);
+		assertEquals(0, emails.size());
+		verify(mockEmailSender).sendEmails(mockCallback, new HashMap<Long, SendRawEmailRequest>());
+	}
+
+	/**
+	 * The emails the builder creates for the given recipients.
+	 */
+	private Map<Long, SendRawEmailRequest> createEmails(Long...recipientIds) {
+		Map<Long, SendRawEmailRequest> emails = new HashMap<Long, SendRawEmailRequest>();
+		for (Long recipientId : recipientIds) {
+			emails.put(recipientId, new SendRawEmailRequest());
+		}
+		return emails;
 	}
 
 	@Test
@@ -173,8 +284,9 @@ public class BroadcastMessageManagerImplTest {
 				.thenReturn(AuthorizationManagerUtil.ACCESS_DENIED);
 
 		manager.broadcastMessage(mockUser, mockCallback, change);
-		// The message state should be sent.
-		verify(mockBroadcastMessageDao).setBroadcast(change.getChangeNumber());
+		// The recipients should be recorded before sending.
+		verify(mockBroadcastMessageDao).addRecipients(change.getChangeNumber(), Sets.newHashSet(1L, 2L));
+		verify(mockBroadcastMessageDao).addRecipients(change.getChangeNumber(), Sets.newHashSet(111L));
 		verify(mockBroadcastMessageBuilder).getRelatedUsers();
 		verify(mockUserProfileDao).getUserNotificationInfo(userIds);
 		verify(mockUserManager).getUserInfo(111L);
@@ -182,8 +294,9 @@ public class BroadcastMessageManagerImplTest {
 		verify(mockUserManager, never()).getUserInfo(2L);
 		verify(mockAuthManager).canSubscribe(hasAccessUserInfo, topic.getObjectId(), topic.getObjectType());
 		verify(mockAuthManager).canSubscribe(accessDeniedUserInfo, topic.getObjectId(), topic.getObjectType());
-		verify(mockCallback, times(3)).progressMade(null);
-		verify(mockSesClient, times(3)).sendRawEmail(any(SendRawEmailRequest.class));
+		verify(mockCallback, times(2)).progressMade(null);
+		verify(mockEmailSender).sendEmails(mockCallback, createEmails(1L, 2L));
+		verify(mockEmailSender).sendEmails(mockCallback, createEmails(111L));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -235,7 +348,8 @@ public class BroadcastMessageManagerImplTest {
 		verify(mockAuthManager).canSubscribe(hasAccessUserInfo, topic.getObjectId(), topic.getObjectType());
 		verify(mockAuthManager).canSubscribe(accessDeniedUserInfo, topic.getObjectId(), topic.getObjectType());
 		verify(mockCallback, times(1)).progressMade(null);
-		verify(mockSesClient, times(1)).sendRawEmail(any(SendRawEmailRequest.class));
+		verify(mockBroadcastMessageDao).addRecipients(change.getChangeNumber(), Sets.newHashSet(111L));
+		verify(mockEmailSender, times(1)).sendEmails(any(ProgressCallback.class), anyMapOf(Long.class, SendRawEmailRequest.class));
 	}
 
 	@Test
@@ -265,8 +379,9 @@ public class BroadcastMessageManagerImplTest {
 		verify(mockUserManager).getUserInfo(222L);
 		verify(mockAuthManager).canSubscribe(hasAccessUserInfo1, topic.getObjectId(), topic.getObjectType());
 		verify(mockAuthManager).canSubscribe(hasAccessUserInfo2, topic.getObjectId(), topic.getObjectType());
-		verify(mockCallback, times(2)).progressMade(null);
-		verify(mockSesClient, times(2)).sendRawEmail(any(SendRawEmailRequest.class));
+		verify(mockCallback, times(1)).progressMade(null);
+		verify(mockBroadcastMessageDao).addRecipients(change.getChangeNumber(), Sets.newHashSet(111L, 222L));
+		verify(mockEmailSender, times(1)).sendEmails(any(ProgressCallback.class), anyMapOf(Long.class, SendRawEmailRequest.class));
 	}
 
 	@Test (expected = HttpClientHelperException.class)
@@ -290,7 +405,7 @@ public class BroadcastMessageManagerImplTest {
 		// call under test
 		manager.broadcastMessage(mockUser, mockCallback, change);
 		// should be ignored
-		verify(mockBroadcastMessageDao, never()).setBroadcast(anyLong());
+		verify(mockBroadcastMessageDao, never()).addRecipients(anyLong(), anySetOf(Long.class));
 	}
 	
 	@Test
@@ -300,17 +415,18 @@ public class BroadcastMessageManagerImplTest {
 		// call under test
 		manager.broadcastMessage(mockUser, mockCallback, change);
 		// should be ignored
-		verify(mockBroadcastMessageDao, never()).setBroadcast(anyLong());
+		verify(mockBroadcastMessageDao, never()).addRecipients(anyLong(), anySetOf(Long.class));
 	}
 	
 	@Test
 	public void testBroadcastMessageAlreadyBroadcast() throws Exception{
 		// already broadcast.
-		when(mockBroadcastMessageDao.wasBroadcast(change.getChangeNumber())).thenReturn(true);
+		when(mockBroadcastMessageDao.isBroadcastComplete(change.getChangeNumber())).thenReturn(true);
 		// call under test
 		manager.broadcastMessage(mockUser, mockCallback, change);
 		// should be ignored
-		verify(mockBroadcastMessageDao, never()).setBroadcast(anyLong());
+		verify(mockBroadcastMessageDao, never()).addRecipients(anyLong(), anySetOf(Long.class));
+		verify(mockEmailSender, never()).sendEmails(any(ProgressCallback.class), anyMapOf(Long.class, SendRawEmailRequest.class));
 	}
 	
 	@Test (expected=IllegalArgumentException.class)
@@ -10,12 +10,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sagebionetworks.markdown.MarkdownDao;
 import org.sagebionetworks.repo.model.broadcast.UserNotificationInfo;
 import org.sagebionetworks.repo.model.principal.PrincipalAliasDAO;
 import org.sagebionetworks.repo.model.dao.subscription.Subscriber;
 import org.sagebionetworks.repo.model.subscription.SubscriptionObjectType;
 import org.sagebionetworks.repo.model.subscription.Topic;
+import org.sagebionetworks.repo.util.MessageTestUtil;
 import org.sagebionetworks.utils.HttpClientHelperException;
 
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
@@ -216,4 +219,59 @@ public class DiscussionBroadcastMessageBuilderTest {
 		SendRawEmailRequest emailRequest = builder.buildEmailForNonSubscriber(user);
 		assertNotNull(emailRequest);
 	}
+
+	/**
+	 * Convert markdown by wrapping it in a paragraph.
+	 */
+	private void setupMarkdownEcho() throws Exception{
+		when(mockMarkdownDao.convertMarkdown(anyString(), anyString())).thenAnswer(new Answer<String>() {
+
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				return "<p>" + invocation.getArguments()[0] + "</p>";
+			}
+		});
+	}
+
+	@Test
+	public void testBuildEmailForSubscriberConvertsMarkdownOnce() throws Exception{
+		setupMarkdownEcho();
+		Subscriber other = new Subscriber();
+		other.setFirstName("<b>other</b>");
+		other.setLastName("subscriber");
+		other.setNotificationEmail("other@domain.org");
+		other.setSubscriberId("124");
+		other.setUsername("otherUsername");
+		other.setSubscriptionId("1000");
+		SendRawEmailRequest first = builder.buildEmailForSubscriber(subscriber);
+		SendRawEmailRequest second = builder.buildEmailForSubscriber(other);
+		verify(mockMarkdownDao, times(1)).convertMarkdown(anyString(), anyString());
+		String body = MessageTestUtil.getBodyFromRawMessage(first, "text/html");
+		assertTrue(body.contains("subscriberFirstName subscriberLastName (subscriberUsername)"));
+		assertTrue(body.contains("https://www.synapse.org/#!Subscription:subscriptionID=999"));
+		assertTrue(body.contains(markdown));
+		body = MessageTestUtil.getBodyFromRawMessage(second, "text/html");
+		// the name is escaped since it is filled in after the conversion.
+		assertTrue(body.contains("&lt;b&gt;other&lt;/b&gt; subscriber (otherUsername)"));
+		assertTrue(body.contains("https://www.synapse.org/#!Subscription:subscriptionID=1000"));
+		assertFalse(body.contains("subscriptionID=999"));
+	}
+
+	@Test
+	public void testBuildEmailForNonSubscriberConvertsMarkdownOnce() throws Exception{
+		setupMarkdownEcho();
+		UserNotificationInfo other = new UserNotificationInfo();
+		other.setFirstName("otherFirstName");
+		other.setLastName("otherLastName");
+		other.setNotificationEmail("other@domain.org");
+		other.setUserId("457");
+		other.setUsername("otherUsername");
+		builder.buildEmailForNonSubscriber(user);
+		SendRawEmailRequest second = builder.buildEmailForNonSubscriber(other);
+		verify(mockMarkdownDao, times(1)).convertMarkdown(anyString(), anyString());
+		String body = MessageTestUtil.getBodyFromRawMessage(second, "text/html");
+		assertTrue(body.contains("otherFirstName otherLastName (otherUsername)"));
+		assertFalse(body.contains("firstName lastName (username)"));
+		assertTrue(body.contains("Subscribe to the thread"));
+	}
 }
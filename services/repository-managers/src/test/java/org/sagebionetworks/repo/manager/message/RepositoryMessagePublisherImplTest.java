@@ -2,21 +2,42 @@ package org.sagebionetworks.repo.manager.message;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
 import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.ChangeMessages;
 import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.message.TransactionalMessenger;
+import org.sagebionetworks.schema.adapter.org.json.EntityFactory;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.CreateTopicRequest;
+import com.amazonaws.services.sns.model.CreateTopicResult;
+import com.amazonaws.services.sns.model.PublishRequest;
 
 /**
  * Unit test for RepositoryMessagePublisherImpl.
@@ -29,6 +50,8 @@ public class RepositoryMessagePublisherImplTest {
 	ChangeMessage message;
 	TransactionalMessenger mockTransactionalMessanger;
 	AmazonSNSClient mockAwsSNSClient;
+	Consumer mockConsumer;
+	ExecutorService executor;
 	
 	RepositoryMessagePublisherImpl messagePublisher;
 	
@@ -43,6 +66,44 @@ public class RepositoryMessagePublisherImplTest {
 		message.setObjectId("syn456");
 		message.setObjectType(ObjectType.ENTITY);
 		messagePublisher = new RepositoryMessagePublisherImpl("prefix", "name", mockTransactionalMessanger, mockAwsSNSClient);
+		mockConsumer = Mockito.mock(Consumer.class);
+		messagePublisher.setConsumer(mockConsumer);
+		messagePublisher.setShouldMessagesBePublishedToTopic(true);
+		executor = Executors.newFixedThreadPool(2);
+		messagePublisher.setPublishExecutor(executor);
+		when(mockAwsSNSClient.createTopic(any(CreateTopicRequest.class))).thenReturn(new CreateTopicResult().withTopicArn("arn"));
+	}
+	
+	@After
+	public void after(){
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Helper to create a valid change message.
+	 */
+	private static ChangeMessage createMessage(ObjectType type, long number){
+		ChangeMessage message = new ChangeMessage();
+		message.setChangeNumber(number);
+		message.setTimestamp(new Date());
+		message.setChangeType(ChangeType.UPDATE);
+		message.setObjectId(""+number);
+		message.setObjectType(type);
+		return message;
+	}
+	
+	/**
+	 * Get the value of each metric sent by the last timer.
+	 */
+	private Map<String, Double> getMetrics(){
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockConsumer, times(4)).addProfileData(captor.capture());
+		Map<String, Double> metrics = new HashMap<String, Double>();
+		for(ProfileData data: captor.getAllValues()){
+			assertEquals(RepositoryMessagePublisherImpl.METRIC_NAMESPACE, data.getNamespace());
+			metrics.put(data.getName(), data.getValue());
+		}
+		return metrics;
 	}
 	
 	@Test (expected=IllegalArgumentException.class)
@@ -80,4 +141,103 @@ public class RepositoryMessagePublisherImplTest {
 		messagePublisher.fireChangeMessage(message);
 	}
 	
+	@Test
+	public void testTimerFiredBatchByType() throws Exception {
+		List<ChangeMessage> entities = new ArrayList<ChangeMessage>();
+		for(int i=0; i<3; i++){
+			entities.add(createMessage(ObjectType.ENTITY, i));
+			messagePublisher.fireChangeMessage(entities.get(i));
+		}
+		ChangeMessage team = createMessage(ObjectType.TEAM, 10);
+		messagePublisher.fireChangeMessage(team);
+		// call under test
+		messagePublisher.timerFired();
+		// one batch per type.
+		verify(mockTransactionalMessanger).registerMessagesSent(ObjectType.ENTITY, entities);
+		verify(mockTransactionalMessanger).registerMessagesSent(ObjectType.TEAM, Arrays.asList(team));
+		ArgumentCaptor<PublishRequest> captor = ArgumentCaptor.forClass(PublishRequest.class);
+		verify(mockAwsSNSClient, times(2)).publish(captor.capture());
+		int published = 0;
+		for(PublishRequest request: captor.getAllValues()){
+			published += EntityFactory.createEntityFromJSONString(request.getMessage(), ChangeMessages.class).getList().size();
+		}
+		assertEquals(4, published);
+		Map<String, Double> metrics = getMetrics();
+		assertEquals(new Double(4), metrics.get(RepositoryMessagePublisherImpl.METRIC_QUEUE_DEPTH));
+		assertEquals(new Double(0), metrics.get(RepositoryMessagePublisherImpl.METRIC_DROPPED_MESSAGES));
+		assertEquals(new Double(0), metrics.get(RepositoryMessagePublisherImpl.METRIC_FAILED_MESSAGES));
+		assertNotNull(metrics.get(RepositoryMessagePublisherImpl.METRIC_PUBLISH_LATENCY));
+	}
+	
+	@Test
+	public void testTimerFiredPartition(){
+		int count = ChangeMessageUtils.MAX_NUMBER_OF_CHANGE_MESSAGES_PER_SQS_MESSAGE+1;
+		for(int i=0; i<count; i++){
+			messagePublisher.fireChangeMessage(createMessage(ObjectType.ENTITY, i));
+		}
+		// call under test
+		messagePublisher.timerFired();
+		verify(mockAwsSNSClient, times(2)).publish(any(PublishRequest.class));
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(mockTransactionalMessanger, times(2)).registerMessagesSent(eq(ObjectType.ENTITY), captor.capture());
+		// The batches of a type are published in order.
+		assertEquals(ChangeMessageUtils.MAX_NUMBER_OF_CHANGE_MESSAGES_PER_SQS_MESSAGE, captor.getAllValues().get(0).size());
+		assertEquals(1, captor.getAllValues().get(1).size());
+		assertEquals(new Long(count-1), ((ChangeMessage)captor.getAllValues().get(1).get(0)).getChangeNumber());
+	}
+	
+	@Test
+	public void testTimerFiredPublishFailure(){
+		when(mockAwsSNSClient.publish(any(PublishRequest.class))).thenThrow(new AmazonClientException("failed"));
+		messagePublisher.fireChangeMessage(createMessage(ObjectType.ENTITY, 1));
+		messagePublisher.fireChangeMessage(createMessage(ObjectType.ENTITY, 2));
+		messagePublisher.fireChangeMessage(createMessage(ObjectType.TEAM, 3));
+		// call under test
+		messagePublisher.timerFired();
+		// each type is still attempted.
+		verify(mockAwsSNSClient, times(2)).publish(any(PublishRequest.class));
+		Map<String, Double> metrics = getMetrics();
+		// publish failures are counted separately from a full queue.
+		assertEquals(new Double(3), metrics.get(RepositoryMessagePublisherImpl.METRIC_FAILED_MESSAGES));
+		assertEquals(new Double(0), metrics.get(RepositoryMessagePublisherImpl.METRIC_DROPPED_MESSAGES));
+	}
+	
+	@Test
+	public void testFireQueueFull(){
+		messagePublisher.setMaxQueueSize(1);
+		ChangeMessage first = createMessage(ObjectType.ENTITY, 1);
+		messagePublisher.fireChangeMessage(first);
+		// dropped
+		messagePublisher.fireChangeMessage(createMessage(ObjectType.ENTITY, 2));
+		// call under test
+		messagePublisher.timerFired();
+		verify(mockTransactionalMessanger).registerMessagesSent(ObjectType.ENTITY, Arrays.asList(first));
+		Map<String, Double> metrics = getMetrics();
+		assertEquals(new Double(1), metrics.get(RepositoryMessagePublisherImpl.METRIC_QUEUE_DEPTH));
+		assertEquals(new Double(1), metrics.get(RepositoryMessagePublisherImpl.METRIC_DROPPED_MESSAGES));
+		assertEquals(new Double(0), metrics.get(RepositoryMessagePublisherImpl.METRIC_FAILED_MESSAGES));
+		// There is room again.
+		messagePublisher.fireChangeMessage(createMessage(ObjectType.ENTITY, 3));
+		messagePublisher.timerFired();
+		verify(mockAwsSNSClient, times(2)).publish(any(PublishRequest.class));
+	}
+	
+	@Test
+	public void testTimerFiredEmpty(){
+		// call under test
+		messagePublisher.timerFired();
+		verify(mockAwsSNSClient, never()).publish(any(PublishRequest.class));
+		verify(mockConsumer, never()).addProfileData(any(ProfileData.class));
+	}
+	
+	@Test
+	public void testTimerFiredDoNotPublish(){
+		messagePublisher.setShouldMessagesBePublishedToTopic(false);
+		messagePublisher.fireChangeMessage(message);
+		// call under test
+		messagePublisher.timerFired();
+		verify(mockAwsSNSClient, never()).publish(any(PublishRequest.class));
+		verify(mockTransactionalMessanger, never()).registerMessagesSent(any(ObjectType.class), anyListOf(ChangeMessage.class));
+	}
+	
 }
@@ -3,6 +3,9 @@ package org.sagebionetworks.repo.manager.migration;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
@@ -13,22 +16,30 @@ import java.io.Writer;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sagebionetworks.repo.model.Reference;
 import org.sagebionetworks.repo.model.StackStatusDao;
+import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.MigratableDatabaseObject;
 import org.sagebionetworks.repo.model.dbo.TableMapping;
+import org.sagebionetworks.repo.model.dbo.migration.BackupRowCodec;
 import org.sagebionetworks.repo.model.dbo.migration.DBOSubjectAccessRequirementBackup;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableDAO;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableTranslation;
 import org.sagebionetworks.repo.model.dbo.persistence.DBORevision;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOSubjectAccessRequirement;
 import org.sagebionetworks.repo.model.jdo.JDOSecondaryPropertyUtils;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.status.StatusEnum;
@@ -174,6 +185,73 @@ public class MigrationManagerImplTest {
 		assertEquals(ref, JDOSecondaryPropertyUtils.decompressedReference(databaseObject.getReference()));
 	}
 	
+	@Test
+	public void testGetBackupFormat(){
+		DBORevision revision = new DBORevision();
+		when(mockDao.getObjectForType(MigrationType.NODE_REVISION)).thenReturn(revision);
+		when(mockDao.getBackupRowCodec(MigrationType.NODE_REVISION)).thenReturn(BackupRowCodec.create(revision.getTableMapping()));
+		assertEquals(BackupFormat.BINARY, manager.getBackupFormat(MigrationType.NODE_REVISION));
+		manager.setBinaryBackupEnabled(false);
+		assertEquals(BackupFormat.XML, manager.getBackupFormat(MigrationType.NODE_REVISION));
+	}
+	
+	@Test
+	public void testGetBackupFormatNoCodec(){
+		when(mockDao.getObjectForType(MigrationType.NODE_REVISION)).thenReturn(new DBORevision());
+		assertEquals(BackupFormat.XML, manager.getBackupFormat(MigrationType.NODE_REVISION));
+	}
+	
+	@Test
+	public void testGetBackupFormatDifferentBackupClass(){
+		DBOSubjectAccessRequirement sar = new DBOSubjectAccessRequirement();
+		when(mockDao.getObjectForType(MigrationType.NODE_ACCESS_REQUIRMENT)).thenReturn(sar);
+		when(mockDao.getBackupRowCodec(MigrationType.NODE_ACCESS_REQUIRMENT)).thenReturn(BackupRowCodec.create(sar.getTableMapping()));
+		assertEquals(BackupFormat.XML, manager.getBackupFormat(MigrationType.NODE_ACCESS_REQUIRMENT));
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testBinaryRoundTrip() throws Exception{
+		manager.setBackupBatchMax(2);
+		UserInfo user = new UserInfo(true, "0");
+		DBORevision mdo = new DBORevision();
+		when(mockDao.getObjectForType(MigrationType.NODE_REVISION)).thenReturn(mdo);
+		when(mockDao.getBackupRowCodec(MigrationType.NODE_REVISION)).thenReturn(BackupRowCodec.create(mdo.getTableMapping()));
+		when(mockDao.runWithForeignKeyIgnored(Mockito.any(Callable.class))).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((Callable<Object>) invocation.getArguments()[0]).call();
+			}
+		});
+		List<DBORevision> revisions = new LinkedList<DBORevision>();
+		for(long i=1; i<4; i++){
+			DBORevision revision = new DBORevision();
+			revision.setOwner(i);
+			revision.setRevisionNumber(1L);
+			revision.setLabel("label"+i);
+			revisions.add(revision);
+		}
+		when(mockDao.getBackupBatch(DBORevision.class, Arrays.asList(1L, 2L))).thenReturn(revisions.subList(0, 2));
+		when(mockDao.getBackupBatch(DBORevision.class, Arrays.asList(3L))).thenReturn(revisions.subList(2, 3));
+		when(mockDao.createOrUpdateBatch(anyListOf(DBORevision.class))).thenReturn(Arrays.asList(1L, 2L), Arrays.asList(3L));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// call under test
+		manager.writeBackupBatch(user, MigrationType.NODE_REVISION, Arrays.asList(1L, 2L, 3L), out);
+		List<Long> ids = manager.createOrUpdateBatch(user, MigrationType.NODE_REVISION, new ByteArrayInputStream(out.toByteArray()), BackupFormat.BINARY);
+		assertEquals(Arrays.asList(1L, 2L, 3L), ids);
+		// the rows are created one backup batch at a time.
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(mockDao, times(2)).<DBORevision>createOrUpdateBatch(captor.capture());
+		assertEquals(revisions.subList(0, 2), captor.getAllValues().get(0));
+		assertEquals(revisions.subList(2, 3), captor.getAllValues().get(1));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testWriteBinaryNotSupported() throws Exception{
+		when(mockDao.getObjectForType(MigrationType.NODE_REVISION)).thenReturn(new DBORevision());
+		manager.writeBackupBatch(new UserInfo(true, "0"), MigrationType.NODE_REVISION, Arrays.asList(1L), new ByteArrayOutputStream());
+	}
+	
 	/**
 	 * Build a list of objects from a list of IDs
 	 * @param fullList
@@ -258,5 +336,28 @@ public class MigrationManagerImplTest {
 		UserInfo user = new UserInfo(true, "0");
 		MigrationTypeChecksum c = manager.getChecksumForType(user, MigrationType.FILE_HANDLE);
 	}
+	
+	@Test
+	public void testGetBucketChecksumsForIdRange() throws Exception {
+		MigrationRangeChecksum bucket = new MigrationRangeChecksum();
+		bucket.setType(MigrationType.FILE_HANDLE);
+		bucket.setMinid(100L);
+		bucket.setMaxid(109L);
+		bucket.setChecksum("1%2");
+		when(mockDao.getBucketChecksumsForIdRange(MigrationType.FILE_HANDLE, "salt", 100L, 199L, 10L)).thenReturn(Arrays.asList(bucket));
+		UserInfo user = new UserInfo(true, "0");
+		MigrationRangeChecksumList list = manager.getBucketChecksumsForIdRange(user, MigrationType.FILE_HANDLE, "salt", 100L, 199L, 10L);
+		assertEquals(MigrationType.FILE_HANDLE, list.getType());
+		assertEquals(new Long(100L), list.getMinid());
+		assertEquals(new Long(199L), list.getMaxid());
+		assertEquals(new Long(10L), list.getBucketSize());
+		assertEquals(Arrays.asList(bucket), list.getList());
+	}
+	
+	@Test(expected=UnauthorizedException.class)
+	public void testGetBucketChecksumsForIdRangeNotAdmin() throws Exception {
+		UserInfo user = new UserInfo(false, "0");
+		manager.getBucketChecksumsForIdRange(user, MigrationType.FILE_HANDLE, "salt", 100L, 199L, 10L);
+	}
 
 }
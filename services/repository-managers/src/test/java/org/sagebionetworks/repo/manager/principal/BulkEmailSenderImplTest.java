@@ -0,0 +1,195 @@
+package org.sagebionetworks.repo.manager.principal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.util.Clock;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaResult;
+import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class BulkEmailSenderImplTest {
+
+	@Mock
+	SynapseEmailService mockSesClient;
+	@Mock
+	Clock mockClock;
+	@Mock
+	ProgressCallback<Void> mockCallback;
+
+	BulkEmailSenderImpl sender;
+	SendRawEmailRequest emailOne;
+	SendRawEmailRequest emailTwo;
+	Map<Long, SendRawEmailRequest> emails;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		sender = new BulkEmailSenderImpl();
+		ReflectionTestUtils.setField(sender, "sesClient", mockSesClient);
+		ReflectionTestUtils.setField(sender, "clock", mockClock);
+		// send on the calling thread.
+		sender.setExecutor(MoreExecutors.sameThreadExecutor());
+		sender.setMaxSendsPerSecond(10);
+
+		when(mockClock.currentTimeMillis()).thenReturn(0L);
+		when(mockSesClient.getSendQuota()).thenReturn(new GetSendQuotaResult().withMaxSendRate(100.0));
+
+		emailOne = new SendRawEmailRequest().withSource("one@synapse.org");
+		emailTwo = new SendRawEmailRequest().withSource("two@synapse.org");
+		emails = new LinkedHashMap<Long, SendRawEmailRequest>();
+		emails.put(1L, emailOne);
+		emails.put(2L, emailTwo);
+	}
+
+	/**
+	 * An exception like the one thrown by SES.
+	 */
+	private static AmazonServiceException createException(String errorCode, ErrorType errorType) {
+		AmazonServiceException e = new AmazonServiceException(errorCode);
+		e.setErrorCode(errorCode);
+		e.setErrorType(errorType);
+		return e;
+	}
+
+	@Test
+	public void testSendEmails() throws Exception {
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, emails);
+		assertTrue(failed.isEmpty());
+		verify(mockSesClient).sendRawEmail(emailOne);
+		verify(mockSesClient).sendRawEmail(emailTwo);
+	}
+
+	@Test
+	public void testSendEmailsThrottled() throws Exception {
+		doThrow(createException(BulkEmailSenderImpl.THROTTLING_ERROR_CODE, ErrorType.Client))
+				.doNothing().when(mockSesClient).sendRawEmail(emailOne);
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, emails);
+		assertTrue(failed.isEmpty());
+		verify(mockSesClient, times(2)).sendRawEmail(emailOne);
+		verify(mockSesClient).sendRawEmail(emailTwo);
+		verify(mockClock).sleep(BulkEmailSenderImpl.RETRY_DELAY_MS);
+	}
+
+	@Test
+	public void testSendEmailsRejected() throws Exception {
+		doThrow(createException("MessageRejected", ErrorType.Client)).when(mockSesClient).sendRawEmail(emailOne);
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, emails);
+		// sending a rejected email again would not help.
+		assertTrue(failed.isEmpty());
+		verify(mockSesClient, times(1)).sendRawEmail(emailOne);
+		verify(mockSesClient).sendRawEmail(emailTwo);
+	}
+
+	@Test
+	public void testSendEmailsGiveUp() throws Exception {
+		doThrow(createException("ServiceUnavailable", ErrorType.Service)).when(mockSesClient).sendRawEmail(emailTwo);
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, emails);
+		assertEquals(Sets.newHashSet(2L), failed);
+		verify(mockSesClient, times(BulkEmailSenderImpl.MAX_ATTEMPTS)).sendRawEmail(emailTwo);
+		verify(mockClock).sleep(BulkEmailSenderImpl.RETRY_DELAY_MS);
+		verify(mockClock).sleep(BulkEmailSenderImpl.RETRY_DELAY_MS * 2);
+	}
+
+	@Test
+	public void testSendEmailsClientFailure() throws Exception {
+		doThrow(new AmazonClientException("no connection")).when(mockSesClient).sendRawEmail(emailOne);
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, emails);
+		assertEquals(Sets.newHashSet(1L), failed);
+		verify(mockSesClient, times(BulkEmailSenderImpl.MAX_ATTEMPTS)).sendRawEmail(emailOne);
+	}
+
+	@Test
+	public void testSendEmailsUnexpectedFailure() throws Exception {
+		doThrow(new IllegalStateException("unexpected")).when(mockSesClient).sendRawEmail(emailOne);
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, emails);
+		assertEquals(Sets.newHashSet(1L), failed);
+		verify(mockSesClient).sendRawEmail(emailTwo);
+	}
+
+	@Test
+	public void testSendRateConfigured() throws Exception {
+		// call under test
+		sender.sendEmails(mockCallback, emails);
+		// 10 per second as configured, the quota allows 100.
+		verify(mockClock).sleep(100L);
+		verify(mockSesClient, times(1)).getSendQuota();
+	}
+
+	@Test
+	public void testSendRateQuota() throws Exception {
+		when(mockSesClient.getSendQuota()).thenReturn(new GetSendQuotaResult().withMaxSendRate(5.0));
+		// call under test
+		sender.sendEmails(mockCallback, emails);
+		// the quota of 5 per second is lower than the configured rate.
+		verify(mockClock).sleep(200L);
+	}
+
+	@Test
+	public void testSendRateQuotaFailure() throws Exception {
+		when(mockSesClient.getSendQuota()).thenThrow(new AmazonClientException("no connection"));
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, emails);
+		assertTrue(failed.isEmpty());
+		// the configured rate is used.
+		verify(mockClock).sleep(100L);
+	}
+
+	@Test
+	public void testSendQuotaCheckedPeriodically() throws Exception {
+		sender.sendEmails(mockCallback, emails);
+		verify(mockSesClient, times(1)).getSendQuota();
+		when(mockClock.currentTimeMillis()).thenReturn(BulkEmailSenderImpl.QUOTA_CHECK_FREQUENCY_MS);
+		// call under test
+		sender.sendEmails(mockCallback, emails);
+		verify(mockSesClient, times(2)).getSendQuota();
+	}
+
+	@Test
+	public void testSendEmailsEmpty() throws Exception {
+		// call under test
+		Set<Long> failed = sender.sendEmails(mockCallback, new LinkedHashMap<Long, SendRawEmailRequest>());
+		assertTrue(failed.isEmpty());
+		verify(mockClock, never()).sleep(anyLong());
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testSetMaxSendsPerSecondZero() {
+		sender.setMaxSendsPerSecond(0);
+	}
+
+	@Test
+	public void testIsTemporary() {
+		assertTrue(BulkEmailSenderImpl.isTemporary(createException(BulkEmailSenderImpl.THROTTLING_ERROR_CODE, ErrorType.Client)));
+		assertTrue(BulkEmailSenderImpl.isTemporary(createException("ServiceUnavailable", ErrorType.Service)));
+		assertFalse(BulkEmailSenderImpl.isTemporary(createException("MessageRejected", ErrorType.Client)));
+	}
+}
@@ -11,6 +11,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -356,6 +357,19 @@ public class SearchDocumentDriverImplAutowireTest {
 		resultText = searchDocumentDriver.getAllWikiPageText("-123");
 		assertEquals(null, resultText);
 	}
+	
+	@Test
+	public void testFormulateSearchDocuments() throws Exception {
+		Document expected = searchDocumentDriver.formulateSearchDocument(project.getId());
+		// call under test
+		List<Document> results = searchDocumentDriver.formulateSearchDocuments(Arrays.asList(project.getId(), "syn9999999"));
+		assertNotNull(results);
+		assertEquals(1, results.size());
+		Document result = results.get(0);
+		assertEquals(expected.getId(), result.getId());
+		// The batch must build the same fields as a single document.
+		assertEquals(expected.getFields(), result.getFields());
+	}
 
 
 	// http://stackoverflow.com/questions/326390/how-to-create-a-java-string-from-the-contents-of-a-file
@@ -0,0 +1,84 @@
+package org.sagebionetworks.repo.manager.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.table.cluster.ConnectionFactory;
+import org.sagebionetworks.table.cluster.ConnectionPoolStatistics;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.google.common.collect.Lists;
+
+public class TableConnectionPoolPublisherTest {
+
+	@Mock
+	ConnectionFactory mockConnectionFactory;
+	@Mock
+	Consumer mockConsumer;
+
+	TableConnectionPoolPublisher publisher;
+	ConnectionPoolStatistics primaryStats;
+	ConnectionPoolStatistics replicaStats;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		publisher = new TableConnectionPoolPublisher();
+		ReflectionTestUtils.setField(publisher, "tableConnectionFactory", mockConnectionFactory);
+		ReflectionTestUtils.setField(publisher, "consumer", mockConsumer);
+
+		primaryStats = new ConnectionPoolStatistics(1, false, 3, 2, 40, 101L);
+		replicaStats = new ConnectionPoolStatistics(1, true, 1, 4, 40, 55L);
+	}
+
+	@Test
+	public void testTimerFired() {
+		when(mockConnectionFactory.getConnectionPoolStatistics()).thenReturn(Lists.newArrayList(primaryStats, replicaStats));
+		// call under test
+		publisher.timerFired();
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		// four metrics per pool.
+		verify(mockConsumer, times(8)).addProfileData(captor.capture());
+		List<ProfileData> metrics = captor.getAllValues();
+		assertEquals(TableConnectionPoolPublisher.ACTIVE_CONNECTIONS, metrics.get(0).getName());
+		assertEquals(new Double(3), metrics.get(0).getValue());
+		assertEquals(TableConnectionPoolPublisher.CONNECTION_REQUESTS, metrics.get(3).getName());
+		assertEquals(new Double(101), metrics.get(3).getValue());
+		assertEquals("false", metrics.get(3).getDimension().get(TableConnectionPoolPublisher.DIMENSION_REPLICA));
+		assertEquals(TableConnectionPoolPublisher.CONNECTION_REQUESTS, metrics.get(7).getName());
+		assertEquals(new Double(55), metrics.get(7).getValue());
+		assertEquals("true", metrics.get(7).getDimension().get(TableConnectionPoolPublisher.DIMENSION_REPLICA));
+	}
+
+	@Test
+	public void testTimerFiredNoPools() {
+		when(mockConnectionFactory.getConnectionPoolStatistics()).thenReturn(Collections.<ConnectionPoolStatistics> emptyList());
+		// call under test
+		publisher.timerFired();
+		verify(mockConsumer, never()).addProfileData(any(ProfileData.class));
+	}
+
+	@Test
+	public void testCreateMetric() {
+		ProfileData metric = TableConnectionPoolPublisher.createMetric(TableConnectionPoolPublisher.IDLE_CONNECTIONS, 2, primaryStats);
+		assertEquals(TableConnectionPoolPublisher.METRIC_NAMESPACE, metric.getNamespace());
+		assertEquals(StandardUnit.Count.name(), metric.getUnit());
+		assertEquals("1", metric.getDimension().get(TableConnectionPoolPublisher.DIMENSION_INSTANCE));
+		assertEquals("false", metric.getDimension().get(TableConnectionPoolPublisher.DIMENSION_REPLICA));
+	}
+}
@@ -0,0 +1,230 @@
+package org.sagebionetworks.repo.manager.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.common.util.progress.ProgressingCallable;
+import org.sagebionetworks.repo.model.table.TableConstants;
+import org.sagebionetworks.table.cluster.ConnectionFactory;
+import org.sagebionetworks.table.cluster.TableIndexDAO;
+import org.sagebionetworks.table.cluster.TableIndexMove;
+import org.sagebionetworks.util.Clock;
+import org.sagebionetworks.workers.util.semaphore.LockUnavilableException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class TableIndexMoveManagerImplTest {
+
+	@Mock
+	ConnectionFactory mockConnectionFactory;
+	@Mock
+	TableManagerSupport mockTableManagerSupport;
+	@Mock
+	TableIndexDAO mockSource;
+	@Mock
+	TableIndexDAO mockDestination;
+	@Mock
+	ProgressCallback<Void> mockCallback;
+	@Mock
+	Clock mockClock;
+
+	TableIndexMoveManagerImpl manager;
+	String tableId;
+	TableIndexMove move;
+	String definition;
+	List<Map<String, Object>> pageOne;
+	List<Map<String, Object>> pageTwo;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void before() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		manager = new TableIndexMoveManagerImpl();
+		ReflectionTestUtils.setField(manager, "tableConnectionFactory", mockConnectionFactory);
+		ReflectionTestUtils.setField(manager, "tableManagerSupport", mockTableManagerSupport);
+		ReflectionTestUtils.setField(manager, "clock", mockClock);
+
+		tableId = "syn123";
+		move = new TableIndexMove(tableId, mockSource, mockDestination);
+		when(mockConnectionFactory.getTableIndexMoves()).thenReturn(Lists.newArrayList(move));
+
+		// Just call the caller.
+		Answer<Object> callCaller = new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				ProgressingCallable<Object, Object> callable = (ProgressingCallable<Object, Object>) invocation.getArguments()[3];
+				return callable.call(mockCallback);
+			}
+		};
+		when(mockTableManagerSupport.tryRunWithTableNonexclusiveLock(any(ProgressCallback.class), anyString(), anyInt(), any(ProgressingCallable.class))).thenAnswer(callCaller);
+		when(mockTableManagerSupport.tryRunWithTableExclusiveLock(any(ProgressCallback.class), anyString(), anyInt(), any(ProgressingCallable.class))).thenAnswer(callCaller);
+
+		definition = "CREATE TABLE `T123` (`ROW_ID` bigint(20) NOT NULL)";
+		pageOne = Lists.newArrayList(createRow(1L), createRow(2L));
+		pageTwo = Lists.newArrayList(createRow(5L));
+
+		when(mockDestination.doesIndexStatusExist(tableId)).thenReturn(false);
+		when(mockSource.getRowCountForTable(tableId)).thenReturn(3L);
+		when(mockSource.getTableDefinition(tableId)).thenReturn(definition);
+		when(mockSource.getRowsAfter(tableId, -1L, TableIndexMoveManagerImpl.PAGE_SIZE)).thenReturn(pageOne);
+		when(mockSource.getRowsAfter(tableId, 2L, TableIndexMoveManagerImpl.PAGE_SIZE)).thenReturn(pageTwo);
+		when(mockSource.getRowsAfter(tableId, 5L, TableIndexMoveManagerImpl.PAGE_SIZE)).thenReturn(new LinkedList<Map<String, Object>>());
+		when(mockDestination.getTempTableCount(tableId)).thenReturn(3L);
+		when(mockSource.getFileHandleIdsAfter(tableId, -1L, TableIndexMoveManagerImpl.PAGE_SIZE)).thenReturn(Lists.newArrayList(11L, 12L));
+		when(mockSource.getFileHandleIdsAfter(tableId, 12L, TableIndexMoveManagerImpl.PAGE_SIZE)).thenReturn(new LinkedList<Long>());
+		when(mockSource.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(4L);
+		when(mockSource.getCurrentSchemaMD5Hex(tableId)).thenReturn("md5");
+	}
+
+	private static Map<String, Object> createRow(Long rowId) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		row.put(TableConstants.ROW_ID, rowId);
+		return row;
+	}
+
+	@Test
+	public void testMoveTableIndex() throws Exception {
+		// call under test
+		manager.moveTableIndex(mockCallback, move);
+		InOrder inOrder = inOrder(mockDestination, mockSource, mockConnectionFactory, mockClock);
+		inOrder.verify(mockDestination).deleteTemporaryTable(tableId);
+		inOrder.verify(mockDestination).createTemporaryTable(tableId, definition);
+		inOrder.verify(mockDestination).addRowsToTemporaryTable(tableId, pageOne);
+		inOrder.verify(mockDestination).addRowsToTemporaryTable(tableId, pageTwo);
+		inOrder.verify(mockDestination).createSecondaryTables(tableId);
+		inOrder.verify(mockDestination).applyFileHandleIdsToTable(tableId, Sets.newHashSet(11L, 12L));
+		inOrder.verify(mockDestination).replaceTableWithTemporaryTable(tableId);
+		// the status is written last.
+		inOrder.verify(mockDestination).setIndexVersionAndSchemaMD5Hex(tableId, 4L, "md5");
+		// other machines must stop routing to the source before it can change.
+		inOrder.verify(mockConnectionFactory).tableIndexMoved(tableId);
+		inOrder.verify(mockClock).sleep(ConnectionFactory.UNMOVED_TABLE_EXPIRATION_MS);
+		inOrder.verify(mockSource).deleteTable(tableId);
+		inOrder.verify(mockSource).deleteSecondayTables(tableId);
+	}
+
+	@Test
+	public void testMoveTableIndexCopyUnderReadLock() throws Exception {
+		// call under test
+		manager.moveTableIndex(mockCallback, move);
+		InOrder inOrder = inOrder(mockTableManagerSupport);
+		inOrder.verify(mockTableManagerSupport).tryRunWithTableNonexclusiveLock(eq(mockCallback), eq(tableId), eq(TableIndexMoveManagerImpl.LOCK_TIMEOUT_SEC), any(ProgressingCallable.class));
+		inOrder.verify(mockTableManagerSupport).tryRunWithTableExclusiveLock(eq(mockCallback), eq(tableId), eq(TableIndexMoveManagerImpl.LOCK_TIMEOUT_SEC), any(ProgressingCallable.class));
+	}
+
+	@Test
+	public void testMoveTableIndexNoIndexTable() throws Exception {
+		when(mockSource.getRowCountForTable(tableId)).thenReturn(null);
+		// call under test
+		manager.moveTableIndex(mockCallback, move);
+		verify(mockDestination, never()).createTemporaryTable(anyString(), anyString());
+		verify(mockDestination, never()).replaceTableWithTemporaryTable(anyString());
+		verify(mockDestination).applyFileHandleIdsToTable(tableId, Sets.newHashSet(11L, 12L));
+		verify(mockDestination).setIndexVersionAndSchemaMD5Hex(tableId, 4L, "md5");
+		verify(mockSource).deleteTable(tableId);
+	}
+
+	@Test
+	public void testMoveTableIndexAlreadyCopied() throws Exception {
+		when(mockDestination.doesIndexStatusExist(tableId)).thenReturn(true);
+		// call under test
+		manager.moveTableIndex(mockCallback, move);
+		verify(mockSource, never()).getRowsAfter(anyString(), anyLong(), anyLong());
+		verify(mockDestination, never()).setIndexVersionAndSchemaMD5Hex(anyString(), anyLong(), anyString());
+		verify(mockClock, never()).sleep(anyLong());
+		// only the source is deleted.
+		verify(mockSource).deleteTable(tableId);
+		verify(mockSource).deleteSecondayTables(tableId);
+	}
+
+	@Test
+	public void testMoveTableIndexCountMismatch() throws Exception {
+		when(mockDestination.getTempTableCount(tableId)).thenReturn(2L);
+		try {
+			// call under test
+			manager.moveTableIndex(mockCallback, move);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		// the partial copy is deleted.
+		verify(mockDestination, times(2)).deleteTemporaryTable(tableId);
+		verify(mockDestination, never()).setIndexVersionAndSchemaMD5Hex(anyString(), anyLong(), anyString());
+		verify(mockSource, never()).deleteTable(tableId);
+	}
+
+	@Test
+	public void testMoveTableIndexes() throws Exception {
+		// call under test
+		TableIndexMoveResults results = manager.moveTableIndexes(mockCallback);
+		assertEquals(1, results.getMoved());
+		assertEquals(0, results.getFailed());
+		assertEquals(0, results.getPending());
+		verify(mockSource).deleteTable(tableId);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testMoveTableIndexesLocked() throws Exception {
+		TableIndexDAO mockOtherSource = mock(TableIndexDAO.class);
+		TableIndexMove other = new TableIndexMove("syn456", mockOtherSource, mockDestination);
+		when(mockConnectionFactory.getTableIndexMoves()).thenReturn(Lists.newArrayList(other, move));
+		doThrow(new LockUnavilableException("locked")).when(mockTableManagerSupport).tryRunWithTableNonexclusiveLock(any(ProgressCallback.class), eq("syn456"), anyInt(), any(ProgressingCallable.class));
+		// call under test
+		TableIndexMoveResults results = manager.moveTableIndexes(mockCallback);
+		// the locked table is skipped but still pending.
+		assertEquals(1, results.getMoved());
+		assertEquals(0, results.getFailed());
+		assertEquals(1, results.getPending());
+		verify(mockOtherSource, never()).deleteTable(anyString());
+		verify(mockSource).deleteTable(tableId);
+	}
+
+	@Test
+	public void testMoveTableIndexesFailure() throws Exception {
+		when(mockDestination.getTempTableCount(tableId)).thenReturn(2L);
+		// call under test
+		TableIndexMoveResults results = manager.moveTableIndexes(mockCallback);
+		assertEquals(0, results.getMoved());
+		assertEquals(1, results.getFailed());
+		assertEquals(1, results.getPending());
+	}
+
+	@Test
+	public void testMoveTableIndexesNone() throws Exception {
+		when(mockConnectionFactory.getTableIndexMoves()).thenReturn(Collections.<TableIndexMove> emptyList());
+		// call under test
+		TableIndexMoveResults results = manager.moveTableIndexes(mockCallback);
+		assertEquals(0, results.getMoved());
+		assertEquals(0, results.getFailed());
+		assertEquals(0, results.getPending());
+	}
+}
@@ -11,7 +11,9 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.stub;
 import static org.mockito.Mockito.times;
@@ -65,6 +67,7 @@ import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.table.cluster.ConnectionFactory;
 import org.sagebionetworks.table.cluster.SqlQuery;
 import org.sagebionetworks.table.cluster.TableIndexDAO;
+import org.sagebionetworks.table.cluster.TableIndexVersion;
 import org.sagebionetworks.table.cluster.utils.TableModelUtils;
 import org.sagebionetworks.table.query.ParseException;
 import org.sagebionetworks.util.csv.CSVWriterStream;
@@ -114,6 +117,7 @@ public class TableQueryManagerImplTest {
 		ReflectionTestUtils.setField(manager, "tableConnectionFactory", mockTableConnectionFactory);
 		
 		when(mockTableConnectionFactory.getConnection(tableId)).thenReturn(mockTableIndexDAO);
+		when(mockTableConnectionFactory.getReadConnection(eq(tableId), any(TableIndexVersion.class))).thenReturn(mockTableIndexDAO);
 		
 		tableId = "syn123";
 		user = new UserInfo(false, 7L);
@@ -151,6 +155,7 @@ public class TableQueryManagerImplTest {
 		
 		when(mockColumnModelDAO.getColumnModelsForObject(tableId)).thenReturn(models);
 		when(mockTableConnectionFactory.getConnection(tableId)).thenReturn(mockTableIndexDAO);
+		when(mockTableConnectionFactory.getReadConnection(eq(tableId), any(TableIndexVersion.class))).thenReturn(mockTableIndexDAO);
 		stub(mockTableIndexDAO.queryAsStream(any(ProgressCallback.class),any(SqlQuery.class), any(RowHandler.class))).toAnswer(new Answer<Boolean>() {
 			@Override
 			public Boolean answer(InvocationOnMock invocation) throws Throwable {
@@ -237,6 +242,8 @@ public class TableQueryManagerImplTest {
 		verify(mockTableManagerSupport).tryRunWithTableNonexclusiveLock(any(ProgressCallback.class), anyString(), anyInt(), any(ProgressingCallable.class));
 		// The table status should be checked only for a consistent query.
 		verify(mockTableManagerSupport).getTableStatusOrCreateIfNotExists(tableId);
+		// a consistent query must not be run on a read replica.
+		verify(mockTableConnectionFactory, never()).getReadConnection(anyString(), any(TableIndexVersion.class));
 	}
 	
 	@Test (expected=NotFoundException.class)
@@ -325,6 +332,31 @@ public class TableQueryManagerImplTest {
 		verify(mockTableManagerSupport, never()).tryRunWithTableNonexclusiveLock(any(ProgressCallback.class), anyString(), anyInt(), any(ProgressingCallable.class));
 		// The table status should not be checked only for a non-consistent query.
 		verify(mockTableManagerSupport, never()).getTableStatusOrCreateIfNotExists(tableId);
+		// a non-consistent query can be run on a read replica.
+		verify(mockTableConnectionFactory).getReadConnection(eq(tableId), any(TableIndexVersion.class));
+	}
+	
+	@Test
+	public void testQueryAsStreamIsConsistentFalseVersionReadOnce() throws Exception{
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L);
+		when(mockTableIndexDAO.getCurrentSchemaMD5Hex(tableId)).thenReturn("md5");
+		// the replica check reads the version of the primary.
+		stub(mockTableConnectionFactory.getReadConnection(eq(tableId), any(TableIndexVersion.class))).toAnswer(new Answer<TableIndexDAO>() {
+			@Override
+			public TableIndexDAO answer(InvocationOnMock invocation) throws Throwable {
+				TableIndexVersion version = (TableIndexVersion) invocation.getArguments()[1];
+				version.getVersion();
+				version.getSchemaMD5Hex();
+				return mockTableIndexDAO;
+			}
+		});
+		SqlQuery query = new SqlQuery("select * from " + tableId, models);
+		// call under test.
+		manager.queryAsStream(mockProgressCallbackVoid, user, query, new SinglePageRowHandler(), true, false);
+		// the replica check and the cache key share a single read of the primary.
+		verify(mockTableIndexDAO, times(1)).getMaxCurrentCompleteVersionForTable(tableId);
+		verify(mockTableIndexDAO, times(1)).getCurrentSchemaMD5Hex(tableId);
 	}
 	
 	@Test
@@ -336,8 +368,9 @@ public class TableQueryManagerImplTest {
 		
 		RowHandler rowHandler = new SinglePageRowHandler();
 		boolean runCount = true;
+		boolean isConsistent = true;
 		// call under test
-		QueryResultBundle result = manager.queryAsStreamWithAuthorization(mockProgressCallbackVoid, user, query, rowHandler, runCount);
+		QueryResultBundle result = manager.queryAsStreamWithAuthorization(mockProgressCallbackVoid, user, query, rowHandler, runCount, isConsistent);
 		// auth check should occur
 		verify(mockTableManagerSupport).validateTableReadAccess(user, tableId);
 		// a benefactor check should not occur for TableEntities
@@ -361,15 +394,16 @@ public class TableQueryManagerImplTest {
 		
 		RowHandler rowHandler = new SinglePageRowHandler();
 		boolean runCount = true;
+		boolean isConsistent = true;
 		// call under test
-		QueryResultBundle result = manager.queryAsStreamWithAuthorization(mockProgressCallbackVoid, user, query, rowHandler, runCount);
+		QueryResultBundle result = manager.queryAsStreamWithAuthorization(mockProgressCallbackVoid, user, query, rowHandler, runCount, isConsistent);
 		assertNotNull(result);
 		// auth check should occur
 		verify(mockTableManagerSupport).validateTableReadAccess(user, tableId);
 		// a benefactor check must occur for FileViews
 		verify(mockTableManagerSupport).getAccessibleBenefactors(any(UserInfo.class), anySetOf(Long.class));
 		// validate the benefactor filter is applied
-		assertEquals("SELECT COUNT(*) FROM T123 WHERE _C999_ IN ( 444 )", sqlCaptrue.getValue());
+		assertEquals("SELECT COUNT(*) FROM T123 WHERE _C999_ IN ( :b0 )", sqlCaptrue.getValue());
 	}
 	
 	@Test
@@ -382,7 +416,7 @@ public class TableQueryManagerImplTest {
 		boolean runCount = true;
 		SqlQuery query = new SqlQuery("select * from " + tableId, models);
 		// call under test
-		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO);
+		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
 		assertNotNull(results);
 		assertEquals(models, results.getColumnModels());
 		assertEquals(TableModelUtils.getSelectColumns(models), results.getSelectColumns());
@@ -404,7 +438,7 @@ public class TableQueryManagerImplTest {
 		boolean runCount = true;
 		SqlQuery query = new SqlQuery("select * from " + tableId+" limit 11", models);
 		// call under test
-		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO);
+		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
 		assertNotNull(results);
 		assertEquals(new Long(11), results.getQueryCount());
 	}
@@ -419,7 +453,7 @@ public class TableQueryManagerImplTest {
 		boolean runCount = false;
 		SqlQuery query = new SqlQuery("select * from " + tableId, models);
 		// call under test
-		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO);
+		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
 		assertNotNull(results);
 		assertEquals(models, results.getColumnModels());
 		assertEquals(TableModelUtils.getSelectColumns(models), results.getSelectColumns());
@@ -438,7 +472,7 @@ public class TableQueryManagerImplTest {
 		boolean runCount = true;
 		SqlQuery query = new SqlQuery("select * from " + tableId, models);
 		// call under test
-		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO);
+		QueryResultBundle results = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, rowHandler, runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
 		assertNotNull(results);
 		assertEquals(models, results.getColumnModels());
 		assertEquals(TableModelUtils.getSelectColumns(models), results.getSelectColumns());
@@ -967,6 +1001,113 @@ public class TableQueryManagerImplTest {
 		assertEquals(new Long(11), result.getQueryCount());
 	}
 	
+	@Test
+	public void testQueryAsStreamAfterAuthorizationCached() throws Exception {
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L);
+		when(mockTableIndexDAO.getCurrentSchemaMD5Hex(tableId)).thenReturn("md5");
+		boolean runCount = true;
+		SqlQuery query = new SqlQuery("select * from " + tableId, models);
+		SinglePageRowHandler firstHandler = new SinglePageRowHandler();
+		QueryResultBundle first = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, firstHandler, runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		SinglePageRowHandler secondHandler = new SinglePageRowHandler();
+		// call under test
+		QueryResultBundle second = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, secondHandler, runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		// the second call is served from the cache.
+		verify(mockTableIndexDAO, times(1)).queryAsStream(any(ProgressCallback.class), any(SqlQuery.class), any(RowHandler.class));
+		verify(mockTableIndexDAO, times(1)).countQuery(anyString(), anyMapOf(String.class, Object.class));
+		assertEquals(rows, secondHandler.getRows());
+		assertEquals(first.getQueryCount(), second.getQueryCount());
+		assertEquals(first.getQueryResult().getQueryResults().getHeaders(), second.getQueryResult().getQueryResults().getHeaders());
+		assertEquals(tableId, second.getQueryResult().getQueryResults().getTableId());
+	}
+
+	@Test
+	public void testQueryAsStreamAfterAuthorizationCachedVersionChange() throws Exception {
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L, 6L);
+		when(mockTableIndexDAO.getCurrentSchemaMD5Hex(tableId)).thenReturn("md5");
+		boolean runCount = true;
+		SqlQuery query = new SqlQuery("select * from " + tableId, models);
+		manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, new SinglePageRowHandler(), runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		// call under test
+		manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, new SinglePageRowHandler(), runCount, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		// the index changed so the query is run again.
+		verify(mockTableIndexDAO, times(2)).queryAsStream(any(ProgressCallback.class), any(SqlQuery.class), any(RowHandler.class));
+		verify(mockTableIndexDAO, times(2)).countQuery(anyString(), anyMapOf(String.class, Object.class));
+	}
+
+	@Test
+	public void testQueryAsStreamAfterAuthorizationCachedReplica() throws Exception {
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		TableIndexDAO mockReplica = mock(TableIndexDAO.class);
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L);
+		when(mockTableIndexDAO.getCurrentSchemaMD5Hex(tableId)).thenReturn("md5");
+		SqlQuery query = new SqlQuery("select * from " + tableId, models);
+		// call under test
+		manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, new SinglePageRowHandler(), true, mockReplica, new TableIndexVersion(tableId, mockTableIndexDAO));
+		// the query is run on the replica but the version of the key is read from the primary.
+		verify(mockReplica).queryAsStream(any(ProgressCallback.class), any(SqlQuery.class), any(RowHandler.class));
+		verify(mockReplica, never()).getMaxCurrentCompleteVersionForTable(anyString());
+		verify(mockTableIndexDAO).getMaxCurrentCompleteVersionForTable(tableId);
+	}
+
+	@Test
+	public void testQueryAsStreamAfterAuthorizationCachedCountAdded() throws Exception {
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L);
+		when(mockTableIndexDAO.getCurrentSchemaMD5Hex(tableId)).thenReturn("md5");
+		SqlQuery query = new SqlQuery("select * from " + tableId, models);
+		// query without a count
+		manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, new SinglePageRowHandler(), false, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		// count only
+		QueryResultBundle countOnly = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, null, true, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		// call under test
+		SinglePageRowHandler handler = new SinglePageRowHandler();
+		QueryResultBundle both = manager.queryAsStreamAfterAuthorization(mockProgressCallbackVoid, query, handler, true, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		verify(mockTableIndexDAO, times(1)).queryAsStream(any(ProgressCallback.class), any(SqlQuery.class), any(RowHandler.class));
+		verify(mockTableIndexDAO, times(1)).countQuery(anyString(), anyMapOf(String.class, Object.class));
+		assertEquals(new Long(10), countOnly.getQueryCount());
+		assertEquals(new Long(10), both.getQueryCount());
+		assertEquals(rows, handler.getRows());
+	}
+
+	@Test
+	public void testQuerySinglePageCachedWithNextPage() throws Exception{
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L);
+		when(mockTableIndexDAO.getCurrentSchemaMD5Hex(tableId)).thenReturn("md5");
+		// setup the results to return one row.
+		Row row = rows.get(0);
+		rows.clear();
+		rows.add(row);
+		String query = "select * from "+tableId;
+		manager.setMaxBytesPerRequest(1);
+		manager.querySinglePage(mockProgressCallbackVoid, user, query, sortList, null, null, true, true, true);
+		// call under test.
+		QueryResultBundle result = manager.querySinglePage(mockProgressCallbackVoid, user, query, sortList, null, null, true, true, true);
+		verify(mockTableIndexDAO, times(1)).queryAsStream(any(ProgressCallback.class), any(SqlQuery.class), any(RowHandler.class));
+		// the next page token is built from the cached rows.
+		assertNotNull(result.getQueryResult().getNextPageToken());
+		Query nextQuery = TableQueryManagerImpl.createQueryFromNextPageToken(result.getQueryResult().getNextPageToken());
+		assertEquals(new Long(1),nextQuery.getOffset());
+		assertEquals(rows, result.getQueryResult().getQueryResults().getRows());
+		assertEquals(new Long(10), result.getQueryCount());
+		// authorization is still checked for each call.
+		verify(mockTableManagerSupport, times(2)).validateTableReadAccess(user, tableId);
+	}
+
+	@Test
+	public void testRunConsistentQueryAsStreamNotCached() throws Exception{
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		String sql = "select * from "+tableId;
+		manager.runConsistentQueryAsStream(mockProgressCallbackVoid, user, sql, null, writer, true, true);
+		manager.runConsistentQueryAsStream(mockProgressCallbackVoid, user, sql, null, writer, true, true);
+		// streams are always read from the index.
+		verify(mockTableIndexDAO, times(2)).queryAsStream(any(ProgressCallback.class), any(SqlQuery.class), any(RowHandler.class));
+		verify(mockTableIndexDAO, never()).getMaxCurrentCompleteVersionForTable(anyString());
+	}
+
 	@Test
 	public void testBuildBenefactorFilter() throws ParseException, EmptyResultException{
 		// add benefactor to the schema
@@ -982,9 +1123,29 @@ public class TableQueryManagerImplTest {
 		// call under test
 		SqlQuery filtered = TableQueryManagerImpl.buildBenefactorFilter(query, benefactorIds, benefactorColumn.getId());
 		assertNotNull(filtered);
+		// the user's model is not changed.
+		assertEquals("SELECT i0 FROM syn123 WHERE i1 IS NOT NULL", filtered.getModel().toSql());
 		// should filter by benefactorId
-		assertEquals("SELECT i0 FROM syn123 WHERE ( i1 IS NOT NULL ) AND _C99_ IN ( 456, 123 )", filtered.getModel().toSql());
-		assertEquals("SELECT _C0_, ROW_ID, ROW_VERSION FROM T123 WHERE ( _C1_ IS NOT NULL ) AND _C99_ IN ( 456, 123 )", filtered.getOutputSQL());
+		assertEquals("SELECT _C0_, ROW_ID, ROW_VERSION FROM T123 WHERE ( _C1_ IS NOT NULL ) AND _C99_ IN ( :b0 )", filtered.getOutputSQL());
+		// the benefactors are bound as a single sorted parameter.
+		assertEquals(Lists.newArrayList(123L, 456L), filtered.getParameters().get("b0"));
+		assertEquals(1, filtered.getParameters().size());
+	}
+	
+	/**
+	 * The size of the SQL must not grow with the number of benefactors.
+	 */
+	@Test
+	public void testBuildBenefactorFilterManyBenefactors() throws ParseException, EmptyResultException{
+		SqlQuery query = new SqlQuery("select i0 from "+tableId+" where i1 is not null", models);
+		LinkedHashSet<Long> benefactorIds = new LinkedHashSet<Long>();
+		for(long i=0; i<10000; i++){
+			benefactorIds.add(i);
+		}
+		// call under test
+		SqlQuery filtered = TableQueryManagerImpl.buildBenefactorFilter(query, benefactorIds, "99");
+		assertEquals("SELECT _C0_, ROW_ID, ROW_VERSION FROM T123 WHERE ( _C1_ IS NOT NULL ) AND _C99_ IN ( :b0 )", filtered.getOutputSQL());
+		assertEquals(10000, ((List<?>)filtered.getParameters().get("b0")).size());
 	}
 	
 	/**
@@ -1014,7 +1175,7 @@ public class TableQueryManagerImplTest {
 		SqlQuery filtered = TableQueryManagerImpl.buildBenefactorFilter(query, benefactorIds, benefactorColumn.getId());
 		assertNotNull(filtered);
 		// should filter by benefactorId
-		assertEquals("SELECT i0 FROM syn123 WHERE ( i1 > 0 OR i1 IS NOT NULL ) AND _C99_ IN ( 456, 123 )", filtered.getModel().toSql());
+		assertEquals("SELECT _C0_, ROW_ID, ROW_VERSION FROM T123 WHERE ( _C1_ > :b0 OR _C1_ IS NOT NULL ) AND _C99_ IN ( :b1 )", filtered.getOutputSQL());
 	}
 	
 	@Test
@@ -1028,7 +1189,7 @@ public class TableQueryManagerImplTest {
 		SqlQuery filtered = TableQueryManagerImpl.buildBenefactorFilter(query, benefactorIds, benefactorColumnId);
 		assertNotNull(filtered);
 		// should filter by benefactorId
-		assertEquals("SELECT i0 FROM syn123 WHERE _C44_ IN ( 123 )", filtered.getModel().toSql());
+		assertEquals("SELECT _C0_, ROW_ID, ROW_VERSION FROM T123 WHERE _C44_ IN ( :b0 )", filtered.getOutputSQL());
 	}
 	
 	@Test (expected=EmptyResultException.class)
@@ -1049,15 +1210,47 @@ public class TableQueryManagerImplTest {
 		//return empty benefactors
 		when(mockTableIndexDAO.getDistinctLongValues(tableId, benefactorColumn.getId())).thenReturn(new HashSet<Long>());
 		// call under test
-		manager.addRowLevelFilter(user, query, mockTableIndexDAO);
+		manager.addRowLevelFilter(user, query, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
 	}
 	
 	@Test
 	public void testAddRowLevelFilter() throws ParseException, EmptyResultException{
 		SqlQuery query = new SqlQuery("select i0 from "+tableId, models);
 		// call under test
-		SqlQuery result = manager.addRowLevelFilter(user, query, mockTableIndexDAO);
+		SqlQuery result = manager.addRowLevelFilter(user, query, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
 		assertNotNull(result);
-		assertEquals("SELECT i0 FROM syn123 WHERE _C999_ IN ( 444 )", result.getModel().toSql());
+		assertEquals("SELECT _C0_, ROW_ID, ROW_VERSION FROM T123 WHERE _C999_ IN ( :b0 )", result.getOutputSQL());
+		assertEquals(Lists.newArrayList(444L), result.getParameters().get("b0"));
+		// without a cache the benefactors are read each time.
+		manager.addRowLevelFilter(user, query, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		verify(mockTableIndexDAO, times(2)).getDistinctLongValues(tableId, "999");
+	}
+	
+	@Test
+	public void testAddRowLevelFilterCachedBenefactors() throws ParseException, EmptyResultException{
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L);
+		SqlQuery query = new SqlQuery("select i0 from "+tableId, models);
+		// call under test
+		SqlQuery result = manager.addRowLevelFilter(user, query, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		assertEquals(Lists.newArrayList(444L), result.getParameters().get("b0"));
+		result = manager.addRowLevelFilter(user, query, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		assertEquals(Lists.newArrayList(444L), result.getParameters().get("b0"));
+		// the benefactors of the same version are only read once.
+		verify(mockTableIndexDAO, times(1)).getDistinctLongValues(tableId, "999");
+		// the user's access is checked each time.
+		verify(mockTableManagerSupport, times(2)).getAccessibleBenefactors(user, Sets.newHashSet(333L,444L));
+	}
+	
+	@Test
+	public void testAddRowLevelFilterCachedBenefactorsVersionChange() throws ParseException, EmptyResultException{
+		manager.setQueryResultCache(new TableQueryResultCache(maxBytesPerRequest));
+		when(mockTableIndexDAO.getMaxCurrentCompleteVersionForTable(tableId)).thenReturn(5L, 6L);
+		SqlQuery query = new SqlQuery("select i0 from "+tableId, models);
+		// call under test
+		manager.addRowLevelFilter(user, query, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		manager.addRowLevelFilter(user, query, mockTableIndexDAO, new TableIndexVersion(tableId, mockTableIndexDAO));
+		// a new version of the index must read the benefactors again.
+		verify(mockTableIndexDAO, times(2)).getDistinctLongValues(tableId, "999");
 	}
 }
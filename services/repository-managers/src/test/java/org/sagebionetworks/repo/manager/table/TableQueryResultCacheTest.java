@@ -0,0 +1,194 @@
+package org.sagebionetworks.repo.manager.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.manager.table.TableQueryResultCache.Key;
+import org.sagebionetworks.repo.manager.table.TableQueryResultCache.Result;
+import org.sagebionetworks.repo.model.dbo.dao.table.TableModelTestUtils;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.Row;
+import org.sagebionetworks.table.cluster.SqlQuery;
+
+import com.google.common.collect.Sets;
+
+public class TableQueryResultCacheTest {
+
+	TableQueryResultCache cache;
+	List<ColumnModel> models;
+	List<Row> rows;
+	SqlQuery query;
+	Key key;
+
+	@Before
+	public void before() throws Exception {
+		cache = new TableQueryResultCache(100000);
+		models = TableModelTestUtils.createOneOfEachType(true);
+		rows = new ArrayList<Row>();
+		for (long i = 0; i < 3; i++) {
+			Row row = new Row();
+			row.setRowId(i);
+			row.setVersionNumber(2L);
+			row.setValues(new ArrayList<String>(Arrays.asList("a" + i, null, "c")));
+			rows.add(row);
+		}
+		query = new SqlQuery("select * from syn123 where i0 = 1", models);
+		key = TableQueryResultCache.createKey(query, 5L, "md5");
+	}
+
+	@Test
+	public void testCreateKeySameQuery() throws Exception {
+		SqlQuery same = new SqlQuery("select * from syn123 where i0 = 1", models);
+		assertEquals(key, TableQueryResultCache.createKey(same, 5L, "md5"));
+		assertEquals(key.hashCode(), TableQueryResultCache.createKey(same, 5L, "md5").hashCode());
+	}
+
+	@Test
+	public void testCreateKeyDifferent() throws Exception {
+		assertFalse(key.equals(TableQueryResultCache.createKey(query, 6L, "md5")));
+		assertFalse(key.equals(TableQueryResultCache.createKey(query, 5L, "otherMD5")));
+		// bind variables are part of the key
+		SqlQuery otherValue = new SqlQuery("select * from syn123 where i0 = 2", models);
+		assertFalse(key.equals(TableQueryResultCache.createKey(otherValue, 5L, "md5")));
+		// so are the offset and limit
+		SqlQuery otherPage = new SqlQuery("select * from syn123 where i0 = 1 limit 10 offset 10", models);
+		assertFalse(key.equals(TableQueryResultCache.createKey(otherPage, 5L, "md5")));
+	}
+
+	@Test
+	public void testPutGet() {
+		assertNull(cache.get(key));
+		cache.put(key, rows, 3L);
+		Result result = cache.get(key);
+		assertNotNull(result);
+		assertEquals(rows, result.getRows());
+		assertEquals(new Long(3), result.getCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getSize());
+		assertEquals(TableQueryResultCache.estimateWeight(rows), cache.getWeight());
+	}
+
+	@Test
+	public void testReturnsCopies() {
+		cache.put(key, rows, null);
+		// changes to the input must not change the cache.
+		rows.get(0).getValues().set(0, "changed");
+		List<Row> result = cache.get(key).getRows();
+		assertEquals("a0", result.get(0).getValues().get(0));
+		result.get(0).getValues().set(0, "changed");
+		assertEquals("a0", cache.get(key).getRows().get(0).getValues().get(0));
+	}
+
+	@Test
+	public void testPutMerge() {
+		cache.put(key, rows, null);
+		assertNull(cache.get(key).getCount());
+		cache.put(key, null, 3L);
+		Result result = cache.get(key);
+		assertEquals(rows, result.getRows());
+		assertEquals(new Long(3), result.getCount());
+		assertEquals(1, cache.getSize());
+		assertEquals(TableQueryResultCache.estimateWeight(rows), cache.getWeight());
+	}
+
+	@Test
+	public void testPutNothing() {
+		cache.put(key, null, null);
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testVersionChangeDropsTable() throws Exception {
+		SqlQuery otherTable = new SqlQuery("select * from syn456", models);
+		Key otherTableKey = TableQueryResultCache.createKey(otherTable, 5L, "md5");
+		cache.put(key, rows, 3L);
+		cache.put(otherTableKey, rows, 3L);
+		Key newVersion = TableQueryResultCache.createKey(query, 6L, "md5");
+		cache.put(newVersion, rows, 4L);
+		assertNull(cache.get(key));
+		assertEquals(new Long(4), cache.get(newVersion).getCount());
+		// other tables are not changed.
+		assertNotNull(cache.get(otherTableKey));
+		assertEquals(2, cache.getSize());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception {
+		long weight = TableQueryResultCache.estimateWeight(rows);
+		cache = new TableQueryResultCache(weight * 2);
+		Key two = TableQueryResultCache.createKey(new SqlQuery("select * from syn123 where i0 = 2", models), 5L, "md5");
+		Key three = TableQueryResultCache.createKey(new SqlQuery("select * from syn123 where i0 = 3", models), 5L, "md5");
+		cache.put(key, rows, 3L);
+		cache.put(two, rows, 3L);
+		// touch the first so the second is the eldest.
+		cache.get(key);
+		cache.put(three, rows, 3L);
+		assertEquals(2, cache.getSize());
+		assertEquals(weight * 2, cache.getWeight());
+		assertNotNull(cache.get(key));
+		assertNull(cache.get(two));
+		assertNotNull(cache.get(three));
+	}
+
+	@Test
+	public void testTooLarge() {
+		cache = new TableQueryResultCache(TableQueryResultCache.estimateWeight(rows) - 1);
+		cache.put(key, rows, 3L);
+		assertNull(cache.get(key));
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void testInvalidateAll() {
+		cache.put(key, rows, 3L);
+		cache.invalidateAll();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getWeight());
+		assertNull(cache.get(key));
+	}
+
+	@Test
+	public void testPutGetDistinctValues() {
+		Set<Long> values = Sets.newHashSet(1L, 2L);
+		assertNull(cache.getDistinctValues("syn123", 5L, "99"));
+		cache.putDistinctValues("syn123", 5L, "99", values);
+		assertEquals(values, cache.getDistinctValues("syn123", 5L, "99"));
+		// other columns and versions are not cached.
+		assertNull(cache.getDistinctValues("syn123", 5L, "98"));
+		assertNull(cache.getDistinctValues("syn123", 6L, "99"));
+		// changes to the input or output must not change the cache.
+		values.add(3L);
+		cache.getDistinctValues("syn123", 5L, "99").add(4L);
+		assertEquals(Sets.newHashSet(1L, 2L), cache.getDistinctValues("syn123", 5L, "99"));
+		assertEquals(TableQueryResultCache.RESULT_OVERHEAD_BYTES + 2 * TableQueryResultCache.VALUE_OVERHEAD_BYTES,
+				cache.getWeight());
+	}
+
+	@Test
+	public void testDistinctValuesShareTableVersion() {
+		cache.putDistinctValues("syn123", 5L, "99", Sets.newHashSet(1L));
+		cache.put(key, rows, 3L);
+		assertEquals(2, cache.getSize());
+		// a new version of the index drops both the results and the values.
+		cache.putDistinctValues("syn123", 6L, "99", Sets.newHashSet(2L));
+		assertNull(cache.get(key));
+		assertNull(cache.getDistinctValues("syn123", 5L, "99"));
+		assertEquals(Sets.newHashSet(2L), cache.getDistinctValues("syn123", 6L, "99"));
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeMaxWeight() {
+		new TableQueryResultCache(-1);
+	}
+}
@@ -609,6 +609,7 @@ public class UrlHelpers {
 	public static final String MIGRATION_PRIMARY = MIGRATION+"/primarytypes";
 	public static final String MIGRATION_TYPES = MIGRATION+"/types";
 	public static final String MIGRATION_RANGE_CHECKSUM = MIGRATION+"/rangechecksum";
+	public static final String MIGRATION_RANGE_BUCKET_CHECKSUMS = MIGRATION+"/rangebucketchecksums";
 	public static final String MIGRATION_TYPE_CHECKSUM = MIGRATION+"/typechecksum";
 
 	/**
@@ -11,6 +11,7 @@ import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.daemon.BackupRestoreStatus;
 import org.sagebionetworks.repo.model.daemon.RestoreSubmission;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
@@ -301,6 +302,24 @@ public class MigrationController extends BaseController {
 		return serviceProvider.getMigrationService().getChecksumForIdRange(userId, MigrationType.valueOf(migrationType), salt, minId, maxId);
 	}
 	
+	/**
+	 * The checksums of each bucket of bucketSize ids of a given range and migration type,
+	 * computed with a single scan of the range. Empty buckets are not included.
+	 * @throws NotFoundException 
+	 */	
+	@ResponseStatus(HttpStatus.OK)
+	@RequestMapping(value = { UrlHelpers.MIGRATION_RANGE_BUCKET_CHECKSUMS }, method = RequestMethod.GET)
+	public @ResponseBody
+	MigrationRangeChecksumList getBucketChecksumsForIdRange(
+			@RequestParam(value = AuthorizationConstants.USER_ID_PARAM) Long userId,
+			@RequestParam(required = true) String migrationType,
+			@RequestParam(required = true) String salt,
+			@RequestParam(required = true) Long minId,
+			@RequestParam(required = true) Long maxId,
+			@RequestParam(required = true) Long bucketSize) throws NotFoundException {
+		return serviceProvider.getMigrationService().getBucketChecksumsForIdRange(userId, MigrationType.valueOf(migrationType), salt, minId, maxId, bucketSize);
+	}
+	
 	/**
 	 * A (table) checksum on a given migration type
 	 * @throws NotFoundException 
@@ -5,6 +5,7 @@ import java.util.List;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.daemon.BackupRestoreStatus;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
@@ -138,6 +139,12 @@ public interface MigrationService {
 	 */
 	MigrationRangeChecksum getChecksumForIdRange(Long userId, MigrationType type, String salt, long minId, long maxId) throws NotFoundException;
 	
+	/**
+	 * The checksums of each bucket of a range of ids and a migration type
+	 * @throws NotFoundException 
+	 */
+	MigrationRangeChecksumList getBucketChecksumsForIdRange(Long userId, MigrationType type, String salt, long minId, long maxId, long bucketSize) throws NotFoundException;
+	
 	/**
 	 * A checksum for a type (table)
 	 * 
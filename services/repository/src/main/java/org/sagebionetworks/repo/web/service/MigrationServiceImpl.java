@@ -10,6 +10,7 @@ import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.daemon.BackupRestoreStatus;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
@@ -149,6 +150,16 @@ public class MigrationServiceImpl implements MigrationService {
 		return rChecksum;
 	}
 	
+	@Override
+	public MigrationRangeChecksumList getBucketChecksumsForIdRange(Long userId, MigrationType type,
+			String salt, long minId, long maxId, long bucketSize) throws NotFoundException {
+		if (userId == null) {
+			throw new IllegalArgumentException("userId cannot be null");
+		}
+		UserInfo user = userManager.getUserInfo(userId);
+		return migrationManager.getBucketChecksumsForIdRange(user, type, salt, minId, maxId, bucketSize);
+	}
+	
 	@Override
 	public MigrationTypeChecksum getChecksumForType(Long userId, MigrationType type) throws NotFoundException {
 		if (userId == null) {
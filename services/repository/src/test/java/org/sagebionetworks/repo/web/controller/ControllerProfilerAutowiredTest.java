@@ -0,0 +1,29 @@
+package org.sagebionetworks.repo.web.controller;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Validates the latency percentiles configured for the controllers.
+ *
+ */
+public class ControllerProfilerAutowiredTest extends AbstractAutowiredControllerTestBase {
+
+	@Autowired
+	Consumer consumer;
+
+	@Test
+	public void testPercentileNamespacesAreControllers() throws Exception {
+		assertFalse(consumer.getPercentileNamespaces().isEmpty());
+		for (String namespace : consumer.getPercentileNamespaces()) {
+			// The profiler uses the name of each controller class as the namespace.
+			Class<?> controller = Class.forName(namespace);
+			assertNotNull(namespace + " is not a controller", controller.getAnnotation(Controller.class));
+		}
+	}
+}
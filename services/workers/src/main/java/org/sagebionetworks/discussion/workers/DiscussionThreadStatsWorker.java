@@ -1,9 +1,16 @@
 package org.sagebionetworks.discussion.workers;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
-import org.sagebionetworks.asynchronous.workers.changes.ChangeMessageDrivenRunner;
+import org.sagebionetworks.asynchronous.workers.changes.BatchChangeMessageDrivenRunner;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.dao.discussion.DiscussionReplyDAO;
 import org.sagebionetworks.repo.model.dao.discussion.DiscussionThreadDAO;
 import org.sagebionetworks.repo.model.discussion.DiscussionThreadReplyStat;
@@ -14,38 +21,72 @@ import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 
-public class DiscussionThreadStatsWorker implements ChangeMessageDrivenRunner{
+/**
+ * Updates the reply statistics of all threads that changed in a batch of
+ * messages. The replies of all threads are read with one query for the
+ * counts and one for the active authors, and the statistics are written with
+ * one batch update. The number of views is maintained by the
+ * DiscussionThreadViewRecorder.
+ */
+public class DiscussionThreadStatsWorker implements BatchChangeMessageDrivenRunner{
 	@Autowired
 	private DiscussionThreadDAO threadDao;
 	@Autowired
 	private DiscussionReplyDAO replyDao;
 
 	@Override
-	public void run(ProgressCallback<Void> progressCallback, ChangeMessage message)
+	public void run(ProgressCallback<Void> progressCallback, List<ChangeMessage> messages)
 			throws RecoverableMessageException {
-		if (message.getChangeType() != ChangeType.UPDATE) {
-			// only process update events
+		// duplicate messages for the same thread are processed once.
+		Set<Long> threadIds = new TreeSet<Long>();
+		for (ChangeMessage message : messages) {
+			if (message.getChangeType() != ChangeType.UPDATE) {
+				// only process update events
+				continue;
+			}
+			if (message.getObjectType() != null && message.getObjectType() != ObjectType.THREAD) {
+				continue;
+			}
+			threadIds.add(Long.parseLong(message.getObjectId()));
+		}
+		if (threadIds.isEmpty()) {
 			return;
 		}
-		long threadId = Long.parseLong(message.getObjectId());
 
-		DiscussionThreadStat stat = new DiscussionThreadStat();
-		stat.setThreadId(threadId);
-		stat.setActiveAuthors(replyDao.getActiveAuthors(threadId));
+		Map<Long, List<String>> activeAuthors = replyDao.getActiveAuthors(threadIds);
 		progressCallback.progressMade(null);
 
-		DiscussionThreadReplyStat replyStat = replyDao.getThreadReplyStat(threadId);
-		stat.setLastActivity(replyStat.getLastActivity());
-		stat.setNumberOfReplies(replyStat.getNumberOfReplies());
+		Map<Long, DiscussionThreadReplyStat> replyStats = replyDao.getThreadReplyStats(threadIds);
 		progressCallback.progressMade(null);
 
-		stat.setNumberOfViews(threadDao.countThreadView(threadId));
-		progressCallback.progressMade(null);
+		List<DiscussionThreadStat> stats = new ArrayList<DiscussionThreadStat>(threadIds.size());
+		for (Long threadId : threadIds) {
+			DiscussionThreadStat stat = new DiscussionThreadStat();
+			stat.setThreadId(threadId);
+			List<String> authors = activeAuthors.get(threadId);
+			stat.setActiveAuthors(authors == null ? new LinkedList<String>() : authors);
+			DiscussionThreadReplyStat replyStat = replyStats.get(threadId);
+			if (replyStat == null) {
+				stat.setNumberOfReplies(0L);
+			} else {
+				stat.setLastActivity(replyStat.getLastActivity());
+				stat.setNumberOfReplies(replyStat.getNumberOfReplies());
+			}
+			stats.add(stat);
+		}
 
 		try {
-			threadDao.updateThreadStats(Arrays.asList(stat));
+			threadDao.updateThreadReplyStats(stats);
 		} catch (DataIntegrityViolationException e) {
-			// the thread no longer exist, do nothing
+			// at least one thread no longer exist, update the rest one at a time.
+			for (DiscussionThreadStat stat : stats) {
+				try {
+					threadDao.updateThreadReplyStats(Arrays.asList(stat));
+				} catch (DataIntegrityViolationException e2) {
+					// the thread no longer exist, do nothing
+				}
+				progressCallback.progressMade(null);
+			}
 		}
 	}
 
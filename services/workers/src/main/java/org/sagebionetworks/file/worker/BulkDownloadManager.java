@@ -2,16 +2,16 @@ package org.sagebionetworks.file.worker;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.zip.ZipOutputStream;
 
 import org.sagebionetworks.repo.manager.file.FileHandleAssociationAuthorizationStatus;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.file.FileHandleAssociation;
 import org.sagebionetworks.repo.model.file.S3FileHandle;
 
-import com.amazonaws.event.ProgressListener;
-
 /**
  * A data access object used to support bulk file download.  This abstraction contains 
  * 
@@ -40,24 +40,32 @@ public interface BulkDownloadManager {
 	public File createTempFile(String prefix, String suffix) throws IOException;
 	
 	/**
-	 * Create a ZipOutputStream using the given file.
-	 * @param outFile
+	 * Create a ZipOutputStream that writes to the given stream.
+	 * @param out
 	 * @return
-	 * @throws IOException 
 	 */
-	public ZipOutputStream createZipOutputStream(File outFile) throws IOException;
-	
+	public ZipOutputStream createZipOutputStream(OutputStream out);
 	
 	/**
-	 * Multi-part upload a local file to S3.  This is used by workers.
+	 * Start a multi-part upload to S3 of content written to the returned
+	 * stream. Each part is sent to S3 as soon as it is full.
 	 * 
 	 * @param userInfo
-	 * @param fileToUpload
+	 * @param fileName
 	 * @param contentType
-	 * @param listener
 	 * @return
 	 */
-	S3FileHandle multipartUploadLocalFile(UserInfo userInfo, File fileToUpload,	String contentType, ProgressListener listener);
+	MultipartUploadOutputStream openMultipartUploadStream(UserInfo userInfo, String fileName, String contentType);
+	
+	/**
+	 * Complete an upload started with
+	 * {@link #openMultipartUploadStream(UserInfo, String, String)} and create a
+	 * FileHandle for the result.
+	 * 
+	 * @param out
+	 * @return
+	 */
+	S3FileHandle completeMultipartUploadStream(MultipartUploadOutputStream out);
 	
 	/**
 	 * Get the S3FileHandle for the given FileHandle.id.
@@ -77,13 +85,17 @@ public interface BulkDownloadManager {
 	public File downloadToTempFile(S3FileHandle fileHandle) throws IOException;
 	
 	/**
-	 * Add the given file to 
+	 * Add the given file to the zip. Files that are already compressed are
+	 * stored without compressing them again.
+	 * 
 	 * @param zipOut
 	 * @param toAdd
 	 * @param entryName
+	 * @param contentType
+	 *            The content type of the file, may be null.
 	 * @throws IOException 
 	 */
-	public void addFileToZip(ZipOutputStream zipOut, File toAdd, String entryName) throws IOException;
+	public void addFileToZip(ZipOutputStream zipOut, File toAdd, String entryName, String contentType) throws IOException;
 	
 	
 }
@@ -2,10 +2,14 @@ package org.sagebionetworks.file.worker;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -13,6 +17,7 @@ import org.apache.commons.io.IOUtils;
 import org.sagebionetworks.repo.manager.file.FileHandleAssociationAuthorizationStatus;
 import org.sagebionetworks.repo.manager.file.FileHandleAuthorizationManager;
 import org.sagebionetworks.repo.manager.file.FileHandleManager;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.dao.FileHandleDao;
 import org.sagebionetworks.repo.model.file.FileHandle;
@@ -20,14 +25,36 @@ import org.sagebionetworks.repo.model.file.FileHandleAssociation;
 import org.sagebionetworks.repo.model.file.S3FileHandle;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.google.common.collect.ImmutableSet;
 
 public class BulkDownloadManagerImpl implements BulkDownloadManager{
 	
 	private static final String ONLY_S3_FILE_HANDLES_CAN_BE_DOWNLOADED = "Only S3FileHandles can be downloaded.";
 	
+	/**
+	 * Content types of files that are already compressed.
+	 */
+	public static final Set<String> COMPRESSED_CONTENT_TYPES = ImmutableSet.of(
+			"application/zip", "application/gzip", "application/x-gzip",
+			"application/x-bzip2", "application/x-xz",
+			"application/x-7z-compressed", "application/x-rar-compressed",
+			"image/jpeg", "image/png", "image/gif", "audio/mpeg");
+	
+	/**
+	 * Content type prefixes of files that are already compressed.
+	 */
+	public static final String VIDEO_CONTENT_TYPE_PREFIX = "video/";
+	
+	/**
+	 * File name extensions of files that are already compressed.
+	 */
+	public static final Set<String> COMPRESSED_FILE_EXTENSIONS = ImmutableSet.of(
+			"zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "jar",
+			"jpg", "jpeg", "png", "gif", "mp3", "mp4", "m4a", "mov",
+			"avi", "mkv", "webm", "bam", "cram", "docx", "xlsx", "pptx");
+	
 	@Autowired
 	FileHandleDao fileHandleDao;
 	@Autowired
@@ -57,18 +84,20 @@ public class BulkDownloadManagerImpl implements BulkDownloadManager{
 	}
 
 	@Override
-	public ZipOutputStream createZipOutputStream(File outFile) throws IOException {
-		return new ZipOutputStream(new FileOutputStream(outFile));
+	public ZipOutputStream createZipOutputStream(OutputStream out) {
+		return new ZipOutputStream(out);
+	}
+
+	@Override
+	public MultipartUploadOutputStream openMultipartUploadStream(
+			UserInfo userInfo, String fileName, String contentType) {
+		return fileHandleManager.openMultipartUploadStream(userInfo, fileName, contentType);
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * @see org.sagebionetworks.file.worker.BulkDownloadDao#multipartUploadLocalFile(org.sagebionetworks.repo.model.UserInfo, java.io.File, java.lang.String, com.amazonaws.event.ProgressListener)
-	 */
 	@Override
-	public S3FileHandle multipartUploadLocalFile(UserInfo userInfo,
-			File fileToUpload, String contentType, ProgressListener listener) {
-		return fileHandleManager.multipartUploadLocalFile(userInfo, fileToUpload, contentType, listener);
+	public S3FileHandle completeMultipartUploadStream(
+			MultipartUploadOutputStream out) {
+		return fileHandleManager.completeMultipartUploadStream(out);
 	}
 
 	/*
@@ -92,10 +121,16 @@ public class BulkDownloadManagerImpl implements BulkDownloadManager{
 	@Override
 	public File downloadToTempFile(S3FileHandle fileHandle) throws IOException {
 		File tempFile = File.createTempFile("FileHandle"+fileHandle.getId(), ".tmp");
-		// download this file to the local machine
-		s3client.getObject(new GetObjectRequest(fileHandle.getBucketName(),
-				fileHandle.getKey()), tempFile);
-		return tempFile;
+		try {
+			// download this file to the local machine
+			s3client.getObject(new GetObjectRequest(fileHandle.getBucketName(),
+					fileHandle.getKey()), tempFile);
+			return tempFile;
+		} catch (RuntimeException e) {
+			// do not leave partial downloads behind.
+			tempFile.delete();
+			throw e;
+		}
 	}
 
 	/*
@@ -103,10 +138,21 @@ public class BulkDownloadManagerImpl implements BulkDownloadManager{
 	 * @see org.sagebionetworks.file.worker.BulkDownloadDao#addFileToZip(java.util.zip.ZipOutputStream, java.io.File, java.lang.String)
 	 */
 	@Override
-	public void addFileToZip(ZipOutputStream zipOut, File toAdd, String zipEntryName) throws IOException {
+	public void addFileToZip(ZipOutputStream zipOut, File toAdd, String zipEntryName, String contentType) throws IOException {
+		ZipEntry entry = new ZipEntry(zipEntryName);
+		if (isCompressed(zipEntryName, contentType)) {
+			/*
+			 * Compressing these files again would cost CPU time without
+			 * making them smaller. A stored entry must have its size and CRC
+			 * before it is written.
+			 */
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(toAdd.length());
+			entry.setCompressedSize(toAdd.length());
+			entry.setCrc(calculateCRC32(toAdd));
+		}
 		InputStream in = new FileInputStream(toAdd);
 		try{
-			ZipEntry entry = new ZipEntry(zipEntryName);
 			zipOut.putNextEntry(entry);
 			// Write the file the zip
 			IOUtils.copy(in, zipOut);
@@ -116,4 +162,55 @@ public class BulkDownloadManagerImpl implements BulkDownloadManager{
 		}
 	}
 
+	/**
+	 * Is the given file already compressed? This is decided by the content
+	 * type when one is provided, and otherwise by the file name extension.
+	 * 
+	 * @param fileName
+	 * @param contentType
+	 * @return
+	 */
+	public static boolean isCompressed(String fileName, String contentType) {
+		if (contentType != null) {
+			String type = contentType.toLowerCase(Locale.US);
+			// ignore any parameters such as the charset.
+			int parametersIndex = type.indexOf(';');
+			if (parametersIndex > -1) {
+				type = type.substring(0, parametersIndex);
+			}
+			type = type.trim();
+			if (COMPRESSED_CONTENT_TYPES.contains(type) || type.startsWith(VIDEO_CONTENT_TYPE_PREFIX)) {
+				return true;
+			}
+		}
+		if (fileName != null) {
+			int extensionIndex = fileName.lastIndexOf('.');
+			if (extensionIndex > -1) {
+				String extension = fileName.substring(extensionIndex + 1).toLowerCase(Locale.US);
+				return COMPRESSED_FILE_EXTENSIONS.contains(extension);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Calculate the CRC-32 of the given file.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static long calculateCRC32(File file) throws IOException {
+		CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32());
+		try {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) > -1) {
+				// the checksum is updated as the file is read.
+			}
+			return in.getChecksum().getValue();
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
 }
@@ -1,9 +1,17 @@
 package org.sagebionetworks.file.worker;
 
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.IOUtils;
@@ -14,6 +22,7 @@ import org.sagebionetworks.repo.manager.UserManager;
 import org.sagebionetworks.repo.manager.asynch.AsynchJobStatusManager;
 import org.sagebionetworks.repo.manager.asynch.AsynchJobUtils;
 import org.sagebionetworks.repo.manager.file.FileHandleAssociationAuthorizationStatus;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.asynch.AsynchronousJobStatus;
 import org.sagebionetworks.repo.model.file.BulkFileDownloadRequest;
@@ -27,8 +36,6 @@ import org.sagebionetworks.workers.util.aws.message.MessageDrivenRunner;
 import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import com.amazonaws.event.ProgressEvent;
-import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.sqs.model.Message;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -48,6 +55,8 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 
 	public static final String APPLICATION_ZIP = "application/zip";
 
+	public static final String RESULT_FILE_NAME_TEMPLATE = "Job%s.zip";
+
 	public static final int FILE_HANDLE_ID_MODULO_DIVISOR = 1000;
 
 	public static final String FILE_EXCEEDS_THE_MAXIMUM_SIZE_LIMIT = "File exceeds the maximum size limit.";
@@ -64,6 +73,17 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 	 */
 	public static final long MAX_TOTAL_FILE_SIZE_BYTES = 1024 * 1024 * 1024; // 1 GB.
 
+	/**
+	 * The default maximum number of files downloaded ahead of the zip.
+	 */
+	public static final int DEFAULT_DOWNLOAD_WINDOW_SIZE = 4;
+
+	/**
+	 * The default maximum total size in bytes of the files downloaded ahead of
+	 * the zip.
+	 */
+	public static final long DEFAULT_MAX_DOWNLOAD_WINDOW_BYTES = 256 * 1024 * 1024; // 256 MB.
+
 	@Autowired
 	AsynchJobStatusManager asynchJobStatusManager;
 	@Autowired
@@ -71,6 +91,38 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 	@Autowired
 	BulkDownloadManager bulkDownloadManager; 
 
+	ExecutorService downloadExecutor;
+	int downloadWindowSize = DEFAULT_DOWNLOAD_WINDOW_SIZE;
+	long maxDownloadWindowBytes = DEFAULT_MAX_DOWNLOAD_WINDOW_BYTES;
+
+	/**
+	 * Injected. The files of each zip are downloaded on this executor.
+	 * 
+	 * @param downloadExecutor
+	 */
+	public void setDownloadExecutor(ExecutorService downloadExecutor) {
+		this.downloadExecutor = downloadExecutor;
+	}
+
+	/**
+	 * Injected. The maximum number of files downloaded ahead of the zip.
+	 * 
+	 * @param downloadWindowSize
+	 */
+	public void setDownloadWindowSize(int downloadWindowSize) {
+		this.downloadWindowSize = downloadWindowSize;
+	}
+
+	/**
+	 * Injected. The maximum total size of the files downloaded ahead of the
+	 * zip. A single larger file is still downloaded on its own.
+	 * 
+	 * @param maxDownloadWindowBytes
+	 */
+	public void setMaxDownloadWindowBytes(long maxDownloadWindowBytes) {
+		this.maxDownloadWindowBytes = maxDownloadWindowBytes;
+	}
+
 	@Override
 	public void run(ProgressCallback<Void> progressCallback, Message message)
 			throws RecoverableMessageException, Exception {
@@ -105,12 +157,11 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 			final ProgressCallback<Void> progressCallback,
 			final Message message, AsynchronousJobStatus status,
 			BulkFileDownloadRequest request) throws IOException {
-		// The generated zip will be written to this temp file.
-		File tempResultFile = bulkDownloadManager.createTempFile("Job"
-				+ status.getJobId(), ".zip");
-		ZipOutputStream zipOut = bulkDownloadManager.createZipOutputStream(tempResultFile);
+		ResultZip resultZip = null;
 		try {
 			UserInfo user = userManger.getUserInfo(status.getStartedByUserId());
+			// The generated zip is streamed to S3 as it is written.
+			resultZip = new ResultZip(user, String.format(RESULT_FILE_NAME_TEMPLATE, status.getJobId()));
 			/*
 			 * The first step is to determine if the user is authorized to
 			 * download each requested file. The authorization check is
@@ -122,22 +173,13 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 			Set<String> fileIdsInZip = Sets.newHashSet();
 			// Build the zip
 			List<FileDownloadSummary> results = addFilesToZip(progressCallback,
-					message, authResults, tempResultFile, zipOut, status, fileIdsInZip);
+					message, authResults, resultZip, status, fileIdsInZip);
 			
-			IOUtils.closeQuietly(zipOut);
 			// Is there at least one file in the zip?
 			String resultFileHandleId = null;
 			if(fileIdsInZip.size() > 0){
-				// upload the result file to S3
-				S3FileHandle resultHandle = bulkDownloadManager
-						.multipartUploadLocalFile(user, tempResultFile,
-								APPLICATION_ZIP, new ProgressListener() {
-									@Override
-									public void progressChanged(
-											ProgressEvent progressEvent) {
-										progressCallback.progressMade(null);
-									}
-								});
+				// finish uploading the result file to S3
+				S3FileHandle resultHandle = resultZip.complete();
 				resultFileHandleId = resultHandle.getId();
 			}
 
@@ -149,84 +191,105 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 			response.setResultZipFileHandleId(resultFileHandleId);
 			return response;
 		} finally {
-			IOUtils.closeQuietly(zipOut);
-			tempResultFile.delete();
+			if (resultZip != null) {
+				resultZip.close();
+			}
 		}
 	}
 
 	/**
+	 * Add each authorized file to the zip. Up to downloadWindowSize files are
+	 * downloaded concurrently ahead of the zip, and each file is added to the
+	 * zip as soon as it and all files before it are downloaded, so the entries
+	 * and summaries are always in the requested order.
 	 * 
 	 * @param progressCallback
 	 * @param message
 	 * @param authResults
-	 * @param tempResultFile
-	 * @param zipOut
+	 * @param resultZip
+	 * @param status
+	 * @param fileIdsInZip
+	 * @throws IOException
+	 *             If interrupted while waiting for a download or if the zip
+	 *             could not be written.
 	 */
 	public List<FileDownloadSummary> addFilesToZip(
 			ProgressCallback<Void> progressCallback, Message message,
 			List<FileHandleAssociationAuthorizationStatus> authResults,
-			File tempResultFile, ZipOutputStream zipOut,
-			AsynchronousJobStatus status,
-			Set<String> fileIdsInZip) {
+			ResultZip resultZip, AsynchronousJobStatus status,
+			Set<String> fileIdsInZip) throws IOException {
 		long currentProgress = 0L;
 		final long totalProgress = (long) authResults.size();
 		// This will be the final summary of results..
 		List<FileDownloadSummary> fileSummaries = Lists.newLinkedList();
-		// process each request in order.
-		for (FileHandleAssociationAuthorizationStatus fhas : authResults) {
-			String fileHandleId = fhas.getAssociation().getFileHandleId();
-			// Make progress between each file
-			progressCallback.progressMade(null);
-			// update the job progress
-			asynchJobStatusManager.updateJobProgress(status.getJobId(),
-					currentProgress, totalProgress, PROCESSING_FILE_HANDLE_ID
-							+ fhas.getAssociation().getFileHandleId());
-			FileDownloadSummary summary = new FileDownloadSummary();
-			summary.setFileHandleId(fileHandleId);
-			summary.setAssociateObjectId(fhas.getAssociation().getAssociateObjectId());
-			summary.setAssociateObjectType(fhas.getAssociation().getAssociateObjectType());
-			fileSummaries.add(summary);
-			try {
-				String zipEntryName = writeOneFileToZip(zipOut, tempResultFile.length(), fhas, fileIdsInZip);
-				// download this file from S3
-				fileIdsInZip.add(fileHandleId);
-				summary.setStatus(FileDownloadStatus.SUCCESS);
-				summary.setZipEntryName(zipEntryName);
-			} catch (BulkFileException e) {
-				// known error conditions.
-				summary.setStatus(FileDownloadStatus.FAILURE);
-				summary.setFailureMessage(e.getMessage());
-				summary.setFailureCode(e.getFailureCode());
-			} catch (NotFoundException e) {
-				// file did not exist
-				summary.setStatus(FileDownloadStatus.FAILURE);
-				summary.setFailureMessage(e.getMessage());
-				summary.setFailureCode(FileDownloadCode.NOT_FOUND);
-			} catch (Exception e) {
-				// all unknown errors.
-				summary.setStatus(FileDownloadStatus.FAILURE);
-				summary.setFailureMessage(e.getMessage());
-				summary.setFailureCode(FileDownloadCode.UNKNOWN_ERROR);
-				log.error("Failed on: " + fhas.getAssociation(), e);
+		// Files being downloaded, in the order they will be added to the zip.
+		LinkedList<PendingFile> pending = Lists.newLinkedList();
+		long pendingBytes = 0L;
+		// Every file that has been or will be added to the zip.
+		Set<String> fileIdsScheduled = Sets.newHashSet();
+		try {
+			// process each request in order.
+			for (FileHandleAssociationAuthorizationStatus fhas : authResults) {
+				String fileHandleId = fhas.getAssociation().getFileHandleId();
+				// Make progress between each file
+				progressCallback.progressMade(null);
+				// update the job progress
+				asynchJobStatusManager.updateJobProgress(status.getJobId(),
+						currentProgress, totalProgress, PROCESSING_FILE_HANDLE_ID
+								+ fhas.getAssociation().getFileHandleId());
+				FileDownloadSummary summary = new FileDownloadSummary();
+				summary.setFileHandleId(fileHandleId);
+				summary.setAssociateObjectId(fhas.getAssociation().getAssociateObjectId());
+				summary.setAssociateObjectType(fhas.getAssociation().getAssociateObjectType());
+				fileSummaries.add(summary);
+				try {
+					S3FileHandle s3Handle = validateFile(resultZip.getSize(), fhas, fileIdsScheduled);
+					fileIdsScheduled.add(fileHandleId);
+					// Add downloaded files to the zip until there is room to start this download.
+					while (!pending.isEmpty()
+							&& (pending.size() >= downloadWindowSize || pendingBytes + s3Handle.getContentSize() > maxDownloadWindowBytes)) {
+						PendingFile next = pending.removeFirst();
+						pendingBytes -= next.fileHandle.getContentSize();
+						addPendingFileToZip(progressCallback, next, resultZip, fileIdsInZip);
+					}
+					pending.add(new PendingFile(fhas, summary, s3Handle, startDownload(s3Handle)));
+					pendingBytes += s3Handle.getContentSize();
+				} catch (InterruptedIOException e) {
+					throw e;
+				} catch (ResultZipWriteException e) {
+					// No other file can be added to the zip.
+					throw e;
+				} catch (Exception e) {
+					setFailure(summary, fhas, e);
+				}
+				currentProgress++;
+			}
+			// Add the remaining files
+			while (!pending.isEmpty()) {
+				addPendingFileToZip(progressCallback, pending.removeFirst(), resultZip, fileIdsInZip);
+			}
+		} finally {
+			// Only non-empty if interrupted or the zip could not be written.
+			for (PendingFile toCancel : pending) {
+				cancelDownload(toCancel.download);
 			}
-			currentProgress++;
 		}
 		return fileSummaries;
 	}
 
 	/**
-	 * Write a single file to the given zip stream.
+	 * Validate that a single file can be added to the zip.
 	 * 
-	 * @param zipOut
 	 * @param zipFileSize
 	 * @param fhas
 	 * @param fileIdsInZip
-	 * @throws IOException
-	 * @return The zip entry name used for this file.
+	 * @return The S3FileHandle of the file.
+	 * @throws BulkFileException
+	 *             If the file cannot be added to the zip.
 	 */
-	public String writeOneFileToZip(ZipOutputStream zipOut, long zipFileSize,
+	public S3FileHandle validateFile(long zipFileSize,
 			FileHandleAssociationAuthorizationStatus fhas,
-			Set<String> fileIdsInZip) throws IOException {
+			Set<String> fileIdsInZip) {
 		String fileHandleId = fhas.getAssociation().getFileHandleId();
 		// Is the user authorized to download this file?
 		if (!fhas.getStatus().getAuthorized()) {
@@ -239,11 +302,7 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 					FileDownloadCode.DUPLICATE);
 		}
 		// Each file must be less than the max.
-		if (zipFileSize > MAX_TOTAL_FILE_SIZE_BYTES) {
-			throw new BulkFileException(
-					RESULT_FILE_HAS_REACHED_THE_MAXIMUM_SIZE,
-					FileDownloadCode.EXCEEDS_SIZE_LIMIT);
-		}
+		checkZipSize(zipFileSize);
 		// Get this filehandle.
 		S3FileHandle s3Handle = bulkDownloadManager.getS3FileHandle(fileHandleId);
 		// Each file must be under the max.s
@@ -251,20 +310,292 @@ public class BulkFileDownloadWorker implements MessageDrivenRunner {
 			throw new BulkFileException(FILE_EXCEEDS_THE_MAXIMUM_SIZE_LIMIT,
 					FileDownloadCode.EXCEEDS_SIZE_LIMIT);
 		}
-		// This file will be downloaded to this temp.
-		File downloadTemp = bulkDownloadManager.downloadToTempFile(s3Handle);
+		return s3Handle;
+	}
+
+	/**
+	 * Wait for the download of a single file and write it to the zip.
+	 * 
+	 * @param progressCallback
+	 * @param pendingFile
+	 * @param resultZip
+	 * @param fileIdsInZip
+	 * @throws IOException
+	 *             If interrupted while waiting for the download.
+	 * @throws ResultZipWriteException
+	 *             If the zip could not be written. Unlike a failure to read a
+	 *             single file, this fails the entire zip.
+	 */
+	void addPendingFileToZip(ProgressCallback<Void> progressCallback,
+			PendingFile pendingFile, ResultZip resultZip,
+			Set<String> fileIdsInZip) throws IOException {
+		// Make progress while waiting on each download.
+		progressCallback.progressMade(null);
+		File downloadTemp;
+		try {
+			downloadTemp = pendingFile.download.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelDownload(pendingFile.download);
+			throw new InterruptedIOException("Interrupted while waiting for a download");
+		} catch (ExecutionException e) {
+			setFailure(pendingFile.summary, pendingFile.fhas, e.getCause());
+			return;
+		}
 		try {
+			// The zip might have filled while this file was downloading.
+			checkZipSize(resultZip.getSize());
+			S3FileHandle s3Handle = pendingFile.fileHandle;
 			// The entry name is the path plus file name.
 			String zipEntryName = createZipEntryName(s3Handle.getFileName(),
 					Long.parseLong(s3Handle.getId()));
 			// write the file to the zip.
-			bulkDownloadManager.addFileToZip(zipOut, downloadTemp, zipEntryName);
-			return zipEntryName;
+			bulkDownloadManager.addFileToZip(resultZip.getZipOutputStream(),
+					downloadTemp, zipEntryName, s3Handle.getContentType());
+			fileIdsInZip.add(s3Handle.getId());
+			pendingFile.summary.setStatus(FileDownloadStatus.SUCCESS);
+			pendingFile.summary.setZipEntryName(zipEntryName);
+		} catch (Exception e) {
+			if (resultZip.getWriteFailure() != null) {
+				throw new ResultZipWriteException(resultZip.getWriteFailure());
+			}
+			setFailure(pendingFile.summary, pendingFile.fhas, e);
 		} finally {
 			downloadTemp.delete();
 		}
 	}
 
+	/**
+	 * Start downloading the given file on the download executor.
+	 * 
+	 * @param s3Handle
+	 * @return
+	 */
+	private Future<File> startDownload(final S3FileHandle s3Handle) {
+		return downloadExecutor.submit(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				return bulkDownloadManager.downloadToTempFile(s3Handle);
+			}
+		});
+	}
+
+	/**
+	 * Cancel a download, deleting the file if it was already downloaded.
+	 * 
+	 * @param download
+	 */
+	private static void cancelDownload(Future<File> download) {
+		if (download.cancel(true)) {
+			return;
+		}
+		try {
+			download.get().delete();
+		} catch (Exception e) {
+			// the download failed so there is nothing to delete.
+		}
+	}
+
+	/**
+	 * Fail if the zip has reached the maximum size.
+	 * 
+	 * @param zipFileSize
+	 */
+	private static void checkZipSize(long zipFileSize) {
+		if (zipFileSize > MAX_TOTAL_FILE_SIZE_BYTES) {
+			throw new BulkFileException(
+					RESULT_FILE_HAS_REACHED_THE_MAXIMUM_SIZE,
+					FileDownloadCode.EXCEEDS_SIZE_LIMIT);
+		}
+	}
+
+	/**
+	 * Record the failure of a single file.
+	 * 
+	 * @param summary
+	 * @param fhas
+	 * @param e
+	 */
+	private static void setFailure(FileDownloadSummary summary,
+			FileHandleAssociationAuthorizationStatus fhas, Throwable e) {
+		summary.setStatus(FileDownloadStatus.FAILURE);
+		summary.setFailureMessage(e.getMessage());
+		if (e instanceof BulkFileException) {
+			// known error conditions.
+			summary.setFailureCode(((BulkFileException) e).getFailureCode());
+		} else if (e instanceof NotFoundException) {
+			// file did not exist
+			summary.setFailureCode(FileDownloadCode.NOT_FOUND);
+		} else {
+			// all unknown errors.
+			summary.setFailureCode(FileDownloadCode.UNKNOWN_ERROR);
+			log.error("Failed on: " + fhas.getAssociation(), e);
+		}
+	}
+
+	/**
+	 * A file that is being downloaded so it can be added to the zip.
+	 */
+	static class PendingFile {
+		final FileHandleAssociationAuthorizationStatus fhas;
+		final FileDownloadSummary summary;
+		final S3FileHandle fileHandle;
+		final Future<File> download;
+
+		PendingFile(FileHandleAssociationAuthorizationStatus fhas,
+				FileDownloadSummary summary, S3FileHandle fileHandle,
+				Future<File> download) {
+			this.fhas = fhas;
+			this.summary = summary;
+			this.fileHandle = fileHandle;
+			this.download = download;
+		}
+	}
+
+	/**
+	 * Thrown when the result zip could not be written, for example when a
+	 * part of the upload failed.
+	 */
+	static class ResultZipWriteException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		ResultZipWriteException(Throwable cause) {
+			super("Failed to write the result zip", cause);
+		}
+	}
+
+	/**
+	 * The zip being built. The upload to S3 is only started when the first file
+	 * is added, so nothing is uploaded if no file can be added.
+	 */
+	class ResultZip {
+		final UserInfo user;
+		final String fileName;
+		MultipartUploadOutputStream upload;
+		ZipOutputStream zipOut;
+		// The first failure to write to the upload.
+		IOException writeFailure;
+
+		ResultZip(UserInfo user, String fileName) {
+			this.user = user;
+			this.fileName = fileName;
+		}
+
+		/**
+		 * The number of bytes written to the zip so far.
+		 * 
+		 * @return
+		 */
+		long getSize() {
+			if (upload == null) {
+				return 0L;
+			}
+			return upload.getContentSize();
+		}
+
+		/**
+		 * Get the stream to write entries to, starting the upload if needed.
+		 * 
+		 * @return
+		 */
+		ZipOutputStream getZipOutputStream() {
+			if (zipOut == null) {
+				upload = bulkDownloadManager.openMultipartUploadStream(user, fileName, APPLICATION_ZIP);
+				zipOut = bulkDownloadManager.createZipOutputStream(new UploadStream(upload));
+			}
+			return zipOut;
+		}
+
+		/**
+		 * The first failure to write to the upload, which is separate from the
+		 * failure to read a file being added.
+		 * 
+		 * @return null if every write succeeded.
+		 */
+		IOException getWriteFailure() {
+			return writeFailure;
+		}
+
+		/**
+		 * Finish the zip and complete the upload.
+		 * 
+		 * @return The FileHandle of the zip.
+		 * @throws IOException
+		 */
+		S3FileHandle complete() throws IOException {
+			// Writes the zip directory and sends the last part.
+			zipOut.close();
+			return bulkDownloadManager.completeMultipartUploadStream(upload);
+		}
+
+		/**
+		 * Discard the upload unless it was completed.
+		 */
+		void close() {
+			if (upload != null) {
+				upload.abort();
+			}
+			IOUtils.closeQuietly(zipOut);
+		}
+
+		/**
+		 * Passes the zip to the upload, recording the first failure to write.
+		 */
+		class UploadStream extends FilterOutputStream {
+
+			UploadStream(OutputStream upload) {
+				super(upload);
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				checkWritable();
+				try {
+					out.write(b);
+				} catch (IOException e) {
+					throw recordFailure(e);
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				checkWritable();
+				try {
+					out.write(b, off, len);
+				} catch (IOException e) {
+					throw recordFailure(e);
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				checkWritable();
+				try {
+					out.flush();
+				} catch (IOException e) {
+					throw recordFailure(e);
+				}
+			}
+
+			/**
+			 * Nothing more can be written after a failure.
+			 * 
+			 * @throws IOException
+			 */
+			private void checkWritable() throws IOException {
+				if (writeFailure != null) {
+					throw new ResultZipWriteException(writeFailure);
+				}
+			}
+
+			private IOException recordFailure(IOException e) {
+				writeFailure = e;
+				return e;
+			}
+		}
+	}
+
 	/**
 	 * Create a zip entry using: {fileHandleId modulo 1000}
 	 * /{fileHandleId}/{fileName}
@@ -2,6 +2,7 @@ package org.sagebionetworks.log.worker;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.util.PriorityQueue;
 
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.logging.s3.LogEntry;
@@ -16,69 +17,64 @@ import org.sagebionetworks.logging.s3.LogReader;
 public class CollateUtils {
 
 	/**
-	 * Collate all of the log data from the list of LogReaders into the passed writer
+	 * The current head entry of a single input log.
+	 */
+	private static class Head implements Comparable<Head> {
+		final int index;
+		LogEntry entry;
+
+		Head(int index, LogEntry entry) {
+			this.index = index;
+			this.entry = entry;
+		}
+
+		@Override
+		public int compareTo(Head other) {
+			if (entry.getTimeStamp() < other.entry.getTimeStamp()) {
+				return -1;
+			}
+			if (entry.getTimeStamp() > other.entry.getTimeStamp()) {
+				return 1;
+			}
+			// Entries with the same time stamp are written in the order of the inputs.
+			return index < other.index ? -1 : (index == other.index ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Collate all of the log data from the list of LogReaders into the passed writer.
+	 * This is a k-way merge: only the head entry of each log is held in memory, and
+	 * the heads are kept in a priority queue so each entry is written in O(log k).
+	 * Entries with the same time stamp are written in the order of the readers.
+	 * 
 	 * @param toCollate
 	 * @param out
+	 * @param progressCallback Called once for each entry written.
 	 * @throws IOException 
 	 */
 	public static void collateLogs(LogReader[] toCollate, BufferedWriter out, ProgressCallback<Void> progressCallback) throws IOException{
-		// First find the
-		int minIndex;
-		// This array will contain the head entry from each input log.
-		LogEntry[] heads = new LogEntry[toCollate.length];
+		// This queue will contain the head entry from each input log.
+		PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, toCollate.length));
 		// prime the pump by reading in the head from each log.
 		for(int i=0; i<toCollate.length; i++){
-			heads[i] = toCollate[i].read();
-		}
-		// Now find the earliest log entry from all of the heads
-		// and write it to the output.
-		LogEntry toWrite = null;
-		do{
-			// Find the minimum;
-			minIndex = findMiniumnIndex(heads, progressCallback);
-			// write the entry at the minimum index to the log
-			toWrite = heads[minIndex];
-			if(toWrite != null){
-				// write the entry at the minimum index.
-				out.write(toWrite.getEntryString());
-				out.newLine();
-				// Now read the next entry the minimum log
-				heads[minIndex] = toCollate[minIndex].read();
+			LogEntry entry = toCollate[i].read();
+			if(entry != null){
+				heads.add(new Head(i, entry));
 			}
-			// continue until there is nothing else to write.
-		}while(toWrite != null);
-	}
-	/**
-	 * Look at all of the current heads from the input log files and find the one
-	 * with the minimum time stamp
-	 * @param heads
-	 * @return The index of LogEntry that has the earliest time stamp.
-	 * If the passed array contains all null values then zero will be returned.
-	 */
-	private static int findMiniumnIndex(LogEntry[] heads, ProgressCallback<Void> progressCallback){
-		int minIndex = 0;
-		for(int i=1; i<heads.length; i++){
+		}
+		// Now write the earliest log entry from all of the heads
+		// until there is nothing else to write.
+		Head head;
+		while((head = heads.poll()) != null){
 			// make progress (see PLFM-3479)
 			progressCallback.progressMade(null);
-			// If data is null at the current minIndex
-			// this this index becomes the minimum.
-			if(heads[minIndex] == null){
-				minIndex = i;
-				continue;
-			}
-			// There is data at the minimum index
-			// but is there data at this index?
-			if(heads[i] == null){
-				// There is no data at this index so it cannot be the minimum.
-				continue;
-			}
-			// There is data both at this index and the current minimum
-			// so determine which occurred earlier.
-			if(heads[i].getTimeStamp() < heads[minIndex].getTimeStamp()){
-				// This current index becomes the new minimum.
-				minIndex = i;
+			out.write(head.entry.getEntryString());
+			out.newLine();
+			// Now read the next entry from the same log
+			head.entry = toCollate[head.index].read();
+			if(head.entry != null){
+				heads.add(head);
 			}
 		}
-		return minIndex;
 	}
 }
@@ -8,13 +8,24 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.StackConfiguration;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.cloudwatch.WorkerLogger;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.common.util.progress.ProgressingRunner;
 import org.sagebionetworks.logging.s3.LogDAO;
@@ -22,12 +33,20 @@ import org.sagebionetworks.logging.s3.LogKeyUtils;
 import org.sagebionetworks.logging.s3.LogReader;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
 import com.amazonaws.services.s3.model.ObjectListing;
-import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.Lists;
 
 /**
  * This worker collates all logs based on log type and time.
+ * <p>
+ * All logs are listed first and grouped into batches by type/date/hour. The
+ * batches are then collated concurrently on the collate executor, with at most
+ * maxConcurrentBatches running at a time. Each batch is a streaming k-way merge
+ * of the gzip streams of its logs read directly from S3. A batch never reads
+ * more than maxOpenStreams logs from S3 at a time: larger batches are merged in
+ * rounds, spooling each round to a local temporary file.
  * 
  * @author John
  *
@@ -36,161 +55,400 @@ public class LogCollateWorker implements ProgressingRunner<Void>{
 		
 	static private Logger log = LogManager.getLogger(LogCollateWorker.class);
 
+	public static final String BACKLOG_BATCHES = "backlog batches";
+	public static final String BACKLOG_FILES = "backlog files";
+	public static final String COLLATED_ENTRIES = "collated entries";
+	public static final String ENTRIES_PER_SECOND = "entries per second";
+	public static final String FAILED_BATCHES = "failed batches";
+	public static final String ELAPSE_TIME = "elapse time";
+
+	static final String METRIC_NAMESPACE = LogCollateWorker.class.getName()+" - "+ StackConfiguration.getStackInstance();
+
+	/**
+	 * The default maximum number of batches collated at the same time by a
+	 * single run.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+
+	/**
+	 * The default maximum number of logs a single batch reads at the same time.
+	 * Each log read from S3 holds an S3 connection open, so all of the batches
+	 * together must stay below the size of the S3 client's connection pool.
+	 */
+	public static final int DEFAULT_MAX_OPEN_STREAMS = 10;
+
+	/**
+	 * Progress is made at least this often while waiting for batches.
+	 */
+	public static final long PROGRESS_INTERVAL_MS = 1000L;
+
+	/**
+	 * Entries written to intermediate files are not counted.
+	 */
+	private static final ProgressCallback<Void> IGNORE_ENTRIES = new ProgressCallback<Void>() {
+		@Override
+		public void progressMade(Void param) {
+		}
+	};
+
 	@Autowired
 	LogDAO logDAO;
+	@Autowired
+	WorkerLogger workerLogger;
+
+	ExecutorService collateExecutor;
+	int maxConcurrentBatches = DEFAULT_MAX_CONCURRENT_BATCHES;
+	int maxOpenStreams = DEFAULT_MAX_OPEN_STREAMS;
+
+	/**
+	 * Injected. The batches are collated on this executor.
+	 * 
+	 * @param collateExecutor
+	 */
+	public void setCollateExecutor(ExecutorService collateExecutor) {
+		this.collateExecutor = collateExecutor;
+	}
+
+	/**
+	 * Injected. The maximum number of batches collated at the same time.
+	 * 
+	 * @param maxConcurrentBatches
+	 */
+	public void setMaxConcurrentBatches(int maxConcurrentBatches) {
+		this.maxConcurrentBatches = maxConcurrentBatches;
+	}
 
+	/**
+	 * Injected. The maximum number of logs a single batch reads at the same
+	 * time.
+	 * 
+	 * @param maxOpenStreams
+	 */
+	public void setMaxOpenStreams(int maxOpenStreams) {
+		if(maxOpenStreams < 2){
+			throw new IllegalArgumentException("maxOpenStreams must be at least 2");
+		}
+		this.maxOpenStreams = maxOpenStreams;
+	}
 
 	@Override
 	public void run(ProgressCallback<Void> progressCallback) throws Exception {
 		try {
-			// Walk all of the logs looking for multiple logs with the same type/date/hour
-			String marker = null;
-			BatchData batchData = null;
-			do{
-				ObjectListing listing = logDAO.listAllStackInstanceLogs(marker);
-				marker = listing.getNextMarker();
-				if(listing.getObjectSummaries() != null){
-					for(S3ObjectSummary summ: listing.getObjectSummaries()){
-						progressCallback.progressMade(null);
-						// Bucket by type/date/hour
-						String typeDateHour = LogKeyUtils.getTypeDateAndHourFromKey(summ.getKey());
-						// Do we have a batch?
-						if (batchData != null) {
-							// The current batch is completed if the next file
-							// does not have the same type/date/hour as the current
-							// batch.
-							if (!batchData.batchDateString.equals(typeDateHour)) {
-								// The next log does not belong in the current batch so
-								collateBatch(batchData, progressCallback);
-								// We are done with this batch
-								batchData = null;
-							}
-						}
-							
-						// If the batchData is null then this is the start
-						// of a new batch.
-						if (batchData == null) {
-							batchData = new BatchData(new LinkedList<String>(),	typeDateHour);
-						}
-						// add this file to the current batch
-						batchData.mergedKeys.add(summ.getKey());
-					}
-				}
-			}while(marker != null);
-			// If there is any batch data left then complete it.
-			if(batchData != null){
-				collateBatch(batchData, progressCallback);
+			long start = System.currentTimeMillis();
+			List<BatchData> batches = listBatches(progressCallback);
+			// The backlog is every log that still needs to be merged.
+			long backlogFiles = 0;
+			for(BatchData batch: batches){
+				backlogFiles += batch.mergedKeys.size();
+			}
+			workerLogger.logCustomMetric(createMetric(BACKLOG_BATCHES, batches.size(), StandardUnit.Count));
+			workerLogger.logCustomMetric(createMetric(BACKLOG_FILES, backlogFiles, StandardUnit.Count));
+			if(batches.isEmpty()){
+				return;
 			}
+			// Counts each entry written by any batch.
+			final AtomicLong entryCount = new AtomicLong(0);
+			int failures = collateBatches(batches, entryCount, progressCallback);
+			long elapse = System.currentTimeMillis()-start;
+			workerLogger.logCustomMetric(createMetric(ELAPSE_TIME, elapse, StandardUnit.Milliseconds));
+			workerLogger.logCustomMetric(createMetric(COLLATED_ENTRIES, entryCount.get(), StandardUnit.Count));
+			workerLogger.logCustomMetric(createMetric(ENTRIES_PER_SECOND, entryCount.get()*1000/Math.max(1, elapse), StandardUnit.CountSecond));
+			workerLogger.logCustomMetric(createMetric(FAILED_BATCHES, failures, StandardUnit.Count));
 		} catch (Exception e) {
 			log.error("Worker failed", e);
 			throw new RuntimeException(e);
 		}
 	}
-	
+
+	/**
+	 * Walk all of the logs looking for multiple logs with the same type/date/hour.
+	 * 
+	 * @param progressCallback
+	 * @return Each batch that has more than one log.
+	 */
+	List<BatchData> listBatches(ProgressCallback<Void> progressCallback){
+		List<BatchData> batches = new LinkedList<BatchData>();
+		String marker = null;
+		BatchData batchData = null;
+		do{
+			ObjectListing listing = logDAO.listAllStackInstanceLogs(marker);
+			marker = listing.getNextMarker();
+			if(listing.getObjectSummaries() != null){
+				for(S3ObjectSummary summ: listing.getObjectSummaries()){
+					progressCallback.progressMade(null);
+					// Bucket by type/date/hour
+					String typeDateHour = LogKeyUtils.getTypeDateAndHourFromKey(summ.getKey());
+					// The current batch is completed if the next file
+					// does not have the same type/date/hour as the current
+					// batch.
+					if (batchData == null || !batchData.batchDateString.equals(typeDateHour)) {
+						// this is the start of a new batch.
+						batchData = new BatchData(new LinkedList<String>(),	typeDateHour);
+						batches.add(batchData);
+					}
+					// add this file to the current batch
+					batchData.mergedKeys.add(summ.getKey());
+				}
+			}
+		}while(marker != null);
+		// If a batch only contains one file there is nothing to do.
+		List<BatchData> toCollate = new LinkedList<BatchData>();
+		for(BatchData batch: batches){
+			if(batch.mergedKeys.size() > 1){
+				toCollate.add(batch);
+			}
+		}
+		return toCollate;
+	}
+
+	/**
+	 * Collate the given batches on the collate executor, with at most
+	 * maxConcurrentBatches running at a time.
+	 * 
+	 * @param batches
+	 * @param entryCount
+	 * @param progressCallback
+	 * @return The number of batches that failed.
+	 * @throws InterruptedException
+	 */
+	int collateBatches(List<BatchData> batches, final AtomicLong entryCount,
+			ProgressCallback<Void> progressCallback) throws InterruptedException {
+		LinkedList<Future<Void>> running = new LinkedList<Future<Void>>();
+		int failures = 0;
+		try{
+			for(final BatchData batch: batches){
+				// wait for room.
+				while(running.size() >= maxConcurrentBatches){
+					if(!waitForBatch(running.removeFirst(), progressCallback)){
+						failures++;
+					}
+				}
+				running.add(collateExecutor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						collateBatch(batch, entryCount);
+						return null;
+					}
+				}));
+			}
+			while(!running.isEmpty()){
+				if(!waitForBatch(running.removeFirst(), progressCallback)){
+					failures++;
+				}
+			}
+		}finally{
+			// Only non-empty if interrupted.
+			for(Future<Void> future: running){
+				future.cancel(true);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Wait for a single batch to finish, making progress while waiting.
+	 * 
+	 * @param future
+	 * @param progressCallback
+	 * @return True if the batch was collated.
+	 * @throws InterruptedException
+	 */
+	private boolean waitForBatch(Future<Void> future, ProgressCallback<Void> progressCallback) throws InterruptedException{
+		while(true){
+			progressCallback.progressMade(null);
+			try {
+				future.get(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+				return true;
+			} catch (TimeoutException e) {
+				// still running.
+			} catch (ExecutionException e) {
+				log.error("Worker failed", e.getCause());
+				return false;
+			}
+		}
+	}
 	
 	/**
 	 * This will save the new batch file and delete all of the sub files that were merged.
+	 * The merged files are only deleted if the new file was saved.
+	 * 
 	 * @param data
-	 * @return True if the batch was merged.  False if there was nothing to merge or the batch was empty.
-	 */
-	private void collateBatch(BatchData data, ProgressCallback<Void> progressCallback) {
-		if(data != null){
-			if(data.mergedKeys.size() > 0){
-				// If this batch only contains one file there is nothing to do.
-				if(data.mergedKeys.size() < 2){
-					return;
+	 * @param entryCount Incremented for each entry written.
+	 * @throws IOException
+	 */
+	void collateBatch(BatchData data, final AtomicLong entryCount) throws IOException {
+		long startMs = System.currentTimeMillis();
+		// Create the file that will contain the collated data.
+		String type = LogKeyUtils.getTypeFromTypeDateHour(data.batchDateString);
+		// This timestamp will be used to create the key of the resulting output file.
+		long timestamp = LogKeyUtils.getTimestampFromTypeDateHour(data.batchDateString);
+		String newFileKey = null;
+		File temp = File.createTempFile(type+".", ".log.gz");
+		// Only entries written to the final file are counted.
+		ProgressCallback<Void> countEntries = new ProgressCallback<Void>() {
+			@Override
+			public void progressMade(Void param) {
+				entryCount.incrementAndGet();
+			}
+		};
+		List<File> runs = new LinkedList<File>();
+		try{
+			if(data.mergedKeys.size() <= maxOpenStreams){
+				// Stream each file to collate directly from S3.
+				collateKeys(data.mergedKeys, temp, countEntries);
+			}else{
+				// Merge the logs from S3 in rounds, spooling each round to disk.
+				for(List<String> keys: Lists.partition(data.mergedKeys, maxOpenStreams)){
+					File run = File.createTempFile(type+".", ".run.gz");
+					runs.add(run);
+					collateKeys(keys, run, IGNORE_ENTRIES);
 				}
-				try {
-					// Create the file that will contain the collated data.
-					String type = LogKeyUtils.getTypeFromTypeDateHour(data.batchDateString);
-					// This timestamp will be used to create the key of the resulting output file.
-					long timestamp = LogKeyUtils.getTimestampFromTypeDateHour(data.batchDateString);
-					String newFileKey = null;
-					File temp = File.createTempFile(type+".", ".log.gz");
-					BufferedWriter outWriter = null;
-					LogReader[] toCollate = new LogReader[data.mergedKeys.size()];
-					File[] tempFiles = new File[data.mergedKeys.size()];
+				// Then merge the spooled rounds until few enough are left to merge at once.
+				while(runs.size() > maxOpenStreams){
+					List<File> merged = new LinkedList<File>();
 					try{
-						// Now setup the writer
-						outWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temp))));
-						// Get the log reader for each file to collate
-						int index = 0;
-						for(String key: data.mergedKeys){
-							tempFiles[index] = File.createTempFile("collateDownload", ".log.gz");
-							ObjectMetadata meta = logDAO.downloadLogFile(key, tempFiles[index]);
-							toCollate[index] = new LogReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(tempFiles[index])))));
-							index++;
-							progressCallback.progressMade(null);
+						for(List<File> files: Lists.partition(runs, maxOpenStreams)){
+							File run = File.createTempFile(type+".", ".run.gz");
+							merged.add(run);
+							collateFiles(files, run, IGNORE_ENTRIES);
 						}
-						// Now collate all of the files
-						CollateUtils.collateLogs(toCollate, outWriter, progressCallback);
-						// Flush and close the outupt files before we save it
-						outWriter.flush();
-						outWriter.close();
-						// Save the results back to s3
-						newFileKey = logDAO.saveLogFile(temp, timestamp);
-					}catch(Exception e){
-						log.error("Worker failed", e);
 					}finally{
-						// Close the output stream
-						if(outWriter != null){
-							try {
-								outWriter.close();
-							} catch (Exception e) {}
-						}
-						// Close the readers.
-						for(LogReader reader: toCollate){
-							try {
-								if(reader != null){
-									reader.close();
-								}
-							} catch (Exception e) {}
-						}
-						// Delete all temp files
-						for(File tempIn: tempFiles){
-							try {
-								if(tempIn != null){
-									tempIn.delete();
-								}
-							} catch (Exception e) {}
-						}
-						// We are done with the temp file.
-						try {
-							if(temp != null){
-								temp.delete();
-							}
-						} catch (Exception e) {}
-					}
-					
-					// Now delete all of the files that were merged.
-					for(String key: data.mergedKeys){
-						logDAO.deleteLogFile(key);
-					}
-					long elapse = System.currentTimeMillis()-data.startMs;
-					long msPerfile = elapse/data.mergedKeys.size();
-					if(log.isTraceEnabled()){
-						log.trace("Merged: "+data.mergedKeys.size()+" files into new file: "+newFileKey+" in "+elapse+" ms rate of: "+msPerfile+" ms/file");
+						deleteAll(runs);
+						runs = merged;
 					}
-				} catch (IOException e) {
-					log.error("Worker failed", e);
 				}
+				collateFiles(runs, temp, countEntries);
+			}
+			// Save the results back to s3
+			newFileKey = logDAO.saveLogFile(temp, timestamp);
+		}finally{
+			// We are done with the temp files.
+			deleteAll(runs);
+			temp.delete();
+		}
+		
+		// Now delete all of the files that were merged.
+		for(String key: data.mergedKeys){
+			logDAO.deleteLogFile(key);
+		}
+		long elapse = System.currentTimeMillis()-startMs;
+		long msPerfile = elapse/data.mergedKeys.size();
+		if(log.isTraceEnabled()){
+			log.trace("Merged: "+data.mergedKeys.size()+" files into new file: "+newFileKey+" in "+elapse+" ms rate of: "+msPerfile+" ms/file");
+		}
+	}
+
+	/**
+	 * Collate the given logs, read from S3, into the given file.
+	 * 
+	 * @param keys
+	 * @param out
+	 * @param entryCallback Called once for each entry written.
+	 * @throws IOException
+	 */
+	private void collateKeys(List<String> keys, File out, ProgressCallback<Void> entryCallback) throws IOException {
+		LogReader[] toCollate = new LogReader[keys.size()];
+		try{
+			int index = 0;
+			for(String key: keys){
+				toCollate[index] = logDAO.getLogFileReader(key);
+				index++;
 			}
+			collateReaders(toCollate, out, entryCallback);
+		}finally{
+			closeAll(toCollate);
 		}
 	}
+
+	/**
+	 * Collate the given local gzip logs into the given file.
+	 * 
+	 * @param files
+	 * @param out
+	 * @param entryCallback Called once for each entry written.
+	 * @throws IOException
+	 */
+	private static void collateFiles(List<File> files, File out, ProgressCallback<Void> entryCallback) throws IOException {
+		LogReader[] toCollate = new LogReader[files.size()];
+		try{
+			int index = 0;
+			for(File file: files){
+				toCollate[index] = new LogReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)))));
+				index++;
+			}
+			collateReaders(toCollate, out, entryCallback);
+		}finally{
+			closeAll(toCollate);
+		}
+	}
+
+	/**
+	 * Collate the given readers into a new gzip file.
+	 * 
+	 * @param toCollate
+	 * @param out
+	 * @param entryCallback
+	 * @throws IOException
+	 */
+	private static void collateReaders(LogReader[] toCollate, File out, ProgressCallback<Void> entryCallback) throws IOException {
+		BufferedWriter outWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(out))));
+		try{
+			CollateUtils.collateLogs(toCollate, outWriter, entryCallback);
+			// Flush and close the outupt files before it is read
+			outWriter.flush();
+			outWriter.close();
+		}finally{
+			try {
+				outWriter.close();
+			} catch (Exception e) {}
+		}
+	}
+
+	private static void closeAll(LogReader[] readers){
+		for(LogReader reader: readers){
+			try {
+				if(reader != null){
+					reader.close();
+				}
+			} catch (Exception e) {}
+		}
+	}
+
+	private static void deleteAll(List<File> files){
+		for(File file: files){
+			file.delete();
+		}
+	}
+
+	/**
+	 * Create a metric for this worker.
+	 * 
+	 * @param name
+	 * @param value
+	 * @param unit
+	 * @return
+	 */
+	static ProfileData createMetric(String name, long value, StandardUnit unit){
+		ProfileData nextPD = new ProfileData();
+		nextPD.setNamespace(METRIC_NAMESPACE); 
+		nextPD.setName(name);
+		nextPD.setValue((double)value);
+		nextPD.setUnit(unit.name());
+		nextPD.setTimestamp(new Date(System.currentTimeMillis()));
+		return nextPD;
+	}
 	
 	/**
 	 * All of the data about a batch.
 	 *
 	 */
-	private static class BatchData {
+	static class BatchData {
 		List<String> mergedKeys = null;
 		String batchDateString;
-		long startMs;
 		public BatchData(List<String> mergedKeys, String batchDateString) {
 			super();
 			this.mergedKeys = mergedKeys;
 			this.batchDateString = batchDateString;
-			this.startMs = System.currentTimeMillis();
 		}
 	}
 
@@ -42,6 +42,9 @@ public class BroadcastMessageWorker implements ChangeMessageDrivenRunner{
 		} catch (HttpClientHelperException e) {
 			log.error("Fail to broadcast message. Reason: "+e.getMessage()+". Status: "+e.getHttpStatus()+". Response: "+e.getResponse());
 			throw new RecoverableMessageException();
+		} catch (RecoverableMessageException e) {
+			log.error("Fail to send some of the broadcast emails, they will be sent later.");
+			throw e;
 		} catch (Exception e) {
 			log.error("Fail to broadcast message. "+e.getMessage());
 		}
@@ -1,35 +1,42 @@
 package org.sagebionetworks.search.workers.sqs.search;
 
-import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
-import org.apache.http.client.ClientProtocolException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.sagebionetworks.asynchronous.workers.changes.ChangeMessageDrivenRunner;
+import org.sagebionetworks.asynchronous.workers.changes.BatchChangeMessageDrivenRunner;
 import org.sagebionetworks.cloudwatch.WorkerLogger;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.repo.manager.search.SearchDocumentDriver;
-import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.dao.WikiPageKey;
+import org.sagebionetworks.repo.model.jdo.KeyFactory;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.search.Document;
 import org.sagebionetworks.repo.model.v2.dao.V2WikiPageDao;
 import org.sagebionetworks.repo.web.NotFoundException;
-import org.sagebionetworks.repo.web.ServiceUnavailableException;
 import org.sagebionetworks.search.SearchDao;
-import org.sagebionetworks.utils.HttpClientHelperException;
 import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
- * This worker updates the search index based on messages received
- * 
+ * This worker updates the search index based on messages received.
+ *
+ * Each batch of messages is processed together: all of the deletes are sent
+ * with one call, and the documents for all of the creates and updates are
+ * built with set based reads and sent in batches sized by CloudSearch's byte
+ * limit.
+ *
  * @author John
- * 
+ *
  */
-public class SearchQueueWorker implements ChangeMessageDrivenRunner {
+public class SearchQueueWorker implements BatchChangeMessageDrivenRunner {
 
 	static private Logger log = LogManager.getLogger(SearchQueueWorker.class);
 
@@ -46,108 +53,240 @@ public class SearchQueueWorker implements ChangeMessageDrivenRunner {
 	private WorkerLogger workerLogger;
 
 	@Override
-	public void run(ProgressCallback<Void> progressCallback, ChangeMessage change)
-			throws RecoverableMessageException, Exception {
+	public void run(ProgressCallback<Void> progressCallback,
+			List<ChangeMessage> messages) throws RecoverableMessageException,
+			Exception {
 		// If the feature is disabled then we simply swallow all messages
 		if (!searchDao.isSearchEnabled()) {
 			return;
 		}
-		// We only care about entity messages as this time
-		if (ObjectType.ENTITY == change.getObjectType()) {
-			// Is this a create or update
-			if (ChangeType.CREATE == change.getChangeType()
-					|| ChangeType.UPDATE == change.getChangeType()) {
-				processCreateUpdate(change);
-			} else if (ChangeType.DELETE == change.getChangeType()) {
-				processDelete(change);
-			} else {
-				throw new IllegalArgumentException("Unknown change type: "
-						+ change.getChangeType());
+		// The messages for each entity, in the order they were received.
+		Map<String, ChangeMessage> createOrUpdate = new LinkedHashMap<String, ChangeMessage>();
+		Map<String, ChangeMessage> deletes = new LinkedHashMap<String, ChangeMessage>();
+		for (ChangeMessage change : messages) {
+			// We only care about entity messages as this time
+			if (ObjectType.ENTITY == change.getObjectType()) {
+				// Is this a create or update
+				if (ChangeType.CREATE == change.getChangeType()
+						|| ChangeType.UPDATE == change.getChangeType()) {
+					deletes.remove(change.getObjectId());
+					addCreateOrUpdate(createOrUpdate, change);
+				} else if (ChangeType.DELETE == change.getChangeType()) {
+					createOrUpdate.remove(change.getObjectId());
+					deletes.put(change.getObjectId(), change);
+				} else {
+					throw new IllegalArgumentException("Unknown change type: "
+							+ change.getChangeType());
+				}
 			}
-		}
-		// Is this a wikipage?
-		if (ObjectType.WIKI == change.getObjectType()) {
-			// Lookup the owner of the page
-			try {
-				WikiPageKey key = wikPageDao
-						.lookupWikiKey(change.getObjectId());
-				// If the owner of the wiki is a an entity then pass along the
-				// message.
-				if (ObjectType.ENTITY == key.getOwnerObjectType()) {
-					// We need the current document etag
-					ChangeMessage newMessage = new ChangeMessage();
-					newMessage.setChangeType(ChangeType.UPDATE);
-					newMessage.setObjectId(key.getOwnerObjectId());
-					newMessage.setObjectType(ObjectType.ENTITY);
-					newMessage.setObjectEtag(null);
-					processCreateUpdate(newMessage);
+			// Is this a wikipage?
+			if (ObjectType.WIKI == change.getObjectType()) {
+				ChangeMessage ownerMessage = getWikiOwnerMessage(change);
+				if (ownerMessage != null) {
+					addCreateOrUpdate(createOrUpdate, ownerMessage);
 				}
-			} catch (NotFoundException e) {
-				// Nothing to do if the wiki does not exist
-				log.debug("Wiki not found for id: " + change.getObjectId()
-						+ " Message:" + e.getMessage());
 			}
 		}
+		progressCallback.progressMade(null);
+		if (!deletes.isEmpty()) {
+			processDeletes(deletes);
+		}
+		if (!createOrUpdate.isEmpty()) {
+			processCreateUpdate(progressCallback, createOrUpdate);
+		}
+	}
+
+	/**
+	 * Add a create or update for an entity. When there is more than one
+	 * message for the same entity, the document must be sent if any of them
+	 * requires it, so a message without an etag replaces one with an etag.
+	 *
+	 * @param createOrUpdate
+	 * @param change
+	 */
+	private static void addCreateOrUpdate(
+			Map<String, ChangeMessage> createOrUpdate, ChangeMessage change) {
+		ChangeMessage existing = createOrUpdate.get(change.getObjectId());
+		if (existing == null || existing.getObjectEtag() != null) {
+			createOrUpdate.put(change.getObjectId(), change);
+		}
 	}
 
 	/**
-	 * A single delete
-	 * 
-	 * @param message
+	 * Create an update message for the entity that owns a wiki page.
+	 *
+	 * @param change
+	 * @return null if the wiki does not exist or is not owned by an entity.
+	 */
+	private ChangeMessage getWikiOwnerMessage(ChangeMessage change) {
+		// Lookup the owner of the page
+		try {
+			WikiPageKey key = wikPageDao.lookupWikiKey(change.getObjectId());
+			// If the owner of the wiki is a an entity then pass along the
+			// message.
+			if (ObjectType.ENTITY == key.getOwnerObjectType()) {
+				// We need the current document etag
+				ChangeMessage newMessage = new ChangeMessage();
+				newMessage.setChangeType(ChangeType.UPDATE);
+				newMessage.setObjectId(key.getOwnerObjectId());
+				newMessage.setObjectType(ObjectType.ENTITY);
+				newMessage.setObjectEtag(null);
+				return newMessage;
+			}
+		} catch (NotFoundException e) {
+			// Nothing to do if the wiki does not exist
+			log.debug("Wiki not found for id: " + change.getObjectId()
+					+ " Message:" + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Delete a batch of documents
+	 *
+	 * @param deletes
 	 * @throws RecoverableMessageException
 	 */
-	private void processDelete(ChangeMessage message)
+	private void processDeletes(Map<String, ChangeMessage> deletes)
 			throws RecoverableMessageException {
 		try {
-			searchDao.deleteDocument(message.getObjectId());
+			searchDao.deleteDocuments(new LinkedHashSet<String>(deletes.keySet()));
 		} catch (Throwable e) {
-			workerLogger.logWorkerFailure(SearchQueueWorker.class, message, e,
-					true);
+			logFailure(deletes.values(), e);
 			throw new RecoverableMessageException();
 		}
 	}
 
-	public void processCreateUpdate(ChangeMessage change)
+	/**
+	 * Build and send the documents for a batch of creates and updates. If the
+	 * documents cannot be built together, each document is built on its own so
+	 * that an entity that cannot be indexed does not hold back the rest of the
+	 * batch.
+	 *
+	 * @param progressCallback
+	 * @param createOrUpdate
+	 * @throws RecoverableMessageException
+	 */
+	private void processCreateUpdate(ProgressCallback<Void> progressCallback,
+			Map<String, ChangeMessage> createOrUpdate)
 			throws RecoverableMessageException {
 		try {
-			Document newDoc = getDocFromMessage(change);
-			if (newDoc != null) {
-				searchDao.createOrUpdateSearchDocument(newDoc);
+			List<Document> batch;
+			try {
+				batch = getDocsFromMessages(createOrUpdate);
+			} catch (Exception e) {
+				log.warn("Failed to build a batch of " + createOrUpdate.size()
+						+ " search documents, building each document on its own: " + e.getMessage());
+				batch = getDocsOneAtATime(createOrUpdate);
+			}
+			progressCallback.progressMade(null);
+			if (!batch.isEmpty()) {
+				searchDao.createOrUpdateSearchDocument(batch);
 			}
 		} catch (Throwable e) {
-			workerLogger.logWorkerFailure(SearchQueueWorker.class, change, e,
-					true);
+			logFailure(createOrUpdate.values(), e);
 			throw new RecoverableMessageException();
 		}
 	}
 
-	private Document getDocFromMessage(ChangeMessage changeMessage)
-			throws ClientProtocolException, DatastoreException, IOException,
-			HttpClientHelperException, ServiceUnavailableException {
-		// We want to ignore this message if a document with this ID and Etag
-		// already exists in the search index.
-		if (!searchDao.doesDocumentExist(changeMessage.getObjectId(),
-				changeMessage.getObjectEtag())) {
-			// We want to ignore this message if a document with this ID and
-			// Etag are not in the repository as it is an
-			// old message.
-			if (changeMessage.getObjectEtag() == null
-					|| searchDocumentDriver.doesDocumentExist(
-							changeMessage.getObjectId(),
-							changeMessage.getObjectEtag())) {
-				try {
-					return searchDocumentDriver
-							.formulateSearchDocument(changeMessage
-									.getObjectId());
-				} catch (NotFoundException e) {
-					// There is nothing to do if it does not exist
-					log.debug("Node not found for id: "
-							+ changeMessage.getObjectId() + " Message:"
-							+ e.getMessage());
-				}
+	/**
+	 * Build the documents for a batch of messages. A message is ignored if the
+	 * entity no longer exists or if the message is older than the entity, as
+	 * a newer message will follow.
+	 *
+	 * @param createOrUpdate
+	 * @return
+	 * @throws Exception
+	 */
+	private List<Document> getDocsFromMessages(
+			Map<String, ChangeMessage> createOrUpdate) throws Exception {
+		List<Document> docs = searchDocumentDriver
+				.formulateSearchDocuments(new LinkedList<String>(createOrUpdate.keySet()));
+		Map<Long, Document> docMap = new HashMap<Long, Document>(docs.size());
+		for (Document doc : docs) {
+			docMap.put(KeyFactory.stringToKey(doc.getId()), doc);
+		}
+		return getCurrentDocs(createOrUpdate, docMap);
+	}
+
+	/**
+	 * Build the document for each message on its own. A message whose
+	 * document cannot be built is logged and skipped. If no document could be
+	 * built the failure is thrown, as the cause is unlikely to be any one
+	 * entity.
+	 *
+	 * @param createOrUpdate
+	 * @return
+	 * @throws Exception
+	 */
+	private List<Document> getDocsOneAtATime(
+			Map<String, ChangeMessage> createOrUpdate) throws Exception {
+		Map<Long, Document> docMap = new HashMap<Long, Document>(createOrUpdate.size());
+		Map<ChangeMessage, Exception> failures = new LinkedHashMap<ChangeMessage, Exception>();
+		Exception lastFailure = null;
+		for (ChangeMessage change : createOrUpdate.values()) {
+			try {
+				Document doc = searchDocumentDriver.formulateSearchDocument(change.getObjectId());
+				docMap.put(KeyFactory.stringToKey(doc.getId()), doc);
+			} catch (NotFoundException e) {
+				// There is nothing to do if it does not exist
+				log.debug("Node not found for id: " + change.getObjectId());
+			} catch (Exception e) {
+				failures.put(change, e);
+				lastFailure = e;
 			}
 		}
-		return null;
+		if (failures.size() == createOrUpdate.size()) {
+			throw lastFailure;
+		}
+		for (Map.Entry<ChangeMessage, Exception> failure : failures.entrySet()) {
+			workerLogger.logWorkerFailure(SearchQueueWorker.class, failure.getKey(), failure.getValue(), false);
+		}
+		return getCurrentDocs(createOrUpdate, docMap);
+	}
+
+	/**
+	 * Select the documents to send for a batch of messages. A message is
+	 * ignored if the entity no longer exists or if the message is older than
+	 * the entity.
+	 *
+	 * @param createOrUpdate
+	 * @param docMap
+	 *            The built documents by entity ID.
+	 * @return
+	 */
+	private static List<Document> getCurrentDocs(
+			Map<String, ChangeMessage> createOrUpdate, Map<Long, Document> docMap) {
+		List<Document> results = new LinkedList<Document>();
+		for (ChangeMessage change : createOrUpdate.values()) {
+			Document doc = docMap.get(KeyFactory.stringToKey(change.getObjectId()));
+			if (doc == null) {
+				// There is nothing to do if it does not exist
+				log.debug("Node not found for id: " + change.getObjectId());
+				continue;
+			}
+			if (change.getObjectEtag() != null
+					&& !change.getObjectEtag().equals(doc.getFields().getEtag())) {
+				// We want to ignore this message if the etag is not in the
+				// repository as it is an old message.
+				continue;
+			}
+			results.add(doc);
+		}
+		return results;
+	}
+
+	/**
+	 * Log the failure of each message in a batch.
+	 *
+	 * @param messages
+	 * @param e
+	 */
+	private void logFailure(Iterable<ChangeMessage> messages, Throwable e) {
+		for (ChangeMessage message : messages) {
+			workerLogger.logWorkerFailure(SearchQueueWorker.class, message, e,
+					true);
+		}
 	}
 
 }
@@ -1,9 +1,23 @@
 package org.sagebionetworks.table.worker;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.StackConfiguration;
 import org.sagebionetworks.asynchronous.workers.changes.BatchChangeMessageDrivenRunner;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.cloudwatch.WorkerLogger;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.common.util.progress.ThrottlingProgressCallback;
 import org.sagebionetworks.repo.model.NodeDAO;
@@ -13,30 +27,95 @@ import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.table.EntityDTO;
 import org.sagebionetworks.table.cluster.ConnectionFactory;
+import org.sagebionetworks.table.cluster.EntityReplicationBatch;
 import org.sagebionetworks.table.cluster.TableIndexDAO;
 import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.google.common.util.concurrent.MoreExecutors;
+
 /**
  * This worker listens to entity change events and replicates the changes to the
  * index database. The replicated data is to build EntityView tables in the
  * index database.
+ * <p>
+ * The batch is encoded once and then written to every index database in
+ * parallel on the replication executor. Each database is written in its own
+ * transaction, so a failure of one database does not stop the others.
+ * Transient failures, such as lock wait timeouts and deadlocks, are retried on
+ * each database. If a database still fails the whole batch is retried later,
+ * which is safe because each write deletes before it inserts. Any other failure
+ * is not retried, so the message goes to the dead letter queue.
  * 
  * @author John
  *
  */
 public class EntityReplicationWorker implements BatchChangeMessageDrivenRunner {
+	
+	static private Logger log = LogManager.getLogger(EntityReplicationWorker.class);
 
 	public static final int MAX_ANNOTATION_CHARS = 500;
 	public static final long THROTTLE_FREQUENCY_MS = 1000*30;
 
+	/**
+	 * Progress is made at least this often while waiting for the index
+	 * databases.
+	 */
+	public static final long PROGRESS_INTERVAL_MS = 1000L;
+	public static final int DEFAULT_MAX_ATTEMPTS_PER_INSTANCE = 3;
+	public static final long DEFAULT_RETRY_BACKOFF_MS = 1000L;
+
+	public static final String REPLICATION_LAG = "replication lag";
+	public static final String FAILED_INSTANCES = "failed instances";
+	public static final String DIMENSION_INSTANCE = "instance";
+
+	static final String METRIC_NAMESPACE = EntityReplicationWorker.class.getName()+" - "+ StackConfiguration.getStackInstance();
+
 	@Autowired
 	NodeDAO nodeDao;
 
 	@Autowired
 	ConnectionFactory connectionFactory;
+	
+	@Autowired
+	WorkerLogger workerLogger;
+
+	ExecutorService replicationExecutor = MoreExecutors.sameThreadExecutor();
+	int maxAttemptsPerInstance = DEFAULT_MAX_ATTEMPTS_PER_INSTANCE;
+	long retryBackoffMS = DEFAULT_RETRY_BACKOFF_MS;
+
+	/**
+	 * Injected. Each index database is written on this executor.
+	 * 
+	 * @param replicationExecutor
+	 */
+	public void setReplicationExecutor(ExecutorService replicationExecutor) {
+		this.replicationExecutor = replicationExecutor;
+	}
+
+	/**
+	 * Injected. The number of times a single index database is attempted
+	 * before the batch is retried.
+	 * 
+	 * @param maxAttemptsPerInstance
+	 */
+	public void setMaxAttemptsPerInstance(int maxAttemptsPerInstance) {
+		this.maxAttemptsPerInstance = maxAttemptsPerInstance;
+	}
+
+	/**
+	 * Injected. The wait before the second attempt of an index database. The
+	 * wait grows with each attempt.
+	 * 
+	 * @param retryBackoffMS
+	 */
+	public void setRetryBackoffMS(long retryBackoffMS) {
+		this.retryBackoffMS = retryBackoffMS;
+	}
 
 	@Override
 	public void run(ProgressCallback<Void> progressCallback,
@@ -53,28 +132,140 @@ public class EntityReplicationWorker implements BatchChangeMessageDrivenRunner {
 		
 		progressCallback.progressMade(null);
 		final ThrottlingProgressCallback<Void> throttleCallback = new ThrottlingProgressCallback<Void>(progressCallback, THROTTLE_FREQUENCY_MS);
+		// The index databases are written concurrently so progress must be synchronized.
+		final ProgressCallback<Void> sharedCallback = new ProgressCallback<Void>() {
+			@Override
+			public void progressMade(Void param) {
+				synchronized (throttleCallback) {
+					throttleCallback.progressMade(param);
+				}
+			}
+		};
 		// Get a copy of the batch of data.
 		final List<EntityDTO> entityDTOs = nodeDao.getEntityDTOs(createOrUpdateIds,
 				MAX_ANNOTATION_CHARS);
+		// Encode the batch once for all databases.
+		final EntityReplicationBatch batch = EntityReplicationBatch.create(allIds, entityDTOs);
 		// Get the connections
 		List<TableIndexDAO> indexDaos = connectionFactory.getAllConnections();
-		// make all changes in an index as a transaction
-		for(TableIndexDAO indexDao: indexDaos){
-			throttleCallback.progressMade(null);
-			indexDao.createEntityReplicationTablesIfDoesNotExist();
-			final TableIndexDAO indexDaoFinal = indexDao;
-			indexDao.executeInWriteTransaction(new TransactionCallback<Void>() {
+		final long start = System.currentTimeMillis();
+		List<Future<Long>> futures = new ArrayList<Future<Long>>(indexDaos.size());
+		for(final TableIndexDAO indexDao: indexDaos){
+			futures.add(replicationExecutor.submit(new Callable<Long>() {
 
 				@Override
-				public Void doInTransaction(TransactionStatus status) {
-					// clear everything.
-					indexDaoFinal.deleteEntityData(throttleCallback, allIds);
-					indexDaoFinal.addEntityData(throttleCallback, entityDTOs);
-					return null;
+				public Long call() throws Exception {
+					replicateWithRetry(sharedCallback, indexDao, batch);
+					return System.currentTimeMillis() - start;
 				}
-			});
+			}));
 		}
+		// wait for each database.
+		int failures = 0;
+		Throwable permanentFailure = null;
+		for(int i=0; i<futures.size(); i++){
+			try {
+				long lag = waitForInstance(futures.get(i), sharedCallback);
+				workerLogger.logCustomMetric(createMetric(REPLICATION_LAG, lag, StandardUnit.Milliseconds, i));
+			} catch (ExecutionException e) {
+				log.error("Replication failed", e.getCause());
+				failures++;
+				if(!(e.getCause() instanceof TransientDataAccessException) && permanentFailure == null){
+					permanentFailure = e.getCause();
+				}
+			}
+		}
+		if(failures > 0){
+			workerLogger.logCustomMetric(createMetric(FAILED_INSTANCES, failures, StandardUnit.Count, null));
+		}
+		if(permanentFailure instanceof Exception){
+			// Retrying the batch would fail again.
+			throw (Exception) permanentFailure;
+		}
+		if(permanentFailure instanceof Error){
+			throw (Error) permanentFailure;
+		}
+		if(failures > 0){
+			throw new RecoverableMessageException("Failed to replicate to "+failures+" of "+futures.size()+" index databases");
+		}
+	}
+	
+	/**
+	 * Write the batch to a single index database, retrying transient failures.
+	 * Lock wait timeouts and deadlocks are transient failures. Any other
+	 * failure is thrown without a retry.
+	 * 
+	 * @param progressCallback
+	 * @param indexDao
+	 * @param batch
+	 * @throws InterruptedException
+	 */
+	void replicateWithRetry(final ProgressCallback<Void> progressCallback, final TableIndexDAO indexDao, final EntityReplicationBatch batch) throws InterruptedException{
+		for(int attempt=1; ; attempt++){
+			try {
+				progressCallback.progressMade(null);
+				indexDao.createEntityReplicationTablesIfDoesNotExist();
+				// make all changes in an index as a transaction
+				indexDao.executeInWriteTransaction(new TransactionCallback<Void>() {
 
+					@Override
+					public Void doInTransaction(TransactionStatus status) {
+						indexDao.writeEntityReplicationBatch(progressCallback, batch);
+						return null;
+					}
+				});
+				return;
+			} catch (TransientDataAccessException e) {
+				if(attempt >= maxAttemptsPerInstance){
+					throw e;
+				}
+				log.warn("Replication attempt "+attempt+" failed, will retry", e);
+				Thread.sleep(retryBackoffMS*attempt);
+			}
+		}
+	}
+	
+	/**
+	 * Wait for a single index database while making progress.
+	 * 
+	 * @param future
+	 * @param progressCallback
+	 * @return The lag in MS of the database.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 *             If the database failed.
+	 */
+	private long waitForInstance(Future<Long> future, ProgressCallback<Void> progressCallback) throws InterruptedException, ExecutionException{
+		while(true){
+			progressCallback.progressMade(null);
+			try {
+				return future.get(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// still running.
+			}
+		}
+	}
+	
+	/**
+	 * Create a metric for this worker.
+	 * 
+	 * @param name
+	 * @param value
+	 * @param unit
+	 * @param instance The index of the database in the list of connections, or null for all databases.
+	 * @return
+	 */
+	static ProfileData createMetric(String name, long value, StandardUnit unit, Integer instance){
+		ProfileData nextPD = new ProfileData();
+		nextPD.setNamespace(METRIC_NAMESPACE); 
+		nextPD.setName(name);
+		nextPD.setValue((double)value);
+		nextPD.setUnit(unit.name());
+		nextPD.setTimestamp(new Date(System.currentTimeMillis()));
+		if(instance != null){
+			nextPD.setDimension(Collections.singletonMap(DIMENSION_INSTANCE, instance.toString()));
+		}
+		return nextPD;
 	}
 
 	/**
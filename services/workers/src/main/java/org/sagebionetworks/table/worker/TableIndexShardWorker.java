@@ -0,0 +1,67 @@
+package org.sagebionetworks.table.worker;
+
+import java.util.Date;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.StackConfiguration;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.cloudwatch.WorkerLogger;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.common.util.progress.ProgressingRunner;
+import org.sagebionetworks.repo.manager.table.TableIndexMoveManager;
+import org.sagebionetworks.repo.manager.table.TableIndexMoveResults;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * Moves table indexes to the databases where they belong, for example after a
+ * database joined the cluster. The number of pending moves is published on
+ * every run, so a value of zero shows that the joining databases have all of
+ * their indexes.
+ *
+ */
+public class TableIndexShardWorker implements ProgressingRunner<Void> {
+
+	static private Logger log = LogManager.getLogger(TableIndexShardWorker.class);
+
+	public static final String MOVED_INDEXES = "moved indexes";
+	public static final String FAILED_INDEX_MOVES = "failed index moves";
+	public static final String PENDING_INDEX_MOVES = "pending index moves";
+
+	static final String METRIC_NAMESPACE = TableIndexShardWorker.class.getName()+" - "+ StackConfiguration.getStackInstance();
+
+	@Autowired
+	TableIndexMoveManager tableIndexMoveManager;
+	@Autowired
+	WorkerLogger workerLogger;
+
+	@Override
+	public void run(ProgressCallback<Void> progressCallback) throws Exception {
+		TableIndexMoveResults results = tableIndexMoveManager.moveTableIndexes(progressCallback);
+		if(results.getMoved() > 0 || results.getPending() > 0){
+			log.info("Moved "+results.getMoved()+" table indexes, "+results.getFailed()+" failed, "+results.getPending()+" pending");
+		}
+		workerLogger.logCustomMetric(createMetric(MOVED_INDEXES, results.getMoved()));
+		workerLogger.logCustomMetric(createMetric(FAILED_INDEX_MOVES, results.getFailed()));
+		workerLogger.logCustomMetric(createMetric(PENDING_INDEX_MOVES, results.getPending()));
+	}
+
+	/**
+	 * Create a metric of the table's cluster.
+	 *
+	 * @param name
+	 * @param value
+	 * @return
+	 */
+	static ProfileData createMetric(String name, long value){
+		ProfileData nextPD = new ProfileData();
+		nextPD.setNamespace(METRIC_NAMESPACE);
+		nextPD.setName(name);
+		nextPD.setValue((double)value);
+		nextPD.setUnit(StandardUnit.Count.name());
+		nextPD.setTimestamp(new Date(System.currentTimeMillis()));
+		return nextPD;
+	}
+}
@@ -56,16 +56,15 @@ public class TableViewWorker implements ChangeMessageDrivenRunner {
 		// This worker is only works on FileView messages
 		if(ObjectType.ENTITY_VIEW.equals(message.getObjectType())){
 			final String tableId = message.getObjectId();
-			final TableIndexManager indexManager;
 			try {
-				indexManager = connectionFactory.connectToTableIndex(tableId);
 				if(ChangeType.DELETE.equals(message.getChangeType())){
 					// just delete the index
+					TableIndexManager indexManager = connectionFactory.connectToTableIndex(tableId);
 					indexManager.deleteTableIndex();
 					return;
 				}else{
 					// create or update the index
-					createOrUpdateIndex(tableId, indexManager, progressCallback, message);
+					createOrUpdateIndex(tableId, progressCallback, message);
 				}
 			} catch (TableIndexConnectionUnavailableException e) {
 				// try again later.
@@ -75,13 +74,14 @@ public class TableViewWorker implements ChangeMessageDrivenRunner {
 	}
 	
 	/**
-	 * Create or update the index for the given table.
+	 * Create or update the index for the given table. The index is looked up
+	 * while holding the table's exclusive lock, since the index can be moved
+	 * to another database until the lock is acquired.
 	 * 
 	 * @param tableId
-	 * @param indexManager
 	 * @throws RecoverableMessageException 
 	 */
-	public void createOrUpdateIndex(final String tableId, final TableIndexManager indexManager, ProgressCallback<Void> outerCallback, final ChangeMessage message) throws RecoverableMessageException{
+	public void createOrUpdateIndex(final String tableId, ProgressCallback<Void> outerCallback, final ChangeMessage message) throws RecoverableMessageException{
 		// get the exclusive lock to update the table
 		try {
 			tableManagerSupport.tryRunWithTableExclusiveLock(outerCallback, tableId, TIMEOUT_MS, new ProgressingCallable<Void, Void>() {
@@ -89,6 +89,7 @@ public class TableViewWorker implements ChangeMessageDrivenRunner {
 				@Override
 				public Void call(ProgressCallback<Void> innerCallback)
 						throws Exception {
+					TableIndexManager indexManager = connectionFactory.connectToTableIndex(tableId);
 					// next level.
 					createOrUpdateIndexHoldingLock(tableId, indexManager, innerCallback, message);
 					return null;
@@ -101,6 +102,9 @@ public class TableViewWorker implements ChangeMessageDrivenRunner {
 		} catch (LockUnavilableException e) {
 			// try again later.
 			throw new RecoverableMessageException();
+		} catch (TableIndexConnectionUnavailableException e) {
+			// try again later.
+			throw new RecoverableMessageException();
 		} catch (RecoverableMessageException e) {
 			throw e;
 		}  catch (Exception e) {
@@ -3,7 +3,10 @@ package org.sagebionetworks.table.worker;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,6 +23,7 @@ import org.sagebionetworks.repo.manager.table.TableManagerSupport;
 import org.sagebionetworks.repo.model.ConflictingUpdateException;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.dao.table.ChangeSetReader;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.table.ColumnChangeDetails;
@@ -75,20 +79,20 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 		// We only care about entity messages here
 		if (ObjectType.TABLE.equals((change.getObjectType()))) {
 			final String tableId = change.getObjectId();
-			final TableIndexManager indexManager;
-			try {
-				indexManager = connectionFactory.connectToTableIndex(tableId);
-			} catch (TableIndexConnectionUnavailableException e) {
-				// try again later.
-				throw new RecoverableMessageException();
-			}
 			if (ChangeType.DELETE.equals(change.getChangeType())) {
+				final TableIndexManager indexManager;
+				try {
+					indexManager = connectionFactory.connectToTableIndex(tableId);
+				} catch (TableIndexConnectionUnavailableException e) {
+					// try again later.
+					throw new RecoverableMessageException();
+				}
 				// Delete the table in the index
 				indexManager.deleteTableIndex();
 				return;
 			} else {
 				// this method does the real work.
-				State state = createOrUpdateTable(progressCallback, tableId, indexManager, change);
+				State state = createOrUpdateTable(progressCallback, tableId, change);
 				if (State.RECOVERABLE_FAILURE.equals(state)) {
 					throw new RecoverableMessageException();
 				}
@@ -98,15 +102,16 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 	
 
 	/**
-	 * This is where a single table index is created or updated.
+	 * This is where a single table index is created or updated. The index is
+	 * looked up while holding the table's exclusive lock, since the index can
+	 * be moved to another database until the lock is acquired.
 	 * 
 	 * @param tableId
 	 * @return
 	 */
 	public State createOrUpdateTable(
 			ProgressCallback<Void> progressCallback,
-			final String tableId, final TableIndexManager tableIndexManger,
-			final ChangeMessage change) {
+			final String tableId, final ChangeMessage change) {
 		// Attempt to run with
 		try {
 			// Only proceed if work is needed.
@@ -127,6 +132,7 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 					new ProgressingCallable<State, Void>() {
 						@Override
 						public State call(ProgressCallback<Void> progress) throws Exception {
+							TableIndexManager tableIndexManger = connectionFactory.connectToTableIndex(tableId);
 							// This method does the real work.
 							return createOrUpdateWhileHoldingLock(
 									progress, tableId, tableIndexManger, tableResetToken,
@@ -137,6 +143,9 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 			// We did not get the lock on this table.
 			// This is a recoverable failure as we can try again later.
 			return State.RECOVERABLE_FAILURE;
+		} catch (TableIndexConnectionUnavailableException e) {
+			// This is a recoverable failure as we can try again later.
+			return State.RECOVERABLE_FAILURE;
 		} catch (ConflictingUpdateException e) {
 			// This is thrown when the table gets updated while it is being
 			// processed.
@@ -241,30 +250,46 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 		long currentProgress = 0;
 		String lastEtag = null;
 		if(changes != null){
-			for(TableRowChange changeSet: changes){
-				progressCallback.progressMade(null);
-				currentProgress += changeSet.getRowCount();
-				lastEtag = changeSet.getEtag();
-				// Only apply changes sets not already applied to the index.
-				if(!indexManager.isVersionAppliedToIndex(changeSet.getRowVersion())){
-					// update the progress between actual change.
-					tableManagerSupport.attemptToUpdateTableProgress(tableId,
-							resetToken, "Applying version: " + changeSet.getRowVersion(), currentProgress,
-									totalProgress);
-					// Each type of change is applied 
-					switch(changeSet.getChangeType()){
-					case ROW:
-						applyRowChange(progressCallback, indexManager, tableId,
-								changeSet);
-						break;
-					case COLUMN:
-						applyColumnChange(progressCallback, indexManager, tableId,
-								changeSet);
-						break;
-					default:
-						throw new IllegalArgumentException("Unknown change type: "+changeSet.getChangeType());
+			// The index is asked once for each change set.
+			List<TableRowChange> toApply = getChangesToApply(indexManager, changes);
+			Set<Long> versionsToApply = new HashSet<Long>();
+			List<TableRowChange> rowChangesToApply = new LinkedList<TableRowChange>();
+			for(TableRowChange changeSet: toApply){
+				versionsToApply.add(changeSet.getRowVersion());
+				if(TableChangeType.ROW.equals(changeSet.getChangeType())){
+					rowChangesToApply.add(changeSet);
+				}
+			}
+			// Row change sets are fetched ahead while earlier changes are applied.
+			ChangeSetReader reader = tableEntityManager.openChangeSetReader(rowChangesToApply);
+			try{
+				for(TableRowChange changeSet: changes){
+					progressCallback.progressMade(null);
+					currentProgress += changeSet.getRowCount();
+					lastEtag = changeSet.getEtag();
+					// Only apply changes sets not already applied to the index.
+					if(versionsToApply.contains(changeSet.getRowVersion())){
+						// update the progress between actual change.
+						tableManagerSupport.attemptToUpdateTableProgress(tableId,
+								resetToken, "Applying version: " + changeSet.getRowVersion(), currentProgress,
+										totalProgress);
+						// Each type of change is applied 
+						switch(changeSet.getChangeType()){
+						case ROW:
+							applyRowChange(progressCallback, indexManager, tableId,
+									changeSet, reader);
+							break;
+						case COLUMN:
+							applyColumnChange(progressCallback, indexManager, tableId,
+									changeSet);
+							break;
+						default:
+							throw new IllegalArgumentException("Unknown change type: "+changeSet.getChangeType());
+						}
 					}
 				}
+			}finally{
+				reader.close();
 			}
 		}
 		// After all changes are applied to the index ensure the final schema is set
@@ -277,6 +302,23 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 		return lastEtag;
 	}
 
+	/**
+	 * Get the change sets that have not been applied to the index, in order.
+	 * 
+	 * @param indexManager
+	 * @param changes
+	 * @return
+	 */
+	List<TableRowChange> getChangesToApply(TableIndexManager indexManager, List<TableRowChange> changes){
+		List<TableRowChange> toApply = new LinkedList<TableRowChange>();
+		for(TableRowChange changeSet: changes){
+			if(!indexManager.isVersionAppliedToIndex(changeSet.getRowVersion())){
+				toApply.add(changeSet);
+			}
+		}
+		return toApply;
+	}
+
 	/**
 	 * Apply a column (a schema) change to a table.
 	 * 
@@ -307,11 +349,13 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 	 * @param indexManager
 	 * @param tableId
 	 * @param changeSet
+	 * @param reader
+	 *            Reader over the row change sets being applied.
 	 * @throws IOException
 	 */
 	void applyRowChange(ProgressCallback<Void> progressCallback,
 			final TableIndexManager indexManager, String tableId,
-			TableRowChange changeSet) throws IOException {
+			TableRowChange changeSet, ChangeSetReader reader) throws IOException {
 		ValidateArgument.required(changeSet, "changeSet");
 		if(!TableChangeType.ROW.equals(changeSet.getChangeType())){
 			throw new IllegalArgumentException("Expected: "+TableChangeType.ROW);
@@ -322,7 +366,7 @@ public class TableWorker implements ChangeMessageDrivenRunner, LockTimeoutAware
 		// Setup the table's index.
 		indexManager.setIndexSchema(progressCallback, currentSchema);
 		// This is a change that we must apply.
-		RowSet rowSet = tableEntityManager.getRowSet(tableId, changeSet.getRowVersion(), currentSchema);
+		RowSet rowSet = reader.getRowSet(changeSet, currentSchema);
 		// attempt to apply this change set to the table.
 		indexManager.applyChangeSetToIndex(rowSet, currentSchema, changeSet.getRowVersion());
 	}
@@ -3,14 +3,20 @@ package org.sagebionetworks.discussion.workers;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.dao.discussion.DiscussionReplyDAO;
 import org.sagebionetworks.repo.model.dao.discussion.DiscussionThreadDAO;
 import org.sagebionetworks.repo.model.discussion.DiscussionThreadReplyStat;
@@ -18,8 +24,11 @@ import org.sagebionetworks.repo.model.discussion.DiscussionThreadStat;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.Sets;
+
 public class DiscussionThreadStatsWorkerUnitTest {
 
 	@Mock
@@ -27,10 +36,10 @@ public class DiscussionThreadStatsWorkerUnitTest {
 	@Mock
 	private DiscussionReplyDAO mockReplyDao;
 	@Mock
-	private ChangeMessage mockMessage;
-	@Mock
 	private ProgressCallback<Void> mockCallback;
 	private DiscussionThreadStatsWorker worker;
+	private Map<Long, DiscussionThreadReplyStat> replyStats;
+	private Map<Long, List<String>> activeAuthors;
 
 	@Before
 	public void before() {
@@ -38,39 +47,73 @@ public class DiscussionThreadStatsWorkerUnitTest {
 		worker = new DiscussionThreadStatsWorker();
 		ReflectionTestUtils.setField(worker, "threadDao", mockThreadDao);
 		ReflectionTestUtils.setField(worker, "replyDao", mockReplyDao);
+		replyStats = new HashMap<Long, DiscussionThreadReplyStat>();
+		activeAuthors = new HashMap<Long, List<String>>();
+		when(mockReplyDao.getThreadReplyStats(Mockito.anySet())).thenReturn(replyStats);
+		when(mockReplyDao.getActiveAuthors(Mockito.anySet())).thenReturn(activeAuthors);
+	}
+
+	private ChangeMessage createMessage(Long threadId, ChangeType type) {
+		ChangeMessage message = new ChangeMessage();
+		message.setObjectId(threadId.toString());
+		message.setObjectType(ObjectType.THREAD);
+		message.setChangeType(type);
+		return message;
 	}
 
 	@Test
 	public void testNotUpdateMessage() throws RecoverableMessageException {
-		when(mockMessage.getChangeType()).thenReturn(ChangeType.CREATE);
-		worker.run(mockCallback, mockMessage);
+		worker.run(mockCallback, Arrays.asList(createMessage(1L, ChangeType.CREATE)));
 		verifyZeroInteractions(mockReplyDao);
 		verifyZeroInteractions(mockThreadDao);
 	}
 
+	@SuppressWarnings("unchecked")
 	@Test
-	public void testUpdateMessage() throws RecoverableMessageException {
+	public void testUpdateMessages() throws RecoverableMessageException {
 		Long threadId = 1L;
+		Long threadId2 = 2L;
 		DiscussionThreadReplyStat replyStat = new DiscussionThreadReplyStat();
 		Long lastActivity = System.currentTimeMillis();
+		replyStat.setThreadId(threadId);
 		replyStat.setLastActivity(lastActivity);
 		replyStat.setNumberOfReplies(2L);
-		when(mockMessage.getObjectId()).thenReturn(threadId.toString());
-		when(mockMessage.getChangeType()).thenReturn(ChangeType.UPDATE);
-		when(mockReplyDao.getThreadReplyStat(threadId)).thenReturn(replyStat);
-		when(mockThreadDao.countThreadView(threadId)).thenReturn(3L);
-		when(mockReplyDao.getActiveAuthors(threadId)).thenReturn(null);
-		worker.run(mockCallback, mockMessage);
+		replyStats.put(threadId, replyStat);
+		activeAuthors.put(threadId, Arrays.asList("3", "4"));
+		// duplicate messages of the same thread are processed once.
+		worker.run(mockCallback, Arrays.asList(createMessage(threadId2, ChangeType.UPDATE),
+				createMessage(threadId, ChangeType.UPDATE), createMessage(threadId2, ChangeType.UPDATE),
+				createMessage(5L, ChangeType.DELETE)));
+
+		Set<Long> expectedIds = Sets.newHashSet(threadId, threadId2);
+		verify(mockReplyDao).getThreadReplyStats(expectedIds);
+		verify(mockReplyDao).getActiveAuthors(expectedIds);
+		verify(mockThreadDao, never()).countThreadView(Mockito.anyLong());
 		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
-		verify(mockThreadDao).updateThreadStats(captor.capture());
-		List value = captor.getValue();
-		assertNotNull(value);
-		assertEquals(1, value.size());
-		DiscussionThreadStat stat = (DiscussionThreadStat) value.get(0);
+		verify(mockThreadDao).updateThreadReplyStats(captor.capture());
+		List<DiscussionThreadStat> value = captor.getValue();
+		assertEquals(2, value.size());
+		DiscussionThreadStat stat = value.get(0);
 		assertEquals(threadId, stat.getThreadId());
 		assertEquals((Long)2L, stat.getNumberOfReplies());
 		assertEquals(lastActivity, stat.getLastActivity());
-		assertEquals((Long)3L, stat.getNumberOfViews());
-		assertNull(stat.getActiveAuthors());
+		assertEquals(Arrays.asList("3", "4"), stat.getActiveAuthors());
+		assertNull(stat.getNumberOfViews());
+		// a thread without replies
+		stat = value.get(1);
+		assertEquals(threadId2, stat.getThreadId());
+		assertEquals((Long)0L, stat.getNumberOfReplies());
+		assertNull(stat.getLastActivity());
+		assertTrue(stat.getActiveAuthors().isEmpty());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testDeletedThread() throws RecoverableMessageException {
+		Mockito.doThrow(new DataIntegrityViolationException("")).doThrow(new DataIntegrityViolationException(""))
+				.doNothing().when(mockThreadDao).updateThreadReplyStats(Mockito.anyList());
+		worker.run(mockCallback, Arrays.asList(createMessage(1L, ChangeType.UPDATE), createMessage(2L, ChangeType.UPDATE)));
+		// the batch fails, then each thread is updated on its own.
+		verify(mockThreadDao, times(3)).updateThreadReplyStats(Mockito.anyList());
 	}
 }
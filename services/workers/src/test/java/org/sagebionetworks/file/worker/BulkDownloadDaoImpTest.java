@@ -14,18 +14,24 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Mockito.*;
 
 import org.sagebionetworks.repo.manager.file.FileHandleAuthorizationManager;
 import org.sagebionetworks.repo.manager.file.FileHandleManager;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
+import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.dao.FileHandleDao;
 import org.sagebionetworks.repo.model.file.ExternalFileHandle;
 import org.sagebionetworks.repo.model.file.S3FileHandle;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 
 public class BulkDownloadDaoImpTest {
 	
@@ -74,23 +80,26 @@ public class BulkDownloadDaoImpTest {
 			IOUtils.write(twoContents, twoOut);
 			// The output zip
 			zip = bulkDownloadDao.createTempFile("Zip", ".zip");
-			zipOut = bulkDownloadDao.createZipOutputStream(zip);
+			zipOut = bulkDownloadDao.createZipOutputStream(new FileOutputStream(zip));
 			
 			// add the files to the zip.
 			String entryNameOne = "p1/One.txt";
-			bulkDownloadDao.addFileToZip(zipOut, one, entryNameOne);
-			String entryNameTwo = "p2/Two.txt";
-			bulkDownloadDao.addFileToZip(zipOut, two, entryNameTwo);
+			bulkDownloadDao.addFileToZip(zipOut, one, entryNameOne, "text/plain");
+			// already compressed so it should be stored.
+			String entryNameTwo = "p2/Two.txt.gz";
+			bulkDownloadDao.addFileToZip(zipOut, two, entryNameTwo, null);
 			zipOut.close();
 			
 			// unzip 
 			zipIn = new ZipInputStream(new FileInputStream(zip));
 			ZipEntry entry = zipIn.getNextEntry();
 			assertEquals(entryNameOne, entry.getName());
+			assertEquals(ZipEntry.DEFLATED, entry.getMethod());
 			assertEquals(oneContents, IOUtils.toString(zipIn));
 			zipIn.closeEntry();
 			entry = zipIn.getNextEntry();
 			assertEquals(entryNameTwo, entry.getName());
+			assertEquals(ZipEntry.STORED, entry.getMethod());
 			assertEquals(twoContents, IOUtils.toString(zipIn));
 			zipIn.closeEntry();
 			
@@ -111,6 +120,18 @@ public class BulkDownloadDaoImpTest {
 		}
 	}
 	
+	@Test
+	public void testIsCompressed(){
+		assertTrue(BulkDownloadManagerImpl.isCompressed("foo.txt", "application/zip"));
+		assertTrue(BulkDownloadManagerImpl.isCompressed("foo", "image/JPEG; charset=UTF-8"));
+		assertTrue(BulkDownloadManagerImpl.isCompressed("foo", "video/quicktime"));
+		assertTrue(BulkDownloadManagerImpl.isCompressed("reads.BAM", null));
+		assertTrue(BulkDownloadManagerImpl.isCompressed("data.csv.gz", "text/plain"));
+		assertFalse(BulkDownloadManagerImpl.isCompressed("data.csv", "text/csv"));
+		assertFalse(BulkDownloadManagerImpl.isCompressed("noExtension", null));
+		assertFalse(BulkDownloadManagerImpl.isCompressed(null, null));
+	}
+	
 	@Test
 	public void testGetS3FileHandle(){
 		String fileHandleId = "123";
@@ -151,4 +172,40 @@ public class BulkDownloadDaoImpTest {
 		}
 	}
 	
+	@Test
+	public void testDownloadToTempFileFailure() throws IOException{
+		S3FileHandle s3Handle = new S3FileHandle();
+		s3Handle.setId("123");
+		s3Handle.setKey("someKey");
+		s3Handle.setBucketName("someBucket");
+		final File[] tempFile = new File[1];
+		doAnswer(new Answer<ObjectMetadata>() {
+			@Override
+			public ObjectMetadata answer(InvocationOnMock invocation) throws Throwable {
+				tempFile[0] = (File) invocation.getArguments()[1];
+				throw new AmazonClientException("failed");
+			}
+		}).when(mockS3client).getObject(any(GetObjectRequest.class), any(File.class));
+		try{
+			bulkDownloadDao.downloadToTempFile(s3Handle);
+			fail();
+		}catch(AmazonClientException e){
+			// expected
+		}
+		// the partial file should be deleted.
+		assertNotNull(tempFile[0]);
+		assertFalse(tempFile[0].exists());
+	}
+	
+	@Test
+	public void testOpenMultipartUploadStream(){
+		UserInfo user = new UserInfo(false, 777L);
+		MultipartUploadOutputStream mockUpload = Mockito.mock(MultipartUploadOutputStream.class);
+		when(mockFileHandleManager.openMultipartUploadStream(user, "foo.zip", "application/zip")).thenReturn(mockUpload);
+		assertEquals(mockUpload, bulkDownloadDao.openMultipartUploadStream(user, "foo.zip", "application/zip"));
+		S3FileHandle handle = new S3FileHandle();
+		when(mockFileHandleManager.completeMultipartUploadStream(mockUpload)).thenReturn(handle);
+		assertEquals(handle, bulkDownloadDao.completeMultipartUploadStream(mockUpload));
+	}
+	
 }
@@ -9,13 +9,20 @@ import static org.sagebionetworks.repo.manager.AuthorizationManagerUtil.AUTHORIZ
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipOutputStream;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -25,6 +32,7 @@ import org.sagebionetworks.repo.manager.AuthorizationManagerUtil;
 import org.sagebionetworks.repo.manager.UserManager;
 import org.sagebionetworks.repo.manager.asynch.AsynchJobStatusManager;
 import org.sagebionetworks.repo.manager.file.FileHandleAssociationAuthorizationStatus;
+import org.sagebionetworks.repo.manager.file.transfer.MultipartUploadOutputStream;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.asynch.AsynchronousJobStatus;
 import org.sagebionetworks.repo.model.file.BulkFileDownloadRequest;
@@ -38,9 +46,9 @@ import org.sagebionetworks.repo.model.file.S3FileHandle;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.springframework.test.util.ReflectionTestUtils;
 
-import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.sqs.model.Message;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class BulkFileDownloadWorkerTest {
 
@@ -63,9 +71,11 @@ public class BulkFileDownloadWorkerTest {
 	S3FileHandle fileHandle1;
 	S3FileHandle fileHandle2;
 
-	List<File> mockTempFilesCreated;
+	List<MultipartUploadOutputStream> mockUploadsCreated;
 	List<ZipOutputStream> mockZipOutCreated;
+	List<OutputStream> zipSinksCreated;
 	List<File> mockDownloadedFiles;
+	ExecutorService downloadExecutor;
 
 	S3FileHandle resultHandle;
 
@@ -83,6 +93,9 @@ public class BulkFileDownloadWorkerTest {
 		ReflectionTestUtils.setField(worker, "userManger", mockUserManger);
 		ReflectionTestUtils.setField(worker, "bulkDownloadManager",
 				mockBulkDownloadManager);
+		// download on the calling thread unless a test needs otherwise.
+		downloadExecutor = MoreExecutors.sameThreadExecutor();
+		worker.setDownloadExecutor(downloadExecutor);
 
 		// test objects
 		fha1 = new FileHandleAssociation();
@@ -129,19 +142,19 @@ public class BulkFileDownloadWorkerTest {
 		when(mockBulkDownloadManager.getS3FileHandle(fha2.getFileHandleId()))
 				.thenReturn(fileHandle2);
 
-		// Create and track a mock file for each temp requested.
-		mockTempFilesCreated = Lists.newLinkedList();
-		doAnswer(new Answer<File>() {
+		// Create and track a mock upload for each upload started.
+		mockUploadsCreated = Lists.newLinkedList();
+		doAnswer(new Answer<MultipartUploadOutputStream>() {
 			@Override
-			public File answer(InvocationOnMock invocation) throws Throwable {
-				File mockFile = Mockito.mock(File.class);
-				mockTempFilesCreated.add(mockFile);
-				return mockFile;
+			public MultipartUploadOutputStream answer(InvocationOnMock invocation) throws Throwable {
+				MultipartUploadOutputStream mockUpload = Mockito.mock(MultipartUploadOutputStream.class);
+				mockUploadsCreated.add(mockUpload);
+				return mockUpload;
 			}
-		}).when(mockBulkDownloadManager).createTempFile(anyString(), anyString());
+		}).when(mockBulkDownloadManager).openMultipartUploadStream(any(UserInfo.class), anyString(), anyString());
 
 		// Create and track a mock downloaded files.
-		mockDownloadedFiles = Lists.newLinkedList();
+		mockDownloadedFiles = Collections.synchronizedList(new ArrayList<File>());
 		doAnswer(new Answer<File>() {
 			@Override
 			public File answer(InvocationOnMock invocation) throws Throwable {
@@ -154,26 +167,32 @@ public class BulkFileDownloadWorkerTest {
 
 		// create and track the ZipOutputStreams
 		mockZipOutCreated = Lists.newLinkedList();
+		zipSinksCreated = Lists.newLinkedList();
 		doAnswer(new Answer<ZipOutputStream>() {
 			@Override
 			public ZipOutputStream answer(InvocationOnMock invocation)
 					throws Throwable {
+				zipSinksCreated.add((OutputStream) invocation.getArguments()[0]);
 				ZipOutputStream out = Mockito.mock(ZipOutputStream.class);
 				mockZipOutCreated.add(out);
 				return out;
 			}
-		}).when(mockBulkDownloadManager).createZipOutputStream(any(File.class));
+		}).when(mockBulkDownloadManager).createZipOutputStream(any(OutputStream.class));
 
 		// setup the result handle
 		resultHandle = new S3FileHandle();
 		resultHandle.setId("1111");
 		when(
-				mockBulkDownloadManager.multipartUploadLocalFile(
-						any(UserInfo.class), any(File.class), anyString(),
-						any(ProgressListener.class))).thenReturn(resultHandle);
+				mockBulkDownloadManager.completeMultipartUploadStream(
+						any(MultipartUploadOutputStream.class))).thenReturn(resultHandle);
 		when(mockAsynchJobStatusManager.lookupJobStatus(jobStatus.getJobId())).thenReturn(jobStatus);
 	}
 
+	@After
+	public void after() {
+		downloadExecutor.shutdownNow();
+	}
+
 	@Test
 	public void testCreateZipEntryName() {
 		assertEquals("321/321321/foo.txt",
@@ -189,27 +208,31 @@ public class BulkFileDownloadWorkerTest {
 	@Test
 	public void testRunHappy() throws Exception {
 		worker.run(mockProgress, message);
-		verify(mockProgress, times(1)).progressMade(null);
+		// progress is made when the file is started and when it is added.
+		verify(mockProgress, times(2)).progressMade(null);
 		verify(mockAsynchJobStatusManager, times(1)).updateJobProgress(
 				anyString(), anyLong(), anyLong(), anyString());
 
-		// temp file for the zip should be created
-		assertEquals(1, mockTempFilesCreated.size());
+		// an upload should be started for the zip
+		assertEquals(1, mockUploadsCreated.size());
+		verify(mockBulkDownloadManager).openMultipartUploadStream(user, "Job9999.zip", BulkFileDownloadWorker.APPLICATION_ZIP);
 		// ZipOutputStream should be created for the zip.
 		assertEquals(1, mockZipOutCreated.size());
+		verify(mockBulkDownloadManager).createZipOutputStream(any(OutputStream.class));
+		// the zip is written to the upload.
+		zipSinksCreated.get(0).write(1);
+		verify(mockUploadsCreated.get(0)).write(1);
 		// one file should have been downloaded
 		assertEquals(1, mockDownloadedFiles.size());
 		verifyAllStreamsClosedAndFilesDeleted();
 		
 		// The zip should get uploaded
-		verify(mockBulkDownloadManager, times(1)).multipartUploadLocalFile(
-				any(UserInfo.class), any(File.class), anyString(),
-				any(ProgressListener.class));
+		verify(mockBulkDownloadManager, times(1)).completeMultipartUploadStream(mockUploadsCreated.get(0));
 		
 		ArgumentCaptor<String> entryCapture = ArgumentCaptor
 				.forClass(String.class);
 		verify(mockBulkDownloadManager).addFileToZip(any(ZipOutputStream.class),
-				any(File.class), entryCapture.capture());
+				any(File.class), entryCapture.capture(), anyString());
 		assertEquals("1/1/foo.txt", entryCapture.getValue());
 
 		// expect the job to be completed with the response body.
@@ -247,9 +270,10 @@ public class BulkFileDownloadWorkerTest {
 		
 		verifyAllStreamsClosedAndFilesDeleted();
 		// The zip should not get uploaded
-		verify(mockBulkDownloadManager, never()).multipartUploadLocalFile(
-				any(UserInfo.class), any(File.class), anyString(),
-				any(ProgressListener.class));
+		verify(mockBulkDownloadManager, never()).openMultipartUploadStream(
+				any(UserInfo.class), anyString(), anyString());
+		verify(mockBulkDownloadManager, never()).completeMultipartUploadStream(
+				any(MultipartUploadOutputStream.class));
 		// expect the job to be completed with the response body.
 		FileDownloadSummary summary = new FileDownloadSummary();
 		summary.setFileHandleId(fha1.getFileHandleId());
@@ -291,16 +315,15 @@ public class BulkFileDownloadWorkerTest {
 								AUTHORIZED)));
 		// call under test.
 		worker.run(mockProgress, message);
-		// progress should be made for each file.
-		verify(mockProgress, times(2)).progressMade(null);
+		// progress should be made for each file and for each file added.
+		verify(mockProgress, times(3)).progressMade(null);
 		verify(mockAsynchJobStatusManager, times(2)).updateJobProgress(
 				anyString(), anyLong(), anyLong(), anyString());
 		
 		verifyAllStreamsClosedAndFilesDeleted();
 		// The zip should get uploaded
-		verify(mockBulkDownloadManager, times(1)).multipartUploadLocalFile(
-				any(UserInfo.class), any(File.class), anyString(),
-				any(ProgressListener.class));
+		verify(mockBulkDownloadManager, times(1)).completeMultipartUploadStream(
+				any(MultipartUploadOutputStream.class));
 		// expect the job to be completed with the response body.
 		// 1
 		FileDownloadSummary summary1 = new FileDownloadSummary();
@@ -423,25 +446,48 @@ public class BulkFileDownloadWorkerTest {
 	 */
 	@Test
 	public void testRunZipFull() throws Exception {
-		// temp file for the zip should be created
-		File mockZip = Mockito.mock(File.class);
-		when(mockBulkDownloadManager.createTempFile(anyString(), anyString())).thenReturn(mockZip);
-		when(mockZip.length()).thenReturn(BulkFileDownloadWorker.MAX_TOTAL_FILE_SIZE_BYTES+1);
+		requestBody.setRequestedFiles(Arrays.asList(fha1, fha2));
+		message = MessageUtils.buildMessage(jobStatus);
+		when(
+				mockBulkDownloadManager.canDownLoadFile(user,
+						Arrays.asList(fha1, fha2))).thenReturn(
+				Arrays.asList(
+						new FileHandleAssociationAuthorizationStatus(fha1,
+								AUTHORIZED),
+						new FileHandleAssociationAuthorizationStatus(fha2,
+								AUTHORIZED)));
+		// The zip is full once the first file is added.
+		final MultipartUploadOutputStream mockUpload = Mockito.mock(MultipartUploadOutputStream.class);
+		when(mockUpload.getContentSize()).thenReturn(BulkFileDownloadWorker.MAX_TOTAL_FILE_SIZE_BYTES+1);
+		when(mockBulkDownloadManager.openMultipartUploadStream(any(UserInfo.class), anyString(), anyString())).thenReturn(mockUpload);
 		fileHandle1.setContentSize(1L);
+		fileHandle2.setContentSize(1L);
 		// call under test
 		worker.run(mockProgress, message);
+		
+		verifyAllStreamsClosedAndFilesDeleted();
+		// the second file should be downloaded but not added.
+		assertEquals(2, mockDownloadedFiles.size());
+		verify(mockBulkDownloadManager, times(1)).addFileToZip(any(ZipOutputStream.class),
+				any(File.class), anyString(), anyString());
 		// expect the job to be completed with the response body.
+		FileDownloadSummary summary1 = new FileDownloadSummary();
+		summary1.setFileHandleId(fha1.getFileHandleId());
+		summary1.setAssociateObjectId(fha1.getAssociateObjectId());
+		summary1.setAssociateObjectType(fha1.getAssociateObjectType());
+		summary1.setStatus(FileDownloadStatus.SUCCESS);
+		summary1.setZipEntryName("1/1/foo.txt");
 		FileDownloadSummary summary = new FileDownloadSummary();
-		summary.setFileHandleId(fha1.getFileHandleId());
-		summary.setAssociateObjectId(fha1.getAssociateObjectId());
-		summary.setAssociateObjectType(fha1.getAssociateObjectType());
+		summary.setFileHandleId(fha2.getFileHandleId());
+		summary.setAssociateObjectId(fha2.getAssociateObjectId());
+		summary.setAssociateObjectType(fha2.getAssociateObjectType());
 		summary.setStatus(FileDownloadStatus.FAILURE);
 		summary.setFailureCode(FileDownloadCode.EXCEEDS_SIZE_LIMIT);
 		summary.setFailureMessage(BulkFileDownloadWorker.RESULT_FILE_HAS_REACHED_THE_MAXIMUM_SIZE);
 		// response
 		BulkFileDownloadResponse expectedResponse = new BulkFileDownloadResponse();
-		expectedResponse.setResultZipFileHandleId(null);
-		expectedResponse.setFileSummary(Arrays.asList(summary));
+		expectedResponse.setResultZipFileHandleId(resultHandle.getId());
+		expectedResponse.setFileSummary(Arrays.asList(summary1, summary));
 		expectedResponse.setUserId(""+user.getId());
 		verify(mockAsynchJobStatusManager).setComplete(jobStatus.getJobId(),
 				expectedResponse);
@@ -473,9 +519,8 @@ public class BulkFileDownloadWorkerTest {
 
 		verifyAllStreamsClosedAndFilesDeleted();
 		// The zip should get uploaded
-		verify(mockBulkDownloadManager, times(1)).multipartUploadLocalFile(
-				any(UserInfo.class), any(File.class), anyString(),
-				any(ProgressListener.class));
+		verify(mockBulkDownloadManager, times(1)).completeMultipartUploadStream(
+				any(MultipartUploadOutputStream.class));
 		// expect the job to be completed with the response body.
 		// 1
 		FileDownloadSummary summary1 = new FileDownloadSummary();
@@ -521,14 +566,188 @@ public class BulkFileDownloadWorkerTest {
 				exception);
 	}
 	
+	/**
+	 * A failed download should only fail that file.
+	 * @throws Exception
+	 */
+	@Test
+	public void testRunDownloadFailure() throws Exception {
+		String error = "S3 failure";
+		doThrow(new IOException(error)).when(mockBulkDownloadManager).downloadToTempFile(fileHandle1);
+		// call under test
+		worker.run(mockProgress, message);
+
+		verifyAllStreamsClosedAndFilesDeleted();
+		verify(mockBulkDownloadManager, never()).openMultipartUploadStream(
+				any(UserInfo.class), anyString(), anyString());
+		// expect the job to be completed with the response body.
+		FileDownloadSummary summary = new FileDownloadSummary();
+		summary.setFileHandleId(fha1.getFileHandleId());
+		summary.setAssociateObjectId(fha1.getAssociateObjectId());
+		summary.setAssociateObjectType(fha1.getAssociateObjectType());
+		summary.setStatus(FileDownloadStatus.FAILURE);
+		summary.setFailureCode(FileDownloadCode.UNKNOWN_ERROR);
+		summary.setFailureMessage(error);
+		// response
+		BulkFileDownloadResponse expectedResponse = new BulkFileDownloadResponse();
+		expectedResponse.setResultZipFileHandleId(null);
+		expectedResponse.setFileSummary(Arrays.asList(summary));
+		expectedResponse.setUserId(""+user.getId());
+		verify(mockAsynchJobStatusManager).setComplete(jobStatus.getJobId(),
+				expectedResponse);
+	}
+
+	/**
+	 * Files are downloaded concurrently but must be added to the zip in the
+	 * requested order.
+	 * @throws Exception
+	 */
+	@Test
+	public void testRunConcurrentDownloadsInOrder() throws Exception {
+		downloadExecutor = Executors.newFixedThreadPool(3);
+		worker.setDownloadExecutor(downloadExecutor);
+		worker.setDownloadWindowSize(2);
+		int count = 10;
+		List<FileHandleAssociation> associations = new ArrayList<FileHandleAssociation>(count);
+		List<FileHandleAssociationAuthorizationStatus> authResults = new ArrayList<FileHandleAssociationAuthorizationStatus>(count);
+		for (int i = 0; i < count; i++) {
+			FileHandleAssociation fha = new FileHandleAssociation();
+			fha.setFileHandleId("" + (100 + i));
+			fha.setAssociateObjectId("123");
+			fha.setAssociateObjectType(FileHandleAssociateType.TableEntity);
+			associations.add(fha);
+			authResults.add(new FileHandleAssociationAuthorizationStatus(fha, AUTHORIZED));
+			S3FileHandle handle = new S3FileHandle();
+			handle.setId(fha.getFileHandleId());
+			handle.setFileName("file" + i + ".txt");
+			handle.setContentSize(10L);
+			when(mockBulkDownloadManager.getS3FileHandle(fha.getFileHandleId())).thenReturn(handle);
+		}
+		requestBody.setRequestedFiles(associations);
+		message = MessageUtils.buildMessage(jobStatus);
+		when(mockBulkDownloadManager.canDownLoadFile(user, associations)).thenReturn(authResults);
+		// call under test
+		worker.run(mockProgress, message);
+
+		verifyAllStreamsClosedAndFilesDeleted();
+		assertEquals(count, mockDownloadedFiles.size());
+		InOrder inOrder = inOrder(mockBulkDownloadManager);
+		for (int i = 0; i < count; i++) {
+			long fileHandleId = 100 + i;
+			inOrder.verify(mockBulkDownloadManager).addFileToZip(any(ZipOutputStream.class), any(File.class),
+					eq(BulkFileDownloadWorker.createZipEntryName("file" + i + ".txt", fileHandleId)), anyString());
+		}
+		ArgumentCaptor<BulkFileDownloadResponse> responseCapture = ArgumentCaptor.forClass(BulkFileDownloadResponse.class);
+		verify(mockAsynchJobStatusManager).setComplete(eq(jobStatus.getJobId()), responseCapture.capture());
+		assertEquals(count, responseCapture.getValue().getFileSummary().size());
+		for (int i = 0; i < count; i++) {
+			FileDownloadSummary summary = responseCapture.getValue().getFileSummary().get(i);
+			assertEquals("" + (100 + i), summary.getFileHandleId());
+			assertEquals(FileDownloadStatus.SUCCESS, summary.getStatus());
+		}
+		assertEquals(resultHandle.getId(), responseCapture.getValue().getResultZipFileHandleId());
+	}
+
+	/**
+	 * No more than the window size of files should be downloaded ahead of the
+	 * zip.
+	 * @throws Exception
+	 */
+	@Test
+	public void testRunDownloadWindow() throws Exception {
+		worker.setDownloadWindowSize(1);
+		requestBody.setRequestedFiles(Arrays.asList(fha1, fha2));
+		message = MessageUtils.buildMessage(jobStatus);
+		when(
+				mockBulkDownloadManager.canDownLoadFile(user,
+						Arrays.asList(fha1, fha2))).thenReturn(
+				Arrays.asList(
+						new FileHandleAssociationAuthorizationStatus(fha1,
+								AUTHORIZED),
+						new FileHandleAssociationAuthorizationStatus(fha2,
+								AUTHORIZED)));
+		// call under test
+		worker.run(mockProgress, message);
+		verifyAllStreamsClosedAndFilesDeleted();
+		// the first file must be added before the second is downloaded.
+		InOrder inOrder = inOrder(mockBulkDownloadManager);
+		inOrder.verify(mockBulkDownloadManager).downloadToTempFile(fileHandle1);
+		inOrder.verify(mockBulkDownloadManager).addFileToZip(any(ZipOutputStream.class), any(File.class), eq("1/1/foo.txt"), anyString());
+		inOrder.verify(mockBulkDownloadManager).downloadToTempFile(fileHandle2);
+		inOrder.verify(mockBulkDownloadManager).addFileToZip(any(ZipOutputStream.class), any(File.class), eq("2/2/bar.txt"), anyString());
+	}
+
+	/**
+	 * The total size of the files downloaded ahead of the zip is limited.
+	 * @throws Exception
+	 */
+	@Test
+	public void testRunDownloadWindowBytes() throws Exception {
+		worker.setMaxDownloadWindowBytes(15L);
+		requestBody.setRequestedFiles(Arrays.asList(fha1, fha2));
+		message = MessageUtils.buildMessage(jobStatus);
+		when(
+				mockBulkDownloadManager.canDownLoadFile(user,
+						Arrays.asList(fha1, fha2))).thenReturn(
+				Arrays.asList(
+						new FileHandleAssociationAuthorizationStatus(fha1,
+								AUTHORIZED),
+						new FileHandleAssociationAuthorizationStatus(fha2,
+								AUTHORIZED)));
+		// call under test
+		worker.run(mockProgress, message);
+		verifyAllStreamsClosedAndFilesDeleted();
+		// both files are 10 bytes so only one fits in the window.
+		InOrder inOrder = inOrder(mockBulkDownloadManager);
+		inOrder.verify(mockBulkDownloadManager).downloadToTempFile(fileHandle1);
+		inOrder.verify(mockBulkDownloadManager).addFileToZip(any(ZipOutputStream.class), any(File.class), eq("1/1/foo.txt"), anyString());
+		inOrder.verify(mockBulkDownloadManager).downloadToTempFile(fileHandle2);
+	}
+	
+	/**
+	 * A failure to write the zip fails the job rather than a single file.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRunZipWriteFailure() throws Exception {
+		requestBody.setRequestedFiles(Arrays.asList(fha1, fha2));
+		message = MessageUtils.buildMessage(jobStatus);
+		when(
+				mockBulkDownloadManager.canDownLoadFile(user,
+						Arrays.asList(fha1, fha2))).thenReturn(
+				Arrays.asList(
+						new FileHandleAssociationAuthorizationStatus(fha1,
+								AUTHORIZED),
+						new FileHandleAssociationAuthorizationStatus(fha2,
+								AUTHORIZED)));
+		// sending a part of the upload fails while the first file is written.
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				doThrow(new IOException("part failed")).when(mockUploadsCreated.get(0)).write(any(byte[].class), anyInt(), anyInt());
+				zipSinksCreated.get(0).write(new byte[1], 0, 1);
+				return null;
+			}
+		}).when(mockBulkDownloadManager).addFileToZip(any(ZipOutputStream.class), any(File.class), anyString(), anyString());
+		// call under test
+		worker.run(mockProgress, message);
+		// nothing else is written to the failed upload.
+		verify(mockBulkDownloadManager, times(1)).addFileToZip(any(ZipOutputStream.class), any(File.class), anyString(), anyString());
+		verify(mockBulkDownloadManager, never()).completeMultipartUploadStream(any(MultipartUploadOutputStream.class));
+		verify(mockAsynchJobStatusManager).setJobFailed(eq(jobStatus.getJobId()), any(BulkFileDownloadWorker.ResultZipWriteException.class));
+		verify(mockAsynchJobStatusManager, never()).setComplete(anyString(), any(BulkFileDownloadResponse.class));
+		verifyAllStreamsClosedAndFilesDeleted();
+	}
+	
 	/**
 	 * Helper to verify that all streams get closed and all files are deleted.
 	 * @throws IOException
 	 */
 	private void verifyAllStreamsClosedAndFilesDeleted() throws IOException {
-		// All created temp files should have been deleted.
-		for (File mockFile : mockTempFilesCreated) {
-			verify(mockFile).delete();
+		// Any upload that was not completed should be discarded.
+		for (MultipartUploadOutputStream mockUpload : mockUploadsCreated) {
+			verify(mockUpload).abort();
 		}
 		// All created output stream should have been closed.
 		for (ZipOutputStream mockOut : mockZipOutCreated) {
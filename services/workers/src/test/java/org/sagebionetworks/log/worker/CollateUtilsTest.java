@@ -44,7 +44,7 @@ public class CollateUtilsTest {
 		BufferedWriter buffered = new BufferedWriter(strWriter);
 		CollateUtils.collateLogs(toCollate, buffered, mockCallback);
 		buffered.flush();
-		verify(mockCallback, times(7)).progressMade(null);
+		verify(mockCallback, times(6)).progressMade(null);
 //		System.out.println(strWriter.toString());
 		// Validate the results;
 		List<LogEntry> results = LogTestUtils.readLogEntries(strWriter.toString());
@@ -68,7 +68,7 @@ public class CollateUtilsTest {
 		BufferedWriter buffered = new BufferedWriter(strWriter);
 		CollateUtils.collateLogs(toCollate, buffered, mockCallback);
 		buffered.flush();
-		verify(mockCallback, times(7)).progressMade(null);
+		verify(mockCallback, times(6)).progressMade(null);
 //		System.out.println(strWriter.toString());
 		// Validate the results;
 		List<LogEntry> results = LogTestUtils.readLogEntries(strWriter.toString());
@@ -94,7 +94,7 @@ public class CollateUtilsTest {
 		CollateUtils.collateLogs(toCollate, buffered, mockCallback);
 		buffered.flush();
 		System.out.println(strWriter.toString());
-		verify(mockCallback, times(18)).progressMade(null);
+		verify(mockCallback, times(8)).progressMade(null);
 		// Validate the results;
 		List<LogEntry> results = LogTestUtils.readLogEntries(strWriter.toString());
 		assertNotNull(results);
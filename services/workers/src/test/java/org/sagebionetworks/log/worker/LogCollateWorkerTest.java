@@ -0,0 +1,323 @@
+package org.sagebionetworks.log.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.cloudwatch.WorkerLogger;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.logging.s3.LogDAO;
+import org.sagebionetworks.logging.s3.LogEntry;
+import org.sagebionetworks.logging.s3.LogKeyUtils;
+import org.sagebionetworks.logging.s3.LogReader;
+
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Unit test for LogCollateWorker.
+ *
+ */
+public class LogCollateWorkerTest {
+
+	@Mock
+	LogDAO mockLogDAO;
+	@Mock
+	WorkerLogger mockWorkerLogger;
+	@Mock
+	ProgressCallback<Void> mockCallback;
+
+	ExecutorService executor;
+	LogCollateWorker worker;
+	List<String> hourOneKeys;
+	List<String> hourTwoKeys;
+	String singleKey;
+	// The entries of each saved file.
+	List<List<LogEntry>> saved;
+	AtomicInteger running;
+	AtomicInteger maxRunning;
+	Map<String, Long> startTimes;
+	AtomicInteger openReaders;
+	AtomicInteger maxOpenReaders;
+
+	@Before
+	public void before() throws IOException{
+		MockitoAnnotations.initMocks(this);
+		executor = Executors.newFixedThreadPool(4);
+		worker = new LogCollateWorker();
+		worker.logDAO = mockLogDAO;
+		worker.workerLogger = mockWorkerLogger;
+		worker.setCollateExecutor(executor);
+		worker.setMaxConcurrentBatches(2);
+
+		long hourOne = LogKeyUtils.getTimestampFromTypeDateHour("repo/2015-01-02/03");
+		long hourTwo = hourOne + 1000*60*60;
+		hourOneKeys = new ArrayList<String>();
+		hourTwoKeys = new ArrayList<String>();
+		for(int i=0; i<3; i++){
+			hourOneKeys.add(createKey(hourOne+i));
+			hourTwoKeys.add(createKey(hourTwo+i));
+		}
+		singleKey = createKey(hourTwo + 1000*60*60);
+		List<String> allKeys = new ArrayList<String>();
+		allKeys.addAll(hourOneKeys);
+		allKeys.addAll(hourTwoKeys);
+		allKeys.add(singleKey);
+
+		// The listing is split across two pages.
+		when(mockLogDAO.listAllStackInstanceLogs(null)).thenReturn(createListing(allKeys.subList(0, 4), "marker"));
+		when(mockLogDAO.listAllStackInstanceLogs("marker")).thenReturn(createListing(allKeys.subList(4, allKeys.size()), null));
+
+		// Each log has two entries, interleaved with the other logs of the same hour.
+		startTimes = new HashMap<String, Long>();
+		for(int i=0; i<hourOneKeys.size(); i++){
+			startTimes.put(hourOneKeys.get(i), hourOne+i);
+			startTimes.put(hourTwoKeys.get(i), hourTwo+i);
+		}
+		openReaders = new AtomicInteger(0);
+		maxOpenReaders = new AtomicInteger(0);
+		when(mockLogDAO.getLogFileReader(anyString())).thenAnswer(new Answer<LogReader>() {
+			@Override
+			public LogReader answer(InvocationOnMock invocation) throws Throwable {
+				String key = (String) invocation.getArguments()[0];
+				long start = startTimes.get(key);
+				final LogReader reader = LogTestUtils.createTestLogReader(new String[]{"entry", "entry"}, start);
+				int count = openReaders.incrementAndGet();
+				synchronized (maxOpenReaders) {
+					maxOpenReaders.set(Math.max(maxOpenReaders.get(), count));
+				}
+				// track the readers that are still open.
+				return new LogReader(null){
+					@Override
+					public LogEntry read() throws IOException {
+						return reader.read();
+					}
+					@Override
+					public void close() throws IOException {
+						openReaders.decrementAndGet();
+						reader.close();
+					}
+				};
+			}
+		});
+		saved = new ArrayList<List<LogEntry>>();
+		running = new AtomicInteger(0);
+		maxRunning = new AtomicInteger(0);
+		when(mockLogDAO.saveLogFile(any(File.class), anyLong())).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				int count = running.incrementAndGet();
+				synchronized (maxRunning) {
+					maxRunning.set(Math.max(maxRunning.get(), count));
+				}
+				try{
+					Thread.sleep(50);
+					File file = (File) invocation.getArguments()[0];
+					LogReader reader = new LogReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)))));
+					List<LogEntry> entries = LogTestUtils.streamEntiresForKey(reader);
+					synchronized (saved) {
+						saved.add(entries);
+					}
+					return "newKey";
+				}finally{
+					running.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	@After
+	public void after(){
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Create a key for the given time.
+	 * @param timestamp
+	 * @return
+	 */
+	private static String createKey(long timestamp){
+		return LogKeyUtils.createKey(1, "repo", LogKeyUtils.extractDataParts(timestamp), UUID.randomUUID().toString());
+	}
+
+	private static ObjectListing createListing(List<String> keys, String nextMarker){
+		ObjectListing listing = new ObjectListing();
+		for(String key: keys){
+			S3ObjectSummary summary = new S3ObjectSummary();
+			summary.setKey(key);
+			listing.getObjectSummaries().add(summary);
+		}
+		listing.setNextMarker(nextMarker);
+		return listing;
+	}
+
+	/**
+	 * Find the value of a metric with the given name.
+	 * @param name
+	 * @return
+	 */
+	private Double getMetric(String name){
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockWorkerLogger, times(6)).logCustomMetric(captor.capture());
+		for(ProfileData data: captor.getAllValues()){
+			assertEquals(LogCollateWorker.METRIC_NAMESPACE, data.getNamespace());
+			if(name.equals(data.getName())){
+				return data.getValue();
+			}
+		}
+		throw new IllegalArgumentException("No metric: "+name);
+	}
+
+	@Test
+	public void testRun() throws Exception{
+		// call under test
+		worker.run(mockCallback);
+		// each hour with more than one log is merged into a new file.
+		verify(mockLogDAO, times(2)).saveLogFile(any(File.class), anyLong());
+		assertEquals(2, saved.size());
+		for(List<LogEntry> entries: saved){
+			assertEquals(6, entries.size());
+			for(int i=1; i<entries.size(); i++){
+				assertTrue(entries.get(i-1).getTimeStamp() <= entries.get(i).getTimeStamp());
+			}
+		}
+		for(String key: hourOneKeys){
+			verify(mockLogDAO).deleteLogFile(key);
+		}
+		for(String key: hourTwoKeys){
+			verify(mockLogDAO).deleteLogFile(key);
+		}
+		// a single log is left alone.
+		verify(mockLogDAO, never()).getLogFileReader(singleKey);
+		verify(mockLogDAO, never()).deleteLogFile(singleKey);
+		assertEquals(new Double(2), getMetric(LogCollateWorker.BACKLOG_BATCHES));
+		assertEquals(new Double(6), getMetric(LogCollateWorker.BACKLOG_FILES));
+		assertEquals(new Double(12), getMetric(LogCollateWorker.COLLATED_ENTRIES));
+		assertEquals(new Double(0), getMetric(LogCollateWorker.FAILED_BATCHES));
+	}
+
+	@Test
+	public void testRunMaxConcurrentBatches() throws Exception{
+		worker.setMaxConcurrentBatches(1);
+		// call under test
+		worker.run(mockCallback);
+		verify(mockLogDAO, times(2)).saveLogFile(any(File.class), anyLong());
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void testRunMaxOpenStreams() throws Exception{
+		worker.setMaxConcurrentBatches(1);
+		worker.setMaxOpenStreams(2);
+		// call under test
+		worker.run(mockCallback);
+		// The logs are merged in rounds but each hour is still saved as a single sorted file.
+		assertEquals(2, saved.size());
+		for(List<LogEntry> entries: saved){
+			assertEquals(6, entries.size());
+			for(int i=1; i<entries.size(); i++){
+				assertTrue(entries.get(i-1).getTimeStamp() <= entries.get(i).getTimeStamp());
+			}
+		}
+		assertEquals(2, maxOpenReaders.get());
+		assertEquals(0, openReaders.get());
+		// Entries of the intermediate rounds are not counted.
+		assertEquals(new Double(12), getMetric(LogCollateWorker.COLLATED_ENTRIES));
+	}
+
+	@Test
+	public void testRunMaxOpenStreamsMultipleRounds() throws Exception{
+		long hour = LogKeyUtils.getTimestampFromTypeDateHour("repo/2015-01-02/05");
+		List<String> keys = new ArrayList<String>();
+		for(int i=0; i<9; i++){
+			String key = createKey(hour+i);
+			keys.add(key);
+			startTimes.put(key, hour+i);
+		}
+		when(mockLogDAO.listAllStackInstanceLogs(null)).thenReturn(createListing(keys, null));
+		worker.setMaxOpenStreams(2);
+		// call under test
+		worker.run(mockCallback);
+		// nine logs are spooled into five rounds, then three, then two before the final merge.
+		assertEquals(1, saved.size());
+		List<LogEntry> entries = saved.get(0);
+		assertEquals(18, entries.size());
+		for(int i=1; i<entries.size(); i++){
+			assertTrue(entries.get(i-1).getTimeStamp() <= entries.get(i).getTimeStamp());
+		}
+		assertEquals(2, maxOpenReaders.get());
+		for(String key: keys){
+			verify(mockLogDAO).deleteLogFile(key);
+		}
+		assertEquals(new Double(18), getMetric(LogCollateWorker.COLLATED_ENTRIES));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetMaxOpenStreamsTooSmall(){
+		worker.setMaxOpenStreams(1);
+	}
+
+	@Test
+	public void testRunBatchFailure() throws Exception{
+		when(mockLogDAO.getLogFileReader(hourOneKeys.get(1))).thenThrow(new IOException("S3 failure"));
+		// call under test
+		worker.run(mockCallback);
+		// The logs of the failed hour must not be deleted.
+		for(String key: hourOneKeys){
+			verify(mockLogDAO, never()).deleteLogFile(key);
+		}
+		// The other hour is still collated.
+		for(String key: hourTwoKeys){
+			verify(mockLogDAO).deleteLogFile(key);
+		}
+		assertEquals(new Double(1), getMetric(LogCollateWorker.FAILED_BATCHES));
+	}
+
+	@Test
+	public void testRunSaveFailure() throws Exception{
+		when(mockLogDAO.saveLogFile(any(File.class), anyLong())).thenThrow(new IllegalStateException("S3 failure"));
+		// call under test
+		worker.run(mockCallback);
+		verify(mockLogDAO, never()).deleteLogFile(anyString());
+		assertEquals(new Double(2), getMetric(LogCollateWorker.FAILED_BATCHES));
+	}
+
+	@Test
+	public void testRunNothingToCollate() throws Exception{
+		when(mockLogDAO.listAllStackInstanceLogs(null)).thenReturn(createListing(hourOneKeys.subList(0, 1), null));
+		// call under test
+		worker.run(mockCallback);
+		verify(mockLogDAO, never()).saveLogFile(any(File.class), anyLong());
+		verify(mockWorkerLogger, times(2)).logCustomMetric(any(ProfileData.class));
+	}
+}
@@ -57,6 +57,16 @@ public class BroadcastMessageWorkerTest {
 		worker.run(mockCallback, fakeMessage);
 	}
 
+	@Test (expected = RecoverableMessageException.class)
+	public void testFailedEmails() throws RecoverableMessageException, Exception {
+		ChangeMessage fakeMessage = new ChangeMessage();
+		fakeMessage.setChangeType(ChangeType.CREATE);
+		fakeMessage.setObjectType(ObjectType.THREAD);
+		doThrow(new RecoverableMessageException())
+				.when(mockBroadcastManager).broadcastMessage(any(UserInfo.class), eq(mockCallback), eq(fakeMessage));
+		worker.run(mockCallback, fakeMessage);
+	}
+
 	@Test
 	public void testNonRecoverableFailure() throws RecoverableMessageException, Exception {
 		ChangeMessage fakeMessage = new ChangeMessage();
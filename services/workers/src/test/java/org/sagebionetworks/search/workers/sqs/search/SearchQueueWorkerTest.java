@@ -9,29 +9,32 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
 
-import org.apache.http.client.ClientProtocolException;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
-import org.sagebionetworks.asynchronous.workers.sqs.MessageUtils;
 import org.sagebionetworks.cloudwatch.WorkerLogger;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.repo.manager.search.SearchDocumentDriver;
 import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.dao.WikiPageKey;
+import org.sagebionetworks.repo.model.dao.WikiPageKeyHelper;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.search.Document;
+import org.sagebionetworks.repo.model.search.DocumentFields;
 import org.sagebionetworks.repo.model.v2.dao.V2WikiPageDao;
+import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.search.SearchDao;
 import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
 import org.springframework.test.util.ReflectionTestUtils;
 
-import com.amazonaws.services.sqs.model.Message;
+import com.google.common.collect.Sets;
 
 public class SearchQueueWorkerTest {
-	
+
 	private ProgressCallback<Void> mockCallback;
 	private SearchDao mockSearchDao;
 	private SearchDocumentDriver mockDocumentProvider;
@@ -40,7 +43,9 @@ public class SearchQueueWorkerTest {
 	private SearchQueueWorker worker;
 	private ChangeMessage message;
 	private ChangeMessage message2;
-	
+	private Document docOne;
+	private Document docTwo;
+
 	@Before
 	public void before(){
 		mockCallback = Mockito.mock(ProgressCallback.class);
@@ -54,171 +59,231 @@ public class SearchQueueWorkerTest {
 		ReflectionTestUtils.setField(worker, "searchDocumentDriver", mockDocumentProvider);
 		ReflectionTestUtils.setField(worker, "wikPageDao", mockWikiPageDao);
 		ReflectionTestUtils.setField(worker, "workerLogger", mockWorkerLogger);
-		
+
 		message = new ChangeMessage();
 		message.setChangeType(ChangeType.CREATE);
 		message.setObjectEtag("etag1");
-		message.setObjectId("one");
+		message.setObjectId("syn1");
 		message.setParentId("parent1");
 		message.setObjectType(ObjectType.ENTITY);
-		
+
 		message2 = new ChangeMessage();
 		message2.setChangeType(ChangeType.CREATE);
 		message2.setObjectEtag("etag2");
-		message2.setObjectId("two");
+		message2.setObjectId("syn2");
 		message2.setParentId("parent2");
 		message2.setObjectType(ObjectType.ENTITY);
+
+		docOne = createDocument("syn1", "etag1");
+		docTwo = createDocument("syn2", "etag2");
+	}
+
+	private static Document createDocument(String id, String etag){
+		Document doc = new Document();
+		doc.setId(id);
+		doc.setFields(new DocumentFields());
+		doc.getFields().setEtag(etag);
+		return doc;
+	}
+
+	@Test
+	public void testSearchDisabled() throws Exception{
+		when(mockSearchDao.isSearchEnabled()).thenReturn(false);
+		// call under test
+		worker.run(mockCallback, Arrays.asList(message, message2));
+		verify(mockDocumentProvider, never()).formulateSearchDocuments(anyListOf(String.class));
+		verify(mockSearchDao, never()).createOrUpdateSearchDocument(anyListOf(Document.class));
 	}
-	
+
 	@Test
 	public void testDelete() throws Exception{
 		// create a few delete messages.
 		message.setChangeType(ChangeType.DELETE);
+		message2.setChangeType(ChangeType.DELETE);
 		// call under test
-		worker.run(mockCallback, message);
-		// Delete should be called
-		verify(mockSearchDao, times(1)).deleteDocument("one");
+		worker.run(mockCallback, Arrays.asList(message, message2));
+		// All deletes are sent together
+		verify(mockSearchDao, times(1)).deleteDocuments(Sets.newHashSet("syn1", "syn2"));
 		// create should not be called
 		verify(mockSearchDao, never()).createOrUpdateSearchDocument(anyListOf(Document.class));
+		verify(mockDocumentProvider, never()).formulateSearchDocuments(anyListOf(String.class));
 	}
-	
+
 	@Test
 	public void testCreate() throws Exception{
-		Document docOne = new Document();
-		docOne.setId("one");
-		when(mockDocumentProvider.formulateSearchDocument("one")).thenReturn(docOne);
-		Document docTwo = new Document();
-		docTwo.setId("two");
-		when(mockDocumentProvider.formulateSearchDocument("two")).thenReturn(docTwo);
-		
-		// Create only occurs if the document exists in the repository
-		when(mockDocumentProvider.doesDocumentExist("one", "etag1")).thenReturn(true);
-		when(mockDocumentProvider.doesDocumentExist("two", "etag2")).thenReturn(true);
-		
-		// Create only occurs if it is not already in the search index
-		when(mockSearchDao.doesDocumentExist("one", "etag1")).thenReturn(false);
-		when(mockSearchDao.doesDocumentExist("two", "etag2")).thenReturn(false);
-		
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn1", "syn2"))).thenReturn(Arrays.asList(docOne, docTwo));
+
 		// call under test
-		worker.run(mockCallback, message);
-		worker.run(mockCallback, message2);
-	
-		// Delete should be called
+		worker.run(mockCallback, Arrays.asList(message, message2));
+
+		// Delete should not be called
 		verify(mockSearchDao, never()).deleteDocuments(anySetOf(String.class));
-		// create should be called once
-		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(docOne);
-		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(docTwo);
+		// All documents are sent with one call.
+		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(Arrays.asList(docOne, docTwo));
+		verify(mockSearchDao, never()).createOrUpdateSearchDocument(any(Document.class));
+		// The search index is not queried for each document.
+		verify(mockSearchDao, never()).doesDocumentExist(any(String.class), any(String.class));
 	}
-	
+
+	@Test
+	public void testCreateAndDeleteSameEntity() throws Exception{
+		ChangeMessage delete = new ChangeMessage();
+		delete.setChangeType(ChangeType.DELETE);
+		delete.setObjectId("syn1");
+		delete.setObjectType(ObjectType.ENTITY);
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn2"))).thenReturn(Arrays.asList(docTwo));
+
+		// call under test
+		worker.run(mockCallback, Arrays.asList(message, message2, delete));
+		// the last change wins.
+		verify(mockSearchDao, times(1)).deleteDocuments(Sets.newHashSet("syn1"));
+		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(Arrays.asList(docTwo));
+	}
+
 	/**
-	 * When the document already exits in the search index with the same etag, we can ignore it.
+	 * When the message etag does not match the repository the message is old and can be ignored.
 	 * @throws Exception
 	 */
 	@Test
-	public void testCreateAlreadyInSearchIndex() throws Exception{
-		// Create only occurs if the document exists in the repository
-		when(mockDocumentProvider.doesDocumentExist("one", "etag1")).thenReturn(true);
-		// Create only occurs if it is not already in the search index
-		when(mockSearchDao.doesDocumentExist("one", "etag1")).thenReturn(true);
+	public void testCreateOldMessage() throws Exception{
+		docOne.getFields().setEtag("newerEtag");
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn1", "syn2"))).thenReturn(Arrays.asList(docOne, docTwo));
 
 		// call under test
-		worker.run(mockCallback, message);
-		
-		// Delete should be called
-		verify(mockSearchDao, never()).deleteDocuments(anySetOf(String.class));
-		// create should not be called
-		verify(mockSearchDao, never()).createOrUpdateSearchDocument(any(Document.class));
-		// We should not call doesDocumentExist() on the repository when it already exists in the search index.
-		verify(mockDocumentProvider, never()).doesDocumentExist("one", "etag1");
+		worker.run(mockCallback, Arrays.asList(message, message2));
+
+		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(Arrays.asList(docTwo));
 	}
-	
+
 	/**
-	 * When the document already exits in the search index with the same etag, we can ignore it.
+	 * When the entity does not exist in the repository there is nothing to send.
 	 * @throws Exception
 	 */
 	@Test
 	public void testCreateDoesNotExistInReposiroty() throws Exception{
-		// Create only occurs if the document exists in the repository
-		when(mockDocumentProvider.doesDocumentExist("one", "etag1")).thenReturn(false);
-		// Create only occurs if it is not already in the search index
-		when(mockSearchDao.doesDocumentExist("one", "etag1")).thenReturn(false);
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn1"))).thenReturn(new LinkedList<Document>());
 
 		// call under test
-		worker.run(mockCallback, message);
-		
-		// Delete should be called
+		worker.run(mockCallback, Arrays.asList(message));
+
+		// Delete should not be called
 		verify(mockSearchDao, never()).deleteDocuments(anySetOf(String.class));
 		// create should not be called
 		verify(mockSearchDao, never()).createOrUpdateSearchDocument(anyListOf(Document.class));
-		// We should not call doesDocumentExist() one time.
-		verify(mockDocumentProvider, times(1)).doesDocumentExist("one", "etag1");
 	}
-	
+
+	/**
+	 * An entity whose document cannot be built must not hold back the rest of the batch.
+	 * @throws Exception
+	 */
+	@Test
+	public void testCreateOneEntityFails() throws Exception{
+		Exception batchFailure = new IllegalArgumentException("Bad annotation");
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn1", "syn2"))).thenThrow(batchFailure);
+		Exception entityFailure = new IllegalArgumentException("Bad annotation");
+		when(mockDocumentProvider.formulateSearchDocument("syn1")).thenThrow(entityFailure);
+		when(mockDocumentProvider.formulateSearchDocument("syn2")).thenReturn(docTwo);
+
+		// call under test
+		worker.run(mockCallback, Arrays.asList(message, message2));
+
+		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(Arrays.asList(docTwo));
+		verify(mockWorkerLogger, times(1)).logWorkerFailure(SearchQueueWorker.class, message, entityFailure, false);
+		verify(mockWorkerLogger, never()).logWorkerFailure(SearchQueueWorker.class, message2, entityFailure, false);
+	}
+
+	/**
+	 * When no document of the batch can be built the batch is retried.
+	 * @throws Exception
+	 */
+	@Test
+	public void testCreateAllEntitiesFail() throws Exception{
+		Exception failure = new IllegalStateException("Database down");
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn1", "syn2"))).thenThrow(failure);
+		when(mockDocumentProvider.formulateSearchDocument("syn1")).thenThrow(failure);
+		when(mockDocumentProvider.formulateSearchDocument("syn2")).thenThrow(failure);
+
+		// call under test
+		try {
+			worker.run(mockCallback, Arrays.asList(message, message2));
+			fail();
+		} catch (RecoverableMessageException e) {
+			// expected
+		}
+
+		verify(mockSearchDao, never()).createOrUpdateSearchDocument(anyListOf(Document.class));
+		verify(mockWorkerLogger, times(1)).logWorkerFailure(SearchQueueWorker.class, message, failure, true);
+		verify(mockWorkerLogger, times(1)).logWorkerFailure(SearchQueueWorker.class, message2, failure, true);
+	}
+
+	@Test
+	public void testWikiChange() throws Exception{
+		ChangeMessage wikiMessage = new ChangeMessage();
+		wikiMessage.setChangeType(ChangeType.UPDATE);
+		wikiMessage.setObjectId("123");
+		wikiMessage.setObjectType(ObjectType.WIKI);
+		WikiPageKey key = WikiPageKeyHelper.createWikiPageKey("syn1", ObjectType.ENTITY, "123");
+		when(mockWikiPageDao.lookupWikiKey("123")).thenReturn(key);
+		ChangeMessage missingWiki = new ChangeMessage();
+		missingWiki.setChangeType(ChangeType.UPDATE);
+		missingWiki.setObjectId("456");
+		missingWiki.setObjectType(ObjectType.WIKI);
+		when(mockWikiPageDao.lookupWikiKey("456")).thenThrow(new NotFoundException());
+		// The wiki message has no etag so the document is sent even with an old entity message.
+		docOne.getFields().setEtag("newerEtag");
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn1"))).thenReturn(Arrays.asList(docOne));
+
+		// call under test
+		worker.run(mockCallback, Arrays.asList(message, wikiMessage, missingWiki));
+
+		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(Arrays.asList(docOne));
+	}
+
 	/**
 	 * When we get an exception from SearchDao delete, log it using the workerLogger
-	 * @throws Exception 
-	 * @throws IOException 
-	 * @throws ClientProtocolException 
+	 * @throws Exception
 	 */
 	@Test
 	public void testLogDeleteException() throws Exception {
 		message.setChangeType(ChangeType.DELETE);
 		message2.setChangeType(ChangeType.DELETE);
-		// Expected exception in for batch and retry
-		Exception eBatch = new RuntimeException("Batch exception");
-		Exception eRetry = new RuntimeException("Retry exception");
 		// Generate an exception when calling the searchDao
-		Mockito.doThrow(eRetry).when(mockSearchDao).deleteDocument("one");
-		
+		Exception eRetry = new RuntimeException("Retry exception");
+		Mockito.doThrow(eRetry).when(mockSearchDao).deleteDocuments(anySetOf(String.class));
+
 		// call under test
 		try {
-			worker.run(mockCallback, message);
+			worker.run(mockCallback, Arrays.asList(message, message2));
 			fail();
 		} catch (RecoverableMessageException e) {
 			// expected
 		}
-		worker.run(mockCallback, message2);
-		
-		// Verify that error logged for "one" and "two" went through
+
+		// Verify that error logged for "one" and "two"
 		verify(mockWorkerLogger, times(1)).logWorkerFailure(SearchQueueWorker.class, message, eRetry, true);
-		verify(mockSearchDao, times(1)).deleteDocument("two");
+		verify(mockWorkerLogger, times(1)).logWorkerFailure(SearchQueueWorker.class, message2, eRetry, true);
 	}
-	
+
 	/**
 	 * When we get an exception from SearchDao create/update, log it using the workerLogger
 	 */
 	@Test
 	public void testLogCreateUpdateException() throws Exception {
-		// These docs should exist in repository
-		when(mockDocumentProvider.doesDocumentExist("one", "etag1")).thenReturn(true);
-		when(mockDocumentProvider.doesDocumentExist("two", "etag2")).thenReturn(true);
-		// These docs should not already exist in CloudSearch
-		when(mockSearchDao.doesDocumentExist("one", "etag1")).thenReturn(false);
-		when(mockSearchDao.doesDocumentExist("two", "etag2")).thenReturn(false);
-		// Expected search documents
-		Document docOne = new Document();
-		docOne.setId("one");
-		Document docTwo = new Document();
-		docTwo.setId("two");
-		when(mockDocumentProvider.formulateSearchDocument("one")).thenReturn(docOne);
-		when(mockDocumentProvider.formulateSearchDocument("two")).thenReturn(docTwo);
-
-		
+		when(mockDocumentProvider.formulateSearchDocuments(Arrays.asList("syn1", "syn2"))).thenReturn(Arrays.asList(docOne, docTwo));
 		// Generate an exception when calling the searchDao
 		Exception eRetry = new RuntimeException("Retry exception");
-		Mockito.doThrow(eRetry).when(mockSearchDao).createOrUpdateSearchDocument(docOne);
-		
+		Mockito.doThrow(eRetry).when(mockSearchDao).createOrUpdateSearchDocument(anyListOf(Document.class));
+
 		// call under test
 		try {
-			worker.run(mockCallback, message);
+			worker.run(mockCallback, Arrays.asList(message, message2));
 			fail();
 		} catch (RecoverableMessageException e) {
 			// expected
 		}
-		worker.run(mockCallback, message2);
-		
-		// Verify that error logged for "one" and "two" went through
+
+		// Verify that error logged for "one" and "two"
 		verify(mockWorkerLogger, times(1)).logWorkerFailure(SearchQueueWorker.class, message, eRetry, true);
-		verify(mockSearchDao, times(1)).createOrUpdateSearchDocument(docTwo);
+		verify(mockWorkerLogger, times(1)).logWorkerFailure(SearchQueueWorker.class, message2, eRetry, true);
 	}
 }
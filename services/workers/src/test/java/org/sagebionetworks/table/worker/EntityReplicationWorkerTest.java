@@ -8,10 +8,13 @@ import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.cloudwatch.WorkerLogger;
 import org.sagebionetworks.common.util.progress.ProgressCallback;
 import org.sagebionetworks.repo.model.NodeDAO;
 import org.sagebionetworks.repo.model.ObjectType;
@@ -19,8 +22,11 @@ import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.table.EntityDTO;
 import org.sagebionetworks.table.cluster.ConnectionFactory;
+import org.sagebionetworks.table.cluster.EntityReplicationBatch;
 import org.sagebionetworks.table.cluster.TableIndexDAO;
 import org.sagebionetworks.workers.util.aws.message.RecoverableMessageException;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
@@ -37,6 +43,10 @@ public class EntityReplicationWorkerTest {
 	@Mock
 	TableIndexDAO mockIndexDao;
 	@Mock
+	TableIndexDAO mockIndexDaoTwo;
+	@Mock
+	WorkerLogger mockWorkerLogger;
+	@Mock
 	TransactionStatus transactionStatus;
 	@Mock
 	ProgressCallback<Void> mockPogressCallback;
@@ -52,6 +62,8 @@ public class EntityReplicationWorkerTest {
 		worker = new EntityReplicationWorker();
 		ReflectionTestUtils.setField(worker, "nodeDao", mockNodeDao);
 		ReflectionTestUtils.setField(worker, "connectionFactory", mockConnectionFactory);
+		ReflectionTestUtils.setField(worker, "workerLogger", mockWorkerLogger);
+		worker.setRetryBackoffMS(0L);
 		
 		ChangeMessage update = new ChangeMessage();
 		update.setChangeType(ChangeType.UPDATE);
@@ -69,14 +81,17 @@ public class EntityReplicationWorkerTest {
 		
 		when(mockConnectionFactory.getAllConnections()).thenReturn(Lists.newArrayList(mockIndexDao));
 		
-		doAnswer(new Answer<Void>(){
+		Answer<Void> transaction = new Answer<Void>(){
 
 			@Override
 			public Void answer(InvocationOnMock invocation) throws Throwable {
 				TransactionCallback callback = (TransactionCallback) invocation.getArguments()[0];
 				callback.doInTransaction(transactionStatus);
 				return null;
-			}}).when(mockIndexDao).executeInWriteTransaction(any(TransactionCallback.class));
+			}};
+		doAnswer(transaction).when(mockIndexDao).executeInWriteTransaction(any(TransactionCallback.class));
+		doAnswer(transaction).when(mockIndexDaoTwo).executeInWriteTransaction(any(TransactionCallback.class));
+		when(mockNodeDao.getEntityDTOs(anyListOf(String.class), anyInt())).thenReturn(new LinkedList<EntityDTO>());
 	}
 	
 	@Test
@@ -99,9 +114,81 @@ public class EntityReplicationWorkerTest {
 		worker.run(mockPogressCallback, changes);
 		verify(mockNodeDao).getEntityDTOs(Lists.newArrayList("111", "222"), EntityReplicationWorker.MAX_ANNOTATION_CHARS);
 		verify(mockIndexDao).createEntityReplicationTablesIfDoesNotExist();
-		verify(mockIndexDao).deleteEntityData(any(ProgressCallback.class) ,eq(Lists.newArrayList(111L,222L,333L)));
-		verify(mockIndexDao).addEntityData(any(ProgressCallback.class) ,eq(entityData));
-		verify(mockPogressCallback, times(2)).progressMade(null);
+		ArgumentCaptor<EntityReplicationBatch> captor = ArgumentCaptor.forClass(EntityReplicationBatch.class);
+		verify(mockIndexDao).writeEntityReplicationBatch(any(ProgressCallback.class), captor.capture());
+		EntityReplicationBatch batch = captor.getValue();
+		assertEquals(Lists.newArrayList(111L,222L,333L), batch.getDeleteIds());
+		assertTrue(batch.getEntityBindings().isEmpty());
+		verify(mockPogressCallback, atLeast(2)).progressMade(null);
+		verify(mockWorkerLogger).logCustomMetric(any(ProfileData.class));
+	}
+	
+	@Test
+	public void testRunMultipleInstances() throws RecoverableMessageException, Exception{
+		when(mockConnectionFactory.getAllConnections()).thenReturn(Lists.newArrayList(mockIndexDao, mockIndexDaoTwo));
+		// call under test
+		worker.run(mockPogressCallback, changes);
+		ArgumentCaptor<EntityReplicationBatch> captor = ArgumentCaptor.forClass(EntityReplicationBatch.class);
+		verify(mockIndexDao).writeEntityReplicationBatch(any(ProgressCallback.class), captor.capture());
+		verify(mockIndexDaoTwo).writeEntityReplicationBatch(any(ProgressCallback.class), captor.capture());
+		// the batch is encoded once for all instances.
+		assertSame(captor.getAllValues().get(0), captor.getAllValues().get(1));
+		// one lag metric per instance.
+		ArgumentCaptor<ProfileData> metricCaptor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockWorkerLogger, times(2)).logCustomMetric(metricCaptor.capture());
+		assertEquals(EntityReplicationWorker.REPLICATION_LAG, metricCaptor.getAllValues().get(0).getName());
+		assertEquals("0", metricCaptor.getAllValues().get(0).getDimension().get(EntityReplicationWorker.DIMENSION_INSTANCE));
+		assertEquals("1", metricCaptor.getAllValues().get(1).getDimension().get(EntityReplicationWorker.DIMENSION_INSTANCE));
+	}
+	
+	@Test
+	public void testRunRetryInstance() throws RecoverableMessageException, Exception{
+		doThrow(new CannotAcquireLockException("one")).doNothing().when(mockIndexDao).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+		// call under test
+		worker.run(mockPogressCallback, changes);
+		verify(mockIndexDao, times(2)).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+	}
+	
+	@Test
+	public void testRunInstanceFailureIsolated() throws Exception{
+		when(mockConnectionFactory.getAllConnections()).thenReturn(Lists.newArrayList(mockIndexDao, mockIndexDaoTwo));
+		doThrow(new DeadlockLoserDataAccessException("down", null)).when(mockIndexDao).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+		try {
+			// call under test
+			worker.run(mockPogressCallback, changes);
+			fail();
+		} catch (RecoverableMessageException e) {
+			// expected
+		}
+		verify(mockIndexDao, times(EntityReplicationWorker.DEFAULT_MAX_ATTEMPTS_PER_INSTANCE)).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+		// the second instance is still written.
+		verify(mockIndexDaoTwo).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+		ArgumentCaptor<ProfileData> metricCaptor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockWorkerLogger, times(2)).logCustomMetric(metricCaptor.capture());
+		assertEquals(EntityReplicationWorker.FAILED_INSTANCES, metricCaptor.getAllValues().get(1).getName());
+		assertEquals(new Double(1), metricCaptor.getAllValues().get(1).getValue());
+	}
+	
+	@Test
+	public void testRunPermanentFailure() throws Exception{
+		when(mockConnectionFactory.getAllConnections()).thenReturn(Lists.newArrayList(mockIndexDao, mockIndexDaoTwo));
+		IllegalArgumentException error = new IllegalArgumentException("bad data");
+		doThrow(error).when(mockIndexDao).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+		try {
+			// call under test
+			worker.run(mockPogressCallback, changes);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// not recoverable so the message goes to the dead letter queue.
+			assertEquals(error, e);
+		}
+		// not retried.
+		verify(mockIndexDao, times(1)).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+		// the second instance is still written.
+		verify(mockIndexDaoTwo).writeEntityReplicationBatch(any(ProgressCallback.class), any(EntityReplicationBatch.class));
+		ArgumentCaptor<ProfileData> metricCaptor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockWorkerLogger, times(2)).logCustomMetric(metricCaptor.capture());
+		assertEquals(EntityReplicationWorker.FAILED_INSTANCES, metricCaptor.getAllValues().get(1).getName());
 	}
 
 }
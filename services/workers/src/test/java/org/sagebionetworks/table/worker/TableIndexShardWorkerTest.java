@@ -0,0 +1,83 @@
+package org.sagebionetworks.table.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.cloudwatch.WorkerLogger;
+import org.sagebionetworks.common.util.progress.ProgressCallback;
+import org.sagebionetworks.repo.manager.table.TableIndexMoveManager;
+import org.sagebionetworks.repo.manager.table.TableIndexMoveResults;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+public class TableIndexShardWorkerTest {
+
+	@Mock
+	TableIndexMoveManager mockTableIndexMoveManager;
+	@Mock
+	WorkerLogger mockWorkerLogger;
+	@Mock
+	ProgressCallback<Void> mockProgressCallback;
+
+	TableIndexShardWorker worker;
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		worker = new TableIndexShardWorker();
+		ReflectionTestUtils.setField(worker, "tableIndexMoveManager", mockTableIndexMoveManager);
+		ReflectionTestUtils.setField(worker, "workerLogger", mockWorkerLogger);
+
+		when(mockTableIndexMoveManager.moveTableIndexes(mockProgressCallback)).thenReturn(new TableIndexMoveResults(0, 0, 0));
+	}
+
+	@Test
+	public void testRunMoved() throws Exception {
+		when(mockTableIndexMoveManager.moveTableIndexes(mockProgressCallback)).thenReturn(new TableIndexMoveResults(5, 2, 3));
+		// call under test
+		worker.run(mockProgressCallback);
+		ArgumentCaptor<ProfileData> metricCaptor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockWorkerLogger, times(3)).logCustomMetric(metricCaptor.capture());
+		List<ProfileData> metrics = metricCaptor.getAllValues();
+		assertEquals(TableIndexShardWorker.MOVED_INDEXES, metrics.get(0).getName());
+		assertEquals(new Double(5), metrics.get(0).getValue());
+		assertEquals(TableIndexShardWorker.FAILED_INDEX_MOVES, metrics.get(1).getName());
+		assertEquals(new Double(2), metrics.get(1).getValue());
+		assertEquals(TableIndexShardWorker.PENDING_INDEX_MOVES, metrics.get(2).getName());
+		assertEquals(new Double(3), metrics.get(2).getValue());
+	}
+
+	@Test
+	public void testRunNothingPending() throws Exception {
+		// call under test
+		worker.run(mockProgressCallback);
+		verify(mockTableIndexMoveManager).moveTableIndexes(mockProgressCallback);
+		ArgumentCaptor<ProfileData> metricCaptor = ArgumentCaptor.forClass(ProfileData.class);
+		// zero is published so the end of the moves can be seen.
+		verify(mockWorkerLogger, times(3)).logCustomMetric(metricCaptor.capture());
+		List<ProfileData> metrics = metricCaptor.getAllValues();
+		assertEquals(TableIndexShardWorker.PENDING_INDEX_MOVES, metrics.get(2).getName());
+		assertEquals(new Double(0), metrics.get(2).getValue());
+	}
+
+	@Test
+	public void testCreateMetric() {
+		ProfileData metric = TableIndexShardWorker.createMetric(TableIndexShardWorker.PENDING_INDEX_MOVES, 2);
+		assertEquals(TableIndexShardWorker.METRIC_NAMESPACE, metric.getNamespace());
+		assertEquals(StandardUnit.Count.name(), metric.getUnit());
+		assertEquals(new Double(2), metric.getValue());
+		assertNull(metric.getDimension());
+	}
+}
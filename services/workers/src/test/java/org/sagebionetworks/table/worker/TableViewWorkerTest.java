@@ -4,9 +4,11 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.LinkedList;
@@ -225,6 +227,45 @@ public class TableViewWorkerTest {
 		verify(tableManagerSupport).startTableProcessing(tableId);
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRunIndexMovedBeforeLock() throws Exception{
+		final TableIndexManager mockSourceIndexManager = mock(TableIndexManager.class);
+		final boolean[] locked = new boolean[]{false};
+		// The index is on the source until the lock is acquired.
+		when(connectionFactory.connectToTableIndex(tableId)).thenAnswer(new Answer<TableIndexManager>() {
+			@Override
+			public TableIndexManager answer(InvocationOnMock invocation) throws Throwable {
+				return locked[0] ? indexManager : mockSourceIndexManager;
+			}
+		});
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				locked[0] = true;
+				ProgressingCallable<Void, Void> callable = (ProgressingCallable<Void, Void>) invocation.getArguments()[3];
+				callable.call(innerCallback);
+				return null;
+			}
+		}).when(tableManagerSupport).tryRunWithTableExclusiveLock(
+				any(ProgressCallback.class), anyString(), anyInt(),
+				any(ProgressingCallable.class));
+		// call under test
+		worker.run(outerCallback, change);
+		// the view is built in the index that was current when the lock was acquired.
+		verify(indexManager).setIndexVersionAndSchemaMD5Hex(viewCRC, schemaMD5Hex);
+		verifyZeroInteractions(mockSourceIndexManager);
+	}
+	
+	@Test(expected = RecoverableMessageException.class)
+	public void testRunConnectionUnavailableHoldingLock() throws Exception {
+		// the connection is only needed once the lock is held.
+		when(connectionFactory.connectToTableIndex(tableId)).thenThrow(
+				new TableIndexConnectionUnavailableException("No connection"));
+		// call under test
+		worker.createOrUpdateIndex(tableId, outerCallback, change);
+	}
+	
 	@Test
 	public void testCreateOrUpdateIndexHoldingLock() throws RecoverableMessageException{
 		// call under test
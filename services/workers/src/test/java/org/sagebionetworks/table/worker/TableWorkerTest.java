@@ -8,6 +8,7 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.stub;
 import static org.mockito.Mockito.times;
@@ -36,6 +37,7 @@ import org.sagebionetworks.repo.manager.table.TableIndexManager;
 import org.sagebionetworks.repo.manager.table.TableManagerSupport;
 import org.sagebionetworks.repo.model.ConflictingUpdateException;
 import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.dao.table.ChangeSetReader;
 import org.sagebionetworks.repo.model.dbo.dao.table.TableModelTestUtils;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeType;
@@ -67,6 +69,8 @@ public class TableWorkerTest {
 	StackConfiguration mockConfiguration;
 	@Mock
 	TableManagerSupport mockTableManagerSupport;
+	@Mock
+	ChangeSetReader mockChangeSetReader;
 
 	TableWorker worker;
 	ChangeMessage one;
@@ -76,6 +80,8 @@ public class TableWorkerTest {
 	List<ColumnModel> currentSchema;
 	RowSet rowSet1;
 	RowSet rowSet2;
+	TableRowChange trc1;
+	TableRowChange trc2;
 	
 	@Before
 	public void before() throws LockUnavilableException, InterruptedException, Exception{
@@ -120,12 +126,12 @@ public class TableWorkerTest {
 		resetToken = "reset-token";
 		currentSchema = Lists.newArrayList();
 		when(mockTableManagerSupport.getColumnModelsForTable(tableId)).thenReturn(currentSchema);
-		TableRowChange trc1 = new TableRowChange();
+		trc1 = new TableRowChange();
 		trc1.setEtag("etag");
 		trc1.setRowVersion(0L);
 		trc1.setRowCount(12L);
 		trc1.setChangeType(TableChangeType.ROW);
-		TableRowChange trc2 = new TableRowChange();
+		trc2 = new TableRowChange();
 		trc2.setEtag("etag2");
 		trc2.setRowVersion(1L);
 		trc2.setRowCount(3L);
@@ -141,6 +147,17 @@ public class TableWorkerTest {
 		rowSet2.setRows(Collections.singletonList(TableModelTestUtils.createRow(0L, 1L, "3")));
 		when(mockTableEntityManager.getRowSet(eq(tableId), eq(1L), anyListOf(ColumnModel.class))).thenReturn(rowSet2);
 		
+		// The reader reads each change set from the manager.
+		when(mockTableEntityManager.openChangeSetReader(anyListOf(TableRowChange.class))).thenReturn(mockChangeSetReader);
+		when(mockChangeSetReader.getRowSet(any(TableRowChange.class), anyListOf(ColumnModel.class))).thenAnswer(new Answer<RowSet>() {
+			@Override
+			public RowSet answer(InvocationOnMock invocation) throws Throwable {
+				TableRowChange change = (TableRowChange) invocation.getArguments()[0];
+				List<ColumnModel> columns = (List<ColumnModel>) invocation.getArguments()[1];
+				return mockTableEntityManager.getRowSet(tableId, change.getRowVersion(), columns);
+			}
+		});
+		
 		when(mockTableManagerSupport.startTableProcessing(tableId)).thenReturn(resetToken);
 		
 		when(mockTableManagerSupport.isIndexWorkRequired(tableId)).thenReturn(true);
@@ -231,6 +248,9 @@ public class TableWorkerTest {
 		// Progress should be made for each result
 		verify(mockProgressCallback, times(2)).progressMade(null);
 		verify(mockTableIndexManager).optimizeTableIndices();
+		// both changes are read through one reader which is closed.
+		verify(mockTableEntityManager).openChangeSetReader(Arrays.asList(trc1, trc2));
+		verify(mockChangeSetReader).close();
 	}
 	
 	@Test
@@ -246,6 +266,11 @@ public class TableWorkerTest {
 		
 		verify(mockTableEntityManager, never()).getRowSet(eq(tableId), eq(0L), anyListOf(ColumnModel.class));
 		verify(mockTableIndexManager).applyChangeSetToIndex(rowSet2, currentSchema, 1L);
+		// only the change that is not applied is read.
+		verify(mockTableEntityManager).openChangeSetReader(Arrays.asList(trc2));
+		// the index is asked once for each change.
+		verify(mockTableIndexManager, times(1)).isVersionAppliedToIndex(0L);
+		verify(mockTableIndexManager, times(1)).isVersionAppliedToIndex(1L);
 		
 		// Progress should be made for each change even if there is no work.
 		verify(mockProgressCallback, times(2)).progressMade(null);
@@ -342,6 +367,43 @@ public class TableWorkerTest {
 		}
 	}
 	
+	/**
+	 * The index can be moved to another database until the exclusive lock is
+	 * held, so the index must be looked up while holding the lock.
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testIndexMovedBeforeLock() throws Exception{
+		final TableIndexManager mockSourceIndexManager = mock(TableIndexManager.class);
+		final boolean[] locked = new boolean[]{false};
+		// The index is on the source until the lock is acquired.
+		when(mockConnectionFactory.connectToTableIndex(tableId)).thenAnswer(new Answer<TableIndexManager>() {
+			@Override
+			public TableIndexManager answer(InvocationOnMock invocation) throws Throwable {
+				return locked[0] ? mockTableIndexManager : mockSourceIndexManager;
+			}
+		});
+		stub(mockTableManagerSupport.tryRunWithTableExclusiveLock(any(ProgressCallback.class),anyString(), anyInt(), any(ProgressingCallable.class))).toAnswer(new Answer<TableWorker.State>() {
+			@Override
+			public TableWorker.State answer(InvocationOnMock invocation) throws Throwable {
+				locked[0] = true;
+				ProgressingCallable<TableWorker.State, Void> callable = (ProgressingCallable<State, Void>) invocation.getArguments()[3];
+				return callable.call(mockProgressCallback);
+			}
+		});
+		two.setObjectType(ObjectType.TABLE);
+		two.setChangeType(ChangeType.UPDATE);
+		two.setObjectEtag(resetToken);
+		// call under test
+		worker.run(mockProgressCallback, two);
+		// the changes are applied to the index that was current when the lock was acquired.
+		verify(mockTableIndexManager).applyChangeSetToIndex(rowSet1, currentSchema, 0L);
+		verify(mockTableIndexManager).applyChangeSetToIndex(rowSet2, currentSchema, 1L);
+		verifyZeroInteractions(mockSourceIndexManager);
+	}
+	
 	/**
 	 * When a NotFoundException is thrown the table no longer exists and the message should be removed from the queue.
 	 * @throws Exception
@@ -497,7 +559,7 @@ public class TableWorkerTest {
 		when(mockTableEntityManager.getRowSet(tableId, trc.getRowVersion(), columns)).thenReturn(rowSet1);
 		
 		// call under test
-		worker.applyRowChange(mockProgressCallback, mockTableIndexManager, tableId, trc);
+		worker.applyRowChange(mockProgressCallback, mockTableIndexManager, tableId, trc, mockChangeSetReader);
 		// schema of the change should be applied
 		verify(mockTableIndexManager).setIndexSchema(mockProgressCallback, columns);
 		// the change set should be applied.
@@ -508,7 +570,7 @@ public class TableWorkerTest {
 	public void testApplyRowChangeNullChange() throws IOException{
 		TableRowChange trc = null;
 		// call under test
-		worker.applyRowChange(mockProgressCallback, mockTableIndexManager, tableId, trc);
+		worker.applyRowChange(mockProgressCallback, mockTableIndexManager, tableId, trc, mockChangeSetReader);
 	}
 	
 	@Test (expected=IllegalArgumentException.class)
@@ -516,7 +578,7 @@ public class TableWorkerTest {
 		TableRowChange trc = new TableRowChange();
 		trc.setChangeType(TableChangeType.COLUMN);
 		// call under test
-		worker.applyRowChange(mockProgressCallback, mockTableIndexManager, tableId, trc);
+		worker.applyRowChange(mockProgressCallback, mockTableIndexManager, tableId, trc, mockChangeSetReader);
 	}
 	
 	@Test (expected=IllegalArgumentException.class)
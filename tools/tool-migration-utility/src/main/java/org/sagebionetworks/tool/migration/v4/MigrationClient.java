@@ -45,6 +45,10 @@ public class MigrationClient {
 
 	SynapseClientFactory factory;
 	ExecutorService threadPool;
+	/**
+	 * Used to get the source and destination checksums in parallel.
+	 */
+	ExecutorService deltaThreadPool;
 	List<Exception> deferredExceptions;
 	final int MAX_DEFERRED_EXCEPTIONS = 10;
 	
@@ -56,6 +60,7 @@ public class MigrationClient {
 		if(factory == null) throw new IllegalArgumentException("Factory cannot be null");
 		this.factory = factory;
 		threadPool = Executors.newFixedThreadPool(1);
+		deltaThreadPool = Executors.newFixedThreadPool(2);
 		deferredExceptions = new ArrayList<Exception>();
 	}
 
@@ -325,7 +330,7 @@ public class MigrationClient {
 	public DeltaData calculateDeltaForType(TypeToMigrateMetadata tm, String salt, long batchSize) throws Exception{
 
 		// First, we find the delta ranges
-		DeltaFinder finder = new DeltaFinder(tm, factory.createNewSourceClient(), factory.createNewDestinationClient(), salt, batchSize);
+		DeltaFinder finder = new DeltaFinder(tm, factory.createNewSourceClient(), factory.createNewDestinationClient(), salt, batchSize, deltaThreadPool);
 		DeltaRanges ranges = finder.findDeltaRanges();
 		
 		// the first thing we need to do is calculate the what needs to be created, updated, or deleted.
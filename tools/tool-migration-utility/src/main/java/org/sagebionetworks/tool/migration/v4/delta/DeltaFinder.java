@@ -1,13 +1,22 @@
 package org.sagebionetworks.tool.migration.v4.delta;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sagebionetworks.client.SynapseAdminClient;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
 import org.sagebionetworks.tool.migration.v4.utils.TypeToMigrateMetadata;
@@ -15,23 +24,53 @@ import org.sagebionetworks.tool.migration.v4.utils.TypeToMigrateMetadata;
 public class DeltaFinder {
 
 	static private Log logger = LogFactory.getLog(DeltaFinder.class);
+	
+	/**
+	 * The target number of buckets each range is split into at each level.
+	 */
+	public static final long BUCKETS_PER_LEVEL = 1000L;
 
 	private SynapseAdminClient sourceClient;
 	private SynapseAdminClient destinationClient;
 	TypeToMigrateMetadata typeToMigrateMeta;
 	String salt;
 	Long batchSize;
+	ExecutorService executor;
 	
 	public DeltaFinder(TypeToMigrateMetadata tm,
 			SynapseAdminClient srcClient,
 			SynapseAdminClient destClient,
 			String salt,
 			Long bSize) {
+		this(tm, srcClient, destClient, salt, bSize, null);
+	}
+	
+	/**
+	 * When an executor is provided the update ranges are found level by level:
+	 * each level gets the checksums of all buckets of all pending ranges with one
+	 * call per range, with the source and destination called in parallel. Only the
+	 * buckets that differ are searched at the next level. Without an executor, or
+	 * if the source does not support bucket checksums, ranges are bisected.
+	 * 
+	 * @param tm
+	 * @param srcClient
+	 * @param destClient
+	 * @param salt
+	 * @param bSize
+	 * @param executor Needs at least two threads.
+	 */
+	public DeltaFinder(TypeToMigrateMetadata tm,
+			SynapseAdminClient srcClient,
+			SynapseAdminClient destClient,
+			String salt,
+			Long bSize,
+			ExecutorService executor) {
 		typeToMigrateMeta = tm;
 		sourceClient = srcClient;
 		destinationClient = destClient;
 		this.salt = salt;
 		batchSize = bSize;
+		this.executor = executor;
 	}
 
 	public DeltaRanges findDeltaRanges() throws SynapseException, JSONObjectAdapterException {
@@ -92,7 +131,7 @@ public class DeltaFinder {
 					}
 					
 					// Update ranges
-					updRanges.addAll(findUpdDeltaRanges(sourceClient, destinationClient, typeToMigrateMeta.getType(), salt, updatesMinId, updatesMaxId, batchSize));
+					updRanges.addAll(findUpdDeltaRanges(updatesMinId, updatesMaxId));
 				}
 
 			}
@@ -106,6 +145,119 @@ public class DeltaFinder {
 		return deltas;
 	}
 	
+	/**
+	 * Find the update ranges with bucket checksums when an executor is available,
+	 * otherwise by bisection.
+	 */
+	private List<IdRange> findUpdDeltaRanges(long minId, long maxId) throws SynapseException, JSONObjectAdapterException {
+		if (executor != null) {
+			try {
+				return findUpdDeltaRangesByLevel(typeToMigrateMeta.getType(), minId, maxId);
+			} catch (SynapseException e) {
+				logger.warn("Could not get bucket checksums for " + typeToMigrateMeta.getType() + ", falling back to bisection: " + e.getMessage());
+			}
+		}
+		return findUpdDeltaRanges(sourceClient, destinationClient, typeToMigrateMeta.getType(), salt, minId, maxId, batchSize);
+	}
+	
+	/**
+	 * Compare the bucket checksums of the source and destination one level at a time.
+	 * A bucket that differs and holds at most batchSize ids is an update range, larger
+	 * ones are split into buckets at the next level.
+	 */
+	private List<IdRange> findUpdDeltaRangesByLevel(MigrationType type, long minId, long maxId) throws SynapseException, JSONObjectAdapterException {
+		List<IdRange> l = new LinkedList<IdRange>();
+		List<IdRange> pending = new LinkedList<IdRange>();
+		pending.add(new IdRange(minId, maxId));
+		while (!pending.isEmpty()) {
+			// each client is only used by one thread at a time.
+			Future<List<MigrationRangeChecksumList>> srcFuture = executor.submit(createBucketCallable(sourceClient, type, pending));
+			Future<List<MigrationRangeChecksumList>> destFuture = executor.submit(createBucketCallable(destinationClient, type, pending));
+			List<MigrationRangeChecksumList> srcLevel = getLevel(srcFuture);
+			List<MigrationRangeChecksumList> destLevel = getLevel(destFuture);
+			List<IdRange> next = new LinkedList<IdRange>();
+			for (int i = 0; i < srcLevel.size(); i++) {
+				for (IdRange r : findMismatchedBuckets(srcLevel.get(i), destLevel.get(i))) {
+					if (r.getMaxId() - r.getMinId() < batchSize) {
+						l.add(r);
+					} else {
+						next.add(r);
+					}
+				}
+			}
+			logger.debug("Found " + l.size() + " update ranges and " + next.size() + " ranges to split for " + type);
+			pending = next;
+		}
+		return l;
+	}
+	
+	/**
+	 * The size of each bucket of a range.
+	 */
+	long getBucketSize(IdRange range) {
+		long size = range.getMaxId() - range.getMinId() + 1;
+		long bucketSize = (size + BUCKETS_PER_LEVEL - 1) / BUCKETS_PER_LEVEL;
+		return Math.max(batchSize, bucketSize);
+	}
+	
+	private Callable<List<MigrationRangeChecksumList>> createBucketCallable(final SynapseAdminClient client, final MigrationType type, final List<IdRange> ranges) {
+		return new Callable<List<MigrationRangeChecksumList>>() {
+
+			@Override
+			public List<MigrationRangeChecksumList> call() throws Exception {
+				List<MigrationRangeChecksumList> level = new LinkedList<MigrationRangeChecksumList>();
+				for (IdRange r : ranges) {
+					level.add(client.getBucketChecksumsForIdRange(type, salt, r.getMinId(), r.getMaxId(), getBucketSize(r)));
+				}
+				return level;
+			}
+		};
+	}
+	
+	private static List<MigrationRangeChecksumList> getLevel(Future<List<MigrationRangeChecksumList>> future) throws SynapseException, JSONObjectAdapterException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SynapseException) {
+				throw (SynapseException) cause;
+			}
+			if (cause instanceof JSONObjectAdapterException) {
+				throw (JSONObjectAdapterException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+	
+	/**
+	 * The buckets with a different checksum in the source and destination, including
+	 * buckets that only exist on one side.
+	 */
+	static List<IdRange> findMismatchedBuckets(MigrationRangeChecksumList src, MigrationRangeChecksumList dest) {
+		Map<Long, MigrationRangeChecksum> destBuckets = new HashMap<Long, MigrationRangeChecksum>();
+		for (MigrationRangeChecksum c : dest.getList()) {
+			destBuckets.put(c.getMinid(), c);
+		}
+		List<IdRange> l = new LinkedList<IdRange>();
+		Set<Long> seen = new HashSet<Long>();
+		for (MigrationRangeChecksum c : src.getList()) {
+			seen.add(c.getMinid());
+			MigrationRangeChecksum d = destBuckets.get(c.getMinid());
+			if (d == null || !c.getChecksum().equals(d.getChecksum())) {
+				l.add(new IdRange(c.getMinid(), c.getMaxid()));
+			}
+		}
+		for (MigrationRangeChecksum d : dest.getList()) {
+			if (!seen.contains(d.getMinid())) {
+				l.add(new IdRange(d.getMinid(), d.getMaxid()));
+			}
+		}
+		return l;
+	}
+	
 	private List<IdRange> findUpdDeltaRanges(SynapseAdminClient srcClient, SynapseAdminClient destClient, MigrationType type, String salt, long minId, long maxId, long batchSize) throws SynapseException, JSONObjectAdapterException {
 		List<IdRange> l = new LinkedList<IdRange>();
 		MigrationRangeChecksum srcCrc32 = srcClient.getChecksumForIdRange(type, salt, minId, maxId);
@@ -2,6 +2,10 @@ package org.sagebionetworks.tool.migration.v4.Delta;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,7 +20,9 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 
 import org.sagebionetworks.client.SynapseAdminClient;
+import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
 import org.sagebionetworks.repo.model.migration.MigrationRangeChecksum;
+import org.sagebionetworks.repo.model.migration.MigrationRangeChecksumList;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeChecksum;
 import org.sagebionetworks.tool.migration.v4.delta.DeltaFinder;
@@ -625,4 +631,88 @@ public class DeltaFinderTest {
 		verify(mockSrcClient).getChecksumForIdRange(eq(MigrationType.FILE_HANDLE), eq("salt"), eq(1030L), eq(1039L));
 		verify(mockDestClient).getChecksumForIdRange(eq(MigrationType.FILE_HANDLE), eq("salt"), eq(1030L), eq(1039L));
 	}	
+	
+	@Test
+	public void testUpdRangesByLevel() throws Exception {
+		TypeToMigrateMetadata meta = new TypeToMigrateMetadata();
+		meta.setType(MigrationType.FILE_HANDLE);
+		meta.setSrcMinId(1000L);
+		meta.setSrcMaxId(200999L);
+		meta.setDestMinId(1000L);
+		meta.setDestMaxId(200999L);
+		// first level buckets of 200 ids
+		when(mockSrcClient.getBucketChecksumsForIdRange(MigrationType.FILE_HANDLE, "salt", 1000L, 200999L, 200L)).thenReturn(
+				createBucketList(1000L, 200999L, 200L, createChecksum(1000L, 1199L, "a"), createChecksum(1200L, 1399L, "b")));
+		when(mockDestClient.getBucketChecksumsForIdRange(MigrationType.FILE_HANDLE, "salt", 1000L, 200999L, 200L)).thenReturn(
+				createBucketList(1000L, 200999L, 200L, createChecksum(1000L, 1199L, "a"), createChecksum(1200L, 1399L, "x"), createChecksum(1400L, 1599L, "c")));
+		// second level buckets of 100 ids
+		when(mockSrcClient.getBucketChecksumsForIdRange(MigrationType.FILE_HANDLE, "salt", 1200L, 1399L, 100L)).thenReturn(
+				createBucketList(1200L, 1399L, 100L, createChecksum(1200L, 1299L, "p"), createChecksum(1300L, 1399L, "q")));
+		when(mockDestClient.getBucketChecksumsForIdRange(MigrationType.FILE_HANDLE, "salt", 1200L, 1399L, 100L)).thenReturn(
+				createBucketList(1200L, 1399L, 100L, createChecksum(1200L, 1299L, "z"), createChecksum(1300L, 1399L, "q")));
+		when(mockSrcClient.getBucketChecksumsForIdRange(MigrationType.FILE_HANDLE, "salt", 1400L, 1599L, 100L)).thenReturn(
+				createBucketList(1400L, 1599L, 100L));
+		when(mockDestClient.getBucketChecksumsForIdRange(MigrationType.FILE_HANDLE, "salt", 1400L, 1599L, 100L)).thenReturn(
+				createBucketList(1400L, 1599L, 100L, createChecksum(1500L, 1599L, "d")));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			DeltaFinder finder = new DeltaFinder(meta, mockSrcClient, mockDestClient, "salt", batchSize, executor);
+			DeltaRanges ranges = finder.findDeltaRanges();
+			assertEquals(2, ranges.getUpdRanges().size());
+			assertEquals(1200L, ranges.getUpdRanges().get(0).getMinId());
+			assertEquals(1299L, ranges.getUpdRanges().get(0).getMaxId());
+			assertEquals(1500L, ranges.getUpdRanges().get(1).getMinId());
+			assertEquals(1599L, ranges.getUpdRanges().get(1).getMaxId());
+			assertEquals(0, ranges.getInsRanges().size());
+			assertEquals(0, ranges.getDelRanges().size());
+		} finally {
+			executor.shutdown();
+		}
+		verify(mockSrcClient, never()).getChecksumForIdRange(any(MigrationType.class), anyString(), anyLong(), anyLong());
+	}
+	
+	@Test
+	public void testUpdRangesByLevelFallback() throws Exception {
+		TypeToMigrateMetadata meta = new TypeToMigrateMetadata();
+		meta.setType(MigrationType.FILE_HANDLE);
+		meta.setSrcMinId(1000L);
+		meta.setSrcMaxId(2344L);
+		meta.setDestMinId(1000L);
+		meta.setDestMaxId(2344L);
+		// the source does not support bucket checksums.
+		when(mockSrcClient.getBucketChecksumsForIdRange(any(MigrationType.class), anyString(), anyLong(), anyLong(), anyLong())).thenThrow(new SynapseNotFoundException());
+		when(mockDestClient.getBucketChecksumsForIdRange(any(MigrationType.class), anyString(), anyLong(), anyLong(), anyLong())).thenReturn(
+				createBucketList(1000L, 2344L, 5000L));
+		MigrationRangeChecksum expectedChecksum = createChecksum(1000L, 2344L, "a");
+		when(mockSrcClient.getChecksumForIdRange(eq(MigrationType.FILE_HANDLE), eq("salt"), eq(1000L), eq(2344L))).thenReturn(expectedChecksum);
+		when(mockDestClient.getChecksumForIdRange(eq(MigrationType.FILE_HANDLE), eq("salt"), eq(1000L), eq(2344L))).thenReturn(expectedChecksum);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			DeltaFinder finder = new DeltaFinder(meta, mockSrcClient, mockDestClient, "salt", 5000L, executor);
+			DeltaRanges ranges = finder.findDeltaRanges();
+			assertEquals(0, ranges.getUpdRanges().size());
+		} finally {
+			executor.shutdown();
+		}
+		verify(mockSrcClient).getChecksumForIdRange(eq(MigrationType.FILE_HANDLE), eq("salt"), eq(1000L), eq(2344L));
+	}
+	
+	private static MigrationRangeChecksum createChecksum(long minId, long maxId, String checksum) {
+		MigrationRangeChecksum c = new MigrationRangeChecksum();
+		c.setType(MigrationType.FILE_HANDLE);
+		c.setMinid(minId);
+		c.setMaxid(maxId);
+		c.setChecksum(checksum);
+		return c;
+	}
+	
+	private static MigrationRangeChecksumList createBucketList(long minId, long maxId, long bucketSize, MigrationRangeChecksum... buckets) {
+		MigrationRangeChecksumList l = new MigrationRangeChecksumList();
+		l.setType(MigrationType.FILE_HANDLE);
+		l.setMinid(minId);
+		l.setMaxid(maxId);
+		l.setBucketSize(bucketSize);
+		l.setList(Arrays.asList(buckets));
+		return l;
+	}
 }